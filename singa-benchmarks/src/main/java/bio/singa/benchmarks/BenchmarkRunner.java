@@ -0,0 +1,40 @@
+package bio.singa.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks of the simulation engine. The runner accepts the usual JMH command line options (e.g. a regular
+ * expression selecting benchmarks or {@code -p numberOfNodes=100}) and always records allocation rates with the
+ * {@link GCProfiler}. Unless specified otherwise, the results are written to {@code benchmarks.json}, such that runs
+ * before and after a change can be compared.
+ * <pre>
+ *  mvn -P benchmarks package -DskipTests
+ *  java -jar ../singa-benchmarks/target/benchmarks.jar Diffusion </pre>
+ *
+ * @author cl
+ */
+public class BenchmarkRunner {
+
+    private static final String DEFAULT_RESULT_FILE = "benchmarks.json";
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        CommandLineOptions commandLineOptions = new CommandLineOptions(args);
+        OptionsBuilder optionsBuilder = new OptionsBuilder();
+        optionsBuilder.parent(commandLineOptions)
+                .addProfiler(GCProfiler.class);
+        if (!commandLineOptions.getResult().hasValue()) {
+            optionsBuilder.result(DEFAULT_RESULT_FILE)
+                    .resultFormat(ResultFormatType.JSON);
+        }
+        Options options = optionsBuilder.build();
+        new Runner(options).run();
+    }
+
+}
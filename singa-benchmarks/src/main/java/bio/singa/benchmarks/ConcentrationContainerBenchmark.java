@@ -0,0 +1,106 @@
+package bio.singa.benchmarks;
+
+import bio.singa.simulation.entities.ChemicalEntity;
+import bio.singa.simulation.entities.SimpleEntity;
+import bio.singa.simulation.model.sections.ConcentrationContainer;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static bio.singa.simulation.model.sections.CellSubsections.*;
+import static bio.singa.simulation.model.sections.CellTopology.*;
+
+/**
+ * Micro benchmarks of the {@link ConcentrationContainer}, that is accessed by every module for every updatable in
+ * every epoch. The container of a membrane node is modelled with an inner, a membrane and an outer subsection, each
+ * containing the given number of entities. Random accesses are determined in advance, such that only the access of the
+ * container is measured. Together with the gc profiler ({@code -prof gc}), {@link #fullCopy()} shows the allocations
+ * that are caused by copying containers, e.g. for half step calculations.
+ *
+ * @author cl
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConcentrationContainerBenchmark {
+
+    private static final int NUMBER_OF_ACCESSES = 1024;
+
+    /**
+     * The number of entities in each subsection.
+     */
+    @Param({"4", "32"})
+    private int numberOfEntities;
+
+    private ConcentrationContainer container;
+
+    private ChemicalEntity[] accessedEntities;
+
+    private double[] concentrations;
+
+    private int access;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        container = new ConcentrationContainer();
+        container.initializeSubsection(CYTOPLASM, INNER);
+        container.initializeSubsection(CELL_OUTER_MEMBRANE, MEMBRANE);
+        container.initializeSubsection(EXTRACELLULAR_REGION, OUTER);
+        ChemicalEntity[] entities = new ChemicalEntity[numberOfEntities];
+        Random random = new Random(42);
+        for (int entityIndex = 0; entityIndex < numberOfEntities; entityIndex++) {
+            entities[entityIndex] = SimpleEntity.create("E" + entityIndex).build();
+            container.set(INNER, entities[entityIndex], random.nextDouble());
+            container.set(MEMBRANE, entities[entityIndex], random.nextDouble());
+            container.set(OUTER, entities[entityIndex], random.nextDouble());
+        }
+        accessedEntities = new ChemicalEntity[NUMBER_OF_ACCESSES];
+        concentrations = new double[NUMBER_OF_ACCESSES];
+        for (int accessIndex = 0; accessIndex < NUMBER_OF_ACCESSES; accessIndex++) {
+            accessedEntities[accessIndex] = entities[random.nextInt(numberOfEntities)];
+            concentrations[accessIndex] = random.nextDouble();
+        }
+    }
+
+    private int nextAccess() {
+        access = (access + 1) & (NUMBER_OF_ACCESSES - 1);
+        return access;
+    }
+
+    @Benchmark
+    public double getByTopology() {
+        return container.get(INNER, accessedEntities[nextAccess()]);
+    }
+
+    @Benchmark
+    public double getBySubsection() {
+        return container.get(EXTRACELLULAR_REGION, accessedEntities[nextAccess()]);
+    }
+
+    @Benchmark
+    public void setByTopology() {
+        int index = nextAccess();
+        container.set(MEMBRANE, accessedEntities[index], concentrations[index]);
+    }
+
+    @Benchmark
+    public void setBySubsection() {
+        int index = nextAccess();
+        container.set(CYTOPLASM, accessedEntities[index], concentrations[index]);
+    }
+
+    @Benchmark
+    public ConcentrationContainer fullCopy() {
+        return container.fullCopy();
+    }
+
+    @Benchmark
+    public ConcentrationContainer emptyCopy() {
+        return container.emptyCopy();
+    }
+
+}
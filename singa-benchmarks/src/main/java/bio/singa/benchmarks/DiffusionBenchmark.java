@@ -0,0 +1,95 @@
+package bio.singa.benchmarks;
+
+import bio.singa.features.parameters.Environment;
+import bio.singa.features.quantities.ConcentrationDiffusivity;
+import bio.singa.features.units.UnitRegistry;
+import bio.singa.simulation.entities.ChemicalEntity;
+import bio.singa.simulation.entities.SimpleEntity;
+import bio.singa.simulation.model.graphs.AutomatonGraph;
+import bio.singa.simulation.model.graphs.AutomatonGraphs;
+import bio.singa.simulation.model.graphs.AutomatonNode;
+import bio.singa.simulation.model.modules.concentration.imlementations.transport.Diffusion;
+import bio.singa.simulation.model.simulation.Simulation;
+import org.openjdk.jmh.annotations.*;
+import tech.units.indriya.quantity.Quantities;
+
+import javax.measure.Quantity;
+import javax.measure.quantity.Length;
+import java.util.concurrent.TimeUnit;
+
+import static bio.singa.features.quantities.Diffusivity.SQUARE_CENTIMETRE_PER_SECOND;
+import static bio.singa.features.units.UnitProvider.MOLE_PER_LITRE;
+import static bio.singa.simulation.model.sections.CellSubsections.EXTRACELLULAR_REGION;
+import static tech.units.indriya.unit.MetricPrefix.MICRO;
+import static tech.units.indriya.unit.Units.METRE;
+
+/**
+ * Measures the calculation of epochs of a simulation, that only contains the diffusion of small molecules on a
+ * rectangular grid of n x n nodes. Diffusion is the most common module and dominates the calculation time of most
+ * simulations. The left column of nodes starts with a higher concentration, such that the time step is adapted
+ * during the benchmark, as it would in a real simulation. The simulation is set up again for each iteration, such
+ * that every iteration measures the same epochs.
+ *
+ * @author cl
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DiffusionBenchmark {
+
+    /**
+     * The number of nodes in each dimension of the grid.
+     */
+    @Param({"10", "50", "100"})
+    private int numberOfNodes;
+
+    /**
+     * The number of workers calculating modules (0 uses all available processors).
+     */
+    @Param({"1", "0"})
+    private int parallelism;
+
+    private Simulation simulation;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        UnitRegistry.reinitialize();
+        Environment.reset();
+        Quantity<Length> systemExtend = Quantities.getQuantity(numberOfNodes, MICRO(METRE));
+        Environment.setSystemExtend(systemExtend);
+        Environment.setSimulationExtend(1000);
+        Environment.setNodeSpacingToDiameter(systemExtend, numberOfNodes);
+        AutomatonGraph graph = AutomatonGraphs.createRectangularAutomatonGraph(numberOfNodes, numberOfNodes);
+        simulation = new Simulation();
+        simulation.setGraph(graph);
+        ChemicalEntity entity = SimpleEntity.create("A")
+                .assignFeature(ConcentrationDiffusivity.of(1.0e-8, SQUARE_CENTIMETRE_PER_SECOND).build())
+                .small()
+                .build();
+        for (AutomatonNode node : graph.getNodes()) {
+            double concentration = node.getIdentifier().getColumn() == 0 ? 1.0 : 0.1;
+            node.getConcentrationContainer().initialize(EXTRACELLULAR_REGION, entity, Quantities.getQuantity(concentration, MOLE_PER_LITRE));
+        }
+        Diffusion.inSimulation(simulation)
+                .forEntity(entity)
+                .forAllSections()
+                .build();
+        simulation.getScheduler().setParallelism(parallelism);
+        simulation.initialize();
+    }
+
+    @Benchmark
+    public long nextEpoch() {
+        simulation.nextEpoch();
+        return simulation.getEpoch();
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+        simulation.getScheduler().shutdownExecutorService();
+    }
+
+}
@@ -0,0 +1,187 @@
+package bio.singa.benchmarks;
+
+import bio.singa.simulation.entities.BindingSite;
+import bio.singa.simulation.entities.ChemicalEntity;
+import bio.singa.simulation.entities.SimpleEntity;
+import bio.singa.simulation.reactions.ReactionNetworkGenerator;
+import bio.singa.simulation.reactions.reactors.ReactionChainBuilder;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+import static bio.singa.simulation.reactions.conditions.CandidateConditionBuilder.*;
+
+/**
+ * Measures the generation of a rule based reaction network by the {@link ReactionNetworkGenerator}. The network
+ * describes the activation of protein kinase A (binding of the regulatory subunit to AKAP, cAMP binding,
+ * autophosphorylation and release of the catalytic subunit) and the phosphorylation of its substrates, that are
+ * dephosphorylated by PP2B. The generator has to enumerate all complexes that can be formed, therefore the
+ * generation scales with the number of reachable complexes rather than the number of rules.
+ *
+ * @author cl
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReactionNetworkBenchmark {
+
+    private ChemicalEntity akap;
+    private ChemicalEntity pkar;
+    private ChemicalEntity pkac;
+    private ChemicalEntity aqp;
+    private ChemicalEntity pde;
+    private ChemicalEntity pp2b;
+    private ChemicalEntity p;
+    private ChemicalEntity atp;
+    private ChemicalEntity camp;
+
+    private BindingSite camp1;
+    private BindingSite camp2;
+    private BindingSite pkarPSite;
+    private BindingSite aqpPSite;
+    private BindingSite pdePSite;
+    private BindingSite pkacSubstrate;
+    private BindingSite pp2bSubstrate;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        akap = SimpleEntity.create("AKAP").membraneBound().build();
+        pkar = SimpleEntity.create("PKAR").build();
+        pkac = SimpleEntity.create("PKAC").build();
+        aqp = SimpleEntity.create("AQP2").build();
+        pde = SimpleEntity.create("PDE").build();
+        pp2b = SimpleEntity.create("PP2B").build();
+        p = SimpleEntity.create("P").small().build();
+        atp = SimpleEntity.create("ATP").small().build();
+        camp = SimpleEntity.create("CAMP").small().build();
+        camp1 = BindingSite.createNamed("pkar-camp1");
+        camp2 = BindingSite.createNamed("pkar-camp2");
+        pkarPSite = BindingSite.createNamed("pkar-s96");
+        aqpPSite = BindingSite.createNamed("aqp2-s256");
+        pdePSite = BindingSite.createNamed("pde4-s54");
+        pkacSubstrate = BindingSite.createNamed("pkac-substrate");
+        pp2bSubstrate = BindingSite.createNamed("pp2b-substrate");
+    }
+
+    @Benchmark
+    public ReactionNetworkGenerator generatePkaNetwork() {
+        // reaction chains keep the elements they generated, therefore the network is defined for every invocation
+        ReactionNetworkGenerator generator = new ReactionNetworkGenerator();
+        generator.addPreReaction(ReactionChainBuilder.bind(pkar)
+                .to(akap)
+                .identifier("pka activation: akap pkar binding")
+                .build());
+        generator.add(ReactionChainBuilder.bind(pkac)
+                .primaryCondition(hasUnoccupiedBindingSite(pkacSubstrate))
+                .to(pkar)
+                .secondaryCondition(hasNoneOfEntity(p))
+                .identifier("pka activation: pkar pkac binding")
+                .build());
+        generator.add(ReactionChainBuilder.bind(camp1, camp)
+                .to(pkar)
+                .identifier("pka activation: pkar camp pocket a binding")
+                .build());
+        generator.add(ReactionChainBuilder.bind(camp2, camp)
+                .to(pkar)
+                .secondaryCondition(hasOccupiedBindingSite(camp1))
+                .secondaryCondition(hasNoneOfEntity(pp2b))
+                .identifier("pka activation: pkar camp pocket b binding")
+                .considerInversion()
+                .build());
+        generator.add(ReactionChainBuilder.bind(atp)
+                .to(pkac)
+                .secondaryCondition(hasNoneOfEntity(pp2b))
+                .secondaryCondition(hasNoneOfEntity(pkar))
+                .identifier("pka activation: pkac ATP binding")
+                .build());
+        generator.add(ReactionChainBuilder.bind(atp)
+                .to(pkac)
+                .secondaryCondition(hasNumberOfEntity(pkar, 1))
+                .secondaryCondition(hasOccupiedBindingSite(camp1))
+                .secondaryCondition(hasOccupiedBindingSite(camp2))
+                .identifier("pka activation: pkac auophosphorylation ATP binding")
+                .build());
+        generator.add(ReactionChainBuilder.add(pkarPSite, p)
+                .to(pkar)
+                .condition(hasNumberOfEntity(pkac, 1))
+                .condition(hasNumberOfEntity(atp, 1))
+                .and()
+                .remove(atp)
+                .from(pkac)
+                .and()
+                .release(pkac)
+                .from(pkar)
+                .identifier("pka activation: pkac pkar autophosphorylation")
+                .build());
+        generator.add(ReactionChainBuilder.bind(pkacSubstrate, aqp)
+                .primaryCondition(hasUnoccupiedBindingSite(aqpPSite))
+                .to(pkac)
+                .secondaryCondition(hasNumberOfEntity(atp, 1))
+                .secondaryCondition(hasNoneOfEntity(pkar))
+                .identifier("pka phosphorylation: aqp binding")
+                .build());
+        generator.add(ReactionChainBuilder.bind(pkacSubstrate, pde)
+                .primaryCondition(hasUnoccupiedBindingSite(pdePSite))
+                .to(pkac)
+                .secondaryCondition(hasNumberOfEntity(atp, 1))
+                .secondaryCondition(hasNoneOfEntity(pkar))
+                .identifier("pka phosphorylation: pde binding")
+                .build());
+        generator.add(ReactionChainBuilder.add(pdePSite, p)
+                .to(pde)
+                .condition(hasNumberOfEntity(pkac, 1))
+                .and()
+                .remove(atp)
+                .from(pkac)
+                .and()
+                .release(pkacSubstrate, pde)
+                .from(pkac)
+                .identifier("pka activation: pde phosphorylation")
+                .build());
+        generator.add(ReactionChainBuilder.add(aqpPSite, p)
+                .to(aqp)
+                .condition(hasNumberOfEntity(pkac, 1))
+                .and()
+                .remove(atp)
+                .from(pkac)
+                .and()
+                .release(pkacSubstrate, aqp)
+                .from(pkac)
+                .identifier("pka activation: aqp2 phosphorylation")
+                .build());
+        generator.add(ReactionChainBuilder.bind(pp2bSubstrate, pde)
+                .primaryCondition(hasOccupiedBindingSite(pdePSite))
+                .to(pp2b)
+                .secondaryCondition(hasNoMoreThanNumberOfPartners(pp2b, 0))
+                .identifier("pp2b dephosphorylation: pdep binding")
+                .build());
+        generator.add(ReactionChainBuilder.remove(pdePSite, p)
+                .from(pde)
+                .condition(hasNumberOfEntity(pp2b, 1))
+                .and()
+                .release(pp2bSubstrate, pp2b)
+                .from(pde)
+                .identifier("pp2b dephosphorylation: pdep dephosphorylation")
+                .build());
+        generator.add(ReactionChainBuilder.bind(pp2bSubstrate, aqp)
+                .primaryCondition(hasOccupiedBindingSite(aqpPSite))
+                .to(pp2b)
+                .secondaryCondition(hasNoMoreThanNumberOfPartners(pp2b, 0))
+                .identifier("pp2b dephosphorylation: aqp binding")
+                .build());
+        generator.add(ReactionChainBuilder.remove(aqpPSite, p)
+                .from(aqp)
+                .condition(hasNumberOfEntity(pp2b, 1))
+                .and()
+                .release(pp2bSubstrate, pp2b)
+                .from(aqp)
+                .identifier("pp2b dephosphorylation: aqp dephosphorylation")
+                .build());
+        generator.generate();
+        return generator;
+    }
+
+}
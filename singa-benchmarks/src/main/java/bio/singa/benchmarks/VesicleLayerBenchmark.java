@@ -0,0 +1,105 @@
+package bio.singa.benchmarks;
+
+import bio.singa.features.parameters.Environment;
+import bio.singa.features.units.UnitRegistry;
+import bio.singa.mathematics.geometry.faces.Rectangle;
+import bio.singa.mathematics.vectors.Vector2D;
+import bio.singa.simulation.model.agents.pointlike.Vesicle;
+import bio.singa.simulation.model.agents.pointlike.VesicleLayer;
+import bio.singa.simulation.model.graphs.AutomatonGraph;
+import bio.singa.simulation.model.graphs.AutomatonGraphs;
+import bio.singa.simulation.model.modules.displacement.implementations.VesicleCytoplasmDiffusion;
+import bio.singa.simulation.model.simulation.Simulation;
+import org.openjdk.jmh.annotations.*;
+import tech.units.indriya.quantity.Quantities;
+
+import javax.measure.Quantity;
+import javax.measure.quantity.Length;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static bio.singa.simulation.model.agents.pointlike.VesicleStateRegistry.UNATTACHED;
+import static tech.units.indriya.unit.MetricPrefix.MICRO;
+import static tech.units.indriya.unit.MetricPrefix.NANO;
+import static tech.units.indriya.unit.Units.METRE;
+import static tech.units.indriya.unit.Units.SECOND;
+
+/**
+ * Measures simulations dominated by vesicles, that diffuse in the cytoplasm of a cell, modelled by a rectangular grid
+ * of nodes. Besides the displacement of the vesicles, each epoch checks for collisions between vesicles and associates
+ * every vesicle with the nodes it overlaps, which dominates the calculation time for large numbers of vesicles.
+ * {@link #associateVesicles()} measures the association of nodes alone. The simulation is set up again for each
+ * iteration, such that every iteration starts from the same arrangement of vesicles.
+ *
+ * @author cl
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class VesicleLayerBenchmark {
+
+    private static final int NUMBER_OF_NODES = 20;
+
+    /**
+     * The number of vesicles.
+     */
+    @Param({"100", "1000", "5000"})
+    private int numberOfVesicles;
+
+    private Simulation simulation;
+
+    private VesicleLayer vesicleLayer;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        UnitRegistry.reinitialize();
+        Environment.reset();
+        Quantity<Length> systemExtend = Quantities.getQuantity(20.0, MICRO(METRE));
+        Environment.setSystemExtend(systemExtend);
+        double simulationExtend = 1000.0;
+        Environment.setSimulationExtend(simulationExtend);
+        Environment.setNodeSpacingToDiameter(systemExtend, NUMBER_OF_NODES);
+        UnitRegistry.setTime(Quantities.getQuantity(1.0e-3, SECOND));
+        simulation = new Simulation();
+        Rectangle simulationRegion = new Rectangle(simulationExtend, simulationExtend);
+        simulation.setSimulationRegion(simulationRegion);
+        AutomatonGraph graph = AutomatonGraphs.createRectangularAutomatonGraph(NUMBER_OF_NODES, NUMBER_OF_NODES);
+        simulation.setGraph(graph);
+        // randomly placed vesicles
+        vesicleLayer = new VesicleLayer(simulation);
+        vesicleLayer.setSimulationRegion(simulationRegion);
+        Random random = new Random(42);
+        for (int vesicleIndex = 0; vesicleIndex < numberOfVesicles; vesicleIndex++) {
+            Vector2D position = new Vector2D(random.nextDouble() * simulationExtend, random.nextDouble() * simulationExtend);
+            Vesicle vesicle = new Vesicle(position, Quantities.getQuantity(30.0 + random.nextDouble() * 40.0, NANO(METRE)));
+            vesicle.setState(UNATTACHED);
+            vesicleLayer.addVesicle(vesicle);
+        }
+        simulation.setVesicleLayer(vesicleLayer);
+        VesicleCytoplasmDiffusion vesicleDiffusion = new VesicleCytoplasmDiffusion();
+        simulation.addModule(vesicleDiffusion);
+        simulation.getScheduler().setParallelism(1);
+        simulation.initialize();
+    }
+
+    @Benchmark
+    public long nextEpoch() {
+        simulation.nextEpoch();
+        return simulation.getEpoch();
+    }
+
+    @Benchmark
+    public VesicleLayer associateVesicles() {
+        vesicleLayer.associateVesicles();
+        return vesicleLayer;
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+        simulation.getScheduler().shutdownExecutorService();
+    }
+
+}
@@ -1,5 +1,6 @@
 package bio.singa.features.model;
 
+import bio.singa.features.parameters.SimulationContext;
 import bio.singa.features.quantities.MembraneDiffusivity;
 import tech.units.indriya.ComparableQuantity;
 
@@ -8,12 +9,13 @@ import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
+ * The feature registry keeps track of all features, assigns their identifiers and rescales scalable features if the
+ * time step or space scale changes. Each {@link SimulationContext} has its own registry.
+ *
  * @author cl
  */
 public class FeatureRegistry {
 
-    private static FeatureRegistry instance = getInstance();
-
     private AtomicInteger identifierGenerator;
     private List<QualitativeFeature<?>> qualitativeFeatures;
     private List<AbstractQuantitativeFeature<?>> quantitativeFeatures;
@@ -26,17 +28,17 @@ public class FeatureRegistry {
         scalableQuantitativeFeatures = new ArrayList<>();
     }
 
+    /**
+     * Returns the feature registry of the current {@link SimulationContext}.
+     *
+     * @return The feature registry.
+     */
     private static FeatureRegistry getInstance() {
-        if (instance == null) {
-            reinitialize();
-        }
-        return instance;
+        return SimulationContext.current().getComponent(FeatureRegistry.class, FeatureRegistry::new);
     }
 
     public static void reinitialize() {
-        synchronized (FeatureRegistry.class) {
-            instance = new FeatureRegistry();
-        }
+        SimulationContext.current().setComponent(FeatureRegistry.class, new FeatureRegistry());
     }
 
     public static void addQuantitativeFeature(AbstractQuantitativeFeature<?> quantitativeFeature) {
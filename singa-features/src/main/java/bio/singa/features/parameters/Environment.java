@@ -44,10 +44,6 @@ public class Environment {
      */
     public static final double DEFAULT_SIMULATION_EXTEND = 100;
     private static final Logger logger = LoggerFactory.getLogger(Environment.class);
-    /**
-     * The singleton instance.
-     */
-    private static Environment instance;
 
     /**
      * The global temperature of the simulation system.
@@ -100,17 +96,17 @@ public class Environment {
         systemScale = systemExtend.divide(simulationExtend);
     }
 
+    /**
+     * Returns the environment of the current {@link SimulationContext}.
+     *
+     * @return The environment.
+     */
     private static Environment getInstance() {
-        if (instance == null) {
-            synchronized (Environment.class) {
-                instance = new Environment();
-            }
-        }
-        return instance;
+        return SimulationContext.current().getComponent(Environment.class, Environment::new);
     }
 
     public static void reset() {
-        instance = new Environment();
+        SimulationContext.current().setComponent(Environment.class, new Environment());
     }
 
     public static Quantity<MolarConcentration> emptyConcentration() {
@@ -0,0 +1,249 @@
+package bio.singa.features.parameters;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * The simulation context holds the state that is shared by all components of a single simulation, such as the
+ * {@link bio.singa.features.units.UnitRegistry}, the {@link Environment}, the
+ * {@link bio.singa.features.model.FeatureRegistry} and the time step manager of the simulation. The static accessors
+ * of those classes resolve their state from the context that is currently bound to the calling thread, or from the
+ * default context if no context is bound. Therefore multiple simulations can be calculated concurrently, as long as
+ * each simulation is set up and calculated in its own context.
+ * <pre>
+ *  SimulationContext context = new SimulationContext("sweep 1");
+ *  context.run(() -&gt; {
+ *      UnitRegistry.setTime(Quantities.getQuantity(10, MICRO(SECOND)));
+ *      Simulation simulation = setupSimulation();
+ *      ...
+ *  }); </pre>
+ * Features should be created in the context of the simulation that uses them, since their scaled values are managed by
+ * the feature registry of the context they were created in.
+ * <p>
+ * Threads that access the state without a bound context resolve the default context. Once any other context has been
+ * bound, such threads (e.g. workers of the common pool) most likely resolve the default context by accident instead of
+ * the context of their simulation. Those accesses are logged once per thread, or fail if
+ * {@link #setFailOnUnboundThreads(boolean)} is enabled. Threads that use the default context intentionally, while
+ * other contexts are in use, bind it explicitly (e.g. {@code SimulationContext.getDefault().run(...)}).
+ *
+ * @author cl
+ */
+public class SimulationContext {
+
+    /**
+     * The context that is used if no context is bound to the current thread.
+     */
+    private static final SimulationContext DEFAULT_CONTEXT = new SimulationContext("default");
+
+    /**
+     * The context bound to the current thread.
+     */
+    private static final ThreadLocal<SimulationContext> boundContext = new ThreadLocal<>();
+
+    /**
+     * The logger.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(SimulationContext.class);
+
+    /**
+     * Threads that already accessed the default context without a bound context.
+     */
+    private static final ThreadLocal<Boolean> reportedThread = ThreadLocal.withInitial(() -> Boolean.FALSE);
+
+    /**
+     * True if any context other than the default context has been bound to a thread.
+     */
+    private static volatile boolean contextBound;
+
+    /**
+     * True if unbound threads should fail to resolve the default context.
+     */
+    private static volatile boolean failOnUnboundThreads;
+
+    /**
+     * A name to identify this context.
+     */
+    private final String name;
+
+    /**
+     * The components managed by this context.
+     */
+    private final Map<Class<?>, Object> components;
+
+    /**
+     * Creates a new empty context.
+     *
+     * @param name A name to identify the context.
+     */
+    public SimulationContext(String name) {
+        this.name = name;
+        components = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Returns the context that is bound to the current thread, or the default context if no context is bound.
+     *
+     * @return The current context.
+     * @throws IllegalStateException if no context is bound to the current thread, after any other context has been bound
+     * and {@link #setFailOnUnboundThreads(boolean)} is enabled.
+     */
+    public static SimulationContext current() {
+        SimulationContext context = boundContext.get();
+        if (context == null) {
+            if (contextBound) {
+                reportUnboundThread();
+            }
+            return DEFAULT_CONTEXT;
+        }
+        return context;
+    }
+
+    /**
+     * Reports an access of the default context from a thread without bound context.
+     */
+    private static void reportUnboundThread() {
+        Thread thread = Thread.currentThread();
+        if (failOnUnboundThreads) {
+            throw new IllegalStateException("No simulation context is bound to the thread " + thread.getName() + ".");
+        }
+        if (!reportedThread.get()) {
+            reportedThread.set(Boolean.TRUE);
+            logger.warn("No simulation context is bound to the thread {}, the default context is used instead.", thread.getName());
+        }
+    }
+
+    /**
+     * Determines whether threads should fail to resolve the default context, if no context is bound to them, but any
+     * other context has been bound before. By default such accesses are only logged.
+     *
+     * @param failOnUnboundThreads True if unbound threads should fail.
+     */
+    public static void setFailOnUnboundThreads(boolean failOnUnboundThreads) {
+        SimulationContext.failOnUnboundThreads = failOnUnboundThreads;
+    }
+
+    /**
+     * Returns the default context.
+     *
+     * @return The default context.
+     */
+    public static SimulationContext getDefault() {
+        return DEFAULT_CONTEXT;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the component of the given type, or null if no such component is registered.
+     *
+     * @param componentType The type of the component.
+     * @param <ComponentType> The type of the component.
+     * @return The component.
+     */
+    public <ComponentType> ComponentType getComponent(Class<ComponentType> componentType) {
+        return componentType.cast(components.get(componentType));
+    }
+
+    /**
+     * Returns the component of the given type. If no such component is registered, it is created using the given
+     * factory.
+     *
+     * @param componentType The type of the component.
+     * @param factory The factory creating the component.
+     * @param <ComponentType> The type of the component.
+     * @return The component.
+     */
+    public <ComponentType> ComponentType getComponent(Class<ComponentType> componentType, Supplier<ComponentType> factory) {
+        Object component = components.get(componentType);
+        if (component == null) {
+            // components may request other components during creation, so do not create them in computeIfAbsent
+            Object created = factory.get();
+            component = components.putIfAbsent(componentType, created);
+            if (component == null) {
+                component = created;
+            }
+        }
+        return componentType.cast(component);
+    }
+
+    /**
+     * Registers the component for the given type, replacing any previous component of this type.
+     *
+     * @param componentType The type of the component.
+     * @param component The component.
+     * @param <ComponentType> The type of the component.
+     */
+    public <ComponentType> void setComponent(Class<ComponentType> componentType, ComponentType component) {
+        components.put(componentType, component);
+    }
+
+    /**
+     * Binds this context to the current thread and returns the previously bound context. The previous context should be
+     * restored with {@link #release(SimulationContext)}.
+     *
+     * @return The previously bound context, or null if no context was bound.
+     */
+    public SimulationContext bind() {
+        SimulationContext previous = boundContext.get();
+        boundContext.set(this);
+        if (this != DEFAULT_CONTEXT) {
+            contextBound = true;
+        }
+        return previous;
+    }
+
+    /**
+     * Restores the given context that has been returned by {@link #bind()}.
+     *
+     * @param previous The previously bound context.
+     */
+    public static void release(SimulationContext previous) {
+        if (previous == null) {
+            boundContext.remove();
+        } else {
+            boundContext.set(previous);
+        }
+    }
+
+    /**
+     * Runs the given runnable with this context bound to the current thread.
+     *
+     * @param runnable The runnable.
+     */
+    public void run(Runnable runnable) {
+        SimulationContext previous = bind();
+        try {
+            runnable.run();
+        } finally {
+            release(previous);
+        }
+    }
+
+    /**
+     * Calls the given supplier with this context bound to the current thread.
+     *
+     * @param supplier The supplier.
+     * @param <ResultType> The type of the result.
+     * @return The result of the supplier.
+     */
+    public <ResultType> ResultType call(Supplier<ResultType> supplier) {
+        SimulationContext previous = bind();
+        try {
+            return supplier.get();
+        } finally {
+            release(previous);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "SimulationContext " + name;
+    }
+
+}
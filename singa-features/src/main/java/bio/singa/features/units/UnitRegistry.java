@@ -2,6 +2,7 @@ package bio.singa.features.units;
 
 import bio.singa.features.model.FeatureRegistry;
 import bio.singa.features.parameters.Environment;
+import bio.singa.features.parameters.SimulationContext;
 import bio.singa.features.quantities.MolarConcentration;
 import tech.units.indriya.quantity.Quantities;
 import tech.units.indriya.unit.TransformedUnit;
@@ -50,7 +51,6 @@ public class UnitRegistry {
     public static final Unit<AmountOfSubstance> DISPLAY_AMOUNT = MICRO(MOLE);
     public static final Unit<MolarConcentration> DISPLAY_CONCENTRATION = MICRO_MOLE_PER_LITRE;
     public static final Unit<Length> DISPLAY_LENGTH = MICRO(METRE);
-    private static UnitRegistry instance = getInstance();
     private Quantity<Length> space;
     private Quantity<Time> time;
     private Map<Dimension, Unit> defaultUnits;
@@ -77,17 +77,17 @@ public class UnitRegistry {
         displayUnits.put(MOLE_PER_LITRE.getDimension(), DISPLAY_CONCENTRATION);
     }
 
+    /**
+     * Returns the unit registry of the current {@link SimulationContext}.
+     *
+     * @return The unit registry.
+     */
     private static UnitRegistry getInstance() {
-        if (instance == null) {
-            reinitialize();
-        }
-        return instance;
+        return SimulationContext.current().getComponent(UnitRegistry.class, UnitRegistry::new);
     }
 
     public static void reinitialize() {
-        synchronized (UnitRegistry.class) {
-            instance = new UnitRegistry();
-        }
+        SimulationContext.current().setComponent(UnitRegistry.class, new UnitRegistry());
     }
 
     public static Quantity<Length> getSpace() {
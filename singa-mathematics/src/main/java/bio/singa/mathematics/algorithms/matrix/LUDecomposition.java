@@ -9,10 +9,159 @@ import java.util.Collections;
 import java.util.List;
 
 /**
+ * The LU decomposition factorizes a square matrix {@code A} into {@code P * A = L * U}, where {@code P} is a row
+ * permutation, {@code L} is a unit lower triangular matrix and {@code U} is an upper triangular matrix. Once
+ * decomposed, linear systems {@code A * x = b} can be solved for any number of right hand sides by forward and
+ * backward substitution.
+ * <p>
+ * The methods working on primitive arrays decompose the matrix in place and are meant to be used for many small
+ * systems, where creating {@link Matrix} objects would dominate the cost.
+ *
  * @author cl
  */
 public class LUDecomposition {
 
+    /**
+     * Decomposes the given square matrix in place, using partial pivoting. Afterwards, the strictly lower triangle
+     * contains the factors of {@code L} (the unit diagonal is not stored) and the upper triangle contains {@code U}.
+     *
+     * @param values The matrix, that is overwritten with its decomposition.
+     * @return The row permutation, the row at index i of the decomposition originates from the row permutation[i].
+     * @throws IllegalStateException if the matrix is singular.
+     */
+    public static int[] decomposeInPlace(double[][] values) {
+        int dimension = values.length;
+        for (double[] row : values) {
+            if (row.length != dimension) {
+                throw new IllegalArgumentException("Only square matrices can be decomposed.");
+            }
+        }
+        int[] permutation = new int[dimension];
+        decomposeInPlace(values, dimension, permutation);
+        return permutation;
+    }
+
+    /**
+     * Decomposes the leading square block of the given matrix in place, using partial pivoting (see
+     * {@link #decomposeInPlace(double[][])}). Only the first dimension rows and columns are accessed, such that the
+     * arrays can be reused for systems of varying dimension.
+     *
+     * @param values The matrix, whose leading block is overwritten with its decomposition.
+     * @param dimension The dimension of the leading block.
+     * @param permutation The array the row permutation is written to.
+     * @throws IllegalStateException if the matrix is singular.
+     */
+    public static void decomposeInPlace(double[][] values, int dimension, int[] permutation) {
+        for (int row = 0; row < dimension; row++) {
+            permutation[row] = row;
+        }
+        for (int iteration = 0; iteration < dimension; iteration++) {
+            // search the row with the largest absolute value in the current column
+            int pivotIndex = iteration;
+            double pivotValue = Math.abs(values[iteration][iteration]);
+            for (int row = iteration + 1; row < dimension; row++) {
+                double currentValue = Math.abs(values[row][iteration]);
+                if (currentValue > pivotValue) {
+                    pivotValue = currentValue;
+                    pivotIndex = row;
+                }
+            }
+            if (pivotValue == 0.0) {
+                throw new IllegalStateException("The given matrix is singular - no LU decomposition possible.");
+            }
+            if (pivotIndex != iteration) {
+                double[] rowValues = values[iteration];
+                values[iteration] = values[pivotIndex];
+                values[pivotIndex] = rowValues;
+                int rowIndex = permutation[iteration];
+                permutation[iteration] = permutation[pivotIndex];
+                permutation[pivotIndex] = rowIndex;
+            }
+            double[] pivotRow = values[iteration];
+            for (int row = iteration + 1; row < dimension; row++) {
+                double[] currentRow = values[row];
+                if (currentRow[iteration] == 0.0) {
+                    continue;
+                }
+                double factor = currentRow[iteration] / pivotRow[iteration];
+                currentRow[iteration] = factor;
+                for (int column = iteration + 1; column < dimension; column++) {
+                    currentRow[column] -= factor * pivotRow[column];
+                }
+            }
+        }
+    }
+
+    /**
+     * Solves {@code A * x = b} for a matrix, that has been decomposed using {@link #decomposeInPlace(double[][])}.
+     *
+     * @param decomposition The decomposed matrix.
+     * @param permutation The row permutation of the decomposition.
+     * @param rightHandSide The right hand side b.
+     * @param solution The array the solution x is written to (may be the right hand side itself).
+     */
+    public static void solve(double[][] decomposition, int[] permutation, double[] rightHandSide, double[] solution) {
+        int dimension = decomposition.length;
+        solve(decomposition, permutation, dimension, rightHandSide, solution, new double[dimension]);
+    }
+
+    /**
+     * Solves {@code A * x = b} for the leading block of a matrix, that has been decomposed using
+     * {@link #decomposeInPlace(double[][], int, int[])}, without allocating memory.
+     *
+     * @param decomposition The decomposed matrix.
+     * @param permutation The row permutation of the decomposition.
+     * @param dimension The dimension of the decomposed block.
+     * @param rightHandSide The right hand side b.
+     * @param solution The array the solution x is written to (may be the right hand side itself).
+     * @param intermediate An array of at least the given dimension, used for the forward substitution.
+     */
+    public static void solve(double[][] decomposition, int[] permutation, int dimension, double[] rightHandSide, double[] solution, double[] intermediate) {
+        // forward substitution L * y = P * b
+        for (int row = 0; row < dimension; row++) {
+            double value = rightHandSide[permutation[row]];
+            double[] currentRow = decomposition[row];
+            for (int column = 0; column < row; column++) {
+                value -= currentRow[column] * intermediate[column];
+            }
+            intermediate[row] = value;
+        }
+        // backward substitution U * x = y
+        for (int row = dimension - 1; row >= 0; row--) {
+            double value = intermediate[row];
+            double[] currentRow = decomposition[row];
+            for (int column = row + 1; column < dimension; column++) {
+                value -= currentRow[column] * solution[column];
+            }
+            solution[row] = value / currentRow[row];
+        }
+    }
+
+    /**
+     * Solves the linear system {@code A * x = b}.
+     *
+     * @param matrix The square matrix A.
+     * @param rightHandSide The right hand side b.
+     * @return The solution x.
+     * @throws IllegalStateException if the matrix is singular.
+     */
+    public static Vector solve(Matrix matrix, Vector rightHandSide) {
+        int dimension = matrix.getRowDimension();
+        if (dimension != matrix.getColumnDimension() || dimension != rightHandSide.getDimension()) {
+            throw new IllegalArgumentException("The matrix has to be square and match the dimension of the right hand side.");
+        }
+        double[][] decomposition = new double[dimension][dimension];
+        for (int row = 0; row < dimension; row++) {
+            for (int column = 0; column < dimension; column++) {
+                decomposition[row][column] = matrix.getElement(row, column);
+            }
+        }
+        int[] permutation = decomposeInPlace(decomposition);
+        double[] solution = new double[dimension];
+        solve(decomposition, permutation, rightHandSide.getElements(), solution);
+        return new RegularVector(solution);
+    }
+
     public static Matrix calculateRowEchelonMatrix(Matrix originalMatrix) {
         List<Vector> matrixRows = Matrices.divideIntoRows(originalMatrix);
         for (int iteration = 0; iteration < Math.min(originalMatrix.getColumnDimension(), originalMatrix.getRowDimension()); iteration++) {
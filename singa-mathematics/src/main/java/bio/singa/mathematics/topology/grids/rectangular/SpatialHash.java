@@ -0,0 +1,253 @@
+package bio.singa.mathematics.topology.grids.rectangular;
+
+import bio.singa.mathematics.vectors.Vector2D;
+
+import java.util.*;
+
+/**
+ * A spatial hash partitions the plane into square cells of equal size and remembers the elements located in each
+ * cell. Only occupied cells are stored, therefore the plane is unbounded. Elements are either points, that are located
+ * in a single cell and can be moved cheaply (only if an element moves to another cell the cell lists are changed), or
+ * axis aligned boxes, that are registered in every cell they overlap. Elements near a position are collected from
+ * the cells overlapping the square around the position, such that the number of compared elements only depends on
+ * the local density of elements.
+ * <pre>
+ *  SpatialHash&lt;Vesicle&gt; hash = new SpatialHash&lt;&gt;(interactionRange);
+ *  vesicles.forEach(vesicle -&gt; hash.update(vesicle, vesicle.getPosition()));
+ *  hash.collect(position, interactionRange, candidates); </pre>
+ * Collected elements are candidates, the actual distance has to be checked by the caller. Box elements overlapping
+ * multiple queried cells are collected once per cell, use a {@link Set} to collect them only once.
+ *
+ * @param <ElementType> The type of the elements.
+ * @author cl
+ */
+public class SpatialHash<ElementType> {
+
+    /**
+     * The edge length of the cells.
+     */
+    private final double cellSize;
+
+    /**
+     * The elements of each occupied cell.
+     */
+    private final Map<Long, List<ElementType>> cells;
+
+    /**
+     * The cells of each element.
+     */
+    private final Map<ElementType, CellRange> ranges;
+
+    /**
+     * Creates a new spatial hash with the given cell size. The cell size should be in the order of the largest
+     * interaction range.
+     *
+     * @param cellSize The edge length of the cells.
+     */
+    public SpatialHash(double cellSize) {
+        if (!(cellSize > 0.0) || Double.isInfinite(cellSize)) {
+            throw new IllegalArgumentException("The cell size has to be positive and finite.");
+        }
+        this.cellSize = cellSize;
+        cells = new HashMap<>();
+        ranges = new HashMap<>();
+    }
+
+    /**
+     * Inserts the element at the given position or moves it there, if it is already contained.
+     *
+     * @param element The element.
+     * @param position The position.
+     */
+    public void update(ElementType element, Vector2D position) {
+        int column = cell(position.getX());
+        int row = cell(position.getY());
+        CellRange range = ranges.get(element);
+        if (range != null) {
+            if (range.isCell(column, row)) {
+                return;
+            }
+            removeFromCells(element, range);
+        }
+        range = new CellRange(column, row, column, row);
+        ranges.put(element, range);
+        addToCells(element, range);
+    }
+
+    /**
+     * Inserts the element in all cells overlapping the box spanned by the given corners, replacing any previous
+     * location of the element.
+     *
+     * @param element The element.
+     * @param first The first corner.
+     * @param second The opposite corner.
+     */
+    public void insert(ElementType element, Vector2D first, Vector2D second) {
+        CellRange range = new CellRange(cell(Math.min(first.getX(), second.getX())), cell(Math.min(first.getY(), second.getY())),
+                cell(Math.max(first.getX(), second.getX())), cell(Math.max(first.getY(), second.getY())));
+        CellRange previousRange = ranges.put(element, range);
+        if (previousRange != null) {
+            removeFromCells(element, previousRange);
+        }
+        addToCells(element, range);
+    }
+
+    /**
+     * Removes the element.
+     *
+     * @param element The element.
+     * @return True if the element was contained.
+     */
+    public boolean remove(ElementType element) {
+        CellRange range = ranges.remove(element);
+        if (range == null) {
+            return false;
+        }
+        removeFromCells(element, range);
+        return true;
+    }
+
+    /**
+     * Removes all elements, that are not contained in the given collection.
+     *
+     * @param retainedElements The elements to retain.
+     */
+    public void retainAll(Collection<ElementType> retainedElements) {
+        Set<ElementType> retained = new HashSet<>(retainedElements);
+        Iterator<Map.Entry<ElementType, CellRange>> iterator = ranges.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<ElementType, CellRange> entry = iterator.next();
+            if (!retained.contains(entry.getKey())) {
+                removeFromCells(entry.getKey(), entry.getValue());
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Adds all elements located in cells overlapping the square with the given half edge length around the given
+     * position to the result.
+     *
+     * @param position The position.
+     * @param range The half edge length of the square.
+     * @param result The collection the elements are added to.
+     */
+    public void collect(Vector2D position, double range, Collection<ElementType> result) {
+        int fromColumn = cell(position.getX() - range);
+        int toColumn = cell(position.getX() + range);
+        int fromRow = cell(position.getY() - range);
+        int toRow = cell(position.getY() + range);
+        for (int column = fromColumn; column <= toColumn; column++) {
+            for (int row = fromRow; row <= toRow; row++) {
+                List<ElementType> elements = cells.get(key(column, row));
+                if (elements != null) {
+                    result.addAll(elements);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns true if the element is contained.
+     *
+     * @param element The element.
+     * @return True if the element is contained.
+     */
+    public boolean contains(ElementType element) {
+        return ranges.containsKey(element);
+    }
+
+    /**
+     * Returns the number of elements.
+     *
+     * @return The number of elements.
+     */
+    public int size() {
+        return ranges.size();
+    }
+
+    /**
+     * Returns the number of occupied cells.
+     *
+     * @return The number of occupied cells.
+     */
+    public int getNumberOfCells() {
+        return cells.size();
+    }
+
+    public double getCellSize() {
+        return cellSize;
+    }
+
+    /**
+     * Removes all elements.
+     */
+    public void clear() {
+        cells.clear();
+        ranges.clear();
+    }
+
+    private int cell(double coordinate) {
+        return (int) Math.floor(coordinate / cellSize);
+    }
+
+    private static long key(int column, int row) {
+        return ((long) column << 32) | (row & 0xffffffffL);
+    }
+
+    private void addToCells(ElementType element, CellRange range) {
+        for (int column = range.fromColumn; column <= range.toColumn; column++) {
+            for (int row = range.fromRow; row <= range.toRow; row++) {
+                cells.computeIfAbsent(key(column, row), key -> new ArrayList<>()).add(element);
+            }
+        }
+    }
+
+    private void removeFromCells(ElementType element, CellRange range) {
+        for (int column = range.fromColumn; column <= range.toColumn; column++) {
+            for (int row = range.fromRow; row <= range.toRow; row++) {
+                long key = key(column, row);
+                List<ElementType> elements = cells.get(key);
+                if (elements == null) {
+                    continue;
+                }
+                // swap the last element into the gap
+                for (int index = 0; index < elements.size(); index++) {
+                    if (elements.get(index).equals(element)) {
+                        int last = elements.size() - 1;
+                        elements.set(index, elements.get(last));
+                        elements.remove(last);
+                        break;
+                    }
+                }
+                if (elements.isEmpty()) {
+                    cells.remove(key);
+                }
+            }
+        }
+    }
+
+    /**
+     * The cells occupied by an element.
+     */
+    private static class CellRange {
+
+        private final int fromColumn;
+        private final int fromRow;
+        private final int toColumn;
+        private final int toRow;
+
+        private CellRange(int fromColumn, int fromRow, int toColumn, int toRow) {
+            this.fromColumn = fromColumn;
+            this.fromRow = fromRow;
+            this.toColumn = toColumn;
+            this.toRow = toRow;
+        }
+
+        private boolean isCell(int column, int row) {
+            return fromColumn == column && toColumn == column && fromRow == row && toRow == row;
+        }
+
+    }
+
+}
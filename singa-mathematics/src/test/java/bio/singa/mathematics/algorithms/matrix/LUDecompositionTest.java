@@ -2,9 +2,13 @@ package bio.singa.mathematics.algorithms.matrix;
 
 import bio.singa.mathematics.matrices.Matrix;
 import bio.singa.mathematics.matrices.RegularMatrix;
+import bio.singa.mathematics.vectors.RegularVector;
+import bio.singa.mathematics.vectors.Vector;
 import org.junit.jupiter.api.Test;
 
 import static bio.singa.mathematics.NumberConceptAssertion.assertMatrixEquals;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 
 /**
  * @author cl
@@ -43,4 +47,41 @@ class LUDecompositionTest {
         assertMatrixEquals(expected, actual, 0.0);
     }
 
-}
\ No newline at end of file
+    @Test
+    void shouldSolveLinearSystem() {
+        Matrix matrix = new RegularMatrix(new double[][]{{2, 1, -1}, {-3, -1, 2}, {-2, 1, 2}});
+        Vector actual = LUDecomposition.solve(matrix, new RegularVector(8, -11, -3));
+        assertArrayEquals(new double[]{2, 3, -1}, actual.getElements(), 1e-10);
+    }
+
+    @Test
+    void shouldSolveMultipleRightHandSides() {
+        double[][] decomposition = new double[][]{{0, 2, 1}, {1, 1, 0}, {3, 0, 1}};
+        int[] permutation = LUDecomposition.decomposeInPlace(decomposition);
+        double[] solution = new double[3];
+        LUDecomposition.solve(decomposition, permutation, new double[]{5, 3, 4}, solution);
+        assertArrayEquals(new double[]{1, 2, 1}, solution, 1e-10);
+        double[] rightHandSide = new double[]{1, 0, 3};
+        LUDecomposition.solve(decomposition, permutation, rightHandSide, rightHandSide);
+        assertArrayEquals(new double[]{0.4, -0.4, 1.8}, rightHandSide, 1e-10);
+    }
+
+    @Test
+    void shouldSolveLeadingBlock() {
+        // the trailing row and column are ignored
+        double[][] decomposition = new double[][]{{0, 2, 1, 7}, {1, 1, 0, 7}, {3, 0, 1, 7}, {7, 7, 7, 7}};
+        int[] permutation = new int[4];
+        LUDecomposition.decomposeInPlace(decomposition, 3, permutation);
+        double[] intermediate = new double[4];
+        double[] rightHandSide = new double[]{5, 3, 4, 9};
+        LUDecomposition.solve(decomposition, permutation, 3, rightHandSide, rightHandSide, intermediate);
+        assertArrayEquals(new double[]{1, 2, 1, 9}, rightHandSide, 1e-10);
+    }
+
+    @Test
+    void shouldRejectSingularMatrix() {
+        double[][] values = new double[][]{{1, 2}, {2, 4}};
+        assertThrows(IllegalStateException.class, () -> LUDecomposition.decomposeInPlace(values));
+    }
+
+}
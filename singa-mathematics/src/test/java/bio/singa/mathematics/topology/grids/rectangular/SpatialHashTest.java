@@ -0,0 +1,68 @@
+package bio.singa.mathematics.topology.grids.rectangular;
+
+import bio.singa.mathematics.vectors.Vector2D;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author cl
+ */
+class SpatialHashTest {
+
+    @Test
+    void shouldCollectAllPointsInRange() {
+        Random random = new Random(3);
+        SpatialHash<Integer> hash = new SpatialHash<>(10.0);
+        Vector2D[] positions = new Vector2D[500];
+        for (int element = 0; element < positions.length; element++) {
+            positions[element] = new Vector2D(random.nextDouble() * 200.0 - 50.0, random.nextDouble() * 200.0 - 50.0);
+            hash.update(element, positions[element]);
+        }
+        // move elements, some of them to other cells
+        for (int element = 0; element < positions.length; element += 2) {
+            positions[element] = positions[element].add(new Vector2D(random.nextDouble() * 4.0 - 2.0, random.nextDouble() * 4.0 - 2.0));
+            hash.update(element, positions[element]);
+        }
+        assertEquals(positions.length, hash.size());
+        double range = 7.5;
+        for (int query = 0; query < 50; query++) {
+            Vector2D centre = new Vector2D(random.nextDouble() * 200.0 - 50.0, random.nextDouble() * 200.0 - 50.0);
+            List<Integer> candidates = new ArrayList<>();
+            hash.collect(centre, range, candidates);
+            for (int element = 0; element < positions.length; element++) {
+                if (positions[element].distanceTo(centre) < range) {
+                    assertTrue(candidates.contains(element));
+                }
+            }
+            // every element is reported once
+            assertEquals(new HashSet<>(candidates).size(), candidates.size());
+        }
+    }
+
+    @Test
+    void shouldCollectBoxesOverlappingRange() {
+        SpatialHash<String> hash = new SpatialHash<>(1.0);
+        hash.insert("long", new Vector2D(0.5, 0.5), new Vector2D(9.5, 0.5));
+        hash.insert("short", new Vector2D(5.5, 5.5), new Vector2D(5.0, 6.5));
+        Set<String> candidates = new HashSet<>();
+        hash.collect(new Vector2D(8.0, 1.0), 0.5, candidates);
+        assertEquals(Collections.singleton("long"), candidates);
+        candidates.clear();
+        hash.collect(new Vector2D(5.2, 7.0), 0.4, candidates);
+        assertEquals(Collections.singleton("short"), candidates);
+        // replace and remove
+        hash.insert("long", new Vector2D(20.0, 20.0), new Vector2D(21.0, 21.0));
+        candidates.clear();
+        hash.collect(new Vector2D(8.0, 1.0), 0.5, candidates);
+        assertTrue(candidates.isEmpty());
+        assertTrue(hash.remove("short"));
+        assertFalse(hash.remove("short"));
+        hash.retainAll(Collections.emptyList());
+        assertEquals(0, hash.size());
+        assertEquals(0, hash.getNumberOfCells());
+    }
+
+}
@@ -27,4 +27,12 @@ public interface ChemicalEntity extends Featureable {
 
     List<Identifier> getAllIdentifiers();
 
+    /**
+     * Returns the dense index of this entity. The index is assigned by the {@link EntityRegistry} and is used to
+     * address concentrations in primitive storages (such as the {@link bio.singa.simulation.model.sections.ConcentrationPool}).
+     *
+     * @return The dense index of this entity.
+     */
+    int getIndex();
+
 }
\ No newline at end of file
@@ -15,6 +15,13 @@ import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 /**
+ * A complex entity is a graph of chemical entities (nodes) that are bound to each other at binding sites (edges).
+ * Besides the human readable identifier, that only lists the entities of the complex, each complex has a canonical
+ * hash. The canonical hash is invariant to the identifiers of nodes and edges, but considers which entities are
+ * connected at which binding sites. Complexes are only equal if both the identifier and the canonical hash are equal,
+ * therefore complexes with the same composition but different topologies are distinguished. Registries that need to
+ * keep complexes with the same identifier apart use {@link EntityRegistry#getKey(ChemicalEntity)}.
+ *
  * @author cl
  */
 public class ComplexEntity extends AbstractMapGraph<GraphComplexNode, GraphComplexEdge, Vector2D, Integer> implements ChemicalEntity {
@@ -53,8 +60,15 @@ public class ComplexEntity extends AbstractMapGraph<GraphComplexNode, GraphCompl
     }
 
     private String identifier;
+
+    /**
+     * The canonical hash of the graph, see {@link #generateCanonicalHash()}.
+     */
+    private long canonicalHash;
+
     private boolean membraneBound;
     private FeatureContainer features;
+    private int index = -1;
 
     private IdentifierSupplier nodeSupplier;
     private IdentifierSupplier edgeSupplier;
@@ -291,6 +305,92 @@ public class ComplexEntity extends AbstractMapGraph<GraphComplexNode, GraphCompl
                 .collect(Collectors.joining("-"));
     }
 
+    /**
+     * Generates the canonical hash of the graph by Weisfeiler-Lehman refinement. Each node is initially labeled by its
+     * entity. In each round, the label of each node is combined with the sorted labels of its neighbours, each paired
+     * with the binding site, the neighbour is bound at. The refinement stops, once the number of distinct labels does
+     * not increase any more. The hash combines the sorted labels of all nodes. Since complexes are trees in general,
+     * the hash identifies complexes up to isomorphism.
+     *
+     * @return The canonical hash.
+     */
+    private long generateCanonicalHash() {
+        List<GraphComplexNode> nodes = new ArrayList<>(getNodes());
+        Map<GraphComplexNode, Integer> positions = new HashMap<>();
+        long[] labels = new long[nodes.size()];
+        for (int position = 0; position < nodes.size(); position++) {
+            GraphComplexNode node = nodes.get(position);
+            positions.put(node, position);
+            labels[position] = hash(node.getEntity().getIdentifier());
+        }
+        // adjacency as pairs of neighbour positions and hashed binding sites
+        List<List<long[]>> adjacency = new ArrayList<>();
+        for (int position = 0; position < nodes.size(); position++) {
+            adjacency.add(new ArrayList<>());
+        }
+        for (GraphComplexEdge edge : getEdges()) {
+            int source = positions.get(edge.getSource());
+            int target = positions.get(edge.getTarget());
+            long site = edge.getConnectedSite() == null ? 0L : hash(edge.getConnectedSite().toString());
+            adjacency.get(source).add(new long[]{target, site});
+            adjacency.get(target).add(new long[]{source, site});
+        }
+        int distinctLabels = countDistinct(labels);
+        for (int round = 0; round < nodes.size(); round++) {
+            long[] refinedLabels = new long[labels.length];
+            for (int position = 0; position < labels.length; position++) {
+                List<long[]> neighbours = adjacency.get(position);
+                long[] neighbourLabels = new long[neighbours.size()];
+                for (int neighbour = 0; neighbour < neighbourLabels.length; neighbour++) {
+                    long[] pair = neighbours.get(neighbour);
+                    neighbourLabels[neighbour] = mix(labels[(int) pair[0]] * 31 + pair[1]);
+                }
+                Arrays.sort(neighbourLabels);
+                long label = labels[position];
+                for (long neighbourLabel : neighbourLabels) {
+                    label = mix(label * 31 + neighbourLabel);
+                }
+                refinedLabels[position] = label;
+            }
+            labels = refinedLabels;
+            int refinedDistinctLabels = countDistinct(labels);
+            if (refinedDistinctLabels == distinctLabels) {
+                break;
+            }
+            distinctLabels = refinedDistinctLabels;
+        }
+        Arrays.sort(labels);
+        long canonicalHash = labels.length;
+        for (long label : labels) {
+            canonicalHash = mix(canonicalHash * 31 + label);
+        }
+        return canonicalHash;
+    }
+
+    private static int countDistinct(long[] labels) {
+        return (int) Arrays.stream(labels).distinct().count();
+    }
+
+    private static long hash(String string) {
+        // 64 bit FNV-1a
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < string.length(); i++) {
+            hash ^= string.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    private static long mix(long value) {
+        // finalizer of murmur3
+        value ^= value >>> 33;
+        value *= 0xff51afd7ed558ccdL;
+        value ^= value >>> 33;
+        value *= 0xc4ceb93fe53b5ec3L;
+        value ^= value >>> 33;
+        return value;
+    }
+
     public void snapTo(ChemicalEntity chemicalEntity, Set<BindingSite> bindingSites) {
         // check if there are already nodes with the chemical entity
         List<GraphComplexNode> alreadyAvailableNodes = getNodes().stream()
@@ -331,6 +431,9 @@ public class ComplexEntity extends AbstractMapGraph<GraphComplexNode, GraphCompl
 
     public void update() {
         identifier = generateIdentifier();
+        canonicalHash = generateCanonicalHash();
+        // the identifier changed, therefore the index needs to be resolved again
+        index = -1;
         determineNativeMembraneAssociation();
         EntityRegistry.put(this);
     }
@@ -339,6 +442,24 @@ public class ComplexEntity extends AbstractMapGraph<GraphComplexNode, GraphCompl
         return identifier;
     }
 
+    /**
+     * Returns the canonical hash of this complex, that identifies the complex regardless of the order of its nodes and
+     * edges. The hash is determined when the complex is updated.
+     *
+     * @return The canonical hash.
+     */
+    public long getCanonicalHash() {
+        return canonicalHash;
+    }
+
+    @Override
+    public int getIndex() {
+        if (index < 0) {
+            index = EntityRegistry.index(this);
+        }
+        return index;
+    }
+
     @Override
     public String toString() {
         return identifier;
@@ -349,12 +470,12 @@ public class ComplexEntity extends AbstractMapGraph<GraphComplexNode, GraphCompl
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         ComplexEntity that = (ComplexEntity) o;
-        return Objects.equals(identifier, that.identifier);
+        return canonicalHash == that.canonicalHash && Objects.equals(identifier, that.identifier);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(identifier);
+        return Long.hashCode(canonicalHash);
     }
 
 }
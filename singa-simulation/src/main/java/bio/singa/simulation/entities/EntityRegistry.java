@@ -1,42 +1,87 @@
 package bio.singa.simulation.entities;
 
 import bio.singa.core.utility.ListHelper;
+import bio.singa.features.parameters.SimulationContext;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
 /**
+ * The entity registry maps identifiers to the chemical entities of the current {@link SimulationContext}. Dense entity
+ * indices are assigned per context, such that the concentration pools of a simulation only need to address the
+ * entities of its own context.
+ * <p>
+ * Complexes with the same composition but different topologies share their identifier. Lookups by identifier return
+ * the complex that has been registered last, but all registered topologies are retained (see {@link #getAll()}) and
+ * receive separate indices, since entities are distinguished internally by their key (see
+ * {@link #getKey(ChemicalEntity)}).
+ *
  * @author cl
  */
 public class EntityRegistry {
 
-    private static EntityRegistry instance = getInstance();
-
-    private HashMap<String, ChemicalEntity> entities;
-
+    /**
+     * The entities by identifier. Complexes register themselves whenever they are updated, which may happen
+     * concurrently during the generation of reaction networks.
+     */
+    private Map<String, ChemicalEntity> entities;
+
+    /**
+     * The entities by key, retaining complexes with the same identifier but different topologies.
+     */
+    private Map<String, ChemicalEntity> entitiesByKey;
+
+    /**
+     * Returns the entity registry of the current {@link SimulationContext}.
+     *
+     * @return The entity registry.
+     */
     private static EntityRegistry getInstance() {
-        if (instance == null) {
-            reinitialize();
-        }
-        return instance;
+        return SimulationContext.current().getComponent(EntityRegistry.class, EntityRegistry::new);
+    }
+
+    /**
+     * Returns the entity indices of the current {@link SimulationContext}.
+     *
+     * @return The entity indices.
+     */
+    private static EntityIndices getIndices() {
+        return SimulationContext.current().getComponent(EntityIndices.class, EntityIndices::new);
     }
 
     public static void reinitialize() {
-        synchronized (EntityRegistry.class) {
-            instance = new EntityRegistry();
-        }
+        SimulationContext.current().setComponent(EntityRegistry.class, new EntityRegistry());
     }
 
     private EntityRegistry() {
-        entities = new HashMap<>();
+        entities = new ConcurrentHashMap<>();
+        entitiesByKey = new ConcurrentHashMap<>();
     }
 
     public static void put(String identifier, ChemicalEntity entity) {
-        getInstance().entities.put(identifier, entity);
+        EntityRegistry registry = getInstance();
+        registry.entities.put(identifier, entity);
+        registry.entitiesByKey.put(getKey(entity), entity);
     }
 
     public static void put(ChemicalEntity entity) {
-        getInstance().entities.put(entity.getIdentifier(), entity);
+        put(entity.getIdentifier(), entity);
+    }
+
+    /**
+     * Returns the key distinguishing entities internally. The key is the identifier of the entity, extended by the
+     * canonical hash for complexes (see {@link ComplexEntity#getCanonicalHash()}), such that complexes with the same
+     * composition but different topologies are kept apart.
+     *
+     * @param entity The entity.
+     * @return The key.
+     */
+    public static String getKey(ChemicalEntity entity) {
+        if (entity instanceof ComplexEntity) {
+            return entity.getIdentifier() + "#" + Long.toHexString(((ComplexEntity) entity).getCanonicalHash());
+        }
+        return entity.getIdentifier();
     }
 
     public static ChemicalEntity get(String referenceIdentifier) {
@@ -60,15 +105,22 @@ public class EntityRegistry {
         return null;
     }
 
+    /**
+     * Returns all entities containing the given entities, including all topologies of complexes with the same
+     * composition.
+     *
+     * @param containedIdentifiers The identifiers of the contained entities.
+     * @return The matching entities.
+     */
     public static List<ChemicalEntity> allWith(String... containedIdentifiers) {
         List<ChemicalEntity> matches = new ArrayList<>();
         List<String> identifiers = Arrays.asList(containedIdentifiers);
         // for each entity
-        for (String referenceIdentifier : getInstance().entities.keySet()) {
+        for (ChemicalEntity entity : getInstance().entitiesByKey.values()) {
             // check if both have the same elements
-            List<String> split = Arrays.asList(referenceIdentifier.split("-"));
+            List<String> split = Arrays.asList(entity.getIdentifier().split("-"));
             if (split.containsAll(identifiers)) {
-                matches.add(getInstance().entities.get(referenceIdentifier));
+                matches.add(entity);
             }
         }
         return matches;
@@ -81,8 +133,102 @@ public class EntityRegistry {
                 .collect(Collectors.toList());
     }
 
+    /**
+     * Returns all registered entities, including all topologies of complexes with the same composition.
+     *
+     * @return All registered entities.
+     */
     public static  Collection<ChemicalEntity> getAll() {
-        return getInstance().entities.values();
+        return getInstance().entitiesByKey.values();
+    }
+
+    /**
+     * Returns the dense index of the given entity in the current context, assigning a new index if the entity has not
+     * been indexed before. Entities that are equal share the same index.
+     *
+     * @param entity The entity.
+     * @return The index of the entity.
+     */
+    public static int index(ChemicalEntity entity) {
+        return getIndices().index(entity);
+    }
+
+    /**
+     * Assigns indices to all given entities, such that entities referenced together receive consecutive indices.
+     * Entities that have already been indexed in another context keep their index, which is reserved in the current
+     * context.
+     *
+     * @param entities The entities.
+     * @throws IllegalStateException if the index of an entity from another context is already assigned to a different
+     * entity in the current context.
+     */
+    public static void index(Collection<ChemicalEntity> entities) {
+        EntityIndices indices = getIndices();
+        for (ChemicalEntity entity : entities) {
+            indices.adopt(entity, entity.getIndex());
+        }
+    }
+
+    /**
+     * Returns the number of indices assigned in the current context. This is the minimal capacity required to store
+     * values for all entities indexed in the context.
+     *
+     * @return The number of indices assigned in the current context.
+     */
+    public static int getNumberOfIndices() {
+        return getIndices().size();
+    }
+
+    /**
+     * The dense indices of the entities of a single context. Indices are cached by the entities themselves and are
+     * therefore never revoked, not even if the registry is reinitialized.
+     */
+    private static class EntityIndices {
+
+        /**
+         * The index of each entity key.
+         */
+        private final Map<String, Integer> indices = new HashMap<>();
+
+        /**
+         * The assigned indices.
+         */
+        private final BitSet assigned = new BitSet();
+
+        synchronized int index(ChemicalEntity entity) {
+            return indices.computeIfAbsent(key(entity), key -> {
+                int index = assigned.nextClearBit(0);
+                assigned.set(index);
+                return index;
+            });
+        }
+
+        synchronized void adopt(ChemicalEntity entity, int index) {
+            String key = key(entity);
+            Integer assignedIndex = indices.get(key);
+            if (assignedIndex != null) {
+                if (assignedIndex != index) {
+                    throw new IllegalStateException("The entity " + entity.getIdentifier() + " has been indexed in another simulation context (" +
+                            index + ") than the current context (" + assignedIndex + "). Create entities in the context of the simulation that uses them.");
+                }
+                return;
+            }
+            if (assigned.get(index)) {
+                throw new IllegalStateException("The entity " + entity.getIdentifier() + " has been indexed in another simulation context and its " +
+                        "index " + index + " is already assigned in the current context. Create entities in the context of the simulation that uses them.");
+            }
+            assigned.set(index);
+            indices.put(key, index);
+        }
+
+        synchronized int size() {
+            return assigned.length();
+        }
+
+        private static String key(ChemicalEntity entity) {
+            return entity.getClass().getName() + ":" + getKey(entity);
+        }
+
     }
 
 }
@@ -49,6 +49,11 @@ public class SimpleEntity implements ChemicalEntity {
 
     private FeatureContainer features;
 
+    /**
+     * The dense index of this entity (lazily resolved by the {@link EntityRegistry}).
+     */
+    private int index = -1;
+
     /**
      * Creates a new chemical entity with the given identifier.
      *
@@ -99,6 +104,14 @@ public class SimpleEntity implements ChemicalEntity {
         return identifiers;
     }
 
+    @Override
+    public int getIndex() {
+        if (index < 0) {
+            index = EntityRegistry.index(this);
+        }
+        return index;
+    }
+
     @Override
     public Collection<Feature<?>> getFeatures() {
         return features.getAllFeatures();
@@ -0,0 +1,262 @@
+package bio.singa.simulation.events;
+
+import bio.singa.features.parameters.SimulationContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * The asynchronous event dispatcher passes emissions to listeners on a separate thread, such that slow listeners
+ * (e.g. recorders or renderers) do not stall the simulation. An emission is a snapshot of all events that are emitted
+ * at a single point in time. Emissions are stored in a bounded ring buffer, if the buffer is full the
+ * {@link EmissionPolicy} determines whether the simulation waits, the new emission is dropped or the most recent
+ * emission is replaced. Emissions are dispatched in the order they were submitted. Emissions are created after the
+ * decision whether they are kept, such that no snapshots are created for emissions that are dropped.
+ *
+ * @author cl
+ */
+public class AsynchronousEventDispatcher {
+
+    /**
+     * The logger.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(AsynchronousEventDispatcher.class);
+
+    /**
+     * The ring buffer of pending emissions.
+     */
+    private final Runnable[] emissions;
+
+    /**
+     * The position of the oldest pending emission.
+     */
+    private int head;
+
+    /**
+     * The number of pending emissions.
+     */
+    private int size;
+
+    /**
+     * The policy applied if the buffer is full.
+     */
+    private final EmissionPolicy policy;
+
+    private final ReentrantLock lock;
+    private final Condition notEmpty;
+    private final Condition notFull;
+
+    /**
+     * The thread dispatching emissions.
+     */
+    private final Thread dispatcherThread;
+
+    /**
+     * True if no further emissions are accepted.
+     */
+    private boolean shutdown;
+
+    private long submittedEmissions;
+    private long dispatchedEmissions;
+    private long droppedEmissions;
+    private long coalescedEmissions;
+    private int maximalQueueDepth;
+
+    /**
+     * Creates a new dispatcher and starts its thread. Emissions are dispatched in the given context.
+     *
+     * @param capacity The maximal number of pending emissions.
+     * @param policy The policy applied if the buffer is full.
+     * @param context The context of the listeners.
+     */
+    public AsynchronousEventDispatcher(int capacity, EmissionPolicy policy, SimulationContext context) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("The capacity of the event buffer has to be positive.");
+        }
+        emissions = new Runnable[capacity];
+        this.policy = policy;
+        lock = new ReentrantLock();
+        notEmpty = lock.newCondition();
+        notFull = lock.newCondition();
+        dispatcherThread = new Thread(() -> context.run(this::dispatch), "event dispatcher (" + context.getName() + ")");
+        dispatcherThread.setDaemon(true);
+        dispatcherThread.start();
+    }
+
+    /**
+     * Submits an emission. Depending on the {@link EmissionPolicy} the call blocks until the buffer has free
+     * capacity, the emission is dropped or the most recent pending emission is replaced. The emission is only created
+     * if it is kept.
+     *
+     * @param emissionFactory Creates the emission.
+     */
+    public void submit(Supplier<Runnable> emissionFactory) {
+        lock.lock();
+        try {
+            if (shutdown) {
+                throw new IllegalStateException("The event dispatcher has already been shut down.");
+            }
+            submittedEmissions++;
+            if (size == emissions.length) {
+                switch (policy) {
+                    case BLOCK:
+                        while (size == emissions.length) {
+                            notFull.awaitUninterruptibly();
+                        }
+                        break;
+                    case DROP:
+                        droppedEmissions++;
+                        return;
+                    case COALESCE:
+                        emissions[(head + size - 1) % emissions.length] = emissionFactory.get();
+                        coalescedEmissions++;
+                        return;
+                }
+            }
+            emissions[(head + size) % emissions.length] = emissionFactory.get();
+            size++;
+            maximalQueueDepth = Math.max(maximalQueueDepth, size);
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void dispatch() {
+        while (true) {
+            Runnable emission;
+            lock.lock();
+            try {
+                while (size == 0) {
+                    if (shutdown) {
+                        return;
+                    }
+                    notEmpty.awaitUninterruptibly();
+                }
+                emission = emissions[head];
+                emissions[head] = null;
+                head = (head + 1) % emissions.length;
+                size--;
+                notFull.signal();
+            } finally {
+                lock.unlock();
+            }
+            try {
+                emission.run();
+            } catch (RuntimeException e) {
+                logger.error("A listener failed to process an emission.", e);
+            }
+            lock.lock();
+            try {
+                dispatchedEmissions++;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Stops accepting emissions and waits until all pending emissions have been dispatched.
+     */
+    public void shutdown() {
+        lock.lock();
+        try {
+            shutdown = true;
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            dispatcherThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        logger.debug("Dispatched {} of {} emissions ({} dropped, {} coalesced).", dispatchedEmissions, submittedEmissions, droppedEmissions, coalescedEmissions);
+    }
+
+    public EmissionPolicy getPolicy() {
+        return policy;
+    }
+
+    public int getCapacity() {
+        return emissions.length;
+    }
+
+    /**
+     * Returns the number of pending emissions.
+     *
+     * @return The current queue depth.
+     */
+    public int getQueueDepth() {
+        lock.lock();
+        try {
+            return size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the largest number of pending emissions that has been observed.
+     *
+     * @return The maximal queue depth.
+     */
+    public int getMaximalQueueDepth() {
+        lock.lock();
+        try {
+            return maximalQueueDepth;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getSubmittedEmissions() {
+        lock.lock();
+        try {
+            return submittedEmissions;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getDispatchedEmissions() {
+        lock.lock();
+        try {
+            return dispatchedEmissions;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of emissions that were dropped, because the buffer was full.
+     *
+     * @return The number of dropped emissions.
+     */
+    public long getDroppedEmissions() {
+        lock.lock();
+        try {
+            return droppedEmissions;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of emissions that replaced a pending emission, because the buffer was full.
+     *
+     * @return The number of coalesced emissions.
+     */
+    public long getCoalescedEmissions() {
+        lock.lock();
+        try {
+            return coalescedEmissions;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+}
@@ -0,0 +1,27 @@
+package bio.singa.simulation.events;
+
+/**
+ * The emission policy determines how the {@link AsynchronousEventDispatcher} handles new emissions, if its buffer is
+ * full, i.e. if the listeners are slower than the simulation.
+ *
+ * @author cl
+ */
+public enum EmissionPolicy {
+
+    /**
+     * The simulation waits until the listeners processed an emission.
+     */
+    BLOCK,
+
+    /**
+     * New emissions are dropped.
+     */
+    DROP,
+
+    /**
+     * The most recent emission in the buffer is replaced by the new emission, such that the listeners always receive
+     * the latest state of the simulation.
+     */
+    COALESCE
+
+}
@@ -1,24 +1,37 @@
 package bio.singa.simulation.events;
 
+import bio.singa.simulation.entities.ChemicalEntity;
 import bio.singa.simulation.model.graphs.AutomatonGraph;
+import bio.singa.simulation.model.sections.ConcentrationContainer;
+import bio.singa.simulation.model.simulation.Updatable;
 
 import javax.measure.Quantity;
 import javax.measure.quantity.Time;
+import java.util.*;
+import java.util.function.Predicate;
 
 /**
- * The Event that is emitted from the {@link GraphEventEmitter}, encapsulating a graph.
+ * The Event that is emitted from the {@link GraphEventEmitter}, encapsulating a graph. Events that are emitted
+ * asynchronously are snapshots, that do not reference the graph, but contain copies of the concentrations of the
+ * selected updatables at the time of the emission (see {@link SnapshotSelector}).
  *
  * @author cl
  */
 public class GraphUpdatedEvent {
 
     /**
-     * The graph
+     * The graph (null if the event is a snapshot).
      */
     private final AutomatonGraph graph;
 
     private Quantity<Time> elapsedTime;
 
+    /**
+     * The copied concentrations of each updatable, referenced by the identifier of the updatable (null if the event is
+     * no snapshot).
+     */
+    private final Map<String, ConcentrationContainer> concentrations;
+
     /**
      * Creates a new GraphUpdatedEvent.
      * @param graph The graph.
@@ -27,17 +40,101 @@ public class GraphUpdatedEvent {
     public GraphUpdatedEvent(AutomatonGraph graph, Quantity<Time> elapsedTime) {
         this.graph = graph;
         this.elapsedTime = elapsedTime;
+        concentrations = null;
+    }
+
+    private GraphUpdatedEvent(Quantity<Time> elapsedTime, Map<String, ConcentrationContainer> concentrations) {
+        graph = null;
+        this.elapsedTime = elapsedTime;
+        this.concentrations = concentrations;
+    }
+
+    /**
+     * Creates a new GraphUpdatedEvent, that contains a copy of the current concentrations of the selected entities in
+     * the selected updatables.
+     * @param elapsedTime The time at which the update was emitted.
+     * @param updatables The updatables.
+     * @param updatableFilter The filter determining the updatables to copy.
+     * @param entityFilter The filter determining the entities to copy.
+     * @return The event.
+     */
+    public static GraphUpdatedEvent snapshot(Quantity<Time> elapsedTime, Collection<Updatable> updatables,
+                                             Predicate<Updatable> updatableFilter, Predicate<ChemicalEntity> entityFilter) {
+        Map<String, ConcentrationContainer> concentrations = new LinkedHashMap<>();
+        for (Updatable updatable : updatables) {
+            if (updatableFilter.test(updatable)) {
+                concentrations.put(updatable.getStringIdentifier(), updatable.getConcentrationContainer().selectiveCopy(entityFilter));
+            }
+        }
+        return new GraphUpdatedEvent(elapsedTime, concentrations);
     }
 
     /**
      * Returns the encapsulated graph.
      * @return The encapsulated graph.
+     * @throws IllegalStateException if the event is a snapshot.
      */
     public AutomatonGraph getGraph() {
+        if (graph == null) {
+            throw new IllegalStateException("Snapshots do not reference the graph, that is modified by the simulation.");
+        }
         return graph;
     }
 
     public Quantity<Time> getElapsedTime() {
         return elapsedTime;
     }
+
+    /**
+     * Returns true if this event contains a snapshot of the concentrations.
+     * @return True if this event contains a snapshot of the concentrations.
+     */
+    public boolean isSnapshot() {
+        return concentrations != null;
+    }
+
+    /**
+     * Returns the identifiers of the updatables contained in the snapshot.
+     * @return The identifiers of the updatables contained in the snapshot.
+     * @throws IllegalStateException if the event is no snapshot.
+     */
+    public Set<String> getUpdatableIdentifiers() {
+        if (concentrations == null) {
+            throw new IllegalStateException("The event is no snapshot.");
+        }
+        return Collections.unmodifiableSet(concentrations.keySet());
+    }
+
+    /**
+     * Returns the concentrations of the given updatable at the time of the emission. If this event is no snapshot, the
+     * current concentrations of the updatable are returned.
+     * @param updatable The updatable.
+     * @return The concentrations.
+     * @throws IllegalArgumentException if the updatable has not been part of the snapshot.
+     */
+    public ConcentrationContainer getConcentrationContainer(Updatable updatable) {
+        if (concentrations == null) {
+            return updatable.getConcentrationContainer();
+        }
+        return getConcentrationContainer(updatable.getStringIdentifier());
+    }
+
+    /**
+     * Returns the concentrations of the updatable with the given identifier at the time of the emission.
+     * @param identifier The identifier of the updatable.
+     * @return The concentrations.
+     * @throws IllegalStateException if the event is no snapshot.
+     * @throws IllegalArgumentException if the updatable has not been part of the snapshot.
+     */
+    public ConcentrationContainer getConcentrationContainer(String identifier) {
+        if (concentrations == null) {
+            throw new IllegalStateException("The event is no snapshot, concentrations are only available from the updatables.");
+        }
+        ConcentrationContainer container = concentrations.get(identifier);
+        if (container == null) {
+            throw new IllegalArgumentException("The updatable " + identifier + " has not been part of the snapshot.");
+        }
+        return container;
+    }
+
 }
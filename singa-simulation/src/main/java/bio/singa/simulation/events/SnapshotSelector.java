@@ -0,0 +1,36 @@
+package bio.singa.simulation.events;
+
+import bio.singa.simulation.entities.ChemicalEntity;
+import bio.singa.simulation.model.simulation.Updatable;
+
+/**
+ * Asynchronous listeners can implement the snapshot selector to restrict the concentrations that are copied for the
+ * events they receive. The events of asynchronous emissions contain the concentrations of each updatable and entity,
+ * that is required by any of the listeners. Listeners that do not implement the selector require all concentrations.
+ * Requesting the concentration of an updatable that has not been part of the snapshot fails.
+ *
+ * @author cl
+ */
+public interface SnapshotSelector {
+
+    /**
+     * Returns true if the concentrations of the given updatable are required.
+     *
+     * @param updatable The updatable.
+     * @return True if the concentrations of the updatable are required.
+     */
+    default boolean requiresUpdatable(Updatable updatable) {
+        return true;
+    }
+
+    /**
+     * Returns true if the concentrations of the given entity are required.
+     *
+     * @param entity The entity.
+     * @return True if the concentrations of the entity are required.
+     */
+    default boolean requiresEntity(ChemicalEntity entity) {
+        return true;
+    }
+
+}
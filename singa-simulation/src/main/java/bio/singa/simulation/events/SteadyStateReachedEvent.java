@@ -0,0 +1,54 @@
+package bio.singa.simulation.events;
+
+import javax.measure.Quantity;
+import javax.measure.quantity.Time;
+
+/**
+ * The event that is emitted by the {@link bio.singa.simulation.model.simulation.SteadyStateDetector}, once the
+ * concentrations of a simulation remained (nearly) unchanged for the requested window.
+ *
+ * @author cl
+ */
+public class SteadyStateReachedEvent {
+
+    /**
+     * The epoch in which the steady state was reached.
+     */
+    private final long epoch;
+
+    /**
+     * The elapsed time at which the steady state was reached.
+     */
+    private final Quantity<Time> elapsedTime;
+
+    /**
+     * The largest relative change of any concentration per second during the window.
+     */
+    private final double largestChangeRate;
+
+    /**
+     * Creates a new SteadyStateReachedEvent.
+     *
+     * @param epoch The epoch in which the steady state was reached.
+     * @param elapsedTime The elapsed time at which the steady state was reached.
+     * @param largestChangeRate The largest relative change of any concentration per second during the window.
+     */
+    public SteadyStateReachedEvent(long epoch, Quantity<Time> elapsedTime, double largestChangeRate) {
+        this.epoch = epoch;
+        this.elapsedTime = elapsedTime;
+        this.largestChangeRate = largestChangeRate;
+    }
+
+    public long getEpoch() {
+        return epoch;
+    }
+
+    public Quantity<Time> getElapsedTime() {
+        return elapsedTime;
+    }
+
+    public double getLargestChangeRate() {
+        return largestChangeRate;
+    }
+
+}
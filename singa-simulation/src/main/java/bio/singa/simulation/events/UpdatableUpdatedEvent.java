@@ -1,12 +1,21 @@
 package bio.singa.simulation.events;
 
+import bio.singa.simulation.entities.ChemicalEntity;
+import bio.singa.simulation.model.modules.concentration.ConcentrationDelta;
+import bio.singa.simulation.model.sections.ConcentrationContainer;
 import bio.singa.simulation.model.simulation.Updatable;
 
 import javax.measure.Quantity;
 import javax.measure.quantity.Time;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Predicate;
 
 /**
- * The Event that is emitted from the {@link NodeEventEmitter}, encapsulating a updatable.
+ * The Event that is emitted from the {@link NodeEventEmitter}, encapsulating a updatable. Events that are emitted
+ * asynchronously are snapshots, that do not reference the updatable, but contain copies of the concentrations of the
+ * selected entities (see {@link SnapshotSelector}) and of the observed deltas at the time of the emission.
  *
  * @author cl
  */
@@ -18,18 +27,56 @@ public class UpdatableUpdatedEvent {
     private final Quantity<Time> time;
 
     /**
-     * The encapsulated updatable.
+     * The encapsulated updatable (null if the event is a snapshot).
      */
     private final Updatable updatable;
 
+    /**
+     * The identifier of the updatable.
+     */
+    private final String identifier;
+
+    /**
+     * The copied concentrations (null if the event is no snapshot).
+     */
+    private final ConcentrationContainer concentrations;
+
+    /**
+     * The deltas that have been applied since the previous emission.
+     */
+    private final List<ConcentrationDelta> deltas;
+
     /**
      * Creates a new NodeUpdatedEvent.
      * @param time The time the event was emitted.
      * @param updatable The encapsulated updatable.
+     * @param deltas The deltas that have been applied since the previous emission.
      */
-    public UpdatableUpdatedEvent(Quantity<Time> time, Updatable updatable) {
+    public UpdatableUpdatedEvent(Quantity<Time> time, Updatable updatable, List<ConcentrationDelta> deltas) {
+        this(time, updatable, updatable.getStringIdentifier(), null, deltas);
+    }
+
+    private UpdatableUpdatedEvent(Quantity<Time> time, Updatable updatable, String identifier, ConcentrationContainer concentrations, List<ConcentrationDelta> deltas) {
         this.time = time;
         this.updatable = updatable;
+        this.identifier = identifier;
+        this.concentrations = concentrations;
+        this.deltas = deltas == null ? Collections.emptyList() : deltas;
+    }
+
+    /**
+     * Creates a new NodeUpdatedEvent, that contains a copy of the current concentrations of the selected entities and
+     * of the given deltas.
+     * @param time The time the event was emitted.
+     * @param updatable The updatable.
+     * @param deltas The deltas that have been applied since the previous emission (may be null).
+     * @param entityFilter The filter determining the entities to copy.
+     * @return The event.
+     */
+    public static UpdatableUpdatedEvent snapshot(Quantity<Time> time, Updatable updatable, List<ConcentrationDelta> deltas, Predicate<ChemicalEntity> entityFilter) {
+        List<ConcentrationDelta> copiedDeltas = deltas == null ? null : new ArrayList<>(deltas);
+        return new UpdatableUpdatedEvent(time, null, updatable.getStringIdentifier(),
+                updatable.getConcentrationContainer().selectiveCopy(entityFilter), copiedDeltas);
     }
 
     /**
@@ -43,9 +90,49 @@ public class UpdatableUpdatedEvent {
     /**
      * Returns the updatable
      * @return The updatable
+     * @throws IllegalStateException if the event is a snapshot.
      */
     public Updatable getUpdatable() {
+        if (updatable == null) {
+            throw new IllegalStateException("Snapshots do not reference the updatable " + identifier + ", that is modified by the simulation.");
+        }
         return updatable;
     }
 
+    /**
+     * Returns the identifier of the updatable.
+     * @return The identifier of the updatable.
+     */
+    public String getStringIdentifier() {
+        return identifier;
+    }
+
+    /**
+     * Returns true if this event contains a snapshot of the concentrations and deltas.
+     * @return True if this event contains a snapshot.
+     */
+    public boolean isSnapshot() {
+        return concentrations != null;
+    }
+
+    /**
+     * Returns the concentrations at the time of the emission. If this event is no snapshot, the current
+     * concentrations of the updatable are returned.
+     * @return The concentrations.
+     */
+    public ConcentrationContainer getConcentrationContainer() {
+        if (concentrations == null) {
+            return updatable.getConcentrationContainer();
+        }
+        return concentrations;
+    }
+
+    /**
+     * Returns the deltas that have been applied since the previous emission.
+     * @return The deltas.
+     */
+    public List<ConcentrationDelta> getDeltas() {
+        return deltas;
+    }
+
 }
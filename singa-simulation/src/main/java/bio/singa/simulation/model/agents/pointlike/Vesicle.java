@@ -104,6 +104,15 @@ public class Vesicle implements Updatable, Featureable {
         return displacementManager.getCurrentPosition();
     }
 
+    /**
+     * Moves the vesicle to the given position, discarding any pending displacement.
+     *
+     * @param position The position.
+     */
+    public void setPosition(Vector2D position) {
+        displacementManager.setCurrentPosition(position);
+    }
+
     public Quantity<Length> getRadius() {
         return radius;
     }
@@ -8,16 +8,19 @@ import bio.singa.mathematics.geometry.faces.Circle;
 import bio.singa.mathematics.geometry.faces.Circles;
 import bio.singa.mathematics.geometry.faces.Rectangle;
 import bio.singa.mathematics.geometry.model.Polygon;
-import bio.singa.mathematics.matrices.LabeledSymmetricMatrix;
 import bio.singa.mathematics.topology.grids.rectangular.MooreRectangularDirection;
 import bio.singa.mathematics.topology.grids.rectangular.NeumannRectangularDirection;
 import bio.singa.mathematics.topology.grids.rectangular.RectangularCoordinate;
+import bio.singa.mathematics.topology.grids.rectangular.SpatialHash;
 import bio.singa.mathematics.vectors.Vector2D;
 import bio.singa.simulation.model.agents.surfacelike.Membrane;
+import bio.singa.simulation.model.agents.surfacelike.MembraneLayer;
 import bio.singa.simulation.model.agents.surfacelike.MembraneSegment;
 import bio.singa.simulation.model.agents.volumelike.VolumeLikeAgent;
 import bio.singa.simulation.model.graphs.AutomatonGraph;
 import bio.singa.simulation.model.graphs.AutomatonNode;
+import bio.singa.simulation.model.graphs.NodeLocator;
+import bio.singa.simulation.model.modules.UpdateModule;
 import bio.singa.simulation.model.modules.displacement.DisplacementBasedModule;
 import bio.singa.simulation.model.modules.displacement.implementations.VesicleConfinedDiffusion;
 import bio.singa.simulation.model.modules.qualitative.implementations.EndocytoticPit;
@@ -40,6 +43,11 @@ public class VesicleLayer {
      */
     private static final Logger logger = LoggerFactory.getLogger(DisplacementBasedModule.class);
 
+    /**
+     * The number of vesicles, from which on vesicles are associated to nodes in parallel.
+     */
+    private static final int PARALLEL_ASSOCIATION_THRESHOLD = 64;
+
     private Simulation simulation;
     private Rectangle simulationRegion;
 
@@ -47,6 +55,30 @@ public class VesicleLayer {
     private List<EndocytoticPit> collectingPits;
     private List<EndocytoticPit> maturingPits;
 
+    /**
+     * The vesicles referenced by their next positions.
+     */
+    private SpatialHash<Vesicle> vesicleIndex;
+
+    /**
+     * The membrane segments referenced by their bounding boxes.
+     */
+    private SpatialHash<MembraneSegment> segmentIndex;
+    private MembraneLayer indexedMembraneLayer;
+
+    /**
+     * The indexed membrane segments and their starting and ending points (x1, y1, x2, y2 for each segment).
+     */
+    private MembraneSegment[] indexedSegments;
+    private double[] indexedEndpoints;
+
+    /**
+     * The locator of the nodes containing the vesicles.
+     */
+    private NodeLocator nodeLocator;
+    private AutomatonGraph indexedGraph;
+    private int indexedNodes;
+
     public VesicleLayer(Simulation simulation) {
         setSimulation(simulation);
         vesicles = new ArrayList<>();
@@ -69,6 +101,8 @@ public class VesicleLayer {
     public void setSimulation(Simulation simulation) {
         this.simulation = simulation;
         simulationRegion = simulation.getSimulationRegion();
+        // spatial representations might have changed
+        nodeLocator = null;
     }
 
     public void addVesicle(Vesicle vesicle) {
@@ -81,6 +115,9 @@ public class VesicleLayer {
 
     public void removeVesicle(Vesicle vesicle) {
         vesicles.remove(vesicle);
+        if (vesicleIndex != null) {
+            vesicleIndex.remove(vesicle);
+        }
     }
 
     public List<Vesicle> getVesicles() {
@@ -96,15 +133,29 @@ public class VesicleLayer {
     }
 
     private void checkForCollisions() {
-        //compare the distance to combined radii
-        LabeledSymmetricMatrix<Vesicle> distances = SQUARED_EUCLIDEAN_METRIC.calculateDistancesPairwise(vesicles, Vesicle::getNextPosition);
+        // snapshot of the next positions, vesicles that are reset still block others at their next position
+        Map<Vesicle, Vector2D> nextPositions = new HashMap<>();
+        double largestRadius = 0.0;
+        for (Vesicle vesicle : vesicles) {
+            nextPositions.put(vesicle, vesicle.getNextPosition());
+            largestRadius = Math.max(largestRadius, Environment.convertSystemToSimulationScale(vesicle.getRadius()));
+        }
+        updateVesicleIndex(nextPositions, largestRadius);
+        Map<String, List<Polygon>> confinements = determineConfinements();
+        SpatialHash<MembraneSegment> segments = simulation.getMembraneLayer() != null ? getSegmentIndex() : null;
+        List<Vesicle> vesicleCandidates = new ArrayList<>();
+        Set<MembraneSegment> segmentCandidates = new LinkedHashSet<>();
         vesicleLoop:
         for (Vesicle vesicle1 : vesicles) {
             // check collisions with other vesicles
             double firstRadius = Environment.convertSystemToSimulationScale(vesicle1.getRadius());
-            for (Vesicle vesicle2 : vesicles) {
+            Vector2D firstPosition = nextPositions.get(vesicle1);
+            //compare the distance to combined radii
+            vesicleCandidates.clear();
+            vesicleIndex.collect(firstPosition, Math.sqrt(firstRadius + largestRadius), vesicleCandidates);
+            for (Vesicle vesicle2 : vesicleCandidates) {
                 if (vesicle1 != vesicle2) {
-                    double distance = distances.getValueForLabel(vesicle1, vesicle2);
+                    double distance = SQUARED_EUCLIDEAN_METRIC.calculateDistance(firstPosition, nextPositions.get(vesicle2));
                     double combinedRadii = firstRadius + Environment.convertSystemToSimulationScale(vesicle2.getRadius());
                     if (distance < combinedRadii) {
                         if (ThreadLocalRandom.current().nextDouble() < 0.5) {
@@ -115,46 +166,35 @@ public class VesicleLayer {
                 }
             }
             // check collisions with membranes
-            if (simulation.getMembraneLayer() != null) {
-                for (Membrane macroscopicMembrane : simulation.getMembraneLayer().getMembranes()) {
-                    for (MembraneSegment membraneSegment : macroscopicMembrane.getSegments()) {
-                        // do not check attached vesicles
-                        // otherwise there is a problem when they are very close to membranes,
-                        // resulting in them getting stuck
-                        // they are considered "squeezed" by the membrane
-                        if (vesicle1.getState().equals(VesicleStateRegistry.ACTIN_ATTACHED) ||
-                                vesicle1.getState().equals(VesicleStateRegistry.MICROTUBULE_ATTACHED)) {
-                            continue ;
-                        }
-                        // check if the circle representation with slightly bigger radius for numerical reasons
-                        // of the next position intersects with any membrane segment
-                        Circle nextRepresentation = new Circle(vesicle1.getNextPosition(), firstRadius+1);
-                        if (Circles.intersect(nextRepresentation, membraneSegment)) {
-                            vesicle1.resetNextPosition();
-                            continue vesicleLoop;
-                        }
+            // do not check attached vesicles
+            // otherwise there is a problem when they are very close to membranes,
+            // resulting in them getting stuck
+            // they are considered "squeezed" by the membrane
+            if (segments != null &&
+                    !vesicle1.getState().equals(VesicleStateRegistry.ACTIN_ATTACHED) &&
+                    !vesicle1.getState().equals(VesicleStateRegistry.MICROTUBULE_ATTACHED)) {
+                // check if the circle representation with slightly bigger radius for numerical reasons
+                // of the next position intersects with any membrane segment
+                Circle nextRepresentation = new Circle(vesicle1.getNextPosition(), firstRadius + 1);
+                segmentCandidates.clear();
+                segments.collect(nextRepresentation.getMidpoint(), nextRepresentation.getRadius(), segmentCandidates);
+                for (MembraneSegment membraneSegment : segmentCandidates) {
+                    if (Circles.intersect(nextRepresentation, membraneSegment)) {
+                        vesicle1.resetNextPosition();
+                        continue vesicleLoop;
                     }
                 }
             }
             // check for collisions with confined volumes
-            boolean exceedsConfinement = simulation.getModules().stream()
-                    .filter(VesicleConfinedDiffusion.class::isInstance)
-                    .map(VesicleConfinedDiffusion.class::cast)
-                    .anyMatch(vesicleConfinedDiffusion -> {
-                        // has the confining state
-                        if (vesicle1.getState().equals(vesicleConfinedDiffusion.getConfiningState())) {
-                            for (VolumeLikeAgent agent : simulation.getVolumeLayer().getAgents()) {
-                                if (agent.getCellRegion().equals(vesicleConfinedDiffusion.getConfinedVolume())) {
-                                    // and is not inside the volume
-                                    return !agent.getArea().containsVector(vesicle1.getNextPosition());
-                                }
-                            }
-                        }
-                        return false;
-                    });
-            if (exceedsConfinement) {
-                vesicle1.resetNextPosition();
-                continue;
+            List<Polygon> confinedAreas = confinements.get(vesicle1.getState());
+            if (confinedAreas != null) {
+                // has the confining state and is not inside the volume
+                for (Polygon confinedArea : confinedAreas) {
+                    if (!confinedArea.containsVector(vesicle1.getNextPosition())) {
+                        vesicle1.resetNextPosition();
+                        continue vesicleLoop;
+                    }
+                }
             }
 
             // check collisions with border
@@ -167,99 +207,232 @@ public class VesicleLayer {
         }
     }
 
+    /**
+     * Moves the vesicles to their next positions in the vesicle index. The index is only recreated if the interaction
+     * range exceeds the current cell size, otherwise only vesicles moving to another cell are relocated.
+     *
+     * @param nextPositions The next positions of the vesicles.
+     * @param largestRadius The largest vesicle radius in simulation scale.
+     */
+    private void updateVesicleIndex(Map<Vesicle, Vector2D> nextPositions, double largestRadius) {
+        // the squared distance is compared to the combined radii
+        double interactionRange = Math.sqrt(2.0 * largestRadius);
+        if (vesicleIndex == null || vesicleIndex.getCellSize() < interactionRange) {
+            vesicleIndex = new SpatialHash<>(interactionRange > 0.0 ? interactionRange : 1.0);
+        }
+        // vesicles might have been removed and added since the last update, even if the number did not change
+        vesicleIndex.retainAll(nextPositions.keySet());
+        for (Map.Entry<Vesicle, Vector2D> entry : nextPositions.entrySet()) {
+            vesicleIndex.update(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Returns the index of the membrane segments, each segment is registered in all cells overlapped by its bounding
+     * box. The index is rebuilt if any segment has been added, removed or moved.
+     *
+     * @return The membrane segment index.
+     */
+    private SpatialHash<MembraneSegment> getSegmentIndex() {
+        MembraneLayer membraneLayer = simulation.getMembraneLayer();
+        if (segmentIndex != null && indexedMembraneLayer == membraneLayer && isSegmentIndexCurrent(membraneLayer)) {
+            return segmentIndex;
+        }
+        List<MembraneSegment> segments = new ArrayList<>();
+        double longestSegment = 0.0;
+        for (Membrane membrane : membraneLayer.getMembranes()) {
+            for (MembraneSegment segment : membrane.getSegments()) {
+                segments.add(segment);
+                longestSegment = Math.max(longestSegment, segment.getLength());
+            }
+        }
+        segmentIndex = new SpatialHash<>(longestSegment > 0.0 ? longestSegment : 1.0);
+        indexedSegments = segments.toArray(new MembraneSegment[0]);
+        indexedEndpoints = new double[4 * indexedSegments.length];
+        for (int position = 0; position < indexedSegments.length; position++) {
+            MembraneSegment segment = indexedSegments[position];
+            Vector2D start = segment.getStartingPoint();
+            Vector2D end = segment.getEndingPoint();
+            indexedEndpoints[4 * position] = start.getX();
+            indexedEndpoints[4 * position + 1] = start.getY();
+            indexedEndpoints[4 * position + 2] = end.getX();
+            indexedEndpoints[4 * position + 3] = end.getY();
+            segmentIndex.insert(segment, start, end);
+        }
+        indexedMembraneLayer = membraneLayer;
+        logger.debug("Indexed {} membrane segments in {} cells.", indexedSegments.length, segmentIndex.getNumberOfCells());
+        return segmentIndex;
+    }
+
+    /**
+     * Returns true if the membranes are composed of the indexed segments and no segment has been moved since the index
+     * was built.
+     *
+     * @param membraneLayer The membrane layer.
+     * @return True if the index is current.
+     */
+    private boolean isSegmentIndexCurrent(MembraneLayer membraneLayer) {
+        int position = 0;
+        for (Membrane membrane : membraneLayer.getMembranes()) {
+            for (MembraneSegment segment : membrane.getSegments()) {
+                if (position >= indexedSegments.length || indexedSegments[position] != segment) {
+                    return false;
+                }
+                Vector2D start = segment.getStartingPoint();
+                Vector2D end = segment.getEndingPoint();
+                int offset = 4 * position;
+                if (indexedEndpoints[offset] != start.getX() || indexedEndpoints[offset + 1] != start.getY() ||
+                        indexedEndpoints[offset + 2] != end.getX() || indexedEndpoints[offset + 3] != end.getY()) {
+                    return false;
+                }
+                position++;
+            }
+        }
+        return position == indexedSegments.length;
+    }
+
+    /**
+     * Determines the areas vesicles in confined states are restricted to, referenced by the confining state.
+     *
+     * @return The confined areas for each confining state.
+     */
+    private Map<String, List<Polygon>> determineConfinements() {
+        Map<String, List<Polygon>> confinements = new HashMap<>();
+        for (UpdateModule module : simulation.getModules()) {
+            if (!(module instanceof VesicleConfinedDiffusion) || simulation.getVolumeLayer() == null) {
+                continue;
+            }
+            VesicleConfinedDiffusion vesicleConfinedDiffusion = (VesicleConfinedDiffusion) module;
+            for (VolumeLikeAgent agent : simulation.getVolumeLayer().getAgents()) {
+                if (agent.getCellRegion().equals(vesicleConfinedDiffusion.getConfinedVolume())) {
+                    confinements.computeIfAbsent(vesicleConfinedDiffusion.getConfiningState(), state -> new ArrayList<>())
+                            .add(agent.getArea());
+                    break;
+                }
+            }
+        }
+        return confinements;
+    }
+
     public void associateVesicles() {
+        NodeLocator locator = getNodeLocator();
+        // vesicles are associated independently
+        if (vesicles.size() < PARALLEL_ASSOCIATION_THRESHOLD) {
+            vesicles.forEach(vesicle -> reassociateVesicle(vesicle, locator));
+        } else {
+            // workers of the scheduler are bound to the context of the simulation
+            simulation.getScheduler().forEachInParallel(vesicles, vesicle -> reassociateVesicle(vesicle, locator));
+        }
+    }
+
+    private void reassociateVesicle(Vesicle vesicle, NodeLocator locator) {
         // clear previous vesicle associations
-        vesicles.forEach(Vesicle::clearAssociatedNodes);
+        vesicle.clearAssociatedNodes();
         // associate vesicles to nodes
-        vesicles.forEach(this::associateVesicle);
+        associateVesicle(vesicle, locator);
+    }
+
+    /**
+     * Returns the node locator for the current graph. The locator is recreated if the graph has been replaced.
+     *
+     * @return The node locator.
+     */
+    private NodeLocator getNodeLocator() {
+        AutomatonGraph graph = simulation.getGraph();
+        if (nodeLocator == null || indexedGraph != graph || indexedNodes != graph.getNodes().size()) {
+            nodeLocator = new NodeLocator(graph);
+            indexedGraph = graph;
+            indexedNodes = graph.getNodes().size();
+        }
+        return nodeLocator;
     }
 
-    private void associateVesicle(Vesicle vesicle) {
+    private void associateVesicle(Vesicle vesicle, NodeLocator locator) {
         // convert vesicle from system to simulation scale
         Circle vesicleCircle = vesicle.getCircleRepresentation();
         double vesicleRadius = vesicleCircle.getRadius();
         Vector2D vesicleCentre = vesicleCircle.getMidpoint();
         // determine the node that contains the vesicle
         AutomatonGraph graph = simulation.getGraph();
-        for (AutomatonNode node : graph.getNodes()) {
-            // get representative region of the node
-            Polygon polygon = node.getSpatialRepresentation();
-            // associate vesicle to the node with the largest part of the vesicle (midpoint is inside)
-            if (polygon.containsVector(vesicle.getPosition())) {
-                // check if vesicle intersects with more than two regions at once
-                for (Vector2D polygonVertex : polygon.getVertices()) {
-                    // this is the case if the distance to the edge is smaller than the radius
-                    if (vesicleCentre.distanceTo(polygonVertex) < vesicleRadius) {
-                        Map<MooreRectangularDirection, Double> slices = Spheres.calculateSphereSlice(vesicleCentre, vesicleRadius, polygonVertex);
-                        // get biggest slice, this is the representative node
-                        MooreRectangularDirection coordinateDirection = null;
-                        double biggestSurface = 0;
-                        for (Map.Entry<MooreRectangularDirection, Double> entry : slices.entrySet()) {
-                            if (entry.getValue() > biggestSurface) {
-                                coordinateDirection = entry.getKey();
-                                biggestSurface = entry.getValue();
-                            }
-                        }
-                        if (coordinateDirection == null) {
+        // associate vesicle to the node with the largest part of the vesicle (midpoint is inside)
+        AutomatonNode node = locator.locate(vesicle.getPosition());
+        if (node == null) {
+            return;
+        }
+        // get representative region of the node
+        Polygon polygon = node.getSpatialRepresentation();
+        // check if vesicle intersects with more than two regions at once
+        for (Vector2D polygonVertex : polygon.getVertices()) {
+            // this is the case if the distance to the edge is smaller than the radius
+            if (vesicleCentre.distanceTo(polygonVertex) < vesicleRadius) {
+                Map<MooreRectangularDirection, Double> slices = Spheres.calculateSphereSlice(vesicleCentre, vesicleRadius, polygonVertex);
+                // get biggest slice, this is the representative node
+                MooreRectangularDirection coordinateDirection = null;
+                double biggestSurface = 0;
+                for (Map.Entry<MooreRectangularDirection, Double> entry : slices.entrySet()) {
+                    if (entry.getValue() > biggestSurface) {
+                        coordinateDirection = entry.getKey();
+                        biggestSurface = entry.getValue();
+                    }
+                }
+                if (coordinateDirection == null) {
 //                            throw new IllegalStateException("Tried to associate vesicle " + vesicle + " with " + node + " but no areas could be determined.");
-                            logger.warn("Tried to associate vesicle " + vesicle + " with " + node + " but no areas could be determined.");
-                            return;
+                    logger.warn("Tried to associate vesicle " + vesicle + " with " + node + " but no areas could be determined.");
+                    return;
+                }
+                // assign other corresponding nodes to neighbors
+                for (Map.Entry<MooreRectangularDirection, Double> entry : slices.entrySet()) {
+                    RectangularCoordinate neighbor = MooreRectangularDirection.getNeighborOf(node.getIdentifier(), coordinateDirection, entry.getKey());
+                    if (neighbor.getRow() < 0 || neighbor.getColumn() < 0 || neighbor.getRow() > graph.getNumberOfRows()-1 || neighbor.getColumn() > graph.getNumberOfColumns()-1) {
+                        continue;
+                    }
+                    vesicle.addAssociatedNode(graph.getNode(neighbor), entry.getValue());
+                }
+                // all neighbors have been associated
+                return;
+            }
+        }
+        // (else) check if vesicle intersects with exactly two regions
+        double totalSurface = Spheres.calculateSurface(vesicleRadius);
+        for (LineSegment polygonEdge : polygon.getEdges()) {
+            // this is the case if there are at least two intersections
+            Set<Vector2D> intersection = polygonEdge.getIntersectionWith(vesicleCircle);
+            if (intersection.size() > 1) {
+                Iterator<Vector2D> iterator = intersection.iterator();
+                LineSegment sliceSegment = new SimpleLineSegment(iterator.next(), iterator.next());
+                double sliceSurface = Spheres.calculateSphereSlice(vesicleCentre, vesicleRadius, sliceSegment) / totalSurface;
+                double remainingSurface = 1 - sliceSurface;
+                if (sliceSegment.isVertical()) {
+                    if (sliceSegment.getStartingPoint().isLeftOf(node.getPosition())) {
+                        vesicle.addAssociatedNode(node, remainingSurface);
+                        if (node.getIdentifier().getColumn() - 1 > 0) {
+                            vesicle.addAssociatedNode(graph.getNode(node.getIdentifier().getNeighbour(NeumannRectangularDirection.WEST)), sliceSurface);
                         }
-                        // assign other corresponding nodes to neighbors
-                        for (Map.Entry<MooreRectangularDirection, Double> entry : slices.entrySet()) {
-                            RectangularCoordinate neighbor = MooreRectangularDirection.getNeighborOf(node.getIdentifier(), coordinateDirection, entry.getKey());
-                            if (neighbor.getRow() < 0 || neighbor.getColumn() < 0 || neighbor.getRow() > graph.getNumberOfRows()-1 || neighbor.getColumn() > graph.getNumberOfColumns()-1) {
-                                continue;
-                            }
-                            vesicle.addAssociatedNode(graph.getNode(neighbor), entry.getValue());
+                    } else {
+                        vesicle.addAssociatedNode(node, remainingSurface);
+                        if (node.getIdentifier().getColumn() + 1 < graph.getNumberOfColumns()) {
+                            vesicle.addAssociatedNode(graph.getNode(node.getIdentifier().getNeighbour(NeumannRectangularDirection.EAST)), sliceSurface);
                         }
-                        // all neighbors have been associated
-                        return;
                     }
-                }
-                // (else) check if vesicle intersects with exactly two regions
-                double totalSurface = Spheres.calculateSurface(vesicleRadius);
-                for (LineSegment polygonEdge : polygon.getEdges()) {
-                    // this is the case if there are at least two intersections
-                    Set<Vector2D> intersection = polygonEdge.getIntersectionWith(vesicleCircle);
-                    if (intersection.size() > 1) {
-                        Iterator<Vector2D> iterator = intersection.iterator();
-                        LineSegment sliceSegment = new SimpleLineSegment(iterator.next(), iterator.next());
-                        double sliceSurface = Spheres.calculateSphereSlice(vesicleCentre, vesicleRadius, sliceSegment) / totalSurface;
-                        double remainingSurface = 1 - sliceSurface;
-                        if (sliceSegment.isVertical()) {
-                            if (sliceSegment.getStartingPoint().isLeftOf(node.getPosition())) {
-                                vesicle.addAssociatedNode(node, remainingSurface);
-                                if (node.getIdentifier().getColumn() - 1 > 0) {
-                                    vesicle.addAssociatedNode(graph.getNode(node.getIdentifier().getNeighbour(NeumannRectangularDirection.WEST)), sliceSurface);
-                                }
-                            } else {
-                                vesicle.addAssociatedNode(node, remainingSurface);
-                                if (node.getIdentifier().getColumn() + 1 < graph.getNumberOfColumns()) {
-                                    vesicle.addAssociatedNode(graph.getNode(node.getIdentifier().getNeighbour(NeumannRectangularDirection.EAST)), sliceSurface);
-                                }
-                            }
-                        } else {
-                            if (sliceSegment.getStartingPoint().isBelow(node.getPosition())) {
-                                vesicle.addAssociatedNode(node, remainingSurface);
-                                if (node.getIdentifier().getRow() + 1 < graph.getNumberOfRows()) {
-                                    vesicle.addAssociatedNode(graph.getNode(node.getIdentifier().getNeighbour(NeumannRectangularDirection.SOUTH)), sliceSurface);
-                                }
-                            } else {
-                                vesicle.addAssociatedNode(node, remainingSurface);
-                                if (node.getIdentifier().getRow() - 1 > 0) {
-                                    vesicle.addAssociatedNode(graph.getNode(node.getIdentifier().getNeighbour(NeumannRectangularDirection.NORTH)), sliceSurface);
-                                }
-                            }
+                } else {
+                    if (sliceSegment.getStartingPoint().isBelow(node.getPosition())) {
+                        vesicle.addAssociatedNode(node, remainingSurface);
+                        if (node.getIdentifier().getRow() + 1 < graph.getNumberOfRows()) {
+                            vesicle.addAssociatedNode(graph.getNode(node.getIdentifier().getNeighbour(NeumannRectangularDirection.SOUTH)), sliceSurface);
+                        }
+                    } else {
+                        vesicle.addAssociatedNode(node, remainingSurface);
+                        if (node.getIdentifier().getRow() - 1 > 0) {
+                            vesicle.addAssociatedNode(graph.getNode(node.getIdentifier().getNeighbour(NeumannRectangularDirection.NORTH)), sliceSurface);
                         }
-                        return;
                     }
                 }
-                // else the vesicle if fully contained
-                vesicle.addAssociatedNode(node, 1.0);
                 return;
             }
         }
+        // else the vesicle if fully contained
+        vesicle.addAssociatedNode(node, 1.0);
+        return;
     }
 
     public void clearUpdates() {
@@ -14,6 +14,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.measure.Quantity;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.TreeMap;
 
@@ -138,21 +139,45 @@ public class InitialConcentration extends AbstractQuantitativeFeature<MolarConce
         return true;
     }
 
-    public void apply(Simulation simulation) {
-        simulation.getUpdatables().forEach(this::apply);
-    }
-
-    public void apply(Updatable updatable) {
-        if (test(updatable)) {
-            if (subsection != null) {
-                updatable.getConcentrationContainer().initialize(subsection, entity, featureContent);
-            } else {
-                updatable.getConcentrationContainer().initialize(topology, entity, featureContent);
-            }
-            if (fix) {
-                updatable.getConcentrationManager().fix(entity);
+    /**
+     * Applies the concentration to all updatables of the simulation.
+     *
+     * @param simulation The simulation.
+     * @return The updatables, whose concentration has been changed.
+     */
+    public List<Updatable> apply(Simulation simulation) {
+        List<Updatable> changedUpdatables = new ArrayList<>();
+        for (Updatable updatable : simulation.getUpdatables()) {
+            if (apply(updatable)) {
+                changedUpdatables.add(updatable);
             }
         }
+        return changedUpdatables;
+    }
+
+    /**
+     * Applies the concentration to the updatable, if all conditions are met.
+     *
+     * @param updatable The updatable.
+     * @return True if the concentration of the updatable has been changed.
+     */
+    public boolean apply(Updatable updatable) {
+        if (!test(updatable)) {
+            return false;
+        }
+        double previousConcentration;
+        if (subsection != null) {
+            previousConcentration = updatable.getConcentrationContainer().get(subsection, entity);
+            updatable.getConcentrationContainer().initialize(subsection, entity, featureContent);
+        } else {
+            previousConcentration = updatable.getConcentrationContainer().get(topology, entity);
+            updatable.getConcentrationContainer().initialize(topology, entity, featureContent);
+        }
+        if (fix) {
+            updatable.getConcentrationManager().fix(entity);
+        }
+        double currentConcentration = subsection != null ? updatable.getConcentrationContainer().get(subsection, entity) : updatable.getConcentrationContainer().get(topology, entity);
+        return currentConcentration != previousConcentration;
     }
 
     @Override
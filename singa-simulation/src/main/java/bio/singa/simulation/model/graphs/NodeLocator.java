@@ -0,0 +1,215 @@
+package bio.singa.simulation.model.graphs;
+
+import bio.singa.mathematics.geometry.faces.Rectangle;
+import bio.singa.mathematics.geometry.model.Polygon;
+import bio.singa.mathematics.topology.grids.rectangular.SpatialHash;
+import bio.singa.mathematics.vectors.Vector2D;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+
+/**
+ * The node locator determines the {@link AutomatonNode} whose spatial representation contains a given position. If
+ * the spatial representations of all nodes form a regular lattice of equally sized {@link Rectangle}s, that is
+ * arranged according to the {@link bio.singa.mathematics.topology.grids.rectangular.RectangularCoordinate}s of the
+ * nodes, the containing node is computed from the position directly. Otherwise the nodes are referenced in a
+ * {@link SpatialHash} by the bounding boxes of their spatial representations and only nodes close to the position
+ * are checked.
+ * <pre>
+ *  NodeLocator locator = new NodeLocator(graph);
+ *  AutomatonNode node = locator.locate(vesicle.getPosition()); </pre>
+ * The locator reflects the spatial representations at the time it was created and needs to be recreated if they
+ * change. Locating nodes does not modify the locator, therefore it can be used from multiple threads.
+ *
+ * @author cl
+ */
+public class NodeLocator {
+
+    private static final Logger logger = LoggerFactory.getLogger(NodeLocator.class);
+
+    /**
+     * The relative tolerance, when comparing the rectangles of the lattice.
+     */
+    private static final double TOLERANCE = 1.0e-9;
+
+    /**
+     * The graph.
+     */
+    private final AutomatonGraph graph;
+
+    /**
+     * True, if the spatial representations form a regular lattice.
+     */
+    private final boolean regular;
+
+    /**
+     * The left most x position of the lattice.
+     */
+    private double originX;
+
+    /**
+     * The top most y position of the lattice.
+     */
+    private double originY;
+
+    /**
+     * The width of a rectangle of the lattice.
+     */
+    private double width;
+
+    /**
+     * The height of a rectangle of the lattice.
+     */
+    private double height;
+
+    /**
+     * The nodes referenced by the bounding boxes of their spatial representations (only for irregular graphs).
+     */
+    private SpatialHash<AutomatonNode> nodeIndex;
+
+    /**
+     * Creates a new node locator for the current spatial representations of the nodes in the graph.
+     *
+     * @param graph The graph.
+     */
+    public NodeLocator(AutomatonGraph graph) {
+        this.graph = graph;
+        regular = determineLattice();
+        if (!regular) {
+            indexNodes();
+            logger.debug("Spatial representations of {} nodes are no regular lattice, indexed them in {} cells.",
+                    graph.getNodes().size(), nodeIndex.getNumberOfCells());
+        }
+    }
+
+    /**
+     * Returns true if the spatial representations of all nodes form a regular lattice of rectangles.
+     *
+     * @return True, if the nodes are located arithmetically.
+     */
+    public boolean isRegular() {
+        return regular;
+    }
+
+    /**
+     * Returns the node, whose spatial representation contains the given position or null if no node contains it.
+     *
+     * @param position The position.
+     * @return The containing node.
+     */
+    public AutomatonNode locate(Vector2D position) {
+        if (regular) {
+            int column = (int) Math.floor((position.getX() - originX) / width);
+            int row = (int) Math.floor((position.getY() - originY) / height);
+            if (containsPosition(column, row, position)) {
+                return graph.getNode(column, row);
+            }
+            // positions on the edges of rectangles depend on the rounding
+            for (int columnOffset = -1; columnOffset <= 1; columnOffset++) {
+                for (int rowOffset = -1; rowOffset <= 1; rowOffset++) {
+                    if (containsPosition(column + columnOffset, row + rowOffset, position)) {
+                        return graph.getNode(column + columnOffset, row + rowOffset);
+                    }
+                }
+            }
+            return null;
+        }
+        List<AutomatonNode> candidates = new ArrayList<>();
+        nodeIndex.collect(position, 0.0, candidates);
+        for (AutomatonNode candidate : candidates) {
+            if (candidate.getSpatialRepresentation().containsVector(position)) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    private boolean containsPosition(int column, int row, Vector2D position) {
+        if (column < 0 || row < 0 || column >= graph.getNumberOfColumns() || row >= graph.getNumberOfRows()) {
+            return false;
+        }
+        AutomatonNode node = graph.getNode(column, row);
+        return node != null && node.getSpatialRepresentation().containsVector(position);
+    }
+
+    /**
+     * Determines origin and size of the lattice and checks if every rectangle is placed according to the coordinate of
+     * its node.
+     *
+     * @return True, if the spatial representations form a regular lattice.
+     */
+    private boolean determineLattice() {
+        boolean initialized = false;
+        for (AutomatonNode node : graph.getNodes()) {
+            Polygon representation = node.getSpatialRepresentation();
+            if (!(representation instanceof Rectangle)) {
+                return false;
+            }
+            Vector2D[] boundingBox = determineBoundingBox(representation);
+            double currentWidth = boundingBox[1].getX() - boundingBox[0].getX();
+            double currentHeight = boundingBox[1].getY() - boundingBox[0].getY();
+            int column = node.getIdentifier().getColumn();
+            int row = node.getIdentifier().getRow();
+            if (!initialized) {
+                width = currentWidth;
+                height = currentHeight;
+                if (!(width > 0.0) || !(height > 0.0)) {
+                    return false;
+                }
+                originX = boundingBox[0].getX() - column * width;
+                originY = boundingBox[0].getY() - row * height;
+                initialized = true;
+                continue;
+            }
+            double tolerance = TOLERANCE * Math.max(width, height) * (1 + Math.max(column, row));
+            if (Math.abs(currentWidth - width) > tolerance ||
+                    Math.abs(currentHeight - height) > tolerance ||
+                    Math.abs(boundingBox[0].getX() - (originX + column * width)) > tolerance ||
+                    Math.abs(boundingBox[0].getY() - (originY + row * height)) > tolerance) {
+                return false;
+            }
+        }
+        return initialized;
+    }
+
+    /**
+     * References all nodes with spatial representations by their bounding boxes.
+     */
+    private void indexNodes() {
+        double totalExtend = 0.0;
+        int representations = 0;
+        for (AutomatonNode node : graph.getNodes()) {
+            Polygon representation = node.getSpatialRepresentation();
+            if (representation != null) {
+                Vector2D[] boundingBox = determineBoundingBox(representation);
+                totalExtend += Math.max(boundingBox[1].getX() - boundingBox[0].getX(), boundingBox[1].getY() - boundingBox[0].getY());
+                representations++;
+            }
+        }
+        double cellSize = representations > 0 ? totalExtend / representations : 0.0;
+        nodeIndex = new SpatialHash<>(cellSize > 0.0 ? cellSize : 1.0);
+        for (AutomatonNode node : graph.getNodes()) {
+            Polygon representation = node.getSpatialRepresentation();
+            if (representation != null) {
+                Vector2D[] boundingBox = determineBoundingBox(representation);
+                nodeIndex.insert(node, boundingBox[0], boundingBox[1]);
+            }
+        }
+    }
+
+    private static Vector2D[] determineBoundingBox(Polygon polygon) {
+        double minX = Double.POSITIVE_INFINITY;
+        double minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY;
+        double maxY = Double.NEGATIVE_INFINITY;
+        for (Vector2D vertex : polygon.getVertices()) {
+            minX = Math.min(minX, vertex.getX());
+            minY = Math.min(minY, vertex.getY());
+            maxX = Math.max(maxX, vertex.getX());
+            maxY = Math.max(maxY, vertex.getY());
+        }
+        return new Vector2D[]{new Vector2D(minX, minY), new Vector2D(maxX, maxY)};
+    }
+
+}
@@ -5,6 +5,7 @@ import bio.singa.features.model.Evidence;
 import bio.singa.features.model.Feature;
 import bio.singa.features.model.AbstractScalableQuantitativeFeature;
 import bio.singa.simulation.model.modules.concentration.ModuleState;
+import bio.singa.simulation.model.modules.concentration.TimeStepDependence;
 import bio.singa.simulation.model.parameters.FeatureManager;
 import bio.singa.simulation.model.simulation.Simulation;
 import bio.singa.simulation.model.simulation.UpdateScheduler;
@@ -63,27 +64,49 @@ public abstract class AbstractUpdateModule implements UpdateModule {
     @Override
     public void run() {
         UpdateScheduler scheduler = getSimulation().getScheduler();
-        while (state == PENDING || state == REQUIRING_RECALCULATION) {
-            switch (state) {
-                case PENDING:
-                    // calculate update
-                    logger.debug("calculating updates for {} ({}).", Thread.currentThread().getName(), identifier);
-                    calculateUpdates();
-                    break;
-                case REQUIRING_RECALCULATION:
-                    // optimize time step
-                    logger.debug("{} ({}) requires recalculation.", Thread.currentThread().getName(), identifier);
-                    boolean prioritizedModule = scheduler.interrupt();
-                    if (prioritizedModule) {
-                        optimizeTimeStep();
-                    } else {
-                        state = INTERRUPTED;
-                    }
-                    break;
+        long startWallTime = System.nanoTime();
+        long startCpuTime = scheduler.getMetrics().currentCpuTime();
+        try {
+            while (state == PENDING || state == REQUIRING_RECALCULATION) {
+                switch (state) {
+                    case PENDING:
+                        // another module already requested a recalculation
+                        if (isCancelled()) {
+                            state = INTERRUPTED;
+                            break;
+                        }
+                        // calculate update
+                        logger.debug("calculating updates for {} ({}).", Thread.currentThread().getName(), identifier);
+                        calculateUpdates();
+                        break;
+                    case REQUIRING_RECALCULATION:
+                        // optimize time step
+                        logger.debug("{} ({}) requires recalculation.", Thread.currentThread().getName(), identifier);
+                        boolean prioritizedModule = scheduler.interrupt(this);
+                        if (prioritizedModule) {
+                            optimizeTimeStep();
+                        } else {
+                            state = INTERRUPTED;
+                        }
+                        break;
+                }
             }
+        } catch (RuntimeException e) {
+            // the scheduler rethrows the failure once all modules finished
+            scheduler.reportFailure(this, e);
         }
-        scheduler.getCountDownLatch().countDown();
-        logger.debug("Module {} finished in thread {}, latch at {}.", getIdentifier(),  Thread.currentThread().getName(), scheduler.getCountDownLatch().getCount());
+        scheduler.getMetrics().recordModule(this, startWallTime, startCpuTime);
+        scheduler.moduleFinished(this);
+    }
+
+    /**
+     * Returns true if this module should stop calculating updates, since another module requested a recalculation
+     * of the current epoch.
+     *
+     * @return True if the calculation should be cancelled.
+     */
+    public boolean isCancelled() {
+        return getSimulation().getScheduler().isCancelled(this);
     }
 
     protected abstract void calculateUpdates();
@@ -130,6 +153,17 @@ public abstract class AbstractUpdateModule implements UpdateModule {
         }
     }
 
+    /**
+     * Returns how the deltas of this module depend on the time step. Modules are recalculated after every change of
+     * the time step by default.
+     *
+     * @return The time step dependence.
+     */
+    @Override
+    public TimeStepDependence getTimeStepDependence() {
+        return TimeStepDependence.NONLINEAR;
+    }
+
     @Override
     public void reset() {
         state = ModuleState.PENDING;
@@ -4,6 +4,7 @@ import bio.singa.simulation.entities.ChemicalEntity;
 import bio.singa.features.model.Evidence;
 import bio.singa.features.model.Feature;
 import bio.singa.simulation.model.modules.concentration.ModuleState;
+import bio.singa.simulation.model.modules.concentration.TimeStepDependence;
 import bio.singa.simulation.model.simulation.Simulation;
 
 import java.util.Collection;
@@ -17,6 +18,7 @@ public interface UpdateModule extends Runnable {
 
     String getIdentifier();
     ModuleState getState();
+    TimeStepDependence getTimeStepDependence();
     void setSimulation(Simulation simulation);
 
     Set<ChemicalEntity> getReferencedChemicalEntities();
@@ -6,10 +6,12 @@ import bio.singa.features.units.UnitRegistry;
 import bio.singa.simulation.exceptions.NumericalInstabilityException;
 import bio.singa.simulation.model.graphs.AutomatonNode;
 import bio.singa.simulation.model.modules.AbstractUpdateModule;
+import bio.singa.simulation.model.modules.UpdateModule;
 import bio.singa.simulation.model.modules.concentration.functions.AbstractDeltaFunction;
 import bio.singa.simulation.model.modules.concentration.scope.UpdateScope;
 import bio.singa.simulation.model.modules.concentration.specifity.UpdateSpecificity;
 import bio.singa.simulation.model.sections.CellSubsection;
+import bio.singa.simulation.model.simulation.ActivityTracker;
 import bio.singa.simulation.model.simulation.Updatable;
 import bio.singa.simulation.model.simulation.error.NumericalError;
 import bio.singa.simulation.model.simulation.error.TimeStepManager;
@@ -17,9 +19,11 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import java.util.function.Predicate;
 
+import static bio.singa.simulation.model.modules.concentration.ModuleState.INTERRUPTED;
 import static bio.singa.simulation.model.modules.concentration.ModuleState.REQUIRING_RECALCULATION;
 import static bio.singa.simulation.model.modules.concentration.ModuleState.SUCCEEDED;
 import static bio.singa.simulation.model.simulation.error.ErrorManager.Reason.LOCAL_ERROR;
@@ -58,6 +62,12 @@ public abstract class ConcentrationBasedModule<DeltaFunctionType extends Abstrac
      * Evaluated every time the module is applied to any updatable.
      */
     private Predicate<Updatable> applicationCondition;
+
+    /**
+     * The potential deltas calculated during the current round, that are assigned by the scheduler after the round.
+     */
+    private final PendingDeltas pendingDeltas;
+
     private CellSubsection restrictedSubsection;
     private List<AutomatonNode> relevantNodes;
 
@@ -67,6 +77,7 @@ public abstract class ConcentrationBasedModule<DeltaFunctionType extends Abstrac
     public ConcentrationBasedModule() {
         supplier = new FieldSupplier();
         applicationCondition = updatable -> true;
+        pendingDeltas = new PendingDeltas();
     }
 
     /**
@@ -122,7 +133,7 @@ public abstract class ConcentrationBasedModule<DeltaFunctionType extends Abstrac
      *
      * @param scope The scope of this module.
      */
-    void setScope(UpdateScope scope) {
+    protected void setScope(UpdateScope scope) {
         this.scope = scope;
     }
 
@@ -151,39 +162,60 @@ public abstract class ConcentrationBasedModule<DeltaFunctionType extends Abstrac
      * @param delta The delta itself.
      */
     public void handleDelta(ConcentrationDeltaIdentifier deltaIdentifier, ConcentrationDelta delta) {
-        logDelta(deltaIdentifier, delta);
+        handleDelta(deltaIdentifier.getUpdatable(), deltaIdentifier.getReference(), deltaIdentifier.getSubsection(),
+                deltaIdentifier.getEntity(), delta.getModule(), delta.getValue());
+    }
+
+    /**
+     * Handles a delta for the given updatable based on the current state of the calculation.
+     *
+     * @param updatable The updatable.
+     * @param reference The reference of the delta (an empty string if there is no reference).
+     * @param subsection The subsection.
+     * @param entity The entity.
+     * @param delta The delta itself.
+     */
+    public void handleDelta(Updatable updatable, String reference, CellSubsection subsection, ChemicalEntity entity, ConcentrationDelta delta) {
+        handleDelta(updatable, reference, subsection, entity, delta.getModule(), delta.getValue());
+    }
+
+    /**
+     * Accumulates full deltas, respectively accumulates half deltas and adds the resulting potential delta to the
+     * pending deltas of this module.
+     *
+     * @param updatable The updatable.
+     * @param reference The reference of the delta.
+     * @param subsection The subsection.
+     * @param entity The entity.
+     * @param module The module that calculated the delta.
+     * @param value The value of the delta.
+     */
+    private void handleDelta(Updatable updatable, String reference, CellSubsection subsection, ChemicalEntity entity, UpdateModule module, double value) {
+        if (logger.isTraceEnabled()) {
+            logger.trace("{} delta for {} in {}:{} = {}",
+                    supplier.isStrutCalculation() ? "Half" : "Full",
+                    entity.getIdentifier(),
+                    updatable.getStringIdentifier(),
+                    subsection.getIdentifier(),
+                    value);
+        }
+        DeltaAccumulator deltas = supplier.getDeltas();
         if (supplier.isStrutCalculation()) {
-            delta = delta.multiply(2.0);
-            supplier.addHalfDelta(deltaIdentifier, delta);
+            double halfDelta = value * 2.0;
+            int entry = deltas.addHalfDelta(updatable, reference, subsection, entity, halfDelta);
             // calculate actual applied delta
-            ConcentrationDelta fullDelta = supplier.getCurrentFullDeltas().get(deltaIdentifier);
-            ConcentrationDelta applied;
-            if (fullDelta == null) {
-                applied = new ConcentrationDelta(delta.getModule(), delta.getCellSubsection(), delta.getChemicalEntity(), delta.getValue());
+            double applied;
+            if (deltas.hasFullDelta(entry)) {
+                applied = (deltas.getFullDelta(entry) + halfDelta) * 0.5;
             } else {
-                applied = new ConcentrationDelta(delta.getModule(), delta.getCellSubsection(), delta.getChemicalEntity(), (fullDelta.getValue() + delta.getValue()) * 0.5);
+                applied = halfDelta;
             }
-            deltaIdentifier.getUpdatable().addPotentialDelta(applied);
+            pendingDeltas.add(updatable, module, subsection, entity, applied);
         } else {
-            supplier.addFullDelta(deltaIdentifier, delta);
+            deltas.addFullDelta(updatable, reference, subsection, entity, value);
         }
     }
 
-    /**
-     * Produces a log massage for the given update.
-     *
-     * @param deltaIdentifier The delta identifier.
-     * @param delta The delta.
-     */
-    private void logDelta(ConcentrationDeltaIdentifier deltaIdentifier, ConcentrationDelta delta) {
-        logger.trace("{} delta for {} in {}:{} = {}",
-                supplier.isStrutCalculation() ? "Half" : "Full",
-                deltaIdentifier.getEntity().getIdentifier(),
-                deltaIdentifier.getUpdatable().getStringIdentifier(),
-                deltaIdentifier.getSubsection().getIdentifier(),
-                delta.getValue());
-    }
-
     /**
      * Returns true if the delta is valid, i.e. it is not zero and nor below the numerical threshold.
      *
@@ -225,48 +257,42 @@ public abstract class ConcentrationBasedModule<DeltaFunctionType extends Abstrac
      */
     public NumericalError determineLargestLocalError() {
         // no deltas mean this module did not change anything in the course of this simulation step
-        if (supplier.getCurrentFullDeltas().isEmpty()) {
+        DeltaAccumulator deltas = supplier.getDeltas();
+        if (deltas.getNumberOfFullDeltas() == 0) {
             return NumericalError.MINIMAL_EMPTY_ERROR;
         }
 
         // compare full and half deltas
         double largestLocalError = -Double.MAX_VALUE;
-        ConcentrationDeltaIdentifier largestIdentifier = null;
+        int largestEntry = -1;
         double associatedDelta = 0.0;
 
-        for (ConcentrationDeltaIdentifier identifier : supplier.getCurrentFullDeltas().keySet()) {
-            ConcentrationDelta halfDeltaObject = supplier.getCurrentHalfDeltas().get(identifier);
-            if (halfDeltaObject == null) {
+        double moleculeFraction = getSimulation().getScheduler().getMoleculeFraction();
+        for (int entry = 0; entry < deltas.size(); entry++) {
+            if (!deltas.hasFullDelta(entry) || !deltas.hasHalfDelta(entry)) {
                 continue;
             }
-            double halfDelta = halfDeltaObject.getValue();
-            if (halfDelta < getSimulation().getScheduler().getMoleculeFraction()) {
+            double halfDelta = deltas.getHalfDelta(entry);
+            if (halfDelta < moleculeFraction) {
                 continue;
             }
-            ConcentrationDelta fullDeltaObject = supplier.getCurrentFullDeltas().get(identifier);
-            if (fullDeltaObject == null) {
-                System.out.println(getIdentifier());
-                System.out.println(getSupplier().getCurrentFullDeltas());
-                System.out.println(getSupplier().getCurrentHalfDeltas());
-                continue;
-            }
-            double fullDelta = fullDeltaObject.getValue();
+            double fullDelta = deltas.getFullDelta(entry);
             // calculate error
             double localError = Math.abs(1 - (fullDelta / halfDelta));
             // determine the largest error in the current deltas
             if (largestLocalError < localError) {
                 // check for numerical instabilities
                 checkErrorStability(fullDelta, halfDelta, localError);
-                largestIdentifier = identifier;
+                largestEntry = entry;
                 largestLocalError = localError;
                 associatedDelta = fullDelta;
             }
         }
 
-        if (largestIdentifier == null) {
+        if (largestEntry < 0) {
             return NumericalError.MINIMAL_EMPTY_ERROR;
         }
-        NumericalError localError = new NumericalError(largestIdentifier.getUpdatable(), largestIdentifier.getEntity(), largestLocalError);
+        NumericalError localError = new NumericalError(deltas.getUpdatable(largestEntry), deltas.getEntity(largestEntry), largestLocalError);
         // set local error and return local error
         getSimulation().getScheduler().getErrorManager().setLargestLocalNumericalError(localError, this, associatedDelta);
         return localError;
@@ -289,12 +315,101 @@ public abstract class ConcentrationBasedModule<DeltaFunctionType extends Abstrac
 
     @Override
     public void calculateUpdates() {
+        scope.processAllUpdatables(getProcessedUpdatables());
+        // partial updates are discarded, since the epoch is recalculated
+        if (isCancelled()) {
+            setState(INTERRUPTED);
+            return;
+        }
+        evaluateModuleState();
+    }
+
+    /**
+     * Returns the updatables this module is calculated for in the current epoch, i.e. the active updatables of the
+     * simulation, restricted to the relevant nodes if the module is restricted to a subsection.
+     *
+     * @return The processed updatables.
+     */
+    private List<? extends Updatable> getProcessedUpdatables() {
+        ActivityTracker activityTracker = getSimulation().getActivityTracker();
+        if (relevantNodes == null) {
+            return getSimulation().getActiveUpdatables();
+        }
+        if (activityTracker == null) {
+            return relevantNodes;
+        }
+        List<AutomatonNode> activeNodes = new ArrayList<>();
+        for (AutomatonNode relevantNode : relevantNodes) {
+            if (activityTracker.isActive(relevantNode)) {
+                activeNodes.add(relevantNode);
+            }
+        }
+        return activeNodes;
+    }
+
+    /**
+     * Evaluates the delta functions of this module once for the current concentrations and assigns the resulting
+     * deltas as potential deltas, without estimating the local error (see
+     * {@link UpdateScope#evaluateAllUpdatables(Collection)}). Used by integrators that estimate the error from
+     * multiple evaluations of all modules, such as the
+     * {@link bio.singa.simulation.model.simulation.integrators.EmbeddedRungeKuttaIntegrator}.
+     */
+    public void evaluateDeltas() {
+        scope.evaluateAllUpdatables(getProcessedUpdatables());
+        setState(SUCCEEDED);
+    }
+
+    /**
+     * Evaluates the delta functions of this module once for the current concentrations of the given updatables only
+     * (see {@link #evaluateDeltas()}). Used by integrators that advance updatables independently, such as the
+     * {@link bio.singa.simulation.model.simulation.integrators.StrangSplittingIntegrator}.
+     *
+     * @param updatables The updatables.
+     */
+    public void evaluateDeltas(Collection<? extends Updatable> updatables) {
         if (relevantNodes != null) {
-            scope.processAllUpdatables(relevantNodes);
+            // same restriction as the relevant nodes
+            List<Updatable> relevantUpdatables = new ArrayList<>();
+            for (Updatable updatable : updatables) {
+                if (updatable instanceof AutomatonNode && updatable.getConcentrationContainer().getReferencedSubsections().contains(restrictedSubsection)) {
+                    relevantUpdatables.add(updatable);
+                }
+            }
+            scope.evaluateAllUpdatables(relevantUpdatables);
         } else {
-            scope.processAllUpdatables(getSimulation().getUpdatables());
+            scope.evaluateAllUpdatables(updatables);
         }
-        evaluateModuleState();
+        setState(SUCCEEDED);
+    }
+
+    /**
+     * Adds all full deltas that have been accumulated to the pending deltas of this module.
+     */
+    public void assignFullDeltas() {
+        DeltaAccumulator deltas = supplier.getDeltas();
+        for (int entry = 0; entry < deltas.size(); entry++) {
+            if (deltas.hasFullDelta(entry)) {
+                pendingDeltas.add(deltas.getUpdatable(entry), this, deltas.getSubsection(entry), deltas.getEntity(entry), deltas.getFullDelta(entry));
+            }
+        }
+    }
+
+    /**
+     * Returns the potential deltas, that have been calculated during the current round and are not yet assigned to
+     * their updatables. Only the thread calculating this module may add deltas during a round.
+     *
+     * @return The pending deltas.
+     */
+    public PendingDeltas getPendingDeltas() {
+        return pendingDeltas;
+    }
+
+    /**
+     * Assigns the pending deltas as potential deltas to their updatables. Called by the scheduler after each round,
+     * when no module is calculated.
+     */
+    public void assignPendingDeltas() {
+        pendingDeltas.assign();
     }
 
     @Override
@@ -332,6 +447,18 @@ public abstract class ConcentrationBasedModule<DeltaFunctionType extends Abstrac
 
     }
 
+    /**
+     * Returns true if the deltas of this module, evaluated for an updatable, only depend on and only change the
+     * concentrations of this updatable. Local modules can be integrated independently for each updatable (e.g. by the
+     * {@link bio.singa.simulation.model.simulation.integrators.StrangSplittingIntegrator}). By default, modules are not
+     * local.
+     *
+     * @return True if the module is local.
+     */
+    public boolean isLocal() {
+        return false;
+    }
+
     @Override
     public double getScaledFeature(Class<? extends AbstractScalableQuantitativeFeature<?>> featureClass) {
         // feature from the module (like reaction rates)
@@ -392,6 +519,7 @@ public abstract class ConcentrationBasedModule<DeltaFunctionType extends Abstrac
     @Override
     public void onReset() {
         supplier.clearDeltas();
+        pendingDeltas.clear();
         supplier.resetError();
     }
 
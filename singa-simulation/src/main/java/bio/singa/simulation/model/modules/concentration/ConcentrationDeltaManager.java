@@ -3,7 +3,9 @@ package bio.singa.simulation.model.modules.concentration;
 import bio.singa.simulation.entities.ChemicalEntity;
 import bio.singa.core.events.UpdateEventListener;
 import bio.singa.features.quantities.MolarConcentration;
+import bio.singa.simulation.model.modules.UpdateModule;
 import bio.singa.simulation.model.sections.CellSubsection;
+import bio.singa.simulation.model.sections.ConcentrationGrid;
 import bio.singa.simulation.model.sections.ConcentrationContainer;
 import bio.singa.simulation.model.simulation.error.NumericalError;
 import org.slf4j.Logger;
@@ -12,12 +14,16 @@ import org.slf4j.LoggerFactory;
 import javax.measure.Quantity;
 import javax.measure.quantity.Dimensionless;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
+import java.util.Set;
 
 /**
  * The ConcentrationDeltaManager handles current concentrations of an updatable and the updates to those
  * concentrations that should be applied during simulation.
+ * <p>
+ * The manager is not thread safe. Modules calculated in parallel do not add potential deltas directly, but collect
+ * them in their {@link PendingDeltas}, which are assigned by the scheduler after each calculation round. Passes over
+ * all updatables between rounds only modify the manager of the updatable they are applied to.
  *
  * @author cl
  */
@@ -28,13 +34,13 @@ public class ConcentrationDeltaManager {
      */
     private static final Logger logger = LoggerFactory.getLogger(ConcentrationDeltaManager.class);
     /**
-     * A list of potential deltas.
+     * The potential deltas.
      */
-    private final List<ConcentrationDelta> potentialDeltas;
+    private final DeltaBuffer potentialDeltas;
     /**
      * Deltas that are to be applied to the node.
      */
-    private final List<ConcentrationDelta> finalDeltas;
+    private final DeltaBuffer finalDeltas;
     /**
      * The current concentration, this is modified during calculations and might not be the actual value.
      */
@@ -49,6 +55,10 @@ public class ConcentrationDeltaManager {
      * required.
      */
     private ConcentrationContainer originalConcentrations;
+    /**
+     * A reusable container to check whether the potential deltas would result in negative concentrations.
+     */
+    private ConcentrationContainer cappingConcentrations;
     /**
      * A flag signifying if this node is observed.
      */
@@ -65,8 +75,8 @@ public class ConcentrationDeltaManager {
      * @param initialConcentrations The initial concentrations.
      */
     public ConcentrationDeltaManager(ConcentrationContainer initialConcentrations) {
-        finalDeltas = new ArrayList<>();
-        potentialDeltas = Collections.synchronizedList(new ArrayList<>());
+        finalDeltas = new DeltaBuffer();
+        potentialDeltas = new DeltaBuffer();
         observed = false;
         fixedEntities = new ArrayList<>();
         currentConcentrations = initialConcentrations;
@@ -125,60 +135,93 @@ public class ConcentrationDeltaManager {
     }
 
     public boolean hasDeltas() {
-        return !getFinalDeltas().isEmpty();
+        return !finalDeltas.isEmpty();
+    }
+
+    /**
+     * Returns the largest absolute value of all deltas, that are going to be applied to this updatable.
+     *
+     * @return The largest absolute final delta.
+     */
+    public double getLargestFinalDelta() {
+        double largestDelta = 0.0;
+        for (int index = 0; index < finalDeltas.size(); index++) {
+            largestDelta = Math.max(largestDelta, Math.abs(finalDeltas.getValue(index)));
+        }
+        return largestDelta;
     }
 
     public void setInterimAndUpdateCurrentConcentrations() {
-        currentConcentrations = originalConcentrations.fullCopy();
-        interimConcentrations = originalConcentrations.fullCopy();
-        for (ConcentrationDelta delta : potentialDeltas) {
+        restoreOriginalConcentrations();
+        interimConcentrations = copyOriginalConcentrations(interimConcentrations);
+        for (int index = 0; index < potentialDeltas.size(); index++) {
+            CellSubsection subsection = potentialDeltas.getSubsection(index);
+            ChemicalEntity entity = potentialDeltas.getEntity(index);
+            double value = potentialDeltas.getValue(index);
+            double currentConcentration = currentConcentrations.get(subsection, entity);
             // if delta would add a new entity do not consider it during stability evaluation
-            if (currentConcentrations.get(delta.getCellSubsection(), delta.getChemicalEntity()) == 0.0) {
+            if (currentConcentration == 0.0) {
                 continue;
             }
-            double updatedHalfConcentration = currentConcentrations.get(delta.getCellSubsection(), delta.getChemicalEntity()) + delta.getValue() * 0.5;
-            double updatedFullConcentration = interimConcentrations.get(delta.getCellSubsection(), delta.getChemicalEntity()) + delta.getValue();
-            currentConcentrations.set(delta.getCellSubsection(), delta.getChemicalEntity(), updatedHalfConcentration);
-            interimConcentrations.set(delta.getCellSubsection(), delta.getChemicalEntity(), updatedFullConcentration);
+            double updatedHalfConcentration = currentConcentration + value * 0.5;
+            double updatedFullConcentration = interimConcentrations.get(subsection, entity) + value;
+            currentConcentrations.set(subsection, entity, updatedHalfConcentration);
+            interimConcentrations.set(subsection, entity, updatedFullConcentration);
         }
-        potentialDeltas.clear();
+        clearPotentialDeltas();
     }
 
     public void determineComparisionConcentrations() {
-        currentConcentrations = originalConcentrations.fullCopy();
-        for (ConcentrationDelta delta : potentialDeltas) {
-            double updatedConcentration = currentConcentrations.get(delta.getCellSubsection(), delta.getChemicalEntity()) + delta.getValue();
-            currentConcentrations.set(delta.getCellSubsection(), delta.getChemicalEntity(), updatedConcentration);
+        restoreOriginalConcentrations();
+        for (int index = 0; index < potentialDeltas.size(); index++) {
+            CellSubsection subsection = potentialDeltas.getSubsection(index);
+            ChemicalEntity entity = potentialDeltas.getEntity(index);
+            double updatedConcentration = currentConcentrations.get(subsection, entity) + potentialDeltas.getValue(index);
+            currentConcentrations.set(subsection, entity, updatedConcentration);
         }
     }
 
     public boolean concentrationIsAtCap() {
-        ConcentrationContainer container = originalConcentrations.fullCopy();
-        for (ConcentrationDelta delta : potentialDeltas) {
-            double remainingConcentration = container.get(delta.getCellSubsection(), delta.getChemicalEntity());
-            double updatedConcentration = remainingConcentration + delta.getValue();
+        cappingConcentrations = copyOriginalConcentrations(cappingConcentrations);
+        ConcentrationContainer container = cappingConcentrations;
+        for (int index = 0; index < potentialDeltas.size(); index++) {
+            CellSubsection subsection = potentialDeltas.getSubsection(index);
+            ChemicalEntity entity = potentialDeltas.getEntity(index);
+            double remainingConcentration = container.get(subsection, entity);
+            double updatedConcentration = remainingConcentration + potentialDeltas.getValue(index);
             if (updatedConcentration < 0.0) {
                 Quantity<Dimensionless> molecules = MolarConcentration.concentrationToMolecules(updatedConcentration);
                 if (Math.abs(molecules.getValue().doubleValue()) < 1e-4) {
-                    delta.setValue(-remainingConcentration);
+                    potentialDeltas.setValue(index, -remainingConcentration);
                     updatedConcentration = 0.0;
                 } else {
                     return true;
                 }
             }
-            container.set(delta.getCellSubsection(), delta.getChemicalEntity(), updatedConcentration);
+            container.set(subsection, entity, updatedConcentration);
         }
         return false;
     }
 
     public NumericalError determineGlobalNumericalError() {
+        return determineGlobalNumericalError(MolarConcentration.moleculesToConcentration(1e-4));
+    }
+
+    /**
+     * Determines the largest relative error between the full step concentrations (interim concentrations) and the
+     * concentrations after two half steps (current concentrations). Concentrations smaller than the given negligible
+     * concentration are not considered.
+     *
+     * @param negligibleConcentration The concentration below which concentrations are not considered.
+     * @return The largest error or {@link NumericalError#MINIMAL_EMPTY_ERROR} if no error could be determined.
+     */
+    public NumericalError determineGlobalNumericalError(double negligibleConcentration) {
         double largestError = 0.0;
         ChemicalEntity errorEntity = null;
         for (ChemicalEntity entity : currentConcentrations.getReferencedEntities()) {
             for (CellSubsection subsection : currentConcentrations.getReferencedSubsections()) {
                 double currentConcentration = currentConcentrations.get(subsection, entity);
-                Quantity<Dimensionless> molecules = MolarConcentration.concentrationToMolecules(currentConcentration);
-                if (molecules.getValue().doubleValue() < 1e-4) {
+                if (currentConcentration < negligibleConcentration) {
                     continue;
                 }
                 double interimConcentration = interimConcentrations.get(subsection, entity);
@@ -199,21 +242,21 @@ public class ConcentrationDeltaManager {
 
 
     /**
-     * Returns all deltas that are going to be applied to this node.
+     * Returns a copy of all deltas that are going to be applied to this node.
      *
      * @return All deltas that are going to be applied to this node.
      */
     public List<ConcentrationDelta> getFinalDeltas() {
-        return finalDeltas;
+        return finalDeltas.toDeltas();
     }
 
     /**
-     * Returns all potential deltas that should be applied.
+     * Returns a copy of all potential deltas that should be applied.
      *
      * @return All potential deltas that should be applied.
      */
     public List<ConcentrationDelta> getPotentialDeltas() {
-        return potentialDeltas;
+        return potentialDeltas.toDeltas();
     }
 
     /**
@@ -225,12 +268,54 @@ public class ConcentrationDeltaManager {
         potentialDeltas.add(potentialDelta);
     }
 
+    /**
+     * Adds a potential delta to this updatable, without requiring a {@link ConcentrationDelta} object.
+     *
+     * @param module The module that calculated the delta.
+     * @param subsection The subsection the delta is applied to.
+     * @param entity The entity the delta is applied to.
+     * @param value The value of the delta.
+     */
+    public void addPotentialDelta(UpdateModule module, CellSubsection subsection, ChemicalEntity entity, double value) {
+        potentialDeltas.add(module, subsection, entity, value);
+    }
+
     public void backupConcentrations() {
-        originalConcentrations = currentConcentrations.fullCopy();
+        if (originalConcentrations == null || originalConcentrations == currentConcentrations) {
+            originalConcentrations = currentConcentrations.fullCopy();
+        } else {
+            currentConcentrations.copyTo(originalConcentrations);
+        }
     }
 
     public void revertToOriginalConcentrations() {
-        currentConcentrations = originalConcentrations.fullCopy();
+        restoreOriginalConcentrations();
+    }
+
+    /**
+     * Copies the original concentrations into the current concentration container. The current container itself is
+     * kept, such that views of the container (e.g. pools bound to a {@link ConcentrationGrid}) remain valid.
+     */
+    private void restoreOriginalConcentrations() {
+        if (currentConcentrations == null || currentConcentrations == originalConcentrations) {
+            currentConcentrations = originalConcentrations.fullCopy();
+        } else {
+            originalConcentrations.copyTo(currentConcentrations);
+        }
+    }
+
+    /**
+     * Copies the original concentrations to the given scratch container, creating a new container if required.
+     *
+     * @param scratch The previously used scratch container (may be null).
+     * @return The scratch container containing the original concentrations.
+     */
+    private ConcentrationContainer copyOriginalConcentrations(ConcentrationContainer scratch) {
+        if (scratch == null || scratch == originalConcentrations || scratch == currentConcentrations) {
+            return originalConcentrations.fullCopy();
+        }
+        originalConcentrations.copyTo(scratch);
+        return scratch;
     }
 
     /**
@@ -241,13 +326,32 @@ public class ConcentrationDeltaManager {
         potentialDeltas.clear();
     }
 
+    /**
+     * Clears all potential deltas but the ones calculated by the given modules, which are multiplied by the given
+     * factor. Used to adapt deltas that are linear in the time step after the time step has been rescaled.
+     *
+     * @param retainedModules The modules whose deltas are retained.
+     * @param factor The ratio between the new and the previous time step.
+     */
+    public void retainPotentialDeltas(Set<UpdateModule> retainedModules, double factor) {
+        potentialDeltas.retain(retainedModules, factor);
+    }
+
+    /**
+     * Moves all potential deltas to the given buffer, leaving no potential deltas.
+     *
+     * @param target The buffer receiving the deltas.
+     */
+    public void transferPotentialDeltas(DeltaBuffer target) {
+        target.addAll(potentialDeltas);
+        potentialDeltas.clear();
+    }
+
     /**
      * Shifts the deltas from the potential delta list to the final delta list.
      */
     public void shiftDeltas() {
-        synchronized (potentialDeltas) {
-            finalDeltas.addAll(potentialDeltas);
-        }
+        finalDeltas.addAll(potentialDeltas);
         if (!observed) {
             potentialDeltas.clear();
         }
@@ -257,15 +361,68 @@ public class ConcentrationDeltaManager {
      * Applies all final deltas and clears the delta list.
      */
     public void applyDeltas() {
-        currentConcentrations = originalConcentrations;
-        interimConcentrations = originalConcentrations;
-        for (ConcentrationDelta delta : finalDeltas) {
-            double previousConcentration = currentConcentrations.get(delta.getCellSubsection(), delta.getChemicalEntity());
-            double updatedConcentration = previousConcentration + delta.getValue();
-            logger.trace("Setting {} in {} from {} to {} ", delta.getChemicalEntity(), delta.getCellSubsection().getIdentifier(), previousConcentration, updatedConcentration);
-            currentConcentrations.set(delta.getCellSubsection(), delta.getChemicalEntity(), updatedConcentration);
+        applyDeltas(true);
+    }
+
+    /**
+     * Applies all final deltas and clears the delta list. The restoration of the original concentrations can be
+     * skipped, if they have already been restored in bulk (see {@link ConcentrationGrid#restore()}).
+     *
+     * @param restore True, if the original concentrations need to be restored before applying the deltas.
+     */
+    public void applyDeltas(boolean restore) {
+        applyFinalDeltas(restore);
+        finalDeltas.clear();
+    }
+
+    /**
+     * Applies all final deltas, clears the delta list and returns the largest change of any concentration relative to
+     * its concentration before the epoch (the backed up concentration). Deltas of different modules for the same
+     * concentration are combined, such that opposing fluxes at equilibrium do not count as change. Concentrations
+     * smaller than the given negligible concentration are compared to the negligible concentration instead.
+     *
+     * @param negligibleConcentration The smallest concentration, changes are compared to.
+     * @return The largest relative change of any concentration.
+     */
+    public double applyDeltasAndDetermineChange(double negligibleConcentration) {
+        return applyDeltasAndDetermineChange(negligibleConcentration, true);
+    }
+
+    /**
+     * Applies all final deltas, clears the delta list and returns the largest relative change of any concentration
+     * (see {@link #applyDeltasAndDetermineChange(double)}). The restoration of the original concentrations can be
+     * skipped, if they have already been restored in bulk (see {@link ConcentrationGrid#restore()}).
+     *
+     * @param negligibleConcentration The smallest concentration, changes are compared to.
+     * @param restore True, if the original concentrations need to be restored before applying the deltas.
+     * @return The largest relative change of any concentration.
+     */
+    public double applyDeltasAndDetermineChange(double negligibleConcentration, boolean restore) {
+        applyFinalDeltas(restore);
+        double largestChange = 0.0;
+        for (int index = 0; index < finalDeltas.size(); index++) {
+            CellSubsection subsection = finalDeltas.getSubsection(index);
+            ChemicalEntity entity = finalDeltas.getEntity(index);
+            double previousConcentration = originalConcentrations.get(subsection, entity);
+            double change = Math.abs(currentConcentrations.get(subsection, entity) - previousConcentration);
+            largestChange = Math.max(largestChange, change / Math.max(Math.abs(previousConcentration), negligibleConcentration));
         }
         finalDeltas.clear();
+        return largestChange;
+    }
+
+    private void applyFinalDeltas(boolean restore) {
+        if (restore) {
+            restoreOriginalConcentrations();
+        }
+        for (int index = 0; index < finalDeltas.size(); index++) {
+            CellSubsection subsection = finalDeltas.getSubsection(index);
+            ChemicalEntity entity = finalDeltas.getEntity(index);
+            double previousConcentration = currentConcentrations.get(subsection, entity);
+            double updatedConcentration = previousConcentration + finalDeltas.getValue(index);
+            logger.trace("Setting {} in {} from {} to {} ", entity, subsection.getIdentifier(), previousConcentration, updatedConcentration);
+            currentConcentrations.set(subsection, entity, updatedConcentration);
+        }
     }
 
 
@@ -0,0 +1,515 @@
+package bio.singa.simulation.model.modules.concentration;
+
+import bio.singa.simulation.entities.ChemicalEntity;
+import bio.singa.simulation.model.sections.CellSubsection;
+import bio.singa.simulation.model.simulation.Updatable;
+
+import java.util.*;
+
+/**
+ * The delta accumulator sums up the full and half step deltas a module calculates during a single time step. Deltas
+ * are identified by the updatable (and an optional reference), the {@link CellSubsection} and the
+ * {@link ChemicalEntity}, equivalent to a {@link ConcentrationDeltaIdentifier}. Instead of mapping identifier objects
+ * to delta objects, each combination is packed into a primitive key, that addresses an entry in an open addressing hash
+ * table. The values of all entries are stored in primitive arrays, that are reused after clearing the accumulator.
+ * Therefore, no objects are created for accumulated deltas once the accumulator reached its working size. The slots
+ * assigned to updatables are kept after clearing the accumulator, slots that have not been used for a while (e.g. of
+ * vesicles that have been removed from the simulation) are removed once the number of slots doubled.
+ * <p>
+ * Entries are stored consecutively in the order of their creation and can be accessed by their entry index:
+ * <pre>
+ *  for (int entry = 0; entry &lt; accumulator.size(); entry++) {
+ *      if (accumulator.hasFullDelta(entry)) {
+ *          double fullDelta = accumulator.getFullDelta(entry);
+ *          ...
+ *      }
+ *  } </pre>
+ * The accumulator is not thread safe, each module uses its own accumulator.
+ *
+ * @author cl
+ */
+public class DeltaAccumulator {
+
+    /**
+     * The number of bits of the key used for the entity index.
+     */
+    private static final int ENTITY_BITS = 24;
+
+    /**
+     * The number of bits of the key used for the subsection index.
+     */
+    private static final int SUBSECTION_BITS = 8;
+
+    /**
+     * The initial number of entries.
+     */
+    private static final int INITIAL_CAPACITY = 64;
+
+    /**
+     * The minimal number of updatable slots, before unused slots are removed.
+     */
+    private static final int MINIMAL_SLOT_LIMIT = 1024;
+
+    /**
+     * The hash table, containing the entry index + 1 for each occupied bucket (0 for empty buckets).
+     */
+    private int[] table;
+
+    /**
+     * The keys of each entry.
+     */
+    private long[] keys;
+
+    /**
+     * The updatables of each entry.
+     */
+    private Updatable[] updatables;
+
+    /**
+     * The references of each entry.
+     */
+    private String[] references;
+
+    /**
+     * The subsections of each entry.
+     */
+    private CellSubsection[] subsections;
+
+    /**
+     * The entities of each entry.
+     */
+    private ChemicalEntity[] entities;
+
+    /**
+     * The accumulated full deltas of each entry.
+     */
+    private double[] fullDeltas;
+
+    /**
+     * The accumulated half deltas of each entry.
+     */
+    private double[] halfDeltas;
+
+    /**
+     * True if a full delta has been added for the entry.
+     */
+    private boolean[] hasFullDeltas;
+
+    /**
+     * True if a half delta has been added for the entry.
+     */
+    private boolean[] hasHalfDeltas;
+
+    /**
+     * The number of entries.
+     */
+    private int size;
+
+    /**
+     * The number of entries with full deltas.
+     */
+    private int numberOfFullDeltas;
+
+    /**
+     * The slot of each updatable without reference.
+     */
+    private final Map<Updatable, Integer> updatableSlots;
+
+    /**
+     * The slot of each updatable and reference.
+     */
+    private final Map<Updatable, Map<String, Integer>> referencedSlots;
+
+    /**
+     * The slot of each subsection.
+     */
+    private final List<CellSubsection> subsectionSlots;
+
+    /**
+     * The number of assigned updatable slots.
+     */
+    private int numberOfSlots;
+
+    /**
+     * The number of slots, above which unused slots are removed.
+     */
+    private int slotLimit;
+
+    /**
+     * The number of compactions, when each slot has been used last.
+     */
+    private int[] slotUsages;
+
+    /**
+     * The number of times unused slots have been removed.
+     */
+    private int compactions;
+
+    /**
+     * The updatable requested last (deltas are usually added for one updatable after another).
+     */
+    private Updatable lastUpdatable;
+
+    /**
+     * The reference requested last (null if there was no reference).
+     */
+    private String lastReference;
+
+    /**
+     * The slot of the updatable requested last.
+     */
+    private int lastSlot;
+
+    /**
+     * Creates a new empty delta accumulator.
+     */
+    public DeltaAccumulator() {
+        table = new int[INITIAL_CAPACITY * 2];
+        keys = new long[INITIAL_CAPACITY];
+        updatables = new Updatable[INITIAL_CAPACITY];
+        references = new String[INITIAL_CAPACITY];
+        subsections = new CellSubsection[INITIAL_CAPACITY];
+        entities = new ChemicalEntity[INITIAL_CAPACITY];
+        fullDeltas = new double[INITIAL_CAPACITY];
+        halfDeltas = new double[INITIAL_CAPACITY];
+        hasFullDeltas = new boolean[INITIAL_CAPACITY];
+        hasHalfDeltas = new boolean[INITIAL_CAPACITY];
+        updatableSlots = new HashMap<>();
+        referencedSlots = new HashMap<>();
+        subsectionSlots = new ArrayList<>();
+        slotLimit = MINIMAL_SLOT_LIMIT;
+        slotUsages = new int[INITIAL_CAPACITY];
+    }
+
+    /**
+     * Adds the full delta to the entry of the given updatable, subsection and entity.
+     *
+     * @param updatable The updatable.
+     * @param reference The reference (an empty string if there is no reference).
+     * @param subsection The subsection.
+     * @param entity The entity.
+     * @param value The value of the delta.
+     * @return The index of the entry.
+     */
+    public int addFullDelta(Updatable updatable, String reference, CellSubsection subsection, ChemicalEntity entity, double value) {
+        int entry = entry(updatable, reference, subsection, entity, true);
+        if (!hasFullDeltas[entry]) {
+            hasFullDeltas[entry] = true;
+            numberOfFullDeltas++;
+        }
+        fullDeltas[entry] += value;
+        return entry;
+    }
+
+    /**
+     * Adds the half delta to the entry of the given updatable, subsection and entity.
+     *
+     * @param updatable The updatable.
+     * @param reference The reference (an empty string if there is no reference).
+     * @param subsection The subsection.
+     * @param entity The entity.
+     * @param value The value of the delta.
+     * @return The index of the entry.
+     */
+    public int addHalfDelta(Updatable updatable, String reference, CellSubsection subsection, ChemicalEntity entity, double value) {
+        int entry = entry(updatable, reference, subsection, entity, true);
+        hasHalfDeltas[entry] = true;
+        halfDeltas[entry] += value;
+        return entry;
+    }
+
+    /**
+     * Returns the index of the entry of the given updatable, subsection and entity or -1 if there is no such entry.
+     *
+     * @param updatable The updatable.
+     * @param reference The reference (an empty string if there is no reference).
+     * @param subsection The subsection.
+     * @param entity The entity.
+     * @return The index of the entry.
+     */
+    public int find(Updatable updatable, String reference, CellSubsection subsection, ChemicalEntity entity) {
+        return entry(updatable, reference, subsection, entity, false);
+    }
+
+    /**
+     * Returns the number of entries.
+     *
+     * @return The number of entries.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the number of entries with full deltas.
+     *
+     * @return The number of entries with full deltas.
+     */
+    public int getNumberOfFullDeltas() {
+        return numberOfFullDeltas;
+    }
+
+    public Updatable getUpdatable(int entry) {
+        return updatables[entry];
+    }
+
+    public String getReference(int entry) {
+        return references[entry];
+    }
+
+    public CellSubsection getSubsection(int entry) {
+        return subsections[entry];
+    }
+
+    public ChemicalEntity getEntity(int entry) {
+        return entities[entry];
+    }
+
+    public boolean hasFullDelta(int entry) {
+        return hasFullDeltas[entry];
+    }
+
+    public double getFullDelta(int entry) {
+        return fullDeltas[entry];
+    }
+
+    public boolean hasHalfDelta(int entry) {
+        return hasHalfDeltas[entry];
+    }
+
+    public double getHalfDelta(int entry) {
+        return halfDeltas[entry];
+    }
+
+    /**
+     * Removes all entries, retaining the allocated storage and the slots of the updatables.
+     */
+    public void clear() {
+        if (numberOfSlots > slotLimit) {
+            compactSlots();
+        }
+        if (size == 0) {
+            return;
+        }
+        Arrays.fill(table, 0);
+        Arrays.fill(updatables, 0, size, null);
+        Arrays.fill(references, 0, size, null);
+        Arrays.fill(subsections, 0, size, null);
+        Arrays.fill(entities, 0, size, null);
+        Arrays.fill(fullDeltas, 0, size, 0.0);
+        Arrays.fill(halfDeltas, 0, size, 0.0);
+        Arrays.fill(hasFullDeltas, 0, size, false);
+        Arrays.fill(hasHalfDeltas, 0, size, false);
+        size = 0;
+        numberOfFullDeltas = 0;
+    }
+
+    /**
+     * Removes the slots, that have not been used since the previous compaction and numbers the remaining slots
+     * consecutively. Slots are part of the keys, therefore the accumulator must not contain any entries.
+     */
+    private void compactSlots() {
+        int remainingSlots = 0;
+        Iterator<Map.Entry<Updatable, Integer>> iterator = updatableSlots.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Updatable, Integer> entry = iterator.next();
+            if (slotUsages[entry.getValue()] == compactions) {
+                entry.setValue(remainingSlots++);
+            } else {
+                iterator.remove();
+            }
+        }
+        Iterator<Map<String, Integer>> referencedIterator = referencedSlots.values().iterator();
+        while (referencedIterator.hasNext()) {
+            Map<String, Integer> slots = referencedIterator.next();
+            Iterator<Map.Entry<String, Integer>> slotIterator = slots.entrySet().iterator();
+            while (slotIterator.hasNext()) {
+                Map.Entry<String, Integer> entry = slotIterator.next();
+                if (slotUsages[entry.getValue()] == compactions) {
+                    entry.setValue(remainingSlots++);
+                } else {
+                    slotIterator.remove();
+                }
+            }
+            if (slots.isEmpty()) {
+                referencedIterator.remove();
+            }
+        }
+        // remaining slots have to be used again until the next compaction
+        compactions++;
+        numberOfSlots = remainingSlots;
+        slotLimit = Math.max(MINIMAL_SLOT_LIMIT, remainingSlots * 2);
+        lastUpdatable = null;
+        lastReference = null;
+    }
+
+    /**
+     * Returns the entry for the given combination, creating it if requested.
+     *
+     * @param updatable The updatable.
+     * @param reference The reference.
+     * @param subsection The subsection.
+     * @param entity The entity.
+     * @param create True if missing entries should be created.
+     * @return The index of the entry or -1 if there is no such entry.
+     */
+    private int entry(Updatable updatable, String reference, CellSubsection subsection, ChemicalEntity entity, boolean create) {
+        int updatableSlot = updatableSlot(updatable, reference, create);
+        if (updatableSlot < 0) {
+            return -1;
+        }
+        int subsectionSlot = subsectionSlot(subsection);
+        long key = ((long) updatableSlot << (ENTITY_BITS + SUBSECTION_BITS)) | ((long) subsectionSlot << ENTITY_BITS) | entity.getIndex();
+        int mask = table.length - 1;
+        int bucket = hash(key) & mask;
+        while (table[bucket] != 0) {
+            int entry = table[bucket] - 1;
+            if (keys[entry] == key) {
+                return entry;
+            }
+            bucket = (bucket + 1) & mask;
+        }
+        if (!create) {
+            return -1;
+        }
+        // create new entry
+        if (size == keys.length) {
+            growEntries();
+        }
+        int entry = size++;
+        keys[entry] = key;
+        updatables[entry] = updatable;
+        references[entry] = reference;
+        subsections[entry] = subsection;
+        entities[entry] = entity;
+        table[bucket] = entry + 1;
+        // keep load factor below one half
+        if (size * 2 > table.length) {
+            rehash(table.length * 2);
+        }
+        return entry;
+    }
+
+    /**
+     * Returns the slot of the updatable and reference.
+     *
+     * @param updatable The updatable.
+     * @param reference The reference.
+     * @param create True if missing slots should be created.
+     * @return The slot or -1 if there is no such slot.
+     */
+    private int updatableSlot(Updatable updatable, String reference, boolean create) {
+        if (reference != null && reference.isEmpty()) {
+            reference = null;
+        }
+        if (updatable == lastUpdatable && Objects.equals(reference, lastReference)) {
+            return lastSlot;
+        }
+        if (reference == null) {
+            Integer slot = updatableSlots.get(updatable);
+            if (slot == null) {
+                if (!create) {
+                    return -1;
+                }
+                slot = nextSlot();
+                updatableSlots.put(updatable, slot);
+            }
+            slotUsages[slot] = compactions;
+            lastUpdatable = updatable;
+            lastReference = null;
+            lastSlot = slot;
+            return slot;
+        }
+        Map<String, Integer> slots = referencedSlots.get(updatable);
+        if (slots == null) {
+            if (!create) {
+                return -1;
+            }
+            slots = new HashMap<>();
+            referencedSlots.put(updatable, slots);
+        }
+        Integer slot = slots.get(reference);
+        if (slot == null) {
+            if (!create) {
+                return -1;
+            }
+            slot = nextSlot();
+            slots.put(reference, slot);
+        }
+        slotUsages[slot] = compactions;
+        lastUpdatable = updatable;
+        lastReference = reference;
+        lastSlot = slot;
+        return slot;
+    }
+
+    private int nextSlot() {
+        if (numberOfSlots == slotUsages.length) {
+            slotUsages = Arrays.copyOf(slotUsages, numberOfSlots * 2);
+        }
+        return numberOfSlots++;
+    }
+
+    /**
+     * Returns the slot of the subsection.
+     *
+     * @param subsection The subsection.
+     * @return The slot.
+     */
+    private int subsectionSlot(CellSubsection subsection) {
+        // there are only few subsections
+        for (int slot = 0; slot < subsectionSlots.size(); slot++) {
+            if (subsectionSlots.get(slot).equals(subsection)) {
+                return slot;
+            }
+        }
+        if (subsectionSlots.size() == 1 << SUBSECTION_BITS) {
+            throw new IllegalStateException("Unable to accumulate deltas for more than " + (1 << SUBSECTION_BITS) + " subsections.");
+        }
+        subsectionSlots.add(subsection);
+        return subsectionSlots.size() - 1;
+    }
+
+    private void growEntries() {
+        int capacity = keys.length * 2;
+        keys = Arrays.copyOf(keys, capacity);
+        updatables = Arrays.copyOf(updatables, capacity);
+        references = Arrays.copyOf(references, capacity);
+        subsections = Arrays.copyOf(subsections, capacity);
+        entities = Arrays.copyOf(entities, capacity);
+        fullDeltas = Arrays.copyOf(fullDeltas, capacity);
+        halfDeltas = Arrays.copyOf(halfDeltas, capacity);
+        hasFullDeltas = Arrays.copyOf(hasFullDeltas, capacity);
+        hasHalfDeltas = Arrays.copyOf(hasHalfDeltas, capacity);
+    }
+
+    private void rehash(int tableSize) {
+        table = new int[tableSize];
+        int mask = tableSize - 1;
+        for (int entry = 0; entry < size; entry++) {
+            int bucket = hash(keys[entry]) & mask;
+            while (table[bucket] != 0) {
+                bucket = (bucket + 1) & mask;
+            }
+            table[bucket] = entry + 1;
+        }
+    }
+
+    private static int hash(long key) {
+        // mix bits of all key components
+        long mixed = key * 0x9E3779B97F4A7C15L;
+        return (int) (mixed ^ (mixed >>> 32));
+    }
+
+    @Override
+    public String toString() {
+        StringJoiner joiner = new StringJoiner(", ", "DeltaAccumulator{", "}");
+        for (int entry = 0; entry < size; entry++) {
+            joiner.add(updatables[entry].getStringIdentifier() + "-" + subsections[entry].getIdentifier() + "-"
+                    + entities[entry].getIdentifier() + " = " + (hasFullDeltas[entry] ? fullDeltas[entry] : "-")
+                    + "/" + (hasHalfDeltas[entry] ? halfDeltas[entry] : "-"));
+        }
+        return joiner.toString();
+    }
+
+}
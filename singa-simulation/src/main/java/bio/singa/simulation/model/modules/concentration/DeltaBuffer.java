@@ -0,0 +1,189 @@
+package bio.singa.simulation.model.modules.concentration;
+
+import bio.singa.simulation.entities.ChemicalEntity;
+import bio.singa.simulation.model.modules.UpdateModule;
+import bio.singa.simulation.model.sections.CellSubsection;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The delta buffer stores a sequence of deltas for a single updatable in parallel arrays, instead of one
+ * {@link ConcentrationDelta} object per delta. The storage is retained after clearing the buffer. The buffer is not
+ * thread safe, modules calculated in parallel collect their deltas in separate {@link PendingDeltas}.
+ *
+ * @author cl
+ */
+public class DeltaBuffer {
+
+    /**
+     * The initial number of deltas.
+     */
+    private static final int INITIAL_CAPACITY = 8;
+
+    /**
+     * The modules that calculated the deltas.
+     */
+    private UpdateModule[] modules;
+
+    /**
+     * The subsections the deltas are applied to.
+     */
+    private CellSubsection[] subsections;
+
+    /**
+     * The entities the deltas are applied to.
+     */
+    private ChemicalEntity[] entities;
+
+    /**
+     * The values of the deltas.
+     */
+    private double[] values;
+
+    /**
+     * The number of deltas.
+     */
+    private int size;
+
+    /**
+     * Creates a new empty delta buffer.
+     */
+    public DeltaBuffer() {
+        modules = new UpdateModule[INITIAL_CAPACITY];
+        subsections = new CellSubsection[INITIAL_CAPACITY];
+        entities = new ChemicalEntity[INITIAL_CAPACITY];
+        values = new double[INITIAL_CAPACITY];
+    }
+
+    /**
+     * Appends a delta.
+     *
+     * @param module The module that calculated the delta.
+     * @param subsection The subsection the delta is applied to.
+     * @param entity The entity the delta is applied to.
+     * @param value The value of the delta.
+     */
+    public void add(UpdateModule module, CellSubsection subsection, ChemicalEntity entity, double value) {
+        if (size == values.length) {
+            grow(size * 2);
+        }
+        modules[size] = module;
+        subsections[size] = subsection;
+        entities[size] = entity;
+        values[size] = value;
+        size++;
+    }
+
+    /**
+     * Appends a delta.
+     *
+     * @param delta The delta.
+     */
+    public void add(ConcentrationDelta delta) {
+        add(delta.getModule(), delta.getCellSubsection(), delta.getChemicalEntity(), delta.getValue());
+    }
+
+    /**
+     * Appends all deltas of the given buffer.
+     *
+     * @param buffer The buffer.
+     */
+    public void addAll(DeltaBuffer buffer) {
+        int requiredCapacity = size + buffer.size;
+        if (requiredCapacity > values.length) {
+            grow(Math.max(requiredCapacity, values.length * 2));
+        }
+        System.arraycopy(buffer.modules, 0, modules, size, buffer.size);
+        System.arraycopy(buffer.subsections, 0, subsections, size, buffer.size);
+        System.arraycopy(buffer.entities, 0, entities, size, buffer.size);
+        System.arraycopy(buffer.values, 0, values, size, buffer.size);
+        size = requiredCapacity;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public UpdateModule getModule(int index) {
+        return modules[index];
+    }
+
+    public CellSubsection getSubsection(int index) {
+        return subsections[index];
+    }
+
+    public ChemicalEntity getEntity(int index) {
+        return entities[index];
+    }
+
+    public double getValue(int index) {
+        return values[index];
+    }
+
+    public void setValue(int index, double value) {
+        values[index] = value;
+    }
+
+    /**
+     * Removes all deltas, retaining the allocated storage.
+     */
+    public void clear() {
+        Arrays.fill(modules, 0, size, null);
+        Arrays.fill(subsections, 0, size, null);
+        Arrays.fill(entities, 0, size, null);
+        size = 0;
+    }
+
+    /**
+     * Removes all deltas that have not been calculated by one of the given modules and multiplies the remaining deltas
+     * by the given factor, preserving their order.
+     *
+     * @param retainedModules The modules whose deltas are retained.
+     * @param factor The factor.
+     */
+    public void retain(Set<UpdateModule> retainedModules, double factor) {
+        int retained = 0;
+        for (int index = 0; index < size; index++) {
+            if (retainedModules.contains(modules[index])) {
+                modules[retained] = modules[index];
+                subsections[retained] = subsections[index];
+                entities[retained] = entities[index];
+                values[retained] = values[index] * factor;
+                retained++;
+            }
+        }
+        Arrays.fill(modules, retained, size, null);
+        Arrays.fill(subsections, retained, size, null);
+        Arrays.fill(entities, retained, size, null);
+        size = retained;
+    }
+
+    /**
+     * Creates a {@link ConcentrationDelta} for each delta in this buffer. Modifications of the resulting deltas are not
+     * reflected in this buffer.
+     *
+     * @return The deltas.
+     */
+    public List<ConcentrationDelta> toDeltas() {
+        List<ConcentrationDelta> deltas = new ArrayList<>(size);
+        for (int index = 0; index < size; index++) {
+            deltas.add(new ConcentrationDelta(modules[index], subsections[index], entities[index], values[index]));
+        }
+        return deltas;
+    }
+
+    private void grow(int capacity) {
+        modules = Arrays.copyOf(modules, capacity);
+        subsections = Arrays.copyOf(subsections, capacity);
+        entities = Arrays.copyOf(entities, capacity);
+        values = Arrays.copyOf(values, capacity);
+    }
+
+}
@@ -5,9 +5,6 @@ import bio.singa.simulation.model.sections.CellSubsection;
 import bio.singa.simulation.model.simulation.Updatable;
 import bio.singa.simulation.model.simulation.error.NumericalError;
 
-import java.util.HashMap;
-import java.util.Map;
-
 import static bio.singa.simulation.model.simulation.error.NumericalError.*;
 
 /**
@@ -33,14 +30,9 @@ public class FieldSupplier {
     private ChemicalEntity entity;
 
     /**
-     * The current full deltas.
-     */
-    private Map<ConcentrationDeltaIdentifier, ConcentrationDelta> fullDeltas;
-
-    /**
-     * The current half deltas.
+     * The current full and half deltas.
      */
-    private Map<ConcentrationDeltaIdentifier, ConcentrationDelta> halfDeltas;
+    private final DeltaAccumulator deltas;
 
     /**
      * The larges error as of yet.
@@ -56,8 +48,7 @@ public class FieldSupplier {
      * Creates a new Field Supplier.
      */
     FieldSupplier() {
-        fullDeltas = new HashMap<>();
-        halfDeltas = new HashMap<>();
+        deltas = new DeltaAccumulator();
         largestLocalError = MINIMAL_EMPTY_ERROR;
     }
 
@@ -110,35 +101,11 @@ public class FieldSupplier {
     }
 
     /**
-     * Returns all currently available full deltas.
-     * @return All currently available full deltas.
-     */
-    public Map<ConcentrationDeltaIdentifier, ConcentrationDelta> getCurrentFullDeltas() {
-        return fullDeltas;
-    }
-
-    public void addFullDelta(ConcentrationDeltaIdentifier deltaIdentifier, ConcentrationDelta delta) {
-        if (fullDeltas.containsKey(deltaIdentifier)) {
-            fullDeltas.put(deltaIdentifier, fullDeltas.get(deltaIdentifier).add(delta.getValue()));
-        } else {
-            fullDeltas.put(deltaIdentifier, delta);
-        }
-    }
-
-    /**
-     * Returns all currently available half deltas.
-     * @return All currently available half deltas.
+     * Returns the accumulator of all currently available full and half deltas.
+     * @return The accumulated deltas.
      */
-    public Map<ConcentrationDeltaIdentifier, ConcentrationDelta> getCurrentHalfDeltas() {
-        return halfDeltas;
-    }
-
-    public void addHalfDelta(ConcentrationDeltaIdentifier deltaIdentifier, ConcentrationDelta delta) {
-        if (halfDeltas.containsKey(deltaIdentifier)) {
-            halfDeltas.put(deltaIdentifier, halfDeltas.get(deltaIdentifier).add(delta.getValue()));
-        } else {
-            halfDeltas.put(deltaIdentifier, delta);
-        }
+    public DeltaAccumulator getDeltas() {
+        return deltas;
     }
 
     /**
@@ -184,8 +151,7 @@ public class FieldSupplier {
      * Clears all full end half deltas.
      */
     public void clearDeltas() {
-        fullDeltas.clear();
-        halfDeltas.clear();
+        deltas.clear();
     }
 
     @Override
@@ -194,8 +160,7 @@ public class FieldSupplier {
                 "updatable=" + updatable +
                 ", subsection=" + subsection +
                 ", entity=" + entity +
-                ", fullDeltas=" + fullDeltas +
-                ", halfDeltas=" + halfDeltas +
+                ", deltas=" + deltas +
                 ", largestLocalError=" + largestLocalError +
                 ", isStrutCalculation=" + isStrutCalculation +
                 '}';
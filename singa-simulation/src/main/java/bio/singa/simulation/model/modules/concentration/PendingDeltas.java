@@ -0,0 +1,105 @@
+package bio.singa.simulation.model.modules.concentration;
+
+import bio.singa.simulation.entities.ChemicalEntity;
+import bio.singa.simulation.model.modules.UpdateModule;
+import bio.singa.simulation.model.sections.CellSubsection;
+import bio.singa.simulation.model.simulation.Updatable;
+
+import java.util.Arrays;
+
+/**
+ * Pending deltas are potential deltas, that have been calculated by a module during a calculation round, but have not
+ * yet been assigned to their updatables. Modules are calculated in parallel, therefore each module (or each tile of a
+ * data parallel module) only writes to its own pending deltas. After the round, the
+ * {@link bio.singa.simulation.model.simulation.UpdateScheduler} assigns the pending deltas of all modules in the order
+ * of the modules, such that the potential deltas of an updatable are never modified by multiple threads at once and
+ * are assigned in the same order for every run. The storage is retained after the deltas have been assigned.
+ *
+ * @author cl
+ */
+public class PendingDeltas {
+
+    /**
+     * The initial number of deltas.
+     */
+    private static final int INITIAL_CAPACITY = 8;
+
+    /**
+     * The updatables the deltas are assigned to.
+     */
+    private Updatable[] updatables;
+
+    /**
+     * The deltas.
+     */
+    private final DeltaBuffer deltas;
+
+    /**
+     * Creates new empty pending deltas.
+     */
+    public PendingDeltas() {
+        updatables = new Updatable[INITIAL_CAPACITY];
+        deltas = new DeltaBuffer();
+    }
+
+    /**
+     * Appends a delta.
+     *
+     * @param updatable The updatable the delta is assigned to.
+     * @param module The module that calculated the delta.
+     * @param subsection The subsection the delta is applied to.
+     * @param entity The entity the delta is applied to.
+     * @param value The value of the delta.
+     */
+    public void add(Updatable updatable, UpdateModule module, CellSubsection subsection, ChemicalEntity entity, double value) {
+        int size = deltas.size();
+        if (size == updatables.length) {
+            updatables = Arrays.copyOf(updatables, size * 2);
+        }
+        updatables[size] = updatable;
+        deltas.add(module, subsection, entity, value);
+    }
+
+    /**
+     * Appends all deltas of the given pending deltas.
+     *
+     * @param pendingDeltas The pending deltas.
+     */
+    public void addAll(PendingDeltas pendingDeltas) {
+        int size = deltas.size();
+        int requiredCapacity = size + pendingDeltas.size();
+        if (requiredCapacity > updatables.length) {
+            updatables = Arrays.copyOf(updatables, Math.max(requiredCapacity, updatables.length * 2));
+        }
+        System.arraycopy(pendingDeltas.updatables, 0, updatables, size, pendingDeltas.size());
+        deltas.addAll(pendingDeltas.deltas);
+    }
+
+    public int size() {
+        return deltas.size();
+    }
+
+    public boolean isEmpty() {
+        return deltas.isEmpty();
+    }
+
+    /**
+     * Adds all deltas as potential deltas to their updatables and removes them afterwards.
+     */
+    public void assign() {
+        for (int index = 0; index < deltas.size(); index++) {
+            updatables[index].getConcentrationManager().addPotentialDelta(deltas.getModule(index), deltas.getSubsection(index),
+                    deltas.getEntity(index), deltas.getValue(index));
+        }
+        clear();
+    }
+
+    /**
+     * Removes all deltas without assigning them, retaining the allocated storage.
+     */
+    public void clear() {
+        Arrays.fill(updatables, 0, deltas.size(), null);
+        deltas.clear();
+    }
+
+}
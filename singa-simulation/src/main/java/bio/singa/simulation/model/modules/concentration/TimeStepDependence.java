@@ -0,0 +1,28 @@
+package bio.singa.simulation.model.modules.concentration;
+
+import bio.singa.simulation.model.simulation.UpdateScheduler;
+
+/**
+ * The time step dependence of a module describes how the deltas of a module depend on the time step. The
+ * {@link UpdateScheduler} uses it to decide whether the deltas of a module, that have been calculated successfully,
+ * need to be recalculated after the time step was decreased by another module.
+ *
+ * @author cl
+ */
+public enum TimeStepDependence {
+
+    /**
+     * The deltas are exactly proportional to the time step, i.e. they do not depend on any concentration, e.g. zero
+     * order reactions. Previously calculated deltas are rescaled to the new time step. Deltas, that are evaluated at
+     * the half step concentrations (e.g. first order reactions) or use cached fluxes (e.g. diffusion), are not linear
+     * in the time step.
+     */
+    LINEAR,
+
+    /**
+     * The deltas depend on the time step in any other way. The module is recalculated after every change of the time
+     * step.
+     */
+    NONLINEAR
+
+}
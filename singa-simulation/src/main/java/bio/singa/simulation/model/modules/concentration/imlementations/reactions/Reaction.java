@@ -1,19 +1,30 @@
 package bio.singa.simulation.model.modules.concentration.imlementations.reactions;
 
+import bio.singa.chemistry.features.reactions.RateConstant;
+import bio.singa.chemistry.features.reactions.ZeroOrderRateConstant;
+import bio.singa.features.model.Feature;
 import bio.singa.simulation.entities.ChemicalEntity;
+import bio.singa.simulation.model.agents.pointlike.VesicleLayer;
 import bio.singa.simulation.model.concentrations.ConcentrationCondition;
+import bio.singa.simulation.model.graphs.AutomatonNode;
 import bio.singa.simulation.model.modules.concentration.ConcentrationBasedModule;
 import bio.singa.simulation.model.modules.concentration.ConcentrationDelta;
 import bio.singa.simulation.model.modules.concentration.ConcentrationDeltaIdentifier;
+import bio.singa.simulation.model.modules.concentration.TimeStepDependence;
 import bio.singa.simulation.model.modules.concentration.functions.UpdatableDeltaFunction;
 import bio.singa.simulation.model.modules.concentration.imlementations.reactions.behaviors.deltas.ReactantDelta;
+import bio.singa.simulation.model.modules.concentration.imlementations.reactions.behaviors.kineticlaws.IrreversibleKineticLaw;
 import bio.singa.simulation.model.modules.concentration.imlementations.reactions.behaviors.kineticlaws.KineticLaw;
+import bio.singa.simulation.model.modules.concentration.imlementations.reactions.behaviors.kineticlaws.ReversibleKineticLaw;
+import bio.singa.simulation.model.modules.concentration.imlementations.reactions.behaviors.reactants.Reactant;
 import bio.singa.simulation.model.modules.concentration.imlementations.reactions.behaviors.reactants.ReactantBehavior;
 import bio.singa.simulation.model.modules.concentration.imlementations.reactions.behaviors.reactants.ReactantSet;
+import bio.singa.simulation.model.sections.CellTopology;
 import bio.singa.simulation.model.sections.ConcentrationContainer;
 import bio.singa.simulation.model.simulation.Updatable;
 
 import java.util.*;
+import java.util.function.Predicate;
 
 /**
  * @author cl
@@ -42,6 +53,15 @@ public class Reaction extends ConcentrationBasedModule<UpdatableDeltaFunction> {
         addDeltaFunction(function);
     }
 
+    /**
+     * Excludes {@link AutomatonNode}s from the updatables the reaction is applied to, since the nodes are already
+     * covered by a {@link ReactionNetwork} the reaction has been compiled into.
+     */
+    void excludeNodes() {
+        Predicate<Updatable> condition = getApplicationCondition();
+        setApplicationCondition(updatable -> !(updatable instanceof AutomatonNode) && condition.test(updatable));
+    }
+
     private boolean hasMembraneAssociatedEntities() {
         // if any entity is associated to the membrane
         for (ChemicalEntity referencedEntity : reactantBehavior.getReferencedEntities()) {
@@ -87,6 +107,62 @@ public class Reaction extends ConcentrationBasedModule<UpdatableDeltaFunction> {
         }
     }
 
+    /**
+     * Reactions in automaton nodes only refer to the concentrations of the node. Reactions in vesicles and pits refer
+     * to the concentrations of their associated nodes, if any reactant is not located in the membrane. Therefore,
+     * such reactions are only local as long as they are not applied to any vesicle or pit.
+     *
+     * @return True if the reaction is local.
+     */
+    @Override
+    public boolean isLocal() {
+        if (!hasReactantsOutsideOfMembrane()) {
+            return true;
+        }
+        VesicleLayer vesicleLayer = getSimulation().getVesicleLayer();
+        List<Updatable> membraneRestrictedUpdatables = new ArrayList<>(vesicleLayer.getVesicles());
+        membraneRestrictedUpdatables.addAll(vesicleLayer.getAspiringPits());
+        membraneRestrictedUpdatables.addAll(vesicleLayer.getMaturingPits());
+        for (Updatable updatable : membraneRestrictedUpdatables) {
+            if (getApplicationCondition().test(updatable)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean hasReactantsOutsideOfMembrane() {
+        for (ReactantSet reactantSet : reactantBehavior.getReactantSets()) {
+            for (List<Reactant> reactants : Arrays.asList(reactantSet.getSubstrates(), reactantSet.getProducts(), reactantSet.getCatalysts())) {
+                for (Reactant reactant : reactants) {
+                    if (!reactant.getPreferredTopology().equals(CellTopology.MEMBRANE)) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Reactions with mass action kinetics and only zero order rate constants are linear in the time step. The deltas of
+     * higher orders are evaluated at the half step concentrations and therefore depend nonlinearly on the time step.
+     *
+     * @return The time step dependence.
+     */
+    @Override
+    public TimeStepDependence getTimeStepDependence() {
+        if (!(kineticLaw instanceof IrreversibleKineticLaw) && !(kineticLaw instanceof ReversibleKineticLaw)) {
+            return TimeStepDependence.NONLINEAR;
+        }
+        for (Feature<?> feature : getFeatures()) {
+            if (feature instanceof RateConstant && !(feature instanceof ZeroOrderRateConstant)) {
+                return TimeStepDependence.NONLINEAR;
+            }
+        }
+        return TimeStepDependence.LINEAR;
+    }
+
     public KineticLaw getKineticLaw() {
         return kineticLaw;
     }
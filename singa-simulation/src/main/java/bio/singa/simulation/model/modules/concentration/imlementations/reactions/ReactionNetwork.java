@@ -0,0 +1,548 @@
+package bio.singa.simulation.model.modules.concentration.imlementations.reactions;
+
+import bio.singa.chemistry.features.reactions.BackwardsRateConstant;
+import bio.singa.chemistry.features.reactions.ForwardsRateConstant;
+import bio.singa.chemistry.features.reactions.RateConstant;
+import bio.singa.chemistry.features.reactions.ZeroOrderRateConstant;
+import bio.singa.simulation.entities.ChemicalEntity;
+import bio.singa.simulation.model.graphs.AutomatonNode;
+import bio.singa.simulation.model.modules.UpdateModule;
+import bio.singa.simulation.model.modules.concentration.ConcentrationBasedModule;
+import bio.singa.simulation.model.modules.concentration.ModuleBuilder;
+import bio.singa.simulation.model.modules.concentration.ModuleFactory;
+import bio.singa.simulation.model.modules.concentration.TimeStepDependence;
+import bio.singa.simulation.model.modules.concentration.functions.UpdatableDeltaFunction;
+import bio.singa.simulation.model.modules.concentration.imlementations.reactions.behaviors.kineticlaws.AbstractKineticLaw;
+import bio.singa.simulation.model.modules.concentration.imlementations.reactions.behaviors.kineticlaws.IrreversibleKineticLaw;
+import bio.singa.simulation.model.modules.concentration.imlementations.reactions.behaviors.kineticlaws.KineticLaw;
+import bio.singa.simulation.model.modules.concentration.imlementations.reactions.behaviors.kineticlaws.ReversibleKineticLaw;
+import bio.singa.simulation.model.modules.concentration.imlementations.reactions.behaviors.reactants.Reactant;
+import bio.singa.simulation.model.modules.concentration.imlementations.reactions.behaviors.reactants.ReactantSet;
+import bio.singa.simulation.model.sections.CellTopology;
+import bio.singa.simulation.model.simulation.Simulation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * A reaction network combines many mass action {@link Reaction}s into a single module. All reactant sets of the
+ * compiled reactions are rows of a sparse stoichiometry matrix (stored in compressed row format) and the rate
+ * constants of all rows are stored in arrays. The velocities of all rows are determined in a single pass for each
+ * node and the resulting deltas are accumulated to a single delta for each species (entity and topology) of the node.
+ * The nodes are processed in parallel tiles by the {@link ReactionNetworkKernel}, the local error is determined by a
+ * single reduction over all tiles.
+ * <pre>
+ *  // compile all reactions that have been added to the simulation so far
+ *  ReactionNetwork network = ReactionNetwork.inSimulation(simulation)
+ *         .forAllReactions()
+ *         .build(); </pre>
+ * The network has to be built before the first epoch.
+ * Only reactions with {@link IrreversibleKineticLaw}s or {@link ReversibleKineticLaw}s can be compiled, that
+ * neither reference membrane bound entities nor concentration conditions. All other reactions are kept as separate
+ * modules. As for {@link Reaction}s, velocities are only calculated if all substrates are present and the velocities
+ * are the product of the rate constant and the substrate concentrations. In contrast to separate reactions, the half
+ * step concentrations are determined from the combined deltas of all reactions. The network is only applied to
+ * {@link AutomatonNode}s, since reactions in vesicles and endocytotic pits depend on the concentrations of the
+ * associated nodes. Compiled reactions therefore remain in the simulation, but are no longer applied to nodes.
+ *
+ * @author cl
+ */
+public class ReactionNetwork extends ConcentrationBasedModule<UpdatableDeltaFunction> {
+
+    /**
+     * The logger
+     */
+    private static final Logger logger = LoggerFactory.getLogger(ReactionNetwork.class);
+
+    /**
+     * v = k_f * [S] for irreversible reactions.
+     */
+    static final int IRREVERSIBLE = 0;
+
+    /**
+     * v = k_f * [S] - k_b * [P] for reversible reactions.
+     */
+    static final int REVERSIBLE = 1;
+
+    /**
+     * v = k_f for irreversible reactions with zero order rate constants, if any substrate is present.
+     */
+    static final int IRREVERSIBLE_ZERO_ORDER = 2;
+
+    /**
+     * v = k_f for reversible reactions with any zero order rate constant.
+     */
+    static final int REVERSIBLE_ZERO_ORDER = 3;
+
+    /**
+     * The compiled reactions.
+     */
+    private final List<Reaction> reactions;
+
+    /**
+     * The topology of each species.
+     */
+    private CellTopology[] speciesTopologies;
+
+    /**
+     * The entity of each species.
+     */
+    private ChemicalEntity[] speciesEntities;
+
+    /**
+     * The kinetics of each row.
+     */
+    private int[] kinetics;
+
+    /**
+     * The forward rate constant of each row.
+     */
+    private RateConstant<?>[] forwardRates;
+
+    /**
+     * The backward rate constant of each row (null for irreversible reactions).
+     */
+    private RateConstant<?>[] backwardRates;
+
+    /**
+     * The start of the substrates of each row in {@link #substrates}, followed by the total number of substrates.
+     */
+    private int[] substrateOffsets;
+
+    /**
+     * The species of the substrates of all rows.
+     */
+    private int[] substrates;
+
+    /**
+     * The start of the products of each row in {@link #products}, followed by the total number of products.
+     */
+    private int[] productOffsets;
+
+    /**
+     * The species of the products of all rows.
+     */
+    private int[] products;
+
+    /**
+     * The start of the non zero coefficients of each row in {@link #stoichiometricSpecies}, followed by the total
+     * number of coefficients.
+     */
+    private int[] stoichiometricOffsets;
+
+    /**
+     * The species of the non zero coefficients of all rows.
+     */
+    private int[] stoichiometricSpecies;
+
+    /**
+     * The non zero coefficients of the stoichiometry matrix (negative for substrates and positive for products).
+     */
+    private double[] stoichiometricCoefficients;
+
+    public ReactionNetwork() {
+        reactions = new ArrayList<>();
+    }
+
+    public static ReactionSelectionStep inSimulation(Simulation simulation) {
+        return new ReactionNetworkBuilder(simulation);
+    }
+
+    public static ModuleBuilder getBuilder(Simulation simulation) {
+        return new ReactionNetworkBuilder(simulation);
+    }
+
+    /**
+     * Returns true if the reaction can be compiled into a reaction network.
+     *
+     * @param reaction The reaction.
+     * @return True if the reaction can be compiled.
+     */
+    public static boolean isCompilable(Reaction reaction) {
+        KineticLaw kineticLaw = reaction.getKineticLaw();
+        if (!(kineticLaw instanceof IrreversibleKineticLaw) && !(kineticLaw instanceof ReversibleKineticLaw)) {
+            return false;
+        }
+        if (!reaction.getConditions().isEmpty() || reaction.getRestrictedSubsection() != null) {
+            return false;
+        }
+        for (ChemicalEntity entity : reaction.getReactantBehavior().getReferencedEntities()) {
+            if (entity.isMembraneBound()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void postConstruct() {
+        setApplicationCondition(updatable -> updatable instanceof AutomatonNode);
+        addReferencedEntities(Arrays.asList(speciesEntities));
+    }
+
+    /**
+     * Compiles the reactant sets of the given reactions to the rows of the stoichiometry matrix.
+     *
+     * @param compiledReactions The reactions.
+     */
+    private void compile(List<Reaction> compiledReactions) {
+        reactions.addAll(compiledReactions);
+        // assign species
+        Map<CellTopology, Map<ChemicalEntity, Integer>> speciesIndices = new EnumMap<>(CellTopology.class);
+        List<CellTopology> topologies = new ArrayList<>();
+        List<ChemicalEntity> entities = new ArrayList<>();
+        // rows
+        List<ReactantSet> rows = new ArrayList<>();
+        List<Reaction> rowReactions = new ArrayList<>();
+        for (Reaction reaction : compiledReactions) {
+            for (ReactantSet reactantSet : reaction.getReactantBehavior().getReactantSets()) {
+                rows.add(reactantSet);
+                rowReactions.add(reaction);
+            }
+        }
+        int numberOfRows = rows.size();
+        kinetics = new int[numberOfRows];
+        forwardRates = new RateConstant<?>[numberOfRows];
+        backwardRates = new RateConstant<?>[numberOfRows];
+        substrateOffsets = new int[numberOfRows + 1];
+        productOffsets = new int[numberOfRows + 1];
+        stoichiometricOffsets = new int[numberOfRows + 1];
+        List<Integer> substrateList = new ArrayList<>();
+        List<Integer> productList = new ArrayList<>();
+        List<Integer> stoichiometricSpeciesList = new ArrayList<>();
+        List<Double> stoichiometricCoefficientList = new ArrayList<>();
+        for (int row = 0; row < numberOfRows; row++) {
+            ReactantSet reactantSet = rows.get(row);
+            Reaction reaction = rowReactions.get(row);
+            // rate law
+            AbstractKineticLaw kineticLaw = (AbstractKineticLaw) reaction.getKineticLaw();
+            forwardRates[row] = (RateConstant<?>) kineticLaw.getRate(ForwardsRateConstant.class);
+            if (kineticLaw instanceof ReversibleKineticLaw) {
+                backwardRates[row] = (RateConstant<?>) kineticLaw.getRate(BackwardsRateConstant.class);
+                if (forwardRates[row] instanceof ZeroOrderRateConstant || backwardRates[row] instanceof ZeroOrderRateConstant) {
+                    kinetics[row] = REVERSIBLE_ZERO_ORDER;
+                } else {
+                    kinetics[row] = REVERSIBLE;
+                }
+            } else {
+                kinetics[row] = forwardRates[row] instanceof ZeroOrderRateConstant ? IRREVERSIBLE_ZERO_ORDER : IRREVERSIBLE;
+            }
+            // reactants determining the velocity
+            substrateOffsets[row] = substrateList.size();
+            for (Reactant substrate : reactantSet.getSubstrates()) {
+                substrateList.add(species(speciesIndices, topologies, entities, substrate));
+            }
+            productOffsets[row] = productList.size();
+            for (Reactant product : reactantSet.getProducts()) {
+                productList.add(species(speciesIndices, topologies, entities, product));
+            }
+            // non zero coefficients of the row, reactants occurring on both sides are combined
+            Map<Integer, Double> coefficients = new LinkedHashMap<>();
+            for (Reactant substrate : reactantSet.getSubstrates()) {
+                coefficients.merge(species(speciesIndices, topologies, entities, substrate), -substrate.getStoichiometricNumber(), Double::sum);
+            }
+            for (Reactant product : reactantSet.getProducts()) {
+                coefficients.merge(species(speciesIndices, topologies, entities, product), product.getStoichiometricNumber(), Double::sum);
+            }
+            stoichiometricOffsets[row] = stoichiometricSpeciesList.size();
+            for (Map.Entry<Integer, Double> entry : coefficients.entrySet()) {
+                if (entry.getValue() != 0.0) {
+                    stoichiometricSpeciesList.add(entry.getKey());
+                    stoichiometricCoefficientList.add(entry.getValue());
+                }
+            }
+        }
+        substrateOffsets[numberOfRows] = substrateList.size();
+        productOffsets[numberOfRows] = productList.size();
+        stoichiometricOffsets[numberOfRows] = stoichiometricSpeciesList.size();
+        substrates = substrateList.stream().mapToInt(Integer::intValue).toArray();
+        products = productList.stream().mapToInt(Integer::intValue).toArray();
+        stoichiometricSpecies = stoichiometricSpeciesList.stream().mapToInt(Integer::intValue).toArray();
+        stoichiometricCoefficients = stoichiometricCoefficientList.stream().mapToDouble(Double::doubleValue).toArray();
+        speciesTopologies = topologies.toArray(new CellTopology[0]);
+        speciesEntities = entities.toArray(new ChemicalEntity[0]);
+        logger.debug("Compiled {} reactions to a network of {} rows and {} species with {} non zero coefficients.",
+                reactions.size(), numberOfRows, speciesEntities.length, stoichiometricCoefficients.length);
+    }
+
+    /**
+     * Returns the index of the species of the reactant, assigning a new index if required.
+     */
+    private static int species(Map<CellTopology, Map<ChemicalEntity, Integer>> speciesIndices, List<CellTopology> topologies,
+                               List<ChemicalEntity> entities, Reactant reactant) {
+        Map<ChemicalEntity, Integer> topologyIndices = speciesIndices.computeIfAbsent(reactant.getPreferredTopology(), topology -> new HashMap<>());
+        Integer index = topologyIndices.get(reactant.getEntity());
+        if (index == null) {
+            index = entities.size();
+            topologyIndices.put(reactant.getEntity(), index);
+            topologies.add(reactant.getPreferredTopology());
+            entities.add(reactant.getEntity());
+        }
+        return index;
+    }
+
+    /**
+     * Copies the scaled rate constants of all rows to the given arrays.
+     *
+     * @param halfStep True if the rate constants should be scaled to the half time step.
+     * @param forward The forward rate constants.
+     * @param backward The backward rate constants.
+     */
+    void scaleRates(boolean halfStep, double[] forward, double[] backward) {
+        for (int row = 0; row < kinetics.length; row++) {
+            forward[row] = halfStep ? forwardRates[row].getHalfScaledQuantity() : forwardRates[row].getScaledQuantity();
+            RateConstant<?> backwardRate = backwardRates[row];
+            if (backwardRate == null) {
+                backward[row] = 0.0;
+            } else {
+                backward[row] = halfStep ? backwardRate.getHalfScaledQuantity() : backwardRate.getScaledQuantity();
+            }
+        }
+    }
+
+    /**
+     * Determines the velocities of all rows and adds the resulting deltas of each species to the given deltas. A row
+     * is only considered if all of its substrates are present in the current concentrations, the velocity is
+     * determined from the given (e.g. half step) concentrations of the reactants.
+     *
+     * @param currentConcentrations The current concentration of each species.
+     * @param reactantConcentrations The concentration of each species used to determine the velocities.
+     * @param forward The scaled forward rate constants.
+     * @param backward The scaled backward rate constants.
+     * @param deltas The deltas of each species.
+     */
+    void determineDeltas(double[] currentConcentrations, double[] reactantConcentrations, double[] forward, double[] backward, double[] deltas) {
+        rows:
+        for (int row = 0; row < kinetics.length; row++) {
+            int substrateEnd = substrateOffsets[row + 1];
+            for (int index = substrateOffsets[row]; index < substrateEnd; index++) {
+                if (currentConcentrations[substrates[index]] == 0.0) {
+                    continue rows;
+                }
+            }
+            double velocity;
+            switch (kinetics[row]) {
+                case REVERSIBLE_ZERO_ORDER:
+                    velocity = forward[row];
+                    break;
+                case IRREVERSIBLE_ZERO_ORDER:
+                    velocity = multiply(reactantConcentrations, substrates, substrateOffsets[row], substrateEnd) != 0.0 ? forward[row] : 0.0;
+                    break;
+                case REVERSIBLE:
+                    velocity = forward[row] * multiply(reactantConcentrations, substrates, substrateOffsets[row], substrateEnd)
+                            - backward[row] * multiply(reactantConcentrations, products, productOffsets[row], productOffsets[row + 1]);
+                    break;
+                default:
+                    velocity = forward[row] * multiply(reactantConcentrations, substrates, substrateOffsets[row], substrateEnd);
+                    break;
+            }
+            if (velocity == 0.0) {
+                continue;
+            }
+            for (int index = stoichiometricOffsets[row]; index < stoichiometricOffsets[row + 1]; index++) {
+                deltas[stoichiometricSpecies[index]] += velocity * stoichiometricCoefficients[index];
+            }
+        }
+    }
+
+    private static double multiply(double[] concentrations, int[] species, int from, int to) {
+        double concentration = 1.0;
+        for (int index = from; index < to; index++) {
+            concentration *= concentrations[species[index]];
+        }
+        return concentration;
+    }
+
+    /**
+     * Calculates the network with the data parallel {@link ReactionNetworkKernel}. Nodes are partitioned in tiles of
+     * the given size that are processed in the pool of the scheduler.
+     *
+     * @param tileSize The number of nodes in a tile.
+     */
+    public void useParallelKernel(int tileSize) {
+        setScope(new ReactionNetworkKernel(this, tileSize));
+    }
+
+    /**
+     * Calculates the network with the data parallel {@link ReactionNetworkKernel}. Nodes are partitioned in tiles of
+     * the given size that are processed in the given pool.
+     *
+     * @param pool The pool processing the tiles.
+     * @param tileSize The number of nodes in a tile.
+     */
+    public void useParallelKernel(ForkJoinPool pool, int tileSize) {
+        setScope(new ReactionNetworkKernel(this, pool, tileSize));
+    }
+
+    /**
+     * Returns the compiled reactions.
+     *
+     * @return The compiled reactions.
+     */
+    public List<Reaction> getReactions() {
+        return Collections.unmodifiableList(reactions);
+    }
+
+    /**
+     * Returns the number of rows (reactant sets) of the stoichiometry matrix.
+     *
+     * @return The number of rows.
+     */
+    public int getNumberOfRows() {
+        return kinetics.length;
+    }
+
+    /**
+     * Returns the number of species (columns) of the stoichiometry matrix.
+     *
+     * @return The number of species.
+     */
+    public int getNumberOfSpecies() {
+        return speciesEntities.length;
+    }
+
+    /**
+     * Returns the number of non zero coefficients of the stoichiometry matrix.
+     *
+     * @return The number of non zero coefficients.
+     */
+    public int getNumberOfCoefficients() {
+        return stoichiometricCoefficients.length;
+    }
+
+    CellTopology getSpeciesTopology(int species) {
+        return speciesTopologies[species];
+    }
+
+    ChemicalEntity getSpeciesEntity(int species) {
+        return speciesEntities[species];
+    }
+
+    /**
+     * Reaction networks are only applied to automaton nodes and only refer to the concentrations of the node.
+     *
+     * @return True.
+     */
+    @Override
+    public boolean isLocal() {
+        return true;
+    }
+
+    /**
+     * Mass action reactions with only zero order rate constants are linear in the time step, higher orders are evaluated
+     * at the half step concentrations.
+     *
+     * @return The time step dependence.
+     */
+    @Override
+    public TimeStepDependence getTimeStepDependence() {
+        for (int row = 0; row < kinetics.length; row++) {
+            if (!isLinear(forwardRates[row]) || (backwardRates[row] != null && !isLinear(backwardRates[row]))) {
+                return TimeStepDependence.NONLINEAR;
+            }
+        }
+        return TimeStepDependence.LINEAR;
+    }
+
+    private static boolean isLinear(RateConstant<?> rate) {
+        return rate instanceof ZeroOrderRateConstant;
+    }
+
+    public interface ReactionSelectionStep {
+
+        ReactionSelectionStep identifier(String identifier);
+
+        BuildStep forAllReactions();
+
+        BuildStep forReactions(Collection<Reaction> reactions);
+
+    }
+
+    public interface BuildStep {
+
+        BuildStep inParallel(ForkJoinPool pool, int tileSize);
+
+        ReactionNetwork build();
+
+    }
+
+    public static class ReactionNetworkBuilder implements ReactionSelectionStep, BuildStep, ModuleBuilder<ReactionNetwork> {
+
+        private ReactionNetwork module;
+        private Simulation simulation;
+        private List<Reaction> candidates;
+
+        public ReactionNetworkBuilder(Simulation simulation) {
+            this.simulation = simulation;
+            createModule(simulation);
+        }
+
+        @Override
+        public ReactionNetwork getModule() {
+            return module;
+        }
+
+        @Override
+        public ReactionNetwork createModule(Simulation simulation) {
+            module = ModuleFactory.setupModule(ReactionNetwork.class,
+                    ModuleFactory.Scope.NEIGHBOURHOOD_INDEPENDENT,
+                    ModuleFactory.Specificity.UPDATABLE_SPECIFIC);
+            module.setIdentifier("reaction network");
+            module.useParallelKernel(ReactionNetworkKernel.DEFAULT_TILE_SIZE);
+            return module;
+        }
+
+        @Override
+        public ReactionNetworkBuilder identifier(String identifier) {
+            module.setIdentifier(identifier);
+            return this;
+        }
+
+        @Override
+        public BuildStep forAllReactions() {
+            candidates = new ArrayList<>();
+            for (UpdateModule updateModule : simulation.getModules()) {
+                if (updateModule instanceof Reaction) {
+                    candidates.add((Reaction) updateModule);
+                }
+            }
+            return this;
+        }
+
+        @Override
+        public BuildStep forReactions(Collection<Reaction> reactions) {
+            candidates = new ArrayList<>(reactions);
+            return this;
+        }
+
+        @Override
+        public BuildStep inParallel(ForkJoinPool pool, int tileSize) {
+            module.useParallelKernel(pool, tileSize);
+            return this;
+        }
+
+        @Override
+        public ReactionNetwork build() {
+            if (simulation.getEpoch() > 0) {
+                throw new IllegalStateException("Reaction networks have to be compiled before the first epoch.");
+            }
+            List<Reaction> compiledReactions = new ArrayList<>();
+            for (Reaction reaction : candidates) {
+                if (isCompilable(reaction)) {
+                    compiledReactions.add(reaction);
+                } else {
+                    logger.debug("Reaction {} can not be compiled and remains a separate module.", reaction);
+                }
+            }
+            module.compile(compiledReactions);
+            module.postConstruct();
+            // vesicles and pits are still calculated by the separate reactions
+            compiledReactions.forEach(Reaction::excludeNodes);
+            simulation.addModule(module);
+            return module;
+        }
+
+    }
+
+}
@@ -0,0 +1,480 @@
+package bio.singa.simulation.model.modules.concentration.imlementations.reactions;
+
+import bio.singa.features.units.UnitRegistry;
+import bio.singa.simulation.exceptions.NumericalInstabilityException;
+import bio.singa.simulation.model.graphs.AutomatonGraph;
+import bio.singa.simulation.model.graphs.AutomatonNode;
+import bio.singa.simulation.model.modules.concentration.PendingDeltas;
+import bio.singa.simulation.model.modules.concentration.scope.TileExecutor;
+import bio.singa.simulation.model.modules.concentration.scope.UpdateScope;
+import bio.singa.simulation.model.sections.CellSubsection;
+import bio.singa.simulation.model.sections.CellTopology;
+import bio.singa.simulation.model.sections.ConcentrationContainer;
+import bio.singa.simulation.model.sections.ConcentrationPool;
+import bio.singa.simulation.model.simulation.Updatable;
+import bio.singa.simulation.model.simulation.error.ErrorManager;
+import bio.singa.simulation.model.simulation.error.NumericalError;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * The reaction network kernel is the data parallel scope of the {@link ReactionNetwork}. Reactions only depend on the
+ * concentrations of a single node, therefore the nodes are partitioned into tiles of consecutive nodes, that are
+ * processed in parallel on a {@link ForkJoinPool}, by default the pool of the
+ * {@link bio.singa.simulation.model.simulation.UpdateScheduler}. For each node, the full deltas of all species are determined in a
+ * single pass over the stoichiometry matrix, followed by the half step deltas from the resulting half step
+ * concentrations. The largest local error is determined by a parallel reduction over all tiles.
+ * <p>
+ * Full deltas are stored in a flat array (addressed by node and species) instead of the delta accumulator of the
+ * field supplier and potential deltas are collected separately for each tile, therefore no shared state is modified
+ * during the parallel calculation. The deltas of all tiles are appended to the pending deltas of the module in the
+ * order of the tiles. The nodes and pools are collected once and reused until the graph, the processed nodes or their
+ * concentration pools change.
+ *
+ * @author cl
+ */
+public class ReactionNetworkKernel implements UpdateScope {
+
+    /**
+     * The default number of nodes in a tile.
+     */
+    public static final int DEFAULT_TILE_SIZE = 64;
+
+    /**
+     * The associated module.
+     */
+    private final ReactionNetwork module;
+
+    /**
+     * The pool processing the tiles (null to use the pool of the scheduler).
+     */
+    private final ForkJoinPool pool;
+
+    /**
+     * The number of nodes in a tile.
+     */
+    private final int tileSize;
+
+    /**
+     * The graph the nodes have been collected from.
+     */
+    private AutomatonGraph graph;
+
+    /**
+     * The processed nodes.
+     */
+    private AutomatonNode[] nodes;
+
+    /**
+     * The position of each processed node.
+     */
+    private Map<AutomatonNode, Integer> positions;
+
+    /**
+     * The concentration pools of each node, addressed by [node position][topology index].
+     */
+    private ConcentrationPool[][] pools;
+
+    /**
+     * The concentration pools of each node at the time the nodes have been collected, addressed by [node
+     * position][topology index] as referenced by the container.
+     */
+    private ConcentrationPool[][] collectedPools;
+
+    /**
+     * The subsections of each node, addressed by [node position][topology index].
+     */
+    private CellSubsection[][] subsections;
+
+    /**
+     * The scaled forward and backward rate constants of each row for full and half steps.
+     */
+    private double[] forwardRates;
+    private double[] backwardRates;
+    private double[] halfForwardRates;
+    private double[] halfBackwardRates;
+
+    /**
+     * The full deltas addressed by node position * species + species index.
+     */
+    private double[] fullDeltas;
+
+    /**
+     * The concentrations, full deltas, half step concentrations and half deltas of the species used by each tile.
+     */
+    private double[][][] workspaces;
+
+    /**
+     * The potential deltas calculated by each tile.
+     */
+    private PendingDeltas[] tileDeltas;
+
+    /**
+     * Half step containers of each node, only assembled on request and reused afterwards.
+     */
+    private ConcentrationContainer[] halfStepContainers;
+
+    /**
+     * The calculation each half step container has been assembled for.
+     */
+    private long[] halfStepCalculations;
+
+    /**
+     * The number of calculations.
+     */
+    private long calculation;
+
+    /**
+     * Creates a new kernel for the given module using the pool of the scheduler.
+     *
+     * @param module The module.
+     * @param tileSize The number of nodes in a tile.
+     */
+    public ReactionNetworkKernel(ReactionNetwork module, int tileSize) {
+        this(module, null, tileSize);
+    }
+
+    /**
+     * Creates a new kernel for the given module.
+     *
+     * @param module The module.
+     * @param pool The pool processing the tiles, or null to use the pool of the scheduler.
+     * @param tileSize The number of nodes in a tile.
+     */
+    public ReactionNetworkKernel(ReactionNetwork module, ForkJoinPool pool, int tileSize) {
+        if (tileSize < 1) {
+            throw new IllegalArgumentException("The tile size has to be positive.");
+        }
+        this.module = module;
+        this.pool = pool;
+        this.tileSize = tileSize;
+    }
+
+    @Override
+    public void processAllUpdatables(Collection<? extends Updatable> updatables) {
+        // the field supplier is not used during parallel calculation
+        module.getSupplier().clearDeltas();
+        prepare(updatables, true);
+        int numberOfTiles = (nodes.length + tileSize - 1) / tileSize;
+        if (numberOfTiles == 0 || module.getNumberOfRows() == 0) {
+            module.getSupplier().setLargestLocalError(NumericalError.MINIMAL_EMPTY_ERROR);
+            return;
+        }
+        ErrorManager errorManager = module.getSimulation().getScheduler().getErrorManager();
+        double negligenceCutoff = errorManager.getNumericalNegligenceCutoff();
+        double moleculeFraction = module.getSimulation().getScheduler().getMoleculeFraction();
+        LocalError largestError = TileExecutor.reduceTiles(getPool(), numberOfTiles,
+                tile -> calculateTile(tile, negligenceCutoff, moleculeFraction, true), LocalError::larger);
+        appendTileDeltas();
+        // another module already requested a recalculation
+        if (module.isCancelled()) {
+            return;
+        }
+        // set largest local error
+        NumericalError localError;
+        if (largestError.position < 0) {
+            localError = NumericalError.MINIMAL_EMPTY_ERROR;
+        } else {
+            if (largestError.value > errorManager.getNumericalInstabilityCutoff()) {
+                throw new NumericalInstabilityException("The module " + module.toString() + " experiences numerical instabilities. " +
+                        "The local error between the full step delta (" + largestError.fullDelta + ") and half step delta (" + largestError.halfDelta +
+                        ") is " + largestError.value + " at a time step of " + UnitRegistry.getTime());
+            }
+            localError = new NumericalError(nodes[largestError.position], module.getSpeciesEntity(largestError.species), largestError.value);
+            errorManager.setLargestLocalNumericalError(localError, module, largestError.fullDelta);
+        }
+        module.getSupplier().setLargestLocalError(localError);
+    }
+
+    @Override
+    public void evaluateAllUpdatables(Collection<? extends Updatable> updatables) {
+        module.getSupplier().clearDeltas();
+        prepare(updatables, false);
+        int numberOfTiles = (nodes.length + tileSize - 1) / tileSize;
+        if (numberOfTiles == 0 || module.getNumberOfRows() == 0) {
+            return;
+        }
+        double negligenceCutoff = module.getSimulation().getScheduler().getErrorManager().getNumericalNegligenceCutoff();
+        TileExecutor.forEachTile(getPool(), numberOfTiles, tile -> calculateTile(tile, negligenceCutoff, 0.0, false));
+        appendTileDeltas();
+    }
+
+    /**
+     * Appends the potential deltas of all tiles to the pending deltas of the module, in the order of the tiles.
+     */
+    private void appendTileDeltas() {
+        for (PendingDeltas deltas : tileDeltas) {
+            module.getPendingDeltas().addAll(deltas);
+        }
+    }
+
+    /**
+     * Returns the pool processing the tiles.
+     *
+     * @return The pool processing the tiles, or null if tiles are processed sequentially.
+     */
+    private ForkJoinPool getPool() {
+        if (pool != null) {
+            return pool;
+        }
+        return module.getSimulation().getScheduler().getPool();
+    }
+
+    /**
+     * Prepares the current calculation. The nodes and pools are only collected again if they changed since the last
+     * calculation, the rate constants are scaled to the current time step.
+     *
+     * @param updatables The updatables.
+     * @param halfStep True if rate constants for the half step are required.
+     */
+    private void prepare(Collection<? extends Updatable> updatables, boolean halfStep) {
+        calculation++;
+        if (!isStructureCurrent(updatables)) {
+            collectStructure(updatables);
+        }
+        // rates
+        int numberOfRows = module.getNumberOfRows();
+        if (forwardRates == null || forwardRates.length != numberOfRows) {
+            forwardRates = new double[numberOfRows];
+            backwardRates = new double[numberOfRows];
+            halfForwardRates = new double[numberOfRows];
+            halfBackwardRates = new double[numberOfRows];
+        }
+        module.scaleRates(false, forwardRates, backwardRates);
+        if (halfStep) {
+            module.scaleRates(true, halfForwardRates, halfBackwardRates);
+        }
+    }
+
+    /**
+     * Returns true if the collected nodes are still valid for the given updatables, i.e. the graph has not been
+     * replaced, the same nodes are processed in the same order and no concentration pool has been replaced.
+     *
+     * @param updatables The updatables.
+     * @return True if the collected nodes are still valid.
+     */
+    private boolean isStructureCurrent(Collection<? extends Updatable> updatables) {
+        if (nodes == null || graph != module.getSimulation().getGraph()) {
+            return false;
+        }
+        int position = 0;
+        for (Updatable updatable : updatables) {
+            if (updatable instanceof AutomatonNode && module.getApplicationCondition().test(updatable)) {
+                if (position == nodes.length || nodes[position] != updatable) {
+                    return false;
+                }
+                ConcentrationPool[] currentPools = updatable.getConcentrationContainer().getConcentrations();
+                ConcentrationPool[] nodePools = collectedPools[position];
+                for (int topology = 0; topology < nodePools.length; topology++) {
+                    if (currentPools[topology] != nodePools[topology]) {
+                        return false;
+                    }
+                }
+                position++;
+            }
+        }
+        return position == nodes.length;
+    }
+
+    /**
+     * Collects the nodes and pools required for the calculation.
+     *
+     * @param updatables The updatables.
+     */
+    private void collectStructure(Collection<? extends Updatable> updatables) {
+        graph = module.getSimulation().getGraph();
+        // nodes
+        List<AutomatonNode> nodeList = new ArrayList<>();
+        for (Updatable updatable : updatables) {
+            if (updatable instanceof AutomatonNode && module.getApplicationCondition().test(updatable)) {
+                nodeList.add((AutomatonNode) updatable);
+            }
+        }
+        nodes = nodeList.toArray(new AutomatonNode[0]);
+        positions = new HashMap<>();
+        // pools and subsections
+        int numberOfTopologies = CellTopology.values().length;
+        pools = new ConcentrationPool[nodes.length][numberOfTopologies];
+        collectedPools = new ConcentrationPool[nodes.length][];
+        subsections = new CellSubsection[nodes.length][numberOfTopologies];
+        for (int position = 0; position < nodes.length; position++) {
+            positions.put(nodes[position], position);
+            ConcentrationContainer container = nodes[position].getConcentrationContainer();
+            collectedPools[position] = container.getConcentrations().clone();
+            for (CellTopology topology : CellTopology.values()) {
+                Map.Entry<CellSubsection, ConcentrationPool> entry = container.getPool(topology);
+                if (entry != null) {
+                    subsections[position][topology.getIndex()] = entry.getKey();
+                    pools[position][topology.getIndex()] = entry.getValue();
+                }
+            }
+        }
+        // deltas
+        fullDeltas = new double[nodes.length * module.getNumberOfSpecies()];
+        int numberOfTiles = (nodes.length + tileSize - 1) / tileSize;
+        workspaces = new double[numberOfTiles][4][module.getNumberOfSpecies()];
+        tileDeltas = new PendingDeltas[numberOfTiles];
+        for (int tile = 0; tile < numberOfTiles; tile++) {
+            tileDeltas[tile] = new PendingDeltas();
+        }
+        halfStepContainers = new ConcentrationContainer[nodes.length];
+        halfStepCalculations = new long[nodes.length];
+    }
+
+    /**
+     * Calculates the deltas of all nodes in the given tile and collects the resulting potential deltas in the deltas
+     * of the tile. If half steps are calculated, the potential deltas are derived from the half step deltas and the
+     * largest local error of the tile is returned, otherwise the full deltas are collected.
+     *
+     * @param tile The tile.
+     * @param negligenceCutoff Deltas below this cutoff are ignored.
+     * @param moleculeFraction Half deltas below this value are not considered for the local error.
+     * @param halfStep True if half step deltas should be calculated.
+     * @return The largest local error.
+     */
+    private LocalError calculateTile(int tile, double negligenceCutoff, double moleculeFraction, boolean halfStep) {
+        LocalError largestError = new LocalError();
+        int numberOfSpecies = module.getNumberOfSpecies();
+        // each tile is calculated by a single worker at a time
+        double[][] workspace = workspaces[tile];
+        PendingDeltas deltas = tileDeltas[tile];
+        deltas.clear();
+        double[] concentrations = workspace[0];
+        double[] nodeDeltas = workspace[1];
+        double[] halfStepConcentrations = workspace[2];
+        double[] halfDeltas = workspace[3];
+        int from = tile * tileSize;
+        int to = Math.min(from + tileSize, nodes.length);
+        for (int position = from; position < to; position++) {
+            ConcentrationPool[] nodePools = pools[position];
+            CellSubsection[] nodeSubsections = subsections[position];
+            int offset = position * numberOfSpecies;
+            // full step
+            for (int species = 0; species < numberOfSpecies; species++) {
+                ConcentrationPool speciesPool = nodePools[module.getSpeciesTopology(species).getIndex()];
+                concentrations[species] = speciesPool == null ? 0.0 : speciesPool.get(module.getSpeciesEntity(species));
+                nodeDeltas[species] = 0.0;
+            }
+            module.determineDeltas(concentrations, concentrations, forwardRates, backwardRates, nodeDeltas);
+            boolean changed = false;
+            for (int species = 0; species < numberOfSpecies; species++) {
+                double fullDelta = nodeDeltas[species];
+                if (!isValid(fullDelta, negligenceCutoff) || nodeSubsections[module.getSpeciesTopology(species).getIndex()] == null) {
+                    fullDelta = 0.0;
+                } else {
+                    changed = true;
+                }
+                fullDeltas[offset + species] = fullDelta;
+                if (!halfStep && fullDelta != 0.0) {
+                    deltas.add(nodes[position], module, nodeSubsections[module.getSpeciesTopology(species).getIndex()],
+                            module.getSpeciesEntity(species), fullDelta);
+                }
+            }
+            if (!halfStep || !changed) {
+                continue;
+            }
+            // half step
+            for (int species = 0; species < numberOfSpecies; species++) {
+                halfStepConcentrations[species] = concentrations[species] + fullDeltas[offset + species] * 0.5;
+                halfDeltas[species] = 0.0;
+            }
+            module.determineDeltas(concentrations, halfStepConcentrations, halfForwardRates, halfBackwardRates, halfDeltas);
+            for (int species = 0; species < numberOfSpecies; species++) {
+                CellSubsection subsection = nodeSubsections[module.getSpeciesTopology(species).getIndex()];
+                if (!isValid(halfDeltas[species], negligenceCutoff) || subsection == null) {
+                    continue;
+                }
+                double halfDelta = halfDeltas[species] * 2.0;
+                double fullDelta = fullDeltas[offset + species];
+                double applied = fullDelta != 0.0 ? (fullDelta + halfDelta) * 0.5 : halfDelta;
+                deltas.add(nodes[position], module, subsection, module.getSpeciesEntity(species), applied);
+                // determine local error
+                if (fullDelta == 0.0 || halfDelta < moleculeFraction) {
+                    continue;
+                }
+                double localError = Math.abs(1 - (fullDelta / halfDelta));
+                if (largestError.value < localError) {
+                    largestError.update(localError, position, species, fullDelta, halfDelta);
+                }
+            }
+        }
+        return largestError;
+    }
+
+    /**
+     * Returns true if the delta is neither zero nor below the numerical cutoff.
+     *
+     * @param delta The delta.
+     * @param negligenceCutoff The numerical cutoff.
+     * @return True if the delta should be considered.
+     */
+    private static boolean isValid(double delta, double negligenceCutoff) {
+        return delta != 0.0 && Math.abs(delta) > negligenceCutoff;
+    }
+
+    @Override
+    public void processUpdatable(Updatable updatable) {
+        processAllUpdatables(module.getSimulation().getActiveUpdatables());
+    }
+
+    @Override
+    public void clearPotentialDeltas() {
+        module.getPendingDeltas().clear();
+    }
+
+    @Override
+    public ConcentrationContainer getHalfStepConcentration(Updatable updatable) {
+        Integer position = positions == null ? null : positions.get(updatable);
+        if (position == null) {
+            return updatable.getConcentrationContainer();
+        }
+        if (halfStepCalculations[position] == calculation) {
+            return halfStepContainers[position];
+        }
+        // reuse the container of previous calculations
+        ConcentrationContainer container = halfStepContainers[position];
+        if (container == null) {
+            container = updatable.getConcentrationContainer().fullCopy();
+            halfStepContainers[position] = container;
+        } else {
+            updatable.getConcentrationContainer().copyTo(container);
+        }
+        int numberOfSpecies = module.getNumberOfSpecies();
+        for (int species = 0; species < numberOfSpecies; species++) {
+            double fullDelta = fullDeltas[position * numberOfSpecies + species];
+            if (fullDelta != 0.0) {
+                CellTopology topology = module.getSpeciesTopology(species);
+                container.set(topology, module.getSpeciesEntity(species), container.get(topology, module.getSpeciesEntity(species)) + fullDelta * 0.5);
+            }
+        }
+        halfStepCalculations[position] = calculation;
+        return container;
+    }
+
+    /**
+     * The largest local error of a range of tiles.
+     */
+    private static class LocalError {
+
+        private double value = -Double.MAX_VALUE;
+        private int position = -1;
+        private int species;
+        private double fullDelta;
+        private double halfDelta;
+
+        void update(double value, int position, int species, double fullDelta, double halfDelta) {
+            this.value = value;
+            this.position = position;
+            this.species = species;
+            this.fullDelta = fullDelta;
+            this.halfDelta = halfDelta;
+        }
+
+        static LocalError larger(LocalError first, LocalError second) {
+            return first.value >= second.value ? first : second;
+        }
+
+    }
+
+}
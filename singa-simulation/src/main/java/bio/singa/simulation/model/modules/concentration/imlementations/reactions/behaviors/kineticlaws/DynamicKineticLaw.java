@@ -13,13 +13,16 @@ import tech.units.indriya.quantity.Quantities;
 import uk.co.cogitolearning.cogpar.*;
 
 import javax.measure.Quantity;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
 
 import static tech.units.indriya.AbstractUnit.ONE;
 
 /**
+ * A kinetic law defined by an arbitrary expression, such as {@code "kcat*E*S/(km+S)"}. The variables of the expression
+ * reference features, parameters and reactants of the reaction. The expression is parsed and compiled once (see
+ * {@link CompiledExpression}), afterwards the variables are bound by index. Evaluations only use slots that are local
+ * to the calculating thread, such that a reaction can be evaluated for multiple updatables in parallel.
+ *
  * @author cl
  */
 public class DynamicKineticLaw implements KineticLaw {
@@ -29,7 +32,18 @@ public class DynamicKineticLaw implements KineticLaw {
     /**
      * The expression that is evaluated.
      */
-    private final ExpressionNode expression;
+    private final CompiledExpression expression;
+
+    /**
+     * The values of the variables and the evaluation stack for each thread.
+     */
+    private final ThreadLocal<double[]> slots;
+
+    /**
+     * The binding of the referenced features, parameters and reactants to the variables of the expression, created
+     * before the first evaluation and discarded if the references change.
+     */
+    private volatile VariableBinding binding;
 
     /**
      * The original string of the expression.
@@ -54,7 +68,8 @@ public class DynamicKineticLaw implements KineticLaw {
     public DynamicKineticLaw(Reaction reaction, String kineticLawString) {
         this.reaction = reaction;
         expressionString = kineticLawString;
-        expression = new ExpressionParser().parse(kineticLawString);
+        expression = CompiledExpression.compile(new ExpressionParser().parse(kineticLawString));
+        slots = ThreadLocal.withInitial(expression::createSlots);
         featureMap = new HashMap<>();
         concentrationMap = new HashMap<>();
         parameterMap = new HashMap<>();
@@ -62,32 +77,37 @@ public class DynamicKineticLaw implements KineticLaw {
 
     public void referenceReactant(String parameterIdentifier, Reactant reactant) {
         concentrationMap.put(parameterIdentifier, reactant);
+        binding = null;
     }
 
     public void referenceReactant(Reactant reactant) {
         concentrationMap.put(reactant.getEntity().getIdentifier().toString(), reactant);
+        binding = null;
     }
 
     public void referenceFeature(String parameterIdentifier, AbstractScalableQuantitativeFeature feature) {
         featureMap.put(parameterIdentifier, feature);
+        binding = null;
     }
 
     public void referenceFeature(AbstractScalableQuantitativeFeature feature) {
         featureMap.put(feature.getDescriptor(), feature);
+        binding = null;
     }
 
     public void referenceConstant(String parameterIdentifier, double constant) {
         parameterMap.put(parameterIdentifier, new Parameter<>(parameterIdentifier, Quantities.getQuantity(constant, ONE), Evidence.NO_EVIDENCE));
-        expression.accept(new SetVariable(parameterIdentifier, constant));
+        binding = null;
     }
 
     public void referenceConstant(String parameterIdentifier, double constant, Evidence evidence) {
         parameterMap.put(parameterIdentifier, new Parameter<>(parameterIdentifier, Quantities.getQuantity(constant, ONE), evidence));
-        expression.accept(new SetVariable(parameterIdentifier, constant));
+        binding = null;
     }
 
     public void referenceParameter(Parameter<?> parameter) {
         parameterMap.put(parameter.getIdentifier(), parameter);
+        binding = null;
     }
 
     public Map<String, AbstractScalableQuantitativeFeature> getFeatureMap() {
@@ -96,6 +116,7 @@ public class DynamicKineticLaw implements KineticLaw {
 
     public void setFeatureMap(Map<String, AbstractScalableQuantitativeFeature> featureMap) {
         this.featureMap = featureMap;
+        binding = null;
     }
 
     public Map<String, Reactant> getConcentrationMap() {
@@ -104,6 +125,7 @@ public class DynamicKineticLaw implements KineticLaw {
 
     public void setConcentrationMap(Map<String, Reactant> concentrationMap) {
         this.concentrationMap = concentrationMap;
+        binding = null;
     }
 
     public String getExpressionString() {
@@ -116,64 +138,90 @@ public class DynamicKineticLaw implements KineticLaw {
 
     public void setParameterMap(Map<String, Parameter> parameterMap) {
         this.parameterMap = parameterMap;
+        binding = null;
     }
 
     @Override
     public double determineVelocity(ReactionEvent reactionEvent) {
+        VariableBinding currentBinding = binding;
+        if (currentBinding == null) {
+            currentBinding = new VariableBinding();
+            binding = currentBinding;
+        }
+        if (currentBinding.unboundVariable != null) {
+            throw new ModuleCalculationException("Could not calculate expression" + expressionString + ". Variable '" + currentBinding.unboundVariable + "' was not initialized.");
+        }
+        double[] values = slots.get();
+        boolean halfStep = reaction.getSupplier().isStrutCalculation();
         // set features
-        for (Map.Entry<String, AbstractScalableQuantitativeFeature> entry : featureMap.entrySet()) {
-            double value;
-            if (reaction.getSupplier().isStrutCalculation()) {
-                value = entry.getValue().getHalfScaledQuantity();
-            } else {
-                value = entry.getValue().getScaledQuantity();
-            }
-            SetVariable variable = new SetVariable(entry.getKey(), value);
-            expression.accept(variable);
+        for (int index = 0; index < currentBinding.features.length; index++) {
+            AbstractScalableQuantitativeFeature<?> feature = currentBinding.features[index];
+            values[currentBinding.featureSlots[index]] = halfStep ? feature.getHalfScaledQuantity() : feature.getScaledQuantity();
         }
         // set parameters
-        for (Map.Entry<String, Parameter> entry : parameterMap.entrySet()) {
-            entry.getValue().scale();
-            Quantity<?> parameterQuantity;
-            if (reaction.getSupplier().isStrutCalculation()) {
-                parameterQuantity = entry.getValue().getHalfScaledQuantity();
-            } else {
-                parameterQuantity = entry.getValue().getScaledQuantity();
-            }
-            SetVariable variable = new SetVariable(entry.getKey(), parameterQuantity.getValue().doubleValue());
-            expression.accept(variable);
+        for (int index = 0; index < currentBinding.parameters.length; index++) {
+            values[currentBinding.parameterSlots[index]] = scaleParameter(currentBinding.parameters[index], halfStep);
         }
         // set concentrations
-        for (Map.Entry<String, Reactant> entry : concentrationMap.entrySet()) {
-            Reactant reactant = entry.getValue();
-            List<ReactantConcentration> concentrations = reactionEvent.getUpdatableBehavior().collectReactants(concentrationMap.values());
-            double concentration = 0.0;
-            for (ReactantConcentration reactantConcentration : concentrations) {
-                if (reactantConcentration.getReactant().equals(reactant)) {
-                    concentration = reactantConcentration.getConcentration();
-                    break;
+        if (currentBinding.reactants.length > 0) {
+            List<ReactantConcentration> concentrations = reactionEvent.getUpdatableBehavior().collectReactants(currentBinding.reactantList);
+            for (int index = 0; index < currentBinding.reactants.length; index++) {
+                Reactant reactant = currentBinding.reactants[index];
+                double concentration = findConcentration(concentrations, reactant, index);
+                if (reactant.getPreferredConcentrationUnit() != null) {
+                    concentration = UnitRegistry.concentration(concentration).to(reactant.getPreferredConcentrationUnit()).getValue().doubleValue();
                 }
+                values[currentBinding.reactantSlots[index]] = concentration;
             }
-            if (reactant.getPreferredConcentrationUnit() != null) {
-                concentration = UnitRegistry.concentration(concentration).to(reactant.getPreferredConcentrationUnit()).getValue().doubleValue();
-            }
-            SetVariable variable = new SetVariable(entry.getKey(), concentration);
-            expression.accept(variable);
         }
         // calculate
-        return evaluate();
+        return evaluate(values);
+    }
+
+    /**
+     * Returns the value of the parameter scaled to the current time step, without modifying the shared parameter.
+     *
+     * @param parameter The parameter.
+     * @param halfStep True if the value for half steps is required.
+     * @return The scaled value.
+     */
+    private static double scaleParameter(Parameter<?> parameter, boolean halfStep) {
+        Quantity<?> quantity = parameter.getQuantity();
+        if (UnitRegistry.getTimeExponent(quantity.getUnit()) == 0) {
+            return quantity.getValue().doubleValue();
+        }
+        double value = UnitRegistry.scale(quantity).getValue().doubleValue();
+        return halfStep ? value * 0.5 : value;
+    }
+
+    /**
+     * Returns the concentration of the reactant, that was collected at the given position, or zero if the reactant
+     * was not collected.
+     */
+    private static double findConcentration(List<ReactantConcentration> concentrations, Reactant reactant, int position) {
+        // concentrations are usually collected in the requested order
+        if (position < concentrations.size() && concentrations.get(position).getReactant().equals(reactant)) {
+            return concentrations.get(position).getConcentration();
+        }
+        for (ReactantConcentration reactantConcentration : concentrations) {
+            if (reactantConcentration.getReactant().equals(reactant)) {
+                return reactantConcentration.getConcentration();
+            }
+        }
+        return 0.0;
     }
 
     /**
      * Evaluates the expression and returns the result. If not all parameters have been set or the expression evaluates
      * to NaN an error is logged.
      *
+     * @param values The values of all variables.
      * @return The result of the evaluated expression.
      */
-    private double evaluate() {
+    private double evaluate(double[] values) {
         double value;
         try {
-            value = expression.getValue();
+            value = expression.evaluate(values);
         } catch (ParserException | EvaluationException e) {
             throw new ModuleCalculationException("Could not calculate expression" + expressionString + ". " + e.getMessage());
         }
@@ -183,4 +231,74 @@ public class DynamicKineticLaw implements KineticLaw {
         return value;
     }
 
+    /**
+     * The slots of the referenced features, parameters and reactants in the compiled expression. References to
+     * variables that do not occur in the expression are ignored.
+     */
+    private class VariableBinding {
+
+        private final AbstractScalableQuantitativeFeature<?>[] features;
+        private final int[] featureSlots;
+        private final Parameter<?>[] parameters;
+        private final int[] parameterSlots;
+        private final Reactant[] reactants;
+        private final List<Reactant> reactantList;
+        private final int[] reactantSlots;
+
+        /**
+         * The first variable of the expression, that is not referenced (null if all variables are referenced).
+         */
+        private final String unboundVariable;
+
+        private VariableBinding() {
+            Set<String> boundVariables = new HashSet<>();
+            List<AbstractScalableQuantitativeFeature<?>> boundFeatures = new ArrayList<>();
+            List<Integer> boundFeatureSlots = new ArrayList<>();
+            for (Map.Entry<String, AbstractScalableQuantitativeFeature> entry : featureMap.entrySet()) {
+                int slot = expression.getSlot(entry.getKey());
+                if (slot >= 0) {
+                    boundVariables.add(entry.getKey());
+                    boundFeatures.add(entry.getValue());
+                    boundFeatureSlots.add(slot);
+                }
+            }
+            List<Parameter<?>> boundParameters = new ArrayList<>();
+            List<Integer> boundParameterSlots = new ArrayList<>();
+            for (Map.Entry<String, Parameter> entry : parameterMap.entrySet()) {
+                int slot = expression.getSlot(entry.getKey());
+                if (slot >= 0) {
+                    boundVariables.add(entry.getKey());
+                    boundParameters.add(entry.getValue());
+                    boundParameterSlots.add(slot);
+                }
+            }
+            List<Reactant> boundReactants = new ArrayList<>();
+            List<Integer> boundReactantSlots = new ArrayList<>();
+            for (Map.Entry<String, Reactant> entry : concentrationMap.entrySet()) {
+                int slot = expression.getSlot(entry.getKey());
+                if (slot >= 0) {
+                    boundVariables.add(entry.getKey());
+                    boundReactants.add(entry.getValue());
+                    boundReactantSlots.add(slot);
+                }
+            }
+            features = boundFeatures.toArray(new AbstractScalableQuantitativeFeature<?>[0]);
+            featureSlots = boundFeatureSlots.stream().mapToInt(Integer::intValue).toArray();
+            parameters = boundParameters.toArray(new Parameter<?>[0]);
+            parameterSlots = boundParameterSlots.stream().mapToInt(Integer::intValue).toArray();
+            reactants = boundReactants.toArray(new Reactant[0]);
+            reactantList = Collections.unmodifiableList(boundReactants);
+            reactantSlots = boundReactantSlots.stream().mapToInt(Integer::intValue).toArray();
+            String firstUnbound = null;
+            for (String variable : expression.getVariables()) {
+                if (!boundVariables.contains(variable)) {
+                    firstUnbound = variable;
+                    break;
+                }
+            }
+            unboundVariable = firstUnbound;
+        }
+
+    }
+
 }
@@ -23,6 +23,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * Diffusion is the fundamental force governing the random movement of molecules in cells. As a
@@ -96,11 +97,15 @@ public class Diffusion extends ConcentrationBasedModule<EntityDeltaFunction> {
         List<AutomatonNode.AreaMapping> areaMappings = node.getSubsectionAdjacency().get(subsection);
         double delta = 0.0;
         for (AutomatonNode.AreaMapping mapping : areaMappings) {
+            AutomatonNode other = mapping.getOther(node);
+            // no exchange across the boundary of the active region
+            if (!getSimulation().isActive(other)) {
+                continue;
+            }
             double partialDelta = 0.0;
             if (mapping.isCached()) {
                 partialDelta = mapping.getCached();
             } else {
-                AutomatonNode other = mapping.getOther(node);
                 ConcentrationContainer otherContainer;
                 if (supplier.isStrutCalculation()) {
                     otherContainer = getScope().getHalfStepConcentration(other);
@@ -116,6 +121,48 @@ public class Diffusion extends ConcentrationBasedModule<EntityDeltaFunction> {
         return new ConcentrationDelta(this, subsection, entity, delta);
     }
 
+    /**
+     * Calculates diffusion with the data parallel {@link DiffusionKernel}, using the pool of the scheduler and the
+     * default tile size.
+     */
+    public void useParallelKernel() {
+        useParallelKernel(DiffusionKernel.DEFAULT_TILE_SIZE);
+    }
+
+    /**
+     * Calculates diffusion with the data parallel {@link DiffusionKernel}. Nodes are partitioned in tiles of the given
+     * size that are processed in the pool of the scheduler.
+     *
+     * @param tileSize The number of nodes in a tile.
+     */
+    public void useParallelKernel(int tileSize) {
+        setScope(new DiffusionKernel(this, this::isAffected, null, tileSize));
+    }
+
+    /**
+     * Calculates diffusion with the data parallel {@link DiffusionKernel}. Nodes are partitioned in tiles of the given
+     * size that are processed in the given pool.
+     *
+     * @param pool The pool processing the tiles.
+     * @param tileSize The number of nodes in a tile.
+     */
+    public void useParallelKernel(ForkJoinPool pool, int tileSize) {
+        setScope(new DiffusionKernel(this, this::isAffected, pool, tileSize));
+    }
+
+    /**
+     * Returns true if diffusion should be calculated in the given subsection.
+     *
+     * @param subsection The subsection.
+     * @return True if diffusion should be calculated.
+     */
+    private boolean isAffected(CellSubsection subsection) {
+        if (getRestrictedSubsection() == null) {
+            return !subsection.isMembrane();
+        }
+        return subsection.equals(getRestrictedSubsection());
+    }
+
     private boolean unrestrictedApplication(ConcentrationContainer container) {
         return !supplier.getCurrentSubsection().isMembrane();
     }
@@ -156,6 +203,8 @@ public class Diffusion extends ConcentrationBasedModule<EntityDeltaFunction> {
     }
 
     public interface BuildStep {
+        BuildStep inParallel();
+
         Diffusion build();
     }
 
@@ -222,6 +271,12 @@ public class Diffusion extends ConcentrationBasedModule<EntityDeltaFunction> {
             return this;
         }
 
+        @Override
+        public BuildStep inParallel() {
+            module.useParallelKernel();
+            return this;
+        }
+
         public Diffusion build() {
             module.postConstruct();
             simulation.addModule(module);
@@ -0,0 +1,733 @@
+package bio.singa.simulation.model.modules.concentration.imlementations.transport;
+
+import bio.singa.features.quantities.ConcentrationDiffusivity;
+import bio.singa.features.units.UnitRegistry;
+import bio.singa.simulation.entities.ChemicalEntity;
+import bio.singa.simulation.exceptions.NumericalInstabilityException;
+import bio.singa.simulation.model.graphs.AutomatonGraph;
+import bio.singa.simulation.model.graphs.AutomatonNode;
+import bio.singa.simulation.model.modules.concentration.PendingDeltas;
+import bio.singa.simulation.model.modules.concentration.scope.DependentUpdate;
+import bio.singa.simulation.model.modules.concentration.scope.TileExecutor;
+import bio.singa.simulation.model.modules.concentration.scope.UpdateScope;
+import bio.singa.simulation.model.sections.CellSubsection;
+import bio.singa.simulation.model.sections.ConcentrationContainer;
+import bio.singa.simulation.model.sections.ConcentrationPool;
+import bio.singa.simulation.model.simulation.Updatable;
+import bio.singa.simulation.model.simulation.error.ErrorManager;
+import bio.singa.simulation.model.simulation.error.NumericalError;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Predicate;
+
+/**
+ * The diffusion kernel is a data parallel replacement of the {@link DependentUpdate} scope for {@link Diffusion}. The
+ * nodes of the graph are partitioned into tiles of consecutive nodes, which are processed in parallel on a
+ * {@link ForkJoinPool}, by default the pool of the {@link bio.singa.simulation.model.simulation.UpdateScheduler}. As
+ * for the dependent update, all full deltas are calculated first. Afterwards the half step (strut) deltas are
+ * calculated from the half step concentrations and the largest local error is determined by a parallel reduction over
+ * all tiles.
+ * <p>
+ * As for the area cache of {@link Diffusion}, the flux across each {@link AutomatonNode.AreaMapping} is only calculated
+ * once and applied to both adjacent nodes with opposite signs. Fluxes and full deltas are stored in flat arrays
+ * instead of the delta accumulator of the field supplier and potential deltas are collected separately for each tile,
+ * therefore no shared state is modified during the parallel calculation. The deltas of all tiles are appended to the
+ * pending deltas of the module in the order of the tiles. The nodes, pools and mappings are collected once and reused
+ * until the graph, the processed nodes or their concentration pools change. Mappings to inactive neighbours are excluded, such that no flux crosses the boundary of the active
+ * region.
+ *
+ * @author cl
+ */
+public class DiffusionKernel implements UpdateScope {
+
+    /**
+     * The default number of nodes in a tile.
+     */
+    public static final int DEFAULT_TILE_SIZE = 64;
+
+    /**
+     * The associated module.
+     */
+    private final Diffusion module;
+
+    /**
+     * The pool processing the tiles (null to use the pool of the scheduler).
+     */
+    private final ForkJoinPool pool;
+
+    /**
+     * The number of nodes in a tile.
+     */
+    private final int tileSize;
+
+    /**
+     * Determines whether diffusion is calculated in a subsection.
+     */
+    private final Predicate<CellSubsection> subsectionCondition;
+
+    /**
+     * The graph the structure has been collected from.
+     */
+    private AutomatonGraph graph;
+
+    /**
+     * The processed nodes.
+     */
+    private AutomatonNode[] nodes;
+
+    /**
+     * The position of each processed node.
+     */
+    private Map<AutomatonNode, Integer> positions;
+
+    /**
+     * The processed nodes and their neighbours, whose pools have been collected.
+     */
+    private AutomatonNode[] referencedNodes;
+
+    /**
+     * The concentration pools of each referenced node at the time the structure has been collected.
+     */
+    private ConcentrationPool[][] referencedPools;
+
+    /**
+     * The neighbours, that have been excluded, since they were inactive (see
+     * {@link bio.singa.simulation.model.simulation.ActivityTracker}).
+     */
+    private AutomatonNode[] excludedNodes;
+
+    /**
+     * The entities subject to diffusion.
+     */
+    private ChemicalEntity[] entities;
+
+    /**
+     * The scaled diffusivity of each entity.
+     */
+    private double[] diffusivities;
+
+    /**
+     * The subsections referenced by any processed node.
+     */
+    private CellSubsection[] subsections;
+
+    /**
+     * The concentration pool of each slot, a slot is addressed by subsection index * nodes + node position.
+     */
+    private ConcentrationPool[] pools;
+
+    /**
+     * The first incident mapping of each slot, the incident mappings of a slot end with the first mapping of the next
+     * slot. Slots without diffusion have no incident mappings.
+     */
+    private int[] incidenceOffsets;
+
+    /**
+     * Determines whether diffusion is calculated for each slot.
+     */
+    private boolean[] diffusive;
+
+    /**
+     * The incident mappings and the sign of their flux for each slot.
+     */
+    private int[] incidentMappings;
+    private double[] incidentSigns;
+
+    /**
+     * The area mappings between slots.
+     */
+    private AutomatonNode.AreaMapping[] mappings;
+
+    /**
+     * The pools and slots (-1 if the node is not processed) of both sides of each mapping. The flux across a mapping
+     * is directed from the first to the second side.
+     */
+    private ConcentrationPool[] firstPools;
+    private ConcentrationPool[] secondPools;
+    private int[] firstSlots;
+    private int[] secondSlots;
+
+    /**
+     * The first mapping of each tile, mappings are owned by the tile, whose node created them.
+     */
+    private int[] tileMappingOffsets;
+
+    /**
+     * The full deltas addressed by entity index * slots + slot.
+     */
+    private double[] fullDeltas;
+
+    /**
+     * The fluxes addressed by entity index * mappings + mapping index.
+     */
+    private double[] fluxes;
+
+    /**
+     * The potential deltas calculated by each tile.
+     */
+    private PendingDeltas[] tileDeltas;
+
+    /**
+     * Half step containers of each node, only assembled on request and reused afterwards.
+     */
+    private ConcentrationContainer[] halfStepContainers;
+
+    /**
+     * The calculation each half step container has been assembled for.
+     */
+    private long[] halfStepCalculations;
+
+    /**
+     * The number of calculations.
+     */
+    private long calculation;
+
+    /**
+     * Creates a new kernel for the given module using the pool of the scheduler.
+     *
+     * @param module The module.
+     * @param subsectionCondition Determines whether diffusion is calculated in a subsection.
+     */
+    public DiffusionKernel(Diffusion module, Predicate<CellSubsection> subsectionCondition) {
+        this(module, subsectionCondition, null, DEFAULT_TILE_SIZE);
+    }
+
+    /**
+     * Creates a new kernel for the given module.
+     *
+     * @param module The module.
+     * @param subsectionCondition Determines whether diffusion is calculated in a subsection.
+     * @param pool The pool processing the tiles, or null to use the pool of the scheduler.
+     * @param tileSize The number of nodes in a tile.
+     */
+    public DiffusionKernel(Diffusion module, Predicate<CellSubsection> subsectionCondition, ForkJoinPool pool, int tileSize) {
+        if (tileSize < 1) {
+            throw new IllegalArgumentException("The tile size has to be positive.");
+        }
+        this.module = module;
+        this.subsectionCondition = subsectionCondition;
+        this.pool = pool;
+        this.tileSize = tileSize;
+    }
+
+    @Override
+    public void processAllUpdatables(Collection<? extends Updatable> updatables) {
+        // the field supplier is not used during parallel calculation
+        module.getSupplier().clearDeltas();
+        prepare(updatables);
+        int numberOfTiles = (nodes.length + tileSize - 1) / tileSize;
+        if (numberOfTiles == 0) {
+            module.getSupplier().setLargestLocalError(NumericalError.MINIMAL_EMPTY_ERROR);
+            return;
+        }
+        ErrorManager errorManager = module.getSimulation().getScheduler().getErrorManager();
+        double negligenceCutoff = errorManager.getNumericalNegligenceCutoff();
+        double moleculeFraction = module.getSimulation().getScheduler().getMoleculeFraction();
+        ForkJoinPool executingPool = getPool();
+        // calculate all full updates first
+        TileExecutor.forEachTile(executingPool, numberOfTiles, tile -> calculateFluxes(tile, false));
+        TileExecutor.forEachTile(executingPool, numberOfTiles, tile -> calculateFullDeltas(tile, negligenceCutoff, false));
+        // another module already requested a recalculation
+        if (module.isCancelled()) {
+            return;
+        }
+        // calculate half step deltas and reduce local errors
+        TileExecutor.forEachTile(executingPool, numberOfTiles, tile -> calculateFluxes(tile, true));
+        LocalError largestError = TileExecutor.reduceTiles(executingPool, numberOfTiles,
+                tile -> calculateHalfDeltas(tile, negligenceCutoff, moleculeFraction), LocalError::larger);
+        appendTileDeltas();
+        // set largest local error
+        NumericalError localError;
+        if (largestError.position < 0) {
+            localError = NumericalError.MINIMAL_EMPTY_ERROR;
+        } else {
+            if (largestError.value > errorManager.getNumericalInstabilityCutoff()) {
+                throw new NumericalInstabilityException("The module " + module.toString() + " experiences numerical instabilities. " +
+                        "The local error between the full step delta (" + largestError.fullDelta + ") and half step delta (" + largestError.halfDelta +
+                        ") is " + largestError.value + " at a time step of " + UnitRegistry.getTime());
+            }
+            localError = new NumericalError(nodes[largestError.position], entities[largestError.entity], largestError.value);
+            errorManager.setLargestLocalNumericalError(localError, module, largestError.fullDelta);
+        }
+        module.getSupplier().setLargestLocalError(localError);
+    }
+
+    @Override
+    public void evaluateAllUpdatables(Collection<? extends Updatable> updatables) {
+        module.getSupplier().clearDeltas();
+        prepare(updatables);
+        int numberOfTiles = (nodes.length + tileSize - 1) / tileSize;
+        if (numberOfTiles == 0) {
+            return;
+        }
+        double negligenceCutoff = module.getSimulation().getScheduler().getErrorManager().getNumericalNegligenceCutoff();
+        ForkJoinPool executingPool = getPool();
+        TileExecutor.forEachTile(executingPool, numberOfTiles, tile -> calculateFluxes(tile, false));
+        TileExecutor.forEachTile(executingPool, numberOfTiles, tile -> calculateFullDeltas(tile, negligenceCutoff, true));
+        appendTileDeltas();
+    }
+
+    /**
+     * Appends the potential deltas of all tiles to the pending deltas of the module, in the order of the tiles.
+     */
+    private void appendTileDeltas() {
+        for (PendingDeltas deltas : tileDeltas) {
+            module.getPendingDeltas().addAll(deltas);
+        }
+    }
+
+    /**
+     * Returns the pool processing the tiles.
+     *
+     * @return The pool processing the tiles, or null if tiles are processed sequentially.
+     */
+    private ForkJoinPool getPool() {
+        if (pool != null) {
+            return pool;
+        }
+        return module.getSimulation().getScheduler().getPool();
+    }
+
+    /**
+     * Prepares the current calculation. The structure is only collected again if it changed since the last
+     * calculation, the diffusivities are scaled to the current time step.
+     *
+     * @param updatables The updatables.
+     */
+    private void prepare(Collection<? extends Updatable> updatables) {
+        calculation++;
+        if (!isStructureCurrent(updatables)) {
+            collectStructure(updatables);
+        }
+        for (int entityIndex = 0; entityIndex < entities.length; entityIndex++) {
+            diffusivities[entityIndex] = entities[entityIndex].getFeature(ConcentrationDiffusivity.class).getScaledQuantity();
+        }
+    }
+
+    /**
+     * Returns true if the collected structure is still valid for the given updatables, i.e. the graph has not been
+     * replaced, the same nodes are processed in the same order, no concentration pool has been replaced and no
+     * neighbour has been activated or deactivated.
+     *
+     * @param updatables The updatables.
+     * @return True if the collected structure is still valid.
+     */
+    private boolean isStructureCurrent(Collection<? extends Updatable> updatables) {
+        if (nodes == null || graph != module.getSimulation().getGraph()) {
+            return false;
+        }
+        int position = 0;
+        for (Updatable updatable : updatables) {
+            if (updatable instanceof AutomatonNode && module.getApplicationCondition().test(updatable)) {
+                if (position == nodes.length || nodes[position] != updatable) {
+                    return false;
+                }
+                position++;
+            }
+        }
+        if (position != nodes.length) {
+            return false;
+        }
+        for (AutomatonNode excludedNode : excludedNodes) {
+            if (module.getSimulation().isActive(excludedNode)) {
+                return false;
+            }
+        }
+        for (int index = 0; index < referencedNodes.length; index++) {
+            if (!module.getSimulation().isActive(referencedNodes[index])) {
+                return false;
+            }
+            ConcentrationPool[] currentPools = referencedNodes[index].getConcentrationContainer().getConcentrations();
+            ConcentrationPool[] collectedPools = referencedPools[index];
+            for (int topology = 0; topology < collectedPools.length; topology++) {
+                if (currentPools[topology] != collectedPools[topology]) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Collects the nodes, subsections, pools and mappings required for the calculation.
+     *
+     * @param updatables The updatables.
+     */
+    private void collectStructure(Collection<? extends Updatable> updatables) {
+        graph = module.getSimulation().getGraph();
+        // nodes
+        List<AutomatonNode> nodeList = new ArrayList<>();
+        for (Updatable updatable : updatables) {
+            if (updatable instanceof AutomatonNode && module.getApplicationCondition().test(updatable)) {
+                nodeList.add((AutomatonNode) updatable);
+            }
+        }
+        nodes = nodeList.toArray(new AutomatonNode[0]);
+        positions = new HashMap<>();
+        for (int position = 0; position < nodes.length; position++) {
+            positions.put(nodes[position], position);
+        }
+        // entities
+        entities = module.getReferencedChemicalEntities().toArray(new ChemicalEntity[0]);
+        diffusivities = new double[entities.length];
+        // subsections
+        Map<CellSubsection, Integer> subsectionIndices = new LinkedHashMap<>();
+        for (AutomatonNode node : nodes) {
+            for (CellSubsection subsection : node.getAllReferencedSections()) {
+                subsectionIndices.putIfAbsent(subsection, subsectionIndices.size());
+            }
+        }
+        subsections = subsectionIndices.keySet().toArray(new CellSubsection[0]);
+        // pools
+        int numberOfSlots = subsections.length * nodes.length;
+        pools = new ConcentrationPool[numberOfSlots];
+        diffusive = new boolean[numberOfSlots];
+        for (int position = 0; position < nodes.length; position++) {
+            AutomatonNode node = nodes[position];
+            for (CellSubsection subsection : node.getAllReferencedSections()) {
+                int slot = subsectionIndices.get(subsection) * nodes.length + position;
+                pools[slot] = node.getConcentrationContainer().getPool(subsection).getValue();
+                diffusive[slot] = subsectionCondition.test(subsection);
+            }
+        }
+        // mappings, created in the order of the nodes, such that each tile owns a consecutive range
+        Set<AutomatonNode> referenced = new LinkedHashSet<>(Arrays.asList(nodes));
+        Set<AutomatonNode> excluded = new LinkedHashSet<>();
+        Map<AutomatonNode.AreaMapping, Integer> mappingIndices = new IdentityHashMap<>();
+        List<AutomatonNode.AreaMapping> mappingList = new ArrayList<>();
+        List<ConcentrationPool> firstPoolList = new ArrayList<>();
+        List<ConcentrationPool> secondPoolList = new ArrayList<>();
+        List<Integer> firstSlotList = new ArrayList<>();
+        List<Integer> secondSlotList = new ArrayList<>();
+        List<Integer> incidentMappingList = new ArrayList<>();
+        List<Double> incidentSignList = new ArrayList<>();
+        incidenceOffsets = new int[numberOfSlots + 1];
+        int numberOfTiles = (nodes.length + tileSize - 1) / tileSize;
+        tileMappingOffsets = new int[numberOfTiles + 1];
+        List<List<int[]>> slotIncidences = new ArrayList<>(Collections.nCopies(numberOfSlots, null));
+        for (int position = 0; position < nodes.length; position++) {
+            if (position % tileSize == 0) {
+                tileMappingOffsets[position / tileSize] = mappingList.size();
+            }
+            AutomatonNode node = nodes[position];
+            for (int subsectionIndex = 0; subsectionIndex < subsections.length; subsectionIndex++) {
+                int slot = subsectionIndex * nodes.length + position;
+                if (!diffusive[slot]) {
+                    continue;
+                }
+                List<AutomatonNode.AreaMapping> nodeMappings = node.getSubsectionAdjacency().get(subsections[subsectionIndex]);
+                List<int[]> incidences = new ArrayList<>();
+                slotIncidences.set(slot, incidences);
+                if (nodeMappings == null) {
+                    continue;
+                }
+                for (AutomatonNode.AreaMapping mapping : nodeMappings) {
+                    AutomatonNode other = mapping.getOther(node);
+                    // no exchange across the boundary of the active region
+                    if (!module.getSimulation().isActive(other)) {
+                        excluded.add(other);
+                        continue;
+                    }
+                    Integer otherPosition = positions.get(other);
+                    Integer otherSubsectionIndex = subsectionIndices.get(mapping.getSubsection());
+                    int otherSlot = otherPosition == null || otherSubsectionIndex == null ? -1 : otherSubsectionIndex * nodes.length + otherPosition;
+                    // reuse the flux of the mapping if it has been created for the opposite direction
+                    Integer mappingIndex = mappingIndices.get(mapping);
+                    if (mappingIndex != null && firstSlotList.get(mappingIndex) == otherSlot && secondSlotList.get(mappingIndex) == slot && otherSlot >= 0) {
+                        incidences.add(new int[]{mappingIndex, -1});
+                        continue;
+                    }
+                    referenced.add(other);
+                    mappingIndex = mappingList.size();
+                    mappingIndices.putIfAbsent(mapping, mappingIndex);
+                    mappingList.add(mapping);
+                    firstPoolList.add(pools[slot]);
+                    Map.Entry<?, ConcentrationPool> otherPool = other.getConcentrationContainer().getPool(mapping.getSubsection());
+                    secondPoolList.add(otherPool == null ? null : otherPool.getValue());
+                    firstSlotList.add(slot);
+                    secondSlotList.add(otherSlot);
+                    incidences.add(new int[]{mappingIndex, 1});
+                }
+            }
+        }
+        tileMappingOffsets[numberOfTiles] = mappingList.size();
+        // incidences of each slot
+        for (int slot = 0; slot < numberOfSlots; slot++) {
+            incidenceOffsets[slot] = incidentMappingList.size();
+            List<int[]> incidences = slotIncidences.get(slot);
+            if (incidences == null) {
+                continue;
+            }
+            for (int[] incidence : incidences) {
+                incidentMappingList.add(incidence[0]);
+                incidentSignList.add((double) incidence[1]);
+            }
+        }
+        incidenceOffsets[numberOfSlots] = incidentMappingList.size();
+        incidentMappings = incidentMappingList.stream().mapToInt(Integer::intValue).toArray();
+        incidentSigns = incidentSignList.stream().mapToDouble(Double::doubleValue).toArray();
+        mappings = mappingList.toArray(new AutomatonNode.AreaMapping[0]);
+        firstPools = firstPoolList.toArray(new ConcentrationPool[0]);
+        secondPools = secondPoolList.toArray(new ConcentrationPool[0]);
+        firstSlots = firstSlotList.stream().mapToInt(Integer::intValue).toArray();
+        secondSlots = secondSlotList.stream().mapToInt(Integer::intValue).toArray();
+        // pools of all referenced nodes, to detect replaced pools
+        referencedNodes = referenced.toArray(new AutomatonNode[0]);
+        excludedNodes = excluded.toArray(new AutomatonNode[0]);
+        referencedPools = new ConcentrationPool[referencedNodes.length][];
+        for (int index = 0; index < referencedNodes.length; index++) {
+            referencedPools[index] = referencedNodes[index].getConcentrationContainer().getConcentrations().clone();
+        }
+        // deltas and fluxes
+        fullDeltas = new double[entities.length * numberOfSlots];
+        fluxes = new double[entities.length * mappings.length];
+        tileDeltas = new PendingDeltas[numberOfTiles];
+        for (int tile = 0; tile < numberOfTiles; tile++) {
+            tileDeltas[tile] = new PendingDeltas();
+        }
+        halfStepContainers = new ConcentrationContainer[nodes.length];
+        halfStepCalculations = new long[nodes.length];
+    }
+
+    /**
+     * Calculates the fluxes across all mappings owned by the given tile, either from the current concentrations or
+     * the half step concentrations.
+     *
+     * @param tile The tile.
+     * @param halfStep True if the fluxes should be calculated from the half step concentrations.
+     */
+    private void calculateFluxes(int tile, boolean halfStep) {
+        int from = tileMappingOffsets[tile];
+        int to = tileMappingOffsets[tile + 1];
+        for (int entityIndex = 0; entityIndex < entities.length; entityIndex++) {
+            ChemicalEntity entity = entities[entityIndex];
+            int offset = entityIndex * mappings.length;
+            for (int mappingIndex = from; mappingIndex < to; mappingIndex++) {
+                double first = concentration(firstPools[mappingIndex], entity);
+                double second = concentration(secondPools[mappingIndex], entity);
+                if (halfStep) {
+                    first += halfStepChange(entityIndex, firstSlots[mappingIndex]);
+                    second += halfStepChange(entityIndex, secondSlots[mappingIndex]);
+                }
+                fluxes[offset + mappingIndex] = mappings[mappingIndex].getDiffusiveRatio() * (second - first);
+            }
+        }
+    }
+
+    /**
+     * Returns the sum of the fluxes across all mappings incident to the given slot.
+     *
+     * @param entityIndex The entity index.
+     * @param slot The slot.
+     * @return The sum of the fluxes.
+     */
+    private double sumFluxes(int entityIndex, int slot) {
+        int offset = entityIndex * mappings.length;
+        double sum = 0.0;
+        for (int incidence = incidenceOffsets[slot]; incidence < incidenceOffsets[slot + 1]; incidence++) {
+            sum += incidentSigns[incidence] * fluxes[offset + incidentMappings[incidence]];
+        }
+        return sum;
+    }
+
+    /**
+     * Calculates the full deltas of all nodes in the given tile. If requested, the full deltas are collected as
+     * potential deltas in the deltas of the tile.
+     *
+     * @param tile The tile.
+     * @param negligenceCutoff Deltas below this cutoff are ignored.
+     * @param collect True if the full deltas should be collected as potential deltas.
+     */
+    private void calculateFullDeltas(int tile, double negligenceCutoff, boolean collect) {
+        PendingDeltas deltas = tileDeltas[tile];
+        deltas.clear();
+        int from = tile * tileSize;
+        int to = Math.min(from + tileSize, nodes.length);
+        int numberOfSlots = pools.length;
+        for (int entityIndex = 0; entityIndex < entities.length; entityIndex++) {
+            double diffusivity = diffusivities[entityIndex];
+            for (int subsectionIndex = 0; subsectionIndex < subsections.length; subsectionIndex++) {
+                for (int position = from; position < to; position++) {
+                    int slot = subsectionIndex * nodes.length + position;
+                    int deltaIndex = entityIndex * numberOfSlots + slot;
+                    if (!diffusive[slot]) {
+                        fullDeltas[deltaIndex] = 0.0;
+                        continue;
+                    }
+                    double delta = diffusivity * sumFluxes(entityIndex, slot);
+                    if (!isValid(delta, negligenceCutoff)) {
+                        fullDeltas[deltaIndex] = 0.0;
+                        continue;
+                    }
+                    fullDeltas[deltaIndex] = delta;
+                    if (collect) {
+                        deltas.add(nodes[position], module, subsections[subsectionIndex], entities[entityIndex], delta);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Calculates the half step deltas of all nodes in the given tile, collects the resulting potential deltas in the
+     * deltas of the tile and returns the largest local error of the tile.
+     *
+     * @param tile The tile.
+     * @param negligenceCutoff Deltas below this cutoff are ignored.
+     * @param moleculeFraction Half deltas below this value are not considered for the local error.
+     * @return The largest local error.
+     */
+    private LocalError calculateHalfDeltas(int tile, double negligenceCutoff, double moleculeFraction) {
+        LocalError largestError = new LocalError();
+        PendingDeltas deltas = tileDeltas[tile];
+        deltas.clear();
+        int from = tile * tileSize;
+        int to = Math.min(from + tileSize, nodes.length);
+        int numberOfSlots = pools.length;
+        for (int entityIndex = 0; entityIndex < entities.length; entityIndex++) {
+            ChemicalEntity entity = entities[entityIndex];
+            double diffusivity = diffusivities[entityIndex] * 0.5;
+            for (int subsectionIndex = 0; subsectionIndex < subsections.length; subsectionIndex++) {
+                CellSubsection subsection = subsections[subsectionIndex];
+                for (int position = from; position < to; position++) {
+                    int slot = subsectionIndex * nodes.length + position;
+                    double fullDelta = fullDeltas[entityIndex * numberOfSlots + slot];
+                    // only nodes with full deltas are considered
+                    if (fullDelta == 0.0) {
+                        continue;
+                    }
+                    double delta = diffusivity * sumFluxes(entityIndex, slot);
+                    if (!isValid(delta, negligenceCutoff)) {
+                        continue;
+                    }
+                    double halfDelta = delta * 2.0;
+                    deltas.add(nodes[position], module, subsection, entity, (fullDelta + halfDelta) * 0.5);
+                    // determine local error
+                    if (halfDelta < moleculeFraction) {
+                        continue;
+                    }
+                    double localError = Math.abs(1 - (fullDelta / halfDelta));
+                    if (largestError.value < localError) {
+                        largestError.update(localError, position, entityIndex, fullDelta, halfDelta);
+                    }
+                }
+            }
+        }
+        return largestError;
+    }
+
+    /**
+     * Returns the change of the concentration in the given slot after half of the full delta has been applied.
+     *
+     * @param entityIndex The entity index.
+     * @param slot The slot, or -1 if no delta is calculated for the slot.
+     * @return The change of the concentration.
+     */
+    private double halfStepChange(int entityIndex, int slot) {
+        if (slot < 0) {
+            return 0.0;
+        }
+        return fullDeltas[entityIndex * pools.length + slot] * 0.5;
+    }
+
+    /**
+     * Returns the concentration of the given entity in the given pool.
+     *
+     * @param pool The pool, or null if the node does not contain the subsection.
+     * @param entity The entity.
+     * @return The concentration.
+     */
+    private static double concentration(ConcentrationPool pool, ChemicalEntity entity) {
+        return pool == null ? 0.0 : pool.get(entity);
+    }
+
+    /**
+     * Returns true if the delta is neither zero nor below the numerical cutoff.
+     *
+     * @param delta The delta.
+     * @param negligenceCutoff The numerical cutoff.
+     * @return True if the delta should be considered.
+     */
+    private static boolean isValid(double delta, double negligenceCutoff) {
+        return delta != 0.0 && Math.abs(delta) > negligenceCutoff;
+    }
+
+    /**
+     * The deltas of a single node depend on the concentrations of its neighbours, therefore (as for the
+     * {@link DependentUpdate}) all nodes of the previous calculation are calculated again, replacing the deltas of the
+     * previous calculation.
+     *
+     * @param updatable The updatable, that has to be processed by the previous calculation.
+     */
+    @Override
+    public void processUpdatable(Updatable updatable) {
+        if (positions == null || !positions.containsKey(updatable)) {
+            throw new IllegalArgumentException("The updatable " + updatable.getStringIdentifier() + " has not been processed by the diffusion kernel.");
+        }
+        module.getPendingDeltas().clear();
+        processAllUpdatables(Arrays.asList(nodes));
+    }
+
+    @Override
+    public void clearPotentialDeltas() {
+        module.getPendingDeltas().clear();
+    }
+
+    @Override
+    public ConcentrationContainer getHalfStepConcentration(Updatable updatable) {
+        Integer position = positions == null ? null : positions.get(updatable);
+        if (position == null) {
+            return updatable.getConcentrationContainer();
+        }
+        if (halfStepCalculations[position] == calculation) {
+            return halfStepContainers[position];
+        }
+        // reuse the container of previous calculations
+        ConcentrationContainer container = halfStepContainers[position];
+        if (container == null) {
+            container = updatable.getConcentrationContainer().fullCopy();
+            halfStepContainers[position] = container;
+        } else {
+            updatable.getConcentrationContainer().copyTo(container);
+        }
+        int numberOfSlots = pools.length;
+        for (int entityIndex = 0; entityIndex < entities.length; entityIndex++) {
+            for (int subsectionIndex = 0; subsectionIndex < subsections.length; subsectionIndex++) {
+                double fullDelta = fullDeltas[entityIndex * numberOfSlots + subsectionIndex * nodes.length + position];
+                if (fullDelta != 0.0) {
+                    CellSubsection subsection = subsections[subsectionIndex];
+                    container.set(subsection, entities[entityIndex], container.get(subsection, entities[entityIndex]) + fullDelta * 0.5);
+                }
+            }
+        }
+        halfStepCalculations[position] = calculation;
+        return container;
+    }
+
+    /**
+     * The largest local error of a range of tiles.
+     */
+    private static class LocalError {
+
+        private double value = -Double.MAX_VALUE;
+        private int position = -1;
+        private int entity;
+        private double fullDelta;
+        private double halfDelta;
+
+        void update(double value, int position, int entity, double fullDelta, double halfDelta) {
+            this.value = value;
+            this.position = position;
+            this.entity = entity;
+            this.fullDelta = fullDelta;
+            this.halfDelta = halfDelta;
+        }
+
+        static LocalError larger(LocalError first, LocalError second) {
+            return first.value >= second.value ? first : second;
+        }
+
+    }
+
+}
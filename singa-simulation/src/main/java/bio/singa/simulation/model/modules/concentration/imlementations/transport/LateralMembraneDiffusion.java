@@ -94,7 +94,8 @@ public class LateralMembraneDiffusion extends ConcentrationBasedModule<EntityDel
         // traverse each neighbouring subsection
         double delta = 0.0;
         for (AutomatonNode neighbour : node.getNeighbours()) {
-            if (!neighbour.getCellRegion().equals(restrictedRegion)) {
+            // no exchange across the boundary of the active region
+            if (!neighbour.getCellRegion().equals(restrictedRegion) || !getSimulation().isActive(neighbour)) {
                 continue;
             }
             delta += diffusivity * (neighbour.getConcentrationContainer().get(MEMBRANE, entity) - currentConcentration);
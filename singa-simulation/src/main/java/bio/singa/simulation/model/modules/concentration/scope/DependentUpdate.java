@@ -1,8 +1,10 @@
 package bio.singa.simulation.model.modules.concentration.scope;
 
+import bio.singa.simulation.entities.ChemicalEntity;
 import bio.singa.simulation.model.modules.concentration.*;
 import bio.singa.simulation.model.modules.concentration.imlementations.transport.Diffusion;
 import bio.singa.simulation.model.modules.concentration.specifity.UpdateSpecificity;
+import bio.singa.simulation.model.sections.CellSubsection;
 import bio.singa.simulation.model.sections.ConcentrationContainer;
 import bio.singa.simulation.model.simulation.Updatable;
 import bio.singa.simulation.model.simulation.error.NumericalError;
@@ -63,6 +65,9 @@ public class DependentUpdate implements UpdateScope {
         // calculate all full updates first
         supply().setStrutCalculation(false);
         for (Updatable updatable : updatables) {
+            if (module.isCancelled()) {
+                return;
+            }
             if (module.getApplicationCondition().test(updatable)) {
                 supply().setCurrentUpdatable(updatable);
                 specify().processContainer(updatable.getConcentrationContainer());
@@ -72,25 +77,47 @@ public class DependentUpdate implements UpdateScope {
         // explicitly calculate half step concentrations
         determineHalfStepConcentrations();
         supply().setStrutCalculation(true);
-        for (ConcentrationDeltaIdentifier identifier : supply().getCurrentFullDeltas().keySet()) {
-            supply().setCurrentUpdatable(identifier.getUpdatable());
-            specify().processContainer(getHalfStepConcentration(identifier.getUpdatable()), identifier.getSubsection(), identifier.getEntity());
+        DeltaAccumulator deltas = supply().getDeltas();
+        // entries added during the half step calculation contain no full deltas
+        int numberOfEntries = deltas.size();
+        for (int entry = 0; entry < numberOfEntries; entry++) {
+            if (!deltas.hasFullDelta(entry)) {
+                continue;
+            }
+            Updatable updatable = deltas.getUpdatable(entry);
+            supply().setCurrentUpdatable(updatable);
+            specify().processContainer(getHalfStepConcentration(updatable), deltas.getSubsection(entry), deltas.getEntity(entry));
         }
         module.inBetweenHalfSteps();
         // set largest local error
         supply().setLargestLocalError(module.determineLargestLocalError());
     }
 
+    @Override
+    public void evaluateAllUpdatables(Collection<? extends Updatable> updatables) {
+        // clear used deltas
+        supply().clearDeltas();
+        // calculate full step deltas only
+        supply().setStrutCalculation(false);
+        for (Updatable updatable : updatables) {
+            if (module.getApplicationCondition().test(updatable)) {
+                supply().setCurrentUpdatable(updatable);
+                specify().processContainer(updatable.getConcentrationContainer());
+            }
+        }
+        // clear values cached during the evaluation
+        module.inBetweenHalfSteps();
+        module.assignFullDeltas();
+    }
+
     @Override
     public void processUpdatable(Updatable updatable) {
-        processAllUpdatables(module.getSimulation().getUpdatables());
+        processAllUpdatables(module.getSimulation().getActiveUpdatables());
     }
 
     @Override
     public void clearPotentialDeltas() {
-        for (Updatable current : module.getSimulation().getUpdatables()) {
-            current.getConcentrationManager().clearPotentialDeltas();
-        }
+        module.getPendingDeltas().clear();
     }
 
     /**
@@ -100,11 +127,15 @@ public class DependentUpdate implements UpdateScope {
         // clean up previous values
         halfConcentrations.clear();
         // for each full delta
-        for (Map.Entry<ConcentrationDeltaIdentifier, ConcentrationDelta> entry : supply().getCurrentFullDeltas().entrySet()) {
+        DeltaAccumulator deltas = supply().getDeltas();
+        for (int entry = 0; entry < deltas.size(); entry++) {
+            if (!deltas.hasFullDelta(entry)) {
+                continue;
+            }
             // get required values
-            final ConcentrationDeltaIdentifier identifier = entry.getKey();
-            final ConcentrationDelta fullDelta = entry.getValue();
-            final Updatable updatable = identifier.getUpdatable();
+            final Updatable updatable = deltas.getUpdatable(entry);
+            final CellSubsection subsection = deltas.getSubsection(entry);
+            final ChemicalEntity entity = deltas.getEntity(entry);
             ConcentrationContainer container;
             // check if container has been initialized
             if (halfConcentrations.containsKey(updatable)) {
@@ -114,11 +145,11 @@ public class DependentUpdate implements UpdateScope {
                 halfConcentrations.put(updatable, container);
             }
             // get full concentration
-            double fullConcentration = updatable.getConcentrationContainer().get(identifier.getSubsection(), identifier.getEntity());
+            double fullConcentration = updatable.getConcentrationContainer().get(subsection, entity);
             // add half of the full delta
-            double halfStepConcentration = fullConcentration + (fullDelta.getValue() * 0.5);
+            double halfStepConcentration = fullConcentration + (deltas.getFullDelta(entry) * 0.5);
             // update concentration
-            container.set(identifier.getSubsection(), identifier.getEntity(), halfStepConcentration);
+            container.set(subsection, entity, halfStepConcentration);
         }
     }
 
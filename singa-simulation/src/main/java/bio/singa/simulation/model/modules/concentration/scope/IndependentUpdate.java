@@ -2,7 +2,7 @@ package bio.singa.simulation.model.modules.concentration.scope;
 
 import bio.singa.simulation.entities.ChemicalEntity;
 import bio.singa.simulation.model.modules.concentration.ConcentrationBasedModule;
-import bio.singa.simulation.model.modules.concentration.ConcentrationDelta;
+import bio.singa.simulation.model.modules.concentration.DeltaAccumulator;
 import bio.singa.simulation.model.modules.concentration.FieldSupplier;
 import bio.singa.simulation.model.modules.concentration.imlementations.reactions.Reaction;
 import bio.singa.simulation.model.modules.concentration.specifity.UpdateSpecificity;
@@ -62,6 +62,9 @@ public class IndependentUpdate implements UpdateScope {
     public void processAllUpdatables(Collection<? extends Updatable> updatables) {
         // for each updatable
         for (Updatable updatable : updatables) {
+            if (module.isCancelled()) {
+                return;
+            }
             if (module.getApplicationCondition().test(updatable)) {
                 supply().setCurrentUpdatable(updatable);
                 processUpdatable(updatable);
@@ -69,6 +72,21 @@ public class IndependentUpdate implements UpdateScope {
         }
     }
 
+    @Override
+    public void evaluateAllUpdatables(Collection<? extends Updatable> updatables) {
+        // clear used deltas
+        supply().clearDeltas();
+        // calculate full step deltas only
+        supply().setStrutCalculation(false);
+        for (Updatable updatable : updatables) {
+            if (module.getApplicationCondition().test(updatable)) {
+                supply().setCurrentUpdatable(updatable);
+                specify().processContainer(updatable.getConcentrationContainer());
+            }
+        }
+        module.assignFullDeltas();
+    }
+
     @Override
     public void processUpdatable(Updatable updatable) {
         // clear used deltas
@@ -87,9 +105,7 @@ public class IndependentUpdate implements UpdateScope {
 
     @Override
     public void clearPotentialDeltas() {
-        for (Updatable current : module.getSimulation().getUpdatables()) {
-            current.getConcentrationManager().clearPotentialDeltas();
-        }
+        module.getPendingDeltas().clear();
     }
 
     /**
@@ -99,14 +115,18 @@ public class IndependentUpdate implements UpdateScope {
         // initialize the container
         halfConcentration = supply().getCurrentUpdatable().getConcentrationContainer().fullCopy();
         // for each full delta
-        for (ConcentrationDelta fullDelta : supply().getCurrentFullDeltas().values()) {
+        DeltaAccumulator deltas = supply().getDeltas();
+        for (int entry = 0; entry < deltas.size(); entry++) {
+            if (!deltas.hasFullDelta(entry)) {
+                continue;
+            }
             // get required values
-            final CellSubsection currentSubsection = fullDelta.getCellSubsection();
-            final ChemicalEntity currentEntity = fullDelta.getChemicalEntity();
+            final CellSubsection currentSubsection = deltas.getSubsection(entry);
+            final ChemicalEntity currentEntity = deltas.getEntity(entry);
             // get full concentration
             double fullConcentration = halfConcentration.get(currentSubsection, currentEntity);
             // add half of the full delta
-            double halfStepConcentration = fullConcentration + (fullDelta.getValue() * 0.5);
+            double halfStepConcentration = fullConcentration + (deltas.getFullDelta(entry) * 0.5);
             // update concentration
             halfConcentration.set(currentSubsection, currentEntity, halfStepConcentration);
         }
@@ -1,13 +1,14 @@
 package bio.singa.simulation.model.modules.concentration.scope;
 
+import bio.singa.simulation.entities.ChemicalEntity;
 import bio.singa.simulation.model.agents.pointlike.Vesicle;
 import bio.singa.simulation.model.graphs.AutomatonNode;
 import bio.singa.simulation.model.modules.concentration.ConcentrationBasedModule;
-import bio.singa.simulation.model.modules.concentration.ConcentrationDelta;
-import bio.singa.simulation.model.modules.concentration.ConcentrationDeltaIdentifier;
+import bio.singa.simulation.model.modules.concentration.DeltaAccumulator;
 import bio.singa.simulation.model.modules.concentration.FieldSupplier;
 import bio.singa.simulation.model.modules.concentration.imlementations.transport.MembraneDiffusion;
 import bio.singa.simulation.model.modules.concentration.specifity.UpdateSpecificity;
+import bio.singa.simulation.model.sections.CellSubsection;
 import bio.singa.simulation.model.sections.ConcentrationContainer;
 import bio.singa.simulation.model.simulation.Updatable;
 
@@ -69,6 +70,9 @@ public class SemiDependentUpdate implements UpdateScope {
         supply().clearDeltas();
         // for each updatable
         for (Updatable updatable : updatables) {
+            if (module.isCancelled()) {
+                return;
+            }
             if (module.getApplicationCondition().test(updatable)) {
                 supply().setCurrentUpdatable(updatable);
                 processUpdatable(updatable);
@@ -78,13 +82,28 @@ public class SemiDependentUpdate implements UpdateScope {
         supply().setLargestLocalError(module.determineLargestLocalError());
     }
 
+    @Override
+    public void evaluateAllUpdatables(Collection<? extends Updatable> updatables) {
+        // clear used deltas
+        supply().clearDeltas();
+        // calculate full step deltas only
+        supply().setStrutCalculation(false);
+        for (Updatable updatable : updatables) {
+            if (module.getApplicationCondition().test(updatable)) {
+                supply().setCurrentUpdatable(updatable);
+                specify().processContainer(updatable.getConcentrationContainer());
+            }
+        }
+        module.assignFullDeltas();
+    }
+
     @Override
     public void processUpdatable(Updatable updatable) {
         // calculate full step deltas
         supply().setStrutCalculation(false);
         specify().processContainer(updatable.getConcentrationContainer());
         // if at least one delta has been determined
-        if (!supply().getCurrentFullDeltas().isEmpty()) {
+        if (supply().getDeltas().getNumberOfFullDeltas() > 0) {
             // explicitly calculate half step concentrations
             determineHalfStepConcentrations();
             // calculate half step deltas
@@ -95,9 +114,7 @@ public class SemiDependentUpdate implements UpdateScope {
 
     @Override
     public void clearPotentialDeltas() {
-        for (Updatable current : module.getSimulation().getUpdatables()) {
-            current.getConcentrationManager().clearPotentialDeltas();
-        }
+        module.getPendingDeltas().clear();
     }
 
     /**
@@ -107,11 +124,15 @@ public class SemiDependentUpdate implements UpdateScope {
         // clean up previous values
         halfConcentrations.clear();
         // for each full delta
-        for (Map.Entry<ConcentrationDeltaIdentifier, ConcentrationDelta> entry : supply().getCurrentFullDeltas().entrySet()) {
+        DeltaAccumulator deltas = supply().getDeltas();
+        for (int entry = 0; entry < deltas.size(); entry++) {
+            if (!deltas.hasFullDelta(entry)) {
+                continue;
+            }
             // get required values
-            final ConcentrationDeltaIdentifier identifier = entry.getKey();
-            final ConcentrationDelta fullDelta = entry.getValue();
-            final Updatable updatable = identifier.getUpdatable();
+            final Updatable updatable = deltas.getUpdatable(entry);
+            final CellSubsection subsection = deltas.getSubsection(entry);
+            final ChemicalEntity entity = deltas.getEntity(entry);
             ConcentrationContainer container;
             // check if container has already been initialized
             if (halfConcentrations.containsKey(updatable)) {
@@ -121,11 +142,11 @@ public class SemiDependentUpdate implements UpdateScope {
                 halfConcentrations.put(updatable, container);
             }
             // get full concentration
-            double fullConcentration = container.get(identifier.getSubsection(), identifier.getEntity());
+            double fullConcentration = container.get(subsection, entity);
             // add half of the full delta
-            double halfStepConcentration = fullConcentration + (fullDelta.getValue() * 0.5);
+            double halfStepConcentration = fullConcentration + (deltas.getFullDelta(entry) * 0.5);
             // update concentration
-            container.set(identifier.getSubsection(), identifier.getEntity(), halfStepConcentration);
+            container.set(subsection, entity, halfStepConcentration);
         }
     }
 
@@ -0,0 +1,99 @@
+package bio.singa.simulation.model.modules.concentration.scope;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.BinaryOperator;
+import java.util.function.IntConsumer;
+import java.util.function.IntFunction;
+
+/**
+ * Distributes the tiles of data parallel update scopes (e.g. the diffusion kernel) to a {@link ForkJoinPool}. Tiles
+ * are split recursively, such that idle workers steal them. If the kernel is calculated by a worker of the pool (e.g.
+ * the module pool of the {@link bio.singa.simulation.model.simulation.UpdateScheduler}), the tiles are forked into the
+ * pool of the caller. Tiles are never forked into the common pool, if no pool is available or the pool only uses a
+ * single worker, the tiles are calculated sequentially by the caller.
+ *
+ * @author cl
+ */
+public class TileExecutor {
+
+    private TileExecutor() {
+        // prevent instantiation
+    }
+
+    /**
+     * Applies the given calculation to each tile and returns after all tiles have been calculated.
+     *
+     * @param pool The pool, or null to calculate tiles sequentially.
+     * @param numberOfTiles The number of tiles.
+     * @param calculation The calculation of a single tile.
+     */
+    public static void forEachTile(ForkJoinPool pool, int numberOfTiles, IntConsumer calculation) {
+        reduceTiles(pool, numberOfTiles, tile -> {
+            calculation.accept(tile);
+            return null;
+        }, (first, second) -> null);
+    }
+
+    /**
+     * Applies the given calculation to each tile and reduces the results. The reduction has to be associative.
+     *
+     * @param pool The pool, or null to calculate tiles sequentially.
+     * @param numberOfTiles The number of tiles, at least one.
+     * @param calculation The calculation of a single tile.
+     * @param reduction The reduction.
+     * @param <ResultType> The type of the result.
+     * @return The reduced result.
+     */
+    public static <ResultType> ResultType reduceTiles(ForkJoinPool pool, int numberOfTiles, IntFunction<ResultType> calculation, BinaryOperator<ResultType> reduction) {
+        if (numberOfTiles < 1) {
+            throw new IllegalArgumentException("At least one tile is required.");
+        }
+        if (numberOfTiles == 1 || pool == null || pool.isShutdown() || pool.getParallelism() < 2) {
+            ResultType result = calculation.apply(0);
+            for (int tile = 1; tile < numberOfTiles; tile++) {
+                result = reduction.apply(result, calculation.apply(tile));
+            }
+            return result;
+        }
+        TileTask<ResultType> task = new TileTask<>(0, numberOfTiles, calculation, reduction);
+        if (ForkJoinTask.getPool() == pool) {
+            return task.invoke();
+        }
+        return pool.invoke(task);
+    }
+
+    /**
+     * Calculates a range of tiles and reduces their results.
+     */
+    private static class TileTask<ResultType> extends RecursiveTask<ResultType> {
+
+        private final int fromTile;
+        private final int toTile;
+        private final IntFunction<ResultType> calculation;
+        private final BinaryOperator<ResultType> reduction;
+
+        TileTask(int fromTile, int toTile, IntFunction<ResultType> calculation, BinaryOperator<ResultType> reduction) {
+            this.fromTile = fromTile;
+            this.toTile = toTile;
+            this.calculation = calculation;
+            this.reduction = reduction;
+        }
+
+        @Override
+        protected ResultType compute() {
+            if (toTile - fromTile == 1) {
+                return calculation.apply(fromTile);
+            }
+            int middle = (fromTile + toTile) >>> 1;
+            TileTask<ResultType> left = new TileTask<>(fromTile, middle, calculation, reduction);
+            TileTask<ResultType> right = new TileTask<>(middle, toTile, calculation, reduction);
+            left.fork();
+            ResultType rightResult = right.compute();
+            return reduction.apply(left.join(), rightResult);
+        }
+
+    }
+
+}
@@ -26,6 +26,15 @@ public interface UpdateScope {
      */
     void processAllUpdatables(Collection<? extends Updatable> updatables);
 
+    /**
+     * Evaluates the delta functions of the corresponding module once for the current concentrations of all given
+     * updatables and pushes the resulting deltas as potential deltas to the updatables. No half step deltas are
+     * calculated and no local error is determined. Used by integrators that estimate the error from multiple
+     * evaluations of all modules.
+     * @param updatables The updatables to be evaluated.
+     */
+    void evaluateAllUpdatables(Collection<? extends Updatable> updatables);
+
     /**
      * Calculates the given updatable. If it is required to calculate other updatables to evaluate the state of this
      * updatable this will be done depending on the implementation of the scope.
@@ -34,7 +43,8 @@ public interface UpdateScope {
     void processUpdatable(Updatable updatable);
 
     /**
-     * Clears all concentration deltas that may be assigned by this module
+     * Clears all concentration deltas this module calculated during the current round, that have not yet been
+     * assigned to the updatables (see {@link bio.singa.simulation.model.modules.concentration.PendingDeltas}).
      */
     void clearPotentialDeltas();
 
@@ -3,7 +3,6 @@ package bio.singa.simulation.model.modules.concentration.specifity;
 import bio.singa.simulation.entities.ChemicalEntity;
 import bio.singa.simulation.model.modules.concentration.ConcentrationBasedModule;
 import bio.singa.simulation.model.modules.concentration.ConcentrationDelta;
-import bio.singa.simulation.model.modules.concentration.ConcentrationDeltaIdentifier;
 import bio.singa.simulation.model.modules.concentration.FieldSupplier;
 import bio.singa.simulation.model.modules.concentration.functions.AbstractDeltaFunction;
 import bio.singa.simulation.model.modules.concentration.functions.EntityDeltaFunction;
@@ -76,7 +75,7 @@ public class EntitySpecific implements UpdateSpecificity<EntityDeltaFunction> {
                 // apply function
                 ConcentrationDelta delta = deltaFunction.getFunction().apply(container);
                 if (module.deltaIsValid(delta)) {
-                    module.handleDelta(new ConcentrationDeltaIdentifier(supply().getCurrentUpdatable(), supply().getCurrentSubsection(), supply().getCurrentEntity()), delta);
+                    module.handleDelta(supply().getCurrentUpdatable(), module.getIdentifier(), supply().getCurrentSubsection(), supply().getCurrentEntity(), delta);
                 }
             }
         }
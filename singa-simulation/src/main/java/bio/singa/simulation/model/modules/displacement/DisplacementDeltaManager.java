@@ -127,6 +127,16 @@ public class DisplacementDeltaManager {
         nextPosition = currentPosition;
     }
 
+    /**
+     * Moves the current and the next position to the given position.
+     *
+     * @param position The position.
+     */
+    public void setCurrentPosition(Vector2D position) {
+        currentPosition = position;
+        nextPosition = position;
+    }
+
     /**
      * Sets the current position to the next position.
      */
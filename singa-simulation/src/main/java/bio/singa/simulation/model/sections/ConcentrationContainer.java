@@ -8,6 +8,7 @@ import bio.singa.features.units.UnitRegistry;
 
 import javax.measure.Quantity;
 import java.util.*;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
 import static bio.singa.simulation.model.sections.CellTopology.*;
@@ -326,6 +327,49 @@ public class ConcentrationContainer {
         return concentrationContainer;
     }
 
+    /**
+     * Returns a copy of this container, keeping subsections and cell topologies associated, that only contains the
+     * concentrations of the entities accepted by the given filter.
+     *
+     * @param entityFilter The filter determining the entities to copy.
+     * @return The copy of this container.
+     */
+    public ConcentrationContainer selectiveCopy(Predicate<ChemicalEntity> entityFilter) {
+        ConcentrationContainer concentrationContainer = emptyCopy();
+        for (int i = 0; i < subsectionTopology.length; i++) {
+            if (subsectionTopology[i] == null) {
+                continue;
+            }
+            ConcentrationPool targetPool = concentrationContainer.concentrations[i];
+            for (ChemicalEntity entity : concentrations[i].getReferencedEntities()) {
+                if (entityFilter.test(entity)) {
+                    targetPool.set(entity, concentrations[i].get(entity));
+                }
+            }
+        }
+        return concentrationContainer;
+    }
+
+    /**
+     * Copies the subsections, topologies and concentrations of this container to the given container. Existing pools
+     * of the target are reused (and keep a possible binding to a {@link ConcentrationGrid}), such that the identity of
+     * the target container and its pools is conserved.
+     *
+     * @param target The container to copy to.
+     */
+    public void copyTo(ConcentrationContainer target) {
+        for (int i = 0; i < subsectionTopology.length; i++) {
+            target.subsectionTopology[i] = subsectionTopology[i];
+            if (concentrations[i] == null) {
+                target.concentrations[i] = null;
+            } else if (target.concentrations[i] == null) {
+                target.concentrations[i] = concentrations[i].fullCopy();
+            } else {
+                concentrations[i].copyTo(target.concentrations[i]);
+            }
+        }
+    }
+
     /**
      * Returns a full copy of this container, keeping concentrations.
      *
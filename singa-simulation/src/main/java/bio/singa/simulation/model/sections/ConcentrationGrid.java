@@ -0,0 +1,309 @@
+package bio.singa.simulation.model.sections;
+
+import bio.singa.simulation.entities.ChemicalEntity;
+import bio.singa.simulation.entities.EntityRegistry;
+import bio.singa.simulation.model.simulation.Updatable;
+
+import bio.singa.simulation.model.modules.concentration.ConcentrationDeltaManager;
+
+import java.util.*;
+
+/**
+ * The concentration grid stores the concentrations of a fixed set of {@link Updatable}s (usually all nodes of the
+ * automaton graph) in a structure of arrays. For each {@link CellSubsection} there is one contiguous array, where the
+ * concentrations of each {@link ChemicalEntity} are stored in a consecutive block with one value per updatable:
+ * <pre>
+ *  values(subsection)[entity.getIndex() * numberOfUpdatables + updatableIndex] </pre>
+ * The {@link ConcentrationPool}s of the updatables are bound to the grid and become views of the grid, such that all
+ * regular accesses to the {@link ConcentrationContainer} of an updatable read and write the grid. Calculations over
+ * whole grids can loop over the block of a single entity, using {@link #getValues(CellSubsection)} and
+ * {@link #getOffset(ChemicalEntity)}.
+ * <p>
+ * The original concentrations of each updatable (see {@link ConcentrationDeltaManager#getOriginalConcentrations()})
+ * are bound to a second set of arrays with the same layout. Therefore backing up and reverting the concentrations of
+ * all bound updatables are single array copies per subsection (see {@link #backup()} and {@link #restore()}).
+ * <p>
+ * Growing the grid replaces the arrays and rebinds all pools. Therefore, the grid only grows when no other thread
+ * accesses it: When it is created, before each epoch and after each calculation round, the capacity is extended to
+ * all entities indexed so far (see {@link #ensureCapacity()}). Bound pools access the arrays without any
+ * synchronization. Only setting the concentration of an entity, that has been indexed after the last extension, grows
+ * the grid immediately.
+ *
+ * @author cl
+ */
+public class ConcentrationGrid {
+
+    /**
+     * The updatables in the order of their grid index.
+     */
+    private final List<Updatable> updatables;
+
+    /**
+     * The grid index of each updatable.
+     */
+    private final Map<Updatable, Integer> indices;
+
+    /**
+     * The storage for each subsection.
+     */
+    private final Map<CellSubsection, double[]> values;
+
+    /**
+     * The storage of the original concentrations for each subsection.
+     */
+    private final Map<CellSubsection, double[]> originalValues;
+
+    /**
+     * The pools bound to each subsection.
+     */
+    private final Map<CellSubsection, ConcentrationPool[]> pools;
+
+    /**
+     * The pools of the original concentrations bound to each subsection.
+     */
+    private final Map<CellSubsection, ConcentrationPool[]> originalPools;
+
+    /**
+     * The current and original pools bound for each updatable, addressed by grid index and topology index.
+     */
+    private final ConcentrationPool[][] boundPools;
+    private final ConcentrationPool[][] boundOriginalPools;
+
+    /**
+     * The number of entities addressable for each updatable.
+     */
+    private int capacity;
+
+    /**
+     * Creates a new concentration grid, binding the current and original concentration pools of all given
+     * updatables. The original concentrations are initialized with the current concentrations.
+     *
+     * @param updatables The updatables.
+     */
+    public ConcentrationGrid(Collection<? extends Updatable> updatables) {
+        this.updatables = new ArrayList<>(updatables);
+        indices = new HashMap<>();
+        values = new HashMap<>();
+        originalValues = new HashMap<>();
+        pools = new HashMap<>();
+        originalPools = new HashMap<>();
+        // determine required capacity
+        capacity = EntityRegistry.getNumberOfIndices();
+        for (Updatable updatable : this.updatables) {
+            for (ConcentrationPool pool : updatable.getConcentrationContainer().getConcentrations()) {
+                if (pool != null) {
+                    capacity = Math.max(capacity, pool.getCapacity());
+                }
+            }
+        }
+        // bind pools
+        int numberOfUpdatables = this.updatables.size();
+        int numberOfTopologies = CellTopology.values().length;
+        boundPools = new ConcentrationPool[numberOfUpdatables][numberOfTopologies];
+        boundOriginalPools = new ConcentrationPool[numberOfUpdatables][numberOfTopologies];
+        for (int updatableIndex = 0; updatableIndex < numberOfUpdatables; updatableIndex++) {
+            Updatable updatable = this.updatables.get(updatableIndex);
+            indices.put(updatable, updatableIndex);
+            ConcentrationContainer container = updatable.getConcentrationContainer();
+            ConcentrationContainer originalContainer = container.fullCopy();
+            updatable.getConcentrationManager().setOriginalConcentrations(originalContainer);
+            for (CellTopology topology : CellTopology.values()) {
+                CellSubsection subsection = container.getSubsection(topology);
+                if (subsection == null) {
+                    continue;
+                }
+                ConcentrationPool pool = container.getPool(topology).getValue();
+                bind(pool, subsection, values, pools, updatableIndex);
+                boundPools[updatableIndex][topology.getIndex()] = pool;
+                ConcentrationPool originalPool = originalContainer.getPool(topology).getValue();
+                bind(originalPool, subsection, originalValues, originalPools, updatableIndex);
+                boundOriginalPools[updatableIndex][topology.getIndex()] = originalPool;
+            }
+        }
+    }
+
+    private void bind(ConcentrationPool pool, CellSubsection subsection, Map<CellSubsection, double[]> storages,
+                      Map<CellSubsection, ConcentrationPool[]> boundPools, int updatableIndex) {
+        int numberOfUpdatables = updatables.size();
+        double[] storage = storages.computeIfAbsent(subsection, key -> new double[capacity * numberOfUpdatables]);
+        pool.bind(this, storage, updatableIndex, numberOfUpdatables, capacity);
+        boundPools.computeIfAbsent(subsection, key -> new ConcentrationPool[numberOfUpdatables])[updatableIndex] = pool;
+    }
+
+    /**
+     * Returns the number of updatables in this grid.
+     *
+     * @return The number of updatables.
+     */
+    public int getNumberOfUpdatables() {
+        return updatables.size();
+    }
+
+    /**
+     * Returns the updatables in the order of their grid index.
+     *
+     * @return The updatables.
+     */
+    public List<Updatable> getUpdatables() {
+        return updatables;
+    }
+
+    /**
+     * Returns the grid index of the updatable or -1 if the updatable is not part of this grid.
+     *
+     * @param updatable The updatable.
+     * @return The grid index.
+     */
+    public int getIndex(Updatable updatable) {
+        return indices.getOrDefault(updatable, -1);
+    }
+
+    /**
+     * Returns the subsections stored in this grid.
+     *
+     * @return The subsections.
+     */
+    public Set<CellSubsection> getSubsections() {
+        return values.keySet();
+    }
+
+    /**
+     * Returns the whole storage of the given subsection.
+     *
+     * @param subsection The subsection.
+     * @return The storage or null if the subsection is not part of this grid.
+     */
+    public double[] getValues(CellSubsection subsection) {
+        return values.get(subsection);
+    }
+
+    /**
+     * Returns the offset of the block of concentrations of the given entity in the storage of any subsection. The
+     * concentration of the entity in the updatable with grid index i is located at offset + i. If the entity has been
+     * indexed after the last extension of the capacity, the grid grows, which is only allowed while no other thread
+     * accesses the grid.
+     *
+     * @param entity The entity.
+     * @return The offset of the block.
+     */
+    public int getOffset(ChemicalEntity entity) {
+        int index = entity.getIndex();
+        if (index >= capacity) {
+            grow(index + 1);
+        }
+        return index * updatables.size();
+    }
+
+    /**
+     * Copies the current concentrations of all updatables to their original concentrations. Updatables that are no
+     * longer bound (see {@link #isBound(Updatable)}) need to be backed up individually afterwards.
+     */
+    public void backup() {
+        copy(values, originalValues);
+    }
+
+    /**
+     * Copies the original concentrations of all updatables to their current concentrations. Updatables that are no
+     * longer bound (see {@link #isBound(Updatable)}) need to be restored individually afterwards.
+     */
+    public void restore() {
+        copy(originalValues, values);
+    }
+
+    private void copy(Map<CellSubsection, double[]> source, Map<CellSubsection, double[]> target) {
+        for (Map.Entry<CellSubsection, double[]> entry : source.entrySet()) {
+            double[] sourceValues = entry.getValue();
+            System.arraycopy(sourceValues, 0, target.get(entry.getKey()), 0, sourceValues.length);
+        }
+    }
+
+    /**
+     * Returns true if the current and the original concentration pools of the updatable are still views of this
+     * grid. Updatables can be detached from the grid, if their concentration containers are replaced.
+     *
+     * @param updatable The updatable.
+     * @return True, if the updatable is bound to this grid.
+     */
+    public boolean isBound(Updatable updatable) {
+        int index = getIndex(updatable);
+        if (index < 0) {
+            return false;
+        }
+        ConcentrationDeltaManager concentrationManager = updatable.getConcentrationManager();
+        ConcentrationContainer originalConcentrations = concentrationManager.getOriginalConcentrations();
+        if (originalConcentrations == null) {
+            return false;
+        }
+        ConcentrationPool[] currentPools = concentrationManager.getConcentrationContainer().getConcentrations();
+        ConcentrationPool[] originalPools = originalConcentrations.getConcentrations();
+        for (int topologyIndex = 0; topologyIndex < currentPools.length; topologyIndex++) {
+            if (currentPools[topologyIndex] != boundPools[index][topologyIndex]
+                    || originalPools[topologyIndex] != boundOriginalPools[index][topologyIndex]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns true if the current concentration pool of the updatable for the given subsection is still a view of
+     * this grid. Updatables can be detached from the grid, if their concentration container is replaced.
+     *
+     * @param updatable The updatable.
+     * @param subsection The subsection.
+     * @return True, if the updatable is bound to this grid.
+     */
+    public boolean isBound(Updatable updatable, CellSubsection subsection) {
+        int index = getIndex(updatable);
+        if (index < 0) {
+            return false;
+        }
+        ConcentrationPool[] boundPools = pools.get(subsection);
+        if (boundPools == null || boundPools[index] == null) {
+            return false;
+        }
+        Map.Entry<CellTopology, ConcentrationPool> pool = updatable.getConcentrationContainer().getPool(subsection);
+        return pool != null && pool.getValue() == boundPools[index];
+    }
+
+    /**
+     * Extends the number of entities that can be addressed for each updatable to all entities indexed in the current
+     * context. Must not be called while other threads access the grid.
+     */
+    public void ensureCapacity() {
+        if (EntityRegistry.getNumberOfIndices() > capacity) {
+            grow(EntityRegistry.getNumberOfIndices());
+        }
+    }
+
+    /**
+     * Increases the number of entities that can be addressed for each updatable and rebinds all pools. Must not be
+     * called while other threads access the grid.
+     *
+     * @param minimalCapacity The minimal capacity.
+     */
+    void grow(int minimalCapacity) {
+        if (minimalCapacity <= capacity) {
+            return;
+        }
+        int updatedCapacity = Math.max(minimalCapacity, EntityRegistry.getNumberOfIndices());
+        grow(values, pools, updatedCapacity);
+        grow(originalValues, originalPools, updatedCapacity);
+        capacity = updatedCapacity;
+    }
+
+    private void grow(Map<CellSubsection, double[]> storages, Map<CellSubsection, ConcentrationPool[]> boundPools, int updatedCapacity) {
+        int numberOfUpdatables = updatables.size();
+        for (Map.Entry<CellSubsection, double[]> entry : storages.entrySet()) {
+            // the layout is entity major, therefore extending the array keeps all offsets
+            double[] storage = Arrays.copyOf(entry.getValue(), updatedCapacity * numberOfUpdatables);
+            entry.setValue(storage);
+            for (ConcentrationPool pool : boundPools.get(entry.getKey())) {
+                if (pool != null) {
+                    pool.rebind(storage, updatedCapacity);
+                }
+            }
+        }
+    }
+
+}
@@ -1,29 +1,59 @@
 package bio.singa.simulation.model.sections;
 
-import bio.singa.simulation.entities.ChemicalEntity;
 import bio.singa.features.quantities.MolarConcentration;
+import bio.singa.simulation.entities.ChemicalEntity;
+import bio.singa.simulation.entities.EntityRegistry;
 
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Set;
+import java.util.*;
 
 /**
  * The concentration pool manages the {@link MolarConcentration} of {@link ChemicalEntity}s in {@link CellSubsection}s.
+ * Concentrations are stored in a flat array, that is addressed by the dense index of each entity (see
+ * {@link ChemicalEntity#getIndex()}). Therefore accessing concentrations neither requires boxing nor hashing and copies
+ * of pools are simple array copies. A pool can also be bound to a {@link ConcentrationGrid}, in which case it is a view
+ * of one column of the contiguous grid storage.
  *
  * @author cl
  */
 public class ConcentrationPool {
 
     /**
-     * The associated concentrations.
+     * The associated concentrations, addressed by entity index (offset + index * stride).
+     */
+    private double[] concentrations;
+
+    /**
+     * The offset of the first concentration in the concentration array.
+     */
+    private int offset;
+
+    /**
+     * The distance between the concentrations of consecutive entity indices in the concentration array.
      */
-    private Map<ChemicalEntity, Double> concentrations;
+    private int stride;
 
     /**
-     * Creates a new, empty concentration pool.
+     * The referenced entities, addressed by entity index ({@code null} if the entity is not referenced).
+     */
+    private ChemicalEntity[] entities;
+
+    /**
+     * The number of referenced entities.
+     */
+    private int size;
+
+    /**
+     * The grid this pool is bound to, if any.
+     */
+    private ConcentrationGrid grid;
+
+    /**
+     * Creates a new, empty concentration pool. The pool grows to the largest index of the entities set.
      */
     public ConcentrationPool() {
-        concentrations = new HashMap<>();
+        concentrations = new double[0];
+        entities = new ChemicalEntity[0];
+        stride = 1;
     }
 
     /**
@@ -31,7 +61,11 @@ public class ConcentrationPool {
      * @param concentrationPool The pool to copy.
      */
     private ConcentrationPool(ConcentrationPool concentrationPool) {
-        concentrations = new HashMap<>(concentrationPool.concentrations);
+        int capacity = concentrationPool.entities.length;
+        concentrations = new double[capacity];
+        entities = new ChemicalEntity[capacity];
+        stride = 1;
+        concentrationPool.copyTo(this);
     }
 
     /**
@@ -39,11 +73,21 @@ public class ConcentrationPool {
      * @return All entities referenced in this map.
      */
     public Set<ChemicalEntity> getReferencedEntities() {
-        return concentrations.keySet();
+        return new ReferencedEntities();
     }
 
+    /**
+     * Returns a copy of the concentrations in this pool mapped to their entities.
+     * @return A copy of the concentrations in this pool.
+     */
     public Map<ChemicalEntity, Double> getConcentrations() {
-        return concentrations;
+        Map<ChemicalEntity, Double> map = new HashMap<>();
+        for (int i = 0; i < entities.length; i++) {
+            if (entities[i] != null) {
+                map.put(entities[i], concentrations[offset + i * stride]);
+            }
+        }
+        return map;
     }
 
     /**
@@ -52,7 +96,11 @@ public class ConcentrationPool {
      * @return The concentration of a entity.
      */
     public double get(ChemicalEntity entity) {
-        return concentrations.getOrDefault(entity, 0.0);
+        int index = entity.getIndex();
+        if (index < entities.length) {
+            return concentrations[offset + index * stride];
+        }
+        return 0.0;
     }
 
     /**
@@ -61,7 +109,107 @@ public class ConcentrationPool {
      * @param concentration The concentration (this should be scaled to the subsection volume).
      */
     public void set(ChemicalEntity entity, double concentration) {
-        concentrations.put(entity, concentration);
+        int index = entity.getIndex();
+        if (index >= entities.length) {
+            grow(index + 1);
+        }
+        if (entities[index] == null) {
+            entities[index] = entity;
+            size++;
+        }
+        concentrations[offset + index * stride] = concentration;
+    }
+
+    /**
+     * Copies all concentrations and referenced entities of this pool to the given pool, reusing the storage of the
+     * target pool whenever possible.
+     * @param target The pool to copy to.
+     */
+    public void copyTo(ConcentrationPool target) {
+        int capacity = entities.length;
+        if (target.entities.length < capacity) {
+            target.grow(capacity);
+        }
+        if (stride == 1 && target.stride == 1) {
+            System.arraycopy(concentrations, offset, target.concentrations, target.offset, capacity);
+        } else {
+            for (int i = 0; i < capacity; i++) {
+                target.concentrations[target.offset + i * target.stride] = concentrations[offset + i * stride];
+            }
+        }
+        System.arraycopy(entities, 0, target.entities, 0, capacity);
+        // clear remaining entries of larger targets
+        for (int i = capacity; i < target.entities.length; i++) {
+            target.entities[i] = null;
+            target.concentrations[target.offset + i * target.stride] = 0.0;
+        }
+        target.size = size;
+    }
+
+    /**
+     * Increases the capacity of this pool, such that at least the given number of entities can be addressed.
+     * @param minimalCapacity The minimal capacity.
+     */
+    private void grow(int minimalCapacity) {
+        if (grid != null) {
+            // the grid rebinds all of its pools, therefore all entities of the context are considered at once (this
+            // is only safe while no other thread accesses the grid, see ConcentrationGrid#ensureCapacity)
+            grid.grow(Math.max(minimalCapacity, EntityRegistry.getNumberOfIndices()));
+            return;
+        }
+        concentrations = Arrays.copyOf(concentrations, minimalCapacity);
+        entities = Arrays.copyOf(entities, minimalCapacity);
+    }
+
+    /**
+     * Binds this pool to the storage of a {@link ConcentrationGrid}. Current concentrations are transferred to the
+     * storage.
+     * @param grid The grid.
+     * @param storage The storage.
+     * @param offset The offset of the first entity.
+     * @param stride The distance between consecutive entities.
+     * @param capacity The number of addressable entities (at least the current capacity of this pool).
+     */
+    void bind(ConcentrationGrid grid, double[] storage, int offset, int stride, int capacity) {
+        for (int i = 0; i < entities.length; i++) {
+            storage[offset + i * stride] = concentrations[this.offset + i * this.stride];
+        }
+        if (entities.length < capacity) {
+            entities = Arrays.copyOf(entities, capacity);
+        }
+        this.grid = grid;
+        this.concentrations = storage;
+        this.offset = offset;
+        this.stride = stride;
+    }
+
+    /**
+     * Replaces the storage of a bound pool after the grid has been resized. Concentrations have already been
+     * transferred by the grid.
+     * @param storage The storage.
+     * @param capacity The number of addressable entities.
+     */
+    void rebind(double[] storage, int capacity) {
+        concentrations = storage;
+        if (entities.length < capacity) {
+            entities = Arrays.copyOf(entities, capacity);
+        }
+    }
+
+    /**
+     * Returns the number of entities that can be addressed without resizing this pool.
+     * @return The capacity.
+     */
+    public int getCapacity() {
+        return entities.length;
+    }
+
+    /**
+     * Returns the grid this pool is bound to or null if it uses its own storage.
+     * @return The grid this pool is bound to.
+     */
+    public ConcentrationGrid getGrid() {
+        return grid;
     }
 
     /**
@@ -71,5 +219,58 @@ public class ConcentrationPool {
     public ConcentrationPool fullCopy() {
         return new ConcentrationPool(this);
     }
-    
+
+    /**
+     * A view of the entities referenced in this pool.
+     */
+    private class ReferencedEntities extends AbstractSet<ChemicalEntity> {
+
+        @Override
+        public boolean contains(Object o) {
+            if (!(o instanceof ChemicalEntity)) {
+                return false;
+            }
+            int index = ((ChemicalEntity) o).getIndex();
+            return index < entities.length && entities[index] != null;
+        }
+
+        @Override
+        public Iterator<ChemicalEntity> iterator() {
+            final ChemicalEntity[] snapshot = entities;
+            return new Iterator<ChemicalEntity>() {
+
+                private int next = advance(0);
+
+                private int advance(int from) {
+                    while (from < snapshot.length && snapshot[from] == null) {
+                        from++;
+                    }
+                    return from;
+                }
+
+                @Override
+                public boolean hasNext() {
+                    return next < snapshot.length;
+                }
+
+                @Override
+                public ChemicalEntity next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    ChemicalEntity entity = snapshot[next];
+                    next = advance(next + 1);
+                    return entity;
+                }
+
+            };
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+    }
+
 }
@@ -0,0 +1,286 @@
+package bio.singa.simulation.model.simulation;
+
+import bio.singa.simulation.model.agents.pointlike.Vesicle;
+import bio.singa.simulation.model.graphs.AutomatonNode;
+import bio.singa.simulation.model.modules.qualitative.implementations.EndocytoticPit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+
+/**
+ * The activity tracker restricts the calculation of each epoch to the active part of the simulation. Large parts of
+ * a simulation often remain at equilibrium for long periods of time, but all modules, backups and delta applications
+ * are still processed for every {@link Updatable}. An updatable is considered active if any of the deltas applied to
+ * it in the previous epoch exceeded the activity threshold (by default the numerical negligence cutoff of the
+ * {@link bio.singa.simulation.model.simulation.error.ErrorManager}). In addition, the neighbours of active nodes up to
+ * the halo width are active, since their deltas depend on the changed concentrations. Updatables, that are no
+ * {@link AutomatonNode}s (vesicles and pits), and the nodes associated to them are always active.
+ * <pre>
+ *  simulation.setActivityTracker(new ActivityTracker()); </pre>
+ * The first epoch and every epoch after the full sweep interval are calculated for all updatables, such that slow
+ * changes, that remained below the threshold in individual epochs, reactivate their updatables. Updatables, whose
+ * concentrations are changed from outside of the modules (e.g. by initial concentrations), are activated explicitly
+ * (see {@link #activate(Collection)}), arbitrary changes require a full sweep (see {@link #activateAll()}).
+ * <p>
+ * Diffusive modules do not exchange concentrations across the boundary of the active region, i.e. between active and
+ * inactive nodes, since the inactive node would not receive the opposite flux. The boundary is treated as closed
+ * until the next full sweep or until the activity spreads, such that mass is conserved.
+ * <p>
+ * The activity tracker is an approximation. Skipped epochs are not integrated later: Changes of inactive updatables
+ * and fluxes across the closed boundary are withheld for every skipped epoch, and a full sweep only calculates the
+ * current epoch for all updatables. Since withheld changes accumulate over the skipped epochs, the deviation from a
+ * calculation of all updatables is not bounded by the activity threshold itself, but it is limited by the changes
+ * that are withheld until the next full sweep. Smaller thresholds and full sweep intervals reduce the deviation.
+ *
+ * @author cl
+ */
+public class ActivityTracker {
+
+    private static final Logger logger = LoggerFactory.getLogger(ActivityTracker.class);
+
+    /**
+     * The default number of epochs between two full sweeps.
+     */
+    public static final int DEFAULT_FULL_SWEEP_INTERVAL = 100;
+
+    /**
+     * The default number of neighbourhood layers around changed nodes, that are active.
+     */
+    public static final int DEFAULT_HALO_WIDTH = 1;
+
+    /**
+     * The number of epochs between two full sweeps.
+     */
+    private int fullSweepInterval = DEFAULT_FULL_SWEEP_INTERVAL;
+
+    /**
+     * The number of neighbourhood layers around changed nodes, that are active.
+     */
+    private int haloWidth = DEFAULT_HALO_WIDTH;
+
+    /**
+     * The smallest delta, that marks an updatable as changed (NaN to use the numerical negligence cutoff).
+     */
+    private double activityThreshold = Double.NaN;
+
+    /**
+     * The updatables, that changed in the last epoch.
+     */
+    private final Set<Updatable> changedUpdatables;
+
+    /**
+     * The updatables, that are active in the current epoch.
+     */
+    private final Set<Updatable> activeSet;
+
+    /**
+     * The updatables, that are active in the current epoch, in the order of the simulation.
+     */
+    private List<Updatable> activeUpdatables;
+
+    /**
+     * The epochs since the last full sweep.
+     */
+    private int epochsSinceFullSweep;
+
+    /**
+     * True, if the next epoch has to be calculated for all updatables.
+     */
+    private boolean fullSweepRequired;
+
+    /**
+     * The number of skipped updatables since the start of the simulation, summed over all epochs.
+     */
+    private long skippedUpdatables;
+
+    /**
+     * Creates a new activity tracker. The first epoch is calculated for all updatables.
+     */
+    public ActivityTracker() {
+        changedUpdatables = new HashSet<>();
+        activeSet = new HashSet<>();
+        activeUpdatables = Collections.emptyList();
+        fullSweepRequired = true;
+    }
+
+    /**
+     * Determines the updatables, that are active in the current epoch.
+     *
+     * @param updatables All updatables of the simulation.
+     */
+    void determineActiveUpdatables(List<Updatable> updatables) {
+        if (fullSweepRequired || epochsSinceFullSweep >= fullSweepInterval) {
+            logger.debug("Calculating full sweep over {} updatables.", updatables.size());
+            activeUpdatables = updatables;
+            activeSet.clear();
+            activeSet.addAll(updatables);
+            epochsSinceFullSweep = 0;
+            fullSweepRequired = false;
+            return;
+        }
+        epochsSinceFullSweep++;
+        activeSet.clear();
+        Set<AutomatonNode> front = new HashSet<>();
+        for (Updatable updatable : changedUpdatables) {
+            activeSet.add(updatable);
+            if (updatable instanceof AutomatonNode) {
+                front.add((AutomatonNode) updatable);
+            }
+        }
+        for (Updatable updatable : updatables) {
+            if (updatable instanceof Vesicle) {
+                activeSet.add(updatable);
+                activeSet.addAll(((Vesicle) updatable).getAssociatedNodes().keySet());
+            } else if (updatable instanceof EndocytoticPit) {
+                activeSet.add(updatable);
+                activeSet.add(((EndocytoticPit) updatable).getAssociatedNode());
+            } else if (!(updatable instanceof AutomatonNode)) {
+                activeSet.add(updatable);
+            }
+        }
+        // halo around changed nodes
+        for (int layer = 0; layer < haloWidth && !front.isEmpty(); layer++) {
+            Set<AutomatonNode> nextFront = new HashSet<>();
+            for (AutomatonNode node : front) {
+                for (AutomatonNode neighbour : node.getNeighbours()) {
+                    if (activeSet.add(neighbour)) {
+                        nextFront.add(neighbour);
+                    }
+                }
+            }
+            front = nextFront;
+        }
+        List<Updatable> currentUpdatables = new ArrayList<>(activeSet.size());
+        for (Updatable updatable : updatables) {
+            if (activeSet.contains(updatable)) {
+                currentUpdatables.add(updatable);
+            }
+        }
+        skippedUpdatables += updatables.size() - currentUpdatables.size();
+        activeUpdatables = currentUpdatables;
+        logger.debug("Calculating {} of {} updatables.", activeUpdatables.size(), updatables.size());
+    }
+
+    /**
+     * Remembers the active updatables, whose final deltas exceed the activity threshold. Needs to be called before the
+     * deltas are applied.
+     *
+     * @param negligenceCutoff The numerical negligence cutoff.
+     */
+    void recordChanges(double negligenceCutoff) {
+        double threshold = Double.isNaN(activityThreshold) ? negligenceCutoff : activityThreshold;
+        changedUpdatables.clear();
+        for (Updatable updatable : activeUpdatables) {
+            if (updatable.getConcentrationManager().getLargestFinalDelta() > threshold) {
+                changedUpdatables.add(updatable);
+            }
+        }
+    }
+
+    /**
+     * Activates the given updatables (and their halo) in the next epoch, e.g. after their concentrations have been
+     * changed from outside of the modules.
+     *
+     * @param updatables The changed updatables.
+     */
+    public void activate(Collection<? extends Updatable> updatables) {
+        changedUpdatables.addAll(updatables);
+    }
+
+    /**
+     * Requests the next epoch to be calculated for all updatables, e.g. after concentrations have been changed from
+     * outside of the modules.
+     */
+    public void activateAll() {
+        fullSweepRequired = true;
+    }
+
+    /**
+     * Returns the updatables, that are active in the current epoch.
+     *
+     * @return The active updatables.
+     */
+    public List<Updatable> getActiveUpdatables() {
+        return activeUpdatables;
+    }
+
+    /**
+     * Returns true if the given updatable is active in the current epoch.
+     *
+     * @param updatable The updatable.
+     * @return True if the updatable is active.
+     */
+    public boolean isActive(Updatable updatable) {
+        return activeSet.contains(updatable);
+    }
+
+    /**
+     * Returns the updatables, that changed in the previous epoch.
+     *
+     * @return The changed updatables.
+     */
+    public Set<Updatable> getChangedUpdatables() {
+        return Collections.unmodifiableSet(changedUpdatables);
+    }
+
+    /**
+     * Returns the number of updatables, that have been skipped since the start of the simulation, summed over all
+     * epochs.
+     *
+     * @return The number of skipped updatables.
+     */
+    public long getSkippedUpdatables() {
+        return skippedUpdatables;
+    }
+
+    public int getFullSweepInterval() {
+        return fullSweepInterval;
+    }
+
+    /**
+     * Sets the number of epochs between two epochs, that are calculated for all updatables.
+     *
+     * @param fullSweepInterval The full sweep interval.
+     */
+    public void setFullSweepInterval(int fullSweepInterval) {
+        if (fullSweepInterval < 1) {
+            throw new IllegalArgumentException("The full sweep interval has to be positive.");
+        }
+        this.fullSweepInterval = fullSweepInterval;
+    }
+
+    public int getHaloWidth() {
+        return haloWidth;
+    }
+
+    /**
+     * Sets the number of neighbourhood layers around changed nodes, that are active as well.
+     *
+     * @param haloWidth The halo width.
+     */
+    public void setHaloWidth(int haloWidth) {
+        if (haloWidth < 0) {
+            throw new IllegalArgumentException("The halo width must not be negative.");
+        }
+        this.haloWidth = haloWidth;
+    }
+
+    public double getActivityThreshold() {
+        return activityThreshold;
+    }
+
+    /**
+     * Sets the smallest delta (in the concentration unit of the {@link bio.singa.features.units.UnitRegistry}), that
+     * marks an updatable as changed. By default, the numerical negligence cutoff is used.
+     *
+     * @param activityThreshold The activity threshold.
+     */
+    public void setActivityThreshold(double activityThreshold) {
+        if (activityThreshold < 0.0) {
+            throw new IllegalArgumentException("The activity threshold must not be negative.");
+        }
+        this.activityThreshold = activityThreshold;
+    }
+
+}
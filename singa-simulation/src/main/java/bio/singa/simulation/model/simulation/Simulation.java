@@ -1,9 +1,11 @@
 package bio.singa.simulation.model.simulation;
 
 import bio.singa.simulation.entities.ChemicalEntity;
+import bio.singa.simulation.entities.EntityRegistry;
 import bio.singa.features.formatter.TimeFormatter;
 import bio.singa.features.model.Feature;
 import bio.singa.features.parameters.Environment;
+import bio.singa.features.parameters.SimulationContext;
 import bio.singa.features.units.UnitRegistry;
 import bio.singa.mathematics.geometry.faces.Rectangle;
 import bio.singa.mathematics.geometry.model.Polygon;
@@ -23,10 +25,12 @@ import bio.singa.simulation.model.modules.concentration.ConcentrationDelta;
 import bio.singa.simulation.model.modules.concentration.imlementations.transport.Diffusion;
 import bio.singa.simulation.model.rules.AssignmentRule;
 import bio.singa.simulation.model.rules.AssignmentRules;
+import bio.singa.simulation.model.sections.ConcentrationGrid;
 import bio.singa.simulation.model.simulation.error.TimeStepManager;
 import bio.singa.simulation.trajectories.errors.DebugRecorder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import tech.units.indriya.ComparableQuantity;
 
 import javax.measure.Quantity;
 import javax.measure.quantity.Time;
@@ -67,7 +71,7 @@ public class Simulation {
     private Rectangle simulationRegion;
 
     /**
-     * The chemical entities referenced in the graph.
+     * The chemical entities referenced in the graph, by their key (see {@link EntityRegistry#getKey(ChemicalEntity)}).
      */
     private Map<String, ChemicalEntity> chemicalEntities;
 
@@ -109,9 +113,45 @@ public class Simulation {
     private long epochWithRescaledTimeStep = 0;
 
     /**
-     * Creates a new plain simulation.
+     * True, if the concentrations of all nodes should be stored in a common {@link ConcentrationGrid}.
+     */
+    private boolean concentrationGridEnabled;
+
+    /**
+     * The grid storing the concentrations of all nodes (null if disabled).
+     */
+    private ConcentrationGrid concentrationGrid;
+
+    /**
+     * The tracker restricting each epoch to the active updatables (null if all updatables are calculated).
+     */
+    private ActivityTracker activityTracker;
+
+    /**
+     * The detector determining when concentrations stopped changing (null if steady states are not detected).
+     */
+    private SteadyStateDetector steadyStateDetector;
+
+    /**
+     * The context holding units, environment, features and time step of this simulation.
+     */
+    private final SimulationContext context;
+
+    /**
+     * Creates a new plain simulation in the context that is bound to the current thread.
      */
     public Simulation() {
+        this(SimulationContext.current());
+    }
+
+    /**
+     * Creates a new plain simulation in the given context. Epochs are always calculated in this context, regardless of
+     * the calling thread.
+     *
+     * @param context The context.
+     */
+    public Simulation(SimulationContext context) {
+        this.context = context;
         modules = new ArrayList<>();
         assignmentRules = new ArrayList<>();
         concentrations = new ArrayList<>();
@@ -129,17 +169,17 @@ public class Simulation {
      * Calculates the next epoch.
      */
     public void nextEpoch() {
-        logger.debug("Starting epoch {} ({}).", epoch, TimeStepManager.getElapsedTime());
-        if (!initializationDone) {
-            initializeModules();
-            initializeVesicleLayer();
-            initializeSubsectionAdjacency();
-            scheduler.initialize();
-            initializationDone = true;
-        }
+        context.run(this::calculateEpoch);
+    }
+
+    private void calculateEpoch() {
+        logger.debug("Starting epoch {} ({}).", epoch, getElapsedTime());
+        long startWallTime = System.nanoTime();
+        initializeStructures();
 
         // clear observed nodes if necessary
         if (!observedUpdatables.isEmpty()) {
+            double timeStepFactor = 1.0 / UnitRegistry.getTime().to(MICRO(SECOND)).getValue().doubleValue();
             for (Updatable observedUpdatable : observedUpdatables) {
                 // remember all updatables until they are written
                 if (!observedDeltas.containsKey(observedUpdatable)) {
@@ -147,7 +187,7 @@ public class Simulation {
                 }
                 for (ConcentrationDelta delta : observedUpdatable.getConcentrationManager().getPotentialDeltas()) {
                     // adjust to time step
-                    observedDeltas.get(observedUpdatable).add(delta.multiply(1.0 / UnitRegistry.getTime().to(MICRO(SECOND)).getValue().doubleValue()));
+                    observedDeltas.get(observedUpdatable).add(delta.multiply(timeStepFactor));
                 }
                 // clear them
                 observedUpdatable.getConcentrationManager().clearPotentialDeltas();
@@ -160,16 +200,43 @@ public class Simulation {
         // apply concentrations
         applyConcentrations();
 
+        // restrict the epoch to the active updatables
+        if (activityTracker != null) {
+            activityTracker.determineActiveUpdatables(updatables);
+        }
+
+        // the grid may only grow while modules are not calculated
+        if (concentrationGrid != null) {
+            concentrationGrid.ensureCapacity();
+        }
+
         //System.out.println("epoch "+epoch);
         // apply all modules
         scheduler.nextEpoch();
 
         // apply generated deltas
         logger.debug("Applying deltas.");
-        for (Updatable updatable : updatables) {
-            if (updatable.getConcentrationManager().hasDeltas()) {
-                logger.trace("Deltas in {}:", updatable.getStringIdentifier());
-                updatable.getConcentrationManager().applyDeltas();
+        if (activityTracker != null) {
+            activityTracker.recordChanges(scheduler.getErrorManager().getNumericalNegligenceCutoff());
+        }
+        // concentrations bound to the grid are restored at once, before the deltas are applied
+        if (concentrationGrid != null) {
+            concentrationGrid.restore();
+        }
+        if (steadyStateDetector == null) {
+            for (Updatable updatable : getActiveUpdatables()) {
+                if (updatable.getConcentrationManager().hasDeltas()) {
+                    logger.trace("Deltas in {}:", updatable.getStringIdentifier());
+                    updatable.getConcentrationManager().applyDeltas(requiresRestoration(updatable));
+                }
+            }
+        } else {
+            double negligibleConcentration = steadyStateDetector.determineNegligibleConcentration(scheduler.getErrorManager().getNumericalNegligenceCutoff());
+            for (Updatable updatable : getActiveUpdatables()) {
+                if (updatable.getConcentrationManager().hasDeltas()) {
+                    logger.trace("Deltas in {}:", updatable.getStringIdentifier());
+                    steadyStateDetector.recordChange(updatable.getConcentrationManager().applyDeltasAndDetermineChange(negligibleConcentration, requiresRestoration(updatable)));
+                }
             }
         }
 
@@ -181,12 +248,42 @@ public class Simulation {
         }
 
         // update epoch and elapsed time
+        double timeStep = UnitRegistry.getTime().to(SECOND).getValue().doubleValue();
         updateEpoch();
+        if (steadyStateDetector != null) {
+            steadyStateDetector.finishEpoch(this, timeStep);
+        }
         // if time step did not change it can possibly be increased
         if (timeStepShouldIncrease()) {
-            TimeStepManager.increaseTimeStep();
+            scheduler.getIntegrator().increaseTimeStep();
+        }
+        scheduler.getMetrics().recordEpoch(System.nanoTime() - startWallTime, timeStep);
+
+    }
+
+    /**
+     * Initializes entities, modules, vesicles and the scheduler, if this has not been done before. The initialization
+     * is usually done before the first epoch is calculated, but is required before the state of a simulation can be
+     * restored from a {@link bio.singa.simulation.model.simulation.checkpoints.SimulationCheckpoint}.
+     */
+    public void initialize() {
+        context.run(this::initializeStructures);
+    }
+
+    private void initializeStructures() {
+        if (!initializationDone) {
+            initializeEntityIndices();
+            initializeConcentrationGrid();
+            initializeModules();
+            initializeVesicleLayer();
+            initializeSubsectionAdjacency();
+            scheduler.initialize();
+            initializationDone = true;
         }
+    }
 
+    public boolean isInitialized() {
+        return initializationDone;
     }
 
     private boolean timeStepShouldIncrease() {
@@ -201,14 +298,32 @@ public class Simulation {
             }
         }
 
-        // if the time step was decreased in the last n epochs do not consider it
-        if (epoch - epochWithRescaledTimeStep < 10) {
-            return false;
-        }
+        // the integrator decides based on its error estimates
+        return getScheduler().getIntegrator().timeStepShouldIncrease();
+    }
 
+    /**
+     * Assigns dense indices to all chemical entities referenced in this simulation, such that concentrations can be
+     * addressed by index in all concentration pools.
+     */
+    private void initializeEntityIndices() {
+        logger.info("Indexing chemical entities.");
+        EntityRegistry.index(getChemicalEntities());
+        if (graph != null) {
+            for (AutomatonNode node : graph.getNodes()) {
+                EntityRegistry.index(node.getConcentrationContainer().getReferencedEntities());
+            }
+        }
+    }
 
-        // if the the error that was computed previously is very small
-        return getScheduler().getErrorManager().allErrorsAreSafe();
+    /**
+     * Binds the concentrations of all nodes to a common {@link ConcentrationGrid}, if enabled.
+     */
+    private void initializeConcentrationGrid() {
+        if (concentrationGridEnabled && graph != null) {
+            logger.info("Binding node concentrations to concentration grid.");
+            concentrationGrid = new ConcentrationGrid(graph.getNodes());
+        }
     }
 
     private void initializeModules() {
@@ -233,14 +348,19 @@ public class Simulation {
             return;
         }
         // apply concentrations
+        List<Updatable> changedUpdatables = new ArrayList<>();
         ListIterator<InitialConcentration> iterator = concentrations.listIterator();
         while (iterator.hasNext()) {
             InitialConcentration concentration = iterator.next();
-            concentration.apply(this);
+            changedUpdatables.addAll(concentration.apply(this));
             if (!concentration.isFix()) {
                 iterator.remove();
             }
         }
+        // concentrations have been changed outside of the modules, fixed concentrations usually remain unchanged
+        if (activityTracker != null) {
+            activityTracker.activate(changedUpdatables);
+        }
     }
 
     public List<InitialConcentration> getConcentrations() {
@@ -375,6 +495,69 @@ public class Simulation {
         return updatables;
     }
 
+    /**
+     * Returns the updatables, that are calculated in the current epoch. Without an {@link ActivityTracker}, these are
+     * all updatables.
+     *
+     * @return The active updatables.
+     */
+    public List<Updatable> getActiveUpdatables() {
+        if (activityTracker == null) {
+            return updatables;
+        }
+        return activityTracker.getActiveUpdatables();
+    }
+
+    /**
+     * Returns true if the updatable is calculated in the current epoch. Without an {@link ActivityTracker}, all
+     * updatables are active.
+     *
+     * @param updatable The updatable.
+     * @return True if the updatable is active.
+     */
+    public boolean isActive(Updatable updatable) {
+        return activityTracker == null || activityTracker.isActive(updatable);
+    }
+
+    /**
+     * Returns true if the original concentrations of the updatable have not been restored by the
+     * {@link ConcentrationGrid} and need to be restored individually.
+     *
+     * @param updatable The updatable.
+     * @return True if the updatable needs to be restored individually.
+     */
+    private boolean requiresRestoration(Updatable updatable) {
+        return concentrationGrid == null || !concentrationGrid.isBound(updatable);
+    }
+
+    public ActivityTracker getActivityTracker() {
+        return activityTracker;
+    }
+
+    /**
+     * Sets the tracker, that restricts each epoch to the updatables, whose concentrations or neighbours changed in the
+     * previous epoch. If no tracker is set (the default), all updatables are calculated in every epoch.
+     *
+     * @param activityTracker The activity tracker.
+     */
+    public void setActivityTracker(ActivityTracker activityTracker) {
+        this.activityTracker = activityTracker;
+    }
+
+    public SteadyStateDetector getSteadyStateDetector() {
+        return steadyStateDetector;
+    }
+
+    /**
+     * Sets the detector, that determines when the concentrations of this simulation stopped changing. If no detector
+     * is set (the default), the changes of concentrations are not evaluated.
+     *
+     * @param steadyStateDetector The steady state detector.
+     */
+    public void setSteadyStateDetector(SteadyStateDetector steadyStateDetector) {
+        this.steadyStateDetector = steadyStateDetector;
+    }
+
     public List<UpdateModule> getModules() {
         return modules;
     }
@@ -389,6 +572,24 @@ public class Simulation {
         modules.add(module);
     }
 
+    /**
+     * Returns the context of this simulation.
+     *
+     * @return The context.
+     */
+    public SimulationContext getContext() {
+        return context;
+    }
+
+    /**
+     * Returns the time that elapsed in this simulation.
+     *
+     * @return The elapsed time.
+     */
+    public ComparableQuantity<Time> getElapsedTime() {
+        return scheduler.getTimeStepManager().getElapsed();
+    }
+
     public UpdateScheduler getScheduler() {
         return scheduler;
     }
@@ -397,6 +598,10 @@ public class Simulation {
         this.scheduler = scheduler;
     }
 
+    public Quantity<Time> getMaximalTimeStep() {
+        return maximalTimeStep;
+    }
+
     public void setMaximalTimeStep(Quantity<Time> maximalTimeStep) {
         this.maximalTimeStep = maximalTimeStep;
         logger.info("Maximal timestep set to {}.", TimeFormatter.formatTime(maximalTimeStep));
@@ -420,10 +625,43 @@ public class Simulation {
         initializeSpatialRepresentations();
     }
 
+    public boolean isConcentrationGridEnabled() {
+        return concentrationGridEnabled;
+    }
+
+    /**
+     * If enabled, the concentrations of all nodes are stored in a common {@link ConcentrationGrid} during the
+     * initialization of the simulation. This has to be set before the first epoch is calculated.
+     *
+     * @param concentrationGridEnabled True, if the grid should be used.
+     */
+    public void setConcentrationGridEnabled(boolean concentrationGridEnabled) {
+        this.concentrationGridEnabled = concentrationGridEnabled;
+    }
+
+    /**
+     * Returns the grid storing the concentrations of all nodes or null if the grid is disabled or the simulation is not
+     * initialized yet.
+     *
+     * @return The concentration grid.
+     */
+    public ConcentrationGrid getConcentrationGrid() {
+        return concentrationGrid;
+    }
+
     public long getEpoch() {
         return epoch;
     }
 
+    /**
+     * Sets the epoch counter, e.g. when the simulation is restored from a checkpoint.
+     *
+     * @param epoch The epoch.
+     */
+    public void setEpoch(long epoch) {
+        this.epoch = epoch;
+    }
+
     /**
      * Returns the chemical entities.
      *
@@ -433,12 +671,29 @@ public class Simulation {
         return chemicalEntities.values();
     }
 
+    /**
+     * Returns the chemical entity with the given identifier. If complexes with different topologies share the
+     * identifier, any of them is returned.
+     *
+     * @param primaryIdentifier The identifier.
+     * @return The chemical entity, or null if no entity with the identifier is referenced.
+     */
     public ChemicalEntity getChemicalEntity(String primaryIdentifier) {
-        return chemicalEntities.get(primaryIdentifier);
+        ChemicalEntity chemicalEntity = chemicalEntities.get(primaryIdentifier);
+        if (chemicalEntity != null) {
+            return chemicalEntity;
+        }
+        // the keys of complexes contain their topology
+        for (ChemicalEntity referencedEntity : chemicalEntities.values()) {
+            if (referencedEntity.getIdentifier().equals(primaryIdentifier)) {
+                return referencedEntity;
+            }
+        }
+        return null;
     }
 
     public void addReferencedEntity(ChemicalEntity chemicalEntity) {
-        chemicalEntities.put(chemicalEntity.getIdentifier(), chemicalEntity);
+        chemicalEntities.put(EntityRegistry.getKey(chemicalEntity), chemicalEntity);
     }
 
     public Set<Updatable> getObservedUpdatables() {
@@ -3,15 +3,19 @@ package bio.singa.simulation.model.simulation;
 import bio.singa.core.events.UpdateEventListener;
 import bio.singa.features.formatter.TimeFormatter;
 import bio.singa.features.units.UnitRegistry;
+import bio.singa.simulation.entities.ChemicalEntity;
+import bio.singa.simulation.events.AsynchronousEventDispatcher;
+import bio.singa.simulation.events.EmissionPolicy;
 import bio.singa.simulation.events.GraphEventEmitter;
 import bio.singa.simulation.events.GraphUpdatedEvent;
 import bio.singa.simulation.events.NodeEventEmitter;
+import bio.singa.simulation.events.SnapshotSelector;
 import bio.singa.simulation.events.UpdatableUpdatedEvent;
 import bio.singa.simulation.model.graphs.AutomatonGraph;
 import bio.singa.simulation.model.graphs.AutomatonNode;
 import bio.singa.simulation.model.simulation.error.NumericalError;
-import bio.singa.simulation.model.simulation.error.TimeStepManager;
 import bio.singa.simulation.trajectories.errors.DebugRecorder;
+import bio.singa.simulation.trajectories.binary.BinaryTrajectoryRecorder;
 import bio.singa.simulation.trajectories.flat.FlatUpdateRecorder;
 import bio.singa.simulation.trajectories.nested.NestedUpdateRecorder;
 import org.slf4j.Logger;
@@ -25,6 +29,8 @@ import java.io.IOException;
 import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CountDownLatch;
 import java.util.function.Predicate;
@@ -36,7 +42,13 @@ import static tech.units.indriya.unit.Units.SECOND;
 /**
  * Changes in simulations can be observed by tagging {@link AutomatonNode}s of the {@link AutomatonGraph}. As a standard
  * implementation there is the {@link FlatUpdateRecorder} that can be added to the Simulation that will write log files
- * to the specified file locations.
+ * to the specified file locations. Large numbers of nodes should be recorded with the {@link BinaryTrajectoryRecorder}.
+ * <p>
+ * Listeners that are slow compared to the calculation of an epoch can be added as asynchronous listeners (e.g.
+ * {@link #addAsynchronousGraphUpdateListener(UpdateEventListener)}). Asynchronous listeners receive snapshots
+ * containing copies of the required concentrations (see {@link SnapshotSelector}) at the time of the emission, that
+ * are dispatched on a separate thread by an {@link AsynchronousEventDispatcher}. The capacity of the buffer and the behaviour if it is full can be configured
+ * using {@link #setAsynchronousEmission(int, EmissionPolicy)}.
  *
  * @author cl
  */
@@ -48,6 +60,7 @@ public class SimulationManager implements Runnable {
     private static final Logger logger = LoggerFactory.getLogger(SimulationManager.class);
 
     private static final boolean DEFAULT_KEEP_PLATFORM_OPEN = false;
+    private static final int DEFAULT_ASYNCHRONOUS_CAPACITY = 16;
 
     private static ComparableQuantity<Time> REPORT_THRESHOLD = Quantities.getQuantity(1, SECOND);
 
@@ -72,6 +85,26 @@ public class SimulationManager implements Runnable {
      * The emitter for graph events.
      */
     private GraphEventEmitter graphEventEmitter;
+    /**
+     * The emitter for node events that are dispatched asynchronously.
+     */
+    private NodeEventEmitter asynchronousNodeEventEmitter;
+    /**
+     * The emitter for graph events that are dispatched asynchronously.
+     */
+    private GraphEventEmitter asynchronousGraphEventEmitter;
+    /**
+     * The dispatcher of asynchronous events (null until the simulation is started with asynchronous listeners).
+     */
+    private AsynchronousEventDispatcher eventDispatcher;
+    /**
+     * The maximal number of pending asynchronous emissions.
+     */
+    private int asynchronousCapacity = DEFAULT_ASYNCHRONOUS_CAPACITY;
+    /**
+     * The policy applied if the buffer of pending asynchronous emissions is full.
+     */
+    private EmissionPolicy emissionPolicy = EmissionPolicy.BLOCK;
     /**
      * The time for the next update to be issued. (For FPS based emission).
      */
@@ -87,6 +120,14 @@ public class SimulationManager implements Runnable {
     private CountDownLatch terminationLatch;
     private boolean writeAliveFile = false;
     private Path aliveFile;
+    /**
+     * True, if the JVM should be terminated if the simulation fails.
+     */
+    private boolean exitOnFailure = false;
+    /**
+     * The exception that terminated the simulation (null if it did not fail).
+     */
+    private Exception failure;
 
     /**
      * Creates a new simulation manager for the given simulation.
@@ -98,6 +139,8 @@ public class SimulationManager implements Runnable {
         this.simulation = simulation;
         nodeEventEmitter = new NodeEventEmitter();
         graphEventEmitter = new GraphEventEmitter();
+        asynchronousNodeEventEmitter = new NodeEventEmitter();
+        asynchronousGraphEventEmitter = new GraphEventEmitter();
         simulationStatus = new SimulationStatus(simulation);
         graphEventEmitter.addEventListener(simulationStatus);
         // emit every event if not specified otherwise
@@ -137,6 +180,147 @@ public class SimulationManager implements Runnable {
         return graphEventEmitter.getListeners();
     }
 
+    /**
+     * Adds a new listener for node based events, that is notified on a separate thread. The events contain a copy of
+     * the concentrations and deltas of the updatable at the time of the emission.
+     *
+     * @param listener The listener.
+     */
+    public void addAsynchronousNodeUpdateListener(UpdateEventListener<UpdatableUpdatedEvent> listener) {
+        logger.info("Added {} to asynchronous node update listeners.", listener.getClass().getSimpleName());
+        asynchronousNodeEventEmitter.addEventListener(listener);
+    }
+
+    public CopyOnWriteArrayList<UpdateEventListener<UpdatableUpdatedEvent>> getAsynchronousNodeListeners() {
+        return asynchronousNodeEventEmitter.getListeners();
+    }
+
+    /**
+     * Adds a new listener for graph based events, that is notified on a separate thread. The events contain a copy of
+     * the concentrations of all updatables at the time of the emission.
+     *
+     * @param listener The listener.
+     */
+    public void addAsynchronousGraphUpdateListener(UpdateEventListener<GraphUpdatedEvent> listener) {
+        logger.info("Added {} to asynchronous graph update listeners.", listener.getClass().getSimpleName());
+        asynchronousGraphEventEmitter.addEventListener(listener);
+    }
+
+    public CopyOnWriteArrayList<UpdateEventListener<GraphUpdatedEvent>> getAsynchronousGraphListeners() {
+        return asynchronousGraphEventEmitter.getListeners();
+    }
+
+    /**
+     * Configures the asynchronous emission of events. The capacity determines how many emissions may be pending,
+     * before the policy is applied.
+     *
+     * @param capacity The maximal number of pending emissions.
+     * @param emissionPolicy The policy applied if the buffer is full.
+     */
+    public void setAsynchronousEmission(int capacity, EmissionPolicy emissionPolicy) {
+        if (eventDispatcher != null) {
+            throw new IllegalStateException("The asynchronous emission can not be configured after the simulation has been started.");
+        }
+        if (capacity < 1) {
+            throw new IllegalArgumentException("The capacity of the event buffer has to be positive.");
+        }
+        asynchronousCapacity = capacity;
+        this.emissionPolicy = emissionPolicy;
+    }
+
+    /**
+     * Returns the dispatcher of asynchronous events, providing the metrics of the queue, or null if no asynchronous
+     * listeners have been registered when the simulation was started.
+     *
+     * @return The dispatcher of asynchronous events.
+     */
+    public AsynchronousEventDispatcher getEventDispatcher() {
+        return eventDispatcher;
+    }
+
+    private boolean hasAsynchronousListeners() {
+        return !getAsynchronousGraphListeners().isEmpty() || !getAsynchronousNodeListeners().isEmpty();
+    }
+
+    /**
+     * Submits the current state of the simulation to the dispatcher of asynchronous events. The state is only copied
+     * if the dispatcher keeps the emission.
+     */
+    private void submitAsynchronousEmission() {
+        eventDispatcher.submit(this::createAsynchronousEmission);
+    }
+
+    /**
+     * Copies the concentrations required by the asynchronous listeners and creates the emission of the corresponding
+     * events.
+     *
+     * @return The emission.
+     */
+    private Runnable createAsynchronousEmission() {
+        Quantity<Time> elapsedTime = simulation.getElapsedTime();
+        GraphUpdatedEvent graphEvent = null;
+        if (!getAsynchronousGraphListeners().isEmpty()) {
+            graphEvent = GraphUpdatedEvent.snapshot(elapsedTime, simulation.getUpdatables(),
+                    requiredUpdatables(getAsynchronousGraphListeners()), requiredEntities(getAsynchronousGraphListeners()));
+        }
+        List<UpdatableUpdatedEvent> nodeEvents = new ArrayList<>();
+        if (!getAsynchronousNodeListeners().isEmpty()) {
+            Predicate<ChemicalEntity> requiredEntities = requiredEntities(getAsynchronousNodeListeners());
+            for (Updatable updatable : simulation.getObservedUpdatables()) {
+                nodeEvents.add(UpdatableUpdatedEvent.snapshot(elapsedTime, updatable, simulation.getPreviousObservedDeltas(updatable), requiredEntities));
+            }
+        }
+        GraphUpdatedEvent emittedGraphEvent = graphEvent;
+        return () -> {
+            if (emittedGraphEvent != null) {
+                asynchronousGraphEventEmitter.emitEvent(emittedGraphEvent);
+            }
+            for (UpdatableUpdatedEvent nodeEvent : nodeEvents) {
+                asynchronousNodeEventEmitter.emitEvent(nodeEvent);
+            }
+        };
+    }
+
+    /**
+     * Returns a predicate accepting the updatables required by any of the given listeners (see
+     * {@link SnapshotSelector}).
+     *
+     * @param listeners The listeners.
+     * @return The predicate.
+     */
+    private static Predicate<Updatable> requiredUpdatables(List<? extends UpdateEventListener<?>> listeners) {
+        List<SnapshotSelector> selectors = new ArrayList<>();
+        for (UpdateEventListener<?> listener : listeners) {
+            if (!(listener instanceof SnapshotSelector)) {
+                return updatable -> true;
+            }
+            selectors.add((SnapshotSelector) listener);
+        }
+        return updatable -> selectors.stream().anyMatch(selector -> selector.requiresUpdatable(updatable));
+    }
+
+    /**
+     * Returns a predicate accepting the entities required by any of the given listeners (see
+     * {@link SnapshotSelector}).
+     *
+     * @param listeners The listeners.
+     * @return The predicate.
+     */
+    private static Predicate<ChemicalEntity> requiredEntities(List<? extends UpdateEventListener<?>> listeners) {
+        List<SnapshotSelector> selectors = new ArrayList<>();
+        for (UpdateEventListener<?> listener : listeners) {
+            if (!(listener instanceof SnapshotSelector)) {
+                return entity -> true;
+            }
+            selectors.add((SnapshotSelector) listener);
+        }
+        return entity -> selectors.stream().anyMatch(selector -> selector.requiresEntity(entity));
+    }
+
+    public Predicate<Simulation> getTerminationCondition() {
+        return terminationCondition;
+    }
+
     /**
      * Sets a condition determining when the simulation should be terminated.
      *
@@ -154,7 +338,7 @@ public class SimulationManager implements Runnable {
     public void setSimulationTerminationToTime(Quantity<Time> time) {
         terminationTime = time.to(MICRO(SECOND));
         simulationStatus.setTerminationTime(terminationTime);
-        setTerminationCondition(s -> TimeStepManager.getElapsedTime().isLessThan(time));
+        setTerminationCondition(s -> s.getElapsedTime().isLessThan(time));
     }
 
     /**
@@ -166,6 +350,28 @@ public class SimulationManager implements Runnable {
         setTerminationCondition(s -> s.getEpoch() < numberOfEpochs);
     }
 
+    /**
+     * Terminates the simulation once its concentrations reached a steady state, i.e. the largest relative change of
+     * any concentration per second stayed below the given tolerance for the given window of simulation time (see
+     * {@link SteadyStateDetector}). A previously set termination condition (e.g. a maximal simulation time) remains
+     * valid, such that the simulation is terminated by whatever condition is met first.
+     *
+     * @param tolerance The largest relative change of any concentration per second, that is considered steady.
+     * @param window The simulation time, the change has to stay below the tolerance.
+     * @return The steady state detector, that has been assigned to the simulation.
+     */
+    public SteadyStateDetector setSimulationTerminationToSteadyState(double tolerance, Quantity<Time> window) {
+        SteadyStateDetector detector = new SteadyStateDetector(tolerance, window);
+        simulation.setSteadyStateDetector(detector);
+        Predicate<Simulation> previousCondition = terminationCondition;
+        if (previousCondition == null) {
+            setTerminationCondition(s -> !detector.isSteadyStateReached());
+        } else {
+            setTerminationCondition(s -> !detector.isSteadyStateReached() && previousCondition.test(s));
+        }
+        return detector;
+    }
+
     /**
      * Sets a condition determining when events should be emitted.
      *
@@ -200,7 +406,7 @@ public class SimulationManager implements Runnable {
      */
     public void setUpdateEmissionToTimePassed(Quantity<Time> timePassed) {
         emitCondition = s -> {
-            ComparableQuantity<Time> currentTime = TimeStepManager.getElapsedTime();
+            ComparableQuantity<Time> currentTime = simulation.getElapsedTime();
             if (currentTime.isGreaterThan(scheduledEmitTime)) {
                 scheduledEmitTime = currentTime.add(timePassed);
                 return true;
@@ -218,11 +424,11 @@ public class SimulationManager implements Runnable {
     }
 
     public void emitGraphEvent(Simulation simulation) {
-        graphEventEmitter.emitEvent(new GraphUpdatedEvent(simulation.getGraph(), TimeStepManager.getElapsedTime()));
+        graphEventEmitter.emitEvent(new GraphUpdatedEvent(simulation.getGraph(), simulation.getElapsedTime()));
     }
 
     public void emitNodeEvent(Simulation simulation, Updatable updatable) {
-        nodeEventEmitter.emitEvent(new UpdatableUpdatedEvent(TimeStepManager.getElapsedTime(), updatable));
+        nodeEventEmitter.emitEvent(new UpdatableUpdatedEvent(simulation.getElapsedTime(), updatable, simulation.getPreviousObservedDeltas(updatable)));
     }
 
     public boolean keepPlatformOpen() {
@@ -249,6 +455,30 @@ public class SimulationManager implements Runnable {
         this.targetPath = targetPath;
     }
 
+    public boolean isExitOnFailure() {
+        return exitOnFailure;
+    }
+
+    /**
+     * Determines whether the JVM is terminated if the simulation fails. By default, the simulation is stopped and the
+     * exception can be retrieved with {@link #getFailure()}, such that applications embedding the simulation are not
+     * terminated.
+     *
+     * @param exitOnFailure True, if the JVM should be terminated.
+     */
+    public void setExitOnFailure(boolean exitOnFailure) {
+        this.exitOnFailure = exitOnFailure;
+    }
+
+    /**
+     * Returns the exception that terminated the simulation, or null if the simulation did not fail.
+     *
+     * @return The exception.
+     */
+    public Exception getFailure() {
+        return failure;
+    }
+
     /**
      * Returns the simulation.
      *
@@ -260,10 +490,20 @@ public class SimulationManager implements Runnable {
 
     @Override
     public void run() {
+        simulation.getContext().run(this::runSimulation);
+    }
+
+    private void runSimulation() {
         if (writeAliveFile) {
             aliveFile = targetPath.resolve("alive");
         }
         handleDebugging();
+        // events are emitted before the first epoch, therefore the updatables need to be known beforehand
+        simulation.initialize();
+        simulation.collectUpdatables();
+        if (hasAsynchronousListeners()) {
+            eventDispatcher = new AsynchronousEventDispatcher(asynchronousCapacity, emissionPolicy, simulation.getContext());
+        }
         try {
             int lastWrite = 0;
             while (terminationCondition.test(simulation)) {
@@ -271,7 +511,7 @@ public class SimulationManager implements Runnable {
                     if (writeAliveFile) {
                         updateAliveFile();
                     }
-                    logger.debug("Emitting event after {} (epoch {}).", TimeFormatter.formatTime(TimeStepManager.getElapsedTime()), simulation.getEpoch());
+                    logger.debug("Emitting event after {} (epoch {}).", TimeFormatter.formatTime(simulation.getElapsedTime()), simulation.getEpoch());
                     emitGraphEvent(simulation);
                     if (lastWrite > 20) {
                         // write current status
@@ -288,6 +528,9 @@ public class SimulationManager implements Runnable {
                         emitNodeEvent(simulation, updatable);
                         logger.debug("Emitted next epoch event for node {}.", updatable.getStringIdentifier());
                     }
+                    if (eventDispatcher != null) {
+                        submitAsynchronousEmission();
+                    }
                     simulation.clearPreviouslyObservedDeltas();
                     if (terminationTime != null) {
                         estimateRuntime();
@@ -297,16 +540,34 @@ public class SimulationManager implements Runnable {
             }
         } catch (Exception e) {
             logger.error("Encountered an exception during simulation: ", e);
-            System.exit(1);
+            if (exitOnFailure) {
+                System.exit(1);
+            }
+            failure = e;
         }
         logger.info("Simulation finished.");
         simulation.getScheduler().shutdownExecutorService();
+        if (eventDispatcher != null) {
+            // wait for pending emissions before closing writers
+            eventDispatcher.shutdown();
+            logger.info("Dispatched {} asynchronous emissions ({} dropped, {} coalesced).", eventDispatcher.getDispatchedEmissions(),
+                    eventDispatcher.getDroppedEmissions(), eventDispatcher.getCoalescedEmissions());
+        }
         // close writers
-        for (UpdateEventListener<UpdatableUpdatedEvent> nodeEventListener : getNodeListeners()) {
+        List<UpdateEventListener<UpdatableUpdatedEvent>> nodeListeners = new ArrayList<>(getNodeListeners());
+        nodeListeners.addAll(getAsynchronousNodeListeners());
+        for (UpdateEventListener<UpdatableUpdatedEvent> nodeEventListener : nodeListeners) {
             if (nodeEventListener instanceof FlatUpdateRecorder) {
                 ((FlatUpdateRecorder) nodeEventListener).closeWriters();
             }
         }
+        List<UpdateEventListener<GraphUpdatedEvent>> graphListeners = new ArrayList<>(getGraphListeners());
+        graphListeners.addAll(getAsynchronousGraphListeners());
+        for (UpdateEventListener<GraphUpdatedEvent> graphListener : graphListeners) {
+            if (graphListener instanceof BinaryTrajectoryRecorder) {
+                ((BinaryTrajectoryRecorder) graphListener).close();
+            }
+        }
         if (terminationLatch != null) {
             terminationLatch.countDown();
         }
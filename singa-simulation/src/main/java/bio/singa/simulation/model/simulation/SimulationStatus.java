@@ -32,10 +32,12 @@ public class SimulationStatus implements UpdateEventListener<GraphUpdatedEvent>
     private long previousEpochs;
     private long previousIncreases;
     private long previousDecreases;
+    private long previousSavedRecalculations;
 
     private long deltaEpochs;
     private long deltaIncreases;
     private long deltaDecreases;
+    private long deltaSavedRecalculations;
 
     private long startingTime = System.currentTimeMillis();
     private Quantity<Time> terminationTime;
@@ -68,26 +70,32 @@ public class SimulationStatus implements UpdateEventListener<GraphUpdatedEvent>
     private void calculateEpochBasedStatus() {
         // update variables
         long currentEpochs = simulation.getEpoch();
-        long currentIncreases = TimeStepManager.getTimeStepsIncreased();
-        long currentDecreases = TimeStepManager.getTimeStepsDecreased();
+        long currentIncreases = simulation.getContext().call(TimeStepManager::getTimeStepsIncreased);
+        long currentDecreases = simulation.getContext().call(TimeStepManager::getTimeStepsDecreased);
+        long currentSavedRecalculations = simulation.getScheduler().getTotalSavedRecalculations();
         // determine change in epochs
         deltaEpochs = currentEpochs - previousEpochs;
         deltaIncreases = currentIncreases - previousIncreases;
         deltaDecreases = currentDecreases - previousDecreases;
+        deltaSavedRecalculations = currentSavedRecalculations - previousSavedRecalculations;
         // update previous values
         previousEpochs = currentEpochs;
         previousIncreases = currentIncreases;
         previousDecreases = currentDecreases;
+        previousSavedRecalculations = currentSavedRecalculations;
     }
 
     private void calculateTimeBasedStatus() {
         // calculate time remaining
         long currentTimeMillis = System.currentTimeMillis();
-        ComparableQuantity<Time> currentTimeSimulation = TimeStepManager.getElapsedTime().to(MICRO(SECOND));
-        double fractionDone = currentTimeSimulation.getValue().doubleValue() / terminationTime.getValue().doubleValue();
-        long timeRequired = System.currentTimeMillis() - startingTime;
-        long estimatedMillisRemaining = (long) (timeRequired / fractionDone) - timeRequired;
-        estimatedTimeRemaining = Quantities.getQuantity(estimatedMillisRemaining, MILLI(SECOND));
+        ComparableQuantity<Time> currentTimeSimulation = simulation.getElapsedTime().to(MICRO(SECOND));
+        // remaining time can only be estimated if the simulation terminates after a certain time
+        if (terminationTime != null) {
+            double fractionDone = currentTimeSimulation.getValue().doubleValue() / terminationTime.getValue().doubleValue();
+            long timeRequired = System.currentTimeMillis() - startingTime;
+            long estimatedMillisRemaining = (long) (timeRequired / fractionDone) - timeRequired;
+            estimatedTimeRemaining = Quantities.getQuantity(estimatedMillisRemaining, MILLI(SECOND));
+        }
         // calculate speed
         double deltaTime = Quantities.getQuantity(currentTimeMillis - previousTimeMillis, MILLI(SECOND)).to(SECOND).getValue().doubleValue();
         double speedInMicroSecondsPerSecond = currentTimeSimulation.subtract(previousTimeSimulation).getValue().doubleValue() / deltaTime;
@@ -135,8 +143,12 @@ public class SimulationStatus implements UpdateEventListener<GraphUpdatedEvent>
         return String.valueOf(deltaDecreases);
     }
 
+    public String getNumberOfSavedRecalculationsSinceLastUpdate() {
+        return String.valueOf(deltaSavedRecalculations);
+    }
+
     public long getProgressInMilliSeconds() {
-        return TimeStepManager.getElapsedTime().to(MILLI(SECOND)).getValue().longValue();
+        return simulation.getElapsedTime().to(MILLI(SECOND)).getValue().longValue();
     }
 
     public String getEstimatedTimeRemaining() {
@@ -162,7 +174,7 @@ public class SimulationStatus implements UpdateEventListener<GraphUpdatedEvent>
     }
 
     public String getElapsedTime() {
-        return TimeFormatter.formatTime(TimeStepManager.getElapsedTime());
+        return TimeFormatter.formatTime(simulation.getElapsedTime());
     }
 
     public double getEpochsPerSecond() {
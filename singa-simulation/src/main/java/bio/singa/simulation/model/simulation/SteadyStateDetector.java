@@ -0,0 +1,259 @@
+package bio.singa.simulation.model.simulation;
+
+import bio.singa.core.events.UpdateEventEmitter;
+import bio.singa.core.events.UpdateEventListener;
+import bio.singa.simulation.events.SteadyStateReachedEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import tech.units.indriya.quantity.Quantities;
+
+import javax.measure.Quantity;
+import javax.measure.quantity.Time;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static tech.units.indriya.unit.Units.SECOND;
+
+/**
+ * The steady state detector determines when the concentrations of a simulation stopped changing. While the deltas of
+ * an epoch are applied, the largest change of any concentration relative to its previous value is determined for
+ * every updatable (see
+ * {@link bio.singa.simulation.model.modules.concentration.ConcentrationDeltaManager#applyDeltasAndDetermineChange(double)}).
+ * Divided by the time step, this yields the largest relative change per second of the epoch. The steady state is
+ * reached, once this rate stayed below the tolerance for the given window of simulation time (and at least the
+ * minimal number of epochs). A {@link SteadyStateReachedEvent} is emitted to all listeners, when the steady state is
+ * reached. If the concentrations change again, the window starts over.
+ * <pre>
+ *  simulation.setSteadyStateDetector(new SteadyStateDetector(1.0e-6, Quantities.getQuantity(1.0, SECOND))); </pre>
+ * The {@link SimulationManager} can terminate simulations once the steady state is reached, see
+ * {@link SimulationManager#setSimulationTerminationToSteadyState(double, Quantity)}. The displacement of vesicles is
+ * not considered.
+ *
+ * @author cl
+ */
+public class SteadyStateDetector implements UpdateEventEmitter<SteadyStateReachedEvent> {
+
+    private static final Logger logger = LoggerFactory.getLogger(SteadyStateDetector.class);
+
+    /**
+     * The default minimal number of epochs in the window.
+     */
+    public static final int DEFAULT_MINIMAL_EPOCHS = 10;
+
+    /**
+     * The largest relative change of any concentration per second, that is considered steady.
+     */
+    private double tolerance;
+
+    /**
+     * The simulation time in seconds, the change has to stay below the tolerance.
+     */
+    private double window;
+
+    /**
+     * The minimal number of epochs, the change has to stay below the tolerance.
+     */
+    private int minimalEpochs = DEFAULT_MINIMAL_EPOCHS;
+
+    /**
+     * Concentrations below are compared to this concentration (NaN to use the numerical negligence cutoff).
+     */
+    private double negligibleConcentration = Double.NaN;
+
+    /**
+     * The largest relative change of the current epoch.
+     */
+    private double epochChange;
+
+    /**
+     * The simulation time in seconds, since the change stayed below the tolerance.
+     */
+    private double steadyTime;
+
+    /**
+     * The number of epochs, since the change stayed below the tolerance.
+     */
+    private long steadyEpochs;
+
+    /**
+     * The largest relative change per second since the change stayed below the tolerance.
+     */
+    private double largestSteadyChangeRate;
+
+    /**
+     * The largest relative change per second of the last epoch.
+     */
+    private double lastChangeRate;
+
+    /**
+     * True, if the steady state has been reached.
+     */
+    private volatile boolean steadyStateReached;
+
+    private final List<UpdateEventListener<SteadyStateReachedEvent>> listeners;
+
+    /**
+     * Creates a new steady state detector.
+     *
+     * @param tolerance The largest relative change of any concentration per second, that is considered steady.
+     * @param window The simulation time, the change has to stay below the tolerance.
+     */
+    public SteadyStateDetector(double tolerance, Quantity<Time> window) {
+        setTolerance(tolerance);
+        setWindow(window);
+        listeners = new CopyOnWriteArrayList<>();
+    }
+
+    /**
+     * Records the largest relative change of an updatable in the current epoch.
+     *
+     * @param relativeChange The largest relative change of any concentration of the updatable.
+     */
+    void recordChange(double relativeChange) {
+        if (relativeChange > epochChange || Double.isNaN(relativeChange)) {
+            epochChange = relativeChange;
+        }
+    }
+
+    /**
+     * Evaluates the changes of the finished epoch.
+     *
+     * @param simulation The simulation.
+     * @param timeStep The time step of the finished epoch in seconds.
+     */
+    void finishEpoch(Simulation simulation, double timeStep) {
+        lastChangeRate = epochChange / timeStep;
+        epochChange = 0.0;
+        if (!(lastChangeRate <= tolerance)) {
+            if (steadyStateReached) {
+                logger.debug("Left steady state in epoch {}, relative change {} per second.", simulation.getEpoch(), lastChangeRate);
+            }
+            reset();
+            return;
+        }
+        steadyTime += timeStep;
+        steadyEpochs++;
+        largestSteadyChangeRate = Math.max(largestSteadyChangeRate, lastChangeRate);
+        if (!steadyStateReached && steadyTime >= window && steadyEpochs >= minimalEpochs) {
+            steadyStateReached = true;
+            logger.info("Reached steady state in epoch {}, largest relative change {} per second.", simulation.getEpoch(), largestSteadyChangeRate);
+            emitEvent(new SteadyStateReachedEvent(simulation.getEpoch(), simulation.getElapsedTime(), largestSteadyChangeRate));
+        }
+    }
+
+    /**
+     * Determines the concentration, changes of smaller concentrations are compared to.
+     *
+     * @param negligenceCutoff The numerical negligence cutoff of the simulation.
+     * @return The negligible concentration.
+     */
+    double determineNegligibleConcentration(double negligenceCutoff) {
+        return Double.isNaN(negligibleConcentration) ? negligenceCutoff : negligibleConcentration;
+    }
+
+    /**
+     * Restarts the window, e.g. after concentrations have been changed from outside of the modules.
+     */
+    public void reset() {
+        steadyTime = 0.0;
+        steadyEpochs = 0;
+        largestSteadyChangeRate = 0.0;
+        steadyStateReached = false;
+    }
+
+    /**
+     * Returns true if the steady state has been reached.
+     *
+     * @return True if the steady state has been reached.
+     */
+    public boolean isSteadyStateReached() {
+        return steadyStateReached;
+    }
+
+    /**
+     * Returns the largest relative change of any concentration per second during the last epoch.
+     *
+     * @return The largest relative change per second.
+     */
+    public double getLastChangeRate() {
+        return lastChangeRate;
+    }
+
+    /**
+     * Returns the simulation time, the change stayed below the tolerance.
+     *
+     * @return The steady time.
+     */
+    public Quantity<Time> getSteadyTime() {
+        return Quantities.getQuantity(steadyTime, SECOND);
+    }
+
+    public double getTolerance() {
+        return tolerance;
+    }
+
+    /**
+     * Sets the largest relative change of any concentration per second, that is considered steady.
+     *
+     * @param tolerance The tolerance.
+     */
+    public void setTolerance(double tolerance) {
+        if (!(tolerance >= 0.0)) {
+            throw new IllegalArgumentException("The tolerance of the steady state detection must not be negative.");
+        }
+        this.tolerance = tolerance;
+    }
+
+    public Quantity<Time> getWindow() {
+        return Quantities.getQuantity(window, SECOND);
+    }
+
+    /**
+     * Sets the simulation time, the change has to stay below the tolerance.
+     *
+     * @param window The window.
+     */
+    public void setWindow(Quantity<Time> window) {
+        double windowInSeconds = window.to(SECOND).getValue().doubleValue();
+        if (!(windowInSeconds >= 0.0)) {
+            throw new IllegalArgumentException("The window of the steady state detection must not be negative.");
+        }
+        this.window = windowInSeconds;
+    }
+
+    public int getMinimalEpochs() {
+        return minimalEpochs;
+    }
+
+    /**
+     * Sets the minimal number of epochs, the change has to stay below the tolerance.
+     *
+     * @param minimalEpochs The minimal number of epochs.
+     */
+    public void setMinimalEpochs(int minimalEpochs) {
+        if (minimalEpochs < 1) {
+            throw new IllegalArgumentException("The minimal number of epochs has to be positive.");
+        }
+        this.minimalEpochs = minimalEpochs;
+    }
+
+    public double getNegligibleConcentration() {
+        return negligibleConcentration;
+    }
+
+    /**
+     * Sets the concentration, changes of smaller concentrations are compared to, to avoid large relative changes of
+     * vanishing concentrations.
+     *
+     * @param negligibleConcentration The negligible concentration (NaN to use the numerical negligence cutoff).
+     */
+    public void setNegligibleConcentration(double negligibleConcentration) {
+        this.negligibleConcentration = negligibleConcentration;
+    }
+
+    @Override
+    public List<UpdateEventListener<SteadyStateReachedEvent>> getListeners() {
+        return listeners;
+    }
+
+}
@@ -1,63 +1,145 @@
 package bio.singa.simulation.model.simulation;
 
+import bio.singa.features.parameters.SimulationContext;
 import bio.singa.features.quantities.MolarConcentration;
-import bio.singa.simulation.model.agents.pointlike.Vesicle;
+import bio.singa.simulation.exceptions.ModuleCalculationException;
 import bio.singa.simulation.model.modules.UpdateModule;
+import bio.singa.simulation.model.modules.concentration.ConcentrationBasedModule;
+import bio.singa.simulation.model.sections.ConcentrationGrid;
 import bio.singa.simulation.model.simulation.error.ErrorManager;
 import bio.singa.simulation.model.simulation.error.TimeStepManager;
+import bio.singa.simulation.model.simulation.integrators.Integrator;
+import bio.singa.simulation.model.simulation.integrators.StepDoublingIntegrator;
+import bio.singa.simulation.model.simulation.telemetry.SimulationMetrics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.ArrayDeque;
-import java.util.Deque;
-import java.util.Iterator;
-import java.util.List;
-import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ThreadPoolExecutor;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Phaser;
+import java.util.function.BinaryOperator;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
 
 import static bio.singa.simulation.model.modules.concentration.ModuleState.SUCCEEDED_WITH_PENDING_CHANGES;
-import static bio.singa.simulation.model.simulation.error.ErrorManager.Reason.NEGATIVE_CONCENTRATIONS;
 
 /**
+ * The update scheduler calculates the modules of a simulation for each epoch. Modules are calculated on a work stealing
+ * pool, that is created once and reused for every epoch. The pool is sized to the number of available processors, see
+ * {@link #setParallelism(int)}. Modules that split their work into fork join tasks (e.g. the tiles of a
+ * {@link bio.singa.simulation.model.modules.concentration.imlementations.transport.DiffusionKernel}) share the same
+ * pool, such that idle workers steal sub tasks of long running modules. A single {@link Phaser} is used as the barrier
+ * between calculation rounds. Passes over all updatables between rounds (e.g. the evaluation of the global error) are
+ * distributed to the same pool, see {@link #forEachUpdatable(Consumer)} and
+ * {@link #reduceUpdatables(Function, Object, BinaryOperator)}.
+ * <p>
+ * How the rounds of an epoch are arranged, how the error is estimated and how the time step is adapted is determined by
+ * the {@link Integrator} (the {@link StepDoublingIntegrator} by default), see {@link #setIntegrator(Integrator)}. If
+ * deltas are rescaled instead of recalculated, the number of saved module calculations is available from
+ * {@link #getSavedRecalculations()}. The performance of modules and the adaptation of the time step are recorded in
+ * the {@link SimulationMetrics}, see {@link #getMetrics()}.
+ *
  * @author cl
  */
 public class UpdateScheduler {
 
     private static final Logger logger = LoggerFactory.getLogger(UpdateScheduler.class);
+
+    /**
+     * The minimal number of updatables, for which passes over all updatables are distributed to the workers.
+     */
+    private static final int MINIMAL_PARALLEL_UPDATABLES = 64;
+
     private final Deque<UpdateModule> modules;
     private final double moleculeFraction;
     private ErrorManager errorManager;
 
     private Simulation simulation;
     private List<Updatable> updatables;
-    private Iterator<UpdateModule> moduleIterator;
 
-    private CountDownLatch countDownLatch;
+    /**
+     * The integrator calculating the modules and adapting the time step.
+     */
+    private Integrator integrator;
+
+    /**
+     * The barrier every calculation round waits for. The scheduler is registered permanently, each module is
+     * registered while it is calculated.
+     */
+    private final Phaser barrier;
 
     private volatile boolean interrupted;
 
-    private ThreadPoolExecutor executor;
+    /**
+     * The module that interrupted the current round and is allowed to optimize the time step.
+     */
+    private volatile UpdateModule prioritizedModule;
+
+    /**
+     * The first failure of a module during the current epoch.
+     */
+    private volatile ModuleCalculationException failure;
+
+    /**
+     * The pool calculating the modules.
+     */
+    private ForkJoinPool executor;
+
+    /**
+     * The number of workers calculating modules (0 determines it from the available processors).
+     */
+    private int parallelism;
+
+    /**
+     * The number of module calculations saved by rescaling deltas during the last epoch.
+     */
+    private int savedRecalculations;
 
-    int recalculations = 0;
+    /**
+     * The number of module calculations saved by rescaling deltas since the start of the simulation.
+     */
+    private long totalSavedRecalculations;
 
     private boolean skipDisplacementChecks = false;
 
+    /**
+     * The metrics recording the performance of modules and the adaptation of the time step.
+     */
+    private final SimulationMetrics metrics;
+
+    /**
+     * The time step manager of the simulation, retained such that it does not need to be resolved from the current
+     * context.
+     */
+    private final TimeStepManager timeStepManager;
+
 
     public UpdateScheduler(Simulation simulation) {
         this.simulation = simulation;
         errorManager = new ErrorManager(this);
-        TimeStepManager.initialize(this);
+        timeStepManager = TimeStepManager.initialize(this);
+        metrics = new SimulationMetrics(this);
+        timeStepManager.addEventListener(metrics);
         modules = new ArrayDeque<>(simulation.getModules());
         moleculeFraction = MolarConcentration.moleculesToConcentration(1.0 / 50000.0);
+        barrier = new Phaser(1);
+        integrator = new StepDoublingIntegrator();
     }
 
     public void initialize() {
         errorManager.initialize();
+        integrator.initialize(this);
         if (modules.isEmpty()) {
             return;
         }
-        executor = (ThreadPoolExecutor) Executors.newFixedThreadPool(modules.size());
+        // workers are not limited by the number of modules, since passes over all updatables are shared as well
+        int workers = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+        // worker threads resolve the units and time step of this simulation
+        SimulationContext context = simulation.getContext();
+        executor = new ForkJoinPool(workers, pool -> new ModuleWorkerThread(pool, context), null, false);
+        logger.debug("Calculating {} modules using {} workers.", modules.size(), workers);
     }
 
     public double getMoleculeFraction() {
@@ -69,50 +151,12 @@ public class UpdateScheduler {
         errorManager.resetLocalNumericalError();
         errorManager.resetGlobalNumericalError();
         errorManager.resetLocalDisplacementDeviation();
-        updatables = simulation.getUpdatables();
-        moduleIterator = modules.iterator();
-
-        for (Updatable updatable : updatables) {
-            updatable.getConcentrationManager().backupConcentrations();
-        }
-
-        recalculations = 0;
-        boolean recalculationRequired;
-        // until all models passed
-        do {
-
-            TimeStepManager.setTimeStepRescaled(false);
-            interrupted = false;
-
-            countDownLatch = new CountDownLatch(getNumberOfModules());
-            logger.debug("Starting with latch at {}.", countDownLatch.getCount());
-
-            int i = 0;
-            while (moduleIterator.hasNext()) {
-                i++;
-                UpdateModule module = moduleIterator.next();
-                // modules with pending changes generally only need to be calculated once if the time step was not reset (this is managed while resetting calculations)
-                if (!interrupted && !module.getState().equals(SUCCEEDED_WITH_PENDING_CHANGES)) {
-                    executor.execute(module);
-                } else {
-                    logger.debug("Skipping module {}, decreasing latch to {}.", i, countDownLatch.getCount());
-                    countDownLatch.countDown();
-                }
-            }
-
+        updatables = simulation.getActiveUpdatables();
+        backupConcentrations(updatables);
 
-            try {
-                countDownLatch.await();
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
-
-//            System.out.println(errorManager.getLocalNumericalError()+" "+errorManager.getLocalNumericalErrorModule()+ " " + errorManager.getLocalNumericalErrorUpdate() + " " + UnitRegistry.getTime());
-            recalculationRequired = recalculationRequired();
-            recalculations++;
-        } while (recalculationRequired);
-//        System.out.println("epoch accepted");
-        // System.out.println("accepted local error: "+largestLocalError.getValue());
+        savedRecalculations = 0;
+        // calculate modules until the error is acceptable
+        integrator.calculateDeltas();
         // resolve pending changes
         for (UpdateModule updateModule : modules) {
             if (updateModule.getState().equals(SUCCEEDED_WITH_PENDING_CHANGES)) {
@@ -126,68 +170,216 @@ public class UpdateScheduler {
         modules.forEach(UpdateModule::reset);
     }
 
-    private boolean recalculationRequired() {
-        boolean recalculationRequired = false;
-        // global displacement based error
-        if (!skipDisplacementChecks) {
-            errorManager.evaluateGlobalDeviation();
-            if (!errorManager.globalDeviationIsAcceptable()) {
-                errorManager.resolveGlobalDeviationProblem();
-                recalculationRequired = true;
-            }
-        } else {
-            for (Vesicle vesicle : simulation.getVesicleLayer().getVesicles()) {
-                vesicle.calculateTotalDisplacement();
+    /**
+     * Calculates a single round of all modules that fulfill the given condition, using the pool of the scheduler.
+     * Modules are skipped as soon as any module interrupted the round. The method returns after all modules that
+     * have been started finished and their potential deltas have been assigned to the updatables in the order of the
+     * modules. The first failure of any module is rethrown.
+     *
+     * @param condition The condition modules have to fulfill to be calculated.
+     */
+    public void calculateModules(Predicate<UpdateModule> condition) {
+        interrupted = false;
+        prioritizedModule = null;
+        metrics.recordRound();
+        int i = 0;
+        for (UpdateModule module : modules) {
+            i++;
+            if (!interrupted && condition.test(module)) {
+                barrier.register();
+                executor.execute(module);
+            } else {
+                logger.debug("Skipping module {}.", i);
             }
         }
-        // global capping
-        evaluateCapping();
-        // global numerical error
-        errorManager.evaluateGlobalError();
-        if (!errorManager.globalErrorIsAcceptable()) {
-            errorManager.resolveGlobalErrorProblem();
-            recalculationRequired = true;
-        }
-        // time step rescaling
-        if (TimeStepManager.isTimeStepRescaled()) {
-            errorManager.resetLocalDisplacementDeviation();
-            simulation.getVesicleLayer().clearUpdates();
-            modules.forEach(UpdateModule::reset);
-            recalculationRequired = true;
-        }
-
-        if (recalculationRequired) {
-            // reset states
-            for (UpdateModule module : modules) {
-                // skip modules with pending changes if time step was not rescaled
-                if (module.getState().equals(SUCCEEDED_WITH_PENDING_CHANGES) && !TimeStepManager.isTimeStepRescaled()) {
-                    continue;
+        // wait for all modules of this round
+        awaitRound(modules);
+    }
+
+    /**
+     * Applies the given calculation to each of the given modules, using the pool of the scheduler. In contrast to
+     * {@link #calculateModules(Predicate)}, the state of the modules is not evaluated. The method returns after all
+     * calculations finished and the potential deltas have been assigned to the updatables in the order of the modules.
+     * The first failure of any calculation is rethrown.
+     *
+     * @param calculatedModules The modules.
+     * @param calculation The calculation.
+     * @param <ModuleType> The type of the modules.
+     */
+    public <ModuleType extends UpdateModule> void calculateModules(Collection<ModuleType> calculatedModules, Consumer<ModuleType> calculation) {
+        interrupted = false;
+        prioritizedModule = null;
+        metrics.recordRound();
+        for (ModuleType module : calculatedModules) {
+            barrier.register();
+            executor.execute(() -> {
+                long startWallTime = System.nanoTime();
+                long startCpuTime = metrics.currentCpuTime();
+                try {
+                    calculation.accept(module);
+                } catch (RuntimeException e) {
+                    reportFailure(module, e);
                 }
-                module.reset();
-            }
-            // clear deltas that have previously been calculated
-            updatables.forEach(updatable -> updatable.getConcentrationManager().clearPotentialDeltas());
-            // reset error
-            errorManager.resetLocalNumericalError();
-            // start from the beginning
-            moduleIterator = modules.iterator();
-//            System.out.println("recalculation required");
+                metrics.recordModule(module, startWallTime, startCpuTime);
+                moduleFinished(module);
+            });
         }
+        awaitRound(calculatedModules);
+    }
 
-        return recalculationRequired;
+    /**
+     * Applies the given calculation to each updatable of the current epoch. If the scheduler uses more than one worker
+     * and there are enough updatables, the updatables are processed in parallel by the pool of the scheduler.
+     * Therefore, the calculation must only modify the updatable it is applied to. Returns after all updatables have
+     * been processed.
+     *
+     * @param calculation The calculation.
+     */
+    public void forEachUpdatable(Consumer<Updatable> calculation) {
+        if (!isDataParallel()) {
+            updatables.forEach(calculation);
+            return;
+        }
+        forEachInParallel(updatables, calculation);
     }
 
-    private void evaluateCapping() {
+    /**
+     * Backs up the current concentrations of the given updatables as their original concentrations. If the
+     * concentrations are stored in a {@link ConcentrationGrid}, all bound updatables are backed up by copying the whole
+     * grid. Updatables outside of the given collection are unchanged during an epoch, therefore copying them as well
+     * has no effect.
+     *
+     * @param updatables The updatables.
+     */
+    public void backupConcentrations(Collection<? extends Updatable> updatables) {
+        ConcentrationGrid grid = simulation.getConcentrationGrid();
+        if (grid != null) {
+            grid.backup();
+        }
         for (Updatable updatable : updatables) {
-            if (updatable.getConcentrationManager().concentrationIsAtCap()) {
-                TimeStepManager.decreaseTimeStep(NEGATIVE_CONCENTRATIONS);
-                return;
+            if (grid == null || !grid.isBound(updatable)) {
+                updatable.getConcentrationManager().backupConcentrations();
+            }
+        }
+    }
+
+    /**
+     * Reverts the current concentrations of the given updatables to their original concentrations. If the
+     * concentrations are stored in a {@link ConcentrationGrid}, all bound updatables are reverted by copying the whole
+     * grid.
+     *
+     * @param updatables The updatables.
+     */
+    public void revertConcentrations(Collection<? extends Updatable> updatables) {
+        ConcentrationGrid grid = simulation.getConcentrationGrid();
+        if (grid != null) {
+            grid.restore();
+        }
+        for (Updatable updatable : updatables) {
+            if (grid == null || !grid.isBound(updatable)) {
+                updatable.getConcentrationManager().revertToOriginalConcentrations();
+            }
+        }
+    }
+
+    /**
+     * Applies the given calculation to each of the given elements. If the pool of the scheduler is available and uses
+     * more than one worker, the elements are processed in parallel by the pool, such that the calculation is run with
+     * the context of the simulation bound. Otherwise the elements are processed sequentially by the calling thread.
+     * Returns after all elements have been processed.
+     *
+     * @param elements The elements.
+     * @param calculation The calculation.
+     * @param <ElementType> The type of the elements.
+     */
+    public <ElementType> void forEachInParallel(Collection<ElementType> elements, Consumer<ElementType> calculation) {
+        if (executor == null || executor.isShutdown() || executor.getParallelism() < 2) {
+            elements.forEach(calculation);
+            return;
+        }
+        // parallel streams started by workers are processed by the pool of the worker
+        executor.submit(() -> elements.parallelStream().forEach(calculation)).join();
+    }
+
+    /**
+     * Applies the given calculation to each updatable of the current epoch and reduces the results. If the scheduler
+     * uses more than one worker and there are enough updatables, the updatables are processed in parallel by the pool
+     * of the scheduler. Therefore, the calculation must only modify the updatable it is applied to. The reduction has
+     * to be associative, results are combined in the order of the updatables.
+     *
+     * @param calculation The calculation.
+     * @param identity The identity of the reduction.
+     * @param reduction The reduction.
+     * @param <ResultType> The type of the result.
+     * @return The reduced result.
+     */
+    public <ResultType> ResultType reduceUpdatables(Function<Updatable, ResultType> calculation, ResultType identity, BinaryOperator<ResultType> reduction) {
+        if (!isDataParallel()) {
+            ResultType result = identity;
+            for (Updatable updatable : updatables) {
+                result = reduction.apply(result, calculation.apply(updatable));
+            }
+            return result;
+        }
+        return executor.submit(() -> updatables.parallelStream()
+                .map(calculation)
+                .reduce(identity, reduction))
+                .join();
+    }
+
+    private boolean isDataParallel() {
+        return executor != null && executor.getParallelism() > 1 && updatables.size() >= MINIMAL_PARALLEL_UPDATABLES;
+    }
+
+    /**
+     * Waits for all modules of the current round. Afterwards, the potential deltas the given modules calculated during
+     * the round (see {@link ConcentrationBasedModule#getPendingDeltas()}) are assigned to their updatables in the order
+     * of the modules. Since no module is calculated at this point, the potential deltas of the updatables are never
+     * modified concurrently.
+     *
+     * @param calculatedModules The modules, that may have been calculated during the round.
+     */
+    private void awaitRound(Collection<? extends UpdateModule> calculatedModules) {
+        barrier.arriveAndAwaitAdvance();
+        for (UpdateModule module : calculatedModules) {
+            if (module instanceof ConcentrationBasedModule) {
+                ((ConcentrationBasedModule<?>) module).assignPendingDeltas();
             }
         }
+        // entities created during the round are added to the grid before the next round
+        ConcentrationGrid concentrationGrid = simulation.getConcentrationGrid();
+        if (concentrationGrid != null) {
+            concentrationGrid.ensureCapacity();
+        }
+        if (failure != null) {
+            ModuleCalculationException moduleFailure = failure;
+            failure = null;
+            throw moduleFailure;
+        }
+    }
+
+    /**
+     * Returns the pool calculating the modules. Workers of the pool are bound to the context of the simulation.
+     *
+     * @return The pool, or null if the scheduler has not been initialized or has no modules.
+     */
+    public ForkJoinPool getPool() {
+        return executor;
+    }
+
+    /**
+     * Returns the time step manager of the simulation.
+     *
+     * @return The time step manager.
+     */
+    public TimeStepManager getTimeStepManager() {
+        return timeStepManager;
     }
 
     public void shutdownExecutorService() {
-        executor.shutdown();
+        if (executor != null) {
+            executor.shutdown();
+        }
     }
 
     private void finalizeDeltas() {
@@ -197,8 +389,14 @@ public class UpdateScheduler {
         // potential updates for vesicles are already set during displacement evaluation
     }
 
-    public CountDownLatch getCountDownLatch() {
-        return countDownLatch;
+    /**
+     * Signals that the given module finished its calculation for the current round.
+     *
+     * @param module The module.
+     */
+    public void moduleFinished(UpdateModule module) {
+        logger.debug("Module {} finished in thread {}.", module.getIdentifier(), Thread.currentThread().getName());
+        barrier.arriveAndDeregister();
     }
 
     public Deque<UpdateModule> getModules() {
@@ -221,17 +419,72 @@ public class UpdateScheduler {
      * Returns true if the calling module was the first to call the method, therefore being allowed to optimize the
      * time step.
      *
+     * @param module The calling module.
      * @return True if the calling module was the first to call the method.
      */
-    public synchronized boolean interrupt() {
-        // interrupt all threads but the calling thread and count down their latch
+    public synchronized boolean interrupt(UpdateModule module) {
+        // modules still calculating cancel themselves, see isCancelled
         if (!interrupted) {
+            prioritizedModule = module;
             interrupted = true;
             return true;
         }
         return false;
     }
 
+    /**
+     * Returns true if a module requested a recalculation during the current round.
+     *
+     * @return True if the current round has been interrupted.
+     */
+    public boolean isInterrupted() {
+        return interrupted;
+    }
+
+    /**
+     * Returns the module that interrupted the current round and optimized the time step, or null if the round has not
+     * been interrupted.
+     *
+     * @return The prioritized module.
+     */
+    public UpdateModule getPrioritizedModule() {
+        return prioritizedModule;
+    }
+
+    /**
+     * Returns true if the given module should cancel its calculation. Every interruption leads to a decrease of the
+     * time step and a recalculation of all modules, therefore all modules but the one optimizing the time step may
+     * stop as soon as the round has been interrupted.
+     *
+     * @param module The module.
+     * @return True if the module should cancel its calculation.
+     */
+    public boolean isCancelled(UpdateModule module) {
+        return interrupted && prioritizedModule != module;
+    }
+
+    /**
+     * Reports an exception that occurred during the calculation of the given module. The exception is rethrown in the
+     * thread calculating the epoch, after all modules finished.
+     *
+     * @param module The module.
+     * @param exception The exception.
+     */
+    public synchronized void reportFailure(UpdateModule module, RuntimeException exception) {
+        if (failure == null) {
+            failure = new ModuleCalculationException("Unable to calculate updates of module " + module.getIdentifier() + ".", exception);
+        }
+    }
+
+    /**
+     * Returns the metrics recording the performance of modules and the adaptation of the time step.
+     *
+     * @return The metrics.
+     */
+    public SimulationMetrics getMetrics() {
+        return metrics;
+    }
+
     public ErrorManager getErrorManager() {
         return errorManager;
     }
@@ -248,4 +501,92 @@ public class UpdateScheduler {
         this.skipDisplacementChecks = skipDisplacementChecks;
     }
 
+    /**
+     * Records the given number of module calculations, that have been saved by rescaling deltas instead of
+     * recalculating them.
+     *
+     * @param numberOfSavedCalculations The number of saved module calculations.
+     */
+    public void addSavedRecalculations(int numberOfSavedCalculations) {
+        savedRecalculations += numberOfSavedCalculations;
+        totalSavedRecalculations += numberOfSavedCalculations;
+        metrics.recordSavedRecalculations(numberOfSavedCalculations);
+    }
+
+    /**
+     * Returns the number of module calculations that were saved during the last epoch, by rescaling the deltas of
+     * modules that are linear in the time step.
+     *
+     * @return The number of saved module calculations.
+     */
+    public int getSavedRecalculations() {
+        return savedRecalculations;
+    }
+
+    /**
+     * Returns the number of module calculations that were saved since the start of the simulation.
+     *
+     * @return The number of saved module calculations.
+     */
+    public long getTotalSavedRecalculations() {
+        return totalSavedRecalculations;
+    }
+
+    public Integrator getIntegrator() {
+        return integrator;
+    }
+
+    /**
+     * Sets the integrator calculating the modules and adapting the time step. Has to be set before the scheduler is
+     * initialized.
+     *
+     * @param integrator The integrator.
+     */
+    public void setIntegrator(Integrator integrator) {
+        this.integrator = integrator;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Sets the number of workers calculating modules. Has to be set before the scheduler is initialized.
+     *
+     * @param parallelism The number of workers, or 0 to use the number of available processors.
+     */
+    public void setParallelism(int parallelism) {
+        if (parallelism < 0) {
+            throw new IllegalArgumentException("The parallelism of the scheduler must not be negative.");
+        }
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * A worker thread that is bound to the context of the simulation for its whole lifetime.
+     */
+    private static class ModuleWorkerThread extends ForkJoinWorkerThread {
+
+        private final SimulationContext context;
+        private SimulationContext previous;
+
+        ModuleWorkerThread(ForkJoinPool pool, SimulationContext context) {
+            super(pool);
+            this.context = context;
+        }
+
+        @Override
+        protected void onStart() {
+            super.onStart();
+            previous = context.bind();
+        }
+
+        @Override
+        protected void onTermination(Throwable exception) {
+            SimulationContext.release(previous);
+            super.onTermination(exception);
+        }
+
+    }
+
 }
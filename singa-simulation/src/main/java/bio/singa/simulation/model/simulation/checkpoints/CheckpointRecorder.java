@@ -0,0 +1,207 @@
+package bio.singa.simulation.model.simulation.checkpoints;
+
+import bio.singa.core.events.UpdateEventListener;
+import bio.singa.simulation.events.GraphUpdatedEvent;
+import bio.singa.simulation.model.simulation.Simulation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.concurrent.*;
+
+/**
+ * The checkpoint recorder periodically writes {@link SimulationCheckpoint}s of a simulation, such that long
+ * simulations can be restarted from the latest checkpoint. The checkpoint is captured on the thread calculating the
+ * simulation, which only copies the state, and written by a background thread, replacing the previous checkpoint
+ * once it is complete. If the previous checkpoint is still being written, the current checkpoint is skipped and
+ * captured with the next event. Failed writes are logged and reported by {@link #awaitCompletion()} and
+ * {@link #close()}, the simulation continues and the next checkpoint is attempted. The recorder has to be registered as a synchronous graph listener of the
+ * {@link bio.singa.simulation.model.simulation.SimulationManager}, since the state must not change while it is
+ * captured.
+ * <pre>
+ *  CheckpointRecorder recorder = new CheckpointRecorder(simulation, path, 10000);
+ *  manager.addGraphUpdateListener(recorder); </pre>
+ *
+ * @author cl
+ */
+public class CheckpointRecorder implements UpdateEventListener<GraphUpdatedEvent> {
+
+    /**
+     * The logger.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(CheckpointRecorder.class);
+
+    /**
+     * The simulation.
+     */
+    private final Simulation simulation;
+
+    /**
+     * The checkpoint file.
+     */
+    private final Path file;
+
+    /**
+     * The minimal number of epochs between two checkpoints.
+     */
+    private final long epochInterval;
+
+    /**
+     * The thread writing the checkpoints.
+     */
+    private final ExecutorService writer;
+
+    /**
+     * The checkpoint currently being written.
+     */
+    private Future<?> currentWrite;
+
+    /**
+     * The epoch of the last captured checkpoint.
+     */
+    private long lastEpoch;
+
+    /**
+     * The number of written checkpoints.
+     */
+    private volatile long writtenCheckpoints;
+
+    /**
+     * The number of checkpoints that could not be written.
+     */
+    private volatile long failedCheckpoints;
+
+    /**
+     * The first failure of a write that has not been reported yet (further failures are suppressed).
+     */
+    private IOException failure;
+
+    /**
+     * Creates a new checkpoint recorder.
+     *
+     * @param simulation The simulation.
+     * @param file The checkpoint file.
+     * @param epochInterval The minimal number of epochs between two checkpoints.
+     */
+    public CheckpointRecorder(Simulation simulation, Path file, long epochInterval) {
+        if (epochInterval < 1) {
+            throw new IllegalArgumentException("The epoch interval has to be positive.");
+        }
+        this.simulation = simulation;
+        this.file = file;
+        this.epochInterval = epochInterval;
+        lastEpoch = simulation.getEpoch();
+        writer = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "checkpoint-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    public long getWrittenCheckpoints() {
+        return writtenCheckpoints;
+    }
+
+    public long getFailedCheckpoints() {
+        return failedCheckpoints;
+    }
+
+    @Override
+    public void onEventReceived(GraphUpdatedEvent event) {
+        if (simulation.getEpoch() - lastEpoch < epochInterval) {
+            return;
+        }
+        if (currentWrite != null && !currentWrite.isDone()) {
+            logger.debug("Skipping checkpoint of epoch {}, the previous checkpoint is still being written.", simulation.getEpoch());
+            return;
+        }
+        checkpoint();
+    }
+
+    /**
+     * Captures a checkpoint of the current state and writes it in the background. If the previous checkpoint is still
+     * being written, this waits until it is complete.
+     */
+    public void checkpoint() {
+        if (currentWrite != null) {
+            collect(currentWrite);
+        }
+        SimulationCheckpoint checkpoint = SimulationCheckpoint.capture(simulation);
+        lastEpoch = checkpoint.getEpoch();
+        currentWrite = writer.submit(() -> {
+            try {
+                checkpoint.write(file);
+                writtenCheckpoints++;
+                logger.debug("Wrote checkpoint of epoch {} to {}.", checkpoint.getEpoch(), file);
+            } catch (IOException e) {
+                failedCheckpoints++;
+                throw new UncheckedIOException("Unable to write checkpoint to " + file + ".", e);
+            }
+        });
+    }
+
+    /**
+     * Waits until the given write is complete and logs and retains its failure.
+     *
+     * @param write The write.
+     */
+    private void collect(Future<?> write) {
+        IOException writeFailure;
+        try {
+            write.get();
+            return;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof UncheckedIOException) {
+                writeFailure = ((UncheckedIOException) e.getCause()).getCause();
+            } else {
+                writeFailure = new IOException("Unable to write checkpoint to " + file + ".", e.getCause());
+            }
+        }
+        logger.error("Unable to write checkpoint to {}.", file, writeFailure);
+        if (failure == null) {
+            failure = writeFailure;
+        } else {
+            failure.addSuppressed(writeFailure);
+        }
+    }
+
+    /**
+     * Waits until the current checkpoint has been written.
+     *
+     * @throws IOException If the current or any previous checkpoint could not be written.
+     */
+    public void awaitCompletion() throws IOException {
+        if (currentWrite != null) {
+            collect(currentWrite);
+            currentWrite = null;
+        }
+        if (failure != null) {
+            IOException reportedFailure = failure;
+            failure = null;
+            throw reportedFailure;
+        }
+    }
+
+    /**
+     * Waits until the current checkpoint has been written and stops the writing thread.
+     *
+     * @throws IOException If the checkpoint could not be written.
+     */
+    public void close() throws IOException {
+        try {
+            awaitCompletion();
+        } finally {
+            writer.shutdown();
+        }
+    }
+
+}
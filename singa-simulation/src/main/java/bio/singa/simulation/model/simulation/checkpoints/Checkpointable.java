@@ -0,0 +1,34 @@
+package bio.singa.simulation.model.simulation.checkpoints;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Modules and integrators, that keep state between epochs, which is not part of the concentrations or vesicles of a
+ * simulation (e.g. random number generators or timers), implement this interface to be included in
+ * {@link SimulationCheckpoint}s. The state is written when the checkpoint is captured, it must therefore be
+ * independent of the object afterwards (copy arrays and collections).
+ *
+ * @author cl
+ */
+public interface Checkpointable {
+
+    /**
+     * Writes the state between two epochs.
+     *
+     * @param output The output.
+     * @throws IOException If the state could not be written.
+     */
+    void writeState(DataOutput output) throws IOException;
+
+    /**
+     * Restores the state written by {@link #writeState(DataOutput)}. The simulation is initialized before the state is
+     * restored.
+     *
+     * @param input The input.
+     * @throws IOException If the state could not be read.
+     */
+    void readState(DataInput input) throws IOException;
+
+}
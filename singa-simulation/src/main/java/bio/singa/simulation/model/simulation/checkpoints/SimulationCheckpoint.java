@@ -0,0 +1,796 @@
+package bio.singa.simulation.model.simulation.checkpoints;
+
+import bio.singa.features.units.UnitRegistry;
+import bio.singa.mathematics.vectors.Vector2D;
+import bio.singa.simulation.entities.ChemicalEntity;
+import bio.singa.simulation.entities.EntityRegistry;
+import bio.singa.simulation.model.agents.pointlike.Vesicle;
+import bio.singa.simulation.model.agents.pointlike.VesicleLayer;
+import bio.singa.simulation.model.agents.pointlike.VesicleStateRegistry;
+import bio.singa.simulation.model.graphs.AutomatonNode;
+import bio.singa.simulation.model.modules.UpdateModule;
+import bio.singa.simulation.model.modules.concentration.ConcentrationDeltaManager;
+import bio.singa.simulation.model.sections.*;
+import bio.singa.simulation.model.simulation.Simulation;
+import bio.singa.simulation.model.simulation.Updatable;
+import bio.singa.simulation.model.simulation.error.TimeStepManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import tech.units.indriya.ComparableQuantity;
+import tech.units.indriya.quantity.Quantities;
+
+import javax.measure.Unit;
+import javax.measure.quantity.Time;
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import static bio.singa.features.units.UnitProvider.MOLE_PER_LITRE;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static tech.units.indriya.unit.MetricPrefix.NANO;
+import static tech.units.indriya.unit.Units.METRE;
+import static tech.units.indriya.unit.Units.SECOND;
+
+/**
+ * A simulation checkpoint is a snapshot of the state of a {@link Simulation} between two epochs. It contains the
+ * epoch, the elapsed time, the current time step and the epoch of its last decrease, the concentrations and fixed
+ * entities of all nodes, the vesicles with their positions, states and concentrations, and the state of modules and
+ * integrators, that implement {@link Checkpointable}. Capturing a checkpoint only copies the state, such that the simulation can continue while
+ * the checkpoint is written, e.g. by the {@link CheckpointRecorder}.
+ * <pre>
+ *  SimulationCheckpoint.capture(simulation).write(path);
+ *  ...
+ *  Simulation restarted = setupSimulation();
+ *  SimulationCheckpoint.read(path).restore(restarted); </pre>
+ * Checkpoints do not contain the structure of a simulation (graph, modules, features, membranes). They are restored to
+ * a simulation, that was set up in the same way as the captured simulation, e.g. by the same code, where nodes are
+ * identified by their coordinates, vesicles by their identifiers and entities and subsections by their identifiers.
+ * Restoring initializes the simulation (see {@link Simulation#initialize()}) and discards initial concentrations,
+ * that are not fixed, such that the first epoch continues from the restored state. The same checkpoint can be restored
+ * to multiple simulations, to fork variations from a shared equilibrated state.
+ * <p>
+ * The binary format starts with a magic number and the version of the format, followed by the time, dictionaries of
+ * entities and subsections, the node and vesicle blocks and the states of checkpointable components. Concentrations
+ * are stored in the internal concentration unit together with its factor to mol/l, such that restoring to a
+ * simulation with the same units reproduces the concentrations exactly. Vesicles attached to filaments are restored
+ * unattached, endocytotic pits are not stored.
+ *
+ * @author cl
+ */
+public class SimulationCheckpoint {
+
+    /**
+     * The logger.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(SimulationCheckpoint.class);
+
+    /**
+     * The first four bytes of each checkpoint file ("SGCP").
+     */
+    static final int MAGIC_NUMBER = 0x53474350;
+
+    /**
+     * The version of the format.
+     */
+    static final int VERSION = 1;
+
+    /**
+     * The default name of checkpoint files.
+     */
+    public static final String CHECKPOINT_FILE_NAME = "checkpoint.sgc";
+
+    /**
+     * The key of the integrator state.
+     */
+    private static final String INTEGRATOR_KEY = "integrator";
+
+    /**
+     * The prefix of the keys of module states.
+     */
+    private static final String MODULE_KEY_PREFIX = "module:";
+
+    /**
+     * The epoch.
+     */
+    private long epoch;
+
+    /**
+     * The last epoch, in which the time step was decreased.
+     */
+    private long epochWithRescaledTimeStep;
+
+    /**
+     * The symbol of the time unit.
+     */
+    private String timeUnit;
+
+    /**
+     * The elapsed time in the time unit.
+     */
+    private double elapsedTime;
+
+    /**
+     * The time step in the time unit.
+     */
+    private double timeStep;
+
+    /**
+     * The elapsed time in seconds, if the time unit can not be resolved.
+     */
+    private double elapsedSeconds;
+
+    /**
+     * The time step in seconds, if the time unit can not be resolved.
+     */
+    private double timeStepSeconds;
+
+    /**
+     * The number of time step increases.
+     */
+    private long timeStepsIncreased;
+
+    /**
+     * The number of time step decreases.
+     */
+    private long timeStepsDecreased;
+
+    /**
+     * The factor converting the stored concentrations to mol/l.
+     */
+    private double concentrationFactor;
+
+    /**
+     * The states of the nodes.
+     */
+    private final List<NodeState> nodes;
+
+    /**
+     * The states of the vesicles.
+     */
+    private final List<VesicleState> vesicles;
+
+    /**
+     * The states of checkpointable modules and integrators.
+     */
+    private final Map<String, byte[]> componentStates;
+
+    private SimulationCheckpoint() {
+        nodes = new ArrayList<>();
+        vesicles = new ArrayList<>();
+        componentStates = new LinkedHashMap<>();
+    }
+
+    /**
+     * Captures the current state of the simulation. Needs to be called between two epochs, from the thread calculating
+     * the simulation (e.g. in a synchronous event listener).
+     *
+     * @param simulation The simulation.
+     * @return The checkpoint.
+     */
+    public static SimulationCheckpoint capture(Simulation simulation) {
+        return simulation.getContext().call(() -> captureInContext(simulation));
+    }
+
+    private static SimulationCheckpoint captureInContext(Simulation simulation) {
+        SimulationCheckpoint checkpoint = new SimulationCheckpoint();
+        checkpoint.epoch = simulation.getEpoch();
+        checkpoint.epochWithRescaledTimeStep = simulation.getEpochWithRescaledTimeStep();
+        Unit<Time> unit = UnitRegistry.getTimeUnit();
+        ComparableQuantity<Time> elapsedTime = TimeStepManager.getElapsedTime().to(unit);
+        checkpoint.timeUnit = unit.toString();
+        checkpoint.elapsedTime = elapsedTime.getValue().doubleValue();
+        checkpoint.timeStep = UnitRegistry.getTime().getValue().doubleValue();
+        checkpoint.elapsedSeconds = elapsedTime.to(SECOND).getValue().doubleValue();
+        checkpoint.timeStepSeconds = UnitRegistry.getTime().to(SECOND).getValue().doubleValue();
+        checkpoint.timeStepsIncreased = TimeStepManager.getTimeStepsIncreased();
+        checkpoint.timeStepsDecreased = TimeStepManager.getTimeStepsDecreased();
+        checkpoint.concentrationFactor = UnitRegistry.concentration(1.0).to(MOLE_PER_LITRE).getValue().doubleValue();
+        if (simulation.getGraph() != null) {
+            for (AutomatonNode node : simulation.getGraph().getNodes()) {
+                checkpoint.nodes.add(new NodeState(node.getIdentifier().getColumn(), node.getIdentifier().getRow(), new ContainerState(node)));
+            }
+        }
+        if (simulation.getVesicleLayer() != null) {
+            for (Vesicle vesicle : simulation.getVesicleLayer().getVesicles()) {
+                checkpoint.vesicles.add(new VesicleState(vesicle));
+            }
+            if (!simulation.getVesicleLayer().getAspiringPits().isEmpty() || !simulation.getVesicleLayer().getMaturingPits().isEmpty()) {
+                logger.warn("Endocytotic pits are not included in checkpoints.");
+            }
+        }
+        try {
+            for (UpdateModule module : simulation.getModules()) {
+                if (module instanceof Checkpointable) {
+                    checkpoint.componentStates.put(MODULE_KEY_PREFIX + module.getIdentifier(), writeComponent((Checkpointable) module));
+                }
+            }
+            if (simulation.getScheduler().getIntegrator() instanceof Checkpointable) {
+                checkpoint.componentStates.put(INTEGRATOR_KEY, writeComponent((Checkpointable) simulation.getScheduler().getIntegrator()));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to capture the state of checkpointable components.", e);
+        }
+        return checkpoint;
+    }
+
+    private static byte[] writeComponent(Checkpointable component) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream output = new DataOutputStream(bytes)) {
+            component.writeState(output);
+        }
+        return bytes.toByteArray();
+    }
+
+    public long getEpoch() {
+        return epoch;
+    }
+
+    public int getNumberOfNodes() {
+        return nodes.size();
+    }
+
+    public int getNumberOfVesicles() {
+        return vesicles.size();
+    }
+
+    /**
+     * Writes the checkpoint to the given file. The checkpoint is written to a temporary file first and moved to the
+     * target afterwards, such that an existing checkpoint is only replaced by a complete one.
+     *
+     * @param file The file.
+     * @throws IOException If the checkpoint could not be written.
+     */
+    public void write(Path file) throws IOException {
+        Path directory = file.toAbsolutePath().getParent();
+        if (directory != null) {
+            Files.createDirectories(directory);
+        }
+        Path temporaryFile = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporaryFile)))) {
+            write(output);
+        }
+        try {
+            Files.move(temporaryFile, file, REPLACE_EXISTING, ATOMIC_MOVE);
+        } catch (IOException e) {
+            // atomic moves are not supported by every file system
+            Files.move(temporaryFile, file, REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Writes the checkpoint to the given output.
+     *
+     * @param output The output.
+     * @throws IOException If the checkpoint could not be written.
+     */
+    public void write(DataOutputStream output) throws IOException {
+        output.writeInt(MAGIC_NUMBER);
+        output.writeInt(VERSION);
+        output.writeLong(epoch);
+        output.writeLong(epochWithRescaledTimeStep);
+        output.writeUTF(timeUnit);
+        output.writeDouble(elapsedTime);
+        output.writeDouble(timeStep);
+        output.writeDouble(elapsedSeconds);
+        output.writeDouble(timeStepSeconds);
+        output.writeLong(timeStepsIncreased);
+        output.writeLong(timeStepsDecreased);
+        output.writeDouble(concentrationFactor);
+        // dictionaries
+        Map<String, Integer> entities = new LinkedHashMap<>();
+        Map<String, Integer> subsections = new LinkedHashMap<>();
+        for (NodeState node : nodes) {
+            node.container.collectIdentifiers(entities, subsections);
+        }
+        for (VesicleState vesicle : vesicles) {
+            vesicle.container.collectIdentifiers(entities, subsections);
+        }
+        writeDictionary(output, entities);
+        writeDictionary(output, subsections);
+        // nodes
+        output.writeInt(nodes.size());
+        for (NodeState node : nodes) {
+            output.writeInt(node.column);
+            output.writeInt(node.row);
+            node.container.write(output, entities, subsections);
+        }
+        // vesicles
+        output.writeInt(vesicles.size());
+        for (VesicleState vesicle : vesicles) {
+            output.writeUTF(vesicle.identifier);
+            output.writeUTF(vesicle.region);
+            output.writeDouble(vesicle.x);
+            output.writeDouble(vesicle.y);
+            output.writeDouble(vesicle.radius);
+            output.writeUTF(vesicle.state);
+            output.writeBoolean(vesicle.targetDirection != null);
+            if (vesicle.targetDirection != null) {
+                output.writeUTF(vesicle.targetDirection);
+            }
+            vesicle.container.write(output, entities, subsections);
+        }
+        // components
+        output.writeInt(componentStates.size());
+        for (Map.Entry<String, byte[]> entry : componentStates.entrySet()) {
+            output.writeUTF(entry.getKey());
+            output.writeInt(entry.getValue().length);
+            output.write(entry.getValue());
+        }
+    }
+
+    private static void writeDictionary(DataOutput output, Map<String, Integer> dictionary) throws IOException {
+        output.writeInt(dictionary.size());
+        for (String identifier : dictionary.keySet()) {
+            output.writeUTF(identifier);
+        }
+    }
+
+    private static String[] readDictionary(DataInput input) throws IOException {
+        String[] dictionary = new String[input.readInt()];
+        for (int index = 0; index < dictionary.length; index++) {
+            dictionary[index] = input.readUTF();
+        }
+        return dictionary;
+    }
+
+    /**
+     * Reads a checkpoint from the given file.
+     *
+     * @param file The file.
+     * @return The checkpoint.
+     * @throws IOException If the checkpoint could not be read.
+     */
+    public static SimulationCheckpoint read(Path file) throws IOException {
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            return read(input);
+        }
+    }
+
+    /**
+     * Reads a checkpoint from the given input.
+     *
+     * @param input The input.
+     * @return The checkpoint.
+     * @throws IOException If the checkpoint could not be read.
+     */
+    public static SimulationCheckpoint read(DataInputStream input) throws IOException {
+        if (input.readInt() != MAGIC_NUMBER) {
+            throw new IOException("The input is no simulation checkpoint.");
+        }
+        int version = input.readInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported checkpoint version " + version + ".");
+        }
+        SimulationCheckpoint checkpoint = new SimulationCheckpoint();
+        checkpoint.epoch = input.readLong();
+        checkpoint.epochWithRescaledTimeStep = input.readLong();
+        checkpoint.timeUnit = input.readUTF();
+        checkpoint.elapsedTime = input.readDouble();
+        checkpoint.timeStep = input.readDouble();
+        checkpoint.elapsedSeconds = input.readDouble();
+        checkpoint.timeStepSeconds = input.readDouble();
+        checkpoint.timeStepsIncreased = input.readLong();
+        checkpoint.timeStepsDecreased = input.readLong();
+        checkpoint.concentrationFactor = input.readDouble();
+        String[] entities = readDictionary(input);
+        String[] subsections = readDictionary(input);
+        int numberOfNodes = input.readInt();
+        for (int node = 0; node < numberOfNodes; node++) {
+            int column = input.readInt();
+            int row = input.readInt();
+            checkpoint.nodes.add(new NodeState(column, row, ContainerState.read(input, entities, subsections)));
+        }
+        int numberOfVesicles = input.readInt();
+        for (int vesicle = 0; vesicle < numberOfVesicles; vesicle++) {
+            VesicleState state = new VesicleState();
+            state.identifier = input.readUTF();
+            state.region = input.readUTF();
+            state.x = input.readDouble();
+            state.y = input.readDouble();
+            state.radius = input.readDouble();
+            state.state = input.readUTF();
+            state.targetDirection = input.readBoolean() ? input.readUTF() : null;
+            state.container = ContainerState.read(input, entities, subsections);
+            checkpoint.vesicles.add(state);
+        }
+        int numberOfComponents = input.readInt();
+        for (int component = 0; component < numberOfComponents; component++) {
+            String key = input.readUTF();
+            byte[] state = new byte[input.readInt()];
+            input.readFully(state);
+            checkpoint.componentStates.put(key, state);
+        }
+        return checkpoint;
+    }
+
+    /**
+     * Restores this checkpoint to the given simulation, that has been set up in the same way as the captured
+     * simulation. The simulation is initialized if this has not been done before.
+     *
+     * @param simulation The simulation.
+     */
+    public void restore(Simulation simulation) {
+        simulation.initialize();
+        simulation.getContext().run(() -> restoreInContext(simulation));
+    }
+
+    private void restoreInContext(Simulation simulation) {
+        // initial concentrations, that are not fixed, would overwrite the restored concentrations
+        simulation.getConcentrations().removeIf(concentration -> !concentration.isFix());
+        // time
+        Unit<Time> unit = UnitRegistry.getTimeUnit();
+        if (unit.toString().equals(timeUnit)) {
+            UnitRegistry.setTime(Quantities.getQuantity(timeStep, unit));
+            TimeStepManager.restore(Quantities.getQuantity(elapsedTime, unit), timeStepsIncreased, timeStepsDecreased);
+        } else {
+            UnitRegistry.setTime(Quantities.getQuantity(timeStepSeconds, SECOND).to(unit));
+            TimeStepManager.restore(Quantities.getQuantity(elapsedSeconds, SECOND).to(unit), timeStepsIncreased, timeStepsDecreased);
+        }
+        simulation.setEpoch(epoch);
+        simulation.setEpochWithRescaledTimeStep(epochWithRescaledTimeStep);
+        // resolve entities and subsections by their identifiers
+        double factor = concentrationFactor / UnitRegistry.concentration(1.0).to(MOLE_PER_LITRE).getValue().doubleValue();
+        Resolver resolver = new Resolver(simulation);
+        // nodes
+        for (NodeState state : nodes) {
+            AutomatonNode node = simulation.getGraph().getNode(state.column, state.row);
+            if (node == null) {
+                throw new IllegalStateException("The graph of the simulation does not contain the node (" + state.column + ", " + state.row + ") of the checkpoint.");
+            }
+            state.container.restore(node.getConcentrationManager(), resolver, factor);
+        }
+        // vesicles
+        VesicleLayer vesicleLayer = simulation.getVesicleLayer();
+        if (vesicleLayer != null) {
+            restoreVesicles(vesicleLayer, resolver, factor);
+            vesicleLayer.associateVesicles();
+        }
+        // components
+        try {
+            for (UpdateModule module : simulation.getModules()) {
+                if (module instanceof Checkpointable) {
+                    readComponent(MODULE_KEY_PREFIX + module.getIdentifier(), (Checkpointable) module);
+                }
+            }
+            if (simulation.getScheduler().getIntegrator() instanceof Checkpointable) {
+                readComponent(INTEGRATOR_KEY, (Checkpointable) simulation.getScheduler().getIntegrator());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to restore the state of checkpointable components.", e);
+        }
+        if (simulation.getGraph() != null) {
+            simulation.collectUpdatables();
+        }
+        if (simulation.getActivityTracker() != null) {
+            simulation.getActivityTracker().activateAll();
+        }
+        logger.info("Restored epoch {} ({} nodes, {} vesicles).", epoch, nodes.size(), vesicles.size());
+    }
+
+    private void readComponent(String key, Checkpointable component) throws IOException {
+        byte[] state = componentStates.get(key);
+        if (state == null) {
+            logger.warn("The checkpoint does not contain a state for {}.", key);
+            return;
+        }
+        try (DataInputStream input = new DataInputStream(new ByteArrayInputStream(state))) {
+            component.readState(input);
+        }
+    }
+
+    private void restoreVesicles(VesicleLayer vesicleLayer, Resolver resolver, double factor) {
+        Map<String, Vesicle> existingVesicles = new HashMap<>();
+        for (Vesicle vesicle : vesicleLayer.getVesicles()) {
+            existingVesicles.put(vesicle.getStringIdentifier(), vesicle);
+        }
+        List<Vesicle> restoredVesicles = new ArrayList<>();
+        int largestNumber = -1;
+        for (VesicleState state : vesicles) {
+            Vector2D position = new Vector2D(state.x, state.y);
+            Vesicle vesicle = existingVesicles.get(state.identifier);
+            if (vesicle == null) {
+                vesicle = new Vesicle(resolver.resolveRegion(state.region), position, Quantities.getQuantity(state.radius, NANO(METRE)));
+                vesicle.setIdentifier(state.identifier);
+            } else {
+                vesicle.setPosition(position);
+                vesicle.clearPotentialDisplacementDeltas();
+            }
+            vesicle.clearAttachmentInformation();
+            if (!state.state.equals(VesicleStateRegistry.ACTIN_ATTACHED) && !state.state.equals(VesicleStateRegistry.MICROTUBULE_ATTACHED)) {
+                vesicle.setState(state.state);
+                vesicle.setTargetDirection(state.targetDirection);
+            }
+            state.container.restore(vesicle.getConcentrationManager(), resolver, factor);
+            restoredVesicles.add(vesicle);
+            largestNumber = Math.max(largestNumber, parseVesicleNumber(state.identifier));
+        }
+        vesicleLayer.getVesicles().clear();
+        vesicleLayer.addVesicles(restoredVesicles);
+        // vesicles created later on must not reuse identifiers
+        int nextNumber = largestNumber + 1;
+        Vesicle.vesicleCounter.accumulateAndGet(nextNumber, Math::max);
+    }
+
+    private static int parseVesicleNumber(String identifier) {
+        if (identifier.length() > 1 && identifier.charAt(0) == 'v') {
+            try {
+                return Integer.parseInt(identifier.substring(1));
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Resolves entities, subsections and regions of the restored simulation by their identifiers.
+     */
+    private static class Resolver {
+
+        private final Map<String, ChemicalEntity> entities;
+        private final Map<String, CellSubsection> subsections;
+        private final Map<String, CellRegion> regions;
+
+        private Resolver(Simulation simulation) {
+            entities = new HashMap<>();
+            subsections = new HashMap<>();
+            regions = new HashMap<>();
+            for (ChemicalEntity entity : EntityRegistry.getAll()) {
+                entities.put(entity.getIdentifier(), entity);
+            }
+            for (ChemicalEntity entity : simulation.getChemicalEntities()) {
+                entities.put(entity.getIdentifier(), entity);
+            }
+            addRegion(CellRegions.VESICLE_REGION);
+            if (simulation.getGraph() != null) {
+                for (AutomatonNode node : simulation.getGraph().getNodes()) {
+                    addUpdatable(node);
+                    addRegion(node.getCellRegion());
+                }
+            }
+            if (simulation.getVesicleLayer() != null) {
+                for (Vesicle vesicle : simulation.getVesicleLayer().getVesicles()) {
+                    addUpdatable(vesicle);
+                    addRegion(vesicle.getRegion());
+                }
+            }
+        }
+
+        private void addUpdatable(Updatable updatable) {
+            ConcentrationContainer container = updatable.getConcentrationContainer();
+            for (CellSubsection subsection : container.getReferencedSubsections()) {
+                subsections.put(subsection.getIdentifier(), subsection);
+            }
+            for (ChemicalEntity entity : container.getReferencedEntities()) {
+                entities.putIfAbsent(entity.getIdentifier(), entity);
+            }
+        }
+
+        private void addRegion(CellRegion region) {
+            if (region == null) {
+                return;
+            }
+            regions.putIfAbsent(region.getIdentifier(), region);
+            for (CellSubsection subsection : region.getSubsections()) {
+                subsections.putIfAbsent(subsection.getIdentifier(), subsection);
+            }
+        }
+
+        private ChemicalEntity resolveEntity(String identifier) {
+            ChemicalEntity entity = entities.get(identifier);
+            if (entity == null) {
+                throw new IllegalStateException("The chemical entity " + identifier + " of the checkpoint is not referenced in the simulation.");
+            }
+            return entity;
+        }
+
+        private CellSubsection resolveSubsection(String identifier) {
+            CellSubsection subsection = subsections.get(identifier);
+            if (subsection == null) {
+                throw new IllegalStateException("The subsection " + identifier + " of the checkpoint is not referenced in the simulation.");
+            }
+            return subsection;
+        }
+
+        private CellRegion resolveRegion(String identifier) {
+            CellRegion region = regions.get(identifier);
+            if (region == null) {
+                throw new IllegalStateException("The region " + identifier + " of the checkpoint is not referenced in the simulation.");
+            }
+            return region;
+        }
+
+    }
+
+    /**
+     * The concentrations of a node.
+     */
+    private static class NodeState {
+
+        private final int column;
+        private final int row;
+        private final ContainerState container;
+
+        private NodeState(int column, int row, ContainerState container) {
+            this.column = column;
+            this.row = row;
+            this.container = container;
+        }
+
+    }
+
+    /**
+     * The position, state and concentrations of a vesicle.
+     */
+    private static class VesicleState {
+
+        private String identifier;
+        private String region;
+        private double x;
+        private double y;
+        private double radius;
+        private String state;
+        private String targetDirection;
+        private ContainerState container;
+
+        private VesicleState() {
+
+        }
+
+        private VesicleState(Vesicle vesicle) {
+            identifier = vesicle.getStringIdentifier();
+            region = vesicle.getRegion().getIdentifier();
+            x = vesicle.getPosition().getX();
+            y = vesicle.getPosition().getY();
+            radius = vesicle.getRadius().to(NANO(METRE)).getValue().doubleValue();
+            state = vesicle.getState();
+            targetDirection = vesicle.getTargetDirection();
+            container = new ContainerState(vesicle);
+        }
+
+    }
+
+    /**
+     * The concentrations of each topology of an updatable and its fixed entities.
+     */
+    private static class ContainerState {
+
+        private static final int NUMBER_OF_TOPOLOGIES = CellTopology.values().length;
+
+        private final String[] subsections;
+        private final String[][] entities;
+        private final double[][] values;
+        private String[] fixedEntities;
+
+        private ContainerState() {
+            subsections = new String[NUMBER_OF_TOPOLOGIES];
+            entities = new String[NUMBER_OF_TOPOLOGIES][];
+            values = new double[NUMBER_OF_TOPOLOGIES][];
+        }
+
+        private ContainerState(Updatable updatable) {
+            this();
+            ConcentrationContainer container = updatable.getConcentrationContainer();
+            ConcentrationPool[] pools = container.getConcentrations();
+            for (int topology = 0; topology < NUMBER_OF_TOPOLOGIES; topology++) {
+                CellSubsection subsection = container.getSubsection(CellTopology.getTopology(topology));
+                ConcentrationPool pool = pools[topology];
+                if (subsection == null || pool == null) {
+                    continue;
+                }
+                subsections[topology] = subsection.getIdentifier();
+                Set<ChemicalEntity> referencedEntities = pool.getReferencedEntities();
+                entities[topology] = new String[referencedEntities.size()];
+                values[topology] = new double[referencedEntities.size()];
+                int index = 0;
+                for (ChemicalEntity entity : referencedEntities) {
+                    entities[topology][index] = entity.getIdentifier();
+                    values[topology][index] = pool.get(entity);
+                    index++;
+                }
+            }
+            List<ChemicalEntity> fixed = updatable.getConcentrationManager().getFixedEntities();
+            fixedEntities = new String[fixed.size()];
+            for (int index = 0; index < fixedEntities.length; index++) {
+                fixedEntities[index] = fixed.get(index).getIdentifier();
+            }
+        }
+
+        private void collectIdentifiers(Map<String, Integer> entityDictionary, Map<String, Integer> subsectionDictionary) {
+            for (int topology = 0; topology < NUMBER_OF_TOPOLOGIES; topology++) {
+                if (subsections[topology] == null) {
+                    continue;
+                }
+                subsectionDictionary.putIfAbsent(subsections[topology], subsectionDictionary.size());
+                for (String entity : entities[topology]) {
+                    entityDictionary.putIfAbsent(entity, entityDictionary.size());
+                }
+            }
+            for (String entity : fixedEntities) {
+                entityDictionary.putIfAbsent(entity, entityDictionary.size());
+            }
+        }
+
+        private void write(DataOutput output, Map<String, Integer> entityDictionary, Map<String, Integer> subsectionDictionary) throws IOException {
+            for (int topology = 0; topology < NUMBER_OF_TOPOLOGIES; topology++) {
+                if (subsections[topology] == null) {
+                    output.writeInt(-1);
+                    continue;
+                }
+                output.writeInt(subsectionDictionary.get(subsections[topology]));
+                output.writeInt(entities[topology].length);
+                for (int index = 0; index < entities[topology].length; index++) {
+                    output.writeInt(entityDictionary.get(entities[topology][index]));
+                    output.writeDouble(values[topology][index]);
+                }
+            }
+            output.writeInt(fixedEntities.length);
+            for (String entity : fixedEntities) {
+                output.writeInt(entityDictionary.get(entity));
+            }
+        }
+
+        private static ContainerState read(DataInput input, String[] entityDictionary, String[] subsectionDictionary) throws IOException {
+            ContainerState state = new ContainerState();
+            for (int topology = 0; topology < NUMBER_OF_TOPOLOGIES; topology++) {
+                int subsection = input.readInt();
+                if (subsection < 0) {
+                    continue;
+                }
+                state.subsections[topology] = subsectionDictionary[subsection];
+                int numberOfEntities = input.readInt();
+                state.entities[topology] = new String[numberOfEntities];
+                state.values[topology] = new double[numberOfEntities];
+                for (int index = 0; index < numberOfEntities; index++) {
+                    state.entities[topology][index] = entityDictionary[input.readInt()];
+                    state.values[topology][index] = input.readDouble();
+                }
+            }
+            state.fixedEntities = new String[input.readInt()];
+            for (int index = 0; index < state.fixedEntities.length; index++) {
+                state.fixedEntities[index] = entityDictionary[input.readInt()];
+            }
+            return state;
+        }
+
+        private void restore(ConcentrationDeltaManager manager, Resolver resolver, double factor) {
+            ConcentrationContainer container = manager.getConcentrationContainer();
+            for (int topology = 0; topology < NUMBER_OF_TOPOLOGIES; topology++) {
+                CellTopology cellTopology = CellTopology.getTopology(topology);
+                if (subsections[topology] == null) {
+                    if (container.getSubsection(cellTopology) != null) {
+                        container.removeSubsection(cellTopology);
+                    }
+                    continue;
+                }
+                CellSubsection subsection = resolver.resolveSubsection(subsections[topology]);
+                if (!subsection.equals(container.getSubsection(cellTopology)) || container.getConcentrations()[topology] == null) {
+                    container.initializeSubsection(subsection, cellTopology);
+                }
+                ConcentrationPool pool = container.getConcentrations()[topology];
+                Set<ChemicalEntity> restoredEntities = new HashSet<>();
+                for (int index = 0; index < entities[topology].length; index++) {
+                    ChemicalEntity entity = resolver.resolveEntity(entities[topology][index]);
+                    pool.set(entity, factor == 1.0 ? values[topology][index] : values[topology][index] * factor);
+                    restoredEntities.add(entity);
+                }
+                // entities, that were not present when the checkpoint was captured
+                for (ChemicalEntity entity : new ArrayList<>(pool.getReferencedEntities())) {
+                    if (!restoredEntities.contains(entity)) {
+                        pool.set(entity, 0.0);
+                    }
+                }
+            }
+            for (String identifier : fixedEntities) {
+                ChemicalEntity entity = resolver.resolveEntity(identifier);
+                if (!manager.getFixedEntities().contains(entity)) {
+                    manager.fix(entity);
+                }
+            }
+        }
+
+    }
+
+}
@@ -243,6 +243,16 @@ public class ErrorManager {
         return globalErrorManager.errorIsAcceptable();
     }
 
+    /**
+     * Returns true if the last evaluation of the global error modified the current concentrations of the updatables,
+     * such that previously calculated deltas are invalid.
+     *
+     * @return True if the concentrations were modified.
+     */
+    public boolean globalErrorEvaluationModifiedConcentrations() {
+        return globalErrorManager.concentrationsModified();
+    }
+
     public void evaluateGlobalDeviation() {
         globalDeviationManager.evaluateDeviation();
     }
@@ -1,7 +1,7 @@
 package bio.singa.simulation.model.simulation.error;
 
 import bio.singa.core.events.UpdateEventListener;
-import bio.singa.simulation.model.simulation.Updatable;
+import bio.singa.features.quantities.MolarConcentration;
 import bio.singa.simulation.model.simulation.UpdateScheduler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -19,6 +19,11 @@ public class GlobalNumericalErrorManager implements UpdateEventListener<Reason>
     private static final double DEFAULT_GLOBAL_NUMERICAL_TOLERANCE = 1e-2;
     private static final double DEFAULT_GLOBAL_NEGLIGIBILITY_THRESHOLD = 1e-6;
 
+    /**
+     * The number of molecules, below which concentrations are not considered for the global error.
+     */
+    private static final double NEGLIGIBLE_MOLECULES = 1e-4;
+
     private UpdateScheduler updateScheduler;
     private CalculationStage currentStage;
     private double tolerance = DEFAULT_GLOBAL_NUMERICAL_TOLERANCE;
@@ -26,6 +31,11 @@ public class GlobalNumericalErrorManager implements UpdateEventListener<Reason>
     private NumericalError error;
     private boolean errorAcceptable;
 
+    /**
+     * True if the last evaluation modified the current concentrations or potential deltas of the updatables.
+     */
+    private boolean concentrationsModified;
+
     private int skips = 0;
 
     public GlobalNumericalErrorManager(UpdateScheduler updateScheduler) {
@@ -35,6 +45,7 @@ public class GlobalNumericalErrorManager implements UpdateEventListener<Reason>
     }
 
     public void evaluateError() {
+        concentrationsModified = false;
         // check skipping
         if (currentStage.equals(SKIP)) {
             // if number of updatables increased or more than 100 skips occured
@@ -62,24 +73,24 @@ public class GlobalNumericalErrorManager implements UpdateEventListener<Reason>
     }
 
     private void processSetupStage() {
+        concentrationsModified = true;
         // calculate half step concentrations for subsequent evaluation
-        // for each node
-        for (Updatable updatable : updateScheduler.getUpdatables()) {
-            // calculate interim container (added current updates with checked local error)
-            // set half step concentrations y(t+1/2dt) for interim containers
-            // backup current concentrations and set current concentration to interim concentrations
-            updatable.getConcentrationManager().setInterimAndUpdateCurrentConcentrations();
-        }
+        // for each node (in parallel)
+        // calculate interim container (added current updates with checked local error)
+        // set half step concentrations y(t+1/2dt) for interim containers
+        // backup current concentrations and set current concentration to interim concentrations
+        updateScheduler.forEachUpdatable(updatable -> updatable.getConcentrationManager().setInterimAndUpdateCurrentConcentrations());
         errorAcceptable = false;
     }
 
     private void processEvaluationStage() {
+        concentrationsModified = true;
         error = determineGlobalError();
         if (error.getValue() > tolerance) {
             errorAcceptable = false;
         } else {
             errorAcceptable = true;
-            updateScheduler.getUpdatables().forEach(updatable -> updatable.getConcentrationManager().revertToOriginalConcentrations());
+            updateScheduler.revertConcentrations(updateScheduler.getUpdatables());
         }
     }
 
@@ -112,19 +123,19 @@ public class GlobalNumericalErrorManager implements UpdateEventListener<Reason>
     }
 
     private NumericalError determineGlobalError() {
-        // for each node
-        NumericalError largestError = NumericalError.MINIMAL_EMPTY_ERROR;
-        for (Updatable updatable : updateScheduler.getUpdatables()) {
+        // concentrations below a fraction of a molecule are not considered
+        double negligibleConcentration = MolarConcentration.moleculesToConcentration(NEGLIGIBLE_MOLECULES);
+        // for each node (in parallel), the largest error is determined by a reduction
+        return updateScheduler.reduceUpdatables(updatable -> {
             // determine full concentrations with full update and 2 * half update
             updatable.getConcentrationManager().determineComparisionConcentrations();
             // determine error between both
-            NumericalError currentError = updatable.getConcentrationManager().determineGlobalNumericalError();
-            if (largestError.isSmallerThan(currentError)) {
+            NumericalError currentError = updatable.getConcentrationManager().determineGlobalNumericalError(negligibleConcentration);
+            if (currentError != NumericalError.MINIMAL_EMPTY_ERROR) {
                 currentError.setUpdatable(updatable);
-                largestError = currentError;
             }
-        }
-        return largestError;
+            return currentError;
+        }, NumericalError.MINIMAL_EMPTY_ERROR, (largestError, currentError) -> largestError.isSmallerThan(currentError) ? currentError : largestError);
     }
 
     @Override
@@ -177,6 +188,10 @@ public class GlobalNumericalErrorManager implements UpdateEventListener<Reason>
         return errorAcceptable;
     }
 
+    public boolean concentrationsModified() {
+        return concentrationsModified;
+    }
+
     public boolean errorIsNegligible() {
         return error.getValue() < negligibility;
     }
@@ -3,6 +3,7 @@ package bio.singa.simulation.model.simulation.error;
 import bio.singa.core.events.UpdateEventEmitter;
 import bio.singa.core.events.UpdateEventListener;
 import bio.singa.features.formatter.TimeFormatter;
+import bio.singa.features.parameters.SimulationContext;
 import bio.singa.features.units.UnitRegistry;
 import bio.singa.simulation.model.simulation.UpdateScheduler;
 import org.slf4j.Logger;
@@ -19,12 +20,14 @@ import static bio.singa.simulation.model.simulation.error.ErrorManager.Reason;
 import static bio.singa.simulation.model.simulation.error.ErrorManager.Reason.INCREASE;
 
 /**
+ * The time step manager keeps track of the elapsed time and adjusts the time step of a simulation. Each
+ * {@link SimulationContext} has its own time step manager, that is resolved by the static methods of this class.
+ *
  * @author cl
  */
 public class TimeStepManager implements UpdateEventEmitter<Reason> {
 
     private static final Logger logger = LoggerFactory.getLogger(TimeStepManager.class);
-    private static TimeStepManager instance;
 
     private UpdateScheduler scheduler;
     private List<UpdateEventListener<Reason>> listeners;
@@ -44,17 +47,29 @@ public class TimeStepManager implements UpdateEventEmitter<Reason> {
         listeners = new ArrayList<>();
     }
 
+    /**
+     * Returns the time step manager of the current {@link SimulationContext}.
+     *
+     * @return The time step manager.
+     */
     private static TimeStepManager getInstance() {
+        TimeStepManager instance = SimulationContext.current().getComponent(TimeStepManager.class);
         if (instance == null) {
             throw new IllegalStateException("Time step manager was not initialized");
         }
         return instance;
     }
 
-    public static void initialize(UpdateScheduler scheduler) {
-        synchronized (TimeStepManager.class) {
-            instance = new TimeStepManager(scheduler);
-        }
+    /**
+     * Initializes the time step manager for the given scheduler in the context of the scheduled simulation.
+     *
+     * @param scheduler The scheduler.
+     * @return The time step manager, that can be retained to access it without resolving the current context.
+     */
+    public static TimeStepManager initialize(UpdateScheduler scheduler) {
+        TimeStepManager timeStepManager = new TimeStepManager(scheduler);
+        scheduler.getSimulation().getContext().setComponent(TimeStepManager.class, timeStepManager);
+        return timeStepManager;
     }
 
     public static void updateTime() {
@@ -65,14 +80,47 @@ public class TimeStepManager implements UpdateEventEmitter<Reason> {
         return getInstance().elapsedTime;
     }
 
+    /**
+     * Returns the time that elapsed in the simulation of this time step manager.
+     *
+     * @return The elapsed time.
+     */
+    public ComparableQuantity<Time> getElapsed() {
+        return elapsedTime;
+    }
+
+    /**
+     * Restores the elapsed time and the number of time step adjustments, e.g. when the simulation is restored from a
+     * checkpoint.
+     *
+     * @param elapsedTime The elapsed time.
+     * @param timeStepsIncreased The number of time step increases.
+     * @param timeStepsDecreased The number of time step decreases.
+     */
+    public static void restore(ComparableQuantity<Time> elapsedTime, long timeStepsIncreased, long timeStepsDecreased) {
+        TimeStepManager instance = getInstance();
+        instance.elapsedTime = elapsedTime;
+        instance.timeStepsIncreased = timeStepsIncreased;
+        instance.timeStepsDecreased = timeStepsDecreased;
+        instance.timeStepRescaled = false;
+    }
+
     public static void increaseTimeStep() {
-        getInstance().increase();
+        getInstance().increase(getInstance().estimateIncrease());
     }
 
-    private synchronized void increase() {
+    /**
+     * Increases the time step by the given multiplier, e.g. as proposed by the error estimate of an integrator.
+     *
+     * @param multiplier The multiplier (larger than one).
+     */
+    public static void increaseTimeStep(double multiplier) {
+        getInstance().increase(multiplier);
+    }
+
+    private synchronized void increase(double multiplier) {
         // change timestep in accordance to error
         Quantity<Time> original = UnitRegistry.getTime();
-        double multiplier = estimateIncrease();
         Quantity<Time> estimate = original.multiply(multiplier);
         if (scheduler.getSimulation().isDebug()) {
             scheduler.getSimulation().getDebugRecorder().addInformation(scheduler.getSimulation().getEpoch(), String.format("increasing time step %s -> %s", TimeFormatter.formatTime(original), TimeFormatter.formatTime(estimate)));
@@ -83,13 +131,22 @@ public class TimeStepManager implements UpdateEventEmitter<Reason> {
     }
 
     public static void decreaseTimeStep(Reason reason) {
-        getInstance().decrease(reason);
+        getInstance().decrease(reason, getInstance().estimateDecrease());
+    }
+
+    /**
+     * Decreases the time step by the given multiplier, e.g. as proposed by the error estimate of an integrator.
+     *
+     * @param reason The reason for the decrease.
+     * @param multiplier The multiplier (smaller than one).
+     */
+    public static void decreaseTimeStep(Reason reason, double multiplier) {
+        getInstance().decrease(reason, multiplier);
     }
 
-    private synchronized void decrease(Reason reason) {
+    private synchronized void decrease(Reason reason, double multiplier) {
         // if time step is rescaled for the very fist time this epoch remember the initial error and time step
         Quantity<Time> original = UnitRegistry.getTime();
-        double multiplier = estimateDecrease();
         Quantity<Time> estimate = original.multiply(multiplier);
         if (scheduler.getSimulation().isDebug()) {
             scheduler.getSimulation().getDebugRecorder().addInformation(scheduler.getSimulation().getEpoch(), String.format("decreasing time step (%s, %s) %s -> %s", reason, scheduler.getErrorManager().getGlobalNumericalError(), TimeFormatter.formatTime(original), TimeFormatter.formatTime(estimate)));
@@ -133,6 +190,16 @@ public class TimeStepManager implements UpdateEventEmitter<Reason> {
         return getInstance().timeStepRescaled;
     }
 
+    /**
+     * Returns true, if the time step of the simulation of this time step manager has been rescaled during the current
+     * epoch.
+     *
+     * @return True, if the time step has been rescaled.
+     */
+    public boolean isRescaled() {
+        return timeStepRescaled;
+    }
+
     public static long getTimeStepsDecreased() {
         return getInstance().timeStepsDecreased;
     }
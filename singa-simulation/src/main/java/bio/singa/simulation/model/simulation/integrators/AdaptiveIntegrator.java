@@ -0,0 +1,335 @@
+package bio.singa.simulation.model.simulation.integrators;
+
+import bio.singa.features.units.UnitRegistry;
+import bio.singa.simulation.model.agents.pointlike.Vesicle;
+import bio.singa.simulation.model.graphs.AutomatonNode;
+import bio.singa.simulation.model.modules.UpdateModule;
+import bio.singa.simulation.model.modules.concentration.ConcentrationBasedModule;
+import bio.singa.simulation.model.simulation.Simulation;
+import bio.singa.simulation.model.simulation.Updatable;
+import bio.singa.simulation.model.simulation.UpdateScheduler;
+import bio.singa.simulation.model.simulation.error.ErrorManager;
+import bio.singa.simulation.model.simulation.error.TimeStepManager;
+
+import javax.measure.Quantity;
+import javax.measure.quantity.Time;
+import java.util.ArrayList;
+import java.util.List;
+
+import static bio.singa.simulation.model.simulation.error.ErrorManager.Reason.LOCAL_ERROR;
+import static bio.singa.simulation.model.simulation.error.ErrorManager.Reason.NEGATIVE_CONCENTRATIONS;
+
+/**
+ * An adaptive integrator estimates the error of the deltas of all {@link ConcentrationBasedModule}s from a single
+ * evaluation of an embedded scheme. The error of each delta is scaled by the absolute tolerance plus the relative
+ * tolerance times the concentration. If the largest scaled error exceeds one, the time step is decreased and the epoch
+ * is recalculated. Otherwise, the time step is adapted according to the scaled error, such that the next epoch is
+ * calculated with the largest time step that is expected to meet the tolerances.
+ * <p>
+ * Modules that are not concentration based (e.g. displacement based or qualitative modules) are calculated once per
+ * attempt, before the concentration based modules are evaluated. Their concentration deltas are applied unchanged.
+ * <p>
+ * The {@link StrangSplittingIntegrator} applies the same error control to the local sub-steps of each updatable.
+ *
+ * @author cl
+ */
+public abstract class AdaptiveIntegrator implements Integrator {
+
+    private static final double DEFAULT_RELATIVE_TOLERANCE = 1e-4;
+
+    /**
+     * The factor applied to the optimal time step, to decrease the probability of rejections.
+     */
+    private static final double SAFETY_FACTOR = 0.9;
+
+    /**
+     * The smallest factor the time step is decreased by after a rejection.
+     */
+    private static final double MINIMAL_DECREASE = 0.2;
+
+    /**
+     * The largest factor the time step is increased by after an accepted epoch.
+     */
+    private static final double MAXIMAL_INCREASE = 5.0;
+
+    protected UpdateScheduler scheduler;
+
+    /**
+     * The tolerance relative to the concentrations.
+     */
+    private double relativeTolerance = DEFAULT_RELATIVE_TOLERANCE;
+
+    /**
+     * The absolute tolerance (if not set explicitly, the concentration of a fraction of a molecule is used).
+     */
+    private double absoluteTolerance = Double.NaN;
+
+    /**
+     * The factor the time step should be increased by after the current epoch.
+     */
+    private double proposedIncrease;
+
+    /**
+     * The largest scaled error of the last accepted epoch.
+     */
+    private double errorNorm;
+
+    /**
+     * The number of rejected attempts since the start of the simulation.
+     */
+    private long rejectedSteps;
+
+    @Override
+    public void initialize(UpdateScheduler scheduler) {
+        this.scheduler = scheduler;
+        if (Double.isNaN(absoluteTolerance)) {
+            absoluteTolerance = scheduler.getMoleculeFraction();
+        }
+    }
+
+    /**
+     * Returns the order of the less accurate solution of the embedded scheme, that determines how the error scales
+     * with the time step.
+     *
+     * @return The order.
+     */
+    protected abstract int getErrorOrder();
+
+    /**
+     * Returns all concentration based modules of the simulation.
+     *
+     * @return The concentration based modules.
+     */
+    protected List<ConcentrationBasedModule<?>> getConcentrationModules() {
+        List<ConcentrationBasedModule<?>> concentrationModules = new ArrayList<>();
+        for (UpdateModule module : scheduler.getModules()) {
+            if (module instanceof ConcentrationBasedModule) {
+                concentrationModules.add((ConcentrationBasedModule<?>) module);
+            }
+        }
+        return concentrationModules;
+    }
+
+    /**
+     * Calculates all modules that are not concentration based and evaluates whether their results are acceptable.
+     *
+     * @return True if the time step has been decreased and the attempt needs to be rejected.
+     */
+    protected boolean calculateOtherModules() {
+        TimeStepManager.setTimeStepRescaled(false);
+        scheduler.calculateModules(module -> !(module instanceof ConcentrationBasedModule));
+        return TimeStepManager.isTimeStepRescaled() || !displacementIsAcceptable();
+    }
+
+    /**
+     * Evaluates the global displacement deviation of vesicles, decreasing the time step if it is not acceptable.
+     *
+     * @return True if the deviation is acceptable.
+     */
+    private boolean displacementIsAcceptable() {
+        ErrorManager errorManager = scheduler.getErrorManager();
+        if (!scheduler.isSkipDisplacementChecks()) {
+            errorManager.evaluateGlobalDeviation();
+            if (!errorManager.globalDeviationIsAcceptable()) {
+                errorManager.resolveGlobalDeviationProblem();
+                return false;
+            }
+        } else {
+            for (Vesicle vesicle : scheduler.getSimulation().getVesicleLayer().getVesicles()) {
+                vesicle.calculateTotalDisplacement();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Cached partial deltas refer to the concentrations they have been calculated for and need to be cleared after
+     * the concentrations have been changed.
+     */
+    protected void clearCaches() {
+        if (scheduler.getSimulation().getGraph() != null) {
+            scheduler.getSimulation().getGraph().getNodes().forEach(AutomatonNode::clearCaches);
+        }
+    }
+
+    /**
+     * Scales the error of a delta by the tolerance for the given concentrations.
+     *
+     * @param concentration The concentration at the start of the epoch.
+     * @param delta The delta.
+     * @param error The estimated error of the delta.
+     * @return The scaled error.
+     */
+    protected double scaleError(double concentration, double delta, double error) {
+        double updatedConcentration = concentration + delta;
+        double scale = absoluteTolerance + relativeTolerance * Math.max(Math.abs(concentration), Math.abs(updatedConcentration));
+        return Math.abs(error) / scale;
+    }
+
+    /**
+     * Decreases the time step according to the given scaled error, that was too large (or not a number).
+     *
+     * @param scaledError The scaled error.
+     */
+    protected void decreaseTimeStep(double scaledError) {
+        TimeStepManager.decreaseTimeStep(LOCAL_ERROR, decreaseFactor(scaledError));
+    }
+
+    /**
+     * Returns the factor a step should be decreased by, if its scaled error was too large (or not a number).
+     *
+     * @param scaledError The scaled error.
+     * @return The factor.
+     */
+    protected double decreaseFactor(double scaledError) {
+        if (Double.isNaN(scaledError)) {
+            return MINIMAL_DECREASE;
+        }
+        return Math.max(MINIMAL_DECREASE, SAFETY_FACTOR * Math.pow(scaledError, -errorExponent()));
+    }
+
+    /**
+     * Returns the factor a step may be increased by, if its scaled error was acceptable.
+     *
+     * @param scaledError The scaled error.
+     * @return The factor.
+     */
+    protected double increaseFactor(double scaledError) {
+        if (scaledError == 0.0) {
+            return MAXIMAL_INCREASE;
+        }
+        return Math.min(MAXIMAL_INCREASE, SAFETY_FACTOR * Math.pow(scaledError, -errorExponent()));
+    }
+
+    /**
+     * Discards all deltas and displacements of the current attempt.
+     *
+     * @param updatables The updatables.
+     */
+    protected void reject(List<Updatable> updatables) {
+        countRejectedStep();
+        scheduler.getErrorManager().resetLocalDisplacementDeviation();
+        scheduler.getSimulation().getVesicleLayer().clearUpdates();
+        for (UpdateModule module : scheduler.getModules()) {
+            module.reset();
+        }
+        scheduler.revertConcentrations(updatables);
+        for (Updatable updatable : updatables) {
+            updatable.getConcentrationManager().clearPotentialDeltas();
+        }
+    }
+
+    /**
+     * Determines whether any of the assigned deltas would result in negative concentrations, decreasing the time step
+     * if this is the case.
+     *
+     * @param updatables The updatables.
+     * @return True if the time step has been decreased and the attempt needs to be rejected.
+     */
+    protected boolean evaluateCapping(List<Updatable> updatables) {
+        for (Updatable updatable : updatables) {
+            if (updatable.getConcentrationManager().concentrationIsAtCap()) {
+                TimeStepManager.decreaseTimeStep(NEGATIVE_CONCENTRATIONS);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Accepts the current attempt with the given scaled error and determines the factor the time step should be
+     * increased by. The time step is not increased directly after a rejection.
+     *
+     * @param scaledError The largest scaled error of the accepted attempt.
+     * @param rejected True if an attempt has been rejected during the current epoch.
+     */
+    protected void accept(double scaledError, boolean rejected) {
+        errorNorm = scaledError;
+        double increase = increaseFactor(scaledError);
+        if (rejected) {
+            increase = Math.min(1.0, increase);
+        }
+        proposedIncrease = increase;
+    }
+
+    /**
+     * Counts a rejected attempt.
+     */
+    protected void countRejectedStep() {
+        rejectedSteps++;
+    }
+
+    private double errorExponent() {
+        return 1.0 / (getErrorOrder() + 1);
+    }
+
+    @Override
+    public boolean timeStepShouldIncrease() {
+        return proposedIncrease > 1.0;
+    }
+
+    @Override
+    public void increaseTimeStep() {
+        double increase = proposedIncrease;
+        Simulation simulation = scheduler.getSimulation();
+        Quantity<Time> maximalTimeStep = simulation.getMaximalTimeStep();
+        if (maximalTimeStep != null) {
+            double currentTimeStep = UnitRegistry.getTime().to(maximalTimeStep.getUnit()).getValue().doubleValue();
+            increase = Math.min(increase, maximalTimeStep.getValue().doubleValue() / currentTimeStep);
+        }
+        if (increase > 1.0) {
+            TimeStepManager.increaseTimeStep(increase);
+        }
+    }
+
+    public double getRelativeTolerance() {
+        return relativeTolerance;
+    }
+
+    /**
+     * Sets the tolerance relative to the concentrations.
+     *
+     * @param relativeTolerance The relative tolerance.
+     */
+    public void setRelativeTolerance(double relativeTolerance) {
+        if (relativeTolerance <= 0.0) {
+            throw new IllegalArgumentException("The relative tolerance has to be positive.");
+        }
+        this.relativeTolerance = relativeTolerance;
+    }
+
+    public double getAbsoluteTolerance() {
+        return absoluteTolerance;
+    }
+
+    /**
+     * Sets the absolute tolerance (in the concentration unit of the {@link UnitRegistry}).
+     *
+     * @param absoluteTolerance The absolute tolerance.
+     */
+    public void setAbsoluteTolerance(double absoluteTolerance) {
+        if (absoluteTolerance < 0.0) {
+            throw new IllegalArgumentException("The absolute tolerance must not be negative.");
+        }
+        this.absoluteTolerance = absoluteTolerance;
+    }
+
+    /**
+     * Returns the largest scaled error of the last accepted epoch (values up to one are acceptable).
+     *
+     * @return The largest scaled error.
+     */
+    public double getErrorNorm() {
+        return errorNorm;
+    }
+
+    /**
+     * Returns the number of rejected attempts since the start of the simulation.
+     *
+     * @return The number of rejected attempts.
+     */
+    public long getRejectedSteps() {
+        return rejectedSteps;
+    }
+
+}
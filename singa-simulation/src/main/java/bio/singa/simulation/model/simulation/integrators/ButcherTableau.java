@@ -0,0 +1,157 @@
+package bio.singa.simulation.model.simulation.integrators;
+
+/**
+ * The Butcher tableau defines an explicit embedded Runge-Kutta scheme. Each stage is evaluated at the concentrations
+ * resulting from the weighted deltas of all previous stages. The deltas of all stages are combined with the weights of
+ * the solution to determine the accepted deltas and with the weights of the embedded solution to estimate the error.
+ * Both solutions only differ in their weights, such that the error estimate requires no further evaluations.
+ *
+ * @author cl
+ */
+public class ButcherTableau {
+
+    /**
+     * The Bogacki-Shampine scheme, a third order scheme with an embedded second order solution, requiring four
+     * stages.
+     */
+    public static final ButcherTableau BOGACKI_SHAMPINE = new ButcherTableau("Bogacki-Shampine", 3, 2,
+            new double[][]{
+                    {},
+                    {1.0 / 2.0},
+                    {0.0, 3.0 / 4.0},
+                    {2.0 / 9.0, 1.0 / 3.0, 4.0 / 9.0}
+            },
+            new double[]{2.0 / 9.0, 1.0 / 3.0, 4.0 / 9.0, 0.0},
+            new double[]{7.0 / 24.0, 1.0 / 4.0, 1.0 / 3.0, 1.0 / 8.0});
+
+    /**
+     * The Dormand-Prince scheme, a fifth order scheme with an embedded fourth order solution, requiring seven stages.
+     */
+    public static final ButcherTableau DORMAND_PRINCE = new ButcherTableau("Dormand-Prince", 5, 4,
+            new double[][]{
+                    {},
+                    {1.0 / 5.0},
+                    {3.0 / 40.0, 9.0 / 40.0},
+                    {44.0 / 45.0, -56.0 / 15.0, 32.0 / 9.0},
+                    {19372.0 / 6561.0, -25360.0 / 2187.0, 64448.0 / 6561.0, -212.0 / 729.0},
+                    {9017.0 / 3168.0, -355.0 / 33.0, 46732.0 / 5247.0, 49.0 / 176.0, -5103.0 / 18656.0},
+                    {35.0 / 384.0, 0.0, 500.0 / 1113.0, 125.0 / 192.0, -2187.0 / 6784.0, 11.0 / 84.0}
+            },
+            new double[]{35.0 / 384.0, 0.0, 500.0 / 1113.0, 125.0 / 192.0, -2187.0 / 6784.0, 11.0 / 84.0, 0.0},
+            new double[]{5179.0 / 57600.0, 0.0, 7571.0 / 16695.0, 393.0 / 640.0, -92097.0 / 339200.0, 187.0 / 2100.0, 1.0 / 40.0});
+
+    /**
+     * The name of the scheme.
+     */
+    private final String name;
+
+    /**
+     * The order of the solution.
+     */
+    private final int order;
+
+    /**
+     * The order of the embedded solution.
+     */
+    private final int embeddedOrder;
+
+    /**
+     * The weights of the previous stages for each stage.
+     */
+    private final double[][] stageWeights;
+
+    /**
+     * The weights of the stages for the solution.
+     */
+    private final double[] solutionWeights;
+
+    /**
+     * The differences between the weights of the solution and the embedded solution.
+     */
+    private final double[] errorWeights;
+
+    /**
+     * Creates a new tableau.
+     *
+     * @param name The name of the scheme.
+     * @param order The order of the solution.
+     * @param embeddedOrder The order of the embedded solution.
+     * @param stageWeights The weights of all previous stages for each stage (the lower triangle of the tableau).
+     * @param solutionWeights The weights of the stages for the solution.
+     * @param embeddedWeights The weights of the stages for the embedded solution.
+     */
+    public ButcherTableau(String name, int order, int embeddedOrder, double[][] stageWeights, double[] solutionWeights, double[] embeddedWeights) {
+        int numberOfStages = stageWeights.length;
+        if (solutionWeights.length != numberOfStages || embeddedWeights.length != numberOfStages) {
+            throw new IllegalArgumentException("The tableau " + name + " requires weights for each of its " + numberOfStages + " stages.");
+        }
+        for (int stage = 0; stage < numberOfStages; stage++) {
+            if (stageWeights[stage].length != stage) {
+                throw new IllegalArgumentException("Stage " + stage + " of the tableau " + name + " requires the weights of " + stage + " previous stages.");
+            }
+        }
+        this.name = name;
+        this.order = order;
+        this.embeddedOrder = embeddedOrder;
+        this.stageWeights = stageWeights;
+        this.solutionWeights = solutionWeights;
+        errorWeights = new double[numberOfStages];
+        for (int stage = 0; stage < numberOfStages; stage++) {
+            errorWeights[stage] = solutionWeights[stage] - embeddedWeights[stage];
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getOrder() {
+        return order;
+    }
+
+    public int getEmbeddedOrder() {
+        return embeddedOrder;
+    }
+
+    public int getNumberOfStages() {
+        return stageWeights.length;
+    }
+
+    /**
+     * Returns the weight of the deltas of the previous stage for the concentrations of the given stage.
+     *
+     * @param stage The stage.
+     * @param previousStage The previous stage.
+     * @return The weight.
+     */
+    public double getStageWeight(int stage, int previousStage) {
+        return stageWeights[stage][previousStage];
+    }
+
+    /**
+     * Returns the weight of the deltas of the given stage for the solution.
+     *
+     * @param stage The stage.
+     * @return The weight.
+     */
+    public double getSolutionWeight(int stage) {
+        return solutionWeights[stage];
+    }
+
+    /**
+     * Returns the weight of the deltas of the given stage for the error estimate, i.e. the difference between the
+     * weights of the solution and the embedded solution.
+     *
+     * @param stage The stage.
+     * @return The weight.
+     */
+    public double getErrorWeight(int stage) {
+        return errorWeights[stage];
+    }
+
+    @Override
+    public String toString() {
+        return name + " " + order + "(" + embeddedOrder + ")";
+    }
+
+}
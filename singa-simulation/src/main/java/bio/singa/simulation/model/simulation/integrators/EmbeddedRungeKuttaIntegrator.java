@@ -0,0 +1,229 @@
+package bio.singa.simulation.model.simulation.integrators;
+
+import bio.singa.features.units.UnitRegistry;
+import bio.singa.simulation.entities.ChemicalEntity;
+import bio.singa.simulation.model.modules.UpdateModule;
+import bio.singa.simulation.model.modules.concentration.ConcentrationBasedModule;
+import bio.singa.simulation.model.modules.concentration.ConcentrationDeltaManager;
+import bio.singa.simulation.model.modules.concentration.DeltaBuffer;
+import bio.singa.simulation.model.sections.CellSubsection;
+import bio.singa.simulation.model.sections.ConcentrationContainer;
+import bio.singa.simulation.model.simulation.Updatable;
+import bio.singa.simulation.model.simulation.UpdateScheduler;
+import bio.singa.simulation.model.simulation.error.NumericalError;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+
+/**
+ * The embedded Runge-Kutta integrator calculates the deltas of all {@link ConcentrationBasedModule}s in the stages of
+ * an explicit embedded Runge-Kutta scheme, defined by a {@link ButcherTableau}. In each stage, all modules evaluate
+ * their delta functions once for the concentrations of the stage (see
+ * {@link ConcentrationBasedModule#evaluateDeltas()}). The error is estimated from the difference between the solution
+ * and the embedded solution, that are both determined from the same stages. Therefore, no half step calculations and
+ * no separate evaluation of the global error are required.
+ * <pre>
+ *  simulation.getScheduler().setIntegrator(new EmbeddedRungeKuttaIntegrator(ButcherTableau.DORMAND_PRINCE)); </pre>
+ * The error is controlled as described in {@link AdaptiveIntegrator}.
+ *
+ * @author cl
+ */
+public class EmbeddedRungeKuttaIntegrator extends AdaptiveIntegrator {
+
+    private static final Logger logger = LoggerFactory.getLogger(EmbeddedRungeKuttaIntegrator.class);
+
+    /**
+     * The scheme.
+     */
+    private final ButcherTableau tableau;
+
+    /**
+     * The deltas of each stage for each updatable.
+     */
+    private Map<Updatable, StageDeltas> stageDeltas;
+
+    /**
+     * Creates a new integrator using the {@link ButcherTableau#DORMAND_PRINCE Dormand-Prince} scheme.
+     */
+    public EmbeddedRungeKuttaIntegrator() {
+        this(ButcherTableau.DORMAND_PRINCE);
+    }
+
+    /**
+     * Creates a new integrator using the given scheme.
+     *
+     * @param tableau The scheme.
+     */
+    public EmbeddedRungeKuttaIntegrator(ButcherTableau tableau) {
+        this.tableau = tableau;
+        stageDeltas = new HashMap<>();
+    }
+
+    @Override
+    public void initialize(UpdateScheduler scheduler) {
+        super.initialize(scheduler);
+        logger.debug("Integrating using the {} scheme.", tableau);
+    }
+
+    @Override
+    public void calculateDeltas() {
+        List<Updatable> updatables = scheduler.getUpdatables();
+        prepareStageDeltas(updatables);
+        List<ConcentrationBasedModule<?>> concentrationModules = getConcentrationModules();
+        boolean rejected = false;
+        while (true) {
+            // modules that are not concentration based are calculated once
+            if (calculateOtherModules()) {
+                reject(updatables);
+                rejected = true;
+                continue;
+            }
+            for (Updatable updatable : updatables) {
+                StageDeltas deltas = stageDeltas.get(updatable);
+                deltas.clear();
+                updatable.getConcentrationManager().transferPotentialDeltas(deltas.getFixedDeltas());
+            }
+            // evaluate stages
+            for (int stage = 0; stage < tableau.getNumberOfStages(); stage++) {
+                if (stage > 0) {
+                    setStageConcentrations(updatables, stage);
+                }
+                scheduler.calculateModules(concentrationModules, ConcentrationBasedModule::evaluateDeltas);
+                for (Updatable updatable : updatables) {
+                    updatable.getConcentrationManager().transferPotentialDeltas(stageDeltas.get(updatable).getStage(stage));
+                }
+            }
+            // combine stages and estimate error
+            double currentErrorNorm = combineStages(updatables);
+            if (!(currentErrorNorm <= 1.0)) {
+                // error is too large (or not a number)
+                logger.debug("Rejected time step {} with scaled error {}.", UnitRegistry.getTime(), currentErrorNorm);
+                decreaseTimeStep(currentErrorNorm);
+                reject(updatables);
+                rejected = true;
+                continue;
+            }
+            // assign accepted deltas
+            assignDeltas(updatables);
+            if (evaluateCapping(updatables)) {
+                reject(updatables);
+                rejected = true;
+                continue;
+            }
+            accept(currentErrorNorm, rejected);
+            return;
+        }
+    }
+
+    /**
+     * Ensures that there is a delta storage for every updatable, retaining the storage of previous epochs.
+     *
+     * @param updatables The updatables.
+     */
+    private void prepareStageDeltas(List<Updatable> updatables) {
+        Map<Updatable, StageDeltas> currentStageDeltas = new HashMap<>();
+        for (Updatable updatable : updatables) {
+            StageDeltas deltas = stageDeltas.get(updatable);
+            if (deltas == null) {
+                deltas = new StageDeltas(tableau.getNumberOfStages());
+            }
+            currentStageDeltas.put(updatable, deltas);
+        }
+        stageDeltas = currentStageDeltas;
+    }
+
+    /**
+     * Sets the current concentrations of all updatables to the concentrations of the given stage.
+     *
+     * @param updatables The updatables.
+     * @param stage The stage.
+     */
+    private void setStageConcentrations(List<Updatable> updatables, int stage) {
+        scheduler.revertConcentrations(updatables);
+        for (Updatable updatable : updatables) {
+            ConcentrationDeltaManager concentrationManager = updatable.getConcentrationManager();
+            ConcentrationContainer container = concentrationManager.getConcentrationContainer();
+            StageDeltas deltas = stageDeltas.get(updatable);
+            for (int previousStage = 0; previousStage < stage; previousStage++) {
+                double weight = tableau.getStageWeight(stage, previousStage);
+                if (weight == 0.0) {
+                    continue;
+                }
+                DeltaBuffer previousDeltas = deltas.getStage(previousStage);
+                for (int index = 0; index < previousDeltas.size(); index++) {
+                    CellSubsection subsection = previousDeltas.getSubsection(index);
+                    ChemicalEntity entity = previousDeltas.getEntity(index);
+                    container.set(subsection, entity, container.get(subsection, entity) + weight * previousDeltas.getValue(index));
+                }
+            }
+        }
+        clearCaches();
+    }
+
+    /**
+     * Combines the deltas of all stages, reverts the concentrations of all updatables and returns the largest scaled
+     * error.
+     *
+     * @param updatables The updatables.
+     * @return The largest scaled error.
+     */
+    private double combineStages(List<Updatable> updatables) {
+        double largestError = 0.0;
+        Updatable errorUpdatable = null;
+        int errorIndex = -1;
+        scheduler.revertConcentrations(updatables);
+        for (Updatable updatable : updatables) {
+            ConcentrationDeltaManager concentrationManager = updatable.getConcentrationManager();
+            ConcentrationContainer concentrations = concentrationManager.getConcentrationContainer();
+            StageDeltas deltas = stageDeltas.get(updatable);
+            deltas.combine(tableau);
+            DeltaBuffer solution = deltas.getSolution();
+            for (int index = 0; index < solution.size(); index++) {
+                double concentration = concentrations.get(solution.getSubsection(index), solution.getEntity(index));
+                double error = scaleError(concentration, solution.getValue(index), deltas.getError(index));
+                if (Double.isNaN(error)) {
+                    return Double.NaN;
+                }
+                if (error > largestError) {
+                    largestError = error;
+                    errorUpdatable = updatable;
+                    errorIndex = index;
+                }
+            }
+        }
+        if (errorUpdatable != null) {
+            DeltaBuffer solution = stageDeltas.get(errorUpdatable).getSolution();
+            NumericalError error = new NumericalError(errorUpdatable, solution.getEntity(errorIndex), largestError);
+            scheduler.getErrorManager().setLargestLocalNumericalError(error, solution.getModule(errorIndex), solution.getValue(errorIndex));
+        }
+        return largestError;
+    }
+
+    /**
+     * Assigns the combined deltas and the deltas of modules that are not concentration based as potential deltas.
+     *
+     * @param updatables The updatables.
+     */
+    private void assignDeltas(List<Updatable> updatables) {
+        for (Updatable updatable : updatables) {
+            ConcentrationDeltaManager concentrationManager = updatable.getConcentrationManager();
+            StageDeltas deltas = stageDeltas.get(updatable);
+            for (DeltaBuffer buffer : new DeltaBuffer[]{deltas.getFixedDeltas(), deltas.getSolution()}) {
+                for (int index = 0; index < buffer.size(); index++) {
+                    concentrationManager.addPotentialDelta(buffer.getModule(index), buffer.getSubsection(index), buffer.getEntity(index), buffer.getValue(index));
+                }
+            }
+        }
+    }
+
+    @Override
+    protected int getErrorOrder() {
+        return Math.min(tableau.getOrder(), tableau.getEmbeddedOrder());
+    }
+
+    public ButcherTableau getTableau() {
+        return tableau;
+    }
+
+}
@@ -0,0 +1,121 @@
+package bio.singa.simulation.model.simulation.integrators;
+
+import java.util.Arrays;
+
+/**
+ * A binary min-heap over a fixed number of elements (identified by their index), that are ordered by a priority. In
+ * contrast to the {@link java.util.PriorityQueue}, the position of each element in the heap is known, therefore the
+ * priority of any element can be updated in logarithmic time. Used by the {@link NextReactionMethod} to determine the
+ * next reaction channel to fire.
+ *
+ * @author cl
+ */
+class IndexedPriorityQueue {
+
+    /**
+     * The priority of each element.
+     */
+    private final double[] priorities;
+
+    /**
+     * The elements in heap order.
+     */
+    private final int[] heap;
+
+    /**
+     * The position of each element in the heap.
+     */
+    private final int[] positions;
+
+    /**
+     * Creates a new queue for the given number of elements, all elements have a priority of positive infinity.
+     *
+     * @param size The number of elements.
+     */
+    IndexedPriorityQueue(int size) {
+        priorities = new double[size];
+        Arrays.fill(priorities, Double.POSITIVE_INFINITY);
+        heap = new int[size];
+        positions = new int[size];
+        for (int element = 0; element < size; element++) {
+            heap[element] = element;
+            positions[element] = element;
+        }
+    }
+
+    /**
+     * Returns the element with the smallest priority.
+     *
+     * @return The element with the smallest priority.
+     */
+    int peek() {
+        return heap[0];
+    }
+
+    /**
+     * Returns the priority of the given element.
+     *
+     * @param element The element.
+     * @return The priority.
+     */
+    double getPriority(int element) {
+        return priorities[element];
+    }
+
+    /**
+     * Updates the priority of the given element and restores the heap order.
+     *
+     * @param element The element.
+     * @param priority The new priority.
+     */
+    void update(int element, double priority) {
+        double previousPriority = priorities[element];
+        priorities[element] = priority;
+        if (priority < previousPriority) {
+            siftUp(positions[element]);
+        } else if (priority > previousPriority) {
+            siftDown(positions[element]);
+        }
+    }
+
+    int size() {
+        return heap.length;
+    }
+
+    private void siftUp(int position) {
+        int element = heap[position];
+        while (position > 0) {
+            int parent = (position - 1) >>> 1;
+            if (priorities[heap[parent]] <= priorities[element]) {
+                break;
+            }
+            move(heap[parent], position);
+            position = parent;
+        }
+        move(element, position);
+    }
+
+    private void siftDown(int position) {
+        int element = heap[position];
+        int half = heap.length >>> 1;
+        while (position < half) {
+            int child = 2 * position + 1;
+            int right = child + 1;
+            if (right < heap.length && priorities[heap[right]] < priorities[heap[child]]) {
+                child = right;
+            }
+            if (priorities[element] <= priorities[heap[child]]) {
+                break;
+            }
+            move(heap[child], position);
+            position = child;
+        }
+        move(element, position);
+    }
+
+    private void move(int element, int position) {
+        heap[position] = element;
+        positions[element] = position;
+    }
+
+}
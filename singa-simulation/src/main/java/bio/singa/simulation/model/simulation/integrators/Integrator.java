@@ -0,0 +1,43 @@
+package bio.singa.simulation.model.simulation.integrators;
+
+import bio.singa.simulation.model.simulation.UpdateScheduler;
+
+/**
+ * The integrator determines how the {@link UpdateScheduler} calculates the modules of an epoch, how the error of the
+ * resulting deltas is estimated and how the time step is adapted. The default {@link StepDoublingIntegrator} compares
+ * full and half step deltas of each module, the {@link EmbeddedRungeKuttaIntegrator} estimates the error from the
+ * stages of an embedded Runge-Kutta scheme and the {@link RosenbrockIntegrator} treats stiff reactions implicitly. The
+ * {@link StrangSplittingIntegrator} sub-steps reactions independently for each updatable between transport steps.
+ *
+ * @author cl
+ */
+public interface Integrator {
+
+    /**
+     * Initializes the integrator for the given scheduler, before the first epoch is calculated.
+     *
+     * @param scheduler The scheduler.
+     */
+    void initialize(UpdateScheduler scheduler);
+
+    /**
+     * Calculates the modules for the current epoch, decreasing the time step until the error is acceptable. After
+     * this method returns, the potential deltas of all updatables contain the accepted deltas. The concentrations of
+     * all updatables have been backed up before, see
+     * {@link bio.singa.simulation.model.modules.concentration.ConcentrationDeltaManager#backupConcentrations()}.
+     */
+    void calculateDeltas();
+
+    /**
+     * Returns true if the time step should be increased after the current epoch.
+     *
+     * @return True if the time step should be increased.
+     */
+    boolean timeStepShouldIncrease();
+
+    /**
+     * Increases the time step after the current epoch.
+     */
+    void increaseTimeStep();
+
+}
@@ -0,0 +1,714 @@
+package bio.singa.simulation.model.simulation.integrators;
+
+import bio.singa.chemistry.features.reactions.BackwardsRateConstant;
+import bio.singa.chemistry.features.reactions.ForwardsRateConstant;
+import bio.singa.chemistry.features.reactions.RateConstant;
+import bio.singa.chemistry.features.reactions.ZeroOrderRateConstant;
+import bio.singa.features.quantities.MolarConcentration;
+import bio.singa.features.units.UnitRegistry;
+import bio.singa.simulation.entities.ChemicalEntity;
+import bio.singa.simulation.model.graphs.AutomatonNode;
+import bio.singa.simulation.model.modules.concentration.ConcentrationDeltaIdentifier;
+import bio.singa.simulation.model.modules.concentration.DeltaBuffer;
+import bio.singa.simulation.model.modules.concentration.FieldSupplier;
+import bio.singa.simulation.model.modules.concentration.imlementations.reactions.Reaction;
+import bio.singa.simulation.model.modules.concentration.imlementations.reactions.ReactionEvent;
+import bio.singa.simulation.model.modules.concentration.imlementations.reactions.behaviors.deltas.ReactantDelta;
+import bio.singa.simulation.model.modules.concentration.imlementations.reactions.behaviors.kineticlaws.AbstractKineticLaw;
+import bio.singa.simulation.model.modules.concentration.imlementations.reactions.behaviors.kineticlaws.IrreversibleKineticLaw;
+import bio.singa.simulation.model.modules.concentration.imlementations.reactions.behaviors.kineticlaws.KineticLaw;
+import bio.singa.simulation.model.modules.concentration.imlementations.reactions.behaviors.kineticlaws.ReversibleKineticLaw;
+import bio.singa.simulation.model.modules.concentration.imlementations.reactions.behaviors.reactants.Reactant;
+import bio.singa.simulation.model.modules.concentration.imlementations.reactions.behaviors.reactants.ReactantSet;
+import bio.singa.simulation.model.sections.CellSubsection;
+import bio.singa.simulation.model.sections.CellTopology;
+import bio.singa.simulation.model.sections.ConcentrationContainer;
+import bio.singa.simulation.model.sections.ConcentrationPool;
+import bio.singa.simulation.model.simulation.Updatable;
+
+import javax.measure.Quantity;
+import javax.measure.quantity.Time;
+import java.util.*;
+import java.util.function.Predicate;
+
+/**
+ * The next reaction method (Gibson and Bruck, 2000) simulates the {@link Reaction}s of a single {@link Updatable}
+ * stochastically, one reaction event at a time. Each reactant set of a reaction is a reaction channel, whose
+ * propensity (the expected number of events per time step) is derived from the reaction:
+ * <ul>
+ *     <li> {@link IrreversibleKineticLaw}s and {@link ReversibleKineticLaw}s are mass action channels, reversible
+ *     reactions are split into a forward and a backward channel. Species that are consumed with a stoichiometric
+ *     number n contribute the number of ordered selections x(x-1)...(x-n+1) of their x molecules, e.g. x(x-1) for
+ *     dimerizations, which corresponds to the combinatorial propensity c x(x-1)/2 with c = 2k/(V N<sub>A</sub>).
+ *     <li> All other {@link KineticLaw}s are evaluated for the current concentrations, the channel fires in the
+ *     direction of the resulting velocity.
+ * </ul>
+ * The putative firing time of each channel is stored in an {@link IndexedPriorityQueue}. After a channel fired, only
+ * the propensities of channels depending on the changed species are updated (dependency graph) and their firing
+ * times are rescaled, such that only one random number is drawn per event.
+ * <p>
+ * Concentrations are changed in the container of the updatable in units of single molecules, fractions of molecules
+ * (e.g. resulting from deterministic transport) are retained. The propensities use the scaled rates of the current
+ * time step, therefore time is measured in fractions of the current time step. The resulting changes are attributed
+ * to the reactions they originate from (see {@link #getDeltas()}). Since the state of the method is derived from the
+ * concentrations at the start of each call of {@link #simulate(double)}, many replicates can be simulated by
+ * restoring the initial concentrations in between.
+ * <pre>
+ *  NextReactionMethod method = new NextReactionMethod(node, reactions, new Random(seed));
+ *  method.simulate(Quantities.getQuantity(1.0, SECOND)); </pre>
+ * Reactants must refer to subsections of the updatable itself. For updatables other than {@link AutomatonNode}s,
+ * such as vesicles, all reactants must be located in the membrane (see {@link #supports(Updatable, Collection)}).
+ *
+ * @author cl
+ */
+public class NextReactionMethod {
+
+    /**
+     * Tolerance when converting concentrations to numbers of molecules.
+     */
+    private static final double MOLECULE_TOLERANCE = 1e-6;
+
+    /**
+     * The simulated updatable.
+     */
+    private final Updatable updatable;
+
+    /**
+     * The source of randomness.
+     */
+    private final Random random;
+
+    /**
+     * The concentration of a single molecule.
+     */
+    private final double moleculeConcentration;
+
+    /**
+     * The subsection of each species.
+     */
+    private final List<CellSubsection> speciesSubsections;
+
+    /**
+     * The entity of each species.
+     */
+    private final List<ChemicalEntity> speciesEntities;
+
+    /**
+     * The number of (whole) molecules of each species.
+     */
+    private double[] molecules;
+
+    /**
+     * The reaction channels.
+     */
+    private final List<Channel> channels;
+
+    /**
+     * The channels, whose propensities have to be updated after a channel fired.
+     */
+    private final int[][] dependents;
+
+    /**
+     * The current propensity of each channel.
+     */
+    private final double[] propensities;
+
+    /**
+     * The putative firing time of each channel.
+     */
+    private final IndexedPriorityQueue queue;
+
+    /**
+     * The deltas of the last simulation, attributed to the reactions.
+     */
+    private final DeltaBuffer deltas;
+
+    /**
+     * The reaction of each delta slot, a slot combines the changes of a reaction to a species.
+     */
+    private final List<Reaction> slotReactions;
+
+    /**
+     * The species of each delta slot.
+     */
+    private final List<Integer> slotSpecies;
+
+    /**
+     * The accumulated delta of each slot during the last simulation.
+     */
+    private double[] slotDeltas;
+
+    /**
+     * True for each slot that has been changed during the last simulation.
+     */
+    private boolean[] changedSlots;
+
+    /**
+     * The number of events since the creation of the method.
+     */
+    private long events;
+
+    /**
+     * Creates a new next reaction method for the given updatable and all reactions that are applicable to it.
+     *
+     * @param updatable The updatable.
+     * @param reactions The reactions.
+     * @param random The source of randomness.
+     * @throws IllegalArgumentException if any reactant does not refer to a subsection of the updatable.
+     */
+    public NextReactionMethod(Updatable updatable, Collection<Reaction> reactions, Random random) {
+        this.updatable = updatable;
+        this.random = random;
+        moleculeConcentration = MolarConcentration.moleculesToConcentration(1.0);
+        speciesSubsections = new ArrayList<>();
+        speciesEntities = new ArrayList<>();
+        channels = new ArrayList<>();
+        slotReactions = new ArrayList<>();
+        slotSpecies = new ArrayList<>();
+        for (Reaction reaction : reactions) {
+            if (!reaction.getApplicationCondition().test(updatable)) {
+                continue;
+            }
+            for (ReactantSet reactantSet : reaction.getReactantBehavior().getReactantSets()) {
+                addChannels(reaction, reactantSet);
+            }
+        }
+        molecules = new double[speciesEntities.size()];
+        propensities = new double[channels.size()];
+        queue = new IndexedPriorityQueue(channels.size());
+        dependents = determineDependents();
+        deltas = new DeltaBuffer();
+        slotDeltas = new double[slotReactions.size()];
+        changedSlots = new boolean[slotReactions.size()];
+    }
+
+    /**
+     * Returns true if all reactants of the reactions applicable to the given updatable refer to subsections of the
+     * updatable.
+     *
+     * @param updatable The updatable.
+     * @param reactions The reactions.
+     * @return True, if the reactions of the updatable can be simulated stochastically.
+     */
+    public static boolean supports(Updatable updatable, Collection<Reaction> reactions) {
+        ConcentrationContainer container = updatable.getConcentrationContainer();
+        for (Reaction reaction : reactions) {
+            if (!reaction.getApplicationCondition().test(updatable)) {
+                continue;
+            }
+            for (ReactantSet reactantSet : reaction.getReactantBehavior().getReactantSets()) {
+                for (List<Reactant> reactants : Arrays.asList(reactantSet.getSubstrates(), reactantSet.getProducts(), reactantSet.getCatalysts())) {
+                    for (Reactant reactant : reactants) {
+                        if (!supports(container, reactant)) {
+                            return false;
+                        }
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    private static boolean supports(ConcentrationContainer container, Reactant reactant) {
+        return container.getSubsection(reactant.getPreferredTopology()) != null;
+    }
+
+    /**
+     * Returns a condition, that is fulfilled for updatables, where no entity has more than the given number of
+     * molecules in any subsection. Integrators, that already know the reacting species of an updatable, only need
+     * to check those (see {@link #hasLowCopyNumber(double)}).
+     *
+     * @param maximalNumberOfMolecules The maximal number of molecules.
+     * @return The condition.
+     */
+    public static LowCopyNumber lowCopyNumber(double maximalNumberOfMolecules) {
+        return new LowCopyNumber(maximalNumberOfMolecules);
+    }
+
+    /**
+     * Returns true if no species of the reactions has more than the given number of molecules.
+     *
+     * @param maximalNumberOfMolecules The maximal number of molecules.
+     * @return True if no species has more than the given number of molecules.
+     */
+    public boolean hasLowCopyNumber(double maximalNumberOfMolecules) {
+        double maximalConcentration = MolarConcentration.moleculesToConcentration(maximalNumberOfMolecules);
+        ConcentrationContainer container = updatable.getConcentrationContainer();
+        for (int species = 0; species < speciesEntities.size(); species++) {
+            if (container.get(speciesSubsections.get(species), speciesEntities.get(species)) > maximalConcentration) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Adds the channels of the given reactant set.
+     *
+     * @param reaction The reaction.
+     * @param reactantSet The reactant set.
+     */
+    private void addChannels(Reaction reaction, ReactantSet reactantSet) {
+        // net changes of the forward direction
+        Map<Integer, Double> changes = new LinkedHashMap<>();
+        for (Reactant substrate : reactantSet.getSubstrates()) {
+            changes.merge(species(substrate), -substrate.getStoichiometricNumber(), Double::sum);
+        }
+        for (Reactant product : reactantSet.getProducts()) {
+            changes.merge(species(product), product.getStoichiometricNumber(), Double::sum);
+        }
+        changes.values().removeIf(change -> change == 0.0);
+        int[] changedSpecies = changes.keySet().stream().mapToInt(Integer::intValue).toArray();
+        double[] forwardChanges = changes.values().stream().mapToDouble(Double::doubleValue).toArray();
+        double[] backwardChanges = Arrays.stream(forwardChanges).map(change -> -change).toArray();
+        int[] substrates = species(reactantSet.getSubstrates());
+        int[] products = species(reactantSet.getProducts());
+        int[] slots = slots(reaction, changedSpecies);
+        KineticLaw kineticLaw = reaction.getKineticLaw();
+        if (kineticLaw instanceof IrreversibleKineticLaw || kineticLaw instanceof ReversibleKineticLaw) {
+            RateConstant<?> forwardRate = (RateConstant<?>) ((AbstractKineticLaw) kineticLaw).getRate(ForwardsRateConstant.class);
+            RateConstant<?> backwardRate = null;
+            if (kineticLaw instanceof ReversibleKineticLaw) {
+                backwardRate = (RateConstant<?>) ((AbstractKineticLaw) kineticLaw).getRate(BackwardsRateConstant.class);
+            }
+            if (!(forwardRate instanceof ZeroOrderRateConstant) && !(backwardRate instanceof ZeroOrderRateConstant)) {
+                channels.add(new Channel(reaction, reactantSet, forwardRate, substrates, orders(reactantSet.getSubstrates()), changedSpecies, forwardChanges, slots));
+                if (backwardRate != null) {
+                    channels.add(new Channel(reaction, reactantSet, backwardRate, products, orders(reactantSet.getProducts()), changedSpecies, backwardChanges, slots));
+                }
+                return;
+            }
+        }
+        // velocity is determined by the kinetic law
+        int[] catalysts = species(reactantSet.getCatalysts());
+        int[] reactants = new int[substrates.length + products.length + catalysts.length];
+        System.arraycopy(substrates, 0, reactants, 0, substrates.length);
+        System.arraycopy(products, 0, reactants, substrates.length, products.length);
+        System.arraycopy(catalysts, 0, reactants, substrates.length + products.length, catalysts.length);
+        channels.add(new Channel(reaction, reactantSet, null, reactants, null, changedSpecies, forwardChanges, slots));
+    }
+
+    /**
+     * Returns the stoichiometric number of each reactant, rounded to whole molecules.
+     */
+    private static int[] orders(List<Reactant> reactants) {
+        int[] orders = new int[reactants.size()];
+        for (int index = 0; index < reactants.size(); index++) {
+            orders[index] = Math.max(1, (int) Math.round(reactants.get(index).getStoichiometricNumber()));
+        }
+        return orders;
+    }
+
+    /**
+     * Returns the delta slot of the given reaction for each of the given species, assigning new slots if required.
+     */
+    private int[] slots(Reaction reaction, int[] changedSpecies) {
+        int[] slots = new int[changedSpecies.length];
+        for (int index = 0; index < changedSpecies.length; index++) {
+            int slot = -1;
+            for (int candidate = 0; candidate < slotReactions.size(); candidate++) {
+                if (slotReactions.get(candidate) == reaction && slotSpecies.get(candidate) == changedSpecies[index]) {
+                    slot = candidate;
+                    break;
+                }
+            }
+            if (slot < 0) {
+                slotReactions.add(reaction);
+                slotSpecies.add(changedSpecies[index]);
+                slot = slotReactions.size() - 1;
+            }
+            slots[index] = slot;
+        }
+        return slots;
+    }
+
+    private int[] species(List<Reactant> reactants) {
+        int[] indices = new int[reactants.size()];
+        for (int index = 0; index < reactants.size(); index++) {
+            indices[index] = species(reactants.get(index));
+        }
+        return indices;
+    }
+
+    /**
+     * Returns the index of the species of the reactant, assigning a new index if required.
+     */
+    private int species(Reactant reactant) {
+        CellTopology topology = reactant.getPreferredTopology();
+        CellSubsection subsection = updatable.getConcentrationContainer().getSubsection(topology);
+        if (subsection == null || (!(updatable instanceof AutomatonNode) && topology != CellTopology.MEMBRANE)) {
+            throw new IllegalArgumentException("The reactant " + reactant.getEntity() + " does not refer to a subsection of " + updatable.getStringIdentifier() + ".");
+        }
+        for (int index = 0; index < speciesEntities.size(); index++) {
+            if (speciesSubsections.get(index).equals(subsection) && speciesEntities.get(index).equals(reactant.getEntity())) {
+                return index;
+            }
+        }
+        speciesSubsections.add(subsection);
+        speciesEntities.add(reactant.getEntity());
+        return speciesEntities.size() - 1;
+    }
+
+    /**
+     * Determines the channels depending on the species changed by each channel.
+     *
+     * @return The dependent channels of each channel.
+     */
+    private int[][] determineDependents() {
+        // channels depending on each species
+        List<List<Integer>> speciesChannels = new ArrayList<>();
+        for (int species = 0; species < speciesEntities.size(); species++) {
+            speciesChannels.add(new ArrayList<>());
+        }
+        for (int channel = 0; channel < channels.size(); channel++) {
+            for (int species : channels.get(channel).reactants) {
+                if (!speciesChannels.get(species).contains(channel)) {
+                    speciesChannels.get(species).add(channel);
+                }
+            }
+        }
+        int[][] channelDependents = new int[channels.size()][];
+        for (int channel = 0; channel < channels.size(); channel++) {
+            Set<Integer> channelSet = new TreeSet<>();
+            channelSet.add(channel);
+            for (int species : channels.get(channel).changedSpecies) {
+                channelSet.addAll(speciesChannels.get(species));
+            }
+            channelDependents[channel] = channelSet.stream().mapToInt(Integer::intValue).toArray();
+        }
+        return channelDependents;
+    }
+
+    /**
+     * Simulates the reactions for the given time.
+     *
+     * @param time The time.
+     * @return The number of reaction events.
+     */
+    public long simulate(Quantity<Time> time) {
+        return simulate(time.to(UnitRegistry.getTimeUnit()).getValue().doubleValue() / UnitRegistry.getTime().to(UnitRegistry.getTimeUnit()).getValue().doubleValue());
+    }
+
+    /**
+     * Simulates the reactions for the given fraction of the current time step. The concentrations of the updatable
+     * are changed accordingly and the resulting deltas are available from {@link #getDeltas()}.
+     *
+     * @param fraction The fraction of the current time step.
+     * @return The number of reaction events.
+     */
+    public long simulate(double fraction) {
+        ConcentrationContainer container = updatable.getConcentrationContainer();
+        for (int species = 0; species < molecules.length; species++) {
+            molecules[species] = Math.floor(container.get(speciesSubsections.get(species), speciesEntities.get(species)) / moleculeConcentration + MOLECULE_TOLERANCE);
+        }
+        for (Channel channel : channels) {
+            channel.firings = 0;
+        }
+        for (int channel = 0; channel < channels.size(); channel++) {
+            propensities[channel] = determinePropensity(channel);
+            queue.update(channel, drawFiringTime(0.0, propensities[channel]));
+        }
+        long currentEvents = 0;
+        while (channels.size() > 0) {
+            int channel = queue.peek();
+            double time = queue.getPriority(channel);
+            if (time > fraction) {
+                break;
+            }
+            fire(channels.get(channel));
+            currentEvents++;
+            for (int dependent : dependents[channel]) {
+                double previousPropensity = propensities[dependent];
+                double propensity = determinePropensity(dependent);
+                propensities[dependent] = propensity;
+                if (dependent == channel || previousPropensity <= 0.0 || propensity <= 0.0) {
+                    queue.update(dependent, drawFiringTime(time, propensity));
+                } else {
+                    // rescale the remaining waiting time
+                    queue.update(dependent, time + (previousPropensity / propensity) * (queue.getPriority(dependent) - time));
+                }
+            }
+        }
+        events += currentEvents;
+        collectDeltas();
+        return currentEvents;
+    }
+
+    private double drawFiringTime(double time, double propensity) {
+        if (propensity <= 0.0) {
+            return Double.POSITIVE_INFINITY;
+        }
+        return time - Math.log(1.0 - random.nextDouble()) / propensity;
+    }
+
+    /**
+     * Returns the expected number of events of the given channel per time step.
+     *
+     * @param channelIndex The channel.
+     * @return The propensity.
+     */
+    private double determinePropensity(int channelIndex) {
+        Channel channel = channels.get(channelIndex);
+        if (channel.rate != null) {
+            double propensity = channel.rate.getScaledQuantity() / moleculeConcentration;
+            for (int index = 0; index < channel.reactants.length; index++) {
+                // species occurring in multiple reactants are counted by the molecules selected before
+                double availableMolecules = molecules[channel.reactants[index]] - channel.selectedMolecules[index];
+                for (int molecule = 0; molecule < channel.orders[index]; molecule++) {
+                    propensity *= Math.max(0.0, availableMolecules - molecule) * moleculeConcentration;
+                }
+            }
+            return propensity > 0.0 && isFeasible(channel, 1) ? propensity : 0.0;
+        }
+        double velocity = determineVelocity(channel);
+        channel.direction = velocity < 0.0 ? -1 : 1;
+        return velocity != 0.0 && isFeasible(channel, channel.direction) ? Math.abs(velocity) / moleculeConcentration : 0.0;
+    }
+
+    /**
+     * Returns true if there are enough molecules of the consumed species to fire in the given direction.
+     */
+    private boolean isFeasible(Channel channel, int direction) {
+        for (int index = 0; index < channel.changes.length; index++) {
+            double change = direction * channel.changes[index];
+            if (change < 0.0 && molecules[channel.changedSpecies[index]] + change < 0.0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Determines the velocity of a channel using the kinetic law of the reaction for the current concentrations.
+     *
+     * @param channel The channel.
+     * @return The velocity in concentration per time step.
+     */
+    private double determineVelocity(Channel channel) {
+        if (channel.changedSpecies.length == 0) {
+            return 0.0;
+        }
+        FieldSupplier supplier = channel.reaction.getSupplier();
+        boolean strutCalculation = supplier.isStrutCalculation();
+        List<ReactantDelta> reactantDeltas;
+        try {
+            supplier.setStrutCalculation(false);
+            reactantDeltas = new ReactionEvent(channel.reaction, channel.reactantSet).collectDeltas(updatable);
+        } finally {
+            supplier.setStrutCalculation(strutCalculation);
+        }
+        // the velocity is derived from the delta of the first changed species
+        CellSubsection subsection = speciesSubsections.get(channel.changedSpecies[0]);
+        ChemicalEntity entity = speciesEntities.get(channel.changedSpecies[0]);
+        double delta = 0.0;
+        for (ReactantDelta reactantDelta : reactantDeltas) {
+            ConcentrationDeltaIdentifier identifier = reactantDelta.getIdentifier();
+            if (identifier.getUpdatable() == updatable && identifier.getSubsection().equals(subsection) && identifier.getEntity().equals(entity)) {
+                delta += reactantDelta.getDelta();
+            }
+        }
+        return delta / channel.changes[0];
+    }
+
+    /**
+     * Applies a single event of the given channel.
+     *
+     * @param channel The channel.
+     */
+    private void fire(Channel channel) {
+        ConcentrationContainer container = updatable.getConcentrationContainer();
+        int direction = channel.rate != null ? 1 : channel.direction;
+        for (int index = 0; index < channel.changedSpecies.length; index++) {
+            int species = channel.changedSpecies[index];
+            double change = direction * channel.changes[index];
+            molecules[species] += change;
+            CellSubsection subsection = speciesSubsections.get(species);
+            ChemicalEntity entity = speciesEntities.get(species);
+            container.set(subsection, entity, Math.max(0.0, container.get(subsection, entity) + change * moleculeConcentration));
+        }
+        channel.firings += direction;
+    }
+
+    /**
+     * Combines the events of all channels to a single delta for each reaction, subsection and entity.
+     */
+    private void collectDeltas() {
+        deltas.clear();
+        Arrays.fill(slotDeltas, 0.0);
+        Arrays.fill(changedSlots, false);
+        for (Channel channel : channels) {
+            if (channel.firings == 0) {
+                continue;
+            }
+            for (int index = 0; index < channel.changedSpecies.length; index++) {
+                int slot = channel.slots[index];
+                slotDeltas[slot] += channel.firings * channel.changes[index] * moleculeConcentration;
+                changedSlots[slot] = true;
+            }
+        }
+        for (int slot = 0; slot < slotDeltas.length; slot++) {
+            if (changedSlots[slot]) {
+                int species = slotSpecies.get(slot);
+                deltas.add(slotReactions.get(slot), speciesSubsections.get(species), speciesEntities.get(species), slotDeltas[slot]);
+            }
+        }
+    }
+
+    /**
+     * Returns the changes of the last simulation, a single delta for each reaction, subsection and entity.
+     *
+     * @return The deltas.
+     */
+    public DeltaBuffer getDeltas() {
+        return deltas;
+    }
+
+    /**
+     * Returns the number of reaction channels.
+     *
+     * @return The number of reaction channels.
+     */
+    public int getNumberOfChannels() {
+        return channels.size();
+    }
+
+    /**
+     * Returns the number of reaction events since the creation of the method.
+     *
+     * @return The number of reaction events.
+     */
+    public long getEvents() {
+        return events;
+    }
+
+    public Updatable getUpdatable() {
+        return updatable;
+    }
+
+    /**
+     * A reaction channel, i.e. one direction of a reactant set.
+     */
+    private static class Channel {
+
+        /**
+         * The reaction.
+         */
+        private final Reaction reaction;
+
+        /**
+         * The reactant set.
+         */
+        private final ReactantSet reactantSet;
+
+        /**
+         * The mass action rate constant (null if the velocity is determined by the kinetic law).
+         */
+        private final RateConstant<?> rate;
+
+        /**
+         * The species determining the propensity.
+         */
+        private final int[] reactants;
+
+        /**
+         * The number of molecules of each reactant required per event (null if the velocity is determined by the
+         * kinetic law).
+         */
+        private final int[] orders;
+
+        /**
+         * The number of molecules of the species of each reactant, that are already selected by previous reactants of
+         * the same species (null if the velocity is determined by the kinetic law).
+         */
+        private final int[] selectedMolecules;
+
+        /**
+         * The species changed by the channel.
+         */
+        private final int[] changedSpecies;
+
+        /**
+         * The change of each species per event.
+         */
+        private final double[] changes;
+
+        /**
+         * The delta slot of each changed species.
+         */
+        private final int[] slots;
+
+        /**
+         * The direction of the current velocity (only if the velocity is determined by the kinetic law).
+         */
+        private int direction = 1;
+
+        /**
+         * The net number of events in the current simulation.
+         */
+        private long firings;
+
+        private Channel(Reaction reaction, ReactantSet reactantSet, RateConstant<?> rate, int[] reactants, int[] orders,
+                        int[] changedSpecies, double[] changes, int[] slots) {
+            this.reaction = reaction;
+            this.reactantSet = reactantSet;
+            this.rate = rate;
+            this.reactants = reactants;
+            this.orders = orders;
+            this.changedSpecies = changedSpecies;
+            this.changes = changes;
+            this.slots = slots;
+            if (orders != null) {
+                selectedMolecules = new int[reactants.length];
+                for (int index = 0; index < reactants.length; index++) {
+                    for (int previous = 0; previous < index; previous++) {
+                        if (reactants[previous] == reactants[index]) {
+                            selectedMolecules[index] += orders[previous];
+                        }
+                    }
+                }
+            } else {
+                selectedMolecules = null;
+            }
+        }
+
+    }
+
+    /**
+     * A condition, that is fulfilled for updatables, where no entity has more than a maximal number of molecules in
+     * any subsection.
+     */
+    public static class LowCopyNumber implements Predicate<Updatable> {
+
+        /**
+         * The maximal number of molecules.
+         */
+        private final double maximalNumberOfMolecules;
+
+        private LowCopyNumber(double maximalNumberOfMolecules) {
+            this.maximalNumberOfMolecules = maximalNumberOfMolecules;
+        }
+
+        public double getMaximalNumberOfMolecules() {
+            return maximalNumberOfMolecules;
+        }
+
+        @Override
+        public boolean test(Updatable updatable) {
+            double maximalConcentration = MolarConcentration.moleculesToConcentration(maximalNumberOfMolecules);
+            for (ConcentrationPool pool : updatable.getConcentrationContainer().getConcentrations()) {
+                if (pool == null) {
+                    continue;
+                }
+                // only the entities present in the pool
+                for (ChemicalEntity entity : pool.getReferencedEntities()) {
+                    if (pool.get(entity) > maximalConcentration) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+
+    }
+
+}
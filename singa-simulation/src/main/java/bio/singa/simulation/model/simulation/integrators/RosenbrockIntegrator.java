@@ -0,0 +1,746 @@
+package bio.singa.simulation.model.simulation.integrators;
+
+import bio.singa.features.units.UnitRegistry;
+import bio.singa.mathematics.algorithms.matrix.LUDecomposition;
+import bio.singa.simulation.entities.ChemicalEntity;
+import bio.singa.simulation.model.graphs.AutomatonNode;
+import bio.singa.simulation.model.modules.UpdateModule;
+import bio.singa.simulation.model.modules.concentration.ConcentrationBasedModule;
+import bio.singa.simulation.model.modules.concentration.ConcentrationDeltaManager;
+import bio.singa.simulation.model.modules.concentration.DeltaBuffer;
+import bio.singa.simulation.model.modules.concentration.imlementations.reactions.Reaction;
+import bio.singa.simulation.model.modules.concentration.imlementations.reactions.ReactionNetwork;
+import bio.singa.simulation.model.modules.concentration.imlementations.reactions.behaviors.reactants.Reactant;
+import bio.singa.simulation.model.modules.concentration.imlementations.reactions.behaviors.reactants.ReactantSet;
+import bio.singa.simulation.model.sections.CellSubsection;
+import bio.singa.simulation.model.sections.CellTopology;
+import bio.singa.simulation.model.sections.ConcentrationContainer;
+import bio.singa.simulation.model.simulation.Updatable;
+import bio.singa.simulation.model.simulation.UpdateScheduler;
+import bio.singa.simulation.model.simulation.error.NumericalError;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.measure.Quantity;
+import javax.measure.quantity.Time;
+import java.util.*;
+
+/**
+ * The Rosenbrock integrator treats {@link Reaction}s and {@link ReactionNetwork}s implicitly, such that fast
+ * reactions do not restrict the time step to the time scale of their equilibration. It implements the two stage,
+ * second order, L-stable Rosenbrock-W scheme ROS2 (Verwer et al. 1999):
+ * <pre>
+ *  (I - g * h * J) * k1 = h * f(y)
+ *  (I - g * h * J) * k2 = h * f(y + k1) - 2 * k1
+ *  y' = y + 3/2 * k1 + 1/2 * k2 </pre>
+ * The deltas of all {@link ConcentrationBasedModule}s are evaluated in both stages, but the Jacobian J only contains
+ * the derivatives of the reactions. Since ROS2 retains its order for approximate Jacobians, other modules (e.g.
+ * diffusion) are integrated explicitly. The error is estimated from the difference to the linearly implicit Euler
+ * solution {@code y + k1} and controlled as described in {@link AdaptiveIntegrator}.
+ * <pre>
+ *  simulation.getScheduler().setIntegrator(new RosenbrockIntegrator()); </pre>
+ * The Jacobian is assembled for each updatable separately, its sparsity is given by the reactants of the
+ * {@link ReactantSet}s of all reactions. Each column is determined by finite differences, perturbing the concentration
+ * of a reactant in all updatables at once, such that the number of evaluations of the reactions only depends on the
+ * number of distinct reactants. Dependencies between different updatables (such as reactions of vesicles depending
+ * on the concentrations of the associated nodes) are not part of the Jacobian. The Jacobian is determined once per
+ * epoch and rescaled if the time step is decreased. Variables without derivatives (e.g. entities that are only
+ * diffusing) are not coupled by the iteration matrix, such that only the variables of the reactions are decomposed
+ * using the {@link LUDecomposition}, reusing the arrays of previous decompositions.
+ * <p>
+ * Since the linear systems are solved for each module separately, the resulting deltas are still attributed to the
+ * modules they originate from.
+ *
+ * @author cl
+ */
+public class RosenbrockIntegrator extends AdaptiveIntegrator {
+
+    private static final Logger logger = LoggerFactory.getLogger(RosenbrockIntegrator.class);
+
+    /**
+     * The diagonal coefficient of the ROS2 scheme.
+     */
+    private static final double GAMMA = 1.0 + 1.0 / Math.sqrt(2.0);
+
+    /**
+     * The relative perturbation of concentrations to approximate derivatives.
+     */
+    private static final double PERTURBATION = Math.sqrt(Math.ulp(1.0));
+
+    /**
+     * The linear system of each updatable.
+     */
+    private Map<Updatable, LocalSystem> systems;
+
+    /**
+     * The time step the current Jacobian has been determined for.
+     */
+    private Quantity<Time> jacobianTimeStep;
+
+    /**
+     * The number of times the Jacobian has been determined since the start of the simulation.
+     */
+    private long jacobianEvaluations;
+
+    public RosenbrockIntegrator() {
+        systems = new HashMap<>();
+    }
+
+    @Override
+    public void initialize(UpdateScheduler scheduler) {
+        super.initialize(scheduler);
+        logger.debug("Integrating reactions using the linearly implicit ROS2 scheme.");
+    }
+
+    @Override
+    public void calculateDeltas() {
+        List<Updatable> updatables = scheduler.getUpdatables();
+        prepareSystems(updatables);
+        List<ConcentrationBasedModule<?>> concentrationModules = getConcentrationModules();
+        List<ConcentrationBasedModule<?>> reactions = new ArrayList<>();
+        for (ConcentrationBasedModule<?> module : concentrationModules) {
+            if (isReaction(module)) {
+                reactions.add(module);
+            }
+        }
+        boolean rejected = false;
+        boolean jacobianRequired = true;
+        while (true) {
+            // modules that are not concentration based are calculated once
+            if (calculateOtherModules()) {
+                reject(updatables);
+                rejected = true;
+                continue;
+            }
+            for (Updatable updatable : updatables) {
+                LocalSystem system = systems.get(updatable);
+                system.clear();
+                updatable.getConcentrationManager().transferPotentialDeltas(system.fixedDeltas);
+            }
+            // first stage
+            scheduler.calculateModules(concentrationModules, ConcentrationBasedModule::evaluateDeltas);
+            for (Updatable updatable : updatables) {
+                updatable.getConcentrationManager().transferPotentialDeltas(systems.get(updatable).firstStage);
+            }
+            if (jacobianRequired) {
+                determineJacobian(updatables, reactions);
+                jacobianRequired = false;
+            }
+            if (!solveFirstStage(updatables)) {
+                logger.debug("Rejected time step {} with singular iteration matrix.", UnitRegistry.getTime());
+                decreaseTimeStep(Double.NaN);
+                reject(updatables);
+                rejected = true;
+                continue;
+            }
+            // second stage
+            setIntermediateConcentrations(updatables);
+            scheduler.calculateModules(concentrationModules, ConcentrationBasedModule::evaluateDeltas);
+            for (Updatable updatable : updatables) {
+                updatable.getConcentrationManager().transferPotentialDeltas(systems.get(updatable).secondStage);
+            }
+            double currentErrorNorm = solveSecondStage(updatables);
+            if (!(currentErrorNorm <= 1.0)) {
+                // error is too large (or not a number)
+                logger.debug("Rejected time step {} with scaled error {}.", UnitRegistry.getTime(), currentErrorNorm);
+                decreaseTimeStep(currentErrorNorm);
+                reject(updatables);
+                rejected = true;
+                continue;
+            }
+            assignDeltas(updatables);
+            if (evaluateCapping(updatables)) {
+                reject(updatables);
+                rejected = true;
+                continue;
+            }
+            accept(currentErrorNorm, rejected);
+            return;
+        }
+    }
+
+    /**
+     * Ensures that there is a linear system for every updatable, retaining the systems of previous epochs.
+     *
+     * @param updatables The updatables.
+     */
+    private void prepareSystems(List<Updatable> updatables) {
+        Map<Updatable, LocalSystem> currentSystems = new HashMap<>();
+        for (Updatable updatable : updatables) {
+            LocalSystem system = systems.get(updatable);
+            if (system == null) {
+                system = new LocalSystem();
+            }
+            currentSystems.put(updatable, system);
+        }
+        systems = currentSystems;
+    }
+
+    /**
+     * Returns true if the module is a {@link Reaction} or a {@link ReactionNetwork} of compiled reactions.
+     *
+     * @param module The module.
+     * @return True if the module is part of the Jacobian.
+     */
+    private static boolean isReaction(UpdateModule module) {
+        return module instanceof Reaction || module instanceof ReactionNetwork;
+    }
+
+    /**
+     * Returns the reactions the given module is composed of.
+     *
+     * @param module The reaction or reaction network.
+     * @return The reactions.
+     */
+    private static List<Reaction> getCompiledReactions(ConcentrationBasedModule<?> module) {
+        if (module instanceof ReactionNetwork) {
+            return ((ReactionNetwork) module).getReactions();
+        }
+        return Collections.singletonList((Reaction) module);
+    }
+
+    /**
+     * Determines the Jacobian of the reactions for every updatable by finite differences. The deltas of the first
+     * stage are used as the unperturbed deltas.
+     *
+     * @param updatables The updatables.
+     * @param reactions The reactions.
+     */
+    private void determineJacobian(List<Updatable> updatables, List<ConcentrationBasedModule<?>> reactions) {
+        jacobianTimeStep = UnitRegistry.getTime();
+        jacobianEvaluations++;
+        List<Updatable> nodes = new ArrayList<>();
+        List<Updatable> others = new ArrayList<>();
+        for (Updatable updatable : updatables) {
+            systems.get(updatable).initializeJacobian();
+            if (updatable instanceof AutomatonNode) {
+                nodes.add(updatable);
+            } else {
+                others.add(updatable);
+            }
+        }
+        if (reactions.isEmpty()) {
+            return;
+        }
+        Set<Reactant> reactants = new LinkedHashSet<>();
+        for (ConcentrationBasedModule<?> module : reactions) {
+            for (Reaction reaction : getCompiledReactions(module)) {
+                for (ReactantSet reactantSet : reaction.getReactantBehavior().getReactantSets()) {
+                    reactants.addAll(reactantSet.getSubstrates());
+                    reactants.addAll(reactantSet.getProducts());
+                    reactants.addAll(reactantSet.getCatalysts());
+                }
+            }
+        }
+        // nodes and other updatables are perturbed separately, since reactions of vesicles also refer to nodes
+        perturbReactants(nodes, updatables, reactions, reactants);
+        perturbReactants(others, updatables, reactions, reactants);
+    }
+
+    private void perturbReactants(List<Updatable> perturbedUpdatables, List<Updatable> updatables, List<ConcentrationBasedModule<?>> reactions, Set<Reactant> reactants) {
+        if (perturbedUpdatables.isEmpty()) {
+            return;
+        }
+        Set<Updatable> perturbed = new HashSet<>(perturbedUpdatables);
+        Set<Map.Entry<CellTopology, ChemicalEntity>> visitedColumns = new HashSet<>();
+        for (Reactant reactant : reactants) {
+            CellTopology topology = reactant.getPreferredTopology();
+            ChemicalEntity entity = reactant.getEntity();
+            if (!visitedColumns.add(new AbstractMap.SimpleEntry<>(topology, entity))) {
+                continue;
+            }
+            // perturb the concentration of the reactant in all updatables
+            boolean anyPerturbed = false;
+            for (Updatable updatable : perturbedUpdatables) {
+                ConcentrationContainer container = updatable.getConcentrationContainer();
+                CellSubsection subsection = container.getSubsection(topology);
+                LocalSystem system = systems.get(updatable);
+                if (subsection == null) {
+                    system.perturbedColumn = -1;
+                    continue;
+                }
+                double concentration = container.get(subsection, entity);
+                double perturbation = PERTURBATION * Math.max(Math.abs(concentration), getAbsoluteTolerance());
+                if (perturbation == 0.0) {
+                    perturbation = PERTURBATION;
+                }
+                system.perturb(subsection, entity, concentration, perturbation);
+                container.set(subsection, entity, concentration + perturbation);
+                anyPerturbed = true;
+            }
+            if (!anyPerturbed) {
+                continue;
+            }
+            scheduler.calculateModules(reactions, ConcentrationBasedModule::evaluateDeltas);
+            for (Updatable updatable : updatables) {
+                ConcentrationDeltaManager concentrationManager = updatable.getConcentrationManager();
+                if (!perturbed.contains(updatable)) {
+                    concentrationManager.clearPotentialDeltas();
+                    continue;
+                }
+                LocalSystem system = systems.get(updatable);
+                if (system.perturbedColumn < 0) {
+                    concentrationManager.clearPotentialDeltas();
+                    continue;
+                }
+                concentrationManager.transferPotentialDeltas(system.perturbedDeltas);
+                system.addJacobianColumn();
+                // restore concentration
+                updatable.getConcentrationContainer().set(system.getSubsection(system.perturbedColumn), system.getEntity(system.perturbedColumn), system.perturbedConcentration);
+            }
+        }
+    }
+
+    /**
+     * Decomposes the iteration matrix of every updatable and solves the first stage.
+     *
+     * @param updatables The updatables.
+     * @return False if any iteration matrix is singular.
+     */
+    private boolean solveFirstStage(List<Updatable> updatables) {
+        Quantity<Time> timeStep = UnitRegistry.getTime();
+        double scale = timeStep.to(jacobianTimeStep.getUnit()).getValue().doubleValue() / jacobianTimeStep.getValue().doubleValue();
+        for (Updatable updatable : updatables) {
+            LocalSystem system = systems.get(updatable);
+            system.reference(system.firstStage);
+            try {
+                system.decompose(GAMMA * scale);
+            } catch (IllegalStateException e) {
+                return false;
+            }
+            system.solveFirstStage();
+        }
+        return true;
+    }
+
+    /**
+     * Sets the current concentrations of all updatables to the concentrations after the first stage.
+     *
+     * @param updatables The updatables.
+     */
+    private void setIntermediateConcentrations(List<Updatable> updatables) {
+        for (Updatable updatable : updatables) {
+            ConcentrationContainer container = updatable.getConcentrationContainer();
+            LocalSystem system = systems.get(updatable);
+            for (int variable = 0; variable < system.firstStageTotal.length; variable++) {
+                double delta = system.firstStageTotal[variable];
+                if (delta != 0.0) {
+                    CellSubsection subsection = system.getSubsection(variable);
+                    ChemicalEntity entity = system.getEntity(variable);
+                    container.set(subsection, entity, container.get(subsection, entity) + delta);
+                }
+            }
+        }
+        clearCaches();
+    }
+
+    /**
+     * Solves the second stage, combines both stages, reverts the concentrations of all updatables and returns the
+     * largest scaled error.
+     *
+     * @param updatables The updatables.
+     * @return The largest scaled error.
+     */
+    private double solveSecondStage(List<Updatable> updatables) {
+        double largestError = 0.0;
+        Updatable errorUpdatable = null;
+        int errorVariable = -1;
+        scheduler.revertConcentrations(updatables);
+        for (Updatable updatable : updatables) {
+            ConcentrationDeltaManager concentrationManager = updatable.getConcentrationManager();
+            ConcentrationContainer concentrations = concentrationManager.getConcentrationContainer();
+            LocalSystem system = systems.get(updatable);
+            system.solveSecondStage();
+            for (int variable = 0; variable < system.dimension; variable++) {
+                if (system.totalSolution[variable] == 0.0 && system.totalError[variable] == 0.0) {
+                    continue;
+                }
+                double concentration = concentrations.get(system.getSubsection(variable), system.getEntity(variable));
+                double error = scaleError(concentration, system.totalSolution[variable], system.totalError[variable]);
+                if (Double.isNaN(error)) {
+                    return Double.NaN;
+                }
+                if (error > largestError) {
+                    largestError = error;
+                    errorUpdatable = updatable;
+                    errorVariable = variable;
+                }
+            }
+        }
+        if (errorUpdatable != null) {
+            LocalSystem system = systems.get(errorUpdatable);
+            // report the module with the largest contribution
+            UpdateModule errorModule = null;
+            double largestDelta = -1.0;
+            for (Map.Entry<UpdateModule, double[]> entry : system.solutions.entrySet()) {
+                double delta = Math.abs(entry.getValue()[errorVariable]);
+                if (delta > largestDelta) {
+                    largestDelta = delta;
+                    errorModule = entry.getKey();
+                }
+            }
+            NumericalError error = new NumericalError(errorUpdatable, system.getEntity(errorVariable), largestError);
+            scheduler.getErrorManager().setLargestLocalNumericalError(error, errorModule, system.solutions.get(errorModule)[errorVariable]);
+        }
+        return largestError;
+    }
+
+    /**
+     * Assigns the combined deltas and the deltas of modules that are not concentration based as potential deltas.
+     *
+     * @param updatables The updatables.
+     */
+    private void assignDeltas(List<Updatable> updatables) {
+        for (Updatable updatable : updatables) {
+            ConcentrationDeltaManager concentrationManager = updatable.getConcentrationManager();
+            LocalSystem system = systems.get(updatable);
+            DeltaBuffer fixedDeltas = system.fixedDeltas;
+            for (int index = 0; index < fixedDeltas.size(); index++) {
+                concentrationManager.addPotentialDelta(fixedDeltas.getModule(index), fixedDeltas.getSubsection(index), fixedDeltas.getEntity(index), fixedDeltas.getValue(index));
+            }
+            for (Map.Entry<UpdateModule, double[]> entry : system.solutions.entrySet()) {
+                double[] solution = entry.getValue();
+                for (int variable = 0; variable < system.dimension; variable++) {
+                    if (solution[variable] != 0.0) {
+                        concentrationManager.addPotentialDelta(entry.getKey(), system.getSubsection(variable), system.getEntity(variable), solution[variable]);
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    protected int getErrorOrder() {
+        return 1;
+    }
+
+    /**
+     * Returns the number of times the Jacobian has been determined since the start of the simulation.
+     *
+     * @return The number of Jacobian evaluations.
+     */
+    public long getJacobianEvaluations() {
+        return jacobianEvaluations;
+    }
+
+    /**
+     * The linear system of a single updatable. Each variable is the concentration of an entity in a subsection.
+     */
+    private static class LocalSystem {
+
+        private final List<CellSubsection> subsections;
+        private final List<ChemicalEntity> entities;
+
+        /**
+         * The variable of each entity in each subsection, referenced by the index of the entity (shifted by one, zero
+         * if the variable has not been referenced).
+         */
+        private final Map<CellSubsection, int[]> variableIndices;
+
+        /**
+         * The number of variables.
+         */
+        private int dimension;
+
+        /**
+         * The Jacobian of the reactions, scaled to the time step it has been determined for.
+         */
+        private double[][] jacobian;
+
+        /**
+         * True for each variable, that has a derivative or influences the derivative of another variable.
+         */
+        private boolean[] coupled;
+
+        /**
+         * The deltas of the reactions for the unperturbed concentrations.
+         */
+        private double[] reactionDeltas;
+
+        /**
+         * The deltas of the reactions for the perturbed concentrations.
+         */
+        private double[] perturbedValues;
+
+        /**
+         * The decomposed iteration matrix of the coupled variables.
+         */
+        private double[][] decomposition;
+        private int[] permutation;
+
+        /**
+         * The coupled variables, when the iteration matrix has been decomposed.
+         */
+        private int[] coupledVariables;
+        private int coupledDimension;
+
+        /**
+         * Work arrays to solve the iteration matrix.
+         */
+        private double[] coupledValues;
+        private double[] intermediate;
+
+        private final DeltaBuffer fixedDeltas;
+        private final DeltaBuffer firstStage;
+        private final DeltaBuffer secondStage;
+        private final DeltaBuffer perturbedDeltas;
+
+        /**
+         * The variable that is currently perturbed, its original concentration and the perturbation.
+         */
+        private int perturbedColumn;
+        private double perturbedConcentration;
+        private double perturbation;
+
+        /**
+         * The solution of the first stage for each module and for all modules.
+         */
+        private final Map<UpdateModule, double[]> firstStageSolutions;
+        private double[] firstStageTotal;
+
+        /**
+         * The combined solution for each module.
+         */
+        private final Map<UpdateModule, double[]> solutions;
+
+        /**
+         * The combined solution and the error estimate for all modules. Since the stages of single modules are
+         * coupled by the iteration matrix, the error is only meaningful for the sum of all modules.
+         */
+        private double[] totalSolution;
+        private double[] totalError;
+
+        LocalSystem() {
+            subsections = new ArrayList<>();
+            entities = new ArrayList<>();
+            variableIndices = new HashMap<>();
+            jacobian = new double[0][0];
+            coupled = new boolean[0];
+            reactionDeltas = new double[0];
+            perturbedValues = new double[0];
+            decomposition = new double[0][0];
+            permutation = new int[0];
+            coupledVariables = new int[0];
+            coupledValues = new double[0];
+            intermediate = new double[0];
+            fixedDeltas = new DeltaBuffer();
+            firstStage = new DeltaBuffer();
+            secondStage = new DeltaBuffer();
+            perturbedDeltas = new DeltaBuffer();
+            firstStageSolutions = new LinkedHashMap<>();
+            firstStageTotal = new double[0];
+            solutions = new LinkedHashMap<>();
+        }
+
+        void clear() {
+            fixedDeltas.clear();
+            firstStage.clear();
+            secondStage.clear();
+            perturbedDeltas.clear();
+        }
+
+        CellSubsection getSubsection(int variable) {
+            return subsections.get(variable);
+        }
+
+        ChemicalEntity getEntity(int variable) {
+            return entities.get(variable);
+        }
+
+        /**
+         * Returns the index of the given variable, adding it if it has not been referenced before.
+         */
+        int variable(CellSubsection subsection, ChemicalEntity entity) {
+            int index = entity.getIndex();
+            int[] indices = variableIndices.get(subsection);
+            if (indices != null && index < indices.length && indices[index] > 0) {
+                return indices[index] - 1;
+            }
+            if (indices == null || index >= indices.length) {
+                indices = indices == null ? new int[Math.max(8, index + 1)] : Arrays.copyOf(indices, Math.max(indices.length * 2, index + 1));
+                variableIndices.put(subsection, indices);
+            }
+            subsections.add(subsection);
+            entities.add(entity);
+            dimension++;
+            indices[index] = dimension;
+            if (dimension > jacobian.length) {
+                int capacity = Math.max(4, dimension * 2);
+                double[][] resized = new double[capacity][capacity];
+                for (int row = 0; row < jacobian.length; row++) {
+                    System.arraycopy(jacobian[row], 0, resized[row], 0, jacobian.length);
+                }
+                jacobian = resized;
+                coupled = Arrays.copyOf(coupled, capacity);
+                reactionDeltas = Arrays.copyOf(reactionDeltas, capacity);
+            }
+            return dimension - 1;
+        }
+
+        /**
+         * Discards the previous Jacobian and references all variables of the first stage.
+         */
+        void initializeJacobian() {
+            for (int variable = 0; variable < dimension; variable++) {
+                variableIndices.get(subsections.get(variable))[entities.get(variable).getIndex()] = 0;
+            }
+            subsections.clear();
+            entities.clear();
+            for (int row = 0; row < dimension; row++) {
+                Arrays.fill(jacobian[row], 0, dimension, 0.0);
+            }
+            Arrays.fill(coupled, 0, dimension, false);
+            Arrays.fill(reactionDeltas, 0, dimension, 0.0);
+            dimension = 0;
+            for (int index = 0; index < firstStage.size(); index++) {
+                int variable = variable(firstStage.getSubsection(index), firstStage.getEntity(index));
+                if (isReaction(firstStage.getModule(index))) {
+                    reactionDeltas[variable] += firstStage.getValue(index);
+                }
+            }
+        }
+
+        void perturb(CellSubsection subsection, ChemicalEntity entity, double concentration, double perturbation) {
+            perturbedColumn = variable(subsection, entity);
+            perturbedConcentration = concentration;
+            this.perturbation = perturbation;
+        }
+
+        /**
+         * Determines the column of the perturbed variable from the deltas of the reactions for the perturbed
+         * concentrations.
+         */
+        void addJacobianColumn() {
+            reference(perturbedDeltas);
+            if (perturbedValues.length < dimension) {
+                perturbedValues = new double[jacobian.length];
+            }
+            Arrays.fill(perturbedValues, 0, dimension, 0.0);
+            for (int index = 0; index < perturbedDeltas.size(); index++) {
+                perturbedValues[variable(perturbedDeltas.getSubsection(index), perturbedDeltas.getEntity(index))] += perturbedDeltas.getValue(index);
+            }
+            for (int row = 0; row < dimension; row++) {
+                double derivative = (perturbedValues[row] - reactionDeltas[row]) / perturbation;
+                jacobian[row][perturbedColumn] = derivative;
+                if (derivative != 0.0) {
+                    coupled[row] = true;
+                    coupled[perturbedColumn] = true;
+                }
+            }
+            perturbedDeltas.clear();
+        }
+
+        /**
+         * Decomposes the iteration matrix {@code I - factor * J} of the coupled variables. The remaining rows and
+         * columns of the iteration matrix are the ones of the identity.
+         *
+         * @param factor The factor.
+         */
+        void decompose(double factor) {
+            if (coupledVariables.length < dimension) {
+                int capacity = jacobian.length;
+                decomposition = new double[capacity][capacity];
+                permutation = new int[capacity];
+                coupledVariables = new int[capacity];
+                coupledValues = new double[capacity];
+                intermediate = new double[capacity];
+            }
+            coupledDimension = 0;
+            for (int variable = 0; variable < dimension; variable++) {
+                if (coupled[variable]) {
+                    coupledVariables[coupledDimension++] = variable;
+                }
+            }
+            for (int row = 0; row < coupledDimension; row++) {
+                double[] decompositionRow = decomposition[row];
+                double[] jacobianRow = jacobian[coupledVariables[row]];
+                for (int column = 0; column < coupledDimension; column++) {
+                    decompositionRow[column] = -factor * jacobianRow[coupledVariables[column]];
+                }
+                decompositionRow[row] += 1.0;
+            }
+            LUDecomposition.decomposeInPlace(decomposition, coupledDimension, permutation);
+        }
+
+        void solveFirstStage() {
+            firstStageSolutions.clear();
+            groupByModule(firstStage, firstStageSolutions);
+            firstStageTotal = new double[dimension];
+            for (double[] solution : firstStageSolutions.values()) {
+                solve(solution);
+                for (int variable = 0; variable < dimension; variable++) {
+                    firstStageTotal[variable] += solution[variable];
+                }
+            }
+        }
+
+        void solveSecondStage() {
+            solutions.clear();
+            // variables that are only referenced in the second stage are integrated explicitly
+            groupByModule(secondStage, solutions);
+            for (UpdateModule module : firstStageSolutions.keySet()) {
+                solutions.computeIfAbsent(module, key -> new double[dimension]);
+            }
+            totalSolution = new double[dimension];
+            totalError = new double[dimension];
+            for (Map.Entry<UpdateModule, double[]> entry : solutions.entrySet()) {
+                double[] firstSolution = firstStageSolutions.get(entry.getKey());
+                double[] secondSolution = entry.getValue();
+                if (firstSolution != null) {
+                    for (int variable = 0; variable < firstSolution.length; variable++) {
+                        secondSolution[variable] -= 2.0 * firstSolution[variable];
+                    }
+                }
+                solve(secondSolution);
+                for (int variable = 0; variable < dimension; variable++) {
+                    double first = firstSolution != null && variable < firstSolution.length ? firstSolution[variable] : 0.0;
+                    double second = secondSolution[variable];
+                    // the combined solution replaces the second stage
+                    secondSolution[variable] = 1.5 * first + 0.5 * second;
+                    totalSolution[variable] += secondSolution[variable];
+                    totalError[variable] += 0.5 * first + 0.5 * second;
+                }
+            }
+        }
+
+        /**
+         * References all variables of the given deltas.
+         */
+        void reference(DeltaBuffer deltas) {
+            for (int index = 0; index < deltas.size(); index++) {
+                variable(deltas.getSubsection(index), deltas.getEntity(index));
+            }
+        }
+
+        private void groupByModule(DeltaBuffer deltas, Map<UpdateModule, double[]> values) {
+            reference(deltas);
+            for (int index = 0; index < deltas.size(); index++) {
+                double[] moduleValues = values.computeIfAbsent(deltas.getModule(index), key -> new double[dimension]);
+                moduleValues[variable(deltas.getSubsection(index), deltas.getEntity(index))] += deltas.getValue(index);
+            }
+        }
+
+        /**
+         * Solves the iteration matrix for the given right hand side in place. Only the coupled variables are changed,
+         * variables that have been referenced after the decomposition are not coupled.
+         */
+        private void solve(double[] values) {
+            if (coupledDimension == 0) {
+                return;
+            }
+            for (int index = 0; index < coupledDimension; index++) {
+                int variable = coupledVariables[index];
+                coupledValues[index] = variable < values.length ? values[variable] : 0.0;
+            }
+            LUDecomposition.solve(decomposition, permutation, coupledDimension, coupledValues, coupledValues, intermediate);
+            for (int index = 0; index < coupledDimension; index++) {
+                int variable = coupledVariables[index];
+                if (variable < values.length) {
+                    values[variable] = coupledValues[index];
+                }
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,133 @@
+package bio.singa.simulation.model.simulation.integrators;
+
+import bio.singa.simulation.entities.ChemicalEntity;
+import bio.singa.simulation.model.modules.UpdateModule;
+import bio.singa.simulation.model.modules.concentration.DeltaBuffer;
+import bio.singa.simulation.model.sections.CellSubsection;
+
+import java.util.Arrays;
+
+/**
+ * The deltas of all stages of an embedded Runge-Kutta scheme for a single updatable. The deltas of each stage are
+ * combined to a single delta for each module, subsection and entity, such that deltas remain attributed to the modules
+ * they originate from.
+ *
+ * @author cl
+ */
+class StageDeltas {
+
+    /**
+     * The deltas of modules that are not concentration based.
+     */
+    private final DeltaBuffer fixedDeltas;
+
+    /**
+     * The deltas of each stage.
+     */
+    private final DeltaBuffer[] stages;
+
+    /**
+     * The combined deltas, a single delta for each module, subsection and entity.
+     */
+    private final DeltaBuffer solution;
+
+    /**
+     * The estimated error of each combined delta.
+     */
+    private double[] errors;
+
+    StageDeltas(int numberOfStages) {
+        fixedDeltas = new DeltaBuffer();
+        stages = new DeltaBuffer[numberOfStages];
+        for (int stage = 0; stage < numberOfStages; stage++) {
+            stages[stage] = new DeltaBuffer();
+        }
+        solution = new DeltaBuffer();
+        errors = new double[8];
+    }
+
+    DeltaBuffer getFixedDeltas() {
+        return fixedDeltas;
+    }
+
+    DeltaBuffer getStage(int stage) {
+        return stages[stage];
+    }
+
+    int getNumberOfStages() {
+        return stages.length;
+    }
+
+    DeltaBuffer getSolution() {
+        return solution;
+    }
+
+    /**
+     * Returns the estimated error of the combined delta at the given index of the solution.
+     *
+     * @param index The index.
+     * @return The estimated error.
+     */
+    double getError(int index) {
+        return errors[index];
+    }
+
+    void clear() {
+        fixedDeltas.clear();
+        for (DeltaBuffer stage : stages) {
+            stage.clear();
+        }
+        solution.clear();
+    }
+
+    /**
+     * Combines the deltas of all stages with the weights of the solution and the error estimate.
+     *
+     * @param tableau The scheme.
+     */
+    void combine(ButcherTableau tableau) {
+        solution.clear();
+        for (int stage = 0; stage < stages.length; stage++) {
+            double solutionWeight = tableau.getSolutionWeight(stage);
+            double errorWeight = tableau.getErrorWeight(stage);
+            if (solutionWeight == 0.0 && errorWeight == 0.0) {
+                continue;
+            }
+            DeltaBuffer deltas = stages[stage];
+            // deltas are usually calculated in the same order in every stage
+            int hint = 0;
+            for (int index = 0; index < deltas.size(); index++) {
+                int position = find(deltas.getModule(index), deltas.getSubsection(index), deltas.getEntity(index), hint);
+                if (position < 0) {
+                    position = solution.size();
+                    solution.add(deltas.getModule(index), deltas.getSubsection(index), deltas.getEntity(index), 0.0);
+                    if (position == errors.length) {
+                        errors = Arrays.copyOf(errors, position * 2);
+                    }
+                    errors[position] = 0.0;
+                }
+                double value = deltas.getValue(index);
+                solution.setValue(position, solution.getValue(position) + solutionWeight * value);
+                errors[position] += errorWeight * value;
+                hint = position + 1;
+            }
+        }
+    }
+
+    /**
+     * Returns the position of the combined delta of the given module, subsection and entity, starting the search
+     * at the given position, or -1 if there is no such delta.
+     */
+    private int find(UpdateModule module, CellSubsection subsection, ChemicalEntity entity, int hint) {
+        int size = solution.size();
+        for (int offset = 0; offset < size; offset++) {
+            int position = (hint + offset) % size;
+            if (solution.getModule(position) == module && solution.getSubsection(position).equals(subsection)
+                    && solution.getEntity(position).equals(entity)) {
+                return position;
+            }
+        }
+        return -1;
+    }
+
+}
@@ -0,0 +1,237 @@
+package bio.singa.simulation.model.simulation.integrators;
+
+import bio.singa.features.units.UnitRegistry;
+import bio.singa.simulation.model.agents.pointlike.Vesicle;
+import bio.singa.simulation.model.modules.UpdateModule;
+import bio.singa.simulation.model.modules.concentration.TimeStepDependence;
+import bio.singa.simulation.model.simulation.Simulation;
+import bio.singa.simulation.model.simulation.Updatable;
+import bio.singa.simulation.model.simulation.UpdateScheduler;
+import bio.singa.simulation.model.simulation.error.ErrorManager;
+import bio.singa.simulation.model.simulation.error.TimeStepManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.measure.Quantity;
+import javax.measure.quantity.Time;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.Predicate;
+
+import static bio.singa.simulation.model.modules.concentration.ModuleState.SUCCEEDED;
+import static bio.singa.simulation.model.modules.concentration.ModuleState.SUCCEEDED_WITH_PENDING_CHANGES;
+import static bio.singa.simulation.model.simulation.error.ErrorManager.Reason.NEGATIVE_CONCENTRATIONS;
+
+/**
+ * The step doubling integrator estimates the local error of each module by comparing the deltas of a full step with
+ * the deltas of two half steps (see
+ * {@link bio.singa.simulation.model.modules.concentration.ConcentrationBasedModule#determineLargestLocalError()}).
+ * Additionally, the global error is estimated by comparing the concentrations after a full step with the
+ * concentrations after two half steps of all updatables, every few epochs. If any error exceeds its tolerance, the
+ * time step is decreased and the epoch is recalculated.
+ * <p>
+ * If a round needs to be recalculated only because the time step was decreased during the calculation of the modules,
+ * modules with {@link TimeStepDependence#LINEAR linear} deltas are not recalculated. Instead, their deltas are
+ * rescaled to the new time step.
+ *
+ * @author cl
+ */
+public class StepDoublingIntegrator implements Integrator {
+
+    private static final Logger logger = LoggerFactory.getLogger(StepDoublingIntegrator.class);
+
+    /**
+     * The number of epochs after a decrease of the time step, before the time step may be increased again.
+     */
+    private static final int EPOCHS_BEFORE_INCREASE = 10;
+
+    private UpdateScheduler scheduler;
+
+    /**
+     * The time step at the start of the current calculation round.
+     */
+    private Quantity<Time> roundTimeStep;
+
+    /**
+     * The modules whose deltas have been rescaled instead of recalculated in the current round.
+     */
+    private final Set<UpdateModule> retainedModules;
+
+    /**
+     * The modules integrated by this integrator, all other modules are ignored.
+     */
+    private final Predicate<UpdateModule> moduleFilter;
+
+    public StepDoublingIntegrator() {
+        this(module -> true);
+    }
+
+    /**
+     * Creates a new integrator, that only calculates the modules fulfilling the given condition. Used if the remaining
+     * modules are integrated separately, see {@link StrangSplittingIntegrator}.
+     *
+     * @param moduleFilter The condition modules have to fulfill to be calculated.
+     */
+    public StepDoublingIntegrator(Predicate<UpdateModule> moduleFilter) {
+        this.moduleFilter = moduleFilter;
+        retainedModules = new HashSet<>();
+    }
+
+    @Override
+    public void initialize(UpdateScheduler scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    @Override
+    public void calculateDeltas() {
+        boolean recalculationRequired;
+        // until all models passed
+        do {
+            TimeStepManager.setTimeStepRescaled(false);
+            roundTimeStep = UnitRegistry.getTime();
+            scheduler.calculateModules(this::requiresCalculation);
+            recalculationRequired = recalculationRequired();
+        } while (recalculationRequired);
+        retainedModules.clear();
+    }
+
+    /**
+     * Returns true if the module has to be calculated in the current round. Modules with pending changes and modules
+     * whose deltas have been rescaled are not calculated again.
+     *
+     * @param module The module.
+     * @return True if the module has to be calculated.
+     */
+    private boolean requiresCalculation(UpdateModule module) {
+        // modules with pending changes generally only need to be calculated once if the time step was not reset (this is managed while resetting calculations)
+        return moduleFilter.test(module) && !module.getState().equals(SUCCEEDED_WITH_PENDING_CHANGES) && !retainedModules.contains(module);
+    }
+
+    private boolean recalculationRequired() {
+        ErrorManager errorManager = scheduler.getErrorManager();
+        Simulation simulation = scheduler.getSimulation();
+        boolean recalculationRequired = false;
+        // deltas may only be rescaled if nothing but the time step changed since they have been calculated
+        boolean deltasRescalable = TimeStepManager.isTimeStepRescaled();
+        // global displacement based error
+        if (!scheduler.isSkipDisplacementChecks()) {
+            errorManager.evaluateGlobalDeviation();
+            if (!errorManager.globalDeviationIsAcceptable()) {
+                errorManager.resolveGlobalDeviationProblem();
+                recalculationRequired = true;
+                deltasRescalable = false;
+            }
+        } else {
+            for (Vesicle vesicle : simulation.getVesicleLayer().getVesicles()) {
+                vesicle.calculateTotalDisplacement();
+            }
+        }
+        // global capping
+        if (evaluateCapping()) {
+            deltasRescalable = false;
+        }
+        // global numerical error
+        errorManager.evaluateGlobalError();
+        if (errorManager.globalErrorEvaluationModifiedConcentrations()) {
+            deltasRescalable = false;
+        }
+        if (!errorManager.globalErrorIsAcceptable()) {
+            errorManager.resolveGlobalErrorProblem();
+            recalculationRequired = true;
+        }
+        // time step rescaling
+        if (TimeStepManager.isTimeStepRescaled()) {
+            errorManager.resetLocalDisplacementDeviation();
+            simulation.getVesicleLayer().clearUpdates();
+            determineRetainedModules(deltasRescalable);
+            for (UpdateModule module : scheduler.getModules()) {
+                if (!retainedModules.contains(module)) {
+                    module.reset();
+                }
+            }
+            recalculationRequired = true;
+        } else {
+            retainedModules.clear();
+        }
+
+        if (recalculationRequired) {
+            boolean timeStepRescaled = scheduler.getTimeStepManager().isRescaled();
+            // reset states
+            for (UpdateModule module : scheduler.getModules()) {
+                // skip modules with pending changes if time step was not rescaled
+                if (module.getState().equals(SUCCEEDED_WITH_PENDING_CHANGES) && !timeStepRescaled) {
+                    continue;
+                }
+                // skip modules with rescaled deltas
+                if (retainedModules.contains(module)) {
+                    continue;
+                }
+                module.reset();
+            }
+            // clear deltas that have previously been calculated
+            if (retainedModules.isEmpty()) {
+                scheduler.getUpdatables().forEach(updatable -> updatable.getConcentrationManager().clearPotentialDeltas());
+            } else {
+                double factor = UnitRegistry.getTime().to(roundTimeStep.getUnit()).getValue().doubleValue() / roundTimeStep.getValue().doubleValue();
+                scheduler.getUpdatables().forEach(updatable -> updatable.getConcentrationManager().retainPotentialDeltas(retainedModules, factor));
+                scheduler.addSavedRecalculations(retainedModules.size());
+                logger.debug("Rescaled deltas of {} modules by {} instead of recalculating them.", retainedModules.size(), factor);
+            }
+            // reset error
+            errorManager.resetLocalNumericalError();
+        }
+
+        return recalculationRequired;
+    }
+
+    /**
+     * Determines the modules, whose deltas are rescaled after the time step has been rescaled. Those are all
+     * successfully calculated modules with deltas that are linear in the time step, if nothing but the time step
+     * changed since their calculation. Modules that succeeded during the round were not cancelled, therefore their
+     * deltas have been calculated entirely before the time step was decreased.
+     *
+     * @param deltasRescalable True if the deltas may be rescaled.
+     */
+    private void determineRetainedModules(boolean deltasRescalable) {
+        retainedModules.clear();
+        if (!deltasRescalable) {
+            return;
+        }
+        for (UpdateModule module : scheduler.getModules()) {
+            // the module that optimized the time step only recalculated parts of its deltas
+            if (module == scheduler.getPrioritizedModule()) {
+                continue;
+            }
+            if (moduleFilter.test(module) && module.getState().equals(SUCCEEDED) && module.getTimeStepDependence().equals(TimeStepDependence.LINEAR)) {
+                retainedModules.add(module);
+            }
+        }
+    }
+
+    private boolean evaluateCapping() {
+        for (Updatable updatable : scheduler.getUpdatables()) {
+            if (updatable.getConcentrationManager().concentrationIsAtCap()) {
+                TimeStepManager.decreaseTimeStep(NEGATIVE_CONCENTRATIONS);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public boolean timeStepShouldIncrease() {
+        Simulation simulation = scheduler.getSimulation();
+        // if the time step was decreased in the last n epochs do not consider it
+        if (simulation.getEpoch() - simulation.getEpochWithRescaledTimeStep() < EPOCHS_BEFORE_INCREASE) {
+            return false;
+        }
+        // if the the error that was computed previously is very small
+        return scheduler.getErrorManager().allErrorsAreSafe();
+    }
+
+    @Override
+    public void increaseTimeStep() {
+        TimeStepManager.increaseTimeStep();
+    }
+
+}
@@ -0,0 +1,700 @@
+package bio.singa.simulation.model.simulation.integrators;
+
+import bio.singa.features.units.UnitRegistry;
+import bio.singa.simulation.exceptions.NumericalInstabilityException;
+import bio.singa.simulation.model.modules.UpdateModule;
+import bio.singa.simulation.model.modules.concentration.ConcentrationBasedModule;
+import bio.singa.simulation.model.modules.concentration.ConcentrationDeltaManager;
+import bio.singa.simulation.model.modules.concentration.DeltaBuffer;
+import bio.singa.simulation.model.modules.concentration.imlementations.reactions.Reaction;
+import bio.singa.simulation.model.modules.concentration.imlementations.reactions.ReactionNetwork;
+import bio.singa.simulation.model.sections.ConcentrationContainer;
+import bio.singa.simulation.model.simulation.Updatable;
+import bio.singa.simulation.model.simulation.UpdateScheduler;
+import bio.singa.simulation.model.simulation.checkpoints.Checkpointable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.measure.Quantity;
+import javax.measure.quantity.Time;
+import java.io.*;
+import java.util.*;
+import java.util.function.Predicate;
+
+import static tech.units.indriya.unit.Units.SECOND;
+
+/**
+ * The Strang splitting integrator separates local modules, that only change the concentrations of the updatable they
+ * are evaluated for (by default all modules, that are {@link ConcentrationBasedModule#isLocal() local}, e.g.
+ * {@link ReactionNetwork}s), from all other modules (e.g. diffusion, membrane transport and the displacement of
+ * vesicles). Each epoch is composed of three stages:
+ * <pre>
+ *  local half step (h/2) - transport step (h) - local half step (h/2) </pre>
+ * The transport stage is calculated by a {@link StepDoublingIntegrator} restricted to the non local modules, that
+ * determines the time step h of the epoch. During the local stages, each updatable advances independently using an
+ * explicit embedded Runge-Kutta scheme with its own adaptive sub-steps. Therefore, fast reactions in few updatables
+ * do not force the expensive transport modules to be evaluated with a small time step. Updatables, whose reactions are
+ * slow, finish each local stage in a single sub-step. The sub-steps are controlled like the time step of the
+ * {@link AdaptiveIntegrator}. If a sub-step does not meet the tolerances even at the smallest sub-step, the integration
+ * fails with a {@link NumericalInstabilityException}.
+ * <pre>
+ *  simulation.getScheduler().setIntegrator(new StrangSplittingIntegrator()); </pre>
+ * If the transport stage decreases the time step, the epoch is restarted from the initial concentrations. The final
+ * deltas remain attributed to the modules they originate from.
+ * <p>
+ * Updatables fulfilling the {@link #setStochasticCondition(Predicate) stochastic condition} (e.g. updatables with
+ * low copy numbers) integrate their reactions during the local stages using the {@link NextReactionMethod}, while
+ * the transport stage remains deterministic. This requires all local modules to be {@link Reaction}s, reaction networks
+ * are always integrated deterministically.
+ *
+ * @author cl
+ */
+public class StrangSplittingIntegrator extends AdaptiveIntegrator implements Checkpointable {
+
+    private static final Logger logger = LoggerFactory.getLogger(StrangSplittingIntegrator.class);
+
+    /**
+     * The smallest sub-step relative to the time step.
+     */
+    private static final double MINIMAL_FRACTION = 1e-9;
+
+    /**
+     * The scheme used to integrate the local modules.
+     */
+    private final ButcherTableau tableau;
+
+    /**
+     * The condition identifying local modules.
+     */
+    private final Predicate<UpdateModule> localModule;
+
+    /**
+     * The integrator of the transport stage.
+     */
+    private final StepDoublingIntegrator transportIntegrator;
+
+    /**
+     * The local integration state of each updatable.
+     */
+    private Map<Updatable, LocalIntegration> localIntegrations;
+
+    /**
+     * The condition identifying updatables, whose local modules are simulated stochastically.
+     */
+    private Predicate<Updatable> stochasticCondition = updatable -> false;
+
+    /**
+     * The source of randomness for stochastic updatables.
+     */
+    private Random random = new Random();
+
+    /**
+     * The number of local sub-steps since the start of the simulation.
+     */
+    private long localSteps;
+
+    /**
+     * The number of restarted epochs since the start of the simulation.
+     */
+    private long restartedEpochs;
+
+    /**
+     * The largest scaled error of the accepted local sub-steps in the current epoch.
+     */
+    private double largestLocalError;
+
+    /**
+     * Creates a new integrator, that integrates all {@link ConcentrationBasedModule#isLocal() local} modules locally
+     * using the {@link ButcherTableau#BOGACKI_SHAMPINE Bogacki-Shampine} scheme.
+     */
+    public StrangSplittingIntegrator() {
+        this(ButcherTableau.BOGACKI_SHAMPINE, module -> ((ConcentrationBasedModule<?>) module).isLocal());
+    }
+
+    /**
+     * Creates a new integrator, that integrates all concentration based modules fulfilling the given condition locally
+     * using the given scheme. Local modules must only change the concentrations of the updatable they are evaluated
+     * for.
+     *
+     * @param tableau The scheme of the local stages.
+     * @param localModule The condition identifying local modules.
+     */
+    public StrangSplittingIntegrator(ButcherTableau tableau, Predicate<UpdateModule> localModule) {
+        this.tableau = tableau;
+        this.localModule = module -> module instanceof ConcentrationBasedModule && localModule.test(module);
+        transportIntegrator = new StepDoublingIntegrator(this.localModule.negate());
+        localIntegrations = new HashMap<>();
+    }
+
+    @Override
+    public void initialize(UpdateScheduler scheduler) {
+        super.initialize(scheduler);
+        transportIntegrator.initialize(scheduler);
+    }
+
+    @Override
+    protected int getErrorOrder() {
+        return Math.min(tableau.getOrder(), tableau.getEmbeddedOrder());
+    }
+
+    @Override
+    public void calculateDeltas() {
+        List<Updatable> updatables = scheduler.getUpdatables();
+        prepareLocalIntegrations(updatables);
+        List<ConcentrationBasedModule<?>> localModules = getLocalModules();
+        largestLocalError = 0.0;
+        boolean restarted = false;
+        while (true) {
+            Quantity<Time> timeStep = UnitRegistry.getTime();
+            // first local half step
+            integrateLocally(updatables, localModules);
+            // transport step, relative to the concentrations after the first local half step
+            scheduler.backupConcentrations(updatables);
+            clearCaches();
+            transportIntegrator.calculateDeltas();
+            if (!UnitRegistry.getTime().equals(timeStep)) {
+                // the time step has been decreased, the local half step needs to be recalculated as well
+                logger.debug("Restarting epoch with time step {}.", UnitRegistry.getTime());
+                restart(updatables);
+                restarted = true;
+                continue;
+            }
+            applyTransportDeltas(updatables);
+            // second local half step
+            integrateLocally(updatables, localModules);
+            assignDeltas(updatables);
+            accept(largestLocalError, restarted);
+            return;
+        }
+    }
+
+    /**
+     * Ensures that there is a local integration state for every updatable, retaining the sub-steps of previous
+     * epochs, and stores the initial concentrations.
+     *
+     * @param updatables The updatables.
+     */
+    private void prepareLocalIntegrations(List<Updatable> updatables) {
+        Map<Updatable, LocalIntegration> currentIntegrations = new HashMap<>();
+        List<Reaction> localReactions = getLocalReactions();
+        for (Updatable updatable : updatables) {
+            LocalIntegration integration = localIntegrations.get(updatable);
+            if (integration == null) {
+                integration = new LocalIntegration(tableau.getNumberOfStages());
+            }
+            integration.prepareStochasticMethod(updatable, localReactions);
+            ConcentrationContainer concentrations = updatable.getConcentrationContainer();
+            integration.initialConcentrations = copy(concentrations, integration.initialConcentrations);
+            integration.localDeltas.clear();
+            currentIntegrations.put(updatable, integration);
+        }
+        localIntegrations = currentIntegrations;
+    }
+
+    private List<ConcentrationBasedModule<?>> getLocalModules() {
+        List<ConcentrationBasedModule<?>> localModules = new ArrayList<>();
+        for (UpdateModule module : scheduler.getModules()) {
+            if (localModule.test(module)) {
+                localModules.add((ConcentrationBasedModule<?>) module);
+            }
+        }
+        return localModules;
+    }
+
+    /**
+     * Returns the local modules, if all of them are reactions.
+     *
+     * @return The local reactions or null if local modules can not be simulated stochastically.
+     */
+    private List<Reaction> getLocalReactions() {
+        List<Reaction> localReactions = new ArrayList<>();
+        for (ConcentrationBasedModule<?> module : getLocalModules()) {
+            if (!(module instanceof Reaction)) {
+                return null;
+            }
+            localReactions.add((Reaction) module);
+        }
+        return localReactions;
+    }
+
+    /**
+     * Advances the current concentrations of all updatables by half of the current time step, using adaptive
+     * sub-steps for each updatable.
+     *
+     * @param updatables The updatables.
+     * @param localModules The local modules.
+     */
+    private void integrateLocally(List<Updatable> updatables, List<ConcentrationBasedModule<?>> localModules) {
+        if (localModules.isEmpty()) {
+            return;
+        }
+        double timeStep = UnitRegistry.getTime().to(SECOND).getValue().doubleValue();
+        List<Updatable> activeUpdatables = new ArrayList<>();
+        for (Updatable updatable : updatables) {
+            LocalIntegration integration = localIntegrations.get(updatable);
+            if (integration.stochasticMethod != null) {
+                integrateStochastically(integration);
+            } else {
+                integration.startStage(timeStep);
+                activeUpdatables.add(updatable);
+            }
+        }
+        while (!activeUpdatables.isEmpty()) {
+            for (Updatable updatable : activeUpdatables) {
+                LocalIntegration integration = localIntegrations.get(updatable);
+                integration.stageDeltas.clear();
+                integration.stepConcentrations = copy(updatable.getConcentrationContainer(), integration.stepConcentrations);
+            }
+            // evaluate stages of all active updatables at once
+            for (int stage = 0; stage < tableau.getNumberOfStages(); stage++) {
+                if (stage > 0) {
+                    setStageConcentrations(activeUpdatables, stage);
+                }
+                scheduler.calculateModules(localModules, module -> module.evaluateDeltas(activeUpdatables));
+                for (Updatable updatable : activeUpdatables) {
+                    updatable.getConcentrationManager().transferPotentialDeltas(localIntegrations.get(updatable).stageDeltas.getStage(stage));
+                }
+            }
+            // accept or reject the sub-step of each updatable
+            Iterator<Updatable> iterator = activeUpdatables.iterator();
+            while (iterator.hasNext()) {
+                Updatable updatable = iterator.next();
+                LocalIntegration integration = localIntegrations.get(updatable);
+                ConcentrationContainer concentrations = updatable.getConcentrationContainer();
+                integration.stepConcentrations.copyTo(concentrations);
+                if (completeSubStep(updatable, integration, concentrations, timeStep)) {
+                    iterator.remove();
+                }
+            }
+            clearCaches();
+        }
+    }
+
+    /**
+     * Advances the current concentrations of a stochastic updatable by half of the current time step.
+     *
+     * @param integration The integration state of the updatable.
+     */
+    private void integrateStochastically(LocalIntegration integration) {
+        NextReactionMethod method = integration.stochasticMethod;
+        method.simulate(0.5);
+        DeltaBuffer deltas = method.getDeltas();
+        for (int index = 0; index < deltas.size(); index++) {
+            integration.addLocalDelta(deltas, index, deltas.getValue(index));
+        }
+        clearCaches();
+    }
+
+    /**
+     * Sets the current concentrations of all given updatables to the concentrations of the given stage.
+     *
+     * @param updatables The updatables.
+     * @param stage The stage.
+     */
+    private void setStageConcentrations(List<Updatable> updatables, int stage) {
+        for (Updatable updatable : updatables) {
+            LocalIntegration integration = localIntegrations.get(updatable);
+            ConcentrationContainer concentrations = updatable.getConcentrationContainer();
+            integration.stepConcentrations.copyTo(concentrations);
+            for (int previousStage = 0; previousStage < stage; previousStage++) {
+                double weight = tableau.getStageWeight(stage, previousStage) * integration.fraction;
+                if (weight == 0.0) {
+                    continue;
+                }
+                DeltaBuffer previousDeltas = integration.stageDeltas.getStage(previousStage);
+                for (int index = 0; index < previousDeltas.size(); index++) {
+                    concentrations.set(previousDeltas.getSubsection(index), previousDeltas.getEntity(index),
+                            concentrations.get(previousDeltas.getSubsection(index), previousDeltas.getEntity(index)) + weight * previousDeltas.getValue(index));
+                }
+            }
+        }
+        clearCaches();
+    }
+
+    /**
+     * Estimates the error of the current sub-step of an updatable and applies the sub-step if it is acceptable. The
+     * size of the next sub-step is adapted according to the error.
+     *
+     * @param updatable The updatable.
+     * @param integration The integration state of the updatable.
+     * @param concentrations The concentrations at the start of the sub-step.
+     * @param timeStep The current time step in seconds.
+     * @return True if the updatable finished the current local stage.
+     * @throws NumericalInstabilityException If the error is not acceptable for the smallest sub-step.
+     */
+    private boolean completeSubStep(Updatable updatable, LocalIntegration integration, ConcentrationContainer concentrations, double timeStep) {
+        StageDeltas deltas = integration.stageDeltas;
+        deltas.combine(tableau);
+        DeltaBuffer solution = deltas.getSolution();
+        double fraction = integration.fraction;
+        double largestError = 0.0;
+        for (int index = 0; index < solution.size(); index++) {
+            double concentration = concentrations.get(solution.getSubsection(index), solution.getEntity(index));
+            double delta = fraction * solution.getValue(index);
+            double error = scaleError(concentration, delta, fraction * deltas.getError(index));
+            if (concentration + delta < 0.0 || Double.isNaN(error)) {
+                largestError = Double.POSITIVE_INFINITY;
+                break;
+            }
+            largestError = Math.max(largestError, error);
+        }
+        if (largestError > 1.0) {
+            if (fraction <= MINIMAL_FRACTION) {
+                throw new NumericalInstabilityException("The local sub-step of " + updatable.getStringIdentifier() + " exceeds the tolerances (scaled error "
+                        + largestError + ") with the smallest sub-step of " + fraction * timeStep + " s.");
+            }
+            countRejectedStep();
+            integration.rejectSubStep(largestError);
+            return false;
+        }
+        largestLocalError = Math.max(largestLocalError, largestError);
+        // apply sub-step
+        for (int index = 0; index < solution.size(); index++) {
+            double delta = fraction * solution.getValue(index);
+            concentrations.set(solution.getSubsection(index), solution.getEntity(index),
+                    concentrations.get(solution.getSubsection(index), solution.getEntity(index)) + delta);
+            integration.addLocalDelta(solution, index, delta);
+        }
+        localSteps++;
+        return integration.acceptSubStep(largestError, timeStep);
+    }
+
+    /**
+     * Applies the deltas of the transport stage to the concentrations after the first local half step, keeping the
+     * deltas for the final assignment.
+     *
+     * @param updatables The updatables.
+     */
+    private void applyTransportDeltas(List<Updatable> updatables) {
+        scheduler.revertConcentrations(updatables);
+        for (Updatable updatable : updatables) {
+            ConcentrationDeltaManager concentrationManager = updatable.getConcentrationManager();
+            DeltaBuffer transportDeltas = localIntegrations.get(updatable).transportDeltas;
+            transportDeltas.clear();
+            concentrationManager.transferPotentialDeltas(transportDeltas);
+            ConcentrationContainer concentrations = concentrationManager.getConcentrationContainer();
+            for (int index = 0; index < transportDeltas.size(); index++) {
+                concentrations.set(transportDeltas.getSubsection(index), transportDeltas.getEntity(index),
+                        concentrations.get(transportDeltas.getSubsection(index), transportDeltas.getEntity(index)) + transportDeltas.getValue(index));
+            }
+        }
+        clearCaches();
+    }
+
+    /**
+     * Reverts all updatables to their initial concentrations and assigns the deltas of the transport stage and the
+     * accumulated deltas of the local stages as potential deltas.
+     *
+     * @param updatables The updatables.
+     */
+    private void assignDeltas(List<Updatable> updatables) {
+        for (Updatable updatable : updatables) {
+            ConcentrationDeltaManager concentrationManager = updatable.getConcentrationManager();
+            LocalIntegration integration = localIntegrations.get(updatable);
+            integration.initialConcentrations.copyTo(concentrationManager.getConcentrationContainer());
+            concentrationManager.backupConcentrations();
+            for (DeltaBuffer buffer : new DeltaBuffer[]{integration.transportDeltas, integration.localDeltas}) {
+                for (int index = 0; index < buffer.size(); index++) {
+                    concentrationManager.addPotentialDelta(buffer.getModule(index), buffer.getSubsection(index), buffer.getEntity(index), buffer.getValue(index));
+                }
+            }
+        }
+        clearCaches();
+    }
+
+    /**
+     * Discards the current epoch and reverts all updatables to their initial concentrations.
+     *
+     * @param updatables The updatables.
+     */
+    private void restart(List<Updatable> updatables) {
+        restartedEpochs++;
+        scheduler.getErrorManager().resetLocalDisplacementDeviation();
+        scheduler.getSimulation().getVesicleLayer().clearUpdates();
+        for (UpdateModule module : scheduler.getModules()) {
+            module.reset();
+        }
+        for (Updatable updatable : updatables) {
+            ConcentrationDeltaManager concentrationManager = updatable.getConcentrationManager();
+            LocalIntegration integration = localIntegrations.get(updatable);
+            integration.initialConcentrations.copyTo(concentrationManager.getConcentrationContainer());
+            integration.localDeltas.clear();
+            concentrationManager.backupConcentrations();
+            concentrationManager.clearPotentialDeltas();
+        }
+        clearCaches();
+    }
+
+    /**
+     * Copies the source container to the given target container, creating a new container if required.
+     *
+     * @param source The source.
+     * @param target The previously used target (may be null).
+     * @return The target containing the concentrations of the source.
+     */
+    private static ConcentrationContainer copy(ConcentrationContainer source, ConcentrationContainer target) {
+        if (target == null || target == source) {
+            return source.fullCopy();
+        }
+        source.copyTo(target);
+        return target;
+    }
+
+    @Override
+    public boolean timeStepShouldIncrease() {
+        return transportIntegrator.timeStepShouldIncrease();
+    }
+
+    @Override
+    public void increaseTimeStep() {
+        transportIntegrator.increaseTimeStep();
+    }
+
+    public ButcherTableau getTableau() {
+        return tableau;
+    }
+
+    public Predicate<Updatable> getStochasticCondition() {
+        return stochasticCondition;
+    }
+
+    /**
+     * Sets the condition identifying updatables, whose reactions are simulated stochastically during the local
+     * stages, e.g. {@link NextReactionMethod#lowCopyNumber(double)}. The condition is evaluated at the start of each
+     * epoch. Updatables, whose reactions refer to other updatables, are always integrated deterministically.
+     *
+     * @param stochasticCondition The condition.
+     */
+    public void setStochasticCondition(Predicate<Updatable> stochasticCondition) {
+        this.stochasticCondition = stochasticCondition;
+    }
+
+    /**
+     * Sets the source of randomness for stochastic updatables, e.g. a seeded {@link Random} to reproduce simulations.
+     *
+     * @param random The source of randomness.
+     */
+    public void setRandom(Random random) {
+        this.random = random;
+    }
+
+    /**
+     * Writes the state of the source of randomness. The firing times of the stochastic updatables are not stored,
+     * they are drawn again from the restored source, which is equivalent since the firing times are exponentially
+     * distributed.
+     *
+     * @param output The output.
+     * @throws IOException If the state could not be written.
+     */
+    @Override
+    public void writeState(DataOutput output) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream objectOutput = new ObjectOutputStream(bytes)) {
+            objectOutput.writeObject(random);
+        }
+        output.writeInt(bytes.size());
+        output.write(bytes.toByteArray());
+        output.writeLong(localSteps);
+    }
+
+    @Override
+    public void readState(DataInput input) throws IOException {
+        byte[] bytes = new byte[input.readInt()];
+        input.readFully(bytes);
+        try (ObjectInputStream objectInput = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            random = (Random) objectInput.readObject();
+        } catch (ClassNotFoundException e) {
+            throw new IOException("Unable to restore the source of randomness.", e);
+        }
+        localSteps = input.readLong();
+        // stochastic methods are recreated with the restored source of randomness
+        localIntegrations.clear();
+    }
+
+    /**
+     * Returns the number of accepted local sub-steps of all updatables since the start of the simulation.
+     *
+     * @return The number of local sub-steps.
+     */
+    public long getLocalSteps() {
+        return localSteps;
+    }
+
+    /**
+     * Returns the number of epochs, that have been restarted, because the transport stage decreased the time step.
+     *
+     * @return The number of restarted epochs.
+     */
+    public long getRestartedEpochs() {
+        return restartedEpochs;
+    }
+
+    /**
+     * The local integration state of a single updatable.
+     */
+    private class LocalIntegration {
+
+        /**
+         * The deltas of each stage of the current sub-step.
+         */
+        private final StageDeltas stageDeltas;
+
+        /**
+         * The accumulated deltas of all local sub-steps of the current epoch.
+         */
+        private final DeltaBuffer localDeltas;
+
+        /**
+         * The deltas of the transport stage of the current epoch.
+         */
+        private final DeltaBuffer transportDeltas;
+
+        /**
+         * The concentrations at the start of the epoch.
+         */
+        private ConcentrationContainer initialConcentrations;
+
+        /**
+         * The concentrations at the start of the current sub-step.
+         */
+        private ConcentrationContainer stepConcentrations;
+
+        /**
+         * The last accepted (or proposed) sub-step in seconds, retained between epochs.
+         */
+        private double subStep = Double.NaN;
+
+        /**
+         * The remaining fraction of the time step in the current local stage.
+         */
+        private double remainingFraction;
+
+        /**
+         * The fraction of the time step of the current sub-step.
+         */
+        private double fraction;
+
+        /**
+         * True if the current sub-step has been limited by the end of the local stage.
+         */
+        private boolean limited;
+
+        /**
+         * The stochastic simulation of the updatable (null if the updatable is integrated deterministically).
+         */
+        private NextReactionMethod stochasticMethod;
+
+        /**
+         * The stochastic simulation of the local reactions, that is retained while the reactions do not change (null
+         * if the reactions can not be simulated stochastically).
+         */
+        private NextReactionMethod preparedMethod;
+
+        /**
+         * The reactions the prepared stochastic simulation has been created for.
+         */
+        private List<Reaction> stochasticReactions;
+
+        private LocalIntegration(int numberOfStages) {
+            stageDeltas = new StageDeltas(numberOfStages);
+            localDeltas = new DeltaBuffer();
+            transportDeltas = new DeltaBuffer();
+        }
+
+        /**
+         * Creates or discards the stochastic simulation of the updatable, according to the stochastic condition.
+         *
+         * @param updatable The updatable.
+         * @param localReactions The local reactions (null if local modules can not be simulated stochastically).
+         */
+        private void prepareStochasticMethod(Updatable updatable, List<Reaction> localReactions) {
+            stochasticMethod = null;
+            if (localReactions == null) {
+                return;
+            }
+            if (stochasticCondition instanceof NextReactionMethod.LowCopyNumber) {
+                // only the species of the local reactions are checked
+                NextReactionMethod method = getPreparedMethod(updatable, localReactions);
+                if (method != null && method.hasLowCopyNumber(((NextReactionMethod.LowCopyNumber) stochasticCondition).getMaximalNumberOfMolecules())) {
+                    stochasticMethod = method;
+                }
+            } else if (stochasticCondition.test(updatable)) {
+                stochasticMethod = getPreparedMethod(updatable, localReactions);
+            }
+        }
+
+        /**
+         * Returns the stochastic simulation of the given reactions, creating it if the reactions changed.
+         *
+         * @param updatable The updatable.
+         * @param localReactions The local reactions.
+         * @return The stochastic simulation or null if the reactions can not be simulated stochastically.
+         */
+        private NextReactionMethod getPreparedMethod(Updatable updatable, List<Reaction> localReactions) {
+            if (stochasticReactions == null || !localReactions.equals(stochasticReactions)) {
+                preparedMethod = NextReactionMethod.supports(updatable, localReactions) ? new NextReactionMethod(updatable, localReactions, random) : null;
+                stochasticReactions = localReactions;
+            }
+            return preparedMethod;
+        }
+
+        private void startStage(double timeStep) {
+            remainingFraction = 0.5;
+            if (Double.isNaN(subStep)) {
+                setFraction(remainingFraction);
+            } else {
+                setFraction(subStep / timeStep);
+            }
+        }
+
+        /**
+         * Sets the fraction of the next sub-step, limited by the remaining fraction of the current local stage.
+         *
+         * @param proposedFraction The proposed fraction.
+         */
+        private void setFraction(double proposedFraction) {
+            limited = proposedFraction >= remainingFraction;
+            fraction = limited ? remainingFraction : proposedFraction;
+        }
+
+        private void rejectSubStep(double scaledError) {
+            limited = false;
+            fraction = Math.max(MINIMAL_FRACTION, fraction * decreaseFactor(scaledError));
+        }
+
+        private boolean acceptSubStep(double scaledError, double timeStep) {
+            remainingFraction -= fraction;
+            double proposedFraction = fraction * increaseFactor(scaledError);
+            // sub-steps that were limited by the end of the stage must not shrink the remembered sub-step
+            if (!limited || Double.isNaN(subStep) || proposedFraction * timeStep > subStep) {
+                subStep = proposedFraction * timeStep;
+            }
+            if (remainingFraction <= MINIMAL_FRACTION) {
+                return true;
+            }
+            setFraction(proposedFraction);
+            return false;
+        }
+
+        /**
+         * Adds the delta at the given index of the given buffer to the accumulated local deltas.
+         *
+         * @param buffer The buffer.
+         * @param index The index.
+         * @param delta The delta.
+         */
+        private void addLocalDelta(DeltaBuffer buffer, int index, double delta) {
+            for (int position = 0; position < localDeltas.size(); position++) {
+                if (localDeltas.getModule(position) == buffer.getModule(index)
+                        && localDeltas.getSubsection(position).equals(buffer.getSubsection(index))
+                        && localDeltas.getEntity(position).equals(buffer.getEntity(index))) {
+                    localDeltas.setValue(position, localDeltas.getValue(position) + delta);
+                    return;
+                }
+            }
+            localDeltas.add(buffer.getModule(index), buffer.getSubsection(index), buffer.getEntity(index), delta);
+        }
+
+    }
+
+}
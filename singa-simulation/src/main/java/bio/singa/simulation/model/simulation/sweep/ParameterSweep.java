@@ -0,0 +1,336 @@
+package bio.singa.simulation.model.simulation.sweep;
+
+import bio.singa.features.model.AbstractScalableQuantitativeFeature;
+import bio.singa.features.model.FeatureRegistry;
+import bio.singa.features.model.QuantitativeFeature;
+import bio.singa.features.parameters.SimulationContext;
+import bio.singa.simulation.model.simulation.Simulation;
+import bio.singa.simulation.model.simulation.SimulationManager;
+import bio.singa.simulation.trajectories.Recorders;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.measure.Quantity;
+import javax.measure.quantity.Time;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import static tech.units.indriya.unit.MetricPrefix.MICRO;
+import static tech.units.indriya.unit.MetricPrefix.MILLI;
+import static tech.units.indriya.unit.Units.SECOND;
+
+/**
+ * A parameter sweep simulates every combination of the alternative contents that have been assigned to features
+ * (see {@link AbstractScalableQuantitativeFeature#addAlternativeValue(Double)}). The simulation factory is called once
+ * for every variation, each time in a fresh {@link SimulationContext}, such that units, environment, features and
+ * entities are isolated between runs. Runs are calculated concurrently on a bounded number of worker threads. Unless
+ * the factory sets the parallelism of the {@link bio.singa.simulation.model.simulation.UpdateScheduler} explicitly, the
+ * available processors are divided between the concurrent runs.
+ * <pre>
+ *  SweepSummary summary = ParameterSweep.of(ModelFactory::createSimulation)
+ *         .threads(8)
+ *         .terminateAfter(Quantities.getQuantity(10, SECOND))
+ *         .targetPath(Paths.get("sweep"))
+ *         .configureManager((variation, manager) -&gt; manager.addGraphUpdateListener(...))
+ *         .observe(simulation -&gt; ...)
+ *         .run();
+ *  summary.writeCSV(Paths.get("sweep", "summary.csv")); </pre>
+ * The factory has to create the same features in the same order for every call, since features are resolved by their
+ * identifier. The variable features are determined by calling the factory once before the sweep.
+ *
+ * @author cl
+ */
+public class ParameterSweep {
+
+    /**
+     * The logger.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(ParameterSweep.class);
+
+    /**
+     * The factory creating a new simulation for each run.
+     */
+    private final Supplier<Simulation> simulationFactory;
+
+    /**
+     * The number of runs calculated concurrently.
+     */
+    private int numberOfThreads;
+
+    /**
+     * The configuration of the simulation manager of each run, e.g. to add recorders.
+     */
+    private BiConsumer<Variation, SimulationManager> managerConfiguration;
+
+    /**
+     * Determines observations of a simulation after it terminated.
+     */
+    private Function<Simulation, Map<String, Double>> observer;
+
+    /**
+     * The folder containing a folder for each variation (null if nothing should be written).
+     */
+    private Path targetPath;
+
+    /**
+     * The simulation time after which each run is terminated.
+     */
+    private Quantity<Time> terminationTime;
+
+    /**
+     * The number of epochs after which each run is terminated.
+     */
+    private long terminationEpochs;
+
+    /**
+     * The variable features, determined before the first run.
+     */
+    private List<VariableFeature> variableFeatures;
+
+    private ParameterSweep(Supplier<Simulation> simulationFactory) {
+        this.simulationFactory = simulationFactory;
+        numberOfThreads = Runtime.getRuntime().availableProcessors();
+        managerConfiguration = (variation, manager) -> {
+        };
+        observer = simulation -> Collections.emptyMap();
+    }
+
+    /**
+     * Creates a new sweep for the simulations created by the given factory.
+     *
+     * @param simulationFactory The factory.
+     * @return The sweep.
+     */
+    public static ParameterSweep of(Supplier<Simulation> simulationFactory) {
+        return new ParameterSweep(simulationFactory);
+    }
+
+    /**
+     * Sets the number of runs that are calculated concurrently (defaults to the number of available processors).
+     *
+     * @param numberOfThreads The number of threads.
+     * @return This sweep.
+     */
+    public ParameterSweep threads(int numberOfThreads) {
+        if (numberOfThreads < 1) {
+            throw new IllegalArgumentException("At least one thread is required to run a parameter sweep.");
+        }
+        this.numberOfThreads = numberOfThreads;
+        return this;
+    }
+
+    /**
+     * Terminates each run after the given simulation time has passed.
+     *
+     * @param terminationTime The time.
+     * @return This sweep.
+     */
+    public ParameterSweep terminateAfter(Quantity<Time> terminationTime) {
+        this.terminationTime = terminationTime;
+        terminationEpochs = 0;
+        return this;
+    }
+
+    /**
+     * Terminates each run after the given number of epochs.
+     *
+     * @param numberOfEpochs The number of epochs.
+     * @return This sweep.
+     */
+    public ParameterSweep terminateAfterEpochs(long numberOfEpochs) {
+        terminationEpochs = numberOfEpochs;
+        terminationTime = null;
+        return this;
+    }
+
+    /**
+     * Sets the folder, that will contain a folder for every variation. The folder of a variation is set as the target
+     * path of its {@link SimulationManager}.
+     *
+     * @param targetPath The folder.
+     * @return This sweep.
+     */
+    public ParameterSweep targetPath(Path targetPath) {
+        this.targetPath = targetPath;
+        return this;
+    }
+
+    /**
+     * Configures the {@link SimulationManager} of every run. Recorders should be added here, to stream the trajectory
+     * of each run to its own destination. The configuration is applied in the context of the run.
+     *
+     * @param managerConfiguration The configuration.
+     * @return This sweep.
+     */
+    public ParameterSweep configureManager(BiConsumer<Variation, SimulationManager> managerConfiguration) {
+        this.managerConfiguration = managerConfiguration;
+        return this;
+    }
+
+    /**
+     * Sets the function determining the observations of a simulation after it terminated. The observations are
+     * merged into the {@link SweepSummary}.
+     *
+     * @param observer The function.
+     * @return This sweep.
+     */
+    public ParameterSweep observe(Function<Simulation, Map<String, Double>> observer) {
+        this.observer = observer;
+        return this;
+    }
+
+    /**
+     * Returns the variable features, determining them if required.
+     *
+     * @return The variable features.
+     */
+    public List<VariableFeature> getVariableFeatures() {
+        if (variableFeatures == null) {
+            variableFeatures = determineVariableFeatures();
+        }
+        return variableFeatures;
+    }
+
+    /**
+     * Returns all combinations of the alternative contents of the variable features.
+     *
+     * @return All variations.
+     */
+    public List<Variation> getVariations() {
+        List<VariableFeature> features = getVariableFeatures();
+        int numberOfVariations = 1;
+        for (VariableFeature feature : features) {
+            numberOfVariations = Math.multiplyExact(numberOfVariations, feature.getNumberOfAlternatives());
+        }
+        List<Variation> variations = new ArrayList<>(numberOfVariations);
+        for (int index = 0; index < numberOfVariations; index++) {
+            // decompose the index, the last feature varies fastest
+            int[] alternativeIndices = new int[features.size()];
+            int remainder = index;
+            for (int featureIndex = features.size() - 1; featureIndex >= 0; featureIndex--) {
+                int numberOfAlternatives = features.get(featureIndex).getNumberOfAlternatives();
+                alternativeIndices[featureIndex] = remainder % numberOfAlternatives;
+                remainder /= numberOfAlternatives;
+            }
+            variations.add(new Variation(index, features, alternativeIndices));
+        }
+        return variations;
+    }
+
+    /**
+     * Returns the number of workers used by the scheduler of each run, such that concurrent runs do not use more
+     * workers than there are available processors.
+     *
+     * @return The number of workers per run.
+     */
+    public int getSchedulerParallelism() {
+        return Math.max(1, Runtime.getRuntime().availableProcessors() / numberOfThreads);
+    }
+
+    /**
+     * Runs all variations and returns the merged summary. Failing runs (including runs whose observations could not be
+     * determined) do not terminate the sweep, but are marked as failed in the summary.
+     *
+     * @return The summary.
+     */
+    public SweepSummary run() {
+        if (terminationTime == null && terminationEpochs < 1) {
+            throw new IllegalStateException("The termination condition of the parameter sweep has to be set.");
+        }
+        List<Variation> variations = getVariations();
+        logger.info("Running {} variations of {} features using {} threads with {} workers each.", variations.size(),
+                getVariableFeatures().size(), numberOfThreads, getSchedulerParallelism());
+        ExecutorService executor = Executors.newFixedThreadPool(numberOfThreads);
+        try {
+            List<Future<SweepResult>> futures = new ArrayList<>(variations.size());
+            for (Variation variation : variations) {
+                futures.add(executor.submit(() -> new SimulationContext(variation.getIdentifier()).call(() -> runVariation(variation))));
+            }
+            List<SweepResult> results = new ArrayList<>(variations.size());
+            for (Future<SweepResult> future : futures) {
+                results.add(future.get());
+            }
+            return new SweepSummary(getVariableFeatures(), results);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("The parameter sweep was interrupted.", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Unable to complete parameter sweep.", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private SweepResult runVariation(Variation variation) {
+        logger.info("Starting {}.", variation);
+        Map<String, Double> observations = new LinkedHashMap<>();
+        Simulation simulation;
+        try {
+            simulation = simulationFactory.get();
+            variation.apply();
+            if (simulation.getScheduler().getParallelism() == 0) {
+                simulation.getScheduler().setParallelism(getSchedulerParallelism());
+            }
+        } catch (RuntimeException e) {
+            logger.error("Unable to set up {}.", variation.getIdentifier(), e);
+            return new SweepResult(variation, observations, e);
+        }
+        SimulationManager manager = new SimulationManager(simulation);
+        manager.setExitOnFailure(false);
+        if (terminationTime != null) {
+            manager.setSimulationTerminationToTime(terminationTime);
+        } else {
+            manager.setSimulationTerminationToEpochs(terminationEpochs);
+        }
+        if (targetPath != null) {
+            Path variationPath = targetPath.resolve(variation.getIdentifier());
+            Recorders.createDirectories(variationPath);
+            manager.setTargetPath(variationPath);
+        }
+        managerConfiguration.accept(variation, manager);
+        long start = System.currentTimeMillis();
+        manager.run();
+        observations.put("epochs", (double) simulation.getEpoch());
+        observations.put("elapsed time [" + MICRO(SECOND) + "]", simulation.getElapsedTime().to(MICRO(SECOND)).getValue().doubleValue());
+        observations.put("runtime [" + MILLI(SECOND) + "]", (double) (System.currentTimeMillis() - start));
+        if (manager.getFailure() != null) {
+            return new SweepResult(variation, observations, manager.getFailure());
+        }
+        try {
+            observations.putAll(observer.apply(simulation));
+        } catch (RuntimeException e) {
+            logger.error("Unable to observe {}.", variation.getIdentifier(), e);
+            return new SweepResult(variation, observations, e);
+        }
+        logger.info("Finished {}.", variation.getIdentifier());
+        return new SweepResult(variation, observations, null);
+    }
+
+    private List<VariableFeature> determineVariableFeatures() {
+        SimulationContext probe = new SimulationContext("sweep probe");
+        return probe.call(() -> {
+            Simulation simulation = simulationFactory.get();
+            // the probe is never run, release the workers the factory might have started
+            simulation.getScheduler().shutdownExecutorService();
+            // collect all features that have variations associated to them
+            List<VariableFeature> features = new ArrayList<>();
+            for (QuantitativeFeature<?> quantitativeFeature : FeatureRegistry.getQuantitativeFeatures()) {
+                if (!quantitativeFeature.getAlternativeContents().isEmpty()) {
+                    features.add(VariableFeature.of(quantitativeFeature));
+                }
+            }
+            for (AbstractScalableQuantitativeFeature<?> scalableQuantitativeFeature : FeatureRegistry.getScalableQuantitativeFeatures()) {
+                if (!scalableQuantitativeFeature.getAlternativeContents().isEmpty()) {
+                    features.add(VariableFeature.of(scalableQuantitativeFeature));
+                }
+            }
+            features.sort(Comparator.comparingInt(VariableFeature::getIdentifier));
+            return features;
+        });
+    }
+
+}
@@ -0,0 +1,49 @@
+package bio.singa.simulation.model.simulation.sweep;
+
+import java.util.Map;
+
+/**
+ * The result of a single run of a {@link ParameterSweep}.
+ *
+ * @author cl
+ */
+public class SweepResult {
+
+    /**
+     * The variation that has been simulated.
+     */
+    private final Variation variation;
+
+    /**
+     * The observed values after the simulation terminated.
+     */
+    private final Map<String, Double> observations;
+
+    /**
+     * The exception that terminated the run, or null if the run succeeded.
+     */
+    private final Exception failure;
+
+    public SweepResult(Variation variation, Map<String, Double> observations, Exception failure) {
+        this.variation = variation;
+        this.observations = observations;
+        this.failure = failure;
+    }
+
+    public Variation getVariation() {
+        return variation;
+    }
+
+    public Map<String, Double> getObservations() {
+        return observations;
+    }
+
+    public Exception getFailure() {
+        return failure;
+    }
+
+    public boolean isFailed() {
+        return failure != null;
+    }
+
+}
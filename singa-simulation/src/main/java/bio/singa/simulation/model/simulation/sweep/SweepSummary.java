@@ -0,0 +1,117 @@
+package bio.singa.simulation.model.simulation.sweep;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * The sweep summary merges the {@link SweepResult}s of all runs of a {@link ParameterSweep} into a single table. Each
+ * row contains the values of the variable features followed by the observations of a run. Rows are ordered by the
+ * index of their variation, regardless of the order in which the runs finished.
+ *
+ * @author cl
+ */
+public class SweepSummary {
+
+    private static final String LINE_SEPARATOR = System.lineSeparator();
+    private static final String VALUE_SEPARATOR = ",";
+
+    /**
+     * The variable features of the sweep.
+     */
+    private final List<VariableFeature> variableFeatures;
+
+    /**
+     * The results ordered by variation.
+     */
+    private final List<SweepResult> results;
+
+    public SweepSummary(List<VariableFeature> variableFeatures, List<SweepResult> results) {
+        this.variableFeatures = variableFeatures;
+        this.results = new ArrayList<>(results);
+        this.results.sort(Comparator.comparingInt(result -> result.getVariation().getIndex()));
+    }
+
+    public List<VariableFeature> getVariableFeatures() {
+        return variableFeatures;
+    }
+
+    public List<SweepResult> getResults() {
+        return results;
+    }
+
+    /**
+     * Returns the labels of all observations in order of their first occurrence.
+     *
+     * @return The labels of all observations.
+     */
+    public List<String> getObservationLabels() {
+        Set<String> labels = new LinkedHashSet<>();
+        for (SweepResult result : results) {
+            labels.addAll(result.getObservations().keySet());
+        }
+        return new ArrayList<>(labels);
+    }
+
+    /**
+     * Returns the number of failed runs.
+     *
+     * @return The number of failed runs.
+     */
+    public long getNumberOfFailures() {
+        return results.stream()
+                .filter(SweepResult::isFailed)
+                .count();
+    }
+
+    /**
+     * Returns the summary as comma separated values, including a header line. Missing observations are left empty.
+     *
+     * @return The summary.
+     */
+    public String toCSV() {
+        List<String> observationLabels = getObservationLabels();
+        StringBuilder builder = new StringBuilder();
+        builder.append("variation");
+        for (VariableFeature variableFeature : variableFeatures) {
+            builder.append(VALUE_SEPARATOR).append(variableFeature.getLabel());
+        }
+        for (String observationLabel : observationLabels) {
+            builder.append(VALUE_SEPARATOR).append(observationLabel);
+        }
+        builder.append(VALUE_SEPARATOR).append("status").append(LINE_SEPARATOR);
+        for (SweepResult result : results) {
+            Variation variation = result.getVariation();
+            builder.append(variation.getIndex());
+            for (int featureIndex = 0; featureIndex < variableFeatures.size(); featureIndex++) {
+                builder.append(VALUE_SEPARATOR).append(variation.getValue(featureIndex));
+            }
+            for (String observationLabel : observationLabels) {
+                builder.append(VALUE_SEPARATOR);
+                Double value = result.getObservations().get(observationLabel);
+                if (value != null) {
+                    builder.append(value);
+                }
+            }
+            builder.append(VALUE_SEPARATOR).append(result.isFailed() ? "failed" : "succeeded").append(LINE_SEPARATOR);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Writes the summary as comma separated values to the given file.
+     *
+     * @param file The file.
+     */
+    public void writeCSV(Path file) {
+        try (BufferedWriter writer = Files.newBufferedWriter(file)) {
+            writer.write(toCSV());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to write sweep summary to " + file + ".", e);
+        }
+    }
+
+}
@@ -0,0 +1,95 @@
+package bio.singa.simulation.model.simulation.sweep;
+
+import bio.singa.features.model.QuantitativeFeature;
+
+import javax.measure.Quantity;
+import javax.measure.Unit;
+import java.util.List;
+
+/**
+ * A variable feature describes a {@link QuantitativeFeature} that has alternative contents assigned. Features are
+ * referenced by their identifier, since every run of a {@link ParameterSweep} creates its own feature instances in its
+ * own context. Identifiers are assigned in order of creation and are therefore the same for all runs, as long as the
+ * simulation factory creates the same model.
+ *
+ * @author cl
+ */
+public class VariableFeature {
+
+    /**
+     * The identifier of the feature.
+     */
+    private final int identifier;
+
+    /**
+     * The descriptor of the feature.
+     */
+    private final String descriptor;
+
+    /**
+     * The unit of the alternative values.
+     */
+    private final Unit<?> unit;
+
+    /**
+     * The alternative values.
+     */
+    private final double[] alternativeValues;
+
+    public VariableFeature(int identifier, String descriptor, Unit<?> unit, double[] alternativeValues) {
+        this.identifier = identifier;
+        this.descriptor = descriptor;
+        this.unit = unit;
+        this.alternativeValues = alternativeValues;
+    }
+
+    /**
+     * Creates a variable feature from the given feature.
+     *
+     * @param feature The feature.
+     * @return The variable feature.
+     */
+    public static VariableFeature of(QuantitativeFeature<?> feature) {
+        List<? extends Quantity<?>> alternativeContents = feature.getAlternativeContents();
+        double[] alternativeValues = new double[alternativeContents.size()];
+        for (int i = 0; i < alternativeValues.length; i++) {
+            alternativeValues[i] = alternativeContents.get(i).getValue().doubleValue();
+        }
+        return new VariableFeature(feature.getIdentifier(), feature.getDescriptor(), feature.getContent().getUnit(), alternativeValues);
+    }
+
+    public int getIdentifier() {
+        return identifier;
+    }
+
+    public String getDescriptor() {
+        return descriptor;
+    }
+
+    public Unit<?> getUnit() {
+        return unit;
+    }
+
+    public int getNumberOfAlternatives() {
+        return alternativeValues.length;
+    }
+
+    public double getAlternativeValue(int index) {
+        return alternativeValues[index];
+    }
+
+    /**
+     * Returns a label for this feature, that is unique within a sweep.
+     *
+     * @return The label.
+     */
+    public String getLabel() {
+        return descriptor + "_" + identifier + " [" + unit + "]";
+    }
+
+    @Override
+    public String toString() {
+        return getLabel();
+    }
+
+}
@@ -0,0 +1,96 @@
+package bio.singa.simulation.model.simulation.sweep;
+
+import bio.singa.features.model.Feature;
+import bio.singa.features.model.FeatureRegistry;
+
+import java.util.List;
+
+/**
+ * A variation is a single combination of alternative contents of all {@link VariableFeature}s of a
+ * {@link ParameterSweep}.
+ *
+ * @author cl
+ */
+public class Variation {
+
+    /**
+     * The index of this variation in the sweep.
+     */
+    private final int index;
+
+    /**
+     * The variable features of the sweep.
+     */
+    private final List<VariableFeature> variableFeatures;
+
+    /**
+     * The index of the alternative content that is used for each variable feature.
+     */
+    private final int[] alternativeIndices;
+
+    public Variation(int index, List<VariableFeature> variableFeatures, int[] alternativeIndices) {
+        this.index = index;
+        this.variableFeatures = variableFeatures;
+        this.alternativeIndices = alternativeIndices;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * Returns an identifier for this variation that can be used as a file or folder name.
+     *
+     * @return The identifier.
+     */
+    public String getIdentifier() {
+        return "variation_" + index;
+    }
+
+    public List<VariableFeature> getVariableFeatures() {
+        return variableFeatures;
+    }
+
+    public int getAlternativeIndex(int featureIndex) {
+        return alternativeIndices[featureIndex];
+    }
+
+    /**
+     * Returns the value that is used for the feature at the given position.
+     *
+     * @param featureIndex The position of the feature in the list of variable features.
+     * @return The value.
+     */
+    public double getValue(int featureIndex) {
+        return variableFeatures.get(featureIndex).getAlternativeValue(alternativeIndices[featureIndex]);
+    }
+
+    /**
+     * Assigns the alternative contents of this variation to the features of the {@link FeatureRegistry} in the current
+     * context.
+     */
+    public void apply() {
+        for (int featureIndex = 0; featureIndex < alternativeIndices.length; featureIndex++) {
+            VariableFeature variableFeature = variableFeatures.get(featureIndex);
+            Feature<?> feature = FeatureRegistry.get(variableFeature.getIdentifier());
+            if (feature == null || !feature.getDescriptor().equals(variableFeature.getDescriptor())) {
+                throw new IllegalStateException("The feature " + variableFeature + " could not be resolved for " +
+                        getIdentifier() + ", the simulation factory has to create the same features for every run.");
+            }
+            feature.setAlternativeContent(alternativeIndices[featureIndex]);
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder(getIdentifier()).append(" (");
+        for (int featureIndex = 0; featureIndex < alternativeIndices.length; featureIndex++) {
+            if (featureIndex > 0) {
+                builder.append(", ");
+            }
+            builder.append(variableFeatures.get(featureIndex).getLabel()).append(" = ").append(getValue(featureIndex));
+        }
+        return builder.append(")").toString();
+    }
+
+}
@@ -0,0 +1,193 @@
+package bio.singa.simulation.model.simulation.telemetry;
+
+import bio.singa.core.events.UpdateEventListener;
+import bio.singa.simulation.events.GraphUpdatedEvent;
+import bio.singa.simulation.model.simulation.Simulation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+
+/**
+ * The metrics recorder periodically writes the {@link SimulationMetrics} of a simulation to a file. In the
+ * {@link Format#CSV CSV} format a line is appended for every metric (epoch, group, name and value), such that the
+ * development of the metrics can be analysed afterwards. In the {@link Format#JSON JSON} format the file is replaced
+ * by the latest snapshot of the metrics. The recorder can be registered as an asynchronous graph listener of the
+ * {@link bio.singa.simulation.model.simulation.SimulationManager}, since the metrics can be read from any thread.
+ * <pre>
+ *  MetricsRecorder recorder = new MetricsRecorder(simulation, path, MetricsRecorder.Format.CSV, 1000);
+ *  manager.addAsynchronousGraphUpdateListener(recorder); </pre>
+ *
+ * @author cl
+ */
+public class MetricsRecorder implements UpdateEventListener<GraphUpdatedEvent> {
+
+    /**
+     * The logger.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(MetricsRecorder.class);
+
+    /**
+     * The formats the metrics can be written in.
+     */
+    public enum Format {
+        CSV, JSON
+    }
+
+    /**
+     * The simulation.
+     */
+    private final Simulation simulation;
+
+    /**
+     * The file.
+     */
+    private final Path file;
+
+    /**
+     * The format.
+     */
+    private final Format format;
+
+    /**
+     * The minimal number of epochs between two snapshots.
+     */
+    private final long epochInterval;
+
+    /**
+     * The epoch of the last snapshot.
+     */
+    private long lastEpoch;
+
+    /**
+     * Creates a new metrics recorder.
+     *
+     * @param simulation The simulation.
+     * @param file The file.
+     * @param format The format.
+     * @param epochInterval The minimal number of epochs between two snapshots.
+     */
+    public MetricsRecorder(Simulation simulation, Path file, Format format, long epochInterval) {
+        if (epochInterval < 1) {
+            throw new IllegalArgumentException("The epoch interval has to be positive.");
+        }
+        this.simulation = simulation;
+        this.file = file;
+        this.format = format;
+        this.epochInterval = epochInterval;
+        lastEpoch = simulation.getEpoch();
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    public Format getFormat() {
+        return format;
+    }
+
+    @Override
+    public void onEventReceived(GraphUpdatedEvent event) {
+        long epoch = simulation.getEpoch();
+        if (epoch - lastEpoch < epochInterval) {
+            return;
+        }
+        lastEpoch = epoch;
+        try {
+            write(epoch);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to write simulation metrics to " + file + ".", e);
+        }
+    }
+
+    /**
+     * Writes a snapshot of the current metrics.
+     *
+     * @throws IOException If the metrics could not be written.
+     */
+    public void write() throws IOException {
+        write(simulation.getEpoch());
+    }
+
+    private void write(long epoch) throws IOException {
+        Map<String, Map<String, ? extends Number>> snapshot = simulation.getScheduler().getMetrics().getSnapshot();
+        switch (format) {
+            case CSV:
+                writeCsv(epoch, snapshot);
+                break;
+            case JSON:
+                writeJson(epoch, snapshot);
+                break;
+        }
+        logger.debug("Wrote simulation metrics of epoch {} to {}.", epoch, file);
+    }
+
+    private void writeCsv(long epoch, Map<String, Map<String, ? extends Number>> snapshot) throws IOException {
+        boolean writeHeader = !Files.exists(file) || Files.size(file) == 0;
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            if (writeHeader) {
+                writer.write("epoch,group,name,value");
+                writer.newLine();
+            }
+            for (Map.Entry<String, Map<String, ? extends Number>> group : snapshot.entrySet()) {
+                for (Map.Entry<String, ? extends Number> metric : group.getValue().entrySet()) {
+                    writer.write(epoch + "," + group.getKey() + "," + quoteCsv(metric.getKey()) + "," + metric.getValue());
+                    writer.newLine();
+                }
+            }
+        }
+    }
+
+    private void writeJson(long epoch, Map<String, Map<String, ? extends Number>> snapshot) throws IOException {
+        StringBuilder builder = new StringBuilder();
+        builder.append("{\n  \"epoch\": ").append(epoch);
+        for (Map.Entry<String, Map<String, ? extends Number>> group : snapshot.entrySet()) {
+            builder.append(",\n  ").append(quoteJson(group.getKey())).append(": {");
+            boolean first = true;
+            for (Map.Entry<String, ? extends Number> metric : group.getValue().entrySet()) {
+                builder.append(first ? "\n    " : ",\n    ");
+                builder.append(quoteJson(metric.getKey())).append(": ").append(formatJsonNumber(metric.getValue()));
+                first = false;
+            }
+            builder.append(first ? "}" : "\n  }");
+        }
+        builder.append("\n}\n");
+        // replace the previous snapshot only once the current one is complete
+        Path temporaryFile = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.write(temporaryFile, builder.toString().getBytes(StandardCharsets.UTF_8));
+        try {
+            Files.move(temporaryFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            // atomic moves are not supported by every file system
+            Files.move(temporaryFile, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static String quoteCsv(String value) {
+        if (value.contains(",") || value.contains("\"")) {
+            return "\"" + value.replace("\"", "\"\"") + "\"";
+        }
+        return value;
+    }
+
+    private static String quoteJson(String value) {
+        return "\"" + value.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+
+    private static String formatJsonNumber(Number value) {
+        // json does not support non finite numbers
+        if (value instanceof Double && !Double.isFinite(value.doubleValue())) {
+            return "null";
+        }
+        return value.toString();
+    }
+
+}
@@ -0,0 +1,425 @@
+package bio.singa.simulation.model.simulation.telemetry;
+
+import bio.singa.core.events.UpdateEventListener;
+import bio.singa.simulation.model.modules.UpdateModule;
+import bio.singa.simulation.model.simulation.UpdateScheduler;
+import bio.singa.simulation.model.simulation.error.ErrorManager.Reason;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+import static bio.singa.simulation.model.simulation.error.ErrorManager.Reason.LOCAL_DEVIATION;
+import static bio.singa.simulation.model.simulation.error.ErrorManager.Reason.LOCAL_ERROR;
+
+/**
+ * The simulation metrics collect the performance of the {@link UpdateScheduler} over time: the CPU and wall time and
+ * the number of calculations of each module, the wall time of each epoch, the number of accepted and rejected time
+ * steps, the reasons for time step adjustments, the modules limiting the time step and a histogram of accepted time
+ * steps. Each scheduler collects its metrics permanently, they are retrieved with
+ * {@link UpdateScheduler#getMetrics()}.
+ * <p>
+ * Metrics are recorded with {@link LongAdder}s and atomic values, such that modules calculated in parallel do not
+ * contend and the metrics can be read from any thread, e.g. via JMX (see {@link #registerMBean(String)}) or by a
+ * {@link MetricsRecorder} that periodically writes them to a file. Measuring the CPU time of modules requires two
+ * calls to the {@link ThreadMXBean} for each module calculation and can be disabled with
+ * {@link #setCpuTimeMeasured(boolean)}.
+ *
+ * @author cl
+ */
+public class SimulationMetrics implements SimulationMetricsMXBean, UpdateEventListener<Reason> {
+
+    private static final Logger logger = LoggerFactory.getLogger(SimulationMetrics.class);
+
+    /**
+     * The exponent of the smallest decade of the time step histogram, smaller time steps are counted in this decade.
+     */
+    public static final int MINIMAL_TIME_STEP_EXPONENT = -15;
+
+    /**
+     * The exponent of the largest decade of the time step histogram, larger time steps are counted in this decade.
+     */
+    public static final int MAXIMAL_TIME_STEP_EXPONENT = 2;
+
+    private static final double NANOSECONDS_PER_MILLISECOND = 1.0e6;
+
+    /**
+     * The scheduler.
+     */
+    private final UpdateScheduler scheduler;
+
+    /**
+     * Measures the CPU time of the threads calculating modules.
+     */
+    private final ThreadMXBean threadBean;
+
+    /**
+     * True if the CPU time of modules is measured.
+     */
+    private volatile boolean cpuTimeMeasured;
+
+    /**
+     * The metrics of each module.
+     */
+    private final Map<UpdateModule, ModuleMetrics> moduleMetrics;
+
+    /**
+     * The number of time step adjustments by reason.
+     */
+    private final Map<Reason, LongAdder> timeStepAdjustments;
+
+    private final LongAdder epochs;
+    private final LongAdder rounds;
+    private final LongAdder savedRecalculations;
+
+    /**
+     * The wall times of epochs in nanoseconds.
+     */
+    private final AtomicLong totalEpochWallTime;
+    private final AtomicLong lastEpochWallTime;
+    private final AtomicLong maximalEpochWallTime;
+
+    /**
+     * The number of accepted time steps by decade.
+     */
+    private final AtomicLongArray timeStepHistogram;
+
+    /**
+     * The name the metrics are registered with in the platform MBean server.
+     */
+    private ObjectName objectName;
+
+    /**
+     * Creates new metrics for the given scheduler.
+     *
+     * @param scheduler The scheduler.
+     */
+    public SimulationMetrics(UpdateScheduler scheduler) {
+        this.scheduler = scheduler;
+        threadBean = ManagementFactory.getThreadMXBean();
+        cpuTimeMeasured = threadBean.isCurrentThreadCpuTimeSupported() && threadBean.isThreadCpuTimeEnabled();
+        moduleMetrics = new ConcurrentHashMap<>();
+        timeStepAdjustments = new EnumMap<>(Reason.class);
+        for (Reason reason : Reason.values()) {
+            timeStepAdjustments.put(reason, new LongAdder());
+        }
+        epochs = new LongAdder();
+        rounds = new LongAdder();
+        savedRecalculations = new LongAdder();
+        totalEpochWallTime = new AtomicLong();
+        lastEpochWallTime = new AtomicLong();
+        maximalEpochWallTime = new AtomicLong();
+        timeStepHistogram = new AtomicLongArray(MAXIMAL_TIME_STEP_EXPONENT - MINIMAL_TIME_STEP_EXPONENT + 1);
+    }
+
+    public boolean isCpuTimeMeasured() {
+        return cpuTimeMeasured;
+    }
+
+    /**
+     * Enables or disables the measurement of the CPU time of modules. The CPU time can only be measured if it is
+     * supported by the virtual machine.
+     *
+     * @param cpuTimeMeasured True if the CPU time should be measured.
+     */
+    public void setCpuTimeMeasured(boolean cpuTimeMeasured) {
+        this.cpuTimeMeasured = cpuTimeMeasured && threadBean.isCurrentThreadCpuTimeSupported();
+    }
+
+    /**
+     * Returns the CPU time of the current thread in nanoseconds, to be passed to
+     * {@link #recordModule(UpdateModule, long, long)} once the module finished. Returns 0 if the CPU time is not
+     * measured.
+     *
+     * @return The CPU time of the current thread.
+     */
+    public long currentCpuTime() {
+        return cpuTimeMeasured ? threadBean.getCurrentThreadCpuTime() : 0;
+    }
+
+    /**
+     * Records a calculation of the given module, that has been started at the given times. Called by the thread that
+     * calculated the module.
+     *
+     * @param module The module.
+     * @param startWallTime The value of {@link System#nanoTime()} when the calculation started.
+     * @param startCpuTime The value of {@link #currentCpuTime()} when the calculation started.
+     */
+    public void recordModule(UpdateModule module, long startWallTime, long startCpuTime) {
+        long wallTime = System.nanoTime() - startWallTime;
+        ModuleMetrics metrics = moduleMetrics.computeIfAbsent(module, key -> new ModuleMetrics());
+        metrics.invocations.increment();
+        metrics.wallTime.add(wallTime);
+        if (cpuTimeMeasured && startCpuTime > 0) {
+            metrics.cpuTime.add(threadBean.getCurrentThreadCpuTime() - startCpuTime);
+        }
+    }
+
+    /**
+     * Records a calculation round of the scheduler.
+     */
+    public void recordRound() {
+        rounds.increment();
+    }
+
+    /**
+     * Records the given number of module calculations, that have been saved by rescaling deltas.
+     *
+     * @param numberOfSavedCalculations The number of saved module calculations.
+     */
+    public void recordSavedRecalculations(int numberOfSavedCalculations) {
+        savedRecalculations.add(numberOfSavedCalculations);
+    }
+
+    /**
+     * Records a completed epoch.
+     *
+     * @param wallTime The wall time of the epoch in nanoseconds.
+     * @param timeStep The accepted time step of the epoch in seconds.
+     */
+    public void recordEpoch(long wallTime, double timeStep) {
+        epochs.increment();
+        totalEpochWallTime.addAndGet(wallTime);
+        lastEpochWallTime.set(wallTime);
+        maximalEpochWallTime.accumulateAndGet(wallTime, Math::max);
+        timeStepHistogram.incrementAndGet(determineDecade(timeStep) - MINIMAL_TIME_STEP_EXPONENT);
+    }
+
+    private static int determineDecade(double timeStep) {
+        if (!(timeStep > 0.0)) {
+            return MINIMAL_TIME_STEP_EXPONENT;
+        }
+        int exponent = (int) Math.floor(Math.log10(timeStep));
+        return Math.max(MINIMAL_TIME_STEP_EXPONENT, Math.min(MAXIMAL_TIME_STEP_EXPONENT, exponent));
+    }
+
+    /**
+     * Records an adjustment of the time step. Decreases caused by the local error or displacement deviation are
+     * attributed to the module that optimized the time step.
+     *
+     * @param reason The reason of the adjustment.
+     */
+    @Override
+    public void onEventReceived(Reason reason) {
+        timeStepAdjustments.get(reason).increment();
+        if (reason == LOCAL_ERROR || reason == LOCAL_DEVIATION) {
+            UpdateModule module = scheduler.getPrioritizedModule();
+            if (module != null) {
+                moduleMetrics.computeIfAbsent(module, key -> new ModuleMetrics()).limitations.increment();
+            }
+        }
+    }
+
+    @Override
+    public long getEpochs() {
+        return epochs.sum();
+    }
+
+    @Override
+    public long getRounds() {
+        return rounds.sum();
+    }
+
+    @Override
+    public long getRejectedSteps() {
+        long rejectedSteps = 0;
+        for (Map.Entry<Reason, LongAdder> entry : timeStepAdjustments.entrySet()) {
+            if (entry.getKey() != Reason.INCREASE) {
+                rejectedSteps += entry.getValue().sum();
+            }
+        }
+        return rejectedSteps;
+    }
+
+    @Override
+    public long getSavedRecalculations() {
+        return savedRecalculations.sum();
+    }
+
+    @Override
+    public double getTotalEpochWallTime() {
+        return totalEpochWallTime.get() / NANOSECONDS_PER_MILLISECOND;
+    }
+
+    @Override
+    public double getLastEpochWallTime() {
+        return lastEpochWallTime.get() / NANOSECONDS_PER_MILLISECOND;
+    }
+
+    @Override
+    public double getMaximalEpochWallTime() {
+        return maximalEpochWallTime.get() / NANOSECONDS_PER_MILLISECOND;
+    }
+
+    @Override
+    public double getAverageEpochWallTime() {
+        long numberOfEpochs = epochs.sum();
+        return numberOfEpochs == 0 ? 0.0 : getTotalEpochWallTime() / numberOfEpochs;
+    }
+
+    @Override
+    public Map<String, Long> getTimeStepAdjustments() {
+        Map<String, Long> adjustments = new LinkedHashMap<>();
+        for (Map.Entry<Reason, LongAdder> entry : timeStepAdjustments.entrySet()) {
+            adjustments.put(entry.getKey().name(), entry.getValue().sum());
+        }
+        return adjustments;
+    }
+
+    @Override
+    public Map<String, Long> getModuleInvocations() {
+        return collectModuleMetrics(metrics -> metrics.invocations.sum());
+    }
+
+    @Override
+    public Map<String, Double> getModuleCpuTimes() {
+        return collectModuleMetrics(metrics -> metrics.cpuTime.sum() / NANOSECONDS_PER_MILLISECOND);
+    }
+
+    @Override
+    public Map<String, Double> getModuleWallTimes() {
+        return collectModuleMetrics(metrics -> metrics.wallTime.sum() / NANOSECONDS_PER_MILLISECOND);
+    }
+
+    @Override
+    public Map<String, Long> getLimitingModules() {
+        return collectModuleMetrics(metrics -> metrics.limitations.sum());
+    }
+
+    /**
+     * Collects a metric for every module of the scheduler, in the order of the modules. Modules with equal identifiers
+     * are distinguished by their position.
+     *
+     * @param metric The metric.
+     * @param <ValueType> The type of the metric.
+     * @return The metric by module identifier.
+     */
+    private <ValueType> Map<String, ValueType> collectModuleMetrics(Function<ModuleMetrics, ValueType> metric) {
+        Map<String, ValueType> values = new LinkedHashMap<>();
+        ModuleMetrics emptyMetrics = new ModuleMetrics();
+        for (UpdateModule module : scheduler.getModules()) {
+            String identifier = module.getIdentifier();
+            if (values.containsKey(identifier)) {
+                identifier = identifier + " (" + (values.size() + 1) + ")";
+            }
+            values.put(identifier, metric.apply(moduleMetrics.getOrDefault(module, emptyMetrics)));
+        }
+        return values;
+    }
+
+    @Override
+    public Map<String, Long> getTimeStepHistogram() {
+        Map<String, Long> histogram = new LinkedHashMap<>();
+        for (int bin = 0; bin < timeStepHistogram.length(); bin++) {
+            histogram.put("1e" + (bin + MINIMAL_TIME_STEP_EXPONENT), timeStepHistogram.get(bin));
+        }
+        return histogram;
+    }
+
+    @Override
+    public void reset() {
+        moduleMetrics.clear();
+        timeStepAdjustments.values().forEach(LongAdder::reset);
+        epochs.reset();
+        rounds.reset();
+        savedRecalculations.reset();
+        totalEpochWallTime.set(0);
+        lastEpochWallTime.set(0);
+        maximalEpochWallTime.set(0);
+        for (int bin = 0; bin < timeStepHistogram.length(); bin++) {
+            timeStepHistogram.set(bin, 0);
+        }
+    }
+
+    /**
+     * Returns a snapshot of all metrics, grouped by topic. Used to export the metrics, see {@link MetricsRecorder}.
+     *
+     * @return The metrics by group and name.
+     */
+    public Map<String, Map<String, ? extends Number>> getSnapshot() {
+        Map<String, Number> scheduling = new LinkedHashMap<>();
+        scheduling.put("epochs", getEpochs());
+        scheduling.put("rounds", getRounds());
+        scheduling.put("rejectedSteps", getRejectedSteps());
+        scheduling.put("savedRecalculations", getSavedRecalculations());
+        scheduling.put("totalEpochWallTime", getTotalEpochWallTime());
+        scheduling.put("lastEpochWallTime", getLastEpochWallTime());
+        scheduling.put("maximalEpochWallTime", getMaximalEpochWallTime());
+        scheduling.put("averageEpochWallTime", getAverageEpochWallTime());
+        Map<String, Map<String, ? extends Number>> snapshot = new LinkedHashMap<>();
+        snapshot.put("scheduling", scheduling);
+        snapshot.put("timeStepAdjustments", getTimeStepAdjustments());
+        snapshot.put("moduleInvocations", getModuleInvocations());
+        if (cpuTimeMeasured) {
+            snapshot.put("moduleCpuTimes", getModuleCpuTimes());
+        }
+        snapshot.put("moduleWallTimes", getModuleWallTimes());
+        snapshot.put("limitingModules", getLimitingModules());
+        snapshot.put("timeStepHistogram", getTimeStepHistogram());
+        return snapshot;
+    }
+
+    /**
+     * Registers the metrics in the platform MBean server, such that they can be observed with JMX clients (e.g.
+     * JConsole or VisualVM) as {@code bio.singa.simulation:type=SimulationMetrics,name=<name>}.
+     *
+     * @param name The name of the simulation.
+     */
+    public synchronized void registerMBean(String name) {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            if (objectName != null) {
+                server.unregisterMBean(objectName);
+            }
+            objectName = new ObjectName("bio.singa.simulation:type=SimulationMetrics,name=" + ObjectName.quote(name));
+            server.registerMBean(this, objectName);
+            logger.debug("Registered simulation metrics as {}.", objectName);
+        } catch (JMException e) {
+            objectName = null;
+            throw new IllegalStateException("Unable to register simulation metrics as " + name + ".", e);
+        }
+    }
+
+    /**
+     * Removes the metrics from the platform MBean server, if they have been registered before.
+     */
+    public synchronized void unregisterMBean() {
+        if (objectName == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (JMException e) {
+            throw new IllegalStateException("Unable to unregister simulation metrics " + objectName + ".", e);
+        } finally {
+            objectName = null;
+        }
+    }
+
+    public ObjectName getObjectName() {
+        return objectName;
+    }
+
+    /**
+     * The metrics of a single module.
+     */
+    private static class ModuleMetrics {
+
+        private final LongAdder invocations = new LongAdder();
+        private final LongAdder cpuTime = new LongAdder();
+        private final LongAdder wallTime = new LongAdder();
+        private final LongAdder limitations = new LongAdder();
+
+    }
+
+}
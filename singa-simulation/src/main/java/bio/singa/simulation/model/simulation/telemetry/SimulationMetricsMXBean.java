@@ -0,0 +1,117 @@
+package bio.singa.simulation.model.simulation.telemetry;
+
+import java.util.Map;
+
+/**
+ * The management interface of the {@link SimulationMetrics}, that is exposed via JMX once the metrics have been
+ * registered, see {@link SimulationMetrics#registerMBean(String)}. All times are given in milliseconds.
+ *
+ * @author cl
+ */
+public interface SimulationMetricsMXBean {
+
+    /**
+     * Returns the number of calculated epochs, i.e. the number of accepted time steps.
+     *
+     * @return The number of epochs.
+     */
+    long getEpochs();
+
+    /**
+     * Returns the number of calculation rounds, including the rounds that have been rejected.
+     *
+     * @return The number of calculation rounds.
+     */
+    long getRounds();
+
+    /**
+     * Returns the number of rejected time steps, i.e. the number of time step decreases.
+     *
+     * @return The number of rejected time steps.
+     */
+    long getRejectedSteps();
+
+    /**
+     * Returns the number of module calculations that were saved by rescaling deltas instead of recalculating them.
+     *
+     * @return The number of saved module calculations.
+     */
+    long getSavedRecalculations();
+
+    /**
+     * Returns the total wall time spent calculating epochs.
+     *
+     * @return The total wall time.
+     */
+    double getTotalEpochWallTime();
+
+    /**
+     * Returns the wall time of the last epoch.
+     *
+     * @return The wall time of the last epoch.
+     */
+    double getLastEpochWallTime();
+
+    /**
+     * Returns the longest wall time of any epoch.
+     *
+     * @return The longest wall time.
+     */
+    double getMaximalEpochWallTime();
+
+    /**
+     * Returns the average wall time of an epoch.
+     *
+     * @return The average wall time.
+     */
+    double getAverageEpochWallTime();
+
+    /**
+     * Returns the number of time step adjustments for each {@link bio.singa.simulation.model.simulation.error.ErrorManager.Reason}.
+     *
+     * @return The number of adjustments by reason.
+     */
+    Map<String, Long> getTimeStepAdjustments();
+
+    /**
+     * Returns the number of calculations of each module.
+     *
+     * @return The number of calculations by module.
+     */
+    Map<String, Long> getModuleInvocations();
+
+    /**
+     * Returns the CPU time spent calculating each module.
+     *
+     * @return The CPU time by module.
+     */
+    Map<String, Double> getModuleCpuTimes();
+
+    /**
+     * Returns the wall time spent calculating each module.
+     *
+     * @return The wall time by module.
+     */
+    Map<String, Double> getModuleWallTimes();
+
+    /**
+     * Returns how often each module caused a decrease of the time step, due to its local error or displacement
+     * deviation.
+     *
+     * @return The number of time step decreases by module.
+     */
+    Map<String, Long> getLimitingModules();
+
+    /**
+     * Returns the histogram of accepted time steps. Keys are the lower bounds of the decades in seconds.
+     *
+     * @return The number of accepted time steps by decade.
+     */
+    Map<String, Long> getTimeStepHistogram();
+
+    /**
+     * Resets all metrics.
+     */
+    void reset();
+
+}
@@ -1,5 +1,6 @@
 package bio.singa.simulation.reactions;
 
+import bio.singa.features.parameters.SimulationContext;
 import bio.singa.simulation.entities.ChemicalEntity;
 import bio.singa.simulation.entities.EntityRegistry;
 import bio.singa.simulation.entities.BindingSite;
@@ -12,10 +13,19 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.*;
+import java.util.stream.Collectors;
 
 import static bio.singa.simulation.entities.ComplexEntityBuilder.attachBindingSites;
 
 /**
+ * The reaction network generator enumerates all complexes and reactions, that can be formed by a set of rules
+ * ({@link ReactionChain}s). The generation starts with the initial entities, that are derived from the binding sites
+ * referenced in the rules. Entities are processed as a worklist: In each round, every rule is applied to the frontier
+ * of entities, that have been discovered in the previous round (and pairs of frontier and previously known entities,
+ * for binding rules). Entities produced by the round, that are not yet known, form the next frontier. The generation is
+ * finished, once no new entities are discovered. Complexes are deduplicated by their canonical hash (see
+ * {@link ComplexEntity#getCanonicalHash()}). Since rules do not share any state, the rules are applied in parallel.
+ *
  * @author cl
  */
 public class ReactionNetworkGenerator {
@@ -26,10 +36,16 @@ public class ReactionNetworkGenerator {
     private List<ReactionChain> reactionChains;
     private List<ReactionChain> preReactions;
 
+    /**
+     * True, if rules should be applied in parallel.
+     */
+    private boolean parallel;
+
     public ReactionNetworkGenerator() {
         possibleEntities = new HashSet<>();
         reactionChains = new ArrayList<>();
         preReactions = new ArrayList<>();
+        parallel = true;
     }
 
     public void add(ReactionChain reactionChain) {
@@ -40,73 +56,98 @@ public class ReactionNetworkGenerator {
         preReactions.add(reactionChain);
     }
 
+    public List<ReactionChain> getReactionChains() {
+        return reactionChains;
+    }
+
+    public Set<ComplexEntity> getPossibleEntities() {
+        return possibleEntities;
+    }
+
+    public boolean isParallel() {
+        return parallel;
+    }
+
+    /**
+     * Determines whether rules should be applied in parallel (default) or sequentially.
+     *
+     * @param parallel True, if rules should be applied in parallel.
+     */
+    public void setParallel(boolean parallel) {
+        this.parallel = parallel;
+    }
+
     public void generate() {
         Map<ChemicalEntity, Set<BindingSite>> bindingSites = determineBindingSites();
         possibleEntities = createInitialEntities(bindingSites);
         performPrereactions(bindingSites);
         logBindingSites();
-        boolean reactionsUnstable;
-        do {
-            reactionsUnstable = false;
-            for (ReactionChain reactionChain : reactionChains) {
-                int previousNumberOfReactions = reactionChain.getReactantElements().size();
-                reactionChain.process(possibleEntities);
-                Set<ReactionElement> reactantElements = reactionChain.getReactantElements();
-                reactantElements.stream()
-                        .map(ReactionElement::getSubstrates)
-                        .forEach(possibleEntities::addAll);
-                reactantElements.stream()
-                        .map(ReactionElement::getProducts)
-                        .forEach(possibleEntities::addAll);
-                int updatedNumberOfReactions = reactantElements.size();
-                if (updatedNumberOfReactions != previousNumberOfReactions) {
-                    reactionsUnstable = true;
-                }
-                debugLogCreatedReaction(reactionChain);
-            }
-            if (reactionsUnstable) {
-                logger.debug("repeating since reactions were unstable");
-            }
-        } while (reactionsUnstable);
+        possibleEntities = processWorklist(reactionChains, possibleEntities, new ArrayList<>());
+        reactionChains.forEach(this::debugLogCreatedReaction);
         infoLogCreatedReactions();
         registerEntities();
     }
 
     private void performPrereactions(Map<ChemicalEntity, Set<BindingSite>> bindingSites) {
-        Set<ComplexEntity> prereactionEntities = createInitialEntities(bindingSites);
+        List<ReactionElement> createdElements = new ArrayList<>();
+        processWorklist(preReactions, createInitialEntities(bindingSites), createdElements);
+        preReactions.forEach(this::debugLogCreatedReaction);
         Set<ComplexEntity> prereactionSubstrates = new HashSet<>();
         Set<ComplexEntity> prereactionProducts = new HashSet<>();
-        boolean reactionsUnstable;
-        do {
-            reactionsUnstable = false;
-            for (ReactionChain reactionChain : preReactions) {
-                int previousNumberOfReactions = reactionChain.getReactantElements().size();
-                reactionChain.process(prereactionEntities);
-                Set<ReactionElement> reactantElements = reactionChain.getReactantElements();
-                reactantElements.stream()
-                        .map(ReactionElement::getSubstrates)
-                        .forEach(substrates -> {
-                            prereactionEntities.addAll(substrates);
-                            prereactionSubstrates.addAll(substrates);
-                        });
-                reactantElements.stream()
-                        .map(ReactionElement::getProducts)
-                        .forEach(products -> {
-                            prereactionEntities.addAll(products);
-                            prereactionProducts.addAll(products);
-                        });
-                int updatedNumberOfReactions = reactantElements.size();
-                if (updatedNumberOfReactions != previousNumberOfReactions) {
-                    reactionsUnstable = true;
+        for (ReactionElement element : createdElements) {
+            prereactionSubstrates.addAll(element.getSubstrates());
+            prereactionProducts.addAll(element.getProducts());
+        }
+        possibleEntities.removeAll(prereactionSubstrates);
+        possibleEntities.addAll(prereactionProducts);
+    }
+
+    /**
+     * Applies the reaction chains until no new entities are discovered.
+     *
+     * @param reactionChains The reaction chains.
+     * @param initialEntities The initial entities.
+     * @param createdElements The list, all created reactant elements are added to.
+     * @return All known entities.
+     */
+    private Set<ComplexEntity> processWorklist(List<ReactionChain> reactionChains, Set<ComplexEntity> initialEntities, List<ReactionElement> createdElements) {
+        SimulationContext context = SimulationContext.current();
+        Set<ComplexEntity> knownEntities = new HashSet<>(initialEntities);
+        Set<ComplexEntity> frontier = new HashSet<>(initialEntities);
+        int round = 0;
+        while (!frontier.isEmpty()) {
+            List<ComplexEntity> availableEntities = new ArrayList<>(knownEntities);
+            Set<ComplexEntity> novelEntities = frontier;
+            // chains are processed by the worker threads, complexes are registered in the context of the generator
+            List<List<ReactionElement>> addedElements = (parallel ? reactionChains.parallelStream() : reactionChains.stream())
+                    .map(reactionChain -> process(context, reactionChain, availableEntities, novelEntities))
+                    .collect(Collectors.toList());
+            frontier = new HashSet<>();
+            for (List<ReactionElement> elements : addedElements) {
+                createdElements.addAll(elements);
+                for (ReactionElement element : elements) {
+                    discover(element.getSubstrates(), knownEntities, frontier);
+                    discover(element.getProducts(), knownEntities, frontier);
                 }
-                debugLogCreatedReaction(reactionChain);
             }
-            if (reactionsUnstable) {
-                logger.debug("repeating since reactions were unstable");
+            round++;
+            logger.debug("round {} discovered {} new entities", round, frontier.size());
+        }
+        return knownEntities;
+    }
+
+    private static List<ReactionElement> process(SimulationContext context, ReactionChain reactionChain, List<ComplexEntity> availableEntities, Set<ComplexEntity> novelEntities) {
+        List<ReactionElement> addedElements = new ArrayList<>();
+        context.run(() -> addedElements.addAll(reactionChain.process(availableEntities, novelEntities)));
+        return addedElements;
+    }
+
+    private static void discover(List<ComplexEntity> entities, Set<ComplexEntity> knownEntities, Set<ComplexEntity> frontier) {
+        for (ComplexEntity entity : entities) {
+            if (knownEntities.add(entity)) {
+                frontier.add(entity);
             }
-        } while (reactionsUnstable);
-        possibleEntities.removeAll(prereactionSubstrates);
-        possibleEntities.addAll(prereactionProducts);
+        }
     }
 
     private void registerEntities() {
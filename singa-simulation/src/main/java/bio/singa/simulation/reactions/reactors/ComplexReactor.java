@@ -8,6 +8,8 @@ import bio.singa.core.utility.Pair;
 
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 /**
  * @author cl
@@ -15,6 +17,20 @@ import java.util.Map;
 public interface ComplexReactor {
 
     void collectCandidates(List<ComplexEntity> substrateCandidates);
+
+    /**
+     * Collects the candidates, such that only reactions are considered, where at least one substrate is novel. By
+     * default only the novel candidates are collected.
+     *
+     * @param substrateCandidates All candidates.
+     * @param novelCandidates The candidates, that have not been processed before.
+     */
+    default void collectCandidates(List<ComplexEntity> substrateCandidates, Set<ComplexEntity> novelCandidates) {
+        collectCandidates(substrateCandidates.stream()
+                .filter(novelCandidates::contains)
+                .collect(Collectors.toList()));
+    }
+
     Map.Entry<BindingSite, Pair<ChemicalEntity>> getBindingSite();
     List<ReactionElement> getProducts();
     ComplexEntityModification getModification();
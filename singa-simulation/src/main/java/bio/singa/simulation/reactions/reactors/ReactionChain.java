@@ -51,24 +51,46 @@ public class ReactionChain {
     }
 
     public void process(Collection<ComplexEntity> availableEntities) {
-        processReactors(availableEntities, reactors);
+        process(availableEntities, null);
+    }
+
+    /**
+     * Processes the reactors of this chain, only considering reactions, where at least one substrate of the first
+     * reactor is a novel entity. Reactions between already processed entities have been considered, when the entities
+     * were novel and are therefore skipped.
+     *
+     * @param availableEntities All available entities, including the novel entities.
+     * @param novelEntities The entities, that have not been processed by this chain before (null if all available
+     * entities should be processed).
+     * @return The reactant elements, that have been added by processing the novel entities.
+     */
+    public List<ReactionElement> process(Collection<ComplexEntity> availableEntities, Set<ComplexEntity> novelEntities) {
+        processReactors(availableEntities, novelEntities, reactors);
         sealTracks();
         if (considerInversion) {
             if (invertedReactors.isEmpty()) {
                 invertReactors();
             }
-            processReactors(availableEntities, invertedReactors);
+            processReactors(availableEntities, novelEntities, invertedReactors);
             invertUnsealedTracks();
             sealTracks();
         }
-        collectReactantElements();
+        List<ReactionElement> addedElements = collectReactantElements();
         tracks.clear();
+        return addedElements;
     }
 
-    private void processReactors(Collection<ComplexEntity> availableEntities, List<ComplexReactor> reactors) {
+    private void processReactors(Collection<ComplexEntity> availableEntities, Set<ComplexEntity> novelEntities, List<ComplexReactor> reactors) {
         List<ComplexEntity> next = new ArrayList<>(availableEntities);
+        boolean firstReactor = true;
         for (ComplexReactor reactor : reactors) {
-            reactor.collectCandidates(next);
+            if (firstReactor && novelEntities != null) {
+                reactor.collectCandidates(next, novelEntities);
+            } else {
+                // products of previous reactors are always novel
+                reactor.collectCandidates(next);
+            }
+            firstReactor = false;
             reactor.apply();
             List<ReactionElement> products = reactor.getProducts();
             expandPath(products);
@@ -114,7 +136,8 @@ public class ReactionChain {
         tracks.add(track);
     }
 
-    private void collectReactantElements() {
+    private List<ReactionElement> collectReactantElements() {
+        List<ReactionElement> addedElements = new ArrayList<>();
         for (ReactionTrack track : tracks) {
             List<ComplexEntity> substrates = track.getFirst();
             List<ComplexEntity> products = track.getLast();
@@ -128,7 +151,9 @@ public class ReactionChain {
                 continue;
             }
             reactantElements.add(newElement);
+            addedElements.add(newElement);
         }
+        return addedElements;
     }
 
     private void invertUnsealedTracks() {
@@ -1,10 +1,10 @@
 package bio.singa.simulation.reactions.reactors;
 
+import bio.singa.core.utility.ListHelper;
 import bio.singa.simulation.entities.ComplexEntity;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Objects;
 import java.util.stream.Collectors;
 
 public class ReactionElement {
@@ -77,12 +77,15 @@ public class ReactionElement {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         ReactionElement element = (ReactionElement) o;
-        return Objects.equals(substrates, element.substrates) &&
-                Objects.equals(products, element.products);
+        // the order of substrates and products is irrelevant
+        return ListHelper.haveSameElements(substrates, element.substrates) &&
+                ListHelper.haveSameElements(products, element.products);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(substrates, products);
+        int substrateHash = substrates.stream().mapToInt(ComplexEntity::hashCode).sum();
+        int productHash = products.stream().mapToInt(ComplexEntity::hashCode).sum();
+        return 31 * substrateHash + productHash;
     }
 }
@@ -7,6 +7,7 @@ import bio.singa.simulation.reactions.modifications.ComplexEntityModification;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
 
 import static bio.singa.simulation.reactions.conditions.CandidateConditionBuilder.hasAnyOfEntity;
 import static bio.singa.simulation.reactions.conditions.CandidateConditionBuilder.hasOccupiedBindingSite;
@@ -19,6 +20,11 @@ public class TwoToOneReactor extends AbstractGraphComplexReactor {
     private List<CandidateCondition> secondCandidateConditions;
     private List<ComplexEntity> secondarySubstrates;
 
+    /**
+     * The candidates, that have not been processed before (null if all candidates are novel).
+     */
+    private Set<ComplexEntity> novelSubstrates;
+
     public TwoToOneReactor() {
         secondCandidateConditions = new ArrayList<>();
         secondarySubstrates = new ArrayList<>();
@@ -46,6 +52,17 @@ public class TwoToOneReactor extends AbstractGraphComplexReactor {
         setSecondarySubstrates(filterCandidates(substrateCandidates, getSecondCandidateConditions()));
     }
 
+    @Override
+    public void collectCandidates(List<ComplexEntity> substrateCandidates, Set<ComplexEntity> novelCandidates) {
+        // pairs of novel and already processed candidates have to be considered
+        collectCandidates(substrateCandidates);
+        novelSubstrates = novelCandidates;
+    }
+
+    private boolean isNovelPair(ComplexEntity primarySubstrate, ComplexEntity secondarySubstrate) {
+        return novelSubstrates == null || novelSubstrates.contains(primarySubstrate) || novelSubstrates.contains(secondarySubstrate);
+    }
+
     @Override
     public List<ReactionElement> getProducts() {
         List<ReactionElement> elements = new ArrayList<>();
@@ -54,6 +71,9 @@ public class TwoToOneReactor extends AbstractGraphComplexReactor {
             ComplexEntity primarySubstrate = getPrimarySubstrates().get(primaryIndex);
             for (int secondaryIndex = 0; secondaryIndex < getSecondarySubstrates().size(); secondaryIndex++) {
                 ComplexEntity secondarySubstrate = getSecondarySubstrates().get(secondaryIndex);
+                if (!isNovelPair(primarySubstrate, secondarySubstrate)) {
+                    continue;
+                }
                 ComplexEntity product = productIterator.next();
                 elements.add(ReactionElement.createTwoToOne(primarySubstrate, secondarySubstrate, product));
             }
@@ -64,9 +84,14 @@ public class TwoToOneReactor extends AbstractGraphComplexReactor {
     @Override
     public void apply() {
         for (int primaryIndex = 0; primaryIndex < getPrimarySubstrates().size(); primaryIndex++) {
+            ComplexEntity primarySubstrate = getPrimarySubstrates().get(primaryIndex);
             for (int secondaryIndex = 0; secondaryIndex < getSecondarySubstrates().size(); secondaryIndex++) {
-                getModification().addCandidate(getPrimarySubstrates().get(primaryIndex));
-                getModification().addCandidate(getSecondarySubstrates().get(secondaryIndex));
+                ComplexEntity secondarySubstrate = getSecondarySubstrates().get(secondaryIndex);
+                if (!isNovelPair(primarySubstrate, secondarySubstrate)) {
+                    continue;
+                }
+                getModification().addCandidate(primarySubstrate);
+                getModification().addCandidate(secondarySubstrate);
                 getModification().apply();
                 List<ComplexEntity> results = getModification().getResults();
                 if (results.size() != 1) {
@@ -114,6 +139,7 @@ public class TwoToOneReactor extends AbstractGraphComplexReactor {
     public void clear() {
         super.clear();
         secondarySubstrates.clear();
+        novelSubstrates = null;
     }
 
 }
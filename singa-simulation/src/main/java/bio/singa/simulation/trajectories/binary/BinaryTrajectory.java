@@ -0,0 +1,278 @@
+package bio.singa.simulation.trajectories.binary;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * A trajectory that has been written by the {@link BinaryTrajectoryRecorder}. The header is validated against the size
+ * of the file when the trajectory is opened. The values of each column are stored consecutively in each chunk of time
+ * points, such that the time series of single columns can be extracted by reading a single contiguous range of each
+ * chunk, without scanning the whole file. A trailing incomplete chunk (e.g. if the simulation was aborted while it was
+ * written) is ignored.
+ *
+ * @author cl
+ */
+public class BinaryTrajectory {
+
+    /**
+     * The size of the fixed part of the header (magic number, version and header length).
+     */
+    private static final int FIXED_HEADER_SIZE = 3 * Integer.BYTES;
+
+    private final Path file;
+
+    private final String timeUnit;
+    private final String concentrationUnit;
+    private final List<String> entities;
+    private final List<String> subsections;
+    private final List<String> updatables;
+
+    /**
+     * The updatable, subsection and entity index of each column.
+     */
+    private final int[][] columns;
+
+    /**
+     * The position of the first time of each complete chunk in the file.
+     */
+    private final long[] chunkPositions;
+
+    /**
+     * The number of time points of each complete chunk.
+     */
+    private final int[] chunkSizes;
+
+    /**
+     * The number of time points.
+     */
+    private final int numberOfTimePoints;
+
+    private BinaryTrajectory(Path file, FileChannel channel) throws IOException {
+        this.file = file;
+        long fileSize = channel.size();
+        if (fileSize < FIXED_HEADER_SIZE) {
+            throw new IOException("The file is too short to contain the header of a binary trajectory.");
+        }
+        ByteBuffer fixedHeader = read(channel, 0, FIXED_HEADER_SIZE);
+        if (fixedHeader.getInt() != BinaryTrajectoryRecorder.MAGIC_NUMBER) {
+            throw new IOException("The file is no binary trajectory.");
+        }
+        int version = fixedHeader.getInt();
+        if (version != BinaryTrajectoryRecorder.VERSION) {
+            throw new IOException("Unsupported version " + version + " of binary trajectory.");
+        }
+        int headerLength = fixedHeader.getInt();
+        if (headerLength < 0 || headerLength > fileSize - FIXED_HEADER_SIZE) {
+            throw new IOException("The header length " + headerLength + " is inconsistent with the file size " + fileSize + ".");
+        }
+        byte[] headerContent = new byte[headerLength];
+        read(channel, FIXED_HEADER_SIZE, headerLength).get(headerContent);
+        try (DataInputStream header = new DataInputStream(new ByteArrayInputStream(headerContent))) {
+            timeUnit = header.readUTF();
+            concentrationUnit = header.readUTF();
+            entities = readDictionary(header);
+            subsections = readDictionary(header);
+            updatables = readDictionary(header);
+            int numberOfColumns = header.readInt();
+            if (numberOfColumns < 0 || numberOfColumns > header.available() / (3 * Integer.BYTES)) {
+                throw new IOException("The number of columns " + numberOfColumns + " is inconsistent with the header length.");
+            }
+            columns = new int[numberOfColumns][];
+            for (int column = 0; column < columns.length; column++) {
+                columns[column] = new int[]{readIndex(header, updatables), readIndex(header, subsections), readIndex(header, entities)};
+            }
+            if (header.available() != 0) {
+                throw new IOException("The header contains " + header.available() + " unexpected trailing bytes.");
+            }
+        } catch (EOFException e) {
+            throw new IOException("The header is truncated.", e);
+        }
+        // index complete chunks
+        List<Long> positions = new ArrayList<>();
+        List<Integer> sizes = new ArrayList<>();
+        long position = FIXED_HEADER_SIZE + headerLength;
+        long totalTimePoints = 0;
+        while (fileSize - position >= Integer.BYTES) {
+            int chunkSize = read(channel, position, Integer.BYTES).getInt();
+            if (chunkSize <= 0) {
+                throw new IOException("The chunk at position " + position + " contains an invalid number of time points " + chunkSize + ".");
+            }
+            long chunkEnd = position + Integer.BYTES + (long) Double.BYTES * chunkSize * (columns.length + 1);
+            if (chunkEnd > fileSize) {
+                // incomplete trailing chunk
+                break;
+            }
+            positions.add(position + Integer.BYTES);
+            sizes.add(chunkSize);
+            totalTimePoints += chunkSize;
+            position = chunkEnd;
+        }
+        if (totalTimePoints > Integer.MAX_VALUE) {
+            throw new IOException("The trajectory contains more than " + Integer.MAX_VALUE + " time points.");
+        }
+        numberOfTimePoints = (int) totalTimePoints;
+        chunkPositions = positions.stream().mapToLong(Long::longValue).toArray();
+        chunkSizes = sizes.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * Opens the given trajectory file.
+     *
+     * @param file The file.
+     * @return The trajectory.
+     */
+    public static BinaryTrajectory open(Path file) {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return new BinaryTrajectory(file, channel);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to read binary trajectory from " + file + ".", e);
+        }
+    }
+
+    /**
+     * Reads the given number of bytes starting at the given position.
+     *
+     * @param channel The channel.
+     * @param position The position.
+     * @param length The number of bytes.
+     * @return The buffer containing the bytes, ready to be read.
+     * @throws IOException If the file ends before the requested bytes.
+     */
+    private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Unexpected end of file at position " + (position + buffer.position()) + ".");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static int readIndex(DataInputStream header, List<String> dictionary) throws IOException {
+        int index = header.readInt();
+        if (index < 0 || index >= dictionary.size()) {
+            throw new IOException("The column references the index " + index + " outside of its dictionary.");
+        }
+        return index;
+    }
+
+    private static List<String> readDictionary(DataInputStream header) throws IOException {
+        int size = header.readInt();
+        List<String> dictionary = new ArrayList<>(size);
+        for (int index = 0; index < size; index++) {
+            dictionary.add(header.readUTF());
+        }
+        return Collections.unmodifiableList(dictionary);
+    }
+
+    public String getTimeUnit() {
+        return timeUnit;
+    }
+
+    public String getConcentrationUnit() {
+        return concentrationUnit;
+    }
+
+    public List<String> getEntities() {
+        return entities;
+    }
+
+    public List<String> getSubsections() {
+        return subsections;
+    }
+
+    public List<String> getUpdatables() {
+        return updatables;
+    }
+
+    public int getNumberOfColumns() {
+        return columns.length;
+    }
+
+    public int getNumberOfTimePoints() {
+        return numberOfTimePoints;
+    }
+
+    /**
+     * Returns the elapsed time of each time point.
+     *
+     * @return The times.
+     */
+    public double[] getTimes() {
+        return readColumn(-1);
+    }
+
+    /**
+     * Returns the concentrations of the given entity in the given subsection of the given updatable for each time
+     * point.
+     *
+     * @param updatable The string identifier of the updatable.
+     * @param subsection The identifier of the subsection.
+     * @param entity The identifier of the entity.
+     * @return The concentrations.
+     * @throws NoSuchElementException if the column was not recorded.
+     */
+    public double[] getTimeSeries(String updatable, String subsection, String entity) {
+        int updatableIndex = updatables.indexOf(updatable);
+        int subsectionIndex = subsections.indexOf(subsection);
+        int entityIndex = entities.indexOf(entity);
+        for (int column = 0; column < columns.length; column++) {
+            if (columns[column][0] == updatableIndex && columns[column][1] == subsectionIndex && columns[column][2] == entityIndex) {
+                return readColumn(column);
+            }
+        }
+        throw new NoSuchElementException("The concentration of " + entity + " in " + subsection + " of " + updatable + " has not been recorded.");
+    }
+
+    /**
+     * Returns the concentrations of the given entity in the given subsection for each time point, for each updatable
+     * that contains the subsection.
+     *
+     * @param subsection The identifier of the subsection.
+     * @param entity The identifier of the entity.
+     * @return The concentrations, referenced by the string identifier of their updatable.
+     */
+    public Map<String, double[]> getTimeSeries(String subsection, String entity) {
+        int subsectionIndex = subsections.indexOf(subsection);
+        int entityIndex = entities.indexOf(entity);
+        Map<String, double[]> timeSeries = new LinkedHashMap<>();
+        for (int column = 0; column < columns.length; column++) {
+            if (columns[column][1] == subsectionIndex && columns[column][2] == entityIndex) {
+                timeSeries.put(updatables.get(columns[column][0]), readColumn(column));
+            }
+        }
+        return timeSeries;
+    }
+
+    /**
+     * Reads the values of a column for each time point.
+     *
+     * @param column The column (-1 for the time).
+     * @return The values.
+     */
+    private double[] readColumn(int column) {
+        double[] values = new double[numberOfTimePoints];
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            int timePoint = 0;
+            for (int chunk = 0; chunk < chunkPositions.length; chunk++) {
+                int chunkSize = chunkSizes[chunk];
+                long position = chunkPositions[chunk] + (long) Double.BYTES * chunkSize * (column + 1);
+                read(channel, position, Double.BYTES * chunkSize).asDoubleBuffer().get(values, timePoint, chunkSize);
+                timePoint += chunkSize;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to read binary trajectory from " + file + ".", e);
+        }
+        return values;
+    }
+
+}
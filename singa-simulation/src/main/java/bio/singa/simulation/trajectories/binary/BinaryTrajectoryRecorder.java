@@ -0,0 +1,532 @@
+package bio.singa.simulation.trajectories.binary;
+
+import bio.singa.core.events.UpdateEventListener;
+import bio.singa.features.quantities.MolarConcentration;
+import bio.singa.features.units.UnitRegistry;
+import bio.singa.simulation.entities.ChemicalEntity;
+import bio.singa.simulation.events.GraphUpdatedEvent;
+import bio.singa.simulation.events.SnapshotSelector;
+import bio.singa.simulation.model.sections.CellSubsection;
+import bio.singa.simulation.model.sections.ConcentrationContainer;
+import bio.singa.simulation.model.simulation.Simulation;
+import bio.singa.simulation.model.simulation.SimulationManager;
+import bio.singa.simulation.model.simulation.Updatable;
+import bio.singa.simulation.trajectories.flat.FlatUpdateRecorder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.measure.Unit;
+import javax.measure.quantity.Time;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.function.Predicate;
+
+import static bio.singa.simulation.trajectories.Recorders.appendTimestampedFolder;
+import static bio.singa.simulation.trajectories.Recorders.createDirectories;
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * This class writes the concentrations of observed updatables to a binary trajectory file. In contrast to the
+ * {@link FlatUpdateRecorder}, no values are formatted, such that thousands of updatables can be observed. The
+ * concentrations are written each time an event is received. The events can be scheduled by using the
+ * {@link SimulationManager#setUpdateEmissionCondition(Predicate)}. Updatables are observed by calling
+ * {@link #addUpdatableToObserve(Updatable)}, if no updatable is observed before the first event, all updatables of the
+ * simulation are observed.
+ * <p>
+ * The file starts with a fixed header, containing a magic number, the version of the format, the length of the
+ * remaining header and the header itself. The header contains the time and concentration unit, dictionaries of
+ * entities, subsections and updatables and the columns of the trajectory, each referencing an updatable, a subsection
+ * and an entity. Columns are only created for the entities that are present in the respective subsection of an
+ * updatable. The header is followed by chunks of consecutive time points. Each chunk starts with the number of time
+ * points it contains, followed by the elapsed times and the concentrations of each column, such that single columns can
+ * be read without reading the remaining columns. The columns are determined when the first event is received, entities
+ * that are added to updatables later on are not recorded. Chunks are written if they are full, if the
+ * {@link #setFlushInterval(long) flush interval} elapsed or if the recorder is closed, such that only the time points
+ * since the last flush are lost if the simulation terminates unexpectedly. Trajectories are read with the
+ * {@link BinaryTrajectory}.
+ *
+ * @author cl
+ */
+public class BinaryTrajectoryRecorder implements UpdateEventListener<GraphUpdatedEvent>, SnapshotSelector {
+
+    /**
+     * The logger.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(BinaryTrajectoryRecorder.class);
+
+    /**
+     * The first four bytes of each trajectory file ("SGTR").
+     */
+    static final int MAGIC_NUMBER = 0x53475452;
+
+    /**
+     * The version of the format.
+     */
+    static final int VERSION = 2;
+
+    /**
+     * The name of the trajectory file.
+     */
+    public static final String TRAJECTORY_FILE_NAME = "trajectory.sgt";
+
+    /**
+     * The default capacity of the write buffer.
+     */
+    private static final int DEFAULT_BUFFER_CAPACITY = 1 << 22;
+
+    /**
+     * The maximal number of time points in a chunk.
+     */
+    private static final int MAXIMAL_CHUNK_SIZE = 4096;
+
+    /**
+     * The default interval (in milliseconds) after which buffered time points are written.
+     */
+    private static final long DEFAULT_FLUSH_INTERVAL = 10_000;
+
+    /**
+     * The path to the user defined workspace.
+     */
+    private Path workspacePath;
+
+    /**
+     * The directory for the current simulation.
+     */
+    private Path directory;
+
+    /**
+     * The simulation.
+     */
+    private Simulation simulation;
+
+    /**
+     * The unit of the recorded time.
+     */
+    private Unit<Time> timeUnit;
+
+    /**
+     * The unit of the recorded concentrations.
+     */
+    private Unit<MolarConcentration> concentrationUnit;
+
+    /**
+     * The updatables to observe.
+     */
+    private final Set<Updatable> observedUpdatables;
+
+    /**
+     * The channel to the trajectory file.
+     */
+    private FileChannel channel;
+
+    /**
+     * The buffer collecting bytes before they are written.
+     */
+    private ByteBuffer buffer;
+
+    /**
+     * The buffered time points of the current chunk, the elapsed times followed by the concentrations of each column.
+     */
+    private double[] chunk;
+
+    /**
+     * The maximal number of time points in a chunk.
+     */
+    private int chunkCapacity;
+
+    /**
+     * The number of time points in the current chunk.
+     */
+    private int chunkSize;
+
+    /**
+     * The interval (in milliseconds) after which buffered time points are written.
+     */
+    private long flushInterval;
+
+    /**
+     * The system time (in milliseconds) of the last flush.
+     */
+    private long lastFlush;
+
+    /**
+     * The identifier of the updatable of each column.
+     */
+    private String[] columnUpdatables;
+
+    /**
+     * The recorded updatables referenced by their identifiers, used to retrieve the current concentrations of events
+     * that are no snapshots.
+     */
+    private Map<String, Updatable> recordedUpdatables;
+
+    /**
+     * The identifiers of the recorded updatables (null until the columns have been determined).
+     */
+    private volatile Set<String> recordedIdentifiers;
+
+    /**
+     * The subsection of each column.
+     */
+    private CellSubsection[] columnSubsections;
+
+    /**
+     * The entity of each column.
+     */
+    private ChemicalEntity[] columnEntities;
+
+    /**
+     * The factor converting concentrations from the internal unit to the recorded unit.
+     */
+    private double concentrationFactor;
+
+    /**
+     * The number of recorded time points.
+     */
+    private long numberOfTimePoints;
+
+    private BinaryTrajectoryRecorder() {
+        observedUpdatables = new LinkedHashSet<>();
+        timeUnit = UnitRegistry.getTimeUnit();
+        concentrationUnit = UnitRegistry.getConcentrationUnit();
+        flushInterval = DEFAULT_FLUSH_INTERVAL;
+    }
+
+    public static WorkspaceStep create() {
+        return new BinaryTrajectoryRecorderBuilder();
+    }
+
+    public Path getWorkspaceFolder() {
+        return directory;
+    }
+
+    public Path getTrajectoryFile() {
+        return directory.resolve(TRAJECTORY_FILE_NAME);
+    }
+
+    public long getNumberOfTimePoints() {
+        return numberOfTimePoints;
+    }
+
+    public long getFlushInterval() {
+        return flushInterval;
+    }
+
+    /**
+     * Sets the interval (in milliseconds) after which buffered time points are written to the file, even if the
+     * current chunk is not full. Shorter intervals lose fewer time points if the simulation terminates unexpectedly,
+     * but result in smaller chunks.
+     *
+     * @param flushInterval The flush interval in milliseconds.
+     */
+    public void setFlushInterval(long flushInterval) {
+        if (flushInterval < 0) {
+            throw new IllegalArgumentException("The flush interval must not be negative.");
+        }
+        this.flushInterval = flushInterval;
+    }
+
+    /**
+     * Initialized the directory for the current simulation.
+     */
+    private void createFolderStructure(boolean timestamped) {
+        if (timestamped) {
+            directory = appendTimestampedFolder(directory);
+        }
+        createDirectories(directory);
+    }
+
+    /**
+     * Adds an updatable that will be observed during simulation. Updatables have to be added before the first event is
+     * received.
+     *
+     * @param updatable The updatable to be observed.
+     */
+    public void addUpdatableToObserve(Updatable updatable) {
+        if (channel != null) {
+            throw new IllegalStateException("Updatables can not be observed after the trajectory header has been written.");
+        }
+        observedUpdatables.add(updatable);
+    }
+
+    /**
+     * Only the observed updatables are copied, if the recorder receives asynchronous events.
+     *
+     * @param updatable The updatable.
+     * @return True if the updatable is observed.
+     */
+    @Override
+    public boolean requiresUpdatable(Updatable updatable) {
+        Set<String> identifiers = recordedIdentifiers;
+        if (identifiers != null) {
+            return identifiers.contains(updatable.getStringIdentifier());
+        }
+        return observedUpdatables.isEmpty() || observedUpdatables.contains(updatable);
+    }
+
+    @Override
+    public void onEventReceived(GraphUpdatedEvent event) {
+        try {
+            if (channel == null) {
+                open(event);
+            }
+            chunk[chunkSize] = event.getElapsedTime().to(timeUnit).getValue().doubleValue();
+            String identifier = null;
+            ConcentrationContainer container = null;
+            for (int column = 0; column < columnEntities.length; column++) {
+                // columns of the same updatable are consecutive
+                if (!columnUpdatables[column].equals(identifier)) {
+                    identifier = columnUpdatables[column];
+                    container = getConcentrationContainer(event, identifier);
+                }
+                double concentration = container.get(columnSubsections[column], columnEntities[column]);
+                chunk[(column + 1) * chunkCapacity + chunkSize] = concentration * concentrationFactor;
+            }
+            chunkSize++;
+            numberOfTimePoints++;
+            if (chunkSize == chunkCapacity || System.currentTimeMillis() - lastFlush >= flushInterval) {
+                flush();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to write trajectory to " + getTrajectoryFile() + ".", e);
+        }
+    }
+
+    /**
+     * Determines the columns from the concentrations contained in the first event, opens the file and writes the
+     * header.
+     *
+     * @param event The first event.
+     * @throws IOException If the file could not be written.
+     */
+    private void open(GraphUpdatedEvent event) throws IOException {
+        // snapshots are recorded on a separate thread and must not access the updatables of the simulation
+        List<String> identifiers = new ArrayList<>();
+        if (event.isSnapshot()) {
+            if (observedUpdatables.isEmpty()) {
+                identifiers.addAll(event.getUpdatableIdentifiers());
+            } else {
+                observedUpdatables.forEach(updatable -> identifiers.add(updatable.getStringIdentifier()));
+            }
+        } else {
+            recordedUpdatables = new HashMap<>();
+            for (Updatable updatable : observedUpdatables.isEmpty() ? simulation.getUpdatables() : observedUpdatables) {
+                recordedUpdatables.put(updatable.getStringIdentifier(), updatable);
+                identifiers.add(updatable.getStringIdentifier());
+            }
+        }
+        recordedIdentifiers = new HashSet<>(identifiers);
+        // determine columns and dictionaries
+        Map<ChemicalEntity, Integer> entities = new LinkedHashMap<>();
+        Map<CellSubsection, Integer> subsections = new LinkedHashMap<>();
+        Map<String, Integer> updatables = new LinkedHashMap<>();
+        List<String> updatableColumns = new ArrayList<>();
+        List<CellSubsection> subsectionColumns = new ArrayList<>();
+        List<ChemicalEntity> entityColumns = new ArrayList<>();
+        for (String identifier : identifiers) {
+            updatables.putIfAbsent(identifier, updatables.size());
+            ConcentrationContainer container = getConcentrationContainer(event, identifier);
+            for (CellSubsection subsection : container.getReferencedSubsections()) {
+                subsections.putIfAbsent(subsection, subsections.size());
+                // only entities that are present in the subsection
+                for (ChemicalEntity entity : container.getPool(subsection).getValue().getReferencedEntities()) {
+                    entities.putIfAbsent(entity, entities.size());
+                    updatableColumns.add(identifier);
+                    subsectionColumns.add(subsection);
+                    entityColumns.add(entity);
+                }
+            }
+        }
+        columnUpdatables = updatableColumns.toArray(new String[0]);
+        columnSubsections = subsectionColumns.toArray(new CellSubsection[0]);
+        columnEntities = entityColumns.toArray(new ChemicalEntity[0]);
+        concentrationFactor = UnitRegistry.concentration(1.0).to(concentrationUnit).getValue().doubleValue();
+        // assemble header
+        ByteArrayOutputStream headerBytes = new ByteArrayOutputStream();
+        try (DataOutputStream header = new DataOutputStream(headerBytes)) {
+            header.writeUTF(timeUnit.toString());
+            header.writeUTF(concentrationUnit.toString());
+            header.writeInt(entities.size());
+            for (ChemicalEntity entity : entities.keySet()) {
+                header.writeUTF(entity.getIdentifier());
+            }
+            header.writeInt(subsections.size());
+            for (CellSubsection subsection : subsections.keySet()) {
+                header.writeUTF(subsection.getIdentifier());
+            }
+            header.writeInt(updatables.size());
+            for (String identifier : updatables.keySet()) {
+                header.writeUTF(identifier);
+            }
+            header.writeInt(columnEntities.length);
+            for (int column = 0; column < columnEntities.length; column++) {
+                header.writeInt(updatables.get(columnUpdatables[column]));
+                header.writeInt(subsections.get(columnSubsections[column]));
+                header.writeInt(entities.get(columnEntities[column]));
+            }
+        }
+        byte[] headerContent = headerBytes.toByteArray();
+        // chunks are limited to the capacity of the buffer, if possible
+        int timePointSize = Double.BYTES * (columnEntities.length + 1);
+        chunkCapacity = Math.max(1, Math.min(MAXIMAL_CHUNK_SIZE, DEFAULT_BUFFER_CAPACITY / timePointSize));
+        chunk = new double[chunkCapacity * (columnEntities.length + 1)];
+        chunkSize = 0;
+        buffer = ByteBuffer.allocateDirect(Math.max(DEFAULT_BUFFER_CAPACITY, headerContent.length + 3 * Integer.BYTES));
+        channel = FileChannel.open(getTrajectoryFile(), CREATE, WRITE, TRUNCATE_EXISTING);
+        buffer.putInt(MAGIC_NUMBER);
+        buffer.putInt(VERSION);
+        buffer.putInt(headerContent.length);
+        buffer.put(headerContent);
+        writeBuffer();
+        lastFlush = System.currentTimeMillis();
+        logger.info("Recording {} columns of {} updatables to {}.", columnEntities.length, updatables.size(), getTrajectoryFile());
+    }
+
+    private ConcentrationContainer getConcentrationContainer(GraphUpdatedEvent event, String identifier) {
+        if (event.isSnapshot()) {
+            return event.getConcentrationContainer(identifier);
+        }
+        if (recordedUpdatables == null) {
+            throw new IllegalStateException("The recorder has been opened with a snapshot and can not record events, that are no snapshots.");
+        }
+        return recordedUpdatables.get(identifier).getConcentrationContainer();
+    }
+
+    /**
+     * Writes the buffered time points as a chunk to the file.
+     *
+     * @throws IOException If the file could not be written.
+     */
+    private void flush() throws IOException {
+        if (chunkSize > 0) {
+            buffer.putInt(chunkSize);
+            for (int column = 0; column <= columnEntities.length; column++) {
+                int offset = column * chunkCapacity;
+                for (int timePoint = 0; timePoint < chunkSize; timePoint++) {
+                    if (buffer.remaining() < Double.BYTES) {
+                        writeBuffer();
+                    }
+                    buffer.putDouble(chunk[offset + timePoint]);
+                }
+            }
+            chunkSize = 0;
+        }
+        writeBuffer();
+        lastFlush = System.currentTimeMillis();
+    }
+
+    /**
+     * Writes the content of the buffer to the file.
+     *
+     * @throws IOException If the file could not be written.
+     */
+    private void writeBuffer() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Writes all buffered time points and closes the file. Usually called after simulation finishes.
+     */
+    public void close() {
+        if (channel == null) {
+            return;
+        }
+        try {
+            flush();
+            channel.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to write trajectory to " + getTrajectoryFile() + ".", e);
+        }
+        channel = null;
+        logger.info("Trajectory with {} time points successfully written to {}.", numberOfTimePoints, getTrajectoryFile());
+    }
+
+    public interface WorkspaceStep {
+        DirectoryStep workspace(Path workspace);
+    }
+
+    public interface DirectoryStep {
+        SimulationStep directory(String directory, boolean timeStamped);
+        SimulationStep directory(String directory);
+    }
+
+    public interface SimulationStep {
+        ConcentrationUnitStep simulation(Simulation simulation);
+    }
+
+    public interface ConcentrationUnitStep {
+        TimeUnitStep concentrationUnit(Unit<MolarConcentration> concentrationUnit);
+        BinaryTrajectoryRecorder build();
+    }
+
+    public interface TimeUnitStep {
+        BuildStep timeUnit(Unit<Time> timeUnit);
+        BinaryTrajectoryRecorder build();
+    }
+
+    public interface BuildStep {
+        BinaryTrajectoryRecorder build();
+    }
+
+    public static class BinaryTrajectoryRecorderBuilder implements WorkspaceStep, DirectoryStep, SimulationStep, ConcentrationUnitStep, TimeUnitStep, BuildStep {
+
+        private BinaryTrajectoryRecorder recorder;
+
+        public BinaryTrajectoryRecorderBuilder() {
+            recorder = new BinaryTrajectoryRecorder();
+        }
+
+        @Override
+        public DirectoryStep workspace(Path workspace) {
+            recorder.workspacePath = workspace;
+            return this;
+        }
+
+        @Override
+        public SimulationStep directory(String directory, boolean timestamped) {
+            recorder.directory = recorder.workspacePath.resolve(directory);
+            recorder.createFolderStructure(timestamped);
+            return this;
+        }
+
+        @Override
+        public SimulationStep directory(String directory) {
+            return directory(directory, true);
+        }
+
+        @Override
+        public ConcentrationUnitStep simulation(Simulation simulation) {
+            recorder.simulation = simulation;
+            return this;
+        }
+
+        @Override
+        public TimeUnitStep concentrationUnit(Unit<MolarConcentration> concentrationUnit) {
+            recorder.concentrationUnit = concentrationUnit;
+            return this;
+        }
+
+        @Override
+        public BuildStep timeUnit(Unit<Time> timeUnit) {
+            recorder.timeUnit = timeUnit;
+            return this;
+        }
+
+        @Override
+        public BinaryTrajectoryRecorder build() {
+            return recorder;
+        }
+
+    }
+
+}
@@ -7,6 +7,7 @@ import bio.singa.features.quantities.MolarConcentration;
 import bio.singa.simulation.events.UpdatableUpdatedEvent;
 import bio.singa.simulation.model.modules.concentration.ConcentrationDelta;
 import bio.singa.simulation.model.sections.CellSubsection;
+import bio.singa.simulation.model.sections.ConcentrationContainer;
 import bio.singa.simulation.model.simulation.Simulation;
 import bio.singa.simulation.model.simulation.SimulationManager;
 import bio.singa.simulation.model.simulation.Updatable;
@@ -64,12 +65,12 @@ public class FlatUpdateRecorder implements UpdateEventListener<UpdatableUpdatedE
     /**
      * The writers for concentration files.
      */
-    private Map<Updatable, BufferedWriter> concentrationWriters;
+    private Map<String, BufferedWriter> concentrationWriters;
 
     /**
      * The writers for deltas or changes.
      */
-    private Map<Updatable, BufferedWriter> deltaWriters;
+    private Map<String, BufferedWriter> deltaWriters;
 
     /**
      * The formatter for time based values.
@@ -122,12 +123,12 @@ public class FlatUpdateRecorder implements UpdateEventListener<UpdatableUpdatedE
         // add concentration writers
         Path concentrationFile = Recorders.createFile(directory, updatable.getStringIdentifier() + "_concentrations.csv");
         BufferedWriter concentrationWriter = Files.newBufferedWriter(concentrationFile);
-        concentrationWriters.put(updatable, concentrationWriter);
+        concentrationWriters.put(updatable.getStringIdentifier(), concentrationWriter);
         writeConcentrationFileHeader(updatable);
         // add delta writers
         Path deltaFile = Recorders.createFile(directory, updatable.getStringIdentifier() + "_deltas.csv");
         BufferedWriter deltaWriter = Files.newBufferedWriter(deltaFile);
-        deltaWriters.put(updatable, deltaWriter);
+        deltaWriters.put(updatable.getStringIdentifier(), deltaWriter);
         writeDeltaFileHeader(updatable);
     }
 
@@ -138,7 +139,7 @@ public class FlatUpdateRecorder implements UpdateEventListener<UpdatableUpdatedE
      * @throws IOException If the file could not be written.
      */
     private void writeDeltaFileHeader(Updatable updatable) throws IOException {
-        appendDeltaContent(updatable, deltaHeader);
+        appendDeltaContent(updatable.getStringIdentifier(), deltaHeader);
     }
 
     /**
@@ -148,29 +149,29 @@ public class FlatUpdateRecorder implements UpdateEventListener<UpdatableUpdatedE
      * @throws IOException If the file could not be written.
      */
     private void writeConcentrationFileHeader(Updatable updatable) throws IOException {
-        appendConcentrationContent(updatable, concentrationHeader);
+        appendConcentrationContent(updatable.getStringIdentifier(), concentrationHeader);
     }
 
     /**
      * Appends content to the concentration file associated to a node.
      *
-     * @param node The corresponding node.
+     * @param identifier The identifier of the corresponding node.
      * @param content The content to be written.
      * @throws IOException The the file could not be written.
      */
-    private void appendConcentrationContent(Updatable node, String content) throws IOException {
-        concentrationWriters.get(node).write(content);
+    private void appendConcentrationContent(String identifier, String content) throws IOException {
+        concentrationWriters.get(identifier).write(content);
     }
 
     /**
      * Appends content to the delta file associated to a node.
      *
-     * @param node The corresponding node.
+     * @param identifier The identifier of the corresponding node.
      * @param content The content to be written.
      * @throws IOException The the file could not be written.
      */
-    private void appendDeltaContent(Updatable node, String content) throws IOException {
-        deltaWriters.get(node).write(content);
+    private void appendDeltaContent(String identifier, String content) throws IOException {
+        deltaWriters.get(identifier).write(content);
     }
 
     /**
@@ -206,22 +207,22 @@ public class FlatUpdateRecorder implements UpdateEventListener<UpdatableUpdatedE
      * @param event The event.
      */
     private void appendConcentrationContent(UpdatableUpdatedEvent event) {
-        Updatable node = event.getUpdatable();
-        Set<CellSubsection> referencedSections = node.getAllReferencedSections();
+        ConcentrationContainer concentrations = event.getConcentrationContainer();
+        Set<CellSubsection> referencedSections = concentrations.getReferencedSubsections();
         StringBuilder sb = new StringBuilder();
 
-        for (ChemicalEntity entity : node.getConcentrationContainer().getReferencedEntities()) {
+        for (ChemicalEntity entity : concentrations.getReferencedEntities()) {
             for (CellSubsection cellSection : referencedSections) {
                 sb.append(timeFormatter.format(event.getTime())).append(VALUE_SEPARATOR)
                         .append(entity.getIdentifier()).append(VALUE_SEPARATOR)
                         .append(cellSection.getIdentifier()).append(VALUE_SEPARATOR)
-                        .append(concentrationFormatter.format(node.getConcentrationContainer().get(cellSection, entity)))
+                        .append(concentrationFormatter.format(concentrations.get(cellSection, entity)))
                         .append(LINE_SEPARATOR);
             }
         }
 
         try {
-            appendConcentrationContent(node, sb.toString());
+            appendConcentrationContent(event.getStringIdentifier(), sb.toString());
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -233,8 +234,7 @@ public class FlatUpdateRecorder implements UpdateEventListener<UpdatableUpdatedE
      * @param event The event.
      */
     private void appendDeltaContent(UpdatableUpdatedEvent event) {
-        Updatable updatable = event.getUpdatable();
-        List<ConcentrationDelta> previousObservedDeltas = simulation.getPreviousObservedDeltas(updatable);
+        List<ConcentrationDelta> previousObservedDeltas = event.getDeltas();
 
         String collect = previousObservedDeltas.stream()
                 .collect(Collectors.groupingBy(delta -> delta.getModule().toString() + VALUE_SEPARATOR +
@@ -251,7 +251,7 @@ public class FlatUpdateRecorder implements UpdateEventListener<UpdatableUpdatedE
                 .collect(Collectors.joining(LINE_SEPARATOR, "", LINE_SEPARATOR));
 
         try {
-            appendDeltaContent(updatable, collect);
+            appendDeltaContent(event.getStringIdentifier(), collect);
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -0,0 +1,247 @@
+package uk.co.cogitolearning.cogpar;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A flat representation of an expression tree, that is evaluated by a small stack machine. Variables are not bound by
+ * name but by index: every distinct variable of the expression is assigned to a slot and the values of all variables
+ * are passed to {@link #evaluate(double[])} as an array, that additionally provides the space for the stack.
+ * <pre>
+ *  CompiledExpression expression = CompiledExpression.compile(new ExpressionParser().parse("k*A/(K+A)"));
+ *  double[] slots = expression.createSlots();
+ *  slots[expression.getSlot("k")] = 1.0;
+ *  ...
+ *  double value = expression.evaluate(slots); </pre>
+ * In contrast to the expression tree, a compiled expression is immutable and can be evaluated concurrently, as long as
+ * every thread uses its own slots.
+ *
+ * @author cl
+ */
+public class CompiledExpression {
+
+    private static final int CONSTANT = 0;
+    private static final int VARIABLE = 1;
+    private static final int ADD = 2;
+    private static final int SUBTRACT = 3;
+    private static final int MULTIPLY = 4;
+    private static final int DIVIDE = 5;
+    private static final int NEGATE = 6;
+    private static final int POWER = 7;
+    private static final int FUNCTION = 8;
+
+    /**
+     * The instructions, each operation is followed by its operand.
+     */
+    private final int[] instructions;
+
+    /**
+     * The constants referenced by the instructions.
+     */
+    private final double[] constants;
+
+    /**
+     * The names of the variables, the index of a name is the slot of the variable.
+     */
+    private final List<String> variables;
+
+    /**
+     * The maximal depth of the stack during evaluation.
+     */
+    private final int stackDepth;
+
+    private CompiledExpression(int[] instructions, double[] constants, List<String> variables, int stackDepth) {
+        this.instructions = instructions;
+        this.constants = constants;
+        this.variables = Collections.unmodifiableList(variables);
+        this.stackDepth = stackDepth;
+    }
+
+    /**
+     * Compiles the given expression tree.
+     *
+     * @param expression the root of the expression tree
+     * @return the compiled expression
+     */
+    public static CompiledExpression compile(ExpressionNode expression) {
+        Compiler compiler = new Compiler();
+        compiler.emit(expression);
+        return new CompiledExpression(Arrays.copyOf(compiler.instructions, compiler.instructionCount),
+                Arrays.copyOf(compiler.constants, compiler.constantCount), compiler.variables, compiler.maximalDepth);
+    }
+
+    /**
+     * @return the names of all variables, ordered by their slots
+     */
+    public List<String> getVariables() {
+        return variables;
+    }
+
+    /**
+     * Returns the slot of the variable with the given name, or -1 if the expression does not contain the variable.
+     *
+     * @param name the name of the variable
+     * @return the slot of the variable
+     */
+    public int getSlot(String name) {
+        return variables.indexOf(name);
+    }
+
+    /**
+     * Creates a new array for the values of all variables and the stack.
+     *
+     * @return the new slots
+     */
+    public double[] createSlots() {
+        return new double[variables.size() + stackDepth];
+    }
+
+    /**
+     * Evaluates the expression for the variables stored in the given slots (see {@link #createSlots()}).
+     *
+     * @param slots the values of the variables, followed by the space for the stack
+     * @return value of expression
+     */
+    public double evaluate(double[] slots) {
+        // the stack is located behind the variables
+        int top = variables.size() - 1;
+        for (int index = 0; index < instructions.length; index += 2) {
+            int operand = instructions[index + 1];
+            switch (instructions[index]) {
+                case CONSTANT:
+                    slots[++top] = constants[operand];
+                    break;
+                case VARIABLE:
+                    slots[++top] = slots[operand];
+                    break;
+                case ADD:
+                    top--;
+                    slots[top] += slots[top + 1];
+                    break;
+                case SUBTRACT:
+                    top--;
+                    slots[top] -= slots[top + 1];
+                    break;
+                case MULTIPLY:
+                    top--;
+                    slots[top] *= slots[top + 1];
+                    break;
+                case DIVIDE:
+                    top--;
+                    slots[top] /= slots[top + 1];
+                    break;
+                case NEGATE:
+                    slots[top] = -slots[top];
+                    break;
+                case POWER:
+                    top--;
+                    slots[top] = Math.pow(slots[top], slots[top + 1]);
+                    break;
+                case FUNCTION:
+                    slots[top] = FunctionExpressionNode.apply(operand, slots[top]);
+                    break;
+                default:
+                    throw new EvaluationException("Invalid instruction " + instructions[index] + "!");
+            }
+        }
+        return slots[top];
+    }
+
+    /**
+     * Translates the expression tree to instructions in postfix order.
+     */
+    private static class Compiler {
+
+        private int[] instructions = new int[32];
+        private int instructionCount;
+        private double[] constants = new double[8];
+        private int constantCount;
+        private final List<String> variables = new ArrayList<>();
+        private int depth;
+        private int maximalDepth;
+
+        private void emit(ExpressionNode node) {
+            switch (node.getType()) {
+                case ExpressionNode.CONSTANT_NODE:
+                    pushConstant(node.getValue());
+                    break;
+                case ExpressionNode.VARIABLE_NODE:
+                    String name = ((VariableExpressionNode) node).getName();
+                    int slot = variables.indexOf(name);
+                    if (slot < 0) {
+                        slot = variables.size();
+                        variables.add(name);
+                    }
+                    add(VARIABLE, slot, 1);
+                    break;
+                case ExpressionNode.ADDITION_NODE:
+                    emitSequence((SequenceExpressionNode) node, 0.0, ADD, SUBTRACT);
+                    break;
+                case ExpressionNode.MULTIPLICATION_NODE:
+                    emitSequence((SequenceExpressionNode) node, 1.0, MULTIPLY, DIVIDE);
+                    break;
+                case ExpressionNode.EXPONENTIATION_NODE:
+                    ExponentiationExpressionNode exponentiation = (ExponentiationExpressionNode) node;
+                    emit(exponentiation.getBase());
+                    emit(exponentiation.getExponent());
+                    add(POWER, 0, -1);
+                    break;
+                case ExpressionNode.FUNCTION_NODE:
+                    FunctionExpressionNode function = (FunctionExpressionNode) node;
+                    emit(function.getArgument());
+                    add(FUNCTION, function.getFunction(), 0);
+                    break;
+                default:
+                    throw new ParserException("Unable to compile node of type " + node.getType() + ".");
+            }
+        }
+
+        /**
+         * Emits the terms of a sum or product in the same order as they are evaluated in the tree.
+         */
+        private void emitSequence(SequenceExpressionNode node, double identity, int positiveOperation, int negativeOperation) {
+            if (node.terms.isEmpty()) {
+                pushConstant(identity);
+                return;
+            }
+            SequenceExpressionNode.Term first = node.terms.get(0);
+            if (first.positive) {
+                emit(first.expression);
+            } else if (positiveOperation == ADD) {
+                emit(first.expression);
+                add(NEGATE, 0, 0);
+            } else {
+                pushConstant(identity);
+                emit(first.expression);
+                add(negativeOperation, 0, -1);
+            }
+            for (int index = 1; index < node.terms.size(); index++) {
+                SequenceExpressionNode.Term term = node.terms.get(index);
+                emit(term.expression);
+                add(term.positive ? positiveOperation : negativeOperation, 0, -1);
+            }
+        }
+
+        private void pushConstant(double value) {
+            if (constantCount == constants.length) {
+                constants = Arrays.copyOf(constants, constantCount * 2);
+            }
+            constants[constantCount] = value;
+            add(CONSTANT, constantCount++, 1);
+        }
+
+        private void add(int operation, int operand, int depthChange) {
+            if (instructionCount + 2 > instructions.length) {
+                instructions = Arrays.copyOf(instructions, instructions.length * 2);
+            }
+            instructions[instructionCount++] = operation;
+            instructions[instructionCount++] = operand;
+            depth += depthChange;
+            maximalDepth = Math.max(maximalDepth, depth);
+        }
+
+    }
+
+}
@@ -66,6 +66,20 @@ public class ExponentiationExpressionNode implements ExpressionNode {
         return Math.pow(base.getValue(), exponent.getValue());
     }
 
+    /**
+     * @return the node containing the base
+     */
+    ExpressionNode getBase() {
+        return base;
+    }
+
+    /**
+     * @return the node containing the exponent
+     */
+    ExpressionNode getExponent() {
+        return exponent;
+    }
+
     /**
      * Implementation of the visitor design pattern.
      * Calls visit on the visitor and then passes the visitor on to the accept
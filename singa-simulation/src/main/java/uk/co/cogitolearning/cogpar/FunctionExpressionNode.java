@@ -166,37 +166,62 @@ public class FunctionExpressionNode implements ExpressionNode {
      * value.
      */
     public double getValue() {
+        return apply(function, argument.getValue());
+    }
+
+    /**
+     * Applies the function with the given id to the given argument.
+     *
+     * @param function the id of the function
+     * @param argument the value of the argument
+     * @return the value of the function
+     */
+    static double apply(int function, double argument) {
         switch (function) {
             case SIN:
-                return Math.sin(argument.getValue());
+                return Math.sin(argument);
             case COS:
-                return Math.cos(argument.getValue());
+                return Math.cos(argument);
             case TAN:
-                return Math.tan(argument.getValue());
+                return Math.tan(argument);
             case ASIN:
-                return Math.asin(argument.getValue());
+                return Math.asin(argument);
             case ACOS:
-                return Math.acos(argument.getValue());
+                return Math.acos(argument);
             case ATAN:
-                return Math.atan(argument.getValue());
+                return Math.atan(argument);
             case SQRT:
-                return Math.sqrt(argument.getValue());
+                return Math.sqrt(argument);
             case EXP:
-                return Math.exp(argument.getValue());
+                return Math.exp(argument);
             case LN:
-                return Math.log(argument.getValue());
+                return Math.log(argument);
             case LOG:
-                return Math.log(argument.getValue()) * 0.43429448190325182765;
+                return Math.log(argument) * 0.43429448190325182765;
             case LOG2:
-                return Math.log(argument.getValue()) * 1.442695040888963407360;
+                return Math.log(argument) * 1.442695040888963407360;
             case ABS:
-                return Math.abs(argument.getValue());
+                return Math.abs(argument);
 
         }
 
         throw new EvaluationException("Invalid function id " + function + "!");
     }
 
+    /**
+     * @return the id of the function
+     */
+    int getFunction() {
+        return function;
+    }
+
+    /**
+     * @return the argument of the function
+     */
+    ExpressionNode getArgument() {
+        return argument;
+    }
+
     /**
      * Implementation of the visitor design pattern.
      * Calls visit on the visitor and then passes the visitor on to the accept
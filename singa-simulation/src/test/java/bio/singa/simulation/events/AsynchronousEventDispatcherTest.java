@@ -0,0 +1,84 @@
+package bio.singa.simulation.events;
+
+import bio.singa.features.parameters.SimulationContext;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author cl
+ */
+class AsynchronousEventDispatcherTest {
+
+    @Test
+    void shouldDispatchInOrderWhenBlocking() {
+        AsynchronousEventDispatcher dispatcher = new AsynchronousEventDispatcher(2, EmissionPolicy.BLOCK, new SimulationContext("block"));
+        List<Integer> received = new CopyOnWriteArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            int value = i;
+            dispatcher.submit(() -> () -> received.add(value));
+        }
+        dispatcher.shutdown();
+        assertEquals(10, received.size());
+        for (int i = 0; i < 10; i++) {
+            assertEquals(i, received.get(i).intValue());
+        }
+        assertEquals(10, dispatcher.getDispatchedEmissions());
+        assertEquals(0, dispatcher.getDroppedEmissions());
+        assertTrue(dispatcher.getMaximalQueueDepth() <= 2);
+        assertThrows(IllegalStateException.class, () -> dispatcher.submit(() -> () -> {
+        }));
+    }
+
+    @Test
+    void shouldDropAndCoalesceIfFull() throws InterruptedException {
+        for (EmissionPolicy policy : new EmissionPolicy[]{EmissionPolicy.DROP, EmissionPolicy.COALESCE}) {
+            AsynchronousEventDispatcher dispatcher = new AsynchronousEventDispatcher(2, policy, new SimulationContext(policy.name()));
+            List<Integer> received = new CopyOnWriteArrayList<>();
+            CountDownLatch started = new CountDownLatch(1);
+            CountDownLatch release = new CountDownLatch(1);
+            AtomicInteger createdEmissions = new AtomicInteger();
+            // occupy the dispatcher thread
+            dispatcher.submit(() -> () -> {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            started.await();
+            for (int i = 0; i < 5; i++) {
+                int value = i;
+                dispatcher.submit(() -> {
+                    createdEmissions.incrementAndGet();
+                    return () -> received.add(value);
+                });
+            }
+            assertEquals(2, dispatcher.getQueueDepth());
+            release.countDown();
+            dispatcher.shutdown();
+            assertEquals(6, dispatcher.getSubmittedEmissions());
+            if (policy == EmissionPolicy.DROP) {
+                assertEquals(3, dispatcher.getDroppedEmissions());
+                // dropped emissions are never created
+                assertEquals(2, createdEmissions.get());
+                assertEquals(0, received.get(0).intValue());
+                assertEquals(1, received.get(1).intValue());
+            } else {
+                assertEquals(3, dispatcher.getCoalescedEmissions());
+                assertEquals(5, createdEmissions.get());
+                assertEquals(0, received.get(0).intValue());
+                assertEquals(4, received.get(1).intValue());
+            }
+            assertEquals(2, received.size());
+            assertEquals(3, dispatcher.getDispatchedEmissions());
+        }
+    }
+
+}
@@ -16,7 +16,7 @@ import javax.measure.quantity.Length;
 import java.util.Set;
 import java.util.stream.Collectors;
 
-import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.*;
 import static tech.units.indriya.unit.MetricPrefix.MICRO;
 import static tech.units.indriya.unit.MetricPrefix.NANO;
 import static tech.units.indriya.unit.Units.METRE;
@@ -108,4 +108,38 @@ class VesicleLayerTest {
         assertTrue(coordinatesNW.contains(new RectangularCoordinate(1,2)));
 
     }
-}
\ No newline at end of file
+
+    @Test
+    void shouldReplaceVesiclesInSameEpoch() {
+        double simulationExtend = 150;
+        Rectangle rectangle = new Rectangle(simulationExtend, simulationExtend);
+        Simulation simulation = new Simulation();
+        simulation.setSimulationRegion(rectangle);
+        ComparableQuantity<Length> systemExtend = Quantities.getQuantity(1, MICRO(METRE));
+        Environment.setSystemExtend(systemExtend);
+        Environment.setSimulationExtend(simulationExtend);
+        Environment.setNodeSpacingToDiameter(systemExtend, 3);
+        simulation.setGraph(AutomatonGraphs.createRectangularAutomatonGraph(3, 3));
+        VesicleLayer vesicleLayer = new VesicleLayer(simulation);
+        simulation.setVesicleLayer(vesicleLayer);
+        ComparableQuantity<Length> radius = Quantities.getQuantity(20, NANO(METRE));
+        Vesicle first = new Vesicle(new Vector2D(25.0, 25.0), radius);
+        Vesicle removed = new Vesicle(new Vector2D(75.0, 75.0), radius);
+        vesicleLayer.addVesicle(first);
+        vesicleLayer.addVesicle(removed);
+        vesicleLayer.applyDeltas();
+        // the number of vesicles remains the same
+        vesicleLayer.removeVesicle(removed);
+        Vesicle added = new Vesicle(new Vector2D(75.0, 75.0), radius);
+        vesicleLayer.addVesicle(added);
+        assertDoesNotThrow(vesicleLayer::applyDeltas);
+        // replaced directly in the list of vesicles
+        vesicleLayer.getVesicles().remove(added);
+        Vesicle replacement = new Vesicle(new Vector2D(75.0, 75.0), radius);
+        vesicleLayer.getVesicles().add(replacement);
+        assertDoesNotThrow(vesicleLayer::applyDeltas);
+        assertEquals(new Vector2D(75.0, 75.0), replacement.getPosition());
+        Environment.reset();
+    }
+
+}
@@ -0,0 +1,82 @@
+package bio.singa.simulation.model.graphs;
+
+import bio.singa.mathematics.geometry.faces.Rectangle;
+import bio.singa.mathematics.graphs.model.Graphs;
+import bio.singa.mathematics.vectors.Vector2D;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author cl
+ */
+class NodeLocatorTest {
+
+    private static final int NUMBER_OF_NODES = 8;
+    private static final double EXTEND = 400.0;
+
+    @Test
+    void shouldLocateNodesOfRegularLattice() {
+        AutomatonGraph graph = createGraph();
+        double spacing = EXTEND / NUMBER_OF_NODES;
+        for (AutomatonNode node : graph.getNodes()) {
+            Vector2D position = node.getPosition();
+            node.setSpatialRepresentation(new Rectangle(new Vector2D(position.getX() - spacing * 0.5, position.getY() - spacing * 0.5),
+                    new Vector2D(position.getX() + spacing * 0.5, position.getY() + spacing * 0.5)));
+        }
+        NodeLocator locator = new NodeLocator(graph);
+        assertTrue(locator.isRegular());
+        assertLocatesLikeLinearSearch(graph, locator);
+        // positions on the edges of the rectangles
+        for (int column = 0; column <= NUMBER_OF_NODES; column++) {
+            Vector2D position = new Vector2D(column * spacing, 0.5 * spacing);
+            assertSame(locateLinearly(graph, position), locator.locate(position));
+        }
+    }
+
+    @Test
+    void shouldLocateNodesOfIrregularRepresentations() {
+        AutomatonGraph graph = createGraph();
+        // columns of different widths
+        double[] boundaries = new double[NUMBER_OF_NODES + 1];
+        for (int column = 1; column <= NUMBER_OF_NODES; column++) {
+            boundaries[column] = boundaries[column - 1] + EXTEND / NUMBER_OF_NODES * (column % 2 == 0 ? 0.5 : 1.5);
+        }
+        double spacing = EXTEND / NUMBER_OF_NODES;
+        for (AutomatonNode node : graph.getNodes()) {
+            int column = node.getIdentifier().getColumn();
+            int row = node.getIdentifier().getRow();
+            node.setSpatialRepresentation(new Rectangle(new Vector2D(boundaries[column], row * spacing),
+                    new Vector2D(boundaries[column + 1], (row + 1) * spacing)));
+        }
+        NodeLocator locator = new NodeLocator(graph);
+        assertFalse(locator.isRegular());
+        assertLocatesLikeLinearSearch(graph, locator);
+    }
+
+    private static void assertLocatesLikeLinearSearch(AutomatonGraph graph, NodeLocator locator) {
+        Random random = new Random(11);
+        for (int query = 0; query < 1000; query++) {
+            // including positions outside of the graph
+            Vector2D position = new Vector2D(random.nextDouble() * EXTEND * 1.2 - EXTEND * 0.1,
+                    random.nextDouble() * EXTEND * 1.2 - EXTEND * 0.1);
+            assertSame(locateLinearly(graph, position), locator.locate(position));
+        }
+    }
+
+    private static AutomatonNode locateLinearly(AutomatonGraph graph, Vector2D position) {
+        for (AutomatonNode node : graph.getNodes()) {
+            if (node.getSpatialRepresentation().containsVector(position)) {
+                return node;
+            }
+        }
+        return null;
+    }
+
+    private static AutomatonGraph createGraph() {
+        return AutomatonGraphs.useStructureFrom(Graphs.buildGridGraph(NUMBER_OF_NODES, NUMBER_OF_NODES, new Rectangle(EXTEND, EXTEND)));
+    }
+
+}
@@ -0,0 +1,115 @@
+package bio.singa.simulation.model.modules.concentration;
+
+import bio.singa.simulation.entities.ChemicalEntity;
+import bio.singa.simulation.entities.SimpleEntity;
+import bio.singa.simulation.model.graphs.AutomatonNode;
+import org.junit.jupiter.api.Test;
+
+import static bio.singa.simulation.model.sections.CellSubsections.CYTOPLASM;
+import static bio.singa.simulation.model.sections.CellSubsections.EXTRACELLULAR_REGION;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author cl
+ */
+class DeltaAccumulatorTest {
+
+    private static final ChemicalEntity entityA = SimpleEntity.create("DA").build();
+    private static final ChemicalEntity entityB = SimpleEntity.create("DB").build();
+
+    @Test
+    void shouldAccumulateDeltas() {
+        AutomatonNode first = new AutomatonNode(0, 0);
+        AutomatonNode second = new AutomatonNode(1, 0);
+        DeltaAccumulator accumulator = new DeltaAccumulator();
+        int entry = accumulator.addFullDelta(first, "", CYTOPLASM, entityA, 1.0);
+        assertEquals(entry, accumulator.addFullDelta(first, "", CYTOPLASM, entityA, 2.0));
+        accumulator.addFullDelta(second, "", CYTOPLASM, entityA, 4.0);
+        accumulator.addFullDelta(first, "", EXTRACELLULAR_REGION, entityA, 8.0);
+        accumulator.addFullDelta(first, "", CYTOPLASM, entityB, 16.0);
+        // references are distinguished
+        accumulator.addFullDelta(first, "pit", CYTOPLASM, entityA, 32.0);
+        assertEquals(5, accumulator.size());
+        assertEquals(5, accumulator.getNumberOfFullDeltas());
+        assertEquals(3.0, accumulator.getFullDelta(entry));
+        assertEquals(32.0, accumulator.getFullDelta(accumulator.find(first, "pit", CYTOPLASM, entityA)));
+        assertEquals(-1, accumulator.find(second, "", CYTOPLASM, entityB));
+        // half deltas share the entry of full deltas
+        assertEquals(entry, accumulator.addHalfDelta(first, "", CYTOPLASM, entityA, 0.5));
+        assertTrue(accumulator.hasHalfDelta(entry));
+        assertEquals(0.5, accumulator.getHalfDelta(entry));
+        // half deltas without full delta
+        int halfEntry = accumulator.addHalfDelta(second, "", CYTOPLASM, entityB, 1.5);
+        assertFalse(accumulator.hasFullDelta(halfEntry));
+        assertEquals(5, accumulator.getNumberOfFullDeltas());
+    }
+
+    @Test
+    void shouldAlternateReferences() {
+        AutomatonNode node = new AutomatonNode(0, 0);
+        DeltaAccumulator accumulator = new DeltaAccumulator();
+        int moduleEntry = accumulator.addFullDelta(node, "module", CYTOPLASM, entityA, 1.0);
+        int plainEntry = accumulator.addFullDelta(node, "", CYTOPLASM, entityA, 2.0);
+        int otherEntry = accumulator.addFullDelta(node, "other", CYTOPLASM, entityA, 4.0);
+        assertEquals(moduleEntry, accumulator.addFullDelta(node, "module", CYTOPLASM, entityA, 8.0));
+        assertEquals(plainEntry, accumulator.addFullDelta(node, null, CYTOPLASM, entityA, 16.0));
+        assertEquals(3, accumulator.size());
+        assertEquals("module", accumulator.getReference(moduleEntry));
+        assertEquals("other", accumulator.getReference(otherEntry));
+        assertEquals(9.0, accumulator.getFullDelta(moduleEntry));
+        assertEquals(18.0, accumulator.getFullDelta(plainEntry));
+        assertEquals(-1, accumulator.find(node, "missing", CYTOPLASM, entityA));
+        assertEquals(otherEntry, accumulator.find(node, "other", CYTOPLASM, entityA));
+    }
+
+    @Test
+    void shouldGrowAndClear() {
+        DeltaAccumulator accumulator = new DeltaAccumulator();
+        AutomatonNode[] nodes = new AutomatonNode[500];
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i] = new AutomatonNode(i, 0);
+            accumulator.addFullDelta(nodes[i], "", CYTOPLASM, entityA, i);
+        }
+        assertEquals(nodes.length, accumulator.size());
+        for (int i = 0; i < nodes.length; i++) {
+            int entry = accumulator.find(nodes[i], "", CYTOPLASM, entityA);
+            assertEquals(i, accumulator.getFullDelta(entry));
+            assertSame(nodes[i], accumulator.getUpdatable(entry));
+        }
+        accumulator.clear();
+        assertEquals(0, accumulator.size());
+        assertEquals(0, accumulator.getNumberOfFullDeltas());
+        assertEquals(-1, accumulator.find(nodes[0], "", CYTOPLASM, entityA));
+        // values are reset
+        int entry = accumulator.addFullDelta(nodes[1], "", CYTOPLASM, entityA, 1.0);
+        assertEquals(1.0, accumulator.getFullDelta(entry));
+        assertFalse(accumulator.hasHalfDelta(entry));
+    }
+
+    @Test
+    void shouldKeepEntriesAfterRemovingUnusedSlots() {
+        DeltaAccumulator accumulator = new DeltaAccumulator();
+        AutomatonNode retainedNode = new AutomatonNode(0, 0);
+        // exceed the number of slots, that are kept without removing unused slots
+        for (int round = 0; round < 4; round++) {
+            accumulator.addFullDelta(retainedNode, "", CYTOPLASM, entityA, 1.0);
+            accumulator.addFullDelta(retainedNode, "pit", CYTOPLASM, entityA, 2.0);
+            for (int i = 0; i < 1500; i++) {
+                accumulator.addFullDelta(new AutomatonNode(round + 1, i), "", CYTOPLASM, entityA, 4.0);
+            }
+            accumulator.clear();
+        }
+        AutomatonNode newNode = new AutomatonNode(10, 0);
+        int retainedEntry = accumulator.addFullDelta(retainedNode, "", CYTOPLASM, entityA, 1.0);
+        int referencedEntry = accumulator.addFullDelta(retainedNode, "pit", CYTOPLASM, entityA, 2.0);
+        int newEntry = accumulator.addFullDelta(newNode, "", CYTOPLASM, entityA, 4.0);
+        assertEquals(3, accumulator.size());
+        assertEquals(retainedEntry, accumulator.find(retainedNode, "", CYTOPLASM, entityA));
+        assertEquals(referencedEntry, accumulator.find(retainedNode, "pit", CYTOPLASM, entityA));
+        assertEquals(newEntry, accumulator.find(newNode, "", CYTOPLASM, entityA));
+        assertEquals(1.0, accumulator.getFullDelta(retainedEntry));
+        assertEquals(2.0, accumulator.getFullDelta(referencedEntry));
+        assertEquals(4.0, accumulator.getFullDelta(newEntry));
+    }
+
+}
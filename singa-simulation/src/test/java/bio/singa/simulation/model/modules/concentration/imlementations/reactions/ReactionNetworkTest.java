@@ -0,0 +1,282 @@
+package bio.singa.simulation.model.modules.concentration.imlementations.reactions;
+
+import bio.singa.chemistry.features.reactions.RateConstant;
+import bio.singa.features.parameters.Environment;
+import bio.singa.features.units.UnitRegistry;
+import bio.singa.mathematics.geometry.faces.Rectangle;
+import bio.singa.mathematics.graphs.model.Graphs;
+import bio.singa.mathematics.vectors.Vector2D;
+import bio.singa.simulation.entities.ChemicalEntity;
+import bio.singa.simulation.entities.SimpleEntity;
+import bio.singa.simulation.model.agents.pointlike.Vesicle;
+import bio.singa.simulation.model.agents.pointlike.VesicleLayer;
+import bio.singa.simulation.model.graphs.AutomatonGraph;
+import bio.singa.simulation.model.graphs.AutomatonGraphs;
+import bio.singa.simulation.model.graphs.AutomatonNode;
+import bio.singa.simulation.model.modules.UpdateModule;
+import bio.singa.simulation.model.simulation.Simulation;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import tech.units.indriya.quantity.Quantities;
+
+import javax.measure.Quantity;
+import javax.measure.quantity.Length;
+import java.util.concurrent.ForkJoinPool;
+
+import static bio.singa.features.units.UnitProvider.MOLE_PER_LITRE;
+import static bio.singa.simulation.model.sections.CellSubsections.EXTRACELLULAR_REGION;
+import static org.junit.jupiter.api.Assertions.*;
+import static tech.units.indriya.unit.MetricPrefix.MICRO;
+import static tech.units.indriya.unit.MetricPrefix.NANO;
+import static tech.units.indriya.unit.Units.METRE;
+import static tech.units.indriya.unit.Units.SECOND;
+
+/**
+ * @author cl
+ */
+class ReactionNetworkTest {
+
+    private static final int NUMBER_OF_NODES = 5;
+
+    @BeforeAll
+    static void initialize() {
+        UnitRegistry.reinitialize();
+        Environment.reset();
+    }
+
+    @AfterEach
+    void cleanUp() {
+        UnitRegistry.reinitialize();
+        Environment.reset();
+    }
+
+    @Test
+    void shouldReproduceSingleReaction() {
+        int epochs = 50;
+        double[][] separate = simulate(false, false, 4, epochs);
+        UnitRegistry.reinitialize();
+        Environment.reset();
+        double[][] network = simulate(false, true, 4, epochs);
+        for (int node = 0; node < separate.length; node++) {
+            for (int entity = 0; entity < separate[node].length; entity++) {
+                assertEquals(separate[node][entity], network[node][entity], Math.abs(separate[node][entity]) * 1e-12);
+            }
+        }
+    }
+
+    @Test
+    void shouldCompileReactionsToSingleModule() {
+        int epochs = 50;
+        double[][] sequential = simulate(true, true, NUMBER_OF_NODES * NUMBER_OF_NODES, epochs);
+        UnitRegistry.reinitialize();
+        Environment.reset();
+        double[][] tiled = simulate(true, true, 4, epochs);
+        for (int node = 0; node < sequential.length; node++) {
+            // tiles are independent of each other
+            for (int entity = 0; entity < sequential[node].length; entity++) {
+                assertEquals(sequential[node][entity], tiled[node][entity], "concentration of entity " + entity + " in node " + node);
+            }
+            // a + c + d is conserved
+            double initialMass = tiled[node][4];
+            assertEquals(initialMass, tiled[node][0] + tiled[node][2] + tiled[node][3], initialMass * 1e-10);
+            // d has been formed
+            assertTrue(tiled[node][3] > 0.0);
+        }
+    }
+
+    @Test
+    void shouldRetainReactionsForVesicles() {
+        int epochs = 20;
+        double[][] separate = simulateWithVesicle(false, epochs);
+        UnitRegistry.reinitialize();
+        Environment.reset();
+        double[][] network = simulateWithVesicle(true, epochs);
+        double minimalProduct = Double.POSITIVE_INFINITY;
+        double maximalProduct = 0.0;
+        for (int node = 0; node < separate.length; node++) {
+            // the half step concentrations of the associated nodes are determined from different deltas
+            for (int entity = 0; entity < separate[node].length; entity++) {
+                assertEquals(separate[node][entity], network[node][entity], Math.abs(separate[node][entity]) * 1e-3);
+            }
+            minimalProduct = Math.min(minimalProduct, network[node][1]);
+            maximalProduct = Math.max(maximalProduct, network[node][1]);
+        }
+        // the reaction in the vesicle contributes to its associated nodes
+        assertTrue(maximalProduct > minimalProduct * 1.5);
+    }
+
+    /**
+     * Simulates the isomerization of C and D on a grid with a vesicle, whose reactions contribute to the
+     * concentrations of its associated nodes. The concentrations of c and d in all nodes are returned.
+     */
+    private static double[][] simulateWithVesicle(boolean compile, int epochs) {
+        Quantity<Length> systemExtend = Quantities.getQuantity(2500.0, NANO(METRE));
+        Environment.setSystemExtend(systemExtend);
+        Environment.setSimulationExtend(2500);
+        Environment.setNodeSpacingToDiameter(systemExtend, NUMBER_OF_NODES);
+        ChemicalEntity c = SimpleEntity.create("C").build();
+        ChemicalEntity d = SimpleEntity.create("D").build();
+        Rectangle boundingBox = new Rectangle(Environment.getSimulationExtend(), Environment.getSimulationExtend());
+        AutomatonGraph graph = AutomatonGraphs.useStructureFrom(Graphs.buildGridGraph(NUMBER_OF_NODES, NUMBER_OF_NODES, boundingBox));
+        for (AutomatonNode node : graph.getNodes()) {
+            node.getConcentrationContainer().initialize(EXTRACELLULAR_REGION, c, Quantities.getQuantity(1.0e-3, MOLE_PER_LITRE));
+        }
+        Simulation simulation = new Simulation();
+        // both simulations advance with the same time steps
+        simulation.setMaximalTimeStep(Quantities.getQuantity(1.0, MICRO(SECOND)));
+        simulation.setSimulationRegion(boundingBox);
+        simulation.setGraph(graph);
+        VesicleLayer vesicleLayer = new VesicleLayer(simulation);
+        Vesicle vesicle = new Vesicle(new Vector2D(1200.0, 1300.0), Quantities.getQuantity(50.0, NANO(METRE)));
+        vesicleLayer.addVesicle(vesicle);
+        simulation.setVesicleLayer(vesicleLayer);
+        ReactionBuilder.staticReactants(simulation)
+                .addSubstrate(c)
+                .addProduct(d)
+                .reversible()
+                .forwardReactionRate(RateConstant.create(1.0e3)
+                        .forward().firstOrder()
+                        .timeUnit(SECOND)
+                        .build())
+                .backwardReactionRate(RateConstant.create(5.0e2)
+                        .backward().firstOrder()
+                        .timeUnit(SECOND)
+                        .build())
+                .identifier("isomerization")
+                .build();
+        if (compile) {
+            ReactionNetwork network = ReactionNetwork.inSimulation(simulation)
+                    .forAllReactions()
+                    .build();
+            // the reaction is retained for the vesicle
+            assertEquals(2, simulation.getModules().size());
+            assertTrue(simulation.getModules().contains(network));
+        }
+        simulation.getScheduler().setParallelism(1);
+        for (int epoch = 0; epoch < epochs; epoch++) {
+            simulation.nextEpoch();
+        }
+        simulation.getScheduler().shutdownExecutorService();
+        assertFalse(vesicle.getAssociatedNodes().isEmpty());
+        double[][] concentrations = new double[graph.getNodes().size()][2];
+        int position = 0;
+        for (AutomatonNode node : graph.getNodes()) {
+            concentrations[position][0] = node.getConcentrationContainer().get(EXTRACELLULAR_REGION, c);
+            concentrations[position][1] = node.getConcentrationContainer().get(EXTRACELLULAR_REGION, d);
+            position++;
+        }
+        return concentrations;
+    }
+
+    /**
+     * Simulates the isomerization of C and D on a grid, optionally combined with the formation of C from A and B. The
+     * concentrations of all nodes and entities after the given number of epochs are returned, followed by the initial
+     * sum of a and c.
+     */
+    private static double[][] simulate(boolean binding, boolean compile, int tileSize, int epochs) {
+        Quantity<Length> systemExtend = Quantities.getQuantity(2500.0, NANO(METRE));
+        Environment.setSystemExtend(systemExtend);
+        Environment.setSimulationExtend(2500);
+        Environment.setNodeSpacingToDiameter(systemExtend, NUMBER_OF_NODES);
+        ChemicalEntity a = SimpleEntity.create("A").build();
+        ChemicalEntity b = SimpleEntity.create("B").build();
+        ChemicalEntity c = SimpleEntity.create("C").build();
+        ChemicalEntity d = SimpleEntity.create("D").build();
+        ChemicalEntity[] entities = new ChemicalEntity[]{a, b, c, d};
+        Rectangle boundingBox = new Rectangle(Environment.getSimulationExtend(), Environment.getSimulationExtend());
+        AutomatonGraph graph = AutomatonGraphs.useStructureFrom(Graphs.buildGridGraph(NUMBER_OF_NODES, NUMBER_OF_NODES, boundingBox));
+        for (AutomatonNode node : graph.getNodes()) {
+            int column = node.getIdentifier().getColumn();
+            node.getConcentrationContainer().initialize(EXTRACELLULAR_REGION, a, Quantities.getQuantity(initialConcentration(column, 0), MOLE_PER_LITRE));
+            node.getConcentrationContainer().initialize(EXTRACELLULAR_REGION, b, Quantities.getQuantity(initialConcentration(column, 1), MOLE_PER_LITRE));
+            node.getConcentrationContainer().initialize(EXTRACELLULAR_REGION, c, Quantities.getQuantity(initialConcentration(column, 2), MOLE_PER_LITRE));
+        }
+        Simulation simulation = new Simulation();
+        simulation.setGraph(graph);
+        if (binding) {
+            ReactionBuilder.staticReactants(simulation)
+                    .addSubstrate(a)
+                    .addSubstrate(b)
+                    .addProduct(c)
+                    .irreversible()
+                    .rate(RateConstant.create(1.0e6)
+                            .forward().secondOrder()
+                            .concentrationUnit(MOLE_PER_LITRE)
+                            .timeUnit(SECOND)
+                            .build())
+                    .identifier("binding")
+                    .build();
+        }
+        ReactionBuilder.staticReactants(simulation)
+                .addSubstrate(c)
+                .addProduct(d)
+                .reversible()
+                .forwardReactionRate(RateConstant.create(1.0e3)
+                        .forward().firstOrder()
+                        .timeUnit(SECOND)
+                        .build())
+                .backwardReactionRate(RateConstant.create(5.0e2)
+                        .backward().firstOrder()
+                        .timeUnit(SECOND)
+                        .build())
+                .identifier("isomerization")
+                .build();
+        ForkJoinPool pool = new ForkJoinPool(2);
+        if (compile) {
+            ReactionNetwork network = ReactionNetwork.inSimulation(simulation)
+                    .forAllReactions()
+                    .inParallel(pool, tileSize)
+                    .build();
+            // compiled reactions remain for vesicles
+            assertEquals(binding ? 3 : 2, simulation.getModules().size());
+            assertSame(network, simulation.getModules().get(simulation.getModules().size() - 1));
+            assertEquals(binding ? 2 : 1, network.getNumberOfRows());
+            assertEquals(binding ? 4 : 2, network.getNumberOfSpecies());
+            assertEquals(binding ? 5 : 2, network.getNumberOfCoefficients());
+        } else {
+            for (UpdateModule module : simulation.getModules()) {
+                assertTrue(module instanceof Reaction);
+            }
+        }
+        // the concentrations of a, b, c and d followed by the initial sum of a and c
+        double[][] concentrations = new double[graph.getNodes().size()][entities.length + 1];
+        int position = 0;
+        for (AutomatonNode node : graph.getNodes()) {
+            concentrations[position++][entities.length] = node.getConcentrationContainer().get(EXTRACELLULAR_REGION, a)
+                    + node.getConcentrationContainer().get(EXTRACELLULAR_REGION, c);
+        }
+        simulation.getScheduler().setParallelism(1);
+        for (int epoch = 0; epoch < epochs; epoch++) {
+            simulation.nextEpoch();
+        }
+        simulation.getScheduler().shutdownExecutorService();
+        pool.shutdown();
+        position = 0;
+        for (AutomatonNode node : graph.getNodes()) {
+            for (int entity = 0; entity < entities.length; entity++) {
+                concentrations[position][entity] = node.getConcentrationContainer().get(EXTRACELLULAR_REGION, entities[entity]);
+            }
+            position++;
+        }
+        return concentrations;
+    }
+
+    /**
+     * Returns the initial concentration (mol/l) of the entity in the given column.
+     */
+    private static double initialConcentration(int column, int entity) {
+        double c = (column + 1) * 0.2e-3;
+        switch (entity) {
+            case 0:
+                return 2.0e-3 - c;
+            case 1:
+                return 1.0e-3;
+            case 2:
+                return c;
+            default:
+                return 0.0;
+        }
+    }
+
+}
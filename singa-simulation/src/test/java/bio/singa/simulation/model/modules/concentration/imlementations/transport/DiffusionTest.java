@@ -20,6 +20,7 @@ import bio.singa.simulation.model.graphs.AutomatonGraphs;
 import bio.singa.simulation.model.graphs.AutomatonNode;
 import bio.singa.simulation.model.sections.CellRegion;
 import bio.singa.simulation.model.sections.CellRegions;
+import bio.singa.simulation.model.sections.ConcentrationContainer;
 import bio.singa.simulation.model.simulation.Simulation;
 import bio.singa.simulation.model.simulation.error.TimeStepManager;
 import org.junit.jupiter.api.*;
@@ -108,6 +109,71 @@ class DiffusionTest {
         Environment.reset();
     }
 
+    @Test
+    @DisplayName("parallel diffusion of hydrogen with 20 nodes")
+    void shouldReachCorrectHalfLifeInParallel() {
+        // setup and run simulation
+        Simulation simulation = setUpSimulation(20, hydrogen);
+        Diffusion diffusion = (Diffusion) simulation.getModules().get(0);
+        // use small tiles to process multiple tiles
+        diffusion.useParallelKernel(16);
+        Quantity<Time> actualHalfLifeTime = runSimulation(simulation, 20, hydrogen);
+        // test results
+        assertEquals(Quantities.getQuantity(135, MICRO(SECOND)).getValue().doubleValue(), actualHalfLifeTime.getValue().doubleValue(), 1);
+        Environment.reset();
+    }
+
+    @Test
+    @DisplayName("parallel diffusion produces the same concentrations as sequential diffusion")
+    void shouldReproduceSequentialDiffusion() {
+        Simulation sequential = setUpSimulation(10, hydrogen);
+        for (int i = 0; i < 20; i++) {
+            sequential.nextEpoch();
+        }
+        UnitRegistry.reinitialize();
+        Environment.reset();
+        Simulation parallel = setUpSimulation(10, hydrogen);
+        ((Diffusion) parallel.getModules().get(0)).useParallelKernel(7);
+        for (int i = 0; i < 20; i++) {
+            parallel.nextEpoch();
+        }
+        for (AutomatonNode node : sequential.getGraph().getNodes()) {
+            AutomatonNode parallelNode = parallel.getGraph().getNode(node.getIdentifier());
+            assertEquals(concentration(node), concentration(parallelNode), 1e-12);
+        }
+    }
+
+    @Test
+    @DisplayName("parallel diffusion uses replaced concentration containers")
+    void shouldReproduceSequentialDiffusionAfterReplacement() {
+        Simulation sequential = setUpSimulation(10, hydrogen);
+        simulateWithReplacement(sequential);
+        UnitRegistry.reinitialize();
+        Environment.reset();
+        Simulation parallel = setUpSimulation(10, hydrogen);
+        ((Diffusion) parallel.getModules().get(0)).useParallelKernel(7);
+        simulateWithReplacement(parallel);
+        for (AutomatonNode node : sequential.getGraph().getNodes()) {
+            AutomatonNode parallelNode = parallel.getGraph().getNode(node.getIdentifier());
+            assertEquals(concentration(node), concentration(parallelNode), 1e-12);
+        }
+    }
+
+    private void simulateWithReplacement(Simulation simulation) {
+        for (int i = 0; i < 10; i++) {
+            simulation.nextEpoch();
+        }
+        // the kernel has to collect the pools of the replaced container
+        AutomatonNode node = simulation.getGraph().getNode(new RectangularCoordinate(4, 4));
+        ConcentrationContainer replacement = node.getConcentrationContainer().fullCopy();
+        double added = UnitRegistry.convert(Quantities.getQuantity(0.5, MOLE_PER_LITRE)).getValue().doubleValue();
+        replacement.set(EXTRACELLULAR_REGION, hydrogen, replacement.get(EXTRACELLULAR_REGION, hydrogen) + added);
+        node.setConcentrationContainer(replacement);
+        for (int i = 0; i < 10; i++) {
+            simulation.nextEpoch();
+        }
+    }
+
     @Test
     @DisplayName("diffusion of ammonia with 30 nodes")
     @Disabled
@@ -200,6 +266,10 @@ class DiffusionTest {
 
     }
 
+    private double concentration(AutomatonNode node) {
+        return UnitRegistry.concentration(node.getConcentrationContainer().get(EXTRACELLULAR_REGION, hydrogen)).to(MOLE_PER_LITRE).getValue().doubleValue();
+    }
+
     private Simulation setUpSimulation(int numberOfNodes, ChemicalEntity chemicalEntity) {
         Environment.setSystemExtend(systemExtend);
         Environment.setSimulationExtend(simulationExtend);
@@ -0,0 +1,205 @@
+package bio.singa.simulation.model.sections;
+
+import bio.singa.features.parameters.Environment;
+import bio.singa.features.quantities.ConcentrationDiffusivity;
+import bio.singa.features.units.UnitRegistry;
+import bio.singa.mathematics.geometry.faces.Rectangle;
+import bio.singa.mathematics.graphs.model.Graphs;
+import bio.singa.simulation.entities.ChemicalEntity;
+import bio.singa.simulation.entities.SimpleEntity;
+import bio.singa.simulation.model.graphs.AutomatonGraph;
+import bio.singa.simulation.model.graphs.AutomatonGraphs;
+import bio.singa.simulation.model.graphs.AutomatonNode;
+import bio.singa.simulation.model.modules.concentration.imlementations.transport.Diffusion;
+import bio.singa.simulation.model.simulation.Simulation;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import tech.units.indriya.quantity.Quantities;
+
+import javax.measure.Quantity;
+import javax.measure.quantity.Length;
+import java.util.Arrays;
+import java.util.List;
+
+import static bio.singa.features.quantities.Diffusivity.SQUARE_CENTIMETRE_PER_SECOND;
+import static bio.singa.features.units.UnitProvider.MOLE_PER_LITRE;
+import static bio.singa.simulation.model.sections.CellSubsections.EXTRACELLULAR_REGION;
+import static org.junit.jupiter.api.Assertions.*;
+import static tech.units.indriya.unit.MetricPrefix.NANO;
+import static tech.units.indriya.unit.Units.METRE;
+
+/**
+ * @author cl
+ */
+class ConcentrationGridTest {
+
+    private static final ChemicalEntity entityA = SimpleEntity.create("GA").build();
+    private static final ChemicalEntity entityB = SimpleEntity.create("GB").build();
+
+    @Test
+    void testBoundPoolsAreViews() {
+        AutomatonNode first = new AutomatonNode(0, 0);
+        AutomatonNode second = new AutomatonNode(1, 0);
+        first.getConcentrationContainer().set(EXTRACELLULAR_REGION, entityA, 1.0);
+        List<AutomatonNode> nodes = Arrays.asList(first, second);
+        ConcentrationGrid grid = new ConcentrationGrid(nodes);
+        // existing values are transferred
+        assertEquals(1.0, getValue(grid, first, entityA));
+        // writes to the container are visible in the grid
+        second.getConcentrationContainer().set(EXTRACELLULAR_REGION, entityA, 2.0);
+        double[] values = grid.getValues(EXTRACELLULAR_REGION);
+        assertEquals(2.0, values[grid.getOffset(entityA) + grid.getIndex(second)]);
+        // writes to the grid are visible in the container
+        values[grid.getOffset(entityA) + grid.getIndex(first)] = 3.0;
+        assertEquals(3.0, first.getConcentrationContainer().get(EXTRACELLULAR_REGION, entityA));
+        assertTrue(grid.isBound(first, EXTRACELLULAR_REGION));
+    }
+
+    @Test
+    void testCopyKeepsBinding() {
+        AutomatonNode node = new AutomatonNode(0, 0);
+        node.getConcentrationContainer().set(EXTRACELLULAR_REGION, entityA, 1.0);
+        ConcentrationGrid grid = new ConcentrationGrid(Arrays.asList(node));
+        ConcentrationContainer copy = node.getConcentrationContainer().fullCopy();
+        copy.set(EXTRACELLULAR_REGION, entityA, 4.0);
+        copy.set(EXTRACELLULAR_REGION, entityB, 5.0);
+        // copies are detached from the grid
+        assertEquals(1.0, getValue(grid, node, entityA));
+        // copying back keeps the original pools
+        copy.copyTo(node.getConcentrationContainer());
+        assertTrue(grid.isBound(node, EXTRACELLULAR_REGION));
+        assertEquals(4.0, getValue(grid, node, entityA));
+        assertEquals(5.0, getValue(grid, node, entityB));
+        assertEquals(2, node.getConcentrationContainer().getReferencedEntities().size());
+    }
+
+    @Test
+    void testGrowth() {
+        AutomatonNode first = new AutomatonNode(0, 0);
+        AutomatonNode second = new AutomatonNode(1, 0);
+        first.getConcentrationContainer().set(EXTRACELLULAR_REGION, entityA, 1.0);
+        ConcentrationGrid grid = new ConcentrationGrid(Arrays.asList(first, second));
+        // entities created after the grid require additional capacity
+        ChemicalEntity lateEntity = SimpleEntity.create("GLate").build();
+        second.getConcentrationContainer().set(EXTRACELLULAR_REGION, lateEntity, 6.0);
+        assertEquals(6.0, getValue(grid, second, lateEntity));
+        assertEquals(1.0, first.getConcentrationContainer().get(EXTRACELLULAR_REGION, entityA));
+        assertEquals(6.0, second.getConcentrationContainer().get(EXTRACELLULAR_REGION, lateEntity));
+        assertEquals(0.0, first.getConcentrationContainer().get(EXTRACELLULAR_REGION, lateEntity));
+    }
+
+    @Test
+    void testBulkBackupAndRestore() {
+        AutomatonNode first = new AutomatonNode(0, 0);
+        AutomatonNode second = new AutomatonNode(1, 0);
+        first.getConcentrationContainer().set(EXTRACELLULAR_REGION, entityA, 1.0);
+        second.getConcentrationContainer().set(EXTRACELLULAR_REGION, entityA, 2.0);
+        ConcentrationGrid grid = new ConcentrationGrid(Arrays.asList(first, second));
+        assertTrue(grid.isBound(first));
+        // original concentrations are initialized with the current concentrations
+        assertEquals(2.0, second.getConcentrationManager().getOriginalConcentrations().get(EXTRACELLULAR_REGION, entityA));
+        first.getConcentrationContainer().set(EXTRACELLULAR_REGION, entityA, 3.0);
+        grid.backup();
+        assertEquals(3.0, first.getConcentrationManager().getOriginalConcentrations().get(EXTRACELLULAR_REGION, entityA));
+        first.getConcentrationContainer().set(EXTRACELLULAR_REGION, entityA, 4.0);
+        second.getConcentrationContainer().set(EXTRACELLULAR_REGION, entityB, 5.0);
+        grid.restore();
+        assertEquals(3.0, first.getConcentrationContainer().get(EXTRACELLULAR_REGION, entityA));
+        assertEquals(2.0, second.getConcentrationContainer().get(EXTRACELLULAR_REGION, entityA));
+        assertEquals(0.0, second.getConcentrationContainer().get(EXTRACELLULAR_REGION, entityB));
+        // replaced containers are detached
+        second.getConcentrationManager().setOriginalConcentrations(second.getConcentrationContainer().fullCopy());
+        assertFalse(grid.isBound(second));
+        assertTrue(grid.isBound(first));
+    }
+
+    @Test
+    void testGrowthBetweenEpochs() {
+        AutomatonNode first = new AutomatonNode(0, 0);
+        AutomatonNode second = new AutomatonNode(1, 0);
+        first.getConcentrationContainer().set(EXTRACELLULAR_REGION, entityA, 1.0);
+        ConcentrationGrid grid = new ConcentrationGrid(Arrays.asList(first, second));
+        // entities indexed after the grid has been created are added when the capacity is extended
+        ChemicalEntity lateEntity = SimpleEntity.create("GBetweenEpochs").build();
+        lateEntity.getIndex();
+        double[] previousValues = grid.getValues(EXTRACELLULAR_REGION);
+        grid.ensureCapacity();
+        double[] values = grid.getValues(EXTRACELLULAR_REGION);
+        assertNotSame(previousValues, values);
+        assertEquals(1.0, getValue(grid, first, entityA));
+        // writes after the extension use the existing storage
+        second.getConcentrationContainer().set(EXTRACELLULAR_REGION, lateEntity, 7.0);
+        assertSame(values, grid.getValues(EXTRACELLULAR_REGION));
+        assertEquals(7.0, getValue(grid, second, lateEntity));
+        assertTrue(grid.isBound(second, EXTRACELLULAR_REGION));
+        // the capacity is only extended once
+        grid.ensureCapacity();
+        assertSame(values, grid.getValues(EXTRACELLULAR_REGION));
+    }
+
+    @Test
+    void testSimulationWithGrid() {
+        double[] separate = simulate(false);
+        double[] grid = simulate(true);
+        for (int node = 0; node < separate.length; node++) {
+            assertEquals(separate[node], grid[node], Math.abs(separate[node]) * 1e-14);
+        }
+    }
+
+    @AfterEach
+    void cleanUp() {
+        UnitRegistry.reinitialize();
+        Environment.reset();
+    }
+
+    private static double getValue(ConcentrationGrid grid, AutomatonNode node, ChemicalEntity entity) {
+        return grid.getValues(EXTRACELLULAR_REGION)[grid.getOffset(entity) + grid.getIndex(node)];
+    }
+
+    /**
+     * Simulates the diffusion of a perturbation in the corner of a grid and returns the final concentrations of all
+     * nodes.
+     */
+    private static double[] simulate(boolean gridEnabled) {
+        UnitRegistry.reinitialize();
+        Environment.reset();
+        int numberOfNodes = 6;
+        Quantity<Length> systemExtend = Quantities.getQuantity(3000.0, NANO(METRE));
+        Environment.setSystemExtend(systemExtend);
+        Environment.setSimulationExtend(3000);
+        Environment.setNodeSpacingToDiameter(systemExtend, numberOfNodes);
+        ChemicalEntity entity = SimpleEntity.create("GDiffusing")
+                .assignFeature(ConcentrationDiffusivity.of(1.0E-08, SQUARE_CENTIMETRE_PER_SECOND).build())
+                .small()
+                .build();
+        Rectangle boundingBox = new Rectangle(Environment.getSimulationExtend(), Environment.getSimulationExtend());
+        AutomatonGraph graph = AutomatonGraphs.useStructureFrom(Graphs.buildGridGraph(numberOfNodes, numberOfNodes, boundingBox));
+        for (AutomatonNode node : graph.getNodes()) {
+            boolean perturbed = node.getIdentifier().getColumn() == 0 && node.getIdentifier().getRow() == 0;
+            node.getConcentrationContainer().initialize(EXTRACELLULAR_REGION, entity, Quantities.getQuantity(perturbed ? 2.0e-3 : 1.0e-3, MOLE_PER_LITRE));
+        }
+        Simulation simulation = new Simulation();
+        simulation.setGraph(graph);
+        simulation.setConcentrationGridEnabled(gridEnabled);
+        Diffusion.inSimulation(simulation)
+                .forEntity(entity)
+                .forAllSections()
+                .build();
+        simulation.getScheduler().setParallelism(1);
+        for (int epoch = 0; epoch < 10; epoch++) {
+            simulation.nextEpoch();
+        }
+        simulation.getScheduler().shutdownExecutorService();
+        double[] concentrations = new double[graph.getNodes().size()];
+        int position = 0;
+        for (AutomatonNode node : graph.getNodes()) {
+            if (gridEnabled) {
+                // all nodes have been backed up and restored in bulk
+                assertTrue(simulation.getConcentrationGrid().isBound(node));
+            }
+            concentrations[position++] = node.getConcentrationContainer().get(EXTRACELLULAR_REGION, entity);
+        }
+        return concentrations;
+    }
+
+}
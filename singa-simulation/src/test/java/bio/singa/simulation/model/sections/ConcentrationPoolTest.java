@@ -1,14 +1,16 @@
 package bio.singa.simulation.model.sections;
 
 import bio.singa.features.parameters.Environment;
+import bio.singa.features.parameters.SimulationContext;
 import bio.singa.simulation.entities.ChemicalEntity;
+import bio.singa.simulation.entities.EntityRegistry;
 import bio.singa.simulation.entities.SimpleEntity;
 import org.junit.jupiter.api.Test;
 
+import java.util.Collections;
 import java.util.Set;
 
-import static org.junit.jupiter.api.Assertions.assertEquals;
-import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.*;
 
 /**
  * @author cl
@@ -36,4 +38,74 @@ class ConcentrationPoolTest {
         assertEquals(0.0, pool.get(entityB));
     }
 
-}
\ No newline at end of file
+    @Test
+    void testFullCopy() {
+        ConcentrationPool pool = new ConcentrationPool();
+        pool.set(entityA, 1.0);
+        ConcentrationPool copy = pool.fullCopy();
+        copy.set(entityA, 2.0);
+        copy.set(entityB, 3.0);
+        // original is unaffected
+        assertEquals(1.0, pool.get(entityA));
+        assertEquals(0.0, pool.get(entityB));
+        assertEquals(1, pool.getReferencedEntities().size());
+        // copy contains both
+        assertEquals(2.0, copy.get(entityA));
+        assertEquals(3.0, copy.get(entityB));
+        assertEquals(2, copy.getReferencedEntities().size());
+    }
+
+    @Test
+    void testIndexedEntities() {
+        // equal entities share their index
+        ChemicalEntity entityC = SimpleEntity.create("C").build();
+        ChemicalEntity otherC = SimpleEntity.create("C").build();
+        assertEquals(entityC.getIndex(), otherC.getIndex());
+        ConcentrationPool pool = new ConcentrationPool();
+        pool.set(entityC, 4.0);
+        assertEquals(4.0, pool.get(otherC));
+        assertTrue(pool.getReferencedEntities().contains(otherC));
+        assertEquals(4.0, pool.getConcentrations().get(entityC).doubleValue());
+    }
+
+    @Test
+    void shouldSizePoolsToReferencedEntities() {
+        new SimulationContext("sizing").run(() -> {
+            ChemicalEntity first = SimpleEntity.create("first").build();
+            ChemicalEntity second = SimpleEntity.create("second").build();
+            // indices start at zero in each context
+            assertEquals(0, first.getIndex());
+            assertEquals(1, second.getIndex());
+            assertEquals(2, EntityRegistry.getNumberOfIndices());
+            ConcentrationPool pool = new ConcentrationPool();
+            assertEquals(0, pool.getCapacity());
+            pool.set(first, 1.0);
+            assertEquals(1, pool.getCapacity());
+        });
+    }
+
+    @Test
+    void shouldReserveIndicesOfOtherContexts() {
+        ChemicalEntity shared = new SimulationContext("origin").call(() -> {
+            SimpleEntity.create("padding").build().getIndex();
+            ChemicalEntity entity = SimpleEntity.create("shared").build();
+            entity.getIndex();
+            return entity;
+        });
+        assertEquals(1, shared.getIndex());
+        new SimulationContext("adopting").run(() -> {
+            EntityRegistry.index(Collections.singletonList(shared));
+            // new entities do not collide with the adopted index
+            ChemicalEntity first = SimpleEntity.create("first").build();
+            ChemicalEntity second = SimpleEntity.create("second").build();
+            assertEquals(0, first.getIndex());
+            assertEquals(2, second.getIndex());
+        });
+        new SimulationContext("conflicting").run(() -> {
+            SimpleEntity.create("first").build().getIndex();
+            SimpleEntity.create("second").build().getIndex();
+            assertThrows(IllegalStateException.class, () -> EntityRegistry.index(Collections.singletonList(shared)));
+        });
+    }
+
+}
@@ -0,0 +1,237 @@
+package bio.singa.simulation.model.simulation;
+
+import bio.singa.features.parameters.Environment;
+import bio.singa.features.quantities.ConcentrationDiffusivity;
+import bio.singa.features.units.UnitRegistry;
+import bio.singa.mathematics.geometry.faces.Rectangle;
+import bio.singa.mathematics.graphs.model.Graphs;
+import bio.singa.simulation.entities.ChemicalEntity;
+import bio.singa.simulation.entities.SimpleEntity;
+import bio.singa.simulation.model.concentrations.ConcentrationBuilder;
+import bio.singa.simulation.model.graphs.AutomatonGraph;
+import bio.singa.simulation.model.graphs.AutomatonGraphs;
+import bio.singa.simulation.model.graphs.AutomatonNode;
+import bio.singa.simulation.model.modules.concentration.imlementations.transport.Diffusion;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import tech.units.indriya.quantity.Quantities;
+
+import javax.measure.Quantity;
+import javax.measure.quantity.Length;
+
+import static bio.singa.features.quantities.Diffusivity.SQUARE_CENTIMETRE_PER_SECOND;
+import static bio.singa.features.units.UnitProvider.MOLE_PER_LITRE;
+import static bio.singa.simulation.model.sections.CellSubsections.EXTRACELLULAR_REGION;
+import static org.junit.jupiter.api.Assertions.*;
+import static tech.units.indriya.unit.MetricPrefix.NANO;
+import static tech.units.indriya.unit.Units.METRE;
+
+/**
+ * @author cl
+ */
+class ActivityTrackerTest {
+
+    private static final int NUMBER_OF_NODES = 10;
+
+    @BeforeAll
+    static void initialize() {
+        UnitRegistry.reinitialize();
+        Environment.reset();
+    }
+
+    @AfterEach
+    void cleanUp() {
+        UnitRegistry.reinitialize();
+        Environment.reset();
+    }
+
+    @Test
+    void shouldSkipQuiescentNodes() {
+        int epochs = 5;
+        double[] all = simulate(null, epochs);
+        UnitRegistry.reinitialize();
+        Environment.reset();
+        ActivityTracker tracker = new ActivityTracker();
+        double[] active = simulate(tracker, epochs);
+        // nodes that did not change do not contribute deltas
+        for (int node = 0; node < all.length; node++) {
+            assertEquals(all[node], active[node], Math.abs(all[node]) * 1e-12);
+        }
+        // the perturbation spreads by one layer of neighbours per epoch
+        assertTrue(tracker.getSkippedUpdatables() > 0);
+        assertTrue(tracker.getActiveUpdatables().size() < NUMBER_OF_NODES * NUMBER_OF_NODES);
+        assertTrue(tracker.getChangedUpdatables().size() > 0);
+    }
+
+    @Test
+    void shouldSweepAllNodesPeriodically() {
+        ActivityTracker tracker = new ActivityTracker();
+        tracker.setFullSweepInterval(1);
+        simulate(tracker, 4);
+        assertTrue(tracker.getSkippedUpdatables() > 0);
+        long skipped = tracker.getSkippedUpdatables();
+        UnitRegistry.reinitialize();
+        Environment.reset();
+        tracker = new ActivityTracker();
+        tracker.setFullSweepInterval(1000);
+        simulate(tracker, 4);
+        assertTrue(tracker.getSkippedUpdatables() > skipped);
+        assertThrows(IllegalArgumentException.class, () -> new ActivityTracker().setFullSweepInterval(0));
+    }
+
+    @Test
+    void shouldConserveMassAtHaloBoundary() {
+        for (boolean kernel : new boolean[]{false, true}) {
+            UnitRegistry.reinitialize();
+            Environment.reset();
+            ActivityTracker tracker = new ActivityTracker();
+            tracker.setFullSweepInterval(1000);
+            // only the perturbation is considered as change, the shallow gradient is not
+            tracker.setActivityThreshold(UnitRegistry.convert(Quantities.getQuantity(1.0e-18, MOLE_PER_LITRE)).getValue().doubleValue());
+            Simulation simulation = setupSimulation(tracker, 1.0e-8, kernel);
+            ChemicalEntity a = simulation.getChemicalEntity("A");
+            double initialMass = totalConcentration(simulation, a);
+            for (int epoch = 0; epoch < 10; epoch++) {
+                simulation.nextEpoch();
+            }
+            simulation.getScheduler().shutdownExecutorService();
+            assertTrue(tracker.getSkippedUpdatables() > 0);
+            // no flux across the boundary of the active region, in either direction
+            assertEquals(initialMass, totalConcentration(simulation, a), initialMass * 1e-14);
+        }
+    }
+
+    @Test
+    void shouldBoundErrorOfSkippedNodes() {
+        int epochs = 20;
+        double slope = 1.0e-6;
+        double[] initial = simulate(null, 0, slope);
+        double[] all = simulate(null, epochs, slope);
+        double largestChange = 0.0;
+        for (int node = 0; node < all.length; node++) {
+            largestChange = Math.max(largestChange, Math.abs(all[node] - initial[node]));
+        }
+        double rareSweepDeviation = simulateDeviation(all, epochs, slope, 1000);
+        double frequentSweepDeviation = simulateDeviation(all, epochs, slope, 1);
+        // changes below the threshold are withheld and not caught up later
+        assertTrue(rareSweepDeviation > 0.0);
+        // but the deviation remains smaller than the changes of the full calculation
+        assertTrue(rareSweepDeviation < 0.5 * largestChange);
+        // and it is reduced by more frequent full sweeps
+        assertTrue(frequentSweepDeviation < 0.1 * rareSweepDeviation);
+    }
+
+    @Test
+    void shouldNotSweepForFixedConcentrations() {
+        ActivityTracker tracker = new ActivityTracker();
+        Simulation simulation = setupSimulation(tracker, 0.0, false);
+        ChemicalEntity a = simulation.getChemicalEntity("A");
+        AutomatonNode corner = simulation.getGraph().getNode(0, 0);
+        ConcentrationBuilder.create(simulation)
+                .entity(a)
+                .subsection(EXTRACELLULAR_REGION)
+                .concentrationValue(2.0)
+                .milliMolar()
+                .updatableIdentifier(corner.getStringIdentifier())
+                .fixed()
+                .build();
+        for (int epoch = 0; epoch < 10; epoch++) {
+            simulation.nextEpoch();
+        }
+        simulation.getScheduler().shutdownExecutorService();
+        // the fixed concentration is reset every epoch, only the corner and its halo are activated
+        assertTrue(tracker.getSkippedUpdatables() > 0);
+        assertEquals(2.0e-3, UnitRegistry.concentration(corner.getConcentrationContainer().get(EXTRACELLULAR_REGION, a)).to(MOLE_PER_LITRE).getValue().doubleValue(), 1e-7);
+    }
+
+    /**
+     * Returns the largest deviation of the concentrations calculated with an activity tracker from the given
+     * concentrations calculated for all updatables.
+     */
+    private static double simulateDeviation(double[] all, int epochs, double slope, int fullSweepInterval) {
+        UnitRegistry.reinitialize();
+        Environment.reset();
+        ActivityTracker tracker = new ActivityTracker();
+        tracker.setFullSweepInterval(fullSweepInterval);
+        tracker.setActivityThreshold(UnitRegistry.convert(Quantities.getQuantity(1.0e-19, MOLE_PER_LITRE)).getValue().doubleValue());
+        double[] active = simulate(tracker, epochs, slope);
+        assertTrue(tracker.getSkippedUpdatables() > 0);
+        double largestDeviation = 0.0;
+        for (int node = 0; node < all.length; node++) {
+            largestDeviation = Math.max(largestDeviation, Math.abs(all[node] - active[node]));
+        }
+        return largestDeviation;
+    }
+
+    private static double totalConcentration(Simulation simulation, ChemicalEntity entity) {
+        double total = 0.0;
+        for (AutomatonNode node : simulation.getGraph().getNodes()) {
+            total += node.getConcentrationContainer().get(EXTRACELLULAR_REGION, entity);
+        }
+        return total;
+    }
+
+    /**
+     * Simulates the diffusion of a perturbation in the corner of a grid, that is at equilibrium otherwise, and returns
+     * the final concentrations of all nodes.
+     */
+    private static double[] simulate(ActivityTracker tracker, int epochs) {
+        return simulate(tracker, epochs, 0.0);
+    }
+
+    /**
+     * Simulates the diffusion of a perturbation in the corner of a grid with a gradient of the given slope (in mol/l
+     * per column) and returns the final concentrations of all nodes.
+     */
+    private static double[] simulate(ActivityTracker tracker, int epochs, double slope) {
+        Simulation simulation = setupSimulation(tracker, slope, false);
+        ChemicalEntity a = simulation.getChemicalEntity("A");
+        AutomatonGraph graph = simulation.getGraph();
+        for (int epoch = 0; epoch < epochs; epoch++) {
+            simulation.nextEpoch();
+        }
+        simulation.getScheduler().shutdownExecutorService();
+        double[] concentrations = new double[graph.getNodes().size()];
+        int position = 0;
+        for (AutomatonNode node : graph.getNodes()) {
+            concentrations[position++] = node.getConcentrationContainer().get(EXTRACELLULAR_REGION, a);
+        }
+        return concentrations;
+    }
+
+    /**
+     * Sets up the diffusion of a perturbation in the corner of a grid, that is at equilibrium otherwise, apart from a
+     * gradient with the given slope (in mol/l per column).
+     */
+    private static Simulation setupSimulation(ActivityTracker tracker, double slope, boolean kernel) {
+        Quantity<Length> systemExtend = Quantities.getQuantity(5000.0, NANO(METRE));
+        Environment.setSystemExtend(systemExtend);
+        Environment.setSimulationExtend(5000);
+        Environment.setNodeSpacingToDiameter(systemExtend, NUMBER_OF_NODES);
+        ChemicalEntity a = SimpleEntity.create("A")
+                .assignFeature(ConcentrationDiffusivity.of(1.0E-08, SQUARE_CENTIMETRE_PER_SECOND).build())
+                .small()
+                .build();
+        Rectangle boundingBox = new Rectangle(Environment.getSimulationExtend(), Environment.getSimulationExtend());
+        AutomatonGraph graph = AutomatonGraphs.useStructureFrom(Graphs.buildGridGraph(NUMBER_OF_NODES, NUMBER_OF_NODES, boundingBox));
+        for (AutomatonNode node : graph.getNodes()) {
+            boolean perturbed = node.getIdentifier().getColumn() == 0 && node.getIdentifier().getRow() == 0;
+            double concentration = (perturbed ? 2.0e-3 : 1.0e-3) + slope * node.getIdentifier().getColumn();
+            node.getConcentrationContainer().initialize(EXTRACELLULAR_REGION, a, Quantities.getQuantity(concentration, MOLE_PER_LITRE));
+        }
+        Simulation simulation = new Simulation();
+        simulation.setGraph(graph);
+        Diffusion diffusion = Diffusion.inSimulation(simulation)
+                .forEntity(a)
+                .forAllSections()
+                .build();
+        if (kernel) {
+            diffusion.useParallelKernel(16);
+        }
+        simulation.setActivityTracker(tracker);
+        simulation.getScheduler().setParallelism(1);
+        return simulation;
+    }
+
+}
@@ -0,0 +1,163 @@
+package bio.singa.simulation.model.simulation;
+
+import bio.singa.features.parameters.Environment;
+import bio.singa.features.parameters.SimulationContext;
+import bio.singa.features.quantities.ConcentrationDiffusivity;
+import bio.singa.features.units.UnitRegistry;
+import bio.singa.mathematics.geometry.faces.Rectangle;
+import bio.singa.mathematics.graphs.model.Graphs;
+import bio.singa.simulation.entities.SimpleEntity;
+import bio.singa.simulation.model.graphs.AutomatonGraph;
+import bio.singa.simulation.model.graphs.AutomatonGraphs;
+import bio.singa.simulation.model.graphs.AutomatonNode;
+import bio.singa.simulation.model.modules.concentration.imlementations.transport.Diffusion;
+import org.junit.jupiter.api.Test;
+import tech.units.indriya.quantity.Quantities;
+
+import javax.measure.Quantity;
+import javax.measure.quantity.Length;
+import javax.measure.quantity.Time;
+import java.util.concurrent.*;
+
+import static bio.singa.features.quantities.Diffusivity.SQUARE_CENTIMETRE_PER_SECOND;
+import static bio.singa.features.units.UnitProvider.MOLE_PER_LITRE;
+import static bio.singa.simulation.model.sections.CellSubsections.EXTRACELLULAR_REGION;
+import static org.junit.jupiter.api.Assertions.*;
+import static tech.units.indriya.unit.MetricPrefix.MICRO;
+import static tech.units.indriya.unit.MetricPrefix.NANO;
+import static tech.units.indriya.unit.Units.METRE;
+import static tech.units.indriya.unit.Units.SECOND;
+
+/**
+ * @author cl
+ */
+class SimulationContextTest {
+
+    private static final Quantity<Length> systemExtend = Quantities.getQuantity(2500.0, NANO(METRE));
+    private static final int numberOfNodes = 10;
+    private static final int numberOfEpochs = 30;
+
+    @Test
+    void shouldIsolateContexts() {
+        SimulationContext first = new SimulationContext("first");
+        SimulationContext second = new SimulationContext("second");
+        first.run(() -> UnitRegistry.setTime(Quantities.getQuantity(2.0, MICRO(SECOND))));
+        second.run(() -> UnitRegistry.setTime(Quantities.getQuantity(5.0, MICRO(SECOND))));
+        assertEquals(2.0, first.call(UnitRegistry::getTime).to(MICRO(SECOND)).getValue().doubleValue(), 1e-10);
+        assertEquals(5.0, second.call(UnitRegistry::getTime).to(MICRO(SECOND)).getValue().doubleValue(), 1e-10);
+        // the default context is untouched
+        assertEquals(UnitRegistry.DEFAULT_TIME, UnitRegistry.getTime());
+        // contexts are restored after nested calls
+        first.run(() -> {
+            second.run(() -> assertSame(second, SimulationContext.current()));
+            assertSame(first, SimulationContext.current());
+        });
+        assertSame(SimulationContext.getDefault(), SimulationContext.current());
+    }
+
+    @Test
+    void shouldFailOnUnboundThreads() throws Exception {
+        new SimulationContext("bound").run(() -> assertEquals("bound", SimulationContext.current().getName()));
+        SimulationContext.setFailOnUnboundThreads(true);
+        ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, "unbound"));
+        try {
+            Future<SimulationContext> unbound = executor.submit(SimulationContext::current);
+            ExecutionException exception = assertThrows(ExecutionException.class, unbound::get);
+            assertTrue(exception.getCause() instanceof IllegalStateException);
+            // bound threads resolve their context
+            SimulationContext context = new SimulationContext("worker");
+            assertSame(context, executor.submit(() -> context.call(SimulationContext::current)).get());
+        } finally {
+            SimulationContext.setFailOnUnboundThreads(false);
+            executor.shutdown();
+        }
+        // by default the access is only logged
+        ExecutorService loggingExecutor = Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, "logged"));
+        try {
+            assertSame(SimulationContext.getDefault(), loggingExecutor.submit(SimulationContext::current).get());
+        } finally {
+            loggingExecutor.shutdown();
+        }
+    }
+
+    @Test
+    void shouldRequireExplicitDefaultContext() throws Exception {
+        new SimulationContext("bound").run(() -> assertEquals("bound", SimulationContext.current().getName()));
+        SimulationContext.setFailOnUnboundThreads(true);
+        // threads are not exempt because of their name
+        ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, "main"));
+        try {
+            ExecutionException exception = assertThrows(ExecutionException.class, () -> executor.submit(SimulationContext::current).get());
+            assertTrue(exception.getCause() instanceof IllegalStateException);
+            // the default context can be bound explicitly
+            SimulationContext defaultContext = SimulationContext.getDefault();
+            assertSame(defaultContext, executor.submit(() -> defaultContext.call(SimulationContext::current)).get());
+        } finally {
+            SimulationContext.setFailOnUnboundThreads(false);
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void shouldCalculateSimulationsConcurrently() throws Exception {
+        // reference results calculated one after the other
+        double[] slowReference = runInContext("slow reference", 1.0);
+        double[] fastReference = runInContext("fast reference", 4.0);
+        // the same simulations calculated at the same time
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<double[]> slow = executor.submit(() -> runInContext("slow", 1.0));
+            Future<double[]> fast = executor.submit(() -> runInContext("fast", 4.0));
+            assertArrayEquals(slowReference, slow.get(), 1e-12);
+            assertArrayEquals(fastReference, fast.get(), 1e-12);
+        } finally {
+            executor.shutdown();
+        }
+        // different time steps lead to different states after the same number of epochs
+        assertNotEquals(slowReference[numberOfNodes * numberOfNodes], fastReference[numberOfNodes * numberOfNodes]);
+    }
+
+    private double[] runInContext(String name, double timeStep) {
+        SimulationContext context = new SimulationContext(name);
+        Simulation simulation = context.call(() -> setUpSimulation(name, Quantities.getQuantity(timeStep, MICRO(SECOND))));
+        for (int epoch = 0; epoch < numberOfEpochs; epoch++) {
+            simulation.nextEpoch();
+        }
+        simulation.getScheduler().shutdownExecutorService();
+        // concentrations of all nodes followed by the elapsed time
+        double[] result = new double[numberOfNodes * numberOfNodes + 1];
+        SimpleEntity entity = (SimpleEntity) simulation.getChemicalEntities().iterator().next();
+        int index = 0;
+        for (AutomatonNode node : simulation.getGraph().getNodes()) {
+            result[index++] = node.getConcentrationContainer().get(EXTRACELLULAR_REGION, entity);
+        }
+        result[index] = simulation.getElapsedTime().to(MICRO(SECOND)).getValue().doubleValue();
+        return result;
+    }
+
+    private Simulation setUpSimulation(String name, Quantity<Time> timeStep) {
+        UnitRegistry.setTime(timeStep);
+        Environment.setSystemExtend(systemExtend);
+        Environment.setSimulationExtend(2500);
+        Environment.setNodeSpacingToDiameter(systemExtend, numberOfNodes);
+        // features are created in the context of the simulation
+        SimpleEntity entity = SimpleEntity.create(name + " hydrogen")
+                .assignFeature(ConcentrationDiffusivity.of(4.40E-05, SQUARE_CENTIMETRE_PER_SECOND).build())
+                .small()
+                .build();
+        Rectangle boundingBox = new Rectangle(Environment.getSimulationExtend(), Environment.getSimulationExtend());
+        AutomatonGraph graph = AutomatonGraphs.useStructureFrom(Graphs.buildGridGraph(numberOfNodes, numberOfNodes, boundingBox));
+        for (AutomatonNode node : graph.getNodes()) {
+            double concentration = node.getIdentifier().getColumn() < numberOfNodes / 2 ? 1.0 : 0.0;
+            node.getConcentrationContainer().initialize(EXTRACELLULAR_REGION, entity, Quantities.getQuantity(concentration, MOLE_PER_LITRE));
+        }
+        Simulation simulation = new Simulation();
+        simulation.setGraph(graph);
+        Diffusion.inSimulation(simulation)
+                .forEntity(entity)
+                .forAllSections()
+                .build();
+        return simulation;
+    }
+
+}
@@ -0,0 +1,208 @@
+package bio.singa.simulation.model.simulation;
+
+import bio.singa.core.events.UpdateEventListener;
+import bio.singa.features.parameters.Environment;
+import bio.singa.features.quantities.ConcentrationDiffusivity;
+import bio.singa.features.units.UnitRegistry;
+import bio.singa.mathematics.geometry.faces.Rectangle;
+import bio.singa.mathematics.graphs.model.Graphs;
+import bio.singa.simulation.entities.ChemicalEntity;
+import bio.singa.simulation.entities.SimpleEntity;
+import bio.singa.simulation.events.EmissionPolicy;
+import bio.singa.simulation.events.GraphUpdatedEvent;
+import bio.singa.simulation.events.SnapshotSelector;
+import bio.singa.simulation.events.UpdatableUpdatedEvent;
+import bio.singa.simulation.model.graphs.AutomatonGraph;
+import bio.singa.simulation.model.graphs.AutomatonGraphs;
+import bio.singa.simulation.model.graphs.AutomatonNode;
+import bio.singa.simulation.model.modules.concentration.imlementations.transport.Diffusion;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import tech.units.indriya.quantity.Quantities;
+
+import javax.measure.Quantity;
+import javax.measure.quantity.Length;
+import java.util.*;
+
+import static bio.singa.features.quantities.Diffusivity.SQUARE_CENTIMETRE_PER_SECOND;
+import static bio.singa.features.units.UnitProvider.MOLE_PER_LITRE;
+import static bio.singa.simulation.model.sections.CellSubsections.EXTRACELLULAR_REGION;
+import static org.junit.jupiter.api.Assertions.*;
+import static tech.units.indriya.unit.MetricPrefix.NANO;
+import static tech.units.indriya.unit.Units.METRE;
+
+/**
+ * @author cl
+ */
+class SimulationManagerTest {
+
+    @BeforeAll
+    static void initialize() {
+        UnitRegistry.reinitialize();
+        Environment.reset();
+    }
+
+    @AfterEach
+    void cleanUp() {
+        UnitRegistry.reinitialize();
+        Environment.reset();
+    }
+
+    @Test
+    void shouldEmitSnapshotsAsynchronously() {
+        Simulation simulation = setupSimulation(4, 1.0e-7);
+        ChemicalEntity a = simulation.getChemicalEntity("A");
+        AutomatonNode observedNode = simulation.getGraph().getNode(1, 0);
+        AutomatonNode otherNode = simulation.getGraph().getNode(2, 0);
+        simulation.getObservedUpdatables().add(observedNode);
+        SimulationManager manager = new SimulationManager(simulation);
+        manager.setExitOnFailure(false);
+        manager.setSimulationTerminationToEpochs(20);
+        manager.setAsynchronousEmission(2, EmissionPolicy.BLOCK);
+        // the synchronous listener reads the live concentrations
+        List<Double> expectedConcentrations = new ArrayList<>();
+        List<Integer> expectedDeltas = new ArrayList<>();
+        manager.addGraphUpdateListener(event -> expectedConcentrations.add(observedNode.getConcentrationContainer().get(EXTRACELLULAR_REGION, a)));
+        manager.addNodeUpdateListener(event -> expectedDeltas.add(event.getDeltas().size()));
+        SelectiveGraphListener graphListener = new SelectiveGraphListener(observedNode, otherNode, a);
+        manager.addAsynchronousGraphUpdateListener(graphListener);
+        List<UpdatableUpdatedEvent> nodeEvents = Collections.synchronizedList(new ArrayList<>());
+        manager.addAsynchronousNodeUpdateListener(nodeEvents::add);
+        manager.run();
+
+        assertNull(manager.getFailure());
+        assertEquals(20, expectedConcentrations.size());
+        assertEquals(expectedConcentrations, graphListener.concentrations);
+        assertEquals(20, manager.getEventDispatcher().getDispatchedEmissions());
+        assertEquals(0, manager.getEventDispatcher().getDroppedEmissions());
+        // snapshots only contain the required updatables and no live references
+        assertTrue(graphListener.failures.isEmpty(), () -> String.join(", ", graphListener.failures));
+        assertEquals(20, nodeEvents.size());
+        for (int index = 0; index < nodeEvents.size(); index++) {
+            UpdatableUpdatedEvent event = nodeEvents.get(index);
+            assertTrue(event.isSnapshot());
+            assertEquals(observedNode.getStringIdentifier(), event.getStringIdentifier());
+            assertThrows(IllegalStateException.class, event::getUpdatable);
+            assertEquals(expectedConcentrations.get(index).doubleValue(), event.getConcentrationContainer().get(EXTRACELLULAR_REGION, a));
+            assertEquals(expectedDeltas.get(index).intValue(), event.getDeltas().size());
+        }
+    }
+
+    @Test
+    void shouldDropEmissionsOfSlowListeners() {
+        Simulation simulation = setupSimulation(4, 1.0e-7);
+        SimulationManager manager = new SimulationManager(simulation);
+        manager.setExitOnFailure(false);
+        manager.setSimulationTerminationToEpochs(50);
+        manager.setAsynchronousEmission(1, EmissionPolicy.DROP);
+        List<GraphUpdatedEvent> events = Collections.synchronizedList(new ArrayList<>());
+        manager.addAsynchronousGraphUpdateListener(event -> {
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            events.add(event);
+        });
+        manager.run();
+
+        assertNull(manager.getFailure());
+        assertEquals(50, manager.getEventDispatcher().getSubmittedEmissions());
+        assertTrue(manager.getEventDispatcher().getDroppedEmissions() > 0);
+        assertEquals(manager.getEventDispatcher().getDispatchedEmissions(), events.size());
+        assertEquals(50, events.size() + manager.getEventDispatcher().getDroppedEmissions());
+        for (GraphUpdatedEvent event : events) {
+            assertEquals(simulation.getGraph().getNodes().size(), event.getUpdatableIdentifiers().size());
+        }
+    }
+
+    @Test
+    void shouldRecordFailuresWithoutExiting() {
+        Simulation simulation = setupSimulation(4, 1.0e-7);
+        SimulationManager manager = new SimulationManager(simulation);
+        assertFalse(manager.isExitOnFailure());
+        manager.setSimulationTerminationToEpochs(10);
+        manager.addGraphUpdateListener(event -> {
+            throw new IllegalStateException("failing listener");
+        });
+        manager.run();
+
+        assertTrue(manager.getFailure() instanceof IllegalStateException);
+        assertEquals("failing listener", manager.getFailure().getMessage());
+    }
+
+    private static Simulation setupSimulation(int numberOfNodes, double diffusivity) {
+        Quantity<Length> systemExtend = Quantities.getQuantity(2500.0, NANO(METRE));
+        Environment.setSystemExtend(systemExtend);
+        Environment.setSimulationExtend(2500);
+        Environment.setNodeSpacingToDiameter(systemExtend, numberOfNodes);
+        ChemicalEntity a = SimpleEntity.create("A")
+                .assignFeature(ConcentrationDiffusivity.of(diffusivity, SQUARE_CENTIMETRE_PER_SECOND).build())
+                .small()
+                .build();
+        Rectangle boundingBox = new Rectangle(Environment.getSimulationExtend(), Environment.getSimulationExtend());
+        AutomatonGraph graph = AutomatonGraphs.useStructureFrom(Graphs.buildGridGraph(numberOfNodes, numberOfNodes, boundingBox));
+        for (AutomatonNode node : graph.getNodes()) {
+            double value = node.getIdentifier().getColumn() == 0 ? 2.0e-3 : 1.0e-3;
+            node.getConcentrationContainer().initialize(EXTRACELLULAR_REGION, a, Quantities.getQuantity(value, MOLE_PER_LITRE));
+        }
+        Simulation simulation = new Simulation();
+        simulation.setSimulationRegion(boundingBox);
+        simulation.setGraph(graph);
+        Diffusion.inSimulation(simulation)
+                .forEntity(a)
+                .forAllSections()
+                .build();
+        simulation.getScheduler().setParallelism(1);
+        return simulation;
+    }
+
+    /**
+     * Records the concentration of a single updatable from asynchronous snapshots, that are restricted to this
+     * updatable.
+     */
+    private static class SelectiveGraphListener implements UpdateEventListener<GraphUpdatedEvent>, SnapshotSelector {
+
+        private final Updatable observedUpdatable;
+        private final Updatable otherUpdatable;
+        private final ChemicalEntity entity;
+        private final List<Double> concentrations;
+        private final List<String> failures;
+
+        private SelectiveGraphListener(Updatable observedUpdatable, Updatable otherUpdatable, ChemicalEntity entity) {
+            this.observedUpdatable = observedUpdatable;
+            this.otherUpdatable = otherUpdatable;
+            this.entity = entity;
+            concentrations = Collections.synchronizedList(new ArrayList<>());
+            failures = Collections.synchronizedList(new ArrayList<>());
+        }
+
+        @Override
+        public boolean requiresUpdatable(Updatable updatable) {
+            return updatable == observedUpdatable;
+        }
+
+        @Override
+        public void onEventReceived(GraphUpdatedEvent event) {
+            concentrations.add(event.getConcentrationContainer(observedUpdatable).get(EXTRACELLULAR_REGION, entity));
+            if (!event.getUpdatableIdentifiers().equals(Collections.singleton(observedUpdatable.getStringIdentifier()))) {
+                failures.add("snapshot contains " + event.getUpdatableIdentifiers());
+            }
+            try {
+                event.getConcentrationContainer(otherUpdatable);
+                failures.add("concentrations of an updatable outside of the snapshot are available");
+            } catch (IllegalArgumentException expected) {
+                // the snapshot is restricted to the observed updatable
+            }
+            try {
+                event.getGraph();
+                failures.add("the graph is available");
+            } catch (IllegalStateException expected) {
+                // snapshots do not reference the graph
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,136 @@
+package bio.singa.simulation.model.simulation;
+
+import bio.singa.features.parameters.Environment;
+import bio.singa.features.quantities.ConcentrationDiffusivity;
+import bio.singa.features.units.UnitRegistry;
+import bio.singa.mathematics.geometry.faces.Rectangle;
+import bio.singa.mathematics.graphs.model.Graphs;
+import bio.singa.simulation.entities.ChemicalEntity;
+import bio.singa.simulation.entities.SimpleEntity;
+import bio.singa.simulation.events.SteadyStateReachedEvent;
+import bio.singa.simulation.model.graphs.AutomatonGraph;
+import bio.singa.simulation.model.graphs.AutomatonGraphs;
+import bio.singa.simulation.model.graphs.AutomatonNode;
+import bio.singa.simulation.model.modules.concentration.imlementations.transport.Diffusion;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import tech.units.indriya.quantity.Quantities;
+
+import javax.measure.Quantity;
+import javax.measure.quantity.Length;
+import java.util.ArrayList;
+import java.util.List;
+
+import static bio.singa.features.quantities.Diffusivity.SQUARE_CENTIMETRE_PER_SECOND;
+import static bio.singa.features.units.UnitProvider.MOLE_PER_LITRE;
+import static bio.singa.simulation.model.sections.CellSubsections.EXTRACELLULAR_REGION;
+import static org.junit.jupiter.api.Assertions.*;
+import static tech.units.indriya.unit.MetricPrefix.MILLI;
+import static tech.units.indriya.unit.MetricPrefix.NANO;
+import static tech.units.indriya.unit.Units.METRE;
+import static tech.units.indriya.unit.Units.SECOND;
+
+/**
+ * @author cl
+ */
+class SteadyStateDetectorTest {
+
+    private static final int NUMBER_OF_NODES = 5;
+
+    @BeforeAll
+    static void initialize() {
+        UnitRegistry.reinitialize();
+        Environment.reset();
+    }
+
+    @AfterEach
+    void cleanUp() {
+        UnitRegistry.reinitialize();
+        Environment.reset();
+    }
+
+    @Test
+    void shouldTerminateAtSteadyState() {
+        Simulation simulation = setupSimulation();
+        SimulationManager manager = new SimulationManager(simulation);
+        manager.setSimulationTerminationToEpochs(100000);
+        SteadyStateDetector detector = manager.setSimulationTerminationToSteadyState(1.0e-3, Quantities.getQuantity(10.0, MILLI(SECOND)));
+        List<SteadyStateReachedEvent> events = new ArrayList<>();
+        detector.addEventListener(events::add);
+        int epochs = 0;
+        while (manager.getTerminationCondition().test(simulation)) {
+            simulation.nextEpoch();
+            epochs++;
+        }
+        simulation.getScheduler().shutdownExecutorService();
+        assertTrue(detector.isSteadyStateReached());
+        assertTrue(epochs < 100000);
+        assertEquals(1, events.size());
+        assertEquals(simulation.getEpoch(), events.get(0).getEpoch());
+        assertTrue(events.get(0).getLargestChangeRate() <= 1.0e-3);
+        // concentrations are equilibrated
+        ChemicalEntity a = simulation.getChemicalEntity("A");
+        double minimum = Double.POSITIVE_INFINITY;
+        double maximum = Double.NEGATIVE_INFINITY;
+        for (AutomatonNode node : simulation.getGraph().getNodes()) {
+            double concentration = node.getConcentrationContainer().get(EXTRACELLULAR_REGION, a);
+            minimum = Math.min(minimum, concentration);
+            maximum = Math.max(maximum, concentration);
+        }
+        assertEquals(minimum, maximum, maximum * 1.0e-3);
+    }
+
+    @Test
+    void shouldRestartWindowOnChange() {
+        UnitRegistry.reinitialize();
+        Simulation simulation = new Simulation();
+        SteadyStateDetector detector = new SteadyStateDetector(1.0e-2, Quantities.getQuantity(1.0, SECOND));
+        detector.setMinimalEpochs(2);
+        // below the tolerance for half of the window
+        detector.recordChange(1.0e-3);
+        detector.finishEpoch(simulation, 0.5);
+        assertFalse(detector.isSteadyStateReached());
+        // exceeds the tolerance
+        detector.recordChange(1.0e-3);
+        detector.recordChange(1.0);
+        detector.finishEpoch(simulation, 0.5);
+        assertEquals(2.0, detector.getLastChangeRate());
+        assertEquals(0.0, detector.getSteadyTime().getValue().doubleValue());
+        // below the tolerance for the whole window
+        detector.finishEpoch(simulation, 0.5);
+        assertFalse(detector.isSteadyStateReached());
+        detector.recordChange(2.0e-3);
+        detector.finishEpoch(simulation, 0.5);
+        assertTrue(detector.isSteadyStateReached());
+        assertThrows(IllegalArgumentException.class, () -> detector.setTolerance(-1.0));
+        simulation.getScheduler().shutdownExecutorService();
+    }
+
+    private static Simulation setupSimulation() {
+        Quantity<Length> systemExtend = Quantities.getQuantity(2500.0, NANO(METRE));
+        Environment.setSystemExtend(systemExtend);
+        Environment.setSimulationExtend(2500);
+        Environment.setNodeSpacingToDiameter(systemExtend, NUMBER_OF_NODES);
+        ChemicalEntity a = SimpleEntity.create("A")
+                .assignFeature(ConcentrationDiffusivity.of(1.0E-06, SQUARE_CENTIMETRE_PER_SECOND).build())
+                .small()
+                .build();
+        Rectangle boundingBox = new Rectangle(Environment.getSimulationExtend(), Environment.getSimulationExtend());
+        AutomatonGraph graph = AutomatonGraphs.useStructureFrom(Graphs.buildGridGraph(NUMBER_OF_NODES, NUMBER_OF_NODES, boundingBox));
+        for (AutomatonNode node : graph.getNodes()) {
+            double value = node.getIdentifier().getColumn() == 0 ? 2.0e-3 : 1.0e-3;
+            node.getConcentrationContainer().initialize(EXTRACELLULAR_REGION, a, Quantities.getQuantity(value, MOLE_PER_LITRE));
+        }
+        Simulation simulation = new Simulation();
+        simulation.setSimulationRegion(boundingBox);
+        simulation.setGraph(graph);
+        Diffusion.inSimulation(simulation)
+                .forEntity(a)
+                .forAllSections()
+                .build();
+        simulation.getScheduler().setParallelism(1);
+        return simulation;
+    }
+
+}
@@ -0,0 +1,274 @@
+package bio.singa.simulation.model.simulation;
+
+import bio.singa.chemistry.features.reactions.RateConstant;
+import bio.singa.features.parameters.Environment;
+import bio.singa.features.parameters.SimulationContext;
+import bio.singa.features.quantities.ConcentrationDiffusivity;
+import bio.singa.features.units.UnitRegistry;
+import bio.singa.mathematics.geometry.faces.Rectangle;
+import bio.singa.mathematics.graphs.model.Graphs;
+import bio.singa.simulation.entities.ChemicalEntity;
+import bio.singa.simulation.entities.SimpleEntity;
+import bio.singa.simulation.model.concentrations.ConcentrationBuilder;
+import bio.singa.simulation.model.graphs.AutomatonGraph;
+import bio.singa.simulation.model.graphs.AutomatonGraphs;
+import bio.singa.simulation.model.graphs.AutomatonNode;
+import bio.singa.simulation.model.modules.concentration.TimeStepDependence;
+import bio.singa.simulation.model.modules.concentration.imlementations.reactions.Reaction;
+import bio.singa.simulation.model.modules.concentration.imlementations.reactions.ReactionBuilder;
+import bio.singa.simulation.model.modules.concentration.imlementations.transport.Diffusion;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import tech.units.indriya.quantity.Quantities;
+
+import javax.measure.Quantity;
+import javax.measure.quantity.Length;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static bio.singa.features.quantities.Diffusivity.SQUARE_CENTIMETRE_PER_SECOND;
+import static bio.singa.features.units.UnitProvider.MICRO_MOLE_PER_LITRE;
+import static bio.singa.features.units.UnitProvider.MOLE_PER_LITRE;
+import static bio.singa.simulation.model.sections.CellRegions.CYTOPLASM_REGION;
+import static bio.singa.simulation.model.sections.CellSubsections.CYTOPLASM;
+import static bio.singa.simulation.model.sections.CellSubsections.EXTRACELLULAR_REGION;
+import static org.junit.jupiter.api.Assertions.*;
+import static tech.units.indriya.unit.MetricPrefix.NANO;
+import static tech.units.indriya.unit.Units.METRE;
+import static tech.units.indriya.unit.Units.SECOND;
+
+/**
+ * @author cl
+ */
+class UpdateSchedulerTest {
+
+    @BeforeAll
+    static void initialize() {
+        UnitRegistry.reinitialize();
+        Environment.reset();
+    }
+
+    @AfterEach
+    void cleanUp() {
+        UnitRegistry.reinitialize();
+        Environment.reset();
+    }
+
+    @Test
+    void shouldRecalculateFirstOrderModules() {
+        Simulation simulation = new Simulation();
+        simulation.setGraph(AutomatonGraphs.singularGraph(CYTOPLASM_REGION));
+        ChemicalEntity a = SimpleEntity.create("A").build();
+        ChemicalEntity b = SimpleEntity.create("B").build();
+        ChemicalEntity c = SimpleEntity.create("C").build();
+        ChemicalEntity d = SimpleEntity.create("D").build();
+        ChemicalEntity e = SimpleEntity.create("E").build();
+        for (ChemicalEntity entity : new ChemicalEntity[]{a, c, d}) {
+            ConcentrationBuilder.create(simulation)
+                    .entity(entity)
+                    .subsection(CYTOPLASM)
+                    .concentrationValue(1.0)
+                    .microMolar()
+                    .build();
+        }
+        // slow first order reaction
+        Reaction firstOrderReaction = ReactionBuilder.staticReactants(simulation)
+                .addSubstrate(a)
+                .addProduct(b)
+                .irreversible()
+                .rate(RateConstant.create(1.0)
+                        .forward().firstOrder()
+                        .timeUnit(SECOND)
+                        .build())
+                .identifier("first order reaction")
+                .build();
+        // fast second order reaction, requiring the time step to be decreased
+        Reaction nonlinearReaction = createNonlinearReaction(simulation, c, d, e);
+        assertEquals(TimeStepDependence.NONLINEAR, firstOrderReaction.getTimeStepDependence());
+        assertEquals(TimeStepDependence.NONLINEAR, nonlinearReaction.getTimeStepDependence());
+        // calculate modules in the order they were added
+        simulation.getScheduler().setParallelism(1);
+
+        for (int i = 0; i < 20; i++) {
+            simulation.nextEpoch();
+        }
+        simulation.getScheduler().shutdownExecutorService();
+        AutomatonNode node = simulation.getGraph().getNode(0, 0);
+        double elapsedSeconds = simulation.getElapsedTime().to(SECOND).getValue().doubleValue();
+        double expected = Math.exp(-elapsedSeconds);
+        double actual = UnitRegistry.concentration(node.getConcentrationContainer().get(CYTOPLASM, a)).to(MICRO_MOLE_PER_LITRE).getValue().doubleValue();
+        // the first order reaction has been recalculated after the time step was decreased
+        assertEquals(0, simulation.getScheduler().getTotalSavedRecalculations());
+        // and its deltas are still accurate
+        assertEquals(expected, actual, 1e-10);
+    }
+
+    @Test
+    void shouldRescaleZeroOrderModules() {
+        Simulation simulation = new Simulation();
+        simulation.setGraph(AutomatonGraphs.singularGraph(CYTOPLASM_REGION));
+        ChemicalEntity a = SimpleEntity.create("A").build();
+        ChemicalEntity b = SimpleEntity.create("B").build();
+        ChemicalEntity c = SimpleEntity.create("C").build();
+        ChemicalEntity d = SimpleEntity.create("D").build();
+        ChemicalEntity e = SimpleEntity.create("E").build();
+        for (ChemicalEntity entity : new ChemicalEntity[]{a, c, d}) {
+            ConcentrationBuilder.create(simulation)
+                    .entity(entity)
+                    .subsection(CYTOPLASM)
+                    .concentrationValue(1.0)
+                    .microMolar()
+                    .build();
+        }
+        // slow zero order reaction
+        Reaction linearReaction = ReactionBuilder.staticReactants(simulation)
+                .addSubstrate(a)
+                .addProduct(b)
+                .irreversible()
+                .rate(RateConstant.create(1.0)
+                        .forward().zeroOrder()
+                        .concentrationUnit(MICRO_MOLE_PER_LITRE)
+                        .timeUnit(SECOND)
+                        .build())
+                .identifier("linear reaction")
+                .build();
+        // fast second order reaction, requiring the time step to be decreased
+        Reaction nonlinearReaction = createNonlinearReaction(simulation, c, d, e);
+        assertEquals(TimeStepDependence.LINEAR, linearReaction.getTimeStepDependence());
+        assertEquals(TimeStepDependence.NONLINEAR, nonlinearReaction.getTimeStepDependence());
+        // calculate modules in the order they were added
+        simulation.getScheduler().setParallelism(1);
+
+        for (int i = 0; i < 20; i++) {
+            simulation.nextEpoch();
+        }
+        simulation.getScheduler().shutdownExecutorService();
+        AutomatonNode node = simulation.getGraph().getNode(0, 0);
+        double elapsedSeconds = simulation.getElapsedTime().to(SECOND).getValue().doubleValue();
+        double expected = 1.0 - elapsedSeconds;
+        double actual = UnitRegistry.concentration(node.getConcentrationContainer().get(CYTOPLASM, a)).to(MICRO_MOLE_PER_LITRE).getValue().doubleValue();
+        // the zero order reaction has not been recalculated after the time step was decreased
+        assertTrue(simulation.getScheduler().getTotalSavedRecalculations() > 0);
+        // but its rescaled deltas are still accurate
+        assertEquals(expected, actual, 1e-10);
+    }
+
+    @Test
+    void shouldRecalculateMidpointModules() {
+        Simulation simulation = new Simulation();
+        simulation.setGraph(AutomatonGraphs.singularGraph(CYTOPLASM_REGION));
+        ChemicalEntity a = SimpleEntity.create("A").build();
+        ChemicalEntity b = SimpleEntity.create("B").build();
+        // first order deltas are evaluated at the half step concentrations
+        Reaction reaction = ReactionBuilder.staticReactants(simulation)
+                .addSubstrate(a)
+                .addProduct(b)
+                .irreversible()
+                .rate(RateConstant.create(1.0)
+                        .forward().firstOrder()
+                        .timeUnit(SECOND)
+                        .build())
+                .identifier("first order reaction")
+                .build();
+        assertEquals(TimeStepDependence.NONLINEAR, reaction.getTimeStepDependence());
+        // diffusion uses cached fluxes
+        Diffusion diffusion = Diffusion.inSimulation(simulation)
+                .forEntity(a)
+                .forAllSections()
+                .build();
+        assertEquals(TimeStepDependence.NONLINEAR, diffusion.getTimeStepDependence());
+    }
+
+    @Test
+    void shouldEvaluateGlobalErrorInParallel() {
+        // enough nodes to distribute the evaluation of the global error
+        double[] sequentialConcentrations = simulateDiffusion(1);
+        double sequentialTime = UnitRegistry.getTime().to(SECOND).getValue().doubleValue();
+        UnitRegistry.reinitialize();
+        Environment.reset();
+        double[] parallelConcentrations = simulateDiffusion(4);
+        double parallelTime = UnitRegistry.getTime().to(SECOND).getValue().doubleValue();
+        // the evaluation of each node is independent, therefore results are identical
+        assertEquals(sequentialTime, parallelTime);
+        assertArrayEquals(sequentialConcentrations, parallelConcentrations);
+    }
+
+    @Test
+    void shouldProcessElementsWithinSimulationContext() {
+        Simulation simulation = setupSimulation(10, 1.0E-06);
+        simulation.getScheduler().setParallelism(4);
+        simulation.nextEpoch();
+        List<Integer> elements = IntStream.range(0, 256).boxed().collect(Collectors.toList());
+        Set<SimulationContext> contexts = ConcurrentHashMap.newKeySet();
+        Set<Thread> threads = ConcurrentHashMap.newKeySet();
+        simulation.getScheduler().forEachInParallel(elements, element -> {
+            contexts.add(SimulationContext.current());
+            threads.add(Thread.currentThread());
+        });
+        simulation.getScheduler().shutdownExecutorService();
+        // elements are processed by the workers of the scheduler and not by the common pool
+        assertEquals(Collections.singleton(simulation.getContext()), contexts);
+        assertFalse(threads.contains(Thread.currentThread()));
+        assertTrue(threads.stream().noneMatch(thread -> thread.getName().startsWith("ForkJoinPool.commonPool")));
+    }
+
+    private static Reaction createNonlinearReaction(Simulation simulation, ChemicalEntity firstSubstrate, ChemicalEntity secondSubstrate, ChemicalEntity product) {
+        return ReactionBuilder.staticReactants(simulation)
+                .addSubstrate(firstSubstrate)
+                .addSubstrate(secondSubstrate)
+                .addProduct(product)
+                .irreversible()
+                .rate(RateConstant.create(1.0e6)
+                        .forward().secondOrder()
+                        .concentrationUnit(MICRO_MOLE_PER_LITRE)
+                        .timeUnit(SECOND)
+                        .build())
+                .identifier("nonlinear reaction")
+                .build();
+    }
+
+    private static double[] simulateDiffusion(int parallelism) {
+        Simulation simulation = setupSimulation(10, 1.0E-06);
+        ChemicalEntity a = simulation.getChemicalEntity("A");
+        AutomatonGraph graph = simulation.getGraph();
+        simulation.getScheduler().setParallelism(parallelism);
+        for (int i = 0; i < 30; i++) {
+            simulation.nextEpoch();
+        }
+        simulation.getScheduler().shutdownExecutorService();
+        return graph.getNodes().stream()
+                .sorted(Comparator.comparing(node -> node.getIdentifier().toString()))
+                .mapToDouble(node -> node.getConcentrationContainer().get(EXTRACELLULAR_REGION, a))
+                .toArray();
+    }
+
+    private static Simulation setupSimulation(int numberOfNodes, double diffusivity) {
+        Quantity<Length> systemExtend = Quantities.getQuantity(2500.0, NANO(METRE));
+        Environment.setSystemExtend(systemExtend);
+        Environment.setSimulationExtend(2500);
+        Environment.setNodeSpacingToDiameter(systemExtend, numberOfNodes);
+        ChemicalEntity a = SimpleEntity.create("A")
+                .assignFeature(ConcentrationDiffusivity.of(diffusivity, SQUARE_CENTIMETRE_PER_SECOND).build())
+                .small()
+                .build();
+        Rectangle boundingBox = new Rectangle(Environment.getSimulationExtend(), Environment.getSimulationExtend());
+        AutomatonGraph graph = AutomatonGraphs.useStructureFrom(Graphs.buildGridGraph(numberOfNodes, numberOfNodes, boundingBox));
+        for (AutomatonNode node : graph.getNodes()) {
+            double value = node.getIdentifier().getColumn() == 0 ? 2.0e-3 : 1.0e-3;
+            node.getConcentrationContainer().initialize(EXTRACELLULAR_REGION, a, Quantities.getQuantity(value, MOLE_PER_LITRE));
+        }
+        Simulation simulation = new Simulation();
+        simulation.setSimulationRegion(boundingBox);
+        simulation.setGraph(graph);
+        Diffusion.inSimulation(simulation)
+                .forEntity(a)
+                .forAllSections()
+                .build();
+        simulation.getScheduler().setParallelism(1);
+        return simulation;
+    }
+
+}
@@ -0,0 +1,194 @@
+package bio.singa.simulation.model.simulation.checkpoints;
+
+import bio.singa.features.parameters.Environment;
+import bio.singa.features.quantities.ConcentrationDiffusivity;
+import bio.singa.features.units.UnitRegistry;
+import bio.singa.mathematics.geometry.faces.Rectangle;
+import bio.singa.mathematics.graphs.model.Graphs;
+import bio.singa.mathematics.vectors.Vector2D;
+import bio.singa.simulation.entities.ChemicalEntity;
+import bio.singa.simulation.entities.SimpleEntity;
+import bio.singa.simulation.model.agents.pointlike.Vesicle;
+import bio.singa.simulation.model.agents.pointlike.VesicleLayer;
+import bio.singa.simulation.model.graphs.AutomatonGraph;
+import bio.singa.simulation.model.graphs.AutomatonGraphs;
+import bio.singa.simulation.model.graphs.AutomatonNode;
+import bio.singa.simulation.model.modules.concentration.imlementations.transport.Diffusion;
+import bio.singa.simulation.model.simulation.Simulation;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import tech.units.indriya.quantity.Quantities;
+
+import javax.measure.Quantity;
+import javax.measure.quantity.Length;
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static bio.singa.features.quantities.Diffusivity.SQUARE_CENTIMETRE_PER_SECOND;
+import static bio.singa.features.units.UnitProvider.MOLE_PER_LITRE;
+import static bio.singa.simulation.model.agents.pointlike.VesicleStateRegistry.IN_PERINUCLEAR_STORAGE;
+import static bio.singa.simulation.model.agents.pointlike.VesicleStateRegistry.UNATTACHED;
+import static bio.singa.simulation.model.sections.CellSubsections.EXTRACELLULAR_REGION;
+import static bio.singa.simulation.model.sections.CellSubsections.VESICLE_LUMEN;
+import static org.junit.jupiter.api.Assertions.*;
+import static tech.units.indriya.unit.MetricPrefix.NANO;
+import static tech.units.indriya.unit.Units.METRE;
+import static tech.units.indriya.unit.Units.SECOND;
+
+/**
+ * @author cl
+ */
+class SimulationCheckpointTest {
+
+    private static final int NUMBER_OF_NODES = 5;
+
+    @BeforeAll
+    static void initialize() {
+        UnitRegistry.reinitialize();
+        Environment.reset();
+    }
+
+    @AfterEach
+    void cleanUp() {
+        UnitRegistry.reinitialize();
+        Environment.reset();
+    }
+
+    @Test
+    void shouldContinueFromCheckpoint() throws IOException {
+        Path file = Files.createTempFile("simulation", ".sgc");
+        try {
+            // uninterrupted simulation, that is checkpointed once
+            Simulation simulation = setupSimulation();
+            CheckpointRecorder recorder = new CheckpointRecorder(simulation, file, 15);
+            for (int epoch = 0; epoch < 20; epoch++) {
+                simulation.nextEpoch();
+                recorder.onEventReceived(null);
+            }
+            recorder.close();
+            simulation.getScheduler().shutdownExecutorService();
+            assertEquals(1, recorder.getWrittenCheckpoints());
+            double[] expected = concentrations(simulation);
+            double expectedTime = simulation.getElapsedTime().to(SECOND).getValue().doubleValue();
+            // restarted simulation
+            UnitRegistry.reinitialize();
+            Environment.reset();
+            Simulation restarted = setupSimulation();
+            SimulationCheckpoint checkpoint = SimulationCheckpoint.read(file);
+            assertEquals(15, checkpoint.getEpoch());
+            assertEquals(NUMBER_OF_NODES * NUMBER_OF_NODES, checkpoint.getNumberOfNodes());
+            checkpoint.restore(restarted);
+            assertEquals(15, restarted.getEpoch());
+            for (int epoch = 15; epoch < 20; epoch++) {
+                restarted.nextEpoch();
+            }
+            restarted.getScheduler().shutdownExecutorService();
+            double[] actual = concentrations(restarted);
+            for (int node = 0; node < expected.length; node++) {
+                assertEquals(expected[node], actual[node], Math.abs(expected[node]) * 1e-10);
+            }
+            assertEquals(expectedTime, restarted.getElapsedTime().to(SECOND).getValue().doubleValue(), expectedTime * 1e-10);
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    void shouldReportFailedCheckpoints() throws IOException, InterruptedException {
+        Path directory = Files.createTempDirectory("checkpoints").resolve("blocked");
+        Files.createFile(directory);
+        Simulation simulation = setupSimulation();
+        CheckpointRecorder recorder = new CheckpointRecorder(simulation, directory.resolve("simulation.sgc"), 1);
+        simulation.nextEpoch();
+        // the directory is a file
+        recorder.checkpoint();
+        for (int attempt = 0; attempt < 100 && recorder.getFailedCheckpoints() == 0; attempt++) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, recorder.getFailedCheckpoints());
+        // the following checkpoint succeeds, but the previous failure is not lost
+        Files.delete(directory);
+        simulation.nextEpoch();
+        recorder.checkpoint();
+        assertThrows(IOException.class, recorder::close);
+        simulation.getScheduler().shutdownExecutorService();
+        assertEquals(1, recorder.getWrittenCheckpoints());
+        assertTrue(Files.exists(directory.resolve("simulation.sgc")));
+    }
+
+    @Test
+    void shouldRestoreVesicles() throws IOException {
+        Simulation simulation = setupSimulation();
+        VesicleLayer vesicleLayer = new VesicleLayer(simulation);
+        Vesicle vesicle = new Vesicle(new Vector2D(1200.0, 1300.0), Quantities.getQuantity(50.0, NANO(METRE)));
+        vesicle.setState(IN_PERINUCLEAR_STORAGE);
+        ChemicalEntity cargo = SimpleEntity.create("cargo").build();
+        vesicle.getConcentrationContainer().initialize(VESICLE_LUMEN, cargo, Quantities.getQuantity(1.0e-3, MOLE_PER_LITRE));
+        double concentration = vesicle.getConcentrationContainer().get(VESICLE_LUMEN, cargo);
+        vesicleLayer.addVesicle(vesicle);
+        simulation.setVesicleLayer(vesicleLayer);
+        simulation.initialize();
+        // write and read the checkpoint in memory
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        SimulationCheckpoint.capture(simulation).write(new DataOutputStream(bytes));
+        SimulationCheckpoint checkpoint = SimulationCheckpoint.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        assertEquals(1, checkpoint.getNumberOfVesicles());
+        // change the vesicle and remove it
+        vesicle.setPosition(new Vector2D(100.0, 100.0));
+        vesicle.setState(UNATTACHED);
+        vesicle.getConcentrationContainer().set(VESICLE_LUMEN, cargo, 0.0);
+        checkpoint.restore(simulation);
+        assertEquals(new Vector2D(1200.0, 1300.0), vesicle.getPosition());
+        assertEquals(IN_PERINUCLEAR_STORAGE, vesicle.getState());
+        assertEquals(concentration, vesicle.getConcentrationContainer().get(VESICLE_LUMEN, cargo), concentration * 1e-12);
+        assertFalse(vesicle.getAssociatedNodes().isEmpty());
+        // restore a vesicle, that is missing
+        vesicleLayer.removeVesicle(vesicle);
+        checkpoint.restore(simulation);
+        assertEquals(1, vesicleLayer.getVesicles().size());
+        Vesicle restored = vesicleLayer.getVesicles().get(0);
+        assertNotSame(vesicle, restored);
+        assertEquals(vesicle.getStringIdentifier(), restored.getStringIdentifier());
+        assertEquals(concentration, restored.getConcentrationContainer().get(VESICLE_LUMEN, cargo), concentration * 1e-12);
+        simulation.getScheduler().shutdownExecutorService();
+    }
+
+    private static Simulation setupSimulation() {
+        Quantity<Length> systemExtend = Quantities.getQuantity(2500.0, NANO(METRE));
+        Environment.setSystemExtend(systemExtend);
+        Environment.setSimulationExtend(2500);
+        Environment.setNodeSpacingToDiameter(systemExtend, NUMBER_OF_NODES);
+        ChemicalEntity a = SimpleEntity.create("A")
+                .assignFeature(ConcentrationDiffusivity.of(1.0E-08, SQUARE_CENTIMETRE_PER_SECOND).build())
+                .small()
+                .build();
+        Rectangle boundingBox = new Rectangle(Environment.getSimulationExtend(), Environment.getSimulationExtend());
+        AutomatonGraph graph = AutomatonGraphs.useStructureFrom(Graphs.buildGridGraph(NUMBER_OF_NODES, NUMBER_OF_NODES, boundingBox));
+        for (AutomatonNode node : graph.getNodes()) {
+            double value = node.getIdentifier().getColumn() == 0 ? 2.0e-3 : 1.0e-3;
+            node.getConcentrationContainer().initialize(EXTRACELLULAR_REGION, a, Quantities.getQuantity(value, MOLE_PER_LITRE));
+        }
+        Simulation simulation = new Simulation();
+        simulation.setSimulationRegion(boundingBox);
+        simulation.setGraph(graph);
+        Diffusion.inSimulation(simulation)
+                .forEntity(a)
+                .forAllSections()
+                .build();
+        simulation.getScheduler().setParallelism(1);
+        return simulation;
+    }
+
+    private static double[] concentrations(Simulation simulation) {
+        ChemicalEntity a = simulation.getChemicalEntity("A");
+        double[] concentrations = new double[simulation.getGraph().getNodes().size()];
+        int position = 0;
+        for (AutomatonNode node : simulation.getGraph().getNodes()) {
+            concentrations[position++] = node.getConcentrationContainer().get(EXTRACELLULAR_REGION, a);
+        }
+        return concentrations;
+    }
+
+}
@@ -0,0 +1,162 @@
+package bio.singa.simulation.model.simulation.integrators;
+
+import bio.singa.chemistry.features.reactions.RateConstant;
+import bio.singa.features.parameters.Environment;
+import bio.singa.features.quantities.ConcentrationDiffusivity;
+import bio.singa.features.units.UnitRegistry;
+import bio.singa.mathematics.geometry.faces.Rectangle;
+import bio.singa.mathematics.graphs.model.Graphs;
+import bio.singa.simulation.entities.ChemicalEntity;
+import bio.singa.simulation.entities.SimpleEntity;
+import bio.singa.simulation.model.concentrations.ConcentrationBuilder;
+import bio.singa.simulation.model.graphs.AutomatonGraph;
+import bio.singa.simulation.model.graphs.AutomatonGraphs;
+import bio.singa.simulation.model.graphs.AutomatonNode;
+import bio.singa.simulation.model.modules.concentration.imlementations.reactions.ReactionBuilder;
+import bio.singa.simulation.model.modules.concentration.imlementations.transport.Diffusion;
+import bio.singa.simulation.model.simulation.Simulation;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import tech.units.indriya.quantity.Quantities;
+
+import javax.measure.Quantity;
+import javax.measure.quantity.Length;
+
+import static bio.singa.features.quantities.Diffusivity.SQUARE_CENTIMETRE_PER_SECOND;
+import static bio.singa.features.units.UnitProvider.MICRO_MOLE_PER_LITRE;
+import static bio.singa.features.units.UnitProvider.MOLE_PER_LITRE;
+import static bio.singa.simulation.model.sections.CellRegions.CYTOPLASM_REGION;
+import static bio.singa.simulation.model.sections.CellSubsections.CYTOPLASM;
+import static bio.singa.simulation.model.sections.CellSubsections.EXTRACELLULAR_REGION;
+import static org.junit.jupiter.api.Assertions.*;
+import static tech.units.indriya.unit.MetricPrefix.NANO;
+import static tech.units.indriya.unit.Units.METRE;
+import static tech.units.indriya.unit.Units.SECOND;
+
+/**
+ * @author cl
+ */
+class EmbeddedRungeKuttaIntegratorTest {
+
+    @BeforeAll
+    static void initialize() {
+        UnitRegistry.reinitialize();
+        Environment.reset();
+    }
+
+    @AfterEach
+    void cleanUp() {
+        UnitRegistry.reinitialize();
+        Environment.reset();
+    }
+
+    @Test
+    void shouldIntegrateFirstOrderReaction() {
+        double[] stepDoubling = simulateDecay(null, 2.0);
+        UnitRegistry.reinitialize();
+        Environment.reset();
+        EmbeddedRungeKuttaIntegrator integrator = new EmbeddedRungeKuttaIntegrator(ButcherTableau.DORMAND_PRINCE);
+        integrator.setRelativeTolerance(1e-6);
+        double[] rungeKutta = simulateDecay(integrator, 2.0);
+        // concentration relative to the analytical solution
+        assertEquals(1.0, rungeKutta[0], 1e-5);
+        assertTrue(Math.abs(1.0 - rungeKutta[0]) <= Math.abs(1.0 - stepDoubling[0]));
+        // larger time steps
+        assertTrue(rungeKutta[1] < stepDoubling[1]);
+        assertTrue(integrator.getErrorNorm() <= 1.0);
+    }
+
+    @Test
+    void shouldIntegrateUsingBogackiShampine() {
+        EmbeddedRungeKuttaIntegrator integrator = new EmbeddedRungeKuttaIntegrator(ButcherTableau.BOGACKI_SHAMPINE);
+        integrator.setRelativeTolerance(1e-6);
+        double[] rungeKutta = simulateDecay(integrator, 1.0);
+        assertEquals(1.0, rungeKutta[0], 1e-4);
+    }
+
+    /**
+     * Simulates A -> B with k = 1/s until the given time has passed and returns the ratio between simulated and
+     * analytical concentration of A and the number of epochs.
+     */
+    private static double[] simulateDecay(Integrator integrator, double seconds) {
+        Simulation simulation = new Simulation();
+        simulation.setGraph(AutomatonGraphs.singularGraph(CYTOPLASM_REGION));
+        ChemicalEntity a = SimpleEntity.create("A").build();
+        ChemicalEntity b = SimpleEntity.create("B").build();
+        ConcentrationBuilder.create(simulation)
+                .entity(a)
+                .subsection(CYTOPLASM)
+                .concentrationValue(1.0)
+                .microMolar()
+                .build();
+        ReactionBuilder.staticReactants(simulation)
+                .addSubstrate(a)
+                .addProduct(b)
+                .irreversible()
+                .rate(RateConstant.create(1.0)
+                        .forward().firstOrder()
+                        .timeUnit(SECOND)
+                        .build())
+                .identifier("decay")
+                .build();
+        if (integrator != null) {
+            simulation.getScheduler().setIntegrator(integrator);
+        }
+        while (simulation.getElapsedTime().to(SECOND).getValue().doubleValue() < seconds) {
+            simulation.nextEpoch();
+        }
+        simulation.getScheduler().shutdownExecutorService();
+        AutomatonNode node = simulation.getGraph().getNode(0, 0);
+        double elapsedSeconds = simulation.getElapsedTime().to(SECOND).getValue().doubleValue();
+        double actual = UnitRegistry.concentration(node.getConcentrationContainer().get(CYTOPLASM, a)).to(MICRO_MOLE_PER_LITRE).getValue().doubleValue();
+        return new double[]{actual / Math.exp(-elapsedSeconds), simulation.getEpoch()};
+    }
+
+    @Test
+    void shouldConserveMassDuringDiffusion() {
+        Quantity<Length> systemExtend = Quantities.getQuantity(2500.0, NANO(METRE));
+        int numberOfNodes = 5;
+        Environment.setSystemExtend(systemExtend);
+        Environment.setSimulationExtend(2500);
+        Environment.setNodeSpacingToDiameter(systemExtend, numberOfNodes);
+        ChemicalEntity entity = SimpleEntity.create("diffusing")
+                .assignFeature(ConcentrationDiffusivity.of(4.40E-05, SQUARE_CENTIMETRE_PER_SECOND).build())
+                .small()
+                .build();
+        Rectangle boundingBox = new Rectangle(Environment.getSimulationExtend(), Environment.getSimulationExtend());
+        AutomatonGraph graph = AutomatonGraphs.useStructureFrom(Graphs.buildGridGraph(numberOfNodes, numberOfNodes, boundingBox));
+        for (AutomatonNode node : graph.getNodes()) {
+            double concentration = node.getIdentifier().getColumn() < numberOfNodes / 2 ? 1.0 : 0.0;
+            node.getConcentrationContainer().initialize(EXTRACELLULAR_REGION, entity, Quantities.getQuantity(concentration, MOLE_PER_LITRE));
+        }
+        Simulation simulation = new Simulation();
+        simulation.setGraph(graph);
+        Diffusion.inSimulation(simulation)
+                .forEntity(entity)
+                .forAllSections()
+                .build();
+        EmbeddedRungeKuttaIntegrator integrator = new EmbeddedRungeKuttaIntegrator(ButcherTableau.BOGACKI_SHAMPINE);
+        simulation.getScheduler().setIntegrator(integrator);
+        double initialMass = totalConcentration(graph, entity);
+        for (int epoch = 0; epoch < 50; epoch++) {
+            simulation.nextEpoch();
+        }
+        simulation.getScheduler().shutdownExecutorService();
+        assertEquals(initialMass, totalConcentration(graph, entity), initialMass * 1e-10);
+        // concentrations equilibrate
+        AutomatonNode first = graph.getNode(0, 0);
+        AutomatonNode last = graph.getNode(numberOfNodes - 1, numberOfNodes - 1);
+        assertTrue(first.getConcentrationContainer().get(EXTRACELLULAR_REGION, entity) > last.getConcentrationContainer().get(EXTRACELLULAR_REGION, entity));
+        assertTrue(last.getConcentrationContainer().get(EXTRACELLULAR_REGION, entity) > 0.0);
+    }
+
+    private static double totalConcentration(AutomatonGraph graph, ChemicalEntity entity) {
+        double total = 0.0;
+        for (AutomatonNode node : graph.getNodes()) {
+            total += node.getConcentrationContainer().get(EXTRACELLULAR_REGION, entity);
+        }
+        return total;
+    }
+
+}
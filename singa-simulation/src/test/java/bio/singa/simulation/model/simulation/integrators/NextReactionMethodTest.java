@@ -0,0 +1,276 @@
+package bio.singa.simulation.model.simulation.integrators;
+
+import bio.singa.chemistry.features.reactions.RateConstant;
+import bio.singa.features.parameters.Environment;
+import bio.singa.features.quantities.ConcentrationDiffusivity;
+import bio.singa.features.quantities.MolarConcentration;
+import bio.singa.features.units.UnitRegistry;
+import bio.singa.mathematics.geometry.faces.Rectangle;
+import bio.singa.mathematics.graphs.model.Graphs;
+import bio.singa.simulation.entities.ChemicalEntity;
+import bio.singa.simulation.entities.SimpleEntity;
+import bio.singa.simulation.model.graphs.AutomatonGraph;
+import bio.singa.simulation.model.graphs.AutomatonGraphs;
+import bio.singa.simulation.model.graphs.AutomatonNode;
+import bio.singa.simulation.model.modules.concentration.DeltaBuffer;
+import bio.singa.simulation.model.modules.concentration.imlementations.reactions.Reaction;
+import bio.singa.simulation.model.modules.concentration.imlementations.reactions.ReactionBuilder;
+import bio.singa.simulation.model.modules.concentration.imlementations.transport.Diffusion;
+import bio.singa.simulation.model.sections.ConcentrationContainer;
+import bio.singa.simulation.model.simulation.Simulation;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import tech.units.indriya.quantity.Quantities;
+
+import javax.measure.Quantity;
+import javax.measure.quantity.Length;
+import java.util.Collections;
+import java.util.Random;
+
+import static bio.singa.features.quantities.Diffusivity.SQUARE_CENTIMETRE_PER_SECOND;
+import static bio.singa.features.units.UnitProvider.MOLE_PER_LITRE;
+import static bio.singa.simulation.model.sections.CellSubsections.EXTRACELLULAR_REGION;
+import static org.junit.jupiter.api.Assertions.*;
+import static tech.units.indriya.unit.MetricPrefix.NANO;
+import static tech.units.indriya.unit.Units.METRE;
+import static tech.units.indriya.unit.Units.SECOND;
+
+/**
+ * @author cl
+ */
+class NextReactionMethodTest {
+
+    private static final int NUMBER_OF_NODES = 5;
+
+    @BeforeAll
+    static void initialize() {
+        UnitRegistry.reinitialize();
+        Environment.reset();
+    }
+
+    @AfterEach
+    void cleanUp() {
+        UnitRegistry.reinitialize();
+        Environment.reset();
+    }
+
+    @Test
+    void shouldReproduceFirstOrderDecay() {
+        AutomatonGraph graph = createGraph();
+        ChemicalEntity a = SimpleEntity.create("A").build();
+        ChemicalEntity b = SimpleEntity.create("B").build();
+        Simulation simulation = new Simulation();
+        simulation.setGraph(graph);
+        Reaction reaction = ReactionBuilder.staticReactants(simulation)
+                .addSubstrate(a)
+                .addProduct(b)
+                .irreversible()
+                .rate(RateConstant.create(1.0)
+                        .forward().firstOrder()
+                        .timeUnit(SECOND)
+                        .build())
+                .identifier("decay")
+                .build();
+        AutomatonNode node = graph.getNode(0, 0);
+        ConcentrationContainer container = node.getConcentrationContainer();
+        double molecule = MolarConcentration.moleculesToConcentration(1.0);
+        int initialMolecules = 20;
+        container.initialize(EXTRACELLULAR_REGION, b, Quantities.getQuantity(0.0, MOLE_PER_LITRE));
+        container.initialize(EXTRACELLULAR_REGION, a, Quantities.getQuantity(0.0, MOLE_PER_LITRE));
+        NextReactionMethod method = new NextReactionMethod(node, Collections.singletonList(reaction), new Random(42));
+        assertEquals(1, method.getNumberOfChannels());
+        int replicates = 2000;
+        double remaining = 0.0;
+        for (int replicate = 0; replicate < replicates; replicate++) {
+            container.set(EXTRACELLULAR_REGION, a, initialMolecules * molecule);
+            container.set(EXTRACELLULAR_REGION, b, 0.0);
+            long events = method.simulate(Quantities.getQuantity(0.5, SECOND));
+            double moleculesA = container.get(EXTRACELLULAR_REGION, a) / molecule;
+            double moleculesB = container.get(EXTRACELLULAR_REGION, b) / molecule;
+            // whole molecules are converted
+            assertEquals(Math.rint(moleculesA), moleculesA, 1e-6);
+            assertEquals(initialMolecules, moleculesA + moleculesB, 1e-6);
+            assertEquals(events, moleculesB, 1e-6);
+            // deltas reflect the events
+            DeltaBuffer deltas = method.getDeltas();
+            if (events > 0) {
+                assertEquals(2, deltas.size());
+                for (int index = 0; index < deltas.size(); index++) {
+                    assertSame(reaction, deltas.getModule(index));
+                    double expected = (deltas.getEntity(index).equals(a) ? -events : events) * molecule;
+                    assertEquals(expected, deltas.getValue(index), Math.abs(expected) * 1e-10);
+                }
+            }
+            remaining += moleculesA;
+        }
+        // mean of the binomial distribution, the standard error is about 0.05 molecules
+        assertEquals(initialMolecules * Math.exp(-0.5), remaining / replicates, 0.25);
+    }
+
+    @Test
+    void shouldConserveMassOfReversibleBinding() {
+        AutomatonGraph graph = createGraph();
+        ChemicalEntity a = SimpleEntity.create("A").build();
+        ChemicalEntity b = SimpleEntity.create("B").build();
+        ChemicalEntity c = SimpleEntity.create("C").build();
+        Simulation simulation = new Simulation();
+        simulation.setGraph(graph);
+        Reaction reaction = ReactionBuilder.staticReactants(simulation)
+                .addSubstrate(a)
+                .addSubstrate(b)
+                .addProduct(c)
+                .reversible()
+                .forwardReactionRate(RateConstant.create(1.0e8)
+                        .forward().secondOrder()
+                        .concentrationUnit(MOLE_PER_LITRE)
+                        .timeUnit(SECOND)
+                        .build())
+                .backwardReactionRate(RateConstant.create(1.0)
+                        .backward().firstOrder()
+                        .timeUnit(SECOND)
+                        .build())
+                .identifier("binding")
+                .build();
+        AutomatonNode node = graph.getNode(0, 0);
+        ConcentrationContainer container = node.getConcentrationContainer();
+        double molecule = MolarConcentration.moleculesToConcentration(1.0);
+        container.initialize(EXTRACELLULAR_REGION, a, Quantities.getQuantity(0.0, MOLE_PER_LITRE));
+        container.initialize(EXTRACELLULAR_REGION, b, Quantities.getQuantity(0.0, MOLE_PER_LITRE));
+        container.initialize(EXTRACELLULAR_REGION, c, Quantities.getQuantity(0.0, MOLE_PER_LITRE));
+        container.set(EXTRACELLULAR_REGION, a, 30 * molecule);
+        container.set(EXTRACELLULAR_REGION, b, 20 * molecule);
+        NextReactionMethod method = new NextReactionMethod(node, Collections.singletonList(reaction), new Random(7));
+        // forward and backward channel
+        assertEquals(2, method.getNumberOfChannels());
+        method.simulate(Quantities.getQuantity(10.0, SECOND));
+        double moleculesA = container.get(EXTRACELLULAR_REGION, a) / molecule;
+        double moleculesB = container.get(EXTRACELLULAR_REGION, b) / molecule;
+        double moleculesC = container.get(EXTRACELLULAR_REGION, c) / molecule;
+        assertTrue(method.getEvents() > 0);
+        assertTrue(moleculesC > 0.0);
+        assertTrue(moleculesB >= 0.0);
+        assertEquals(30.0, moleculesA + moleculesC, 1e-6);
+        assertEquals(20.0, moleculesB + moleculesC, 1e-6);
+    }
+
+    @Test
+    void shouldCountDistinctPairsOfDimerization() {
+        AutomatonGraph graph = createGraph();
+        ChemicalEntity a = SimpleEntity.create("A").build();
+        ChemicalEntity b = SimpleEntity.create("B").build();
+        Simulation simulation = new Simulation();
+        simulation.setGraph(graph);
+        double molecule = MolarConcentration.moleculesToConcentration(1.0);
+        double moleculeInMolar = UnitRegistry.concentration(molecule).to(MOLE_PER_LITRE).getValue().doubleValue();
+        // three molecules form 3 x 2 ordered pairs, such that the dimerization occurs with probability 0.5 per second
+        double rate = Math.log(2.0) / (6.0 * moleculeInMolar);
+        Reaction reaction = ReactionBuilder.staticReactants(simulation)
+                .addSubstrate(a, 2)
+                .addProduct(b)
+                .irreversible()
+                .rate(RateConstant.create(rate)
+                        .forward().secondOrder()
+                        .concentrationUnit(MOLE_PER_LITRE)
+                        .timeUnit(SECOND)
+                        .build())
+                .identifier("dimerization")
+                .build();
+        AutomatonNode node = graph.getNode(0, 0);
+        ConcentrationContainer container = node.getConcentrationContainer();
+        container.initialize(EXTRACELLULAR_REGION, a, Quantities.getQuantity(0.0, MOLE_PER_LITRE));
+        container.initialize(EXTRACELLULAR_REGION, b, Quantities.getQuantity(0.0, MOLE_PER_LITRE));
+        NextReactionMethod method = new NextReactionMethod(node, Collections.singletonList(reaction), new Random(11));
+        int replicates = 2000;
+        int dimerizations = 0;
+        for (int replicate = 0; replicate < replicates; replicate++) {
+            container.set(EXTRACELLULAR_REGION, a, 3 * molecule);
+            container.set(EXTRACELLULAR_REGION, b, 0.0);
+            // the remaining molecule can not dimerize
+            long events = method.simulate(Quantities.getQuantity(1.0, SECOND));
+            assertTrue(events <= 1);
+            dimerizations += events;
+        }
+        // the standard error is about 0.011
+        assertEquals(0.5, dimerizations / (double) replicates, 0.05);
+    }
+
+    @Test
+    void shouldSimulateReactionsStochasticallyWithDiffusion() {
+        double[] first = simulateHybrid(13);
+        UnitRegistry.reinitialize();
+        Environment.reset();
+        double[] second = simulateHybrid(13);
+        // reproducible for the same seed
+        assertArrayEquals(first, second);
+        // mass is conserved
+        assertEquals(first[1], first[0], first[1] * 1e-10);
+        assertTrue(first[2] > 0.0);
+    }
+
+    /**
+     * Simulates the diffusion of A on a grid, where few molecules of A are converted to B stochastically. Returns
+     * the total concentration of A and B after and before the simulation, followed by the total concentration of B.
+     */
+    private static double[] simulateHybrid(long seed) {
+        AutomatonGraph graph = createGraph();
+        ChemicalEntity a = SimpleEntity.create("A")
+                .assignFeature(ConcentrationDiffusivity.of(1.0E-08, SQUARE_CENTIMETRE_PER_SECOND).build())
+                .small()
+                .build();
+        ChemicalEntity b = SimpleEntity.create("B").build();
+        double molecule = MolarConcentration.moleculesToConcentration(1.0);
+        for (AutomatonNode node : graph.getNodes()) {
+            node.getConcentrationContainer().initialize(EXTRACELLULAR_REGION, a, Quantities.getQuantity(0.0, MOLE_PER_LITRE));
+            node.getConcentrationContainer().initialize(EXTRACELLULAR_REGION, b, Quantities.getQuantity(0.0, MOLE_PER_LITRE));
+            node.getConcentrationContainer().set(EXTRACELLULAR_REGION, a, (node.getIdentifier().getColumn() == 0 ? 50 : 5) * molecule);
+        }
+        Simulation simulation = new Simulation();
+        simulation.setGraph(graph);
+        Diffusion.inSimulation(simulation)
+                .forEntity(a)
+                .forAllSections()
+                .build();
+        ReactionBuilder.staticReactants(simulation)
+                .addSubstrate(a)
+                .addProduct(b)
+                .irreversible()
+                .rate(RateConstant.create(1.0e3)
+                        .forward().firstOrder()
+                        .timeUnit(SECOND)
+                        .build())
+                .identifier("conversion")
+                .build();
+        StrangSplittingIntegrator integrator = new StrangSplittingIntegrator();
+        integrator.setStochasticCondition(NextReactionMethod.lowCopyNumber(100));
+        integrator.setRandom(new Random(seed));
+        simulation.getScheduler().setParallelism(1);
+        simulation.getScheduler().setIntegrator(integrator);
+        double initialMass = totalConcentration(graph, a) + totalConcentration(graph, b);
+        for (int epoch = 0; epoch < 20; epoch++) {
+            simulation.nextEpoch();
+        }
+        simulation.getScheduler().shutdownExecutorService();
+        // reactions are not sub-stepped deterministically
+        assertEquals(0, integrator.getLocalSteps());
+        return new double[]{totalConcentration(graph, a) + totalConcentration(graph, b), initialMass, totalConcentration(graph, b)};
+    }
+
+    private static AutomatonGraph createGraph() {
+        Quantity<Length> systemExtend = Quantities.getQuantity(2500.0, NANO(METRE));
+        Environment.setSystemExtend(systemExtend);
+        Environment.setSimulationExtend(2500);
+        Environment.setNodeSpacingToDiameter(systemExtend, NUMBER_OF_NODES);
+        Rectangle boundingBox = new Rectangle(Environment.getSimulationExtend(), Environment.getSimulationExtend());
+        return AutomatonGraphs.useStructureFrom(Graphs.buildGridGraph(NUMBER_OF_NODES, NUMBER_OF_NODES, boundingBox));
+    }
+
+    private static double totalConcentration(AutomatonGraph graph, ChemicalEntity entity) {
+        double total = 0.0;
+        for (AutomatonNode node : graph.getNodes()) {
+            total += node.getConcentrationContainer().get(EXTRACELLULAR_REGION, entity);
+        }
+        return total;
+    }
+
+}
@@ -0,0 +1,237 @@
+package bio.singa.simulation.model.simulation.integrators;
+
+import bio.singa.chemistry.features.reactions.RateConstant;
+import bio.singa.features.parameters.Environment;
+import bio.singa.features.quantities.ConcentrationDiffusivity;
+import bio.singa.features.units.UnitRegistry;
+import bio.singa.mathematics.geometry.faces.Rectangle;
+import bio.singa.mathematics.graphs.model.Graphs;
+import bio.singa.simulation.entities.ChemicalEntity;
+import bio.singa.simulation.entities.SimpleEntity;
+import bio.singa.simulation.model.concentrations.ConcentrationBuilder;
+import bio.singa.simulation.model.graphs.AutomatonGraph;
+import bio.singa.simulation.model.graphs.AutomatonGraphs;
+import bio.singa.simulation.model.graphs.AutomatonNode;
+import bio.singa.simulation.model.modules.concentration.imlementations.reactions.ReactionBuilder;
+import bio.singa.simulation.model.modules.concentration.imlementations.reactions.ReactionNetwork;
+import bio.singa.simulation.model.modules.concentration.imlementations.transport.Diffusion;
+import bio.singa.simulation.model.simulation.Simulation;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import tech.units.indriya.quantity.Quantities;
+
+import javax.measure.Quantity;
+import javax.measure.quantity.Length;
+
+import static bio.singa.features.quantities.Diffusivity.SQUARE_CENTIMETRE_PER_SECOND;
+import static bio.singa.features.units.UnitProvider.MICRO_MOLE_PER_LITRE;
+import static bio.singa.features.units.UnitProvider.MOLE_PER_LITRE;
+import static bio.singa.simulation.model.sections.CellRegions.CYTOPLASM_REGION;
+import static bio.singa.simulation.model.sections.CellSubsections.CYTOPLASM;
+import static bio.singa.simulation.model.sections.CellSubsections.EXTRACELLULAR_REGION;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static tech.units.indriya.unit.MetricPrefix.NANO;
+import static tech.units.indriya.unit.Units.METRE;
+import static tech.units.indriya.unit.Units.SECOND;
+
+/**
+ * @author cl
+ */
+class RosenbrockIntegratorTest {
+
+    @BeforeAll
+    static void initialize() {
+        UnitRegistry.reinitialize();
+        Environment.reset();
+    }
+
+    @AfterEach
+    void cleanUp() {
+        UnitRegistry.reinitialize();
+        Environment.reset();
+    }
+
+    @Test
+    void shouldIntegrateUncoupledVariablesExplicitly() {
+        // without reactions no variable is coupled by the iteration matrix
+        int numberOfNodes = 5;
+        Simulation simulation = setupSimulation(numberOfNodes, 1.0e-7);
+        ChemicalEntity a = simulation.getChemicalEntity("A");
+        RosenbrockIntegrator integrator = new RosenbrockIntegrator();
+        simulation.getScheduler().setIntegrator(integrator);
+        double initialMass = totalConcentration(simulation, a);
+        for (int epoch = 0; epoch < 20; epoch++) {
+            simulation.nextEpoch();
+        }
+        simulation.getScheduler().shutdownExecutorService();
+        assertTrue(integrator.getJacobianEvaluations() > 0);
+        assertEquals(initialMass, totalConcentration(simulation, a), initialMass * 1e-10);
+        // the gradient between the first and the remaining columns equilibrates
+        double first = simulation.getGraph().getNode(0, 0).getConcentrationContainer().get(EXTRACELLULAR_REGION, a);
+        double second = simulation.getGraph().getNode(1, 0).getConcentrationContainer().get(EXTRACELLULAR_REGION, a);
+        double last = simulation.getGraph().getNode(numberOfNodes - 1, 0).getConcentrationContainer().get(EXTRACELLULAR_REGION, a);
+        assertTrue(first < UnitRegistry.concentration(2.0e-3, MOLE_PER_LITRE).getValue().doubleValue());
+        assertTrue(second > last);
+    }
+
+    private static double totalConcentration(Simulation simulation, ChemicalEntity entity) {
+        double total = 0.0;
+        for (AutomatonNode node : simulation.getGraph().getNodes()) {
+            total += node.getConcentrationContainer().get(EXTRACELLULAR_REGION, entity);
+        }
+        return total;
+    }
+
+    @Test
+    void shouldIntegrateStiffReactions() {
+        integrateStiffReactions(false);
+    }
+
+    @Test
+    void shouldIntegrateStiffReactionNetwork() {
+        integrateStiffReactions(true);
+    }
+
+    private static void integrateStiffReactions(boolean compile) {
+        Simulation simulation = new Simulation();
+        simulation.setGraph(AutomatonGraphs.singularGraph(CYTOPLASM_REGION));
+        ChemicalEntity a = SimpleEntity.create("A").build();
+        ChemicalEntity b = SimpleEntity.create("B").build();
+        ChemicalEntity c = SimpleEntity.create("C").build();
+        ConcentrationBuilder.create(simulation)
+                .entity(a)
+                .subsection(CYTOPLASM)
+                .concentrationValue(1.0)
+                .microMolar()
+                .build();
+        // fast equilibrium between A and B
+        ReactionBuilder.staticReactants(simulation)
+                .addSubstrate(a)
+                .addProduct(b)
+                .reversible()
+                .forwardReactionRate(RateConstant.create(1.0e5)
+                        .forward().firstOrder()
+                        .timeUnit(SECOND)
+                        .build())
+                .backwardReactionRate(RateConstant.create(5.0e4)
+                        .backward().firstOrder()
+                        .timeUnit(SECOND)
+                        .build())
+                .identifier("equilibrium")
+                .build();
+        // slow decay of B
+        ReactionBuilder.staticReactants(simulation)
+                .addSubstrate(b)
+                .addProduct(c)
+                .irreversible()
+                .rate(RateConstant.create(1.0)
+                        .forward().firstOrder()
+                        .timeUnit(SECOND)
+                        .build())
+                .identifier("decay")
+                .build();
+        if (compile) {
+            ReactionNetwork.inSimulation(simulation)
+                    .forAllReactions()
+                    .build();
+        }
+        RosenbrockIntegrator integrator = new RosenbrockIntegrator();
+        simulation.getScheduler().setParallelism(1);
+        simulation.getScheduler().setIntegrator(integrator);
+        while (simulation.getElapsedTime().to(SECOND).getValue().doubleValue() < 1.0) {
+            simulation.nextEpoch();
+        }
+        simulation.getScheduler().shutdownExecutorService();
+        // the time step is not restricted by the stability limit of explicit schemes for the fast reaction
+        assertTrue(simulation.getEpoch() < 1000);
+        assertTrue(UnitRegistry.getTime().to(SECOND).getValue().doubleValue() > 100 * 2.0 / 1.5e5);
+        assertTrue(integrator.getJacobianEvaluations() > 0);
+        double time = simulation.getElapsedTime().to(SECOND).getValue().doubleValue();
+        AutomatonNode node = simulation.getGraph().getNode(0, 0);
+        double concentrationA = concentration(node, a);
+        double concentrationB = concentration(node, b);
+        double concentrationC = concentration(node, c);
+        // mass is conserved
+        assertEquals(1.0, concentrationA + concentrationB + concentrationC, 1e-8);
+        // A and B are in equilibrium and decay slowly (quasi steady state)
+        assertEquals(2.0, concentrationB / concentrationA, 1e-2);
+        assertEquals(Math.exp(-2.0 / 3.0 * time), concentrationA + concentrationB, 5e-3);
+    }
+
+    @Test
+    void shouldIntegrateSecondOrderReaction() {
+        Simulation simulation = new Simulation();
+        simulation.setGraph(AutomatonGraphs.singularGraph(CYTOPLASM_REGION));
+        ChemicalEntity a = SimpleEntity.create("A").build();
+        ChemicalEntity b = SimpleEntity.create("B").build();
+        ChemicalEntity c = SimpleEntity.create("C").build();
+        ConcentrationBuilder.create(simulation)
+                .entity(a)
+                .subsection(CYTOPLASM)
+                .concentrationValue(1.0)
+                .microMolar()
+                .build();
+        ConcentrationBuilder.create(simulation)
+                .entity(b)
+                .subsection(CYTOPLASM)
+                .concentrationValue(2.0)
+                .microMolar()
+                .build();
+        ReactionBuilder.staticReactants(simulation)
+                .addSubstrate(a)
+                .addSubstrate(b)
+                .addProduct(c)
+                .irreversible()
+                .rate(RateConstant.create(1.0e8)
+                        .forward().secondOrder()
+                        .concentrationUnit(MOLE_PER_LITRE)
+                        .timeUnit(SECOND)
+                        .build())
+                .identifier("binding")
+                .build();
+        RosenbrockIntegrator integrator = new RosenbrockIntegrator();
+        simulation.getScheduler().setParallelism(1);
+        simulation.getScheduler().setIntegrator(integrator);
+        for (int epoch = 0; epoch < 100; epoch++) {
+            simulation.nextEpoch();
+        }
+        simulation.getScheduler().shutdownExecutorService();
+        AutomatonNode node = simulation.getGraph().getNode(0, 0);
+        assertEquals(1.0, concentration(node, a) + concentration(node, c), 1e-8);
+        assertEquals(2.0, concentration(node, b) + concentration(node, c), 1e-8);
+        assertTrue(integrator.getErrorNorm() <= 1.0);
+    }
+
+    private static double concentration(AutomatonNode node, ChemicalEntity entity) {
+        return UnitRegistry.concentration(node.getConcentrationContainer().get(CYTOPLASM, entity)).to(MICRO_MOLE_PER_LITRE).getValue().doubleValue();
+    }
+
+    private static Simulation setupSimulation(int numberOfNodes, double diffusivity) {
+        Quantity<Length> systemExtend = Quantities.getQuantity(2500.0, NANO(METRE));
+        Environment.setSystemExtend(systemExtend);
+        Environment.setSimulationExtend(2500);
+        Environment.setNodeSpacingToDiameter(systemExtend, numberOfNodes);
+        ChemicalEntity a = SimpleEntity.create("A")
+                .assignFeature(ConcentrationDiffusivity.of(diffusivity, SQUARE_CENTIMETRE_PER_SECOND).build())
+                .small()
+                .build();
+        Rectangle boundingBox = new Rectangle(Environment.getSimulationExtend(), Environment.getSimulationExtend());
+        AutomatonGraph graph = AutomatonGraphs.useStructureFrom(Graphs.buildGridGraph(numberOfNodes, numberOfNodes, boundingBox));
+        for (AutomatonNode node : graph.getNodes()) {
+            double value = node.getIdentifier().getColumn() == 0 ? 2.0e-3 : 1.0e-3;
+            node.getConcentrationContainer().initialize(EXTRACELLULAR_REGION, a, Quantities.getQuantity(value, MOLE_PER_LITRE));
+        }
+        Simulation simulation = new Simulation();
+        simulation.setSimulationRegion(boundingBox);
+        simulation.setGraph(graph);
+        Diffusion.inSimulation(simulation)
+                .forEntity(a)
+                .forAllSections()
+                .build();
+        simulation.getScheduler().setParallelism(1);
+        return simulation;
+    }
+
+}
@@ -0,0 +1,224 @@
+package bio.singa.simulation.model.simulation.integrators;
+
+import bio.singa.chemistry.features.reactions.RateConstant;
+import bio.singa.features.parameters.Environment;
+import bio.singa.features.quantities.ConcentrationDiffusivity;
+import bio.singa.features.units.UnitRegistry;
+import bio.singa.mathematics.geometry.faces.Rectangle;
+import bio.singa.mathematics.graphs.model.Graphs;
+import bio.singa.mathematics.vectors.Vector2D;
+import bio.singa.simulation.entities.ChemicalEntity;
+import bio.singa.simulation.entities.SimpleEntity;
+import bio.singa.simulation.exceptions.NumericalInstabilityException;
+import bio.singa.simulation.model.agents.pointlike.Vesicle;
+import bio.singa.simulation.model.agents.pointlike.VesicleLayer;
+import bio.singa.simulation.model.graphs.AutomatonGraph;
+import bio.singa.simulation.model.graphs.AutomatonGraphs;
+import bio.singa.simulation.model.graphs.AutomatonNode;
+import bio.singa.simulation.model.modules.concentration.imlementations.reactions.Reaction;
+import bio.singa.simulation.model.modules.concentration.imlementations.reactions.ReactionBuilder;
+import bio.singa.simulation.model.modules.concentration.imlementations.transport.Diffusion;
+import bio.singa.simulation.model.simulation.Simulation;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import tech.units.indriya.quantity.Quantities;
+
+import javax.measure.Quantity;
+import javax.measure.quantity.Length;
+
+import static bio.singa.features.quantities.Diffusivity.SQUARE_CENTIMETRE_PER_SECOND;
+import static bio.singa.features.units.UnitProvider.MOLE_PER_LITRE;
+import static bio.singa.simulation.model.sections.CellRegions.CYTOPLASM_REGION;
+import static bio.singa.simulation.model.sections.CellSubsections.EXTRACELLULAR_REGION;
+import static bio.singa.simulation.model.sections.CellTopology.MEMBRANE;
+import static org.junit.jupiter.api.Assertions.*;
+import static tech.units.indriya.unit.MetricPrefix.NANO;
+import static tech.units.indriya.unit.Units.METRE;
+import static tech.units.indriya.unit.Units.SECOND;
+
+/**
+ * @author cl
+ */
+class StrangSplittingIntegratorTest {
+
+    private static final int NUMBER_OF_NODES = 5;
+
+    @BeforeAll
+    static void initialize() {
+        UnitRegistry.reinitialize();
+        Environment.reset();
+    }
+
+    @AfterEach
+    void cleanUp() {
+        UnitRegistry.reinitialize();
+        Environment.reset();
+    }
+
+    @Test
+    void shouldSubStepFastReactionsLocally() {
+        int epochs = 100;
+        SimulationResult stepDoubling = simulate(null, epochs, true);
+        UnitRegistry.reinitialize();
+        Environment.reset();
+        StrangSplittingIntegrator integrator = new StrangSplittingIntegrator();
+        SimulationResult splitting = simulate(integrator, epochs, true);
+        // the fast reaction no longer limits the time step of the diffusion
+        assertTrue(splitting.elapsedTime > 50 * stepDoubling.elapsedTime);
+        assertTrue(integrator.getLocalSteps() >= 2 * epochs * NUMBER_OF_NODES * NUMBER_OF_NODES);
+        // mass is conserved
+        assertEquals(splitting.initialMass, splitting.mass, splitting.initialMass * 1e-10);
+        // equilibrium of the fast reaction
+        assertEquals(2.0, splitting.ratio, 1e-3);
+    }
+
+    @Test
+    void shouldOnlyUseTransportIntegratorWithoutLocalModules() {
+        int epochs = 20;
+        SimulationResult stepDoubling = simulate(null, epochs, false);
+        UnitRegistry.reinitialize();
+        Environment.reset();
+        StrangSplittingIntegrator integrator = new StrangSplittingIntegrator();
+        SimulationResult splitting = simulate(integrator, epochs, false);
+        assertEquals(stepDoubling.elapsedTime, splitting.elapsedTime, stepDoubling.elapsedTime * 1e-12);
+        assertEquals(stepDoubling.concentration, splitting.concentration, stepDoubling.concentration * 1e-12);
+        assertEquals(0, integrator.getLocalSteps());
+    }
+
+    @Test
+    void shouldFailIfLocalSubStepsExceedTolerances() {
+        StrangSplittingIntegrator integrator = new StrangSplittingIntegrator();
+        // no sub-step is able to meet a tolerance of zero
+        integrator.setRelativeTolerance(Double.MIN_VALUE);
+        integrator.setAbsoluteTolerance(0.0);
+        assertThrows(NumericalInstabilityException.class, () -> simulate(integrator, 1, true));
+        assertTrue(integrator.getRejectedSteps() > 0);
+    }
+
+    @Test
+    void shouldOnlyIntegrateLocalModulesLocally() {
+        Simulation simulation = new Simulation();
+        AutomatonGraph graph = AutomatonGraphs.singularGraph();
+        AutomatonNode node = graph.getNode(0, 0);
+        node.setPosition(new Vector2D(50.0, 50.0));
+        node.setCellRegion(CYTOPLASM_REGION);
+        simulation.setGraph(graph);
+        ChemicalEntity a = SimpleEntity.create("A").build();
+        ChemicalEntity b = SimpleEntity.create("B").build();
+        Reaction cytoplasmicReaction = ReactionBuilder.staticReactants(simulation)
+                .addSubstrate(a)
+                .addProduct(b)
+                .irreversible()
+                .rate(RateConstant.create(1.0)
+                        .forward().firstOrder()
+                        .timeUnit(SECOND)
+                        .build())
+                .identifier("cytoplasmic reaction")
+                .build();
+        Reaction membraneReaction = ReactionBuilder.staticReactants(simulation)
+                .addSubstrate(a, MEMBRANE)
+                .addProduct(b, MEMBRANE)
+                .irreversible()
+                .rate(RateConstant.create(1.0)
+                        .forward().firstOrder()
+                        .timeUnit(SECOND)
+                        .build())
+                .identifier("membrane reaction")
+                .build();
+        Diffusion diffusion = Diffusion.inSimulation(simulation)
+                .forEntity(a)
+                .forAllSections()
+                .build();
+        assertTrue(cytoplasmicReaction.isLocal());
+        assertTrue(membraneReaction.isLocal());
+        assertFalse(diffusion.isLocal());
+        // reactions in vesicles refer to the associated nodes, unless all reactants are located in the membrane
+        VesicleLayer vesicleLayer = new VesicleLayer(simulation);
+        vesicleLayer.addVesicle(new Vesicle(new Vector2D(49.0, 49.0), Quantities.getQuantity(100.0, NANO(METRE))));
+        simulation.setVesicleLayer(vesicleLayer);
+        assertFalse(cytoplasmicReaction.isLocal());
+        assertTrue(membraneReaction.isLocal());
+    }
+
+    /**
+     * Simulates the diffusion of A and B on a grid, where A is located in the left half of the grid initially.
+     * Optionally, A and B are converted into each other by a fast reversible reaction (equilibrium at B/A = 2).
+     */
+    private static SimulationResult simulate(Integrator integrator, int epochs, boolean react) {
+        Quantity<Length> systemExtend = Quantities.getQuantity(2500.0, NANO(METRE));
+        Environment.setSystemExtend(systemExtend);
+        Environment.setSimulationExtend(2500);
+        Environment.setNodeSpacingToDiameter(systemExtend, NUMBER_OF_NODES);
+        ChemicalEntity a = SimpleEntity.create("A")
+                .assignFeature(ConcentrationDiffusivity.of(1.0E-08, SQUARE_CENTIMETRE_PER_SECOND).build())
+                .small()
+                .build();
+        ChemicalEntity b = SimpleEntity.create("B")
+                .assignFeature(ConcentrationDiffusivity.of(1.0E-08, SQUARE_CENTIMETRE_PER_SECOND).build())
+                .small()
+                .build();
+        Rectangle boundingBox = new Rectangle(Environment.getSimulationExtend(), Environment.getSimulationExtend());
+        AutomatonGraph graph = AutomatonGraphs.useStructureFrom(Graphs.buildGridGraph(NUMBER_OF_NODES, NUMBER_OF_NODES, boundingBox));
+        for (AutomatonNode node : graph.getNodes()) {
+            double concentration = node.getIdentifier().getColumn() < NUMBER_OF_NODES / 2 ? 1.0e-3 : 0.5e-3;
+            node.getConcentrationContainer().initialize(EXTRACELLULAR_REGION, a, Quantities.getQuantity(concentration, MOLE_PER_LITRE));
+            node.getConcentrationContainer().initialize(EXTRACELLULAR_REGION, b, Quantities.getQuantity(0.2e-3, MOLE_PER_LITRE));
+        }
+        Simulation simulation = new Simulation();
+        simulation.setGraph(graph);
+        Diffusion.inSimulation(simulation)
+                .forAllEntities(a, b)
+                .forAllSections()
+                .build();
+        if (react) {
+            ReactionBuilder.staticReactants(simulation)
+                    .addSubstrate(a)
+                    .addProduct(b)
+                    .reversible()
+                    .forwardReactionRate(RateConstant.create(1.0e6)
+                            .forward().firstOrder()
+                            .timeUnit(SECOND)
+                            .build())
+                    .backwardReactionRate(RateConstant.create(5.0e5)
+                            .backward().firstOrder()
+                            .timeUnit(SECOND)
+                            .build())
+                    .identifier("isomerization")
+                    .build();
+        }
+        simulation.getScheduler().setParallelism(1);
+        if (integrator != null) {
+            simulation.getScheduler().setIntegrator(integrator);
+        }
+        SimulationResult result = new SimulationResult();
+        result.initialMass = totalConcentration(graph, a) + totalConcentration(graph, b);
+        for (int epoch = 0; epoch < epochs; epoch++) {
+            simulation.nextEpoch();
+        }
+        simulation.getScheduler().shutdownExecutorService();
+        result.elapsedTime = simulation.getElapsedTime().to(SECOND).getValue().doubleValue();
+        result.mass = totalConcentration(graph, a) + totalConcentration(graph, b);
+        AutomatonNode node = graph.getNode(NUMBER_OF_NODES - 1, 0);
+        result.concentration = node.getConcentrationContainer().get(EXTRACELLULAR_REGION, a);
+        result.ratio = node.getConcentrationContainer().get(EXTRACELLULAR_REGION, b) / node.getConcentrationContainer().get(EXTRACELLULAR_REGION, a);
+        return result;
+    }
+
+    private static double totalConcentration(AutomatonGraph graph, ChemicalEntity entity) {
+        double total = 0.0;
+        for (AutomatonNode node : graph.getNodes()) {
+            total += node.getConcentrationContainer().get(EXTRACELLULAR_REGION, entity);
+        }
+        return total;
+    }
+
+    private static class SimulationResult {
+        private double elapsedTime;
+        private double initialMass;
+        private double mass;
+        private double concentration;
+        private double ratio;
+    }
+
+}
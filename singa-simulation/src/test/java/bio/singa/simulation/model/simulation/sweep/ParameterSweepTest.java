@@ -0,0 +1,152 @@
+package bio.singa.simulation.model.simulation.sweep;
+
+import bio.singa.features.parameters.Environment;
+import bio.singa.features.quantities.ConcentrationDiffusivity;
+import bio.singa.mathematics.geometry.faces.Rectangle;
+import bio.singa.mathematics.graphs.model.Graphs;
+import bio.singa.mathematics.topology.grids.rectangular.RectangularCoordinate;
+import bio.singa.simulation.entities.ChemicalEntity;
+import bio.singa.simulation.entities.SimpleEntity;
+import bio.singa.simulation.model.graphs.AutomatonGraph;
+import bio.singa.simulation.model.graphs.AutomatonGraphs;
+import bio.singa.simulation.model.graphs.AutomatonNode;
+import bio.singa.simulation.model.modules.concentration.imlementations.transport.Diffusion;
+import bio.singa.simulation.model.simulation.Simulation;
+import org.junit.jupiter.api.Test;
+import tech.units.indriya.quantity.Quantities;
+
+import javax.measure.Quantity;
+import javax.measure.quantity.Length;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static bio.singa.features.quantities.Diffusivity.SQUARE_CENTIMETRE_PER_SECOND;
+import static bio.singa.features.units.UnitProvider.MOLE_PER_LITRE;
+import static bio.singa.simulation.model.sections.CellSubsections.EXTRACELLULAR_REGION;
+import static org.junit.jupiter.api.Assertions.*;
+import static tech.units.indriya.unit.MetricPrefix.NANO;
+import static tech.units.indriya.unit.Units.METRE;
+
+/**
+ * @author cl
+ */
+class ParameterSweepTest {
+
+    private static final Quantity<Length> systemExtend = Quantities.getQuantity(2500.0, NANO(METRE));
+    private static final int numberOfNodes = 5;
+    private static final RectangularCoordinate observedCoordinate = new RectangularCoordinate(numberOfNodes / 2, numberOfNodes / 2);
+
+    @Test
+    void shouldRunAllVariations() {
+        ParameterSweep sweep = ParameterSweep.of(ParameterSweepTest::createSimulation)
+                .threads(2)
+                .terminateAfterEpochs(30)
+                .observe(ParameterSweepTest::observeConcentration);
+        List<VariableFeature> variableFeatures = sweep.getVariableFeatures();
+        assertEquals(2, variableFeatures.size());
+        assertEquals(6, sweep.getVariations().size());
+
+        SweepSummary summary = sweep.run();
+        assertEquals(0, summary.getNumberOfFailures());
+        List<SweepResult> results = summary.getResults();
+        assertEquals(6, results.size());
+        for (int index = 0; index < results.size(); index++) {
+            assertEquals(index, results.get(index).getVariation().getIndex());
+        }
+        // the last feature varies fastest
+        Variation variation = results.get(4).getVariation();
+        assertEquals(1, variation.getAlternativeIndex(0));
+        assertEquals(1, variation.getAlternativeIndex(1));
+        // each run used the features of its variation
+        for (SweepResult result : results) {
+            assertEquals(result.getVariation().getValue(0), result.getObservations().get("fast diffusivity").doubleValue());
+        }
+        // the variations result in different time steps
+        String elapsedTime = summary.getObservationLabels().get(1);
+        assertNotEquals(results.get(0).getObservations().get(elapsedTime), results.get(3).getObservations().get(elapsedTime));
+
+        String[] lines = summary.toCSV().split(System.lineSeparator());
+        assertEquals(7, lines.length);
+        assertTrue(lines[0].startsWith("variation," + variableFeatures.get(0).getLabel()));
+        assertTrue(lines[0].endsWith(",status"));
+        assertTrue(lines[1].endsWith("succeeded"));
+    }
+
+    @Test
+    void shouldFailOnlyRunsWithFailingObservations() {
+        ParameterSweep sweep = ParameterSweep.of(ParameterSweepTest::createSimulation)
+                .threads(2)
+                .terminateAfterEpochs(5);
+        sweep.observe(simulation -> {
+            Map<String, Double> observations = observeConcentration(simulation);
+            if (observations.get("fast diffusivity") < 3.0E-05) {
+                throw new IllegalStateException("Unable to observe slow variation.");
+            }
+            // the processors are divided between the concurrent runs
+            observations.put("workers", (double) simulation.getScheduler().getPool().getParallelism());
+            return observations;
+        });
+        SweepSummary summary = sweep.run();
+        assertEquals(6, summary.getResults().size());
+        assertEquals(3, summary.getNumberOfFailures());
+        for (SweepResult result : summary.getResults()) {
+            if (result.getVariation().getValue(0) < 3.0E-05) {
+                assertTrue(result.isFailed());
+                assertTrue(result.getFailure() instanceof IllegalStateException);
+            } else {
+                assertFalse(result.isFailed());
+                assertEquals(sweep.getSchedulerParallelism(), result.getObservations().get("workers").intValue());
+            }
+        }
+    }
+
+    private static Simulation createSimulation() {
+        Environment.setSystemExtend(systemExtend);
+        Environment.setSimulationExtend(2500);
+        Environment.setNodeSpacingToDiameter(systemExtend, numberOfNodes);
+        ConcentrationDiffusivity fastDiffusivity = ConcentrationDiffusivity.of(4.40E-05, SQUARE_CENTIMETRE_PER_SECOND).build();
+        fastDiffusivity.addAlternativeValue(2.20E-05);
+        fastDiffusivity.addAlternativeValue(4.40E-05);
+        ConcentrationDiffusivity slowDiffusivity = ConcentrationDiffusivity.of(1.09E-05, SQUARE_CENTIMETRE_PER_SECOND).build();
+        slowDiffusivity.addAlternativeValue(0.50E-05);
+        slowDiffusivity.addAlternativeValue(1.00E-05);
+        slowDiffusivity.addAlternativeValue(1.50E-05);
+        ChemicalEntity fast = SimpleEntity.create("fast")
+                .assignFeature(fastDiffusivity)
+                .small()
+                .build();
+        ChemicalEntity slow = SimpleEntity.create("slow")
+                .assignFeature(slowDiffusivity)
+                .small()
+                .build();
+        Rectangle boundingBox = new Rectangle(Environment.getSimulationExtend(), Environment.getSimulationExtend());
+        AutomatonGraph graph = AutomatonGraphs.useStructureFrom(Graphs.buildGridGraph(numberOfNodes, numberOfNodes, boundingBox));
+        for (AutomatonNode node : graph.getNodes()) {
+            double concentration = node.getIdentifier().getColumn() < numberOfNodes / 2 ? 1.0 : 0.0;
+            node.getConcentrationContainer().initialize(EXTRACELLULAR_REGION, fast, Quantities.getQuantity(concentration, MOLE_PER_LITRE));
+            node.getConcentrationContainer().initialize(EXTRACELLULAR_REGION, slow, Quantities.getQuantity(concentration, MOLE_PER_LITRE));
+        }
+        Simulation simulation = new Simulation();
+        simulation.setGraph(graph);
+        Diffusion.inSimulation(simulation)
+                .forAllEntities(fast, slow)
+                .forAllSections()
+                .build();
+        return simulation;
+    }
+
+    private static Map<String, Double> observeConcentration(Simulation simulation) {
+        AutomatonNode node = simulation.getGraph().getNode(observedCoordinate);
+        SimpleEntity fast = simulation.getChemicalEntities().stream()
+                .filter(entity -> entity.getIdentifier().equals("fast"))
+                .map(SimpleEntity.class::cast)
+                .findAny()
+                .orElseThrow(IllegalStateException::new);
+        Map<String, Double> observations = new HashMap<>();
+        observations.put("concentration", node.getConcentrationContainer().get(EXTRACELLULAR_REGION, fast));
+        observations.put("fast diffusivity", fast.getFeature(ConcentrationDiffusivity.class).getContent().getValue().doubleValue());
+        return observations;
+    }
+
+}
@@ -0,0 +1,167 @@
+package bio.singa.simulation.model.simulation.telemetry;
+
+import bio.singa.features.parameters.Environment;
+import bio.singa.features.quantities.ConcentrationDiffusivity;
+import bio.singa.features.units.UnitRegistry;
+import bio.singa.mathematics.geometry.faces.Rectangle;
+import bio.singa.mathematics.graphs.model.Graphs;
+import bio.singa.simulation.entities.ChemicalEntity;
+import bio.singa.simulation.entities.SimpleEntity;
+import bio.singa.simulation.model.graphs.AutomatonGraph;
+import bio.singa.simulation.model.graphs.AutomatonGraphs;
+import bio.singa.simulation.model.graphs.AutomatonNode;
+import bio.singa.simulation.model.modules.concentration.imlementations.transport.Diffusion;
+import bio.singa.simulation.model.simulation.Simulation;
+import bio.singa.simulation.model.simulation.error.TimeStepManager;
+import bio.singa.simulation.model.simulation.integrators.ButcherTableau;
+import bio.singa.simulation.model.simulation.integrators.EmbeddedRungeKuttaIntegrator;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import tech.units.indriya.quantity.Quantities;
+
+import javax.management.ObjectName;
+import javax.measure.Quantity;
+import javax.measure.quantity.Length;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static bio.singa.features.quantities.Diffusivity.SQUARE_CENTIMETRE_PER_SECOND;
+import static bio.singa.features.units.UnitProvider.MOLE_PER_LITRE;
+import static bio.singa.simulation.model.sections.CellSubsections.EXTRACELLULAR_REGION;
+import static org.junit.jupiter.api.Assertions.*;
+import static tech.units.indriya.unit.MetricPrefix.NANO;
+import static tech.units.indriya.unit.Units.METRE;
+
+/**
+ * @author cl
+ */
+class SimulationMetricsTest {
+
+    private static final int NUMBER_OF_NODES = 5;
+    private static final int NUMBER_OF_EPOCHS = 20;
+
+    @BeforeAll
+    static void initialize() {
+        UnitRegistry.reinitialize();
+        Environment.reset();
+    }
+
+    @AfterEach
+    void cleanUp() {
+        UnitRegistry.reinitialize();
+        Environment.reset();
+    }
+
+    @Test
+    void shouldRecordSchedulingMetrics() throws Exception {
+        Simulation simulation = setupSimulation();
+        for (int epoch = 0; epoch < NUMBER_OF_EPOCHS; epoch++) {
+            simulation.nextEpoch();
+        }
+        simulation.getScheduler().shutdownExecutorService();
+        SimulationMetrics metrics = simulation.getScheduler().getMetrics();
+        assertEquals(NUMBER_OF_EPOCHS, metrics.getEpochs());
+        assertTrue(metrics.getRounds() >= NUMBER_OF_EPOCHS);
+        // every decrease of the time step rejects a step
+        long decreases = simulation.getContext().call(TimeStepManager::getTimeStepsDecreased);
+        long increases = simulation.getContext().call(TimeStepManager::getTimeStepsIncreased);
+        assertEquals(decreases, metrics.getRejectedSteps());
+        assertEquals(increases, (long) metrics.getTimeStepAdjustments().get("INCREASE"));
+        // the diffusion module is calculated at least once per round
+        assertEquals(1, metrics.getModuleInvocations().size());
+        long invocations = metrics.getModuleInvocations().values().iterator().next();
+        assertTrue(invocations >= metrics.getRounds());
+        assertTrue(metrics.getModuleWallTimes().values().iterator().next() > 0.0);
+        assertTrue(metrics.getMaximalEpochWallTime() >= metrics.getAverageEpochWallTime());
+        // every accepted time step is part of the histogram
+        assertEquals(NUMBER_OF_EPOCHS, metrics.getTimeStepHistogram().values().stream().mapToLong(Long::longValue).sum());
+        metrics.reset();
+        assertEquals(0, metrics.getEpochs());
+        assertEquals(0, (long) metrics.getModuleInvocations().values().iterator().next());
+    }
+
+    @Test
+    void shouldRecordStageRounds() {
+        Simulation simulation = setupSimulation();
+        ButcherTableau tableau = ButcherTableau.BOGACKI_SHAMPINE;
+        simulation.getScheduler().setIntegrator(new EmbeddedRungeKuttaIntegrator(tableau));
+        for (int epoch = 0; epoch < NUMBER_OF_EPOCHS; epoch++) {
+            simulation.nextEpoch();
+        }
+        simulation.getScheduler().shutdownExecutorService();
+        SimulationMetrics metrics = simulation.getScheduler().getMetrics();
+        // each attempt calculates the other modules once and the concentration based modules once per stage
+        assertTrue(metrics.getRounds() >= NUMBER_OF_EPOCHS * (tableau.getNumberOfStages() + 1));
+        long invocations = metrics.getModuleInvocations().values().iterator().next();
+        assertTrue(invocations >= NUMBER_OF_EPOCHS * tableau.getNumberOfStages());
+    }
+
+    @Test
+    void shouldExposeMetrics() throws Exception {
+        Simulation simulation = setupSimulation();
+        Path csvFile = Files.createTempFile("metrics", ".csv");
+        Path jsonFile = Files.createTempFile("metrics", ".json");
+        Files.delete(csvFile);
+        SimulationMetrics metrics = simulation.getScheduler().getMetrics();
+        try {
+            metrics.registerMBean("metrics test");
+            MetricsRecorder csvRecorder = new MetricsRecorder(simulation, csvFile, MetricsRecorder.Format.CSV, 5);
+            MetricsRecorder jsonRecorder = new MetricsRecorder(simulation, jsonFile, MetricsRecorder.Format.JSON, 5);
+            for (int epoch = 0; epoch < 10; epoch++) {
+                simulation.nextEpoch();
+                csvRecorder.onEventReceived(null);
+                jsonRecorder.onEventReceived(null);
+            }
+            simulation.getScheduler().shutdownExecutorService();
+            // jmx
+            ObjectName name = metrics.getObjectName();
+            assertEquals(10L, ManagementFactory.getPlatformMBeanServer().getAttribute(name, "Epochs"));
+            // csv contains two snapshots
+            List<String> lines = Files.readAllLines(csvFile, StandardCharsets.UTF_8);
+            assertEquals("epoch,group,name,value", lines.get(0));
+            assertTrue(lines.contains("5,scheduling,epochs,5"));
+            assertTrue(lines.contains("10,scheduling,epochs,10"));
+            // json contains the latest snapshot
+            String json = new String(Files.readAllBytes(jsonFile), StandardCharsets.UTF_8);
+            assertTrue(json.contains("\"epoch\": 10"));
+            assertTrue(json.contains("\"epochs\": 10"));
+            assertTrue(json.contains("\"timeStepHistogram\": {"));
+        } finally {
+            metrics.unregisterMBean();
+            Files.deleteIfExists(csvFile);
+            Files.deleteIfExists(jsonFile);
+        }
+        assertNull(metrics.getObjectName());
+    }
+
+    private static Simulation setupSimulation() {
+        Quantity<Length> systemExtend = Quantities.getQuantity(2500.0, NANO(METRE));
+        Environment.setSystemExtend(systemExtend);
+        Environment.setSimulationExtend(2500);
+        Environment.setNodeSpacingToDiameter(systemExtend, NUMBER_OF_NODES);
+        ChemicalEntity a = SimpleEntity.create("A")
+                .assignFeature(ConcentrationDiffusivity.of(1.0E-08, SQUARE_CENTIMETRE_PER_SECOND).build())
+                .small()
+                .build();
+        Rectangle boundingBox = new Rectangle(Environment.getSimulationExtend(), Environment.getSimulationExtend());
+        AutomatonGraph graph = AutomatonGraphs.useStructureFrom(Graphs.buildGridGraph(NUMBER_OF_NODES, NUMBER_OF_NODES, boundingBox));
+        for (AutomatonNode node : graph.getNodes()) {
+            double value = node.getIdentifier().getColumn() == 0 ? 2.0e-3 : 1.0e-3;
+            node.getConcentrationContainer().initialize(EXTRACELLULAR_REGION, a, Quantities.getQuantity(value, MOLE_PER_LITRE));
+        }
+        Simulation simulation = new Simulation();
+        simulation.setSimulationRegion(boundingBox);
+        simulation.setGraph(graph);
+        Diffusion.inSimulation(simulation)
+                .forEntity(a)
+                .forAllSections()
+                .build();
+        simulation.getScheduler().setParallelism(1);
+        return simulation;
+    }
+
+}
@@ -0,0 +1,133 @@
+package bio.singa.simulation.reactions;
+
+import bio.singa.simulation.entities.BindingSite;
+import bio.singa.simulation.entities.ChemicalEntity;
+import bio.singa.simulation.entities.ComplexEntity;
+import bio.singa.simulation.entities.EntityRegistry;
+import bio.singa.simulation.entities.SimpleEntity;
+import bio.singa.simulation.model.simulation.Simulation;
+import bio.singa.simulation.reactions.reactors.ReactionChain;
+import bio.singa.simulation.reactions.reactors.ReactionChainBuilder;
+import bio.singa.simulation.reactions.reactors.ReactionElement;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static bio.singa.simulation.reactions.conditions.CandidateConditionBuilder.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author cl
+ */
+class ReactionNetworkGeneratorTest {
+
+    private static ChemicalEntity akap;
+    private static ChemicalEntity pkar;
+    private static ChemicalEntity pkac;
+    private static ChemicalEntity atp;
+    private static ChemicalEntity camp;
+
+    private static BindingSite camp1;
+    private static BindingSite camp2;
+
+    @BeforeAll
+    static void initialize() {
+        akap = SimpleEntity.create("AKAP").membraneBound().build();
+        pkar = SimpleEntity.create("PKAR").build();
+        pkac = SimpleEntity.create("PKAC").build();
+        atp = SimpleEntity.create("ATP").small().build();
+        camp = SimpleEntity.create("CAMP").small().build();
+        camp1 = BindingSite.createNamed("pkar-camp1");
+        camp2 = BindingSite.createNamed("pkar-camp2");
+    }
+
+    @Test
+    void shouldDistinguishTopologies() {
+        ChemicalEntity a = SimpleEntity.create("A").build();
+        ChemicalEntity b = SimpleEntity.create("B").build();
+        BindingSite first = BindingSite.createNamed("first");
+        BindingSite second = BindingSite.createNamed("second");
+        List<BindingSite> bindingSites = Arrays.asList(first, second);
+        // same topology, different order of nodes
+        ComplexEntity abFirst = ComplexEntity.from(a, bindingSites).bind(ComplexEntity.from(b, bindingSites), first).get();
+        ComplexEntity baFirst = ComplexEntity.from(b, bindingSites).bind(ComplexEntity.from(a, bindingSites), first).get();
+        assertEquals(abFirst, baFirst);
+        assertEquals(abFirst.hashCode(), baFirst.hashCode());
+        assertEquals(abFirst.getIndex(), baFirst.getIndex());
+        // same composition, bound at a different binding site
+        ComplexEntity abSecond = ComplexEntity.from(a, bindingSites).bind(ComplexEntity.from(b, bindingSites), second).get();
+        assertEquals(abFirst.getIdentifier(), abSecond.getIdentifier());
+        assertNotEquals(abFirst, abSecond);
+        assertNotEquals(abFirst.getIndex(), abSecond.getIndex());
+        // both topologies are retained, although they share the identifier
+        assertNotEquals(EntityRegistry.getKey(abFirst), EntityRegistry.getKey(abSecond));
+        assertTrue(EntityRegistry.getAll().contains(abFirst));
+        assertTrue(EntityRegistry.getAll().contains(abSecond));
+        assertNotNull(EntityRegistry.matchExactly("A", "B"));
+        Simulation simulation = new Simulation();
+        simulation.addReferencedEntity(abFirst);
+        simulation.addReferencedEntity(abSecond);
+        simulation.addReferencedEntity(baFirst);
+        assertEquals(2, simulation.getChemicalEntities().size());
+        assertEquals(abFirst.getIdentifier(), simulation.getChemicalEntity(abFirst.getIdentifier()).getIdentifier());
+        simulation.getScheduler().shutdownExecutorService();
+    }
+
+    @Test
+    void shouldGenerateCompleteNetworkInParallel() {
+        ReactionNetworkGenerator sequentialGenerator = createGenerator();
+        sequentialGenerator.setParallel(false);
+        sequentialGenerator.generate();
+        ReactionNetworkGenerator parallelGenerator = createGenerator();
+        parallelGenerator.generate();
+        assertEquals(sequentialGenerator.getPossibleEntities(), parallelGenerator.getPossibleEntities());
+        assertEquals(collectReactions(sequentialGenerator), collectReactions(parallelGenerator));
+        // the prereaction product replaces the unbound akap
+        assertFalse(parallelGenerator.getPossibleEntities().contains(ComplexEntity.from(akap)));
+        // reprocessing all entities does not yield any new reactions
+        List<ComplexEntity> allEntities = new ArrayList<>(parallelGenerator.getPossibleEntities());
+        Map<String, Set<ReactionElement>> reactions = collectReactions(parallelGenerator);
+        for (ReactionChain reactionChain : parallelGenerator.getReactionChains()) {
+            assertTrue(reactionChain.process(allEntities, null).isEmpty());
+            assertFalse(reactions.get(reactionChain.getIdentifier()).isEmpty());
+        }
+    }
+
+    private static ReactionNetworkGenerator createGenerator() {
+        ReactionNetworkGenerator generator = new ReactionNetworkGenerator();
+        generator.addPreReaction(ReactionChainBuilder.bind(pkar)
+                .to(akap)
+                .identifier("akap pkar binding")
+                .build());
+        generator.add(ReactionChainBuilder.bind(pkac)
+                .to(pkar)
+                .identifier("pkar pkac binding")
+                .build());
+        generator.add(ReactionChainBuilder.bind(camp1, camp)
+                .to(pkar)
+                .identifier("pkar camp pocket a binding")
+                .build());
+        generator.add(ReactionChainBuilder.bind(camp2, camp)
+                .to(pkar)
+                .secondaryCondition(hasOccupiedBindingSite(camp1))
+                .identifier("pkar camp pocket b binding")
+                .considerInversion()
+                .build());
+        generator.add(ReactionChainBuilder.bind(atp)
+                .to(pkac)
+                .secondaryCondition(hasNoneOfEntity(pkar))
+                .identifier("pkac atp binding")
+                .build());
+        return generator;
+    }
+
+    private static Map<String, Set<ReactionElement>> collectReactions(ReactionNetworkGenerator generator) {
+        Map<String, Set<ReactionElement>> reactions = new HashMap<>();
+        for (ReactionChain reactionChain : generator.getReactionChains()) {
+            reactions.put(reactionChain.getIdentifier(), new HashSet<>(reactionChain.getReactantElements()));
+        }
+        return reactions;
+    }
+
+}
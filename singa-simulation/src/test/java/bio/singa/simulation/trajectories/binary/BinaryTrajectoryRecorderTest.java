@@ -0,0 +1,216 @@
+package bio.singa.simulation.trajectories.binary;
+
+import bio.singa.chemistry.features.reactions.RateConstant;
+import bio.singa.features.parameters.Environment;
+import bio.singa.features.units.UnitRegistry;
+import bio.singa.simulation.entities.ChemicalEntity;
+import bio.singa.simulation.entities.SimpleEntity;
+import bio.singa.simulation.events.GraphUpdatedEvent;
+import bio.singa.simulation.model.concentrations.ConcentrationBuilder;
+import bio.singa.simulation.model.graphs.AutomatonGraphs;
+import bio.singa.simulation.model.graphs.AutomatonNode;
+import bio.singa.simulation.model.modules.concentration.imlementations.reactions.ReactionBuilder;
+import bio.singa.simulation.model.simulation.Simulation;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import static bio.singa.features.units.UnitProvider.MICRO_MOLE_PER_LITRE;
+import static bio.singa.simulation.model.sections.CellRegions.CELL_INNER_MEMBRANE_REGION;
+import static bio.singa.simulation.model.sections.CellRegions.CYTOPLASM_REGION;
+import static bio.singa.simulation.model.sections.CellSubsections.CELL_OUTER_MEMBRANE;
+import static bio.singa.simulation.model.sections.CellSubsections.CYTOPLASM;
+import static org.junit.jupiter.api.Assertions.*;
+import static tech.units.indriya.quantity.Quantities.getQuantity;
+import static tech.units.indriya.unit.MetricPrefix.MILLI;
+import static tech.units.indriya.unit.Units.SECOND;
+
+/**
+ * @author cl
+ */
+class BinaryTrajectoryRecorderTest {
+
+    @BeforeAll
+    static void initialize() {
+        UnitRegistry.reinitialize();
+        Environment.reset();
+    }
+
+    @AfterEach
+    void cleanUp() {
+        UnitRegistry.reinitialize();
+        Environment.reset();
+    }
+
+    @Test
+    void shouldWriteAndReadTrajectory() throws IOException {
+        Simulation simulation = new Simulation();
+        simulation.setGraph(AutomatonGraphs.singularGraph(CYTOPLASM_REGION));
+        ChemicalEntity a = SimpleEntity.create("A").build();
+        ChemicalEntity b = SimpleEntity.create("B").build();
+        ConcentrationBuilder.create(simulation)
+                .entity(a)
+                .subsection(CYTOPLASM)
+                .concentrationValue(1.0)
+                .microMolar()
+                .build();
+        ReactionBuilder.staticReactants(simulation)
+                .addSubstrate(a)
+                .addProduct(b)
+                .irreversible()
+                .rate(RateConstant.create(1.0)
+                        .forward().firstOrder()
+                        .timeUnit(SECOND)
+                        .build())
+                .identifier("conversion")
+                .build();
+
+        Path workspace = Files.createTempDirectory("junit-tests");
+        BinaryTrajectoryRecorder recorder = BinaryTrajectoryRecorder.create()
+                .workspace(workspace)
+                .directory("binary", false)
+                .simulation(simulation)
+                .concentrationUnit(MICRO_MOLE_PER_LITRE)
+                .timeUnit(MILLI(SECOND))
+                .build();
+
+        AutomatonNode node = simulation.getGraph().getNode(0, 0);
+        int numberOfTimePoints = 25;
+        double[] expectedTimes = new double[numberOfTimePoints];
+        double[] expectedConcentrations = new double[numberOfTimePoints];
+        for (int timePoint = 0; timePoint < numberOfTimePoints; timePoint++) {
+            simulation.nextEpoch();
+            GraphUpdatedEvent event = new GraphUpdatedEvent(simulation.getGraph(), simulation.getElapsedTime());
+            recorder.onEventReceived(event);
+            expectedTimes[timePoint] = simulation.getElapsedTime().to(MILLI(SECOND)).getValue().doubleValue();
+            expectedConcentrations[timePoint] = UnitRegistry.concentration(node.getConcentrationContainer().get(CYTOPLASM, a)).to(MICRO_MOLE_PER_LITRE).getValue().doubleValue();
+        }
+        simulation.getScheduler().shutdownExecutorService();
+        recorder.close();
+
+        BinaryTrajectory trajectory = BinaryTrajectory.open(recorder.getTrajectoryFile());
+        assertEquals(numberOfTimePoints, trajectory.getNumberOfTimePoints());
+        assertEquals(MICRO_MOLE_PER_LITRE.toString(), trajectory.getConcentrationUnit());
+        assertTrue(trajectory.getEntities().contains("A"));
+        assertTrue(trajectory.getEntities().contains("B"));
+        assertEquals(1, trajectory.getUpdatables().size());
+        assertArrayEquals(expectedTimes, trajectory.getTimes(), 1e-12);
+        String updatable = node.getStringIdentifier();
+        assertArrayEquals(expectedConcentrations, trajectory.getTimeSeries(updatable, CYTOPLASM.getIdentifier(), "A"), 1e-12);
+        // the product accumulates what the substrate loses
+        Map<String, double[]> product = trajectory.getTimeSeries(CYTOPLASM.getIdentifier(), "B");
+        double[] productConcentrations = product.get(updatable);
+        for (int timePoint = 0; timePoint < numberOfTimePoints; timePoint++) {
+            assertEquals(1.0, expectedConcentrations[timePoint] + productConcentrations[timePoint], 1e-10);
+        }
+        assertThrows(NoSuchElementException.class, () -> trajectory.getTimeSeries(updatable, CYTOPLASM.getIdentifier(), "C"));
+    }
+
+    @Test
+    void shouldOnlyRecordPresentEntities() throws IOException {
+        Simulation simulation = new Simulation();
+        simulation.setGraph(AutomatonGraphs.singularGraph(CELL_INNER_MEMBRANE_REGION));
+        ChemicalEntity a = SimpleEntity.create("A").build();
+        ChemicalEntity b = SimpleEntity.create("B").build();
+        AutomatonNode node = simulation.getGraph().getNode(0, 0);
+        node.getConcentrationContainer().set(CYTOPLASM, a, 1.0);
+        node.getConcentrationContainer().set(CELL_OUTER_MEMBRANE, b, 2.0);
+
+        BinaryTrajectoryRecorder recorder = createRecorder(simulation);
+        recorder.addUpdatableToObserve(node);
+        recorder.onEventReceived(new GraphUpdatedEvent(simulation.getGraph(), getQuantity(1.0, SECOND)));
+        recorder.close();
+
+        BinaryTrajectory trajectory = BinaryTrajectory.open(recorder.getTrajectoryFile());
+        // neither A in the membrane nor B in the cytoplasm
+        assertEquals(2, trajectory.getNumberOfColumns());
+        String updatable = node.getStringIdentifier();
+        assertEquals(1, trajectory.getTimeSeries(updatable, CYTOPLASM.getIdentifier(), "A").length);
+        assertEquals(1, trajectory.getTimeSeries(updatable, CELL_OUTER_MEMBRANE.getIdentifier(), "B").length);
+        assertThrows(NoSuchElementException.class, () -> trajectory.getTimeSeries(updatable, CYTOPLASM.getIdentifier(), "B"));
+        assertThrows(NoSuchElementException.class, () -> trajectory.getTimeSeries(updatable, CELL_OUTER_MEMBRANE.getIdentifier(), "A"));
+    }
+
+    @Test
+    void shouldFlushPeriodically() throws IOException {
+        Simulation simulation = new Simulation();
+        simulation.setGraph(AutomatonGraphs.singularGraph(CYTOPLASM_REGION));
+        ChemicalEntity a = SimpleEntity.create("A").build();
+        AutomatonNode node = simulation.getGraph().getNode(0, 0);
+
+        BinaryTrajectoryRecorder recorder = createRecorder(simulation);
+        recorder.setFlushInterval(0);
+        recorder.addUpdatableToObserve(node);
+        int numberOfTimePoints = 5;
+        for (int timePoint = 0; timePoint < numberOfTimePoints; timePoint++) {
+            node.getConcentrationContainer().set(CYTOPLASM, a, UnitRegistry.concentration(timePoint, MICRO_MOLE_PER_LITRE).getValue().doubleValue());
+            recorder.onEventReceived(new GraphUpdatedEvent(simulation.getGraph(), getQuantity(timePoint, SECOND)));
+        }
+        // simulate a crash while the next chunk is written
+        try (FileChannel channel = FileChannel.open(recorder.getTrajectoryFile(), StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            ByteBuffer incompleteChunk = ByteBuffer.allocate(Integer.BYTES + Double.BYTES);
+            incompleteChunk.putInt(3).putDouble(5.0).flip();
+            channel.write(incompleteChunk);
+        }
+
+        // the time points are readable without closing the recorder
+        BinaryTrajectory trajectory = BinaryTrajectory.open(recorder.getTrajectoryFile());
+        assertEquals(numberOfTimePoints, trajectory.getNumberOfTimePoints());
+        double[] concentrations = trajectory.getTimeSeries(node.getStringIdentifier(), CYTOPLASM.getIdentifier(), "A");
+        for (int timePoint = 0; timePoint < numberOfTimePoints; timePoint++) {
+            assertEquals(timePoint * 1000.0, trajectory.getTimes()[timePoint], 1e-12);
+            assertEquals(timePoint, concentrations[timePoint], 1e-12);
+        }
+    }
+
+    @Test
+    void shouldRejectInconsistentHeader() throws IOException {
+        Simulation simulation = new Simulation();
+        simulation.setGraph(AutomatonGraphs.singularGraph(CYTOPLASM_REGION));
+        ChemicalEntity a = SimpleEntity.create("A").build();
+        AutomatonNode node = simulation.getGraph().getNode(0, 0);
+        node.getConcentrationContainer().set(CYTOPLASM, a, 1.0);
+
+        BinaryTrajectoryRecorder recorder = createRecorder(simulation);
+        recorder.addUpdatableToObserve(node);
+        recorder.onEventReceived(new GraphUpdatedEvent(simulation.getGraph(), getQuantity(1.0, SECOND)));
+        recorder.close();
+        Path file = recorder.getTrajectoryFile();
+        assertEquals(1, BinaryTrajectory.open(file).getNumberOfTimePoints());
+
+        // header length exceeding the file
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            ByteBuffer headerLength = ByteBuffer.allocate(Integer.BYTES);
+            headerLength.putInt(Integer.MAX_VALUE).flip();
+            channel.write(headerLength, 2 * Integer.BYTES);
+        }
+        assertThrows(UncheckedIOException.class, () -> BinaryTrajectory.open(file));
+
+        // truncated fixed header
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.truncate(Integer.BYTES);
+        }
+        assertThrows(UncheckedIOException.class, () -> BinaryTrajectory.open(file));
+    }
+
+    private static BinaryTrajectoryRecorder createRecorder(Simulation simulation) throws IOException {
+        return BinaryTrajectoryRecorder.create()
+                .workspace(Files.createTempDirectory("junit-tests"))
+                .directory("binary", false)
+                .simulation(simulation)
+                .concentrationUnit(MICRO_MOLE_PER_LITRE)
+                .timeUnit(MILLI(SECOND))
+                .build();
+    }
+
+}
@@ -0,0 +1,88 @@
+package uk.co.cogitolearning.cogpar;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author cl
+ */
+class CompiledExpressionTest {
+
+    private static final String[] EXPRESSIONS = {
+            "2*(1+sin(pi/2))^2",
+            "-a+b*c/d-e",
+            "1/a-(-b)",
+            "exp(-a*b)/(1+sqrt(c))",
+            "a^b^c",
+            "log(a)+ln(b)*log2(c)-abs(d-e)"
+    };
+
+    @Test
+    void shouldEvaluateLikeExpressionTree() {
+        double[] values = {0.5, 1.5, 2.5, 3.5, 4.5, Math.PI};
+        String[] names = {"a", "b", "c", "d", "e", "pi"};
+        ExpressionParser parser = new ExpressionParser();
+        for (String expressionString : EXPRESSIONS) {
+            ExpressionNode tree = parser.parse(expressionString);
+            CompiledExpression compiled = CompiledExpression.compile(tree);
+            double[] slots = compiled.createSlots();
+            for (int index = 0; index < names.length; index++) {
+                tree.accept(new SetVariable(names[index], values[index]));
+                int slot = compiled.getSlot(names[index]);
+                if (slot >= 0) {
+                    slots[slot] = values[index];
+                }
+            }
+            assertEquals(tree.getValue(), compiled.evaluate(slots), expressionString);
+            // slots can be reused
+            assertEquals(tree.getValue(), compiled.evaluate(slots), expressionString);
+        }
+    }
+
+    @Test
+    void shouldAssignSlotsToDistinctVariables() {
+        CompiledExpression compiled = CompiledExpression.compile(new ExpressionParser().parse("k*S/(km+S)"));
+        List<String> variables = compiled.getVariables();
+        assertEquals(3, variables.size());
+        assertEquals(variables.indexOf("S"), compiled.getSlot("S"));
+        assertEquals(-1, compiled.getSlot("E"));
+    }
+
+    @Test
+    void shouldEvaluateConcurrently() throws InterruptedException, ExecutionException {
+        CompiledExpression compiled = CompiledExpression.compile(new ExpressionParser().parse("k*S/(km+S)"));
+        int kSlot = compiled.getSlot("k");
+        int sSlot = compiled.getSlot("S");
+        int kmSlot = compiled.getSlot("km");
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (int task = 0; task < 8; task++) {
+                double substrate = task + 1.0;
+                results.add(executor.submit(() -> {
+                    double[] slots = compiled.createSlots();
+                    slots[kSlot] = 2.0;
+                    slots[kmSlot] = 1.0;
+                    slots[sSlot] = substrate;
+                    for (int repetition = 0; repetition < 10000; repetition++) {
+                        if (compiled.evaluate(slots) != 2.0 * substrate / (1.0 + substrate)) {
+                            return false;
+                        }
+                    }
+                    return true;
+                }));
+            }
+            for (Future<Boolean> result : results) {
+                assertTrue(result.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+}